@@ -42,4 +42,12 @@ public interface AuditLogService {
      * 
      */
     void initialize(PropertyGroup auditLogProperties) throws Exception;
+
+    /**
+     * Releases any resources held by the audit log service (e.g. sends the audit
+     * log entries that are still buffered). Called when the FHIR server is shut down.
+     */
+    default void stop() {
+        // nothing to release by default
+    }
 }
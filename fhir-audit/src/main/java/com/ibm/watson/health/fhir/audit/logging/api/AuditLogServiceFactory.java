@@ -120,4 +120,18 @@ public class AuditLogServiceFactory {
         return newService;
     }
 
+    /**
+     * Stops the cached audit log service (if any) and nulls out the singleton instance.
+     */
+    public static synchronized void shutdownService() {
+        final String METHODNAME = "shutdownService";
+        log.entering(CLASSNAME, METHODNAME);
+
+        if (serviceInstance != null) {
+            serviceInstance.stop();
+            serviceInstance = null;
+        }
+        log.exiting(CLASSNAME, METHODNAME);
+    }
+
 }
@@ -0,0 +1,440 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.audit.logging.impl;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+
+import com.ibm.watson.health.fhir.audit.logging.beans.AuditLogEntry;
+
+/**
+ * An asynchronous pipeline that sends audit log entries to a Kafka topic.
+ *
+ * <p>Entries are added to a bounded in-memory buffer by the request threads and are serialized and handed to the
+ * Kafka producer in batches by a single background sender thread. The producer sends asynchronously, so neither the
+ * request threads nor the sender wait for the broker. When the buffer is full, the configured {@link OverflowPolicy}
+ * decides whether the request thread waits for space, the entry is dropped or the entry is appended to a local spill
+ * file. Entries that could not be sent are also written to the spill file when the spill policy is used.
+ *
+ * <p>The counters and latencies (from the time an entry was added to the time it was acknowledged by the broker)
+ * are available through the getter methods and are logged when the pipeline is stopped.
+ */
+public class AuditEventPipeline {
+    private static final Logger logger = java.util.logging.Logger.getLogger(AuditEventPipeline.class.getName());
+    private static final String CLASSNAME = AuditEventPipeline.class.getName();
+
+    public static final int DEFAULT_BUFFER_SIZE = 10000;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * What to do with an entry when the buffer is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait (up to the block timeout) for space in the buffer, then drop the entry
+         */
+        BLOCK,
+        /**
+         * Drop the entry
+         */
+        DROP,
+        /**
+         * Append the entry to the spill file
+         */
+        SPILL;
+
+        public static OverflowPolicy from(String value) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(value)) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Invalid audit overflow policy: " + value);
+        }
+    }
+
+    /**
+     * Converts an audit log entry to the message that is sent to Kafka
+     */
+    @FunctionalInterface
+    public interface EventSerializer {
+        /**
+         * @return the message or null if the entry should not be sent
+         */
+        String serialize(AuditLogEntry logEntry) throws Exception;
+    }
+
+    private final Producer<String, String> producer;
+    private final String topic;
+    private final EventSerializer serializer;
+    private final BlockingQueue<PendingEntry> buffer;
+    private final int batchSize;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMillis;
+    private final Path spillFile;
+    private final Thread sender;
+
+    private volatile boolean running = true;
+    private BufferedWriter spillWriter;
+
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong spilledCount = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    private AuditEventPipeline(Builder builder) {
+        this.producer = Objects.requireNonNull(builder.producer, "producer");
+        this.topic = Objects.requireNonNull(builder.topic, "topic");
+        this.serializer = Objects.requireNonNull(builder.serializer, "serializer");
+        this.buffer = new ArrayBlockingQueue<>(builder.bufferSize);
+        this.batchSize = builder.batchSize;
+        this.overflowPolicy = builder.overflowPolicy;
+        this.blockTimeoutMillis = builder.blockTimeoutMillis;
+        this.spillFile = builder.spillFile;
+        if (overflowPolicy == OverflowPolicy.SPILL && spillFile == null) {
+            throw new IllegalArgumentException("A spill file is required for the spill overflow policy");
+        }
+        this.sender = new Thread(this::run, "fhir-audit-sender");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Add an entry to the pipeline. This method only waits when the buffer is full and the overflow policy is
+     * {@link OverflowPolicy#BLOCK}.
+     *
+     * @param logEntry
+     *     the audit log entry to be sent
+     * @return
+     *     true if the entry was accepted (added to the buffer or spilled), false if it was dropped
+     */
+    public boolean add(AuditLogEntry logEntry) {
+        if (!running) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        PendingEntry pendingEntry = new PendingEntry(logEntry, System.nanoTime());
+        boolean added = buffer.offer(pendingEntry);
+        if (!added) {
+            switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    added = buffer.offer(pendingEntry, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                break;
+            case SPILL:
+                return spill(logEntry);
+            case DROP:
+            default:
+                break;
+            }
+        }
+        if (added) {
+            enqueuedCount.incrementAndGet();
+        } else {
+            droppedCount.incrementAndGet();
+            logger.warning("Audit log buffer is full; dropped an audit log entry");
+        }
+        return added;
+    }
+
+    /**
+     * Stop accepting entries, send the entries that are still buffered (waiting up to the specified timeout) and
+     * flush the producer. The producer itself is not closed.
+     *
+     * @param timeoutMillis
+     *     the maximum time to wait for the buffered entries to be sent
+     */
+    public void stop(long timeoutMillis) {
+        final String METHODNAME = "stop";
+        logger.entering(CLASSNAME, METHODNAME);
+
+        running = false;
+        try {
+            sender.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (sender.isAlive()) {
+            sender.interrupt();
+        }
+        try {
+            producer.flush();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to flush the audit log producer", e);
+        }
+        // entries that were not sent in time
+        List<PendingEntry> remaining = new ArrayList<>();
+        buffer.drainTo(remaining);
+        for (PendingEntry pendingEntry : remaining) {
+            if (overflowPolicy == OverflowPolicy.SPILL) {
+                spill(pendingEntry.logEntry);
+            } else {
+                droppedCount.incrementAndGet();
+            }
+        }
+        closeSpillWriter();
+        logger.info("Stopped audit log pipeline: " + this);
+
+        logger.exiting(CLASSNAME, METHODNAME);
+    }
+
+    private void run() {
+        List<PendingEntry> batch = new ArrayList<>(batchSize);
+        while (running || !buffer.isEmpty()) {
+            try {
+                PendingEntry first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, batchSize - 1);
+                for (PendingEntry pendingEntry : batch) {
+                    send(pendingEntry);
+                }
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Sent a batch of " + batch.size() + " audit log entries: " + this);
+                }
+            } catch (InterruptedException e) {
+                // stop() timed out
+                for (PendingEntry pendingEntry : batch) {
+                    buffer.offer(pendingEntry);
+                }
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(PendingEntry pendingEntry) {
+        String message;
+        try {
+            message = serializer.serialize(pendingEntry.logEntry);
+        } catch (Exception e) {
+            failedCount.incrementAndGet();
+            logger.log(Level.WARNING, "Failed to serialize an audit log entry", e);
+            return;
+        }
+        if (message == null) {
+            return;
+        }
+        try {
+            producer.send(new ProducerRecord<String, String>(topic, message), (metadata, exception) -> {
+                if (exception == null) {
+                    sentCount.incrementAndGet();
+                    long latency = System.nanoTime() - pendingEntry.enqueueTime;
+                    totalLatencyNanos.addAndGet(latency);
+                    maxLatencyNanos.accumulateAndGet(latency, Math::max);
+                } else {
+                    failed(message, exception);
+                }
+            });
+        } catch (Exception e) {
+            failed(message, e);
+        }
+    }
+
+    private void failed(String message, Exception exception) {
+        failedCount.incrementAndGet();
+        logger.log(Level.WARNING, "Failed to send an audit log entry", exception);
+        if (overflowPolicy == OverflowPolicy.SPILL) {
+            spill(message);
+        }
+    }
+
+    private boolean spill(AuditLogEntry logEntry) {
+        try {
+            String message = serializer.serialize(logEntry);
+            return (message == null) || spill(message);
+        } catch (Exception e) {
+            failedCount.incrementAndGet();
+            logger.log(Level.WARNING, "Failed to serialize an audit log entry", e);
+            return false;
+        }
+    }
+
+    /**
+     * Append a message to the spill file (one message per line)
+     */
+    private synchronized boolean spill(String message) {
+        try {
+            if (spillWriter == null) {
+                spillWriter = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+            }
+            spillWriter.write(message);
+            spillWriter.newLine();
+            spillWriter.flush();
+            spilledCount.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            droppedCount.incrementAndGet();
+            logger.log(Level.SEVERE, "Failed to write an audit log entry to spill file: " + spillFile, e);
+            return false;
+        }
+    }
+
+    private synchronized void closeSpillWriter() {
+        if (spillWriter != null) {
+            try {
+                spillWriter.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to close spill file: " + spillFile, e);
+            }
+            spillWriter = null;
+        }
+    }
+
+    /**
+     * @return the number of entries that are waiting in the buffer
+     */
+    public int getQueueDepth() {
+        return buffer.size();
+    }
+
+    public long getEnqueuedCount() {
+        return enqueuedCount.get();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    /**
+     * @return the average time in milliseconds from adding an entry to its acknowledgement by the broker
+     */
+    public double getAverageLatencyMillis() {
+        long sent = sentCount.get();
+        return (sent == 0) ? 0 : (totalLatencyNanos.get() / (double) sent) / 1000000;
+    }
+
+    /**
+     * @return the maximum time in milliseconds from adding an entry to its acknowledgement by the broker
+     */
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1000000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("queueDepth=%d, enqueued=%d, sent=%d, failed=%d, dropped=%d, spilled=%d, avgLatencyMs=%.2f, maxLatencyMs=%.2f",
+            getQueueDepth(), getEnqueuedCount(), getSentCount(), getFailedCount(), getDroppedCount(), getSpilledCount(),
+            getAverageLatencyMillis(), getMaxLatencyMillis());
+    }
+
+    private static class PendingEntry {
+        private final AuditLogEntry logEntry;
+        private final long enqueueTime;
+
+        private PendingEntry(AuditLogEntry logEntry, long enqueueTime) {
+            this.logEntry = logEntry;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    public static class Builder {
+        private Producer<String, String> producer;
+        private String topic;
+        private EventSerializer serializer;
+        private int bufferSize = DEFAULT_BUFFER_SIZE;
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+        private long blockTimeoutMillis = DEFAULT_BLOCK_TIMEOUT_MILLIS;
+        private Path spillFile;
+
+        private Builder() { }
+
+        public Builder producer(Producer<String, String> producer) {
+            this.producer = producer;
+            return this;
+        }
+
+        public Builder topic(String topic) {
+            this.topic = topic;
+            return this;
+        }
+
+        public Builder serializer(EventSerializer serializer) {
+            this.serializer = serializer;
+            return this;
+        }
+
+        public Builder bufferSize(int bufferSize) {
+            if (bufferSize < 1) {
+                throw new IllegalArgumentException("Invalid audit buffer size: " + bufferSize);
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        public Builder batchSize(int batchSize) {
+            if (batchSize < 1) {
+                throw new IllegalArgumentException("Invalid audit batch size: " + batchSize);
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "overflowPolicy");
+            return this;
+        }
+
+        public Builder blockTimeoutMillis(long blockTimeoutMillis) {
+            this.blockTimeoutMillis = blockTimeoutMillis;
+            return this;
+        }
+
+        public Builder spillFile(Path spillFile) {
+            this.spillFile = spillFile;
+            return this;
+        }
+
+        public AuditEventPipeline build() {
+            return new AuditEventPipeline(this);
+        }
+    }
+}
@@ -6,6 +6,7 @@
 
 package com.ibm.watson.health.fhir.audit.logging.impl;
 
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -50,6 +51,12 @@ public class WhcAuditCadfLogService implements AuditLogService {
     private static final String PROPERTY_AUDIT_GEO_CITY = "geoCity";
     private static final String PROPERTY_AUDIT_GEO_STATE = "geoState";
     private static final String PROPERTY_AUDIT_GEO_COUNTRY = "geoCounty";
+    private static final String PROPERTY_AUDIT_ASYNC_ENABLED = "asyncEnabled";
+    private static final String PROPERTY_AUDIT_BUFFER_SIZE = "bufferSize";
+    private static final String PROPERTY_AUDIT_BATCH_SIZE = "batchSize";
+    private static final String PROPERTY_AUDIT_OVERFLOW_POLICY = "overflowPolicy";
+    private static final String PROPERTY_AUDIT_BLOCK_TIMEOUT_MS = "blockTimeoutMs";
+    private static final String PROPERTY_AUDIT_SPILL_FILE = "spillFile";
     private static final String HEALTHCHECKOP = "healthcheck";
 
     private static final String KAFKA_USERNAME = "token";
@@ -57,8 +64,11 @@ public class WhcAuditCadfLogService implements AuditLogService {
     private static final String DEFAULT_AUDIT_GEO_CITY = "Dallas";
     private static final String DEFAULT_AUDIT_GEO_STATE = "TX";
     private static final String DEFAULT_AUDIT_GEO_COUNTRY = "US";
+    private static final String DEFAULT_AUDIT_SPILL_FILE_NAME = "fhir-audit-spill.log";
+    private static final long STOP_TIMEOUT_MILLIS = 10000;
 
     private KafkaProducer<String, String> producer = null;
+    private AuditEventPipeline pipeline = null;
     private static String bootstrapServers = null;
     private static String apiKey = null;
     private static String auditTopic = DEFAULT_AUDIT_KAFKA_TOPIC;
@@ -156,15 +166,52 @@ public class WhcAuditCadfLogService implements AuditLogService {
 
         if (this.producer == null) {
             throw new FHIRException("Failed to init kafka producer!");
-        } else {
-            logger.info("Initialized Audit logger.");
-            this.isEnabled = true;
         }
 
+        // By default, each entry is sent before the request completes. When enabled, entries are sent by a background
+        // thread so that requests don't wait for kafka.
+        if (auditLogProperties != null && auditLogProperties.getBooleanProperty(PROPERTY_AUDIT_ASYNC_ENABLED, Boolean.FALSE)) {
+            this.pipeline = createPipeline(auditLogProperties);
+        }
+
+        logger.info("Initialized Audit logger" + (this.pipeline != null ? " (asynchronous)." : "."));
+        this.isEnabled = true;
+
         logger.exiting(CLASSNAME, METHODNAME);
 
     }
 
+    private AuditEventPipeline createPipeline(PropertyGroup auditLogProperties) throws Exception {
+        AuditEventPipeline.Builder builder = AuditEventPipeline.builder()
+                .producer(this.producer)
+                .topic(auditTopic)
+                .serializer(WhcAuditCadfLogService::toEventString);
+        String spillFile = null;
+        if (auditLogProperties != null) {
+            builder.bufferSize(auditLogProperties.getIntProperty(PROPERTY_AUDIT_BUFFER_SIZE, AuditEventPipeline.DEFAULT_BUFFER_SIZE))
+                    .batchSize(auditLogProperties.getIntProperty(PROPERTY_AUDIT_BATCH_SIZE, AuditEventPipeline.DEFAULT_BATCH_SIZE))
+                    .blockTimeoutMillis(auditLogProperties.getIntProperty(PROPERTY_AUDIT_BLOCK_TIMEOUT_MS, (int) AuditEventPipeline.DEFAULT_BLOCK_TIMEOUT_MILLIS));
+            // Entries which can't be buffered or sent are only kept with the spill policy, so that is the default.
+            String overflowPolicy = auditLogProperties.getStringProperty(PROPERTY_AUDIT_OVERFLOW_POLICY, null);
+            builder.overflowPolicy(overflowPolicy != null ? AuditEventPipeline.OverflowPolicy.from(overflowPolicy) : AuditEventPipeline.OverflowPolicy.SPILL);
+            spillFile = auditLogProperties.getStringProperty(PROPERTY_AUDIT_SPILL_FILE, null);
+        }
+        if (spillFile == null) {
+            spillFile = Paths.get(System.getProperty("java.io.tmpdir"), DEFAULT_AUDIT_SPILL_FILE_NAME).toString();
+        }
+        return builder.spillFile(Paths.get(spillFile)).build();
+    }
+
+    /**
+     * @param logEntry
+     * @return the CADF event (JSON) for the log entry or null if the entry is not audited
+     * @throws Exception
+     */
+    private static String toEventString(AuditLogEntry logEntry) throws Exception {
+        CadfEvent eventObject = createCadfEvent(logEntry);
+        return (eventObject != null) ? new CadfParser().cadf2Json(eventObject) : null;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -185,14 +232,16 @@ public class WhcAuditCadfLogService implements AuditLogService {
             return;
         }
 
-        CadfEvent eventObject = createCadfEvent(logEntry);
-
-        if (eventObject != null) {
-            CadfParser parser = new CadfParser();
-            String eventString = parser.cadf2Json(eventObject);
-            ProducerRecord<String, String> record = new ProducerRecord<String, String>(auditTopic, eventString);
-            // Block till the message is sent to kafka server.
-            this.producer.send(record).get();
+        if (this.pipeline != null) {
+            // The CADF event is created and sent by the pipeline's sender thread.
+            this.pipeline.add(logEntry);
+        } else {
+            String eventString = toEventString(logEntry);
+            if (eventString != null) {
+                ProducerRecord<String, String> record = new ProducerRecord<String, String>(auditTopic, eventString);
+                // Block till the message is sent to kafka server.
+                this.producer.send(record).get();
+            }
         }
 
         logger.exiting(CLASSNAME, METHODNAME);
@@ -272,8 +321,20 @@ public class WhcAuditCadfLogService implements AuditLogService {
         return event;
     }
 
-    // release kafka resource for producer
+    /**
+     * @return the asynchronous pipeline used to send the audit log entries or null if entries are sent synchronously
+     */
+    public AuditEventPipeline getPipeline() {
+        return this.pipeline;
+    }
+
+    // send the buffered entries, then release kafka resource for producer
+    @Override
     public void stop() {
+        if (this.pipeline != null) {
+            this.pipeline.stop(STOP_TIMEOUT_MILLIS);
+            this.pipeline = null;
+        }
         if (this.producer != null) {
             try {
                 this.producer.close();
@@ -0,0 +1,175 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.audit.logging.test;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.audit.logging.beans.AuditLogEntry;
+import com.ibm.watson.health.fhir.audit.logging.impl.AuditEventPipeline;
+import com.ibm.watson.health.fhir.audit.logging.impl.AuditEventPipeline.OverflowPolicy;
+
+public class AuditEventPipelineTest {
+    private static final String TOPIC = "FHIR_AUDIT";
+
+    @Test
+    public void testSend() throws Exception {
+        MockProducer<String, String> producer = new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+        AuditEventPipeline pipeline = AuditEventPipeline.builder()
+                .producer(producer)
+                .topic(TOPIC)
+                .serializer(AuditLogEntry::getCorrelationId)
+                .batchSize(10)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(pipeline.add(entry("entry-" + i)));
+        }
+        pipeline.stop(5000);
+
+        List<ProducerRecord<String, String>> history = producer.history();
+        assertEquals(100, history.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(TOPIC, history.get(i).topic());
+            assertEquals("entry-" + i, history.get(i).value());
+        }
+        assertEquals(100, pipeline.getEnqueuedCount());
+        assertEquals(100, pipeline.getSentCount());
+        assertEquals(0, pipeline.getQueueDepth());
+        assertEquals(0, pipeline.getDroppedCount());
+        assertTrue(pipeline.getMaxLatencyMillis() >= pipeline.getAverageLatencyMillis());
+
+        // entries are not accepted after the pipeline was stopped
+        assertFalse(pipeline.add(entry("late")));
+        assertEquals(1, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void testSendFailureSpilled() throws Exception {
+        Path spillFile = Files.createTempFile("fhir-audit-spill", ".log");
+        try {
+            MockProducer<String, String> producer = new MockProducer<>(false, new StringSerializer(), new StringSerializer());
+            AuditEventPipeline pipeline = AuditEventPipeline.builder()
+                    .producer(producer)
+                    .topic(TOPIC)
+                    .serializer(AuditLogEntry::getCorrelationId)
+                    .overflowPolicy(OverflowPolicy.SPILL)
+                    .spillFile(spillFile)
+                    .build();
+            pipeline.add(entry("ok"));
+            pipeline.add(entry("failed"));
+            waitFor(() -> producer.history().size() == 2);
+
+            producer.completeNext();
+            producer.errorNext(new RuntimeException("broker not available"));
+            pipeline.stop(5000);
+
+            assertEquals(1, pipeline.getSentCount());
+            assertEquals(1, pipeline.getFailedCount());
+            assertEquals(1, pipeline.getSpilledCount());
+            assertEquals("failed", read(spillFile));
+        } finally {
+            Files.deleteIfExists(spillFile);
+        }
+    }
+
+    @Test
+    public void testOverflowDrop() throws Exception {
+        testOverflow(OverflowPolicy.DROP, null);
+    }
+
+    @Test
+    public void testOverflowBlock() throws Exception {
+        testOverflow(OverflowPolicy.BLOCK, null);
+    }
+
+    @Test
+    public void testOverflowSpill() throws Exception {
+        Path spillFile = Files.createTempFile("fhir-audit-spill", ".log");
+        try {
+            testOverflow(OverflowPolicy.SPILL, spillFile);
+            assertEquals("overflow", read(spillFile));
+        } finally {
+            Files.deleteIfExists(spillFile);
+        }
+    }
+
+    /**
+     * Hold the sender thread in the serializer so that the buffer (size 1) fills up
+     */
+    private void testOverflow(OverflowPolicy overflowPolicy, Path spillFile) throws Exception {
+        MockProducer<String, String> producer = new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+        CountDownLatch serializing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AuditEventPipeline pipeline = AuditEventPipeline.builder()
+                .producer(producer)
+                .topic(TOPIC)
+                .serializer(logEntry -> {
+                    if ("first".equals(logEntry.getCorrelationId())) {
+                        serializing.countDown();
+                        release.await();
+                    }
+                    return logEntry.getCorrelationId();
+                })
+                .bufferSize(1)
+                .overflowPolicy(overflowPolicy)
+                .blockTimeoutMillis(100)
+                .spillFile(spillFile)
+                .build();
+        pipeline.add(entry("first"));
+        assertTrue(serializing.await(5, TimeUnit.SECONDS));
+        assertTrue(pipeline.add(entry("second")));
+        assertEquals(1, pipeline.getQueueDepth());
+
+        boolean added = pipeline.add(entry("overflow"));
+        release.countDown();
+        pipeline.stop(5000);
+
+        List<String> sent = producer.history().stream().map(ProducerRecord::value).collect(Collectors.toList());
+        if (overflowPolicy == OverflowPolicy.SPILL) {
+            assertTrue(added);
+            assertEquals(1, pipeline.getSpilledCount());
+            assertEquals(0, pipeline.getDroppedCount());
+        } else {
+            assertFalse(added);
+            assertEquals(1, pipeline.getDroppedCount());
+        }
+        assertFalse(sent.contains("overflow"));
+        assertEquals(2, pipeline.getSentCount());
+    }
+
+    private static AuditLogEntry entry(String correlationId) {
+        AuditLogEntry entry = new AuditLogEntry("fhir-server", "fhir-create", "2019-10-01 00:00:00.000", "127.0.0.1", "default");
+        entry.setCorrelationId(correlationId);
+        return entry;
+    }
+
+    private static String read(Path file) throws Exception {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
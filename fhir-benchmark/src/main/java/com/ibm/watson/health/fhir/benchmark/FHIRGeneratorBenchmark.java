@@ -8,8 +8,17 @@ package com.ibm.watson.health.fhir.benchmark;
 
 import static com.ibm.watson.health.fhir.benchmark.runner.FHIRBenchmarkRunner.PROPERTY_EXAMPLE_NAME;
 
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonWriter;
+import javax.json.JsonWriterFactory;
+import javax.json.stream.JsonGenerator;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.openjdk.jmh.annotations.Benchmark;
@@ -30,22 +39,31 @@ public class FHIRGeneratorBenchmark {
     @State(Scope.Benchmark)
     public static class FHIRGeneratorState {
         public static final Writer NOP_WRITER = BenchmarkUtil.createNOPWriter();
+        public static final OutputStream NOP_OUTPUT_STREAM = BenchmarkUtil.createNOPOutputStream();
         public static final String SPEC_EXAMPLE_NAME = System.getProperty(PROPERTY_EXAMPLE_NAME);
         public static final String JSON_SPEC_EXAMPLE = BenchmarkUtil.getSpecExample(Format.JSON, SPEC_EXAMPLE_NAME);
         public static final String XML_SPEC_EXAMPLE = BenchmarkUtil.getSpecExample(Format.XML, SPEC_EXAMPLE_NAME);
         
         public FhirContext context;
         public FHIRGenerator jsonGenerator;
+        public FHIRGenerator prettyJsonGenerator;
         public FHIRGenerator xmlGenerator;
+        public JsonWriterFactory jsonWriterFactory;
+        public JsonWriterFactory prettyJsonWriterFactory;
         public Resource resource;
+        public JsonObject jsonObject;
         public IBaseResource baseResource;
         
         @Setup
         public void setUp() throws Exception {            
             context = FhirContext.forR4();
             jsonGenerator = FHIRGenerator.generator(Format.JSON);
+            prettyJsonGenerator = FHIRGenerator.generator(Format.JSON, true);
             xmlGenerator = FHIRGenerator.generator(Format.XML);
+            jsonWriterFactory = Json.createWriterFactory(null);
+            prettyJsonWriterFactory = Json.createWriterFactory(Collections.singletonMap(JsonGenerator.PRETTY_PRINTING, true));
             resource = FHIRParser.parser(Format.JSON).parse(new StringReader(JSON_SPEC_EXAMPLE));
+            jsonObject = Json.createReader(new StringReader(JSON_SPEC_EXAMPLE)).readObject();
             baseResource = context.newJsonParser().parseResource(new StringReader(JSON_SPEC_EXAMPLE));
         }
     }
@@ -55,6 +73,33 @@ public class FHIRGeneratorBenchmark {
         state.jsonGenerator.generate(state.resource, FHIRGeneratorState.NOP_WRITER);
     }
     
+    @Benchmark
+    public void benchmarkJsonGeneratorOutputStream(FHIRGeneratorState state) throws Exception {
+        state.jsonGenerator.generate(state.resource, FHIRGeneratorState.NOP_OUTPUT_STREAM);
+    }
+    
+    @Benchmark
+    public void benchmarkPrettyJsonGeneratorOutputStream(FHIRGeneratorState state) throws Exception {
+        state.prettyJsonGenerator.generate(state.resource, FHIRGeneratorState.NOP_OUTPUT_STREAM);
+    }
+    
+    /**
+     * Baseline for the JSON generator benchmarks: the javax.json reference implementation writing the equivalent JsonObject
+     */
+    @Benchmark
+    public void benchmarkJavaxJsonWriterOutputStream(FHIRGeneratorState state) throws Exception {
+        try (JsonWriter writer = state.jsonWriterFactory.createWriter(FHIRGeneratorState.NOP_OUTPUT_STREAM, StandardCharsets.UTF_8)) {
+            writer.writeObject(state.jsonObject);
+        }
+    }
+    
+    @Benchmark
+    public void benchmarkPrettyJavaxJsonWriterOutputStream(FHIRGeneratorState state) throws Exception {
+        try (JsonWriter writer = state.prettyJsonWriterFactory.createWriter(FHIRGeneratorState.NOP_OUTPUT_STREAM, StandardCharsets.UTF_8)) {
+            writer.writeObject(state.jsonObject);
+        }
+    }
+    
     @Benchmark
     public void benchmarkXMLGenerator(FHIRGeneratorState state) throws Exception {
         state.xmlGenerator.generate(state.resource, FHIRGeneratorState.NOP_WRITER);
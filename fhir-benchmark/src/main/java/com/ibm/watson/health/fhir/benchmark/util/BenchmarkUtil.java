@@ -8,6 +8,7 @@ package com.ibm.watson.health.fhir.benchmark.util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
@@ -83,6 +84,20 @@ public final class BenchmarkUtil {
         return SPEC_EXAMPLE_NAMES.get(RANDOM.nextInt(SPEC_EXAMPLE_NAMES.size()));
     }
     
+    public static OutputStream createNOPOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                // do nothing
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                // do nothing
+            }
+        };
+    }
+    
     public static Writer createNOPWriter() {
         return new Writer() {
             @Override
@@ -41,10 +41,15 @@ public class FHIRConfiguration {
     public static final String PROPERTY_USE_UUIDS = "fhirServer/persistence/jpa/useUUIDs";
     public static final String PROPERTY_SCHEMA_NAME = "fhirServer/persistence/jpa/schemaName";
     public static final String PROPERTY_NOTIFICATION_RESOURCE_TYPES = "fhirServer/notifications/common/includeResourceTypes";
+    public static final String PROPERTY_NOTIFICATION_QUEUE_SIZE = "fhirServer/notifications/common/queueSize";
+    public static final String PROPERTY_NOTIFICATION_COALESCE_UPDATES = "fhirServer/notifications/common/coalesceUpdates";
     public static final String PROPERTY_WEBSOCKET_ENABLED = "fhirServer/notifications/websocket/enabled";
     public static final String PROPERTY_KAFKA_ENABLED = "fhirServer/notifications/kafka/enabled";
     public static final String PROPERTY_KAFKA_TOPICNAME = "fhirServer/notifications/kafka/topicName";
     public static final String PROPERTY_KAFKA_CONNECTIONPROPS = "fhirServer/notifications/kafka/connectionProperties";
+    public static final String PROPERTY_KAFKA_LINGER_MS = "fhirServer/notifications/kafka/lingerMs";
+    public static final String PROPERTY_KAFKA_BATCH_SIZE = "fhirServer/notifications/kafka/batchSize";
+    public static final String PROPERTY_KAFKA_COMPRESSION_TYPE = "fhirServer/notifications/kafka/compressionType";
     public static final String PROPERTY_PERSISTENCE_FACTORY = "fhirServer/persistence/factoryClassname";
     public static final String PROPERTY_CLOUDANT_URL = "fhirServer/persistence/cloudant/url";
     public static final String PROPERTY_CLOUDANT_USERNAME = "fhirServer/persistence/cloudant/username";
@@ -54,16 +59,37 @@ public class FHIRConfiguration {
     public static final String PROPERTY_JDBC_BOOTSTRAP_DB = "fhirServer/persistence/jdbc/bootstrapDb";
     public static final String PROPERTY_JDBC_SCHEMA_TYPE = "fhirServer/persistence/jdbc/schemaType";
     public static final String PROPERTY_JDBC_DATASOURCE_JNDINAME = "fhirServer/persistence/jdbc/dataSourceJndiName";
+    public static final String PROPERTY_JDBC_ADMIN_SCHEMA_NAME = "fhirServer/persistence/jdbc/adminSchemaName";
     public static final String PROPERTY_JDBC_ENABLE_CODE_SYSTEMS_CACHE = "fhirServer/persistence/jdbc/enableCodeSystemsCache";
     public static final String PROPERTY_JDBC_ENABLE_PARAMETER_NAMES_CACHE = "fhirServer/persistence/jdbc/enableParameterNamesCache";
     public static final String PROPERTY_JDBC_ENABLE_RESOURCE_TYPES_CACHE = "fhirServer/persistence/jdbc/enableResourceTypesCache";
+    public static final String PROPERTY_JDBC_ENABLE_RESOURCE_CACHE = "fhirServer/persistence/jdbc/enableResourceCache";
+    public static final String PROPERTY_JDBC_RESOURCE_CACHE_SIZE_MB = "fhirServer/persistence/jdbc/resourceCacheSizeMB";
+    public static final String PROPERTY_JDBC_ENABLE_SEARCH_CACHE = "fhirServer/persistence/jdbc/enableSearchCache";
+    public static final String PROPERTY_JDBC_SEARCH_CACHE_MAX_ENTRIES = "fhirServer/persistence/jdbc/searchCacheMaxEntries";
+    public static final String PROPERTY_JDBC_SEARCH_CACHE_TTL_SECONDS = "fhirServer/persistence/jdbc/searchCacheTTLSeconds";
+    public static final String PROPERTY_JDBC_ID_CACHE_MAX_ENTRIES = "fhirServer/persistence/jdbc/idCacheMaxEntries";
+    public static final String PROPERTY_JDBC_ID_CACHE_MAX_AGE_SECONDS = "fhirServer/persistence/jdbc/idCacheMaxAgeSeconds";
+    public static final String PROPERTY_JDBC_ENABLE_TEXT_INDEX = "fhirServer/persistence/jdbc/enableTextIndex";
+    public static final String PROPERTY_JDBC_TEXT_INDEX_QUEUE_SIZE = "fhirServer/persistence/jdbc/textIndexQueueSize";
     public static final String PROPERTY_TENANT_ID_HEADER_NAME = "fhirServer/core/tenantIdHeaderName";
     public static final String PROPERTY_DATASTORE_ID_HEADER_NAME = "fhirServer/core/datastoreIdHeaderName";
     public static final String PROPERTY_DEFAULT_TENANT_ID = "fhirServer/core/defaultTenantId";
     public static final String PROPERTY_DEFAULT_PRETTY_PRINT = "fhirServer/core/defaultPrettyPrint";
     public static final String PROPERTY_JSON_PARSER_LENIENT = "fhirServer/core/jsonParserLenient";
     public static final String PROPERTY_JSON_PARSER_VALIDATING = "fhirServer/core/jsonParserValidating";
+    public static final String PROPERTY_BATCH_PARALLELISM = "fhirServer/core/batchParallelism";
+    public static final String PROPERTY_MODEL_INTERNING_ENABLED = "fhirServer/core/modelInterningEnabled";
+    public static final String PROPERTY_MODEL_INTERNING_MAX_SIZE = "fhirServer/core/modelInterningMaxSize";
+    public static final String PROPERTY_MODEL_JSON_CACHING_ENABLED = "fhirServer/core/modelJsonCachingEnabled";
     public static final String PROPERTY_DATASOURCES = "fhirServer/persistence/datasources";
+    public static final String PROPERTY_BULKDATA_OUTPUT_DIRECTORY = "fhirServer/bulkdata/outputDirectory";
+    public static final String PROPERTY_BULKDATA_PARALLELISM = "fhirServer/bulkdata/parallelism";
+    public static final String PROPERTY_BULKDATA_FETCH_SIZE = "fhirServer/bulkdata/fetchSize";
+    public static final String PROPERTY_BULKDATA_PARTITION_SIZE = "fhirServer/bulkdata/partitionSize";
+    public static final String PROPERTY_BULKDATA_IMPORT_BATCH_SIZE = "fhirServer/bulkdata/importBatchSize";
+    public static final String PROPERTY_BULKDATA_IMPORT_ALLOWED_URLS = "fhirServer/bulkdata/importAllowedUrls";
+    public static final String PROPERTY_BULKDATA_JOB_RETENTION_MINUTES = "fhirServer/bulkdata/jobRetentionMinutes";
     public static final String PROPERTY_SEARCH_PARAMETER_FILTER = "fhirServer/searchParameterFilter";
     public static final String PROPERTY_AUTHFILTER_ENABLED = "fhirServer/authFilter/enabled";
     public static final String PROPERTY_AUTHORIZED_CLIENT_CERT_CLIENT_CN = "fhirServer/authFilter/authorizedClientCertClientCN";
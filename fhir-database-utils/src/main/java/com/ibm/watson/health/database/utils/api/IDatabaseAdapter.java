@@ -15,6 +15,7 @@ import com.ibm.watson.health.database.utils.model.PartitionDef;
 import com.ibm.watson.health.database.utils.model.PrimaryKeyDef;
 import com.ibm.watson.health.database.utils.model.Privilege;
 import com.ibm.watson.health.database.utils.model.Table;
+import com.ibm.watson.health.task.api.ITaskCollector;
 
 /**
  * Abstraction of the SQL to use for a given database. This allows us to
@@ -226,6 +227,17 @@ public interface IDatabaseAdapter {
      */
     public void createTenantPartitions(Collection<Table> tables, String schemaName, int newTenantId, int extentSizeKB);
 
+    /**
+     * Add the tasks needed to create the partitions on each of these tables to the
+     * given collector. The caller is responsible for running the collected tasks.
+     * @param tc
+     * @param tables
+     * @param schemaName
+     * @param newTenantId
+     * @param extentSizeKB
+     */
+    public void collectTenantPartitions(ITaskCollector tc, Collection<Table> tables, String schemaName, int newTenantId, int extentSizeKB);
+
     /**
      * Detach the partitions from each of the given tables. The tenantStaingTable is the name
      * of the table used to record the "into" table name that the detached partition becomes.
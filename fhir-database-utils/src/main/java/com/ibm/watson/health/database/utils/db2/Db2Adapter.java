@@ -8,21 +8,21 @@ package com.ibm.watson.health.database.utils.db2;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import com.ibm.watson.health.database.utils.api.DataAccessException;
 import com.ibm.watson.health.database.utils.api.IConnectionProvider;
 import com.ibm.watson.health.database.utils.api.IDatabaseTarget;
-import com.ibm.watson.health.database.utils.api.ITransaction;
+import com.ibm.watson.health.database.utils.api.ITransactionProvider;
 import com.ibm.watson.health.database.utils.api.PartitionInfo;
 import com.ibm.watson.health.database.utils.api.UndefinedNameException;
 import com.ibm.watson.health.database.utils.common.CommonDatabaseAdapter;
@@ -31,7 +31,11 @@ import com.ibm.watson.health.database.utils.model.ColumnBase;
 import com.ibm.watson.health.database.utils.model.IntColumn;
 import com.ibm.watson.health.database.utils.model.PrimaryKeyDef;
 import com.ibm.watson.health.database.utils.model.Table;
-import com.ibm.watson.health.database.utils.transaction.TransactionFactory;
+import com.ibm.watson.health.database.utils.transaction.SimpleTransactionProvider;
+import com.ibm.watson.health.database.utils.transaction.TransactionRetry;
+import com.ibm.watson.health.task.api.ITaskCollector;
+import com.ibm.watson.health.task.api.ITaskGroup;
+import com.ibm.watson.health.task.core.service.TaskService;
 
 /**
  * Implementation of our database adapter which provides implementation of control
@@ -41,6 +45,9 @@ import com.ibm.watson.health.database.utils.transaction.TransactionFactory;
  */
 public class Db2Adapter extends CommonDatabaseAdapter {
     private static final Logger logger = Logger.getLogger(Db2Adapter.class.getName());
+
+    // The number of threads used by createTenantPartitions
+    private static final int PARTITION_THREADS = 40;
         
     /**
      * Public constructor
@@ -151,33 +158,49 @@ public class Db2Adapter extends CommonDatabaseAdapter {
      */
     @Override
     public void createTenantPartitions(Collection<Table> tables, String schemaName, int newTenantId, int extentSizeKB) {
+        // Thread pool for parallelizing requests
+        final ExecutorService pool = Executors.newFixedThreadPool(PARTITION_THREADS);
+        try {
+            TaskService taskService = new TaskService();
+            ITaskCollector tc = taskService.makeTaskCollector(pool);
+            collectTenantPartitions(tc, tables, schemaName, newTenantId, extentSizeKB);
+            tc.startAndWait();
+
+            // A tenant with missing partitions can't be used, so make sure the caller knows
+            Collection<ITaskGroup> failedTaskGroups = tc.getFailedTaskGroups();
+            if (failedTaskGroups.size() > 0) {
+                final String failedStr = failedTaskGroups.stream().map(tg -> tg.getTaskId()).collect(Collectors.joining(","));
+                throw new DataAccessException("Tenant partition creation failed: " + failedStr);
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.ibm.watson.health.database.utils.api.IDatabaseAdapter#collectTenantPartitions(com.ibm.watson.health.task.api.ITaskCollector, java.util.Collection, java.lang.String, int, int)
+     */
+    @Override
+    public void collectTenantPartitions(ITaskCollector tc, Collection<Table> tables, String schemaName, int newTenantId, int extentSizeKB) {
         DataDefinitionUtil.assertValidName(schemaName);
-        
+        final ITransactionProvider tp = new SimpleTransactionProvider(connectionProvider);
+
         // Make sure each of our partitioned tables includes partitions up to and including
         // the maxTenantId value. Get the current values, and then fill in the gaps.
         Map<String, PartitionInfo> partitionInfoMap = new HashMap<>();
         loadPartitionInfoMap(partitionInfoMap, schemaName);
-        
+
         // Make sure there's a tablespace available for this tenant before we
-        // try to create the actual partitions
+        // try to create the actual partitions, so every partition depends on it
         final String tablespaceName = "TS_TENANT" + newTenantId;
-        try (ITransaction tx = TransactionFactory.openTransaction(connectionProvider)) {
-            try {
-                logger.info("Creating tablespace: " + tablespaceName);
-                Db2CreateTablespace createTablespace = new Db2CreateTablespace(tablespaceName, extentSizeKB);
-                runStatement(createTablespace);
-            }
-            catch (RuntimeException x) {
-                logger.severe("Create tablespace failed for " + tablespaceName + ": " + x.getMessage());
-                tx.setRollbackOnly();
-                throw x;
-            }
-        }
-        
-        // Thread pool for parallelizing requests
-        final ExecutorService pool = Executors.newFixedThreadPool(40);
-        
-        final AtomicInteger taskCount = new AtomicInteger();
+        ITaskGroup tablespaceTask = tc.makeTaskGroup("TABLESPACE:" + tablespaceName, () -> TransactionRetry.run(tp, "TABLESPACE:" + tablespaceName, () -> {
+            logger.info("Creating tablespace: " + tablespaceName);
+            Db2CreateTablespace createTablespace = new Db2CreateTablespace(tablespaceName, extentSizeKB);
+            runStatement(createTablespace);
+        }), null);
+        List<ITaskGroup> children = Collections.singletonList(tablespaceTask);
+
         for (Table t: tables) {
             String qualifiedName = t.getQualifiedName();
             PartitionInfo pi = partitionInfoMap.get(t.getObjectName());
@@ -186,69 +209,30 @@ public class Db2Adapter extends CommonDatabaseAdapter {
                 // is a fatal error
                 throw new DataAccessException("No partition information found for table: " + qualifiedName);
             }
-            else {
-                // Submit to the pool for processing
-                taskCount.incrementAndGet();
-                pool.submit(new Runnable() {
-
-                    @Override
-                    public void run() {
-                        try {
-                            createTenantPartitionsThr(t, pi, newTenantId, tablespaceName);
-                        }
-                        catch (Throwable x) {
-                            logger.log(Level.SEVERE, "tenant creation failed: " + t.getName(), x);
-                        }
-                        finally {
-                            taskCount.decrementAndGet();
-                        }
-                    }
-                });
-            }
-        }
-        
-        // Wait for all the tasks to complete
-        pool.shutdown();
-        try {
-            while (!pool.isTerminated()) {
-                logger.info("Waiting for partitioning tasks to complete: " + taskCount.get());
-                pool.awaitTermination(5000, TimeUnit.MILLISECONDS);
-            }
-        }
-        catch (InterruptedException x) {
-            // Not cool. This means that only some of the tables will have the partition assigned
-            throw new DataAccessException("Tenant partition creation did not complete");
+
+            // Each partition is created in its own transaction
+            final String taskId = "PARTITION:TENANT" + newTenantId + ":" + qualifiedName;
+            tc.makeTaskGroup(taskId, () -> TransactionRetry.run(tp, taskId, () -> addTenantPartition(t, pi, newTenantId, tablespaceName)), children);
         }
-        
     }
-    
+
     /**
-     * Ensure that the given table has all the partitions necessary up to and
-     * including the max tenant id
+     * Add the partition for the new tenant to the given table. Must be called
+     * within a transaction
      * @param t
      * @param pi
-     * @param maxTenantId
+     * @param newTenantId
+     * @param tablespaceName
      */
-    public void createTenantPartitionsThr(Table t, PartitionInfo pi, int newTenantId, String tablespaceName) {
-        
-        // Each thread needs to manage its own transaction
-        try (ITransaction tx = TransactionFactory.openTransaction(connectionProvider)) {
-            try {
-                if (pi.getHighValue() == null || pi.getHighValue().isEmpty()) {
-                    throw new IllegalArgumentException("Missing upper partition information");
-                }
-                        
-                logger.info("Adding tenant partition: TENANT" + newTenantId + " to " + t.getName());
-                Db2AddTablePartition cmd = new Db2AddTablePartition(t.getSchemaName(), t.getObjectName(), newTenantId, tablespaceName);
-                runStatement(cmd);
-                logger.info("Added tenant partition: TENANT" + newTenantId + " to " + t.getName());
-            }
-            catch (RuntimeException x) {
-                logger.severe("Rolling back transaction after tenant creation failed for table " + t.getName());
-                tx.setRollbackOnly();
-                throw x;
-            }
+    protected void addTenantPartition(Table t, PartitionInfo pi, int newTenantId, String tablespaceName) {
+        if (pi.getHighValue() == null || pi.getHighValue().isEmpty()) {
+            throw new IllegalArgumentException("Missing upper partition information");
         }
+
+        logger.info("Adding tenant partition: TENANT" + newTenantId + " to " + t.getName());
+        Db2AddTablePartition cmd = new Db2AddTablePartition(t.getSchemaName(), t.getObjectName(), newTenantId, tablespaceName);
+        runStatement(cmd);
+        logger.info("Added tenant partition: TENANT" + newTenantId + " to " + t.getName());
     }
 
     /**
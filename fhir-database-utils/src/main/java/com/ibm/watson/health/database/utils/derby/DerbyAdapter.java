@@ -20,6 +20,7 @@ import com.ibm.watson.health.database.utils.common.DataDefinitionUtil;
 import com.ibm.watson.health.database.utils.model.ColumnBase;
 import com.ibm.watson.health.database.utils.model.PrimaryKeyDef;
 import com.ibm.watson.health.database.utils.model.Table;
+import com.ibm.watson.health.task.api.ITaskCollector;
 
 /**
  * A Derby database target
@@ -142,6 +143,14 @@ public class DerbyAdapter extends CommonDatabaseAdapter {
         warnOnce(MessageKey.PARTITIONING, "Derby does not support tenant partitioning");
     }
 
+    /* (non-Javadoc)
+     * @see com.ibm.watson.health.database.utils.api.IDatabaseAdapter#collectTenantPartitions(com.ibm.watson.health.task.api.ITaskCollector, java.util.Collection, java.lang.String, int, int)
+     */
+    @Override
+    public void collectTenantPartitions(ITaskCollector tc, Collection<Table> tables, String schemaName, int newTenantId, int extentSizeKB) {
+        warnOnce(MessageKey.PARTITIONING, "Derby does not support tenant partitioning");
+    }
+
     /* (non-Javadoc)
      * @see com.ibm.watson.health.database.utils.api.IDatabaseAdapter#createRowType(java.lang.String, java.lang.String, java.util.List)
      */
@@ -6,7 +6,6 @@
 
 package com.ibm.watson.health.database.utils.model;
 
-import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -15,15 +14,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.ibm.watson.health.database.utils.api.IDatabaseAdapter;
-import com.ibm.watson.health.database.utils.api.ITransaction;
 import com.ibm.watson.health.database.utils.api.ITransactionProvider;
 import com.ibm.watson.health.database.utils.api.IVersionHistoryService;
-import com.ibm.watson.health.database.utils.api.LockException;
 import com.ibm.watson.health.database.utils.common.DataDefinitionUtil;
+import com.ibm.watson.health.database.utils.transaction.TransactionRetry;
 import com.ibm.watson.health.task.api.ITaskCollector;
 import com.ibm.watson.health.task.api.ITaskGroup;
 
@@ -34,9 +31,6 @@ import com.ibm.watson.health.task.api.ITaskGroup;
 public abstract class BaseObject implements IDatabaseObject {
     private static final Logger logger = Logger.getLogger(BaseObject.class.getName());
     
-    // Used to randomize a sleep after a deadlock failure
-    private static final SecureRandom random = new SecureRandom();
-    
     private final String schemaName;
     private final String objectName;
     private final DatabaseObjectType objectType;
@@ -191,47 +185,8 @@ public abstract class BaseObject implements IDatabaseObject {
     @Override
     public void applyTx(IDatabaseAdapter target, ITransactionProvider tp, IVersionHistoryService vhs) {
         // Wrap the apply operation in its own transaction, as this is likely
-        // being executed from a thread-pool. DB2 has some issues with deadlocks
-        // on its catalog tables (SQLCODE=-911, SQLSTATE=40001, SQLERRMC=2) when 
-        // applying schema changes in parallel, so we need a little retry loop.
-        int remainingAttempts = 10;
-        while (remainingAttempts-- > 0) {
-            try (ITransaction tx = tp.getTransaction()) {
-                try {
-                    applyVersion(target, vhs);
-                    remainingAttempts = 0; // exit the retry loop
-                }
-                catch (LockException x) {
-                    // Either a deadlock, or lock timeout, we allow the transaction to be
-                    // tried again.
-                    if (x.isDeadlock()) {
-                        logger.warning("Deadlock detected processing: " + this.getTypeAndName() + " [remaining=" + remainingAttempts + "]");
-                    }
-                    else {
-                        logger.warning("Lock timeout detected processing: " + this.getTypeAndName() + " [remaining=" + remainingAttempts + "]");
-                    }
-                    tx.setRollbackOnly();
-                    
-                    if (remainingAttempts == 0) {
-                        // end of the road on this one
-                        logger.log(Level.SEVERE, "[FAILED] retries exhausted for: " + this.getTypeAndName());
-                        throw x;
-                    }                    
-                }
-                catch (Exception x) {
-                    logger.log(Level.SEVERE, "[FAILED] " + this.getTypeAndName());
-                    tx.setRollbackOnly();
-                    throw x;
-                }
-            }
-
-            // now we're outside the transaction, if we need to try again, then sleep 
-            // for a random period. This hopefully avoids things getting into lock-step
-            // which may further increase the chance of a deadlock when we retry
-            if (remainingAttempts > 0) {
-                safeSleep();
-            }
-        }
+        // being executed from a thread-pool, retrying on deadlocks and lock timeouts
+        TransactionRetry.run(tp, this.getTypeAndName(), () -> applyVersion(target, vhs));
     }
 
     /**
@@ -253,20 +208,6 @@ public abstract class BaseObject implements IDatabaseObject {
         }
     }
 
-    /**
-     * Sleep a random amount of time.
-     * @param ms
-     */
-    protected void safeSleep() {
-        long ms = random.nextInt(5000);
-        try {
-            Thread.sleep(ms);
-        }
-        catch (InterruptedException ix) {
-            // NOP
-        }
-    }
-    
     /* (non-Javadoc)
      * @see com.ibm.watson.health.database.utils.model.IDatabaseObject#getTags()
      */
@@ -6,21 +6,18 @@
 
 package com.ibm.watson.health.database.utils.model;
 
-import java.security.SecureRandom;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.ibm.watson.health.database.utils.api.IDatabaseAdapter;
-import com.ibm.watson.health.database.utils.api.ITransaction;
 import com.ibm.watson.health.database.utils.api.ITransactionProvider;
 import com.ibm.watson.health.database.utils.api.IVersionHistoryService;
-import com.ibm.watson.health.database.utils.api.LockException;
+import com.ibm.watson.health.database.utils.transaction.TransactionRetry;
 
 /**
  * Represents objects which are part of the database, but which do not belong to
@@ -31,9 +28,6 @@ import com.ibm.watson.health.database.utils.api.LockException;
 public abstract class DatabaseObject implements IDatabaseObject {
     private static final Logger logger = Logger.getLogger(DatabaseObject.class.getName());
     
-    // Used to randomize a sleep after a deadlock failure
-    private static final SecureRandom random = new SecureRandom();
-    
     private final String objectName;
     private final DatabaseObjectType objectType;
     
@@ -141,49 +135,10 @@ public abstract class DatabaseObject implements IDatabaseObject {
     @Override
     public void applyTx(IDatabaseAdapter target, ITransactionProvider tp, IVersionHistoryService vhs) {
         // Wrap the apply operation in its own transaction, as this is likely
-        // being executed from a thread-pool. DB2 has some issues with deadlocks
-        // on its catalog tables (SQLCODE=-911, SQLSTATE=40001, SQLERRMC=2) when 
-        // applying schema changes in parallel, so we need a little retry loop.
-        int remainingAttempts = 10;
-        while (remainingAttempts-- > 0) {
-            try (ITransaction tx = tp.getTransaction()) {
-                try {
-                    applyVersion(target, vhs);
-                    remainingAttempts = 0; // exit the retry loop
-                }
-                catch (LockException x) {
-                    // Either a deadlock, or lock timeout, we allow the transaction to be
-                    // tried again.
-                    if (x.isDeadlock()) {
-                        logger.warning("Deadlock detected processing: " + this.getTypeAndName() + " [remaining=" + remainingAttempts + "]");
-                    }
-                    else {
-                        logger.warning("Lock timeout detected processing: " + this.getTypeAndName() + " [remaining=" + remainingAttempts + "]");
-                    }
-                    tx.setRollbackOnly();
-                    
-                    if (remainingAttempts == 0) {
-                        // end of the road on this one
-                        logger.log(Level.SEVERE, "[FAILED] retries exhausted for: " + this.getTypeAndName());
-                        throw x;
-                    }                    
-                }
-                catch (Exception x) {
-                    logger.log(Level.SEVERE, "[FAILED] " + this.getTypeAndName());
-                    tx.setRollbackOnly();
-                    throw x;
-                }
-            }
-
-            // now we're outside the transaction, if we need to try again, then sleep 
-            // for a random period. This hopefully avoids things getting into lock-step
-            // which may further increase the chance of a deadlock when we retry
-            if (remainingAttempts > 0) {
-                safeSleep();
-            }
-        }
+        // being executed from a thread-pool, retrying on deadlocks and lock timeouts
+        TransactionRetry.run(tp, this.getTypeAndName(), () -> applyVersion(target, vhs));
     }
-    
+
     /**
      * Apply the change, but only if it has a newer version than we already have
      * recorded in the database
@@ -205,20 +160,6 @@ public abstract class DatabaseObject implements IDatabaseObject {
     }
 
 
-    /**
-     * Sleep a random amount of time.
-     * @param ms
-     */
-    protected void safeSleep() {
-        long ms = random.nextInt(5000);
-        try {
-            Thread.sleep(ms);
-        }
-        catch (InterruptedException ix) {
-            // NOP
-        }
-    }
-    
     /* (non-Javadoc)
      * @see com.ibm.watson.health.database.utils.model.IDatabaseObject#getTags()
      */
@@ -23,7 +23,9 @@ import com.ibm.watson.health.database.utils.api.IDatabaseAdapter;
 import com.ibm.watson.health.database.utils.api.ITransactionProvider;
 import com.ibm.watson.health.database.utils.api.IVersionHistoryService;
 import com.ibm.watson.health.database.utils.common.DataDefinitionUtil;
+import com.ibm.watson.health.database.utils.transaction.TransactionRetry;
 import com.ibm.watson.health.task.api.ITaskCollector;
+import com.ibm.watson.health.task.api.ITaskGroup;
 
 /**
  * Represents the set of tables and other schema objects that make up the
@@ -146,6 +148,45 @@ public class PhysicalDataModel implements IDataModel {
         }
     }
 
+    /**
+     * Collect the tasks to apply all the procedures in the model. A procedure only
+     * waits for the procedures it depends on, so the rest can be applied in parallel.
+     * Each procedure is applied in its own transaction.
+     * @param tc collects and manages the procedure tasks and their dependencies
+     * @param target the target database adapter
+     * @param tp provides the transaction for each task
+     */
+    public void collectProcedures(ITaskCollector tc, IDatabaseAdapter target, ITransactionProvider tp) {
+        for (ProcedureDef proc: procedures) {
+            collectProcedure(proc, tc, target, tp);
+        }
+    }
+
+    /**
+     * Collect the task to apply the given procedure, along with the tasks for
+     * any procedures it depends on
+     * @param proc
+     * @param tc
+     * @param target
+     * @param tp
+     * @return
+     */
+    private ITaskGroup collectProcedure(ProcedureDef proc, ITaskCollector tc, IDatabaseAdapter target, ITransactionProvider tp) {
+        List<IDatabaseObject> dependencies = new ArrayList<>();
+        proc.fetchDependenciesTo(dependencies);
+
+        // Other objects are already in place, so only dependencies on procedures matter here
+        List<ITaskGroup> children = new ArrayList<>();
+        for (IDatabaseObject dep: dependencies) {
+            if (dep instanceof ProcedureDef && procedures.contains(dep)) {
+                children.add(collectProcedure((ProcedureDef)dep, tc, target, tp));
+            }
+        }
+
+        final String taskId = proc.getTypeAndName();
+        return tc.makeTaskGroup(taskId, () -> TransactionRetry.run(tp, taskId, () -> proc.apply(target)), children);
+    }
+
     /**
      * Drop the model from the target database. This is done
      * in reverse order
@@ -211,6 +252,21 @@ public class PhysicalDataModel implements IDataModel {
         adapter.createTenantPartitions(getTenantPartitionedTables(tenantIdColumn), schemaName, tenantId, extentSizeKB);
     }
 
+    /**
+     * Collect the tasks to make sure every tenant-partitioned table has a
+     * partition for the given tenantId. Nothing is changed until the collected
+     * tasks are run.
+     * @param tc
+     * @param adapter
+     * @param schemaName
+     * @param tenantId
+     * @param extentSizeKB
+     */
+    public void collectTenantPartitions(ITaskCollector tc, IDatabaseAdapter adapter, String schemaName, int tenantId, int extentSizeKB) {
+        final String tenantIdColumn = "MT_ID";
+        adapter.collectTenantPartitions(tc, getTenantPartitionedTables(tenantIdColumn), schemaName, tenantId, extentSizeKB);
+    }
+
     /**
      * remove the partition from each of the tenant-based tables
      * @param adapter
@@ -370,4 +426,21 @@ public class PhysicalDataModel implements IDataModel {
         }
     }
 
+    /**
+     * Collect the tasks to apply the grants for the given group to the user. The
+     * grants don't depend on each other, so each object is granted in parallel,
+     * in its own transaction.
+     * @param tc
+     * @param target
+     * @param tp provides the transaction for each task
+     * @param groupName
+     * @param username
+     */
+    public void collectGrants(ITaskCollector tc, IDatabaseAdapter target, ITransactionProvider tp, String groupName, String username) {
+        for (IDatabaseObject obj: allObjects) {
+            final String taskId = "GRANT:" + obj.getTypeAndName();
+            tc.makeTaskGroup(taskId, () -> TransactionRetry.run(tp, taskId, () -> obj.grant(target, groupName, username)), null);
+        }
+    }
+
 }
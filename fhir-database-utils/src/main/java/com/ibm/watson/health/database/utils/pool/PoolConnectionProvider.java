@@ -6,16 +6,23 @@
 
 package com.ibm.watson.health.database.utils.pool;
 
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.ObjectName;
+
 import com.ibm.watson.health.database.utils.api.DataAccessException;
 import com.ibm.watson.health.database.utils.api.IConnectionProvider;
 import com.ibm.watson.health.database.utils.api.IDatabaseTranslator;
@@ -26,33 +33,94 @@ import com.ibm.watson.health.database.utils.api.IDatabaseTranslator;
  * get the same connection back. Cooperates with the TransactionFactory
  * to provide a JEE-flavored experience, and makes it easy to write
  * code which will work in both J2SE and JEE environments.
- * 
+ *
+ * The pool itself doesn't use a lock. Each physical connection is held in a
+ * {@link PoolEntry}, and a thread claims an idle connection by a compare-and-set
+ * of the entry's state. A thread first tries the connection it used last (which
+ * is usually still idle, and avoids contention with other threads), then scans
+ * the pool, then opens a new connection if the pool isn't full. Otherwise it
+ * waits for a connection to be handed over by a thread returning one, up to the
+ * configured max wait time.
+ *
+ * Connections which have been idle for longer than the validation interval are
+ * validated before being handed out, and connections which have been idle for
+ * longer than the idle timeout are closed. Connections held for longer than the
+ * leak detection threshold are reported, together with the stack trace of the
+ * code which obtained them. After a failure to open a connection, further attempts
+ * are delayed with an exponential backoff while no other connections are available.
+ *
  * Does not support distributed transactions.
  * @author rarnold
  *
  */
-public class PoolConnectionProvider implements IConnectionProvider {
+public class PoolConnectionProvider implements IConnectionProvider, PoolConnectionProviderMXBean {
     private static final Logger logger = Logger.getLogger(PoolConnectionProvider.class.getName());
-        
-    // Concurrency control for the pool
-    private final Lock lock = new ReentrantLock();
-    private final Condition waitForConnectionCondition = lock.newCondition();
-    
-    // The number of connections allocated
-    int allocated;
-    
-    // The list of free connections, available to be allocated
-    private Queue<Connection> free = new LinkedList<>();
-    
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    public static final long DEFAULT_VALIDATION_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    public static final int DEFAULT_VALIDATION_TIMEOUT_SECONDS = 5;
+
+    // How long a waiting thread sleeps before it checks the pool again
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    // How often idle connections and leaks are checked for
+    private static final long HOUSEKEEPING_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    // Bounds for the backoff after a failure to open a connection
+    private static final long MIN_CREATE_BACKOFF_MILLIS = 100;
+    private static final long MAX_CREATE_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
     // The connection provider we are decorating with pooling abilities
     private final IConnectionProvider connectionProvider;
 
-    // Connection active on the current thread, if any
-    private ThreadLocal<PooledConnection> activeConnection = new ThreadLocal<>();
-
     // The maximum number of connections allowed to be active
     private final int maxPoolSize;
-            
+
+    // All physical connections, idle or in use
+    private final CopyOnWriteArrayList<PoolEntry> entries = new CopyOnWriteArrayList<>();
+
+    // The number of connections allocated, including those being opened
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    // Threads waiting for a connection, and the queue used to hand a returned connection to them
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final SynchronousQueue<PoolEntry> handoffQueue = new SynchronousQueue<>(true);
+
+    // Connection active on the current thread, if any. Stays with the thread until the transaction completes
+    private final ThreadLocal<PooledConnection> activeConnection = new ThreadLocal<>();
+
+    // The connection last used by the current thread, which is tried first next time
+    private final ThreadLocal<WeakReference<PoolEntry>> lastUsed = new ThreadLocal<>();
+
+    // Configuration
+    private volatile long maxWaitMillis = 0;
+    private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private volatile int minIdle = 0;
+    private volatile long validationIntervalMillis = DEFAULT_VALIDATION_INTERVAL_MILLIS;
+    private volatile int validationTimeoutSeconds = DEFAULT_VALIDATION_TIMEOUT_SECONDS;
+    private volatile long leakDetectionThresholdMillis = 0;
+
+    // Backoff state after a failure to open a connection
+    private volatile long createBackoffMillis = 0;
+    private volatile long createBackoffUntil = 0;
+    private volatile SQLException lastCreateFailure;
+
+    // Housekeeping state
+    private final AtomicBoolean housekeeping = new AtomicBoolean();
+    private volatile long nextHousekeepingMillis = System.currentTimeMillis() + HOUSEKEEPING_INTERVAL_MILLIS;
+
+    // Metrics
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder waitCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder totalAcquireNanos = new LongAdder();
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder closedCount = new LongAdder();
+    private final LongAdder createFailureCount = new LongAdder();
+    private final LongAdder validationFailureCount = new LongAdder();
+    private final LongAdder leakCount = new LongAdder();
+
     /**
      * Public constructor
      * @param cp
@@ -77,73 +145,278 @@ public class PoolConnectionProvider implements IConnectionProvider {
             }
             return result;
         }
-        
-        // No connection currently on this thread, so try to obtain the underlying
-        // connection from the pool
-        Connection c = null;
-        lock.lock();
+
+        // No connection currently on this thread, so obtain one from the pool
+        PoolEntry entry = borrow();
+
+        // Wrap the connection, and set it as active on this thread so we will always
+        // use it until the current transaction is complete
+        result = new PooledConnection(this, entry);
+        result.incOpenCount();
+        activeConnection.set(result);
+
+        return result;
+    }
+
+    /**
+     * Obtain exclusive use of a physical connection, waiting for one to become
+     * available if necessary
+     * @return
+     * @throws SQLException
+     */
+    private PoolEntry borrow() throws SQLException {
+        final long start = System.nanoTime();
+        housekeep();
+
+        // The connection last used by this thread is the most likely to be idle
+        WeakReference<PoolEntry> ref = lastUsed.get();
+        PoolEntry entry = ref != null ? ref.get() : null;
+        if (entry != null && entry.compareAndSetState(PoolEntry.STATE_IDLE, PoolEntry.STATE_IN_USE) && validate(entry)) {
+            return checkedOut(entry, start, false);
+        }
+
+        final long wait = this.maxWaitMillis;
+        final long deadline = wait > 0 ? start + TimeUnit.MILLISECONDS.toNanos(wait) : Long.MAX_VALUE;
+        boolean waited = false;
         try {
-            boolean assigned = false;
-            while (!assigned) {
-                if (free.isEmpty()) {
-                    if (this.allocated < this.maxPoolSize) {
-                        this.allocated++;
-                        assigned = true; // get connection outside of lock
+            while (true) {
+                entry = acquireIdle();
+                if (entry == null) {
+                    entry = create();
+                }
+                if (entry != null) {
+                    return checkedOut(entry, start, waited);
+                }
+
+                // The pool is full, so wait for a connection to be handed over by a thread returning one.
+                // We register as a waiter before checking the pool again, so that a connection returned
+                // in the meantime isn't missed
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    timeoutCount.increment();
+                    throw new DataAccessException("Timed out after " + wait + "ms waiting for a connection; " + getStatistics());
+                }
+                if (!waited) {
+                    waited = true;
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine("Max connections allocated, waiting for connection to be freed");
                     }
-                    else {
-                        // block until a connection frees up
-                        if (logger.isLoggable(Level.FINE)) {
-                            logger.fine("Max connections allocated, waiting for connection to be freed");
+                }
+                waiters.incrementAndGet();
+                try {
+                    entry = acquireIdle();
+                    if (entry == null) {
+                        entry = handoffQueue.poll(Math.min(remaining, WAIT_SLICE_NANOS), TimeUnit.NANOSECONDS);
+                        if (entry != null && !(entry.compareAndSetState(PoolEntry.STATE_IDLE, PoolEntry.STATE_IN_USE) && validate(entry))) {
+                            // claimed by another thread in the meantime, or broken
+                            entry = null;
                         }
-                        this.waitForConnectionCondition.await();
                     }
                 }
-                else {
-                    // simply take the next connection from the head of the list
-                    logger.info("Using db connection from pool");
-                    c = free.poll();
-                    logger.info("Got db connection from pool: " + c.toString());
-                    assigned = true;
+                finally {
+                    waiters.decrementAndGet();
+                }
+                if (entry != null) {
+                    return checkedOut(entry, start, waited);
                 }
             }
         }
         catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
             throw new DataAccessException("Interrupted waiting for connection");
         }
-        finally {
-            lock.unlock();
+    }
+
+    /**
+     * Claim any idle connection in the pool
+     * @return the claimed entry, or null if no idle connection is available
+     */
+    private PoolEntry acquireIdle() {
+        for (PoolEntry entry: entries) {
+            if (entry.compareAndSetState(PoolEntry.STATE_IDLE, PoolEntry.STATE_IN_USE) && validate(entry)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Open a new connection if the pool isn't full
+     * @return the new entry (already in use), or null if the pool is full
+     * @throws SQLException
+     */
+    private PoolEntry create() throws SQLException {
+        if (System.currentTimeMillis() < this.createBackoffUntil) {
+            // We recently failed to open a connection. Wait for one to be returned unless
+            // there's none to wait for, in which case there's no point in holding up the caller
+            if (allocated.get() == 0) {
+                throw new SQLTransientConnectionException("Not opening a connection while backing off after a failure", lastCreateFailure);
+            }
+            return null;
+        }
+
+        int current;
+        do {
+            current = allocated.get();
+            if (current >= this.maxPoolSize) {
+                return null;
+            }
+        } while (!allocated.compareAndSet(current, current + 1));
+
+        // It might take a while to establish a new connection, but we don't hold any
+        // lock here, so other threads can still obtain connections from the pool
+        Connection c;
+        try {
+            c = connectionProvider.getConnection();
+        }
+        catch (SQLException x) {
+            // Failed to acquire a connection, so we need to relinquish our allocation
+            allocated.decrementAndGet();
+            createFailureCount.increment();
+            this.lastCreateFailure = x;
+            long backoff = Math.min(Math.max(MIN_CREATE_BACKOFF_MILLIS, this.createBackoffMillis * 2), MAX_CREATE_BACKOFF_MILLIS);
+            this.createBackoffMillis = backoff;
+            this.createBackoffUntil = System.currentTimeMillis() + backoff;
+            throw x;
+        }
+        catch (RuntimeException x) {
+            allocated.decrementAndGet();
+            createFailureCount.increment();
+            throw x;
         }
-        
-        // It might take a while to establish a new connection, so we do this after
-        // releasing the above lock to try and maximize concurrency.
-        if (c == null) {
+
+        this.createBackoffMillis = 0;
+        createdCount.increment();
+        PoolEntry entry = new PoolEntry(c);
+        entries.add(entry);
+        return entry;
+    }
+
+    /**
+     * Validate a claimed connection if it has been idle for a while. A connection which
+     * isn't valid is closed and removed from the pool.
+     * @param entry
+     * @return true if the connection can be handed out
+     */
+    private boolean validate(PoolEntry entry) {
+        long interval = this.validationIntervalMillis;
+        if (interval < 0 || System.currentTimeMillis() - entry.getReturnedMillis() <= interval) {
+            return true;
+        }
+
+        boolean valid;
+        try {
+            valid = entry.getConnection().isValid(this.validationTimeoutSeconds);
+        }
+        catch (SQLException x) {
+            valid = false;
+        }
+
+        if (!valid) {
+            logger.info("Connection failed validation, so closing it");
+            validationFailureCount.increment();
+            remove(entry);
+        }
+        return valid;
+    }
+
+    /**
+     * Record the successful checkout of a connection
+     */
+    private PoolEntry checkedOut(PoolEntry entry, long start, boolean waited) {
+        long leakThreshold = this.leakDetectionThresholdMillis;
+        entry.borrowed(leakThreshold > 0 ? new Throwable("Connection obtained by thread " + Thread.currentThread().getName()) : null);
+
+        WeakReference<PoolEntry> ref = lastUsed.get();
+        if (ref == null || ref.get() != entry) {
+            lastUsed.set(new WeakReference<>(entry));
+        }
+
+        long elapsed = System.nanoTime() - start;
+        borrowCount.increment();
+        totalAcquireNanos.add(elapsed);
+        maxAcquireNanos.accumulateAndGet(elapsed, Math::max);
+        if (waited) {
+            waitCount.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Make a connection available again, handing it directly to a waiting thread if there is one
+     * @param entry
+     */
+    private void release(PoolEntry entry) {
+        entry.returned();
+        if (waiters.get() > 0) {
+            // nobody may be polling right now, in which case the waiter will find the
+            // connection when it checks the pool again
+            handoffQueue.offer(entry);
+        }
+        housekeep();
+    }
+
+    /**
+     * Close a connection and remove it from the pool
+     * @param entry
+     */
+    private void remove(PoolEntry entry) {
+        if (entry.markRemoved()) {
+            entries.remove(entry);
+            allocated.decrementAndGet();
+            closedCount.increment();
             try {
-                c = connectionProvider.getConnection();
+                entry.getConnection().close();
             }
-            catch (SQLException x) {
-                // Failed to acquire a connection, so we need to relinquish
-                // our allocation and give others a chance
-                lock.lock();
-                try {
-                    this.allocated--;
-                    this.waitForConnectionCondition.signal();
+            catch (Exception x) {
+                // nop. Nothing we can do about it
+            }
+        }
+    }
+
+    /**
+     * Close connections which have been idle for too long, and report connections which
+     * have been in use for too long. Runs at most once per housekeeping interval, on the
+     * thread which happens to use the pool at that time
+     */
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        if (now < this.nextHousekeepingMillis || !housekeeping.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            this.nextHousekeepingMillis = now + HOUSEKEEPING_INTERVAL_MILLIS;
+            long idleTimeout = this.idleTimeoutMillis;
+            long leakThreshold = this.leakDetectionThresholdMillis;
+            int idle = getIdleConnections();
+
+            for (PoolEntry entry: entries) {
+                int state = entry.getState();
+                if (state == PoolEntry.STATE_IDLE && idleTimeout > 0 && idle > this.minIdle
+                        && now - entry.getReturnedMillis() > idleTimeout) {
+                    if (entry.compareAndSetState(PoolEntry.STATE_IDLE, PoolEntry.STATE_IN_USE)) {
+                        if (logger.isLoggable(Level.FINE)) {
+                            logger.fine("Closing idle connection");
+                        }
+                        remove(entry);
+                        idle--;
+                    }
                 }
-                finally {
-                    lock.unlock();
+                else if (state == PoolEntry.STATE_IN_USE && leakThreshold > 0 && !entry.isLeakReported()
+                        && now - entry.getBorrowedMillis() > leakThreshold) {
+                    entry.setLeakReported();
+                    leakCount.increment();
+                    logger.log(Level.WARNING, "Possible connection leak: connection in use for "
+                            + (now - entry.getBorrowedMillis()) + "ms", entry.getBorrowTrace());
                 }
-                throw x;
             }
         }
-
-        // Wrap the connection, and set it as active on this thread so we will always
-        // use it until the current transaction is complete
-        result = new PooledConnection(this, c);
-        result.incOpenCount();
-        activeConnection.set(result);
-        
-        return result;
+        finally {
+            housekeeping.set(false);
+        }
     }
-    
+
     /**
      * Called when the connection is closed, which in this case is pretty much a NOP,
      * because this connection will stay active on this thread until the transaction
@@ -152,7 +425,7 @@ public class PoolConnectionProvider implements IConnectionProvider {
      */
     protected void returnConnection(PooledConnection pc, boolean reuse) {
         PooledConnection active = activeConnection.get();
-        
+
         // Just look out for programming errors
         if (active == null) {
             throw new IllegalStateException("No active connection");
@@ -174,34 +447,24 @@ public class PoolConnectionProvider implements IConnectionProvider {
                 // indicates the prior connection wasn't closed
                 logger.warning("PooledConnection open/close mismatch: " + pc.getOpenCount());
             }
-            
-            lock.lock();
-            try {
-                if (pc.isReusable()) {
-                    // underlying connection should still be good, so add it back into the pool
-                    logger.info("Adding connection back to pool");
-                    free.add(pc.getWrapped());
-                }
-                else {
-                    // Connection appears to be broken, so just close it and walk away
-                    logger.info("Connection is broken, so closing it");
-                    pc.forceClosed();
-                    
-                    // We now have one less allocated connection, so need to reduce our
-                    // count accordingly, which might unblock another thread waiting to
-                    // create a new connection
-                    this.allocated--;
+
+            if (pc.isReusable()) {
+                // underlying connection should still be good, so add it back into the pool
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Adding connection back to pool");
                 }
-                
-                // Wake up a thread waiting for an available connection
-                this.waitForConnectionCondition.signal();
+                release(pc.getEntry());
             }
-            finally {
-                lock.unlock();
+            else {
+                // Connection appears to be broken, so just close it and walk away. We now have
+                // one less allocated connection, so another thread may open a new one
+                logger.info("Connection is broken, so closing it");
+                pc.forceClosed();
+                remove(pc.getEntry());
             }
         }
     }
-    
+
     /**
      * Simple check to see if the exception is related to a connection error,
      * in which case the connection shouldn't be returned to the pool when closed
@@ -230,7 +493,9 @@ public class PoolConnectionProvider implements IConnectionProvider {
         PooledConnection c = activeConnection.get();
         if (c != null) {
             try {
-                logger.info("Committing transaction");
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("Committing transaction");
+                }
                 c.getWrapped().commit();
             }
             finally {
@@ -242,7 +507,7 @@ public class PoolConnectionProvider implements IConnectionProvider {
             // and so there's nothing to do. Not a problem.
             logger.warning("No connection on this thread");
         }
-        
+
     }
 
     /* (non-Javadoc)
@@ -277,8 +542,178 @@ public class PoolConnectionProvider implements IConnectionProvider {
      */
     @Override
     public void describe(String prefix, StringBuilder cfg, String key) {
-        // TODO Auto-generated method stub
+        cfg.append(prefix).append(key).append(".maxPoolSize=").append(this.maxPoolSize).append(System.lineSeparator());
+        cfg.append(prefix).append(key).append(".maxWaitMillis=").append(this.maxWaitMillis).append(System.lineSeparator());
+        cfg.append(prefix).append(key).append(".idleTimeoutMillis=").append(this.idleTimeoutMillis).append(System.lineSeparator());
+        cfg.append(prefix).append(key).append(".validationIntervalMillis=").append(this.validationIntervalMillis).append(System.lineSeparator());
+        cfg.append(prefix).append(key).append(".leakDetectionThresholdMillis=").append(this.leakDetectionThresholdMillis).append(System.lineSeparator());
+        connectionProvider.describe(prefix, cfg, key);
+    }
+
+    /**
+     * Register this pool with the platform MBean server, so that its metrics can be
+     * monitored using JMX
+     * @param name the name of the pool, used in the object name of the MBean
+     */
+    public void registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("com.ibm.watson.health.database.utils:type=PoolConnectionProvider,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        }
+        catch (Exception x) {
+            logger.log(Level.WARNING, "Unable to register connection pool MBean: " + name, x);
+        }
+    }
+
+    /**
+     * Get a one-line summary of the pool utilization and wait metrics, suitable for logging
+     * @return
+     */
+    public String getStatistics() {
+        return String.format("pool[total=%d, active=%d, idle=%d, waiting=%d, max=%d, borrowed=%d, waited=%d, timeouts=%d, avgAcquireMs=%.3f, maxAcquireMs=%.3f, created=%d, closed=%d, createFailures=%d, validationFailures=%d, leaks=%d]",
+            getTotalConnections(), getActiveConnections(), getIdleConnections(), getThreadsAwaitingConnection(), getMaxPoolSize(),
+            getBorrowCount(), getWaitCount(), getTimeoutCount(), getAverageAcquireMillis(), getMaxAcquireMillis(),
+            getCreatedCount(), getClosedCount(), getCreateFailureCount(), getValidationFailureCount(), getLeakCount());
+    }
+
+    /**
+     * Set the maximum time to wait for a connection when the pool is exhausted
+     * @param maxWaitMillis the time in milliseconds, or 0 to wait indefinitely
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Set the time after which an idle connection is closed
+     * @param idleTimeoutMillis the time in milliseconds, or 0 to keep idle connections open
+     */
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Set the number of idle connections which are kept open regardless of the idle timeout
+     * @param minIdle
+     */
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    /**
+     * Set the time a connection may be idle before it is validated again when handed out
+     * @param validationIntervalMillis the time in milliseconds, 0 to always validate, or -1 to never validate
+     * @param validationTimeoutSeconds the time to wait for the validation to complete
+     */
+    public void setValidation(long validationIntervalMillis, int validationTimeoutSeconds) {
+        this.validationIntervalMillis = validationIntervalMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+    }
+
+    /**
+     * Set the time after which a connection which hasn't been returned is reported as a possible leak
+     * @param leakDetectionThresholdMillis the time in milliseconds, or 0 to disable leak detection
+     */
+    public void setLeakDetectionThresholdMillis(long leakDetectionThresholdMillis) {
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+    }
 
+    /**
+     * Run the idle connection and leak checks now, rather than waiting for the next housekeeping interval
+     */
+    public void runHousekeeping() {
+        this.nextHousekeepingMillis = 0;
+        housekeep();
+    }
+
+    @Override
+    public int getMaxPoolSize() {
+        return this.maxPoolSize;
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return entries.size();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return countEntries(PoolEntry.STATE_IN_USE);
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return countEntries(PoolEntry.STATE_IDLE);
+    }
+
+    private int countEntries(int state) {
+        int count = 0;
+        for (PoolEntry entry: entries) {
+            if (entry.getState() == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int getThreadsAwaitingConnection() {
+        return waiters.get();
+    }
+
+    @Override
+    public double getUtilization() {
+        return this.maxPoolSize > 0 ? (double) getActiveConnections() / this.maxPoolSize : 0.0;
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return borrowCount.sum();
     }
 
+    @Override
+    public long getWaitCount() {
+        return waitCount.sum();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeoutCount.sum();
+    }
+
+    @Override
+    public double getAverageAcquireMillis() {
+        long count = borrowCount.sum();
+        return count > 0 ? totalAcquireNanos.sum() / 1e6 / count : 0.0;
+    }
+
+    @Override
+    public double getMaxAcquireMillis() {
+        return maxAcquireNanos.get() / 1e6;
+    }
+
+    @Override
+    public long getCreatedCount() {
+        return createdCount.sum();
+    }
+
+    @Override
+    public long getClosedCount() {
+        return closedCount.sum();
+    }
+
+    @Override
+    public long getCreateFailureCount() {
+        return createFailureCount.sum();
+    }
+
+    @Override
+    public long getValidationFailureCount() {
+        return validationFailureCount.sum();
+    }
+
+    @Override
+    public long getLeakCount() {
+        return leakCount.sum();
+    }
 }
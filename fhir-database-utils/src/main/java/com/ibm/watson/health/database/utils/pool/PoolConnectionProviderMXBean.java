@@ -0,0 +1,94 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.database.utils.pool;
+
+/**
+ * Management interface exposing the utilization and wait-time metrics of a
+ * {@link PoolConnectionProvider}.
+ */
+public interface PoolConnectionProviderMXBean {
+
+    /**
+     * The maximum number of connections the pool will open
+     */
+    public int getMaxPoolSize();
+
+    /**
+     * The number of connections currently open
+     */
+    public int getTotalConnections();
+
+    /**
+     * The number of connections currently handed out
+     */
+    public int getActiveConnections();
+
+    /**
+     * The number of open connections available to be handed out
+     */
+    public int getIdleConnections();
+
+    /**
+     * The number of threads currently waiting for a connection
+     */
+    public int getThreadsAwaitingConnection();
+
+    /**
+     * The fraction (0.0 - 1.0) of the maximum pool size currently handed out
+     */
+    public double getUtilization();
+
+    /**
+     * The total number of connections handed out
+     */
+    public long getBorrowCount();
+
+    /**
+     * The number of times a thread had to wait for a connection to be returned
+     */
+    public long getWaitCount();
+
+    /**
+     * The number of times a thread gave up waiting for a connection
+     */
+    public long getTimeoutCount();
+
+    /**
+     * The average time (in milliseconds) taken to obtain a connection
+     */
+    public double getAverageAcquireMillis();
+
+    /**
+     * The longest time (in milliseconds) taken to obtain a connection
+     */
+    public double getMaxAcquireMillis();
+
+    /**
+     * The number of physical connections opened
+     */
+    public long getCreatedCount();
+
+    /**
+     * The number of physical connections closed
+     */
+    public long getClosedCount();
+
+    /**
+     * The number of failed attempts to open a physical connection
+     */
+    public long getCreateFailureCount();
+
+    /**
+     * The number of idle connections which were discarded because they failed validation
+     */
+    public long getValidationFailureCount();
+
+    /**
+     * The number of connections reported as possibly leaked
+     */
+    public long getLeakCount();
+}
@@ -0,0 +1,104 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.database.utils.pool;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A physical connection managed by the {@link PoolConnectionProvider}. Ownership of
+ * the connection is claimed by a compare-and-set of its state, so borrowing and
+ * returning a connection doesn't need a lock.
+ */
+final class PoolEntry {
+    static final int STATE_IDLE = 0;
+    static final int STATE_IN_USE = 1;
+    static final int STATE_REMOVED = -1;
+
+    // The physical connection
+    private final Connection connection;
+
+    // New entries are created on behalf of a borrower, so start out in use
+    private final AtomicInteger state = new AtomicInteger(STATE_IN_USE);
+
+    // When the connection was last handed out/returned (millis since the epoch)
+    private volatile long borrowedMillis;
+    private volatile long returnedMillis;
+
+    // Where the connection was borrowed, if leak detection is enabled
+    private volatile Throwable borrowTrace;
+    private volatile boolean leakReported;
+
+    /**
+     * Package-private constructor
+     * @param connection
+     */
+    PoolEntry(Connection connection) {
+        this.connection = connection;
+        this.borrowedMillis = System.currentTimeMillis();
+        this.returnedMillis = this.borrowedMillis;
+    }
+
+    Connection getConnection() {
+        return this.connection;
+    }
+
+    int getState() {
+        return this.state.get();
+    }
+
+    boolean compareAndSetState(int expect, int update) {
+        return this.state.compareAndSet(expect, update);
+    }
+
+    /**
+     * Mark the entry as removed
+     * @return true if the entry wasn't already removed
+     */
+    boolean markRemoved() {
+        return this.state.getAndSet(STATE_REMOVED) != STATE_REMOVED;
+    }
+
+    /**
+     * Record that the connection was handed out to a borrower
+     * @param borrowTrace where the connection was borrowed, or null
+     */
+    void borrowed(Throwable borrowTrace) {
+        this.borrowedMillis = System.currentTimeMillis();
+        this.borrowTrace = borrowTrace;
+        this.leakReported = false;
+    }
+
+    /**
+     * Record that the connection was returned, and make it available to other borrowers
+     */
+    void returned() {
+        this.returnedMillis = System.currentTimeMillis();
+        this.borrowTrace = null;
+        this.state.set(STATE_IDLE);
+    }
+
+    long getBorrowedMillis() {
+        return this.borrowedMillis;
+    }
+
+    long getReturnedMillis() {
+        return this.returnedMillis;
+    }
+
+    Throwable getBorrowTrace() {
+        return this.borrowTrace;
+    }
+
+    boolean isLeakReported() {
+        return this.leakReported;
+    }
+
+    void setLeakReported() {
+        this.leakReported = true;
+    }
+}
@@ -38,6 +38,9 @@ public class PooledConnection implements Connection {
     // Pointer back to the object which spawned us
     private final PoolConnectionProvider pool;
     
+    // The pool entry holding the actual connection we're wrapping (decorating)
+    private final PoolEntry entry;
+
     // The actual connection we're wrapping (decorating)
     private final Connection wrapped;
     
@@ -48,13 +51,22 @@ public class PooledConnection implements Connection {
     private int openCount = 0;
 
     /**
-     * Public constructor
+     * Package-private constructor
      * @param cp
-     * @param wrappee
+     * @param entry
      */
-    public PooledConnection(PoolConnectionProvider cp, Connection wrappee) {
+    PooledConnection(PoolConnectionProvider cp, PoolEntry entry) {
         this.pool = cp;
-        this.wrapped = wrappee;
+        this.entry = entry;
+        this.wrapped = entry.getConnection();
+    }
+
+    /**
+     * Get the pool entry of the wrapped connection
+     * @return
+     */
+    PoolEntry getEntry() {
+        return this.entry;
     }
 
     /**
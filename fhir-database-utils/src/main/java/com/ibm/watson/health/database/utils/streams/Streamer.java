@@ -12,6 +12,7 @@ import java.sql.SQLException;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
@@ -57,6 +58,49 @@ public class Streamer {
     }
     
 
+    /**
+     * Maps the current row of a {@link ResultSet} to an object
+     * @param <T>
+     */
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(ResultSet rs) throws Exception;
+    }
+
+    /**
+     * Wrap the JDBC {@link ResultSet} as a stream of the objects mapped from its rows. Unlike
+     * {@link #wrap(ResultSet)}, a failure doesn't just end the stream early: it's passed to onError
+     * and the returned exception is thrown to the consumer of the stream. The stream still has to be
+     * consumed within the boundaries of the statement execution, so callers which hand it out
+     * should release the statement in an {@link Stream#onClose(Runnable)} handler.
+     * @param rs
+     * @param mapper maps the current row to the next object of the stream
+     * @param onError translates a failure reading or mapping a row
+     * @return
+     */
+    public <T> Stream<T> wrap(final ResultSet rs, final RowMapper<T> mapper, final Function<Exception, RuntimeException> onError) {
+        Spliterator<T> s = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                T value;
+                try {
+                    if (!rs.next()) {
+                        return false;
+                    }
+                    value = mapper.map(rs);
+                }
+                catch (Exception x) {
+                    throw onError.apply(x);
+                }
+                action.accept(value);
+                return true;
+            }
+        };
+
+        return StreamSupport.stream(s, false);
+    }
+
     /**
      * Wrap the JDBC {@link ResultSet} as a stream object. Note that the stream has to be consumed within
      * the boundaries of the statement execution
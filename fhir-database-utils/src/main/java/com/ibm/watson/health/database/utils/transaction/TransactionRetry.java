@@ -0,0 +1,111 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.database.utils.transaction;
+
+import java.security.SecureRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.watson.health.database.utils.api.ITransaction;
+import com.ibm.watson.health.database.utils.api.ITransactionProvider;
+import com.ibm.watson.health.database.utils.api.LockException;
+
+/**
+ * Runs a unit of work in its own transaction, trying again if the transaction
+ * fails because of a deadlock or lock timeout. DB2 has some issues with deadlocks
+ * on its catalog tables (SQLCODE=-911, SQLSTATE=40001, SQLERRMC=2) when applying
+ * schema changes in parallel, so anything run from a task graph should be
+ * wrapped like this.
+ */
+public class TransactionRetry {
+    private static final Logger logger = Logger.getLogger(TransactionRetry.class.getName());
+
+    // The number of attempts made unless the caller says otherwise
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+    // Used to randomize a sleep after a deadlock failure
+    private static final SecureRandom random = new SecureRandom();
+
+    /**
+     * Private constructor. Static methods only
+     */
+    private TransactionRetry() {
+        // NOP
+    }
+
+    /**
+     * Run the work in a transaction, making up to {@link #DEFAULT_MAX_ATTEMPTS} attempts
+     * @param tp provides the transaction for each attempt
+     * @param name used to identify the work in log messages
+     * @param work
+     */
+    public static void run(ITransactionProvider tp, String name, Runnable work) {
+        run(tp, name, work, DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * Run the work in a transaction, trying again after a deadlock or lock timeout
+     * until maxAttempts have been made. Any other failure is not retried.
+     * @param tp provides the transaction for each attempt
+     * @param name used to identify the work in log messages
+     * @param work
+     * @param maxAttempts
+     */
+    public static void run(ITransactionProvider tp, String name, Runnable work, int maxAttempts) {
+        int remainingAttempts = maxAttempts;
+        while (remainingAttempts-- > 0) {
+            try (ITransaction tx = tp.getTransaction()) {
+                try {
+                    work.run();
+                    remainingAttempts = 0; // exit the retry loop
+                }
+                catch (LockException x) {
+                    // Either a deadlock, or lock timeout, we allow the transaction to be
+                    // tried again.
+                    if (x.isDeadlock()) {
+                        logger.warning("Deadlock detected processing: " + name + " [remaining=" + remainingAttempts + "]");
+                    }
+                    else {
+                        logger.warning("Lock timeout detected processing: " + name + " [remaining=" + remainingAttempts + "]");
+                    }
+                    tx.setRollbackOnly();
+
+                    if (remainingAttempts == 0) {
+                        // end of the road on this one
+                        logger.log(Level.SEVERE, "[FAILED] retries exhausted for: " + name);
+                        throw x;
+                    }
+                }
+                catch (Exception x) {
+                    logger.log(Level.SEVERE, "[FAILED] " + name);
+                    tx.setRollbackOnly();
+                    throw x;
+                }
+            }
+
+            // now we're outside the transaction, if we need to try again, then sleep
+            // for a random period. This hopefully avoids things getting into lock-step
+            // which may further increase the chance of a deadlock when we retry
+            if (remainingAttempts > 0) {
+                safeSleep();
+            }
+        }
+    }
+
+    /**
+     * Sleep a random amount of time.
+     */
+    private static void safeSleep() {
+        long ms = random.nextInt(5000);
+        try {
+            Thread.sleep(ms);
+        }
+        catch (InterruptedException ix) {
+            // NOP
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.database.utils.model;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.database.utils.api.ITransaction;
+import com.ibm.watson.health.database.utils.api.ITransactionProvider;
+import com.ibm.watson.health.database.utils.common.NopTarget;
+import com.ibm.watson.health.database.utils.db2.Db2Adapter;
+import com.ibm.watson.health.task.api.ITaskCollector;
+import com.ibm.watson.health.task.api.ITaskGroup;
+import com.ibm.watson.health.task.core.service.TaskService;
+
+/**
+ * Unit tests for the task graphs collected from the {@link PhysicalDataModel}
+ */
+public class PhysicalDataModelTest {
+
+    @Test
+    public void testCollectProcedures() {
+        PhysicalDataModel pdm = new PhysicalDataModel();
+        ProcedureDef p1 = pdm.addProcedure("SCHEMA1", "P1", 1, () -> "", null, Collections.emptyList());
+        ProcedureDef p2 = pdm.addProcedure("SCHEMA1", "P2", 1, () -> "", Collections.singletonList(p1), Collections.emptyList());
+        ProcedureDef p3 = pdm.addProcedure("SCHEMA1", "P3", 1, () -> "", Collections.singletonList(p2), Collections.emptyList());
+        pdm.addProcedure("SCHEMA1", "P4", 1, () -> "", null, Collections.emptyList());
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            NopTransactionProvider tp = new NopTransactionProvider();
+            ITaskCollector tc = new TaskService().makeTaskCollector(pool);
+            pdm.collectProcedures(tc, new Db2Adapter(new NopTarget()), tp);
+
+            // P4 doesn't depend on anything, so can run alongside the P1 -> P2 -> P3 chain
+            assertEquals(tc.getTaskGroupCount(), 4);
+            List<ITaskGroup> criticalPath = tc.getCriticalPath();
+            assertEquals(criticalPath.stream().map(tg -> tg.getTaskId()).collect(Collectors.toList()),
+                Arrays.asList(p1.getTypeAndName(), p2.getTypeAndName(), p3.getTypeAndName()));
+
+            tc.startAndWait();
+            assertTrue(tc.getFailedTaskGroups().isEmpty());
+            assertEquals(tp.count.get(), 4);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCollectGrants() {
+        PhysicalDataModel pdm = new PhysicalDataModel();
+        pdm.addProcedure("SCHEMA1", "P1", 1, () -> "", null, Collections.emptyList());
+        pdm.addProcedure("SCHEMA1", "P2", 1, () -> "", null, Collections.emptyList());
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            NopTransactionProvider tp = new NopTransactionProvider();
+            ITaskCollector tc = new TaskService().makeTaskCollector(pool);
+            pdm.collectGrants(tc, new Db2Adapter(new NopTarget()), tp, "FHIRUSER", "USER1");
+
+            // every grant is independent
+            assertEquals(tc.getTaskGroupCount(), 2);
+            assertEquals(tc.getCriticalPath().size(), 1);
+
+            tc.startAndWait();
+            assertTrue(tc.getFailedTaskGroups().isEmpty());
+            assertEquals(tp.count.get(), 2);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Counts the transactions opened, without touching a database
+     */
+    private static class NopTransactionProvider implements ITransactionProvider {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public ITransaction getTransaction() {
+            count.incrementAndGet();
+            return new ITransaction() {
+                @Override
+                public void setRollbackOnly() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.database.utils.pool;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.database.utils.api.DataAccessException;
+import com.ibm.watson.health.database.utils.api.IConnectionProvider;
+import com.ibm.watson.health.database.utils.api.IDatabaseTranslator;
+import com.ibm.watson.health.database.utils.api.ITransaction;
+import com.ibm.watson.health.database.utils.derby.DerbyTranslator;
+import com.ibm.watson.health.database.utils.jdbc.ConnectionStub;
+import com.ibm.watson.health.database.utils.transaction.TransactionFactory;
+
+/**
+ * Unit tests for the {@link PoolConnectionProvider}, using stub connections
+ */
+public class PoolConnectionProviderTest {
+
+    @Test
+    public void testConnectionReusedWithinTransaction() throws Exception {
+        StubConnectionProvider cp = new StubConnectionProvider();
+        PoolConnectionProvider pool = new PoolConnectionProvider(cp, 2);
+
+        Connection first;
+        try (ITransaction tx = TransactionFactory.openTransaction(pool)) {
+            try (Connection c1 = pool.getConnection()) {
+                first = ((PooledConnection) c1).getWrapped();
+            }
+            try (Connection c2 = pool.getConnection()) {
+                assertSame(((PooledConnection) c2).getWrapped(), first);
+            }
+        }
+        assertEquals(pool.getIdleConnections(), 1);
+
+        // the next transaction on this thread gets the same physical connection back
+        try (ITransaction tx = TransactionFactory.openTransaction(pool)) {
+            try (Connection c = pool.getConnection()) {
+                assertSame(((PooledConnection) c).getWrapped(), first);
+            }
+        }
+        assertEquals(cp.opened.get(), 1);
+        assertEquals(pool.getBorrowCount(), 2);
+    }
+
+    @Test
+    public void testRollbackDiscardsConnection() throws Exception {
+        StubConnectionProvider cp = new StubConnectionProvider();
+        PoolConnectionProvider pool = new PoolConnectionProvider(cp, 2);
+
+        try (ITransaction tx = TransactionFactory.openTransaction(pool)) {
+            try (Connection c = pool.getConnection()) {
+                tx.setRollbackOnly();
+            }
+        }
+        assertEquals(pool.getTotalConnections(), 0);
+        assertEquals(pool.getClosedCount(), 1);
+    }
+
+    @Test
+    public void testConcurrentBorrowers() throws Exception {
+        StubConnectionProvider cp = new StubConnectionProvider();
+        final int poolSize = 3;
+        PoolConnectionProvider pool = new PoolConnectionProvider(cp, poolSize);
+        AtomicInteger inUse = new AtomicInteger();
+        AtomicInteger maxInUse = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        try (ITransaction tx = TransactionFactory.openTransaction(pool)) {
+                            try (Connection c = pool.getConnection()) {
+                                maxInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+                                Thread.yield();
+                                inUse.decrementAndGet();
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f: futures) {
+                f.get(30, TimeUnit.SECONDS);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(maxInUse.get() <= poolSize);
+        assertTrue(cp.opened.get() <= poolSize);
+        assertEquals(pool.getBorrowCount(), 400);
+        assertEquals(pool.getActiveConnections(), 0);
+        assertEquals(pool.getThreadsAwaitingConnection(), 0);
+    }
+
+    @Test
+    public void testMaxWait() throws Exception {
+        StubConnectionProvider cp = new StubConnectionProvider();
+        PoolConnectionProvider pool = new PoolConnectionProvider(cp, 1);
+        pool.setMaxWaitMillis(100);
+
+        try (ITransaction tx = TransactionFactory.openTransaction(pool)) {
+            try (Connection c = pool.getConnection()) {
+                ExecutorService executor = Executors.newSingleThreadExecutor();
+                try {
+                    Future<?> f = executor.submit(() -> pool.getConnection());
+                    f.get(10, TimeUnit.SECONDS);
+                    fail("expected a timeout");
+                }
+                catch (java.util.concurrent.ExecutionException x) {
+                    assertTrue(x.getCause() instanceof DataAccessException);
+                }
+                finally {
+                    executor.shutdownNow();
+                }
+            }
+        }
+        assertEquals(pool.getTimeoutCount(), 1);
+    }
+
+    @Test
+    public void testValidation() throws Exception {
+        StubConnectionProvider cp = new StubConnectionProvider();
+        PoolConnectionProvider pool = new PoolConnectionProvider(cp, 2);
+        pool.setValidation(0, 1);
+
+        try (ITransaction tx = TransactionFactory.openTransaction(pool)) {
+            try (Connection c = pool.getConnection()) {
+            }
+        }
+        Thread.sleep(5);
+
+        // the idle connection is broken, so a new one is opened
+        cp.valid.set(false);
+        try (ITransaction tx = TransactionFactory.openTransaction(pool)) {
+            try (Connection c = pool.getConnection()) {
+            }
+        }
+        assertEquals(pool.getValidationFailureCount(), 1);
+        assertEquals(cp.opened.get(), 2);
+        assertEquals(pool.getTotalConnections(), 1);
+    }
+
+    @Test
+    public void testCreateBackoff() throws Exception {
+        StubConnectionProvider cp = new StubConnectionProvider();
+        PoolConnectionProvider pool = new PoolConnectionProvider(cp, 2);
+
+        cp.fail.set(true);
+        try {
+            pool.getConnection();
+            fail("expected a failure");
+        }
+        catch (SQLException x) {
+            assertFalse(x instanceof SQLTransientConnectionException);
+        }
+
+        // the provider recovers, but we don't retry straight away
+        cp.fail.set(false);
+        try {
+            pool.getConnection();
+            fail("expected a failure");
+        }
+        catch (SQLTransientConnectionException x) {
+            // expected
+        }
+        assertEquals(cp.opened.get(), 0);
+        assertEquals(pool.getCreateFailureCount(), 1);
+    }
+
+    @Test
+    public void testIdleTimeoutAndLeakDetection() throws Exception {
+        StubConnectionProvider cp = new StubConnectionProvider();
+        PoolConnectionProvider pool = new PoolConnectionProvider(cp, 2);
+        pool.setIdleTimeoutMillis(1);
+        pool.setLeakDetectionThresholdMillis(1);
+
+        try (ITransaction tx = TransactionFactory.openTransaction(pool)) {
+            try (Connection c = pool.getConnection()) {
+                Thread.sleep(5);
+                pool.runHousekeeping();
+                assertEquals(pool.getLeakCount(), 1);
+            }
+        }
+        Thread.sleep(5);
+        pool.runHousekeeping();
+        assertEquals(pool.getTotalConnections(), 0);
+        assertEquals(cp.closed.get(), 1);
+    }
+
+    /**
+     * Provides stub connections, counting the number opened and closed
+     */
+    private static class StubConnectionProvider implements IConnectionProvider {
+        private final AtomicInteger opened = new AtomicInteger();
+        private final AtomicInteger closed = new AtomicInteger();
+        private final AtomicBoolean valid = new AtomicBoolean(true);
+        private final AtomicBoolean fail = new AtomicBoolean();
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (fail.get()) {
+                throw new SQLException("connection refused");
+            }
+            opened.incrementAndGet();
+            return new ConnectionStub() {
+                @Override
+                public boolean isValid(int timeout) {
+                    return valid.get();
+                }
+
+                @Override
+                public void close() {
+                    closed.incrementAndGet();
+                }
+            };
+        }
+
+        @Override
+        public IDatabaseTranslator getTranslator() {
+            return new DerbyTranslator();
+        }
+
+        @Override
+        public void commitTransaction() throws SQLException {
+        }
+
+        @Override
+        public void rollbackTransaction() throws SQLException {
+        }
+
+        @Override
+        public void describe(String prefix, StringBuilder cfg, String key) {
+        }
+    }
+}
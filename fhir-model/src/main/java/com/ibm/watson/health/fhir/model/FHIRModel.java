@@ -34,9 +34,15 @@ public final class FHIRModel {
      */
     public static final String PROPERTY_TO_STRING_PRETTY_PRINTING = "com.ibm.watson.health.fhir.model.toStringPrettyPrinting";
     
+    /**
+     * Used to determine whether the JSON generator should memoize the compact JSON form of each resource it generates
+     */
+    public static final String PROPERTY_JSON_CACHING = "com.ibm.watson.health.fhir.model.jsonCaching";
+    
     private static final Format DEFAULT_TO_STRING_FORMAT = Format.JSON;
     private static final int DEFAULT_TO_STRING_INDENT_AMOUNT = 2;
     private static final boolean DEFAULT_TO_STRING_PRETTY_PRINTING = true;
+    private static final boolean DEFAULT_JSON_CACHING = false;
 
     private static final Map<String, Object> properties = new ConcurrentHashMap<>();
    
@@ -65,6 +71,14 @@ public final class FHIRModel {
     public static boolean getToStringPrettyPrinting() {
         return getPropertyOrDefault(PROPERTY_TO_STRING_PRETTY_PRINTING, DEFAULT_TO_STRING_PRETTY_PRINTING, Boolean.class);
     }
+    
+    public static void setJsonCaching(boolean jsonCaching) {
+        setProperty(PROPERTY_JSON_CACHING, jsonCaching);
+    }
+    
+    public static boolean getJsonCaching() {
+        return getPropertyOrDefault(PROPERTY_JSON_CACHING, DEFAULT_JSON_CACHING, Boolean.class);
+    }
    
     public static void setProperty(String name, Object value) {
         properties.put(requireNonNull(name), requireNonNull(value));
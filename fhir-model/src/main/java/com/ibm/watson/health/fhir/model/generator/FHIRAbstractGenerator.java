@@ -8,15 +8,15 @@ package com.ibm.watson.health.fhir.model.generator;
 
 import java.io.OutputStream;
 import java.io.Writer;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.ibm.watson.health.fhir.model.generator.exception.FHIRGeneratorException;
 import com.ibm.watson.health.fhir.model.visitor.Visitable;
 
 public abstract class FHIRAbstractGenerator implements FHIRGenerator {
-    protected Map<String, Object> properties = new HashMap<>();
+    protected Map<String, Object> properties = new ConcurrentHashMap<>();
 
     @Override
     public abstract void generate(Visitable visitable, OutputStream out) throws FHIRGeneratorException;
@@ -6,12 +6,9 @@
 
 package com.ibm.watson.health.fhir.model.generator;
 
-import static com.ibm.watson.health.fhir.model.util.JsonSupport.nonClosingOutputStream;
-import static com.ibm.watson.health.fhir.model.util.JsonSupport.nonClosingWriter;
 import static com.ibm.watson.health.fhir.model.util.ModelSupport.isPrimitiveType;
 
-import java.io.FilterOutputStream;
-import java.io.FilterWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
@@ -20,15 +17,12 @@ import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.util.Base64;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
 
-import javax.json.Json;
 import javax.json.stream.JsonGenerator;
-import javax.json.stream.JsonGeneratorFactory;
 
+import com.ibm.watson.health.fhir.model.FHIRModel;
 import com.ibm.watson.health.fhir.model.format.Format;
 import com.ibm.watson.health.fhir.model.generator.exception.FHIRGeneratorException;
 import com.ibm.watson.health.fhir.model.resource.Patient;
@@ -52,9 +46,6 @@ import com.ibm.watson.health.fhir.model.type.Xhtml;
 import com.ibm.watson.health.fhir.model.visitor.Visitable;
 
 public class FHIRJsonGenerator extends FHIRAbstractGenerator {
-    private static final JsonGeneratorFactory GENERATOR_FACTORY = Json.createGeneratorFactory(null);
-    private static final JsonGeneratorFactory PRETTY_PRINTING_GENERATOR_FACTORY = createPrettyPrintingGeneratorFactory();
-        
     private final boolean prettyPrinting;
 
     protected FHIRJsonGenerator() {
@@ -67,8 +58,19 @@ public class FHIRJsonGenerator extends FHIRAbstractGenerator {
     
     @Override
     public void generate(Visitable visitable, OutputStream out) throws FHIRGeneratorException {
+        if (!prettyPrinting && visitable instanceof Resource) {
+            byte[] json = getCachedJson((Resource) visitable);
+            if (json != null) {
+                try {
+                    out.write(json);
+                } catch (IOException e) {
+                    throw new FHIRGeneratorException(e.getMessage(), null, e);
+                }
+                return;
+            }
+        }
         GeneratingVisitor visitor = null;
-        try (JsonGenerator generator = getGeneratorFactory().createGenerator(prettyPrinting ? wrap(out) : nonClosingOutputStream(out), StandardCharsets.UTF_8)) {
+        try (JsonGenerator generator = new UTF8JsonGenerator(out, prettyPrinting, getIndentAmount())) {
             visitor = new JsonGeneratingVisitor(generator);
             visitable.accept(visitor);
             generator.flush();
@@ -79,8 +81,19 @@ public class FHIRJsonGenerator extends FHIRAbstractGenerator {
 
     @Override
     public void generate(Visitable visitable, Writer writer) throws FHIRGeneratorException {
+        if (!prettyPrinting && visitable instanceof Resource) {
+            byte[] json = getCachedJson((Resource) visitable);
+            if (json != null) {
+                try {
+                    writer.write(new java.lang.String(json, StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    throw new FHIRGeneratorException(e.getMessage(), null, e);
+                }
+                return;
+            }
+        }
         GeneratingVisitor visitor = null;
-        try (JsonGenerator generator = getGeneratorFactory().createGenerator(prettyPrinting ? wrap(writer) : nonClosingWriter(writer))) {
+        try (JsonGenerator generator = new UTF8JsonGenerator(writer, prettyPrinting, getIndentAmount())) {
             visitor = new JsonGeneratingVisitor(generator);
             visitable.accept(visitor);
             generator.flush();
@@ -89,6 +102,35 @@ public class FHIRJsonGenerator extends FHIRAbstractGenerator {
         }
     }
 
+    /**
+     * Get the memoized compact JSON form of the resource, generating and caching it first, if JSON caching 
+     * is enabled via {@link FHIRModel#setJsonCaching(boolean)}.
+     * 
+     * @return
+     *     the cached JSON bytes or null if caching is disabled
+     */
+    private byte[] getCachedJson(Resource resource) throws FHIRGeneratorException {
+        if (!FHIRModel.getJsonCaching()) {
+            return null;
+        }
+        JsonCache jsonCache = resource.getJsonCache();
+        byte[] json = jsonCache.get();
+        if (json == null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+            GeneratingVisitor visitor = null;
+            try (JsonGenerator generator = new UTF8JsonGenerator(out, false, 0)) {
+                visitor = new JsonGeneratingVisitor(generator);
+                resource.accept(visitor);
+                generator.flush();
+            } catch (Exception e) {
+                throw new FHIRGeneratorException(e.getMessage(), (visitor != null) ? visitor.getPath() : null, e);
+            }
+            json = out.toByteArray();
+            jsonCache.set(json);
+        }
+        return json;
+    }
+
     @Override
     public boolean isPrettyPrinting() {
         return prettyPrinting;
@@ -98,54 +140,19 @@ public class FHIRJsonGenerator extends FHIRAbstractGenerator {
     public void reset() {
         // do nothing
     }
-    
-    /**
-     * Temporary workaround for: https://github.com/eclipse-ee4j/jsonp/issues/190
-     */
-    private OutputStream wrap(OutputStream out) {
-        return new FilterOutputStream(out) {
-            private boolean first = true;
-            
-            @Override
-            public void write(int b) throws IOException {
-                if (first && b == '\n') {
-                    first = false;
-                    return;
-                }
-                out.write(b);
-            }
-            
-            @Override
-            public void close() {
-                // do nothing
-            }
-        };
-    }
-    
-    /**
-     * Temporary workaround for: https://github.com/eclipse-ee4j/jsonp/issues/190
-     */
-    private Writer wrap(Writer writer) {
-        return new FilterWriter(writer) {
-            private boolean first = true;
-            
-            @Override
-            public void write(char[] cbuf, int off, int len) throws IOException {
-                if (first && cbuf.length > 1 && off == 0 && cbuf[0] == '\n') {
-                    first = false;
-                    out.write(cbuf, off + 1, len - 1);
-                    return;
-                }
-                out.write(cbuf, off, len);
-            }
-            
-            @Override
-            public void close() {
-                // do nothing
-            }
-        };
+
+    @Override
+    public boolean isPropertySupported(java.lang.String name) {
+        if (FHIRGenerator.PROPERTY_INDENT_AMOUNT.equals(name)) {
+            return true;
+        }
+        return false;
     }
 
+    private int getIndentAmount() {
+        return getPropertyOrDefault(FHIRGenerator.PROPERTY_INDENT_AMOUNT, UTF8JsonGenerator.DEFAULT_INDENT_AMOUNT, java.lang.Integer.class);
+    }
+    
     private static class JsonGeneratingVisitor extends GeneratingVisitor {
         private final JsonGenerator generator;
                 
@@ -443,16 +450,6 @@ public class FHIRJsonGenerator extends FHIRAbstractGenerator {
         }
     }
 
-    private static JsonGeneratorFactory createPrettyPrintingGeneratorFactory() {
-        Map<java.lang.String, Object> properties = new HashMap<>(1);
-        properties.put(JsonGenerator.PRETTY_PRINTING, true);
-        return Json.createGeneratorFactory(properties);
-    }
-
-    private JsonGeneratorFactory getGeneratorFactory() {
-        return prettyPrinting ? PRETTY_PRINTING_GENERATOR_FACTORY : GENERATOR_FACTORY;
-    }
-
     public static void main(java.lang.String[] args) throws Exception {
         Id id = Id.builder().value(UUID.randomUUID().toString())
                 .extension(Extension.builder()
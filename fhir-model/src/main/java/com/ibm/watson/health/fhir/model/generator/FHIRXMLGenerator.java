@@ -17,6 +17,7 @@ import java.io.StringReader;
 import java.io.Writer;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.UUID;
 
@@ -127,6 +128,7 @@ public class FHIRXMLGenerator extends FHIRAbstractGenerator {
         };
         
         private int indentLevel = 0;
+        private char[] indentation = new char[0];
                 
         private XMLGeneratingVisitor(XMLStreamWriter writer, boolean prettyPrinting, int indentAmount) {
             this.writer = writer;
@@ -157,14 +159,15 @@ public class FHIRXMLGenerator extends FHIRAbstractGenerator {
         
         private void indent() {
             if (prettyPrinting) {
-                for (int i = 0; i < indentLevel; i++) {
-                    try {
-                        for (int j = 0; j < indentAmount; j++) {
-                            writer.writeCharacters(" ");
-                        }
-                    } catch (XMLStreamException e) {
-                        throw new RuntimeException(e);
-                    }
+                int length = indentLevel * indentAmount;
+                if (length > indentation.length) {
+                    indentation = new char[Math.max(length, indentation.length * 2)];
+                    Arrays.fill(indentation, ' ');
+                }
+                try {
+                    writer.writeCharacters(indentation, 0, length);
+                } catch (XMLStreamException e) {
+                    throw new RuntimeException(e);
                 }
             }
         }
@@ -6,7 +6,8 @@
 
 package com.ibm.watson.health.fhir.model.generator;
 
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.ibm.watson.health.fhir.model.resource.Resource;
 import com.ibm.watson.health.fhir.model.type.Element;
@@ -14,7 +15,8 @@ import com.ibm.watson.health.fhir.model.util.ModelSupport;
 import com.ibm.watson.health.fhir.model.visitor.PathAwareAbstractVisitor;
 
 public abstract class GeneratingVisitor extends PathAwareAbstractVisitor {
-    protected final Stack<Class<?>> typeStack = new Stack<>();
+    // an unsynchronized stack of the types being visited (a visitor is confined to a single generate call)
+    protected final List<Class<?>> typeStack = new ArrayList<>();
     
     protected GeneratingVisitor() {
         // for subclasses
@@ -37,23 +39,23 @@ public abstract class GeneratingVisitor extends PathAwareAbstractVisitor {
 
     @Override
     public final void postVisit(Element element) {
-        typeStack.pop();
+        typeStack.remove(typeStack.size() - 1);
     }
 
     @Override
     public final void postVisit(Resource resource) {
-        typeStack.pop();
+        typeStack.remove(typeStack.size() - 1);
     }
 
     @Override
     public final boolean preVisit(Element element) {
-        typeStack.push(element.getClass());
+        typeStack.add(element.getClass());
         return true;
     }
 
     @Override
     public final boolean preVisit(Resource resource) {
-        typeStack.push(resource.getClass());
+        typeStack.add(resource.getClass());
         return true;
     }
 }
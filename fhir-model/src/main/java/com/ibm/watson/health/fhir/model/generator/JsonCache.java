@@ -0,0 +1,34 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.model.generator;
+
+/**
+ * The memoized compact JSON form of a resource (see {@link com.ibm.watson.health.fhir.model.resource.Resource#getJsonCache()}).
+ *
+ * <p>Only the JSON generator can fill it in, so the cached form is always the generator's own output for the resource
+ * which holds it.
+ */
+public final class JsonCache {
+    private volatile byte[] json;
+
+    public JsonCache() {
+        // one per resource instance
+    }
+
+    /**
+     * @return
+     *     the UTF-8 encoded compact JSON form of the resource, or null if it has not been cached; the returned array is
+     *     shared and must not be modified
+     */
+    public byte[] get() {
+        return json;
+    }
+
+    void set(byte[] json) {
+        this.json = json;
+    }
+}
@@ -0,0 +1,715 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.model.generator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerationException;
+import javax.json.stream.JsonGenerator;
+
+/**
+ * A {@link JsonGenerator} implementation that encodes UTF-8 directly into a pooled byte buffer. When the target is a
+ * {@link Writer}, characters are buffered instead and handed to the writer as they are, without being encoded.
+ *
+ * <p>Field names are encoded once (quoted and escaped) and the encoded form is shared across generator instances.
+ * Pretty printing writes newlines and indentation straight into the buffer and, unlike the javax.json reference
+ * implementation, does not emit a leading newline.
+ *
+ * <p>Instances are not thread-safe and are intended to be used for a single generate call. Closing the generator
+ * flushes the buffer and returns it to the pool but does not close the underlying output stream or writer.
+ */
+final class UTF8JsonGenerator implements JsonGenerator {
+    static final int DEFAULT_INDENT_AMOUNT = 4;
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_ENCODED_NAMES = 8192;
+    private static final int MAX_DEPTH = 1024;
+
+    // one buffer of each kind per thread; a buffer is removed from the pool while in use so that nested generators do not share it
+    private static final ThreadLocal<byte[]> BUFFER_POOL = new ThreadLocal<>();
+    private static final ThreadLocal<char[]> CHAR_BUFFER_POOL = new ThreadLocal<>();
+
+    // field name -> quoted, escaped field name
+    private static final Map<String, EncodedName> ENCODED_NAMES = new ConcurrentHashMap<>();
+
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+    private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+    private static final byte[] SPACES = new byte[64];
+    static {
+        Arrays.fill(SPACES, (byte) ' ');
+    }
+
+    private final OutputStream out;
+    private final Writer writer;
+    private final boolean prettyPrinting;
+    private final int indentAmount;
+
+    // exactly one of the buffers is used: bytes for an output stream, chars for a writer
+    private byte[] buffer;
+    private char[] charBuffer;
+    private int count;
+
+    // per-level state: whether the container is an object and whether a value has been written to it yet
+    private boolean[] object = new boolean[16];
+    private boolean[] empty = new boolean[16];
+    private int depth;
+    private boolean keyWritten;
+    private boolean complete;
+
+    UTF8JsonGenerator(OutputStream out, boolean prettyPrinting, int indentAmount) {
+        this(out, null, prettyPrinting, indentAmount);
+    }
+
+    UTF8JsonGenerator(Writer writer, boolean prettyPrinting, int indentAmount) {
+        this(null, writer, prettyPrinting, indentAmount);
+    }
+
+    private UTF8JsonGenerator(OutputStream out, Writer writer, boolean prettyPrinting, int indentAmount) {
+        if (indentAmount < 0) {
+            throw new IllegalArgumentException("indentAmount must not be negative");
+        }
+        this.out = out;
+        this.writer = writer;
+        this.prettyPrinting = prettyPrinting;
+        this.indentAmount = indentAmount;
+        if (out != null) {
+            this.buffer = acquireBuffer();
+        } else {
+            this.charBuffer = acquireCharBuffer();
+        }
+    }
+
+    @Override
+    public JsonGenerator writeStartObject() {
+        beforeValue();
+        writeByte('{');
+        push(true);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeStartObject(String name) {
+        writeName(name);
+        writeByte('{');
+        push(true);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeKey(String name) {
+        writeName(name);
+        keyWritten = true;
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeStartArray() {
+        beforeValue();
+        writeByte('[');
+        push(false);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeStartArray(String name) {
+        writeName(name);
+        writeByte('[');
+        push(false);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, JsonValue value) {
+        writeName(name);
+        writeJsonValue(value);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, String value) {
+        writeName(name);
+        writeQuoted(value);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, BigInteger value) {
+        writeName(name);
+        writeAscii(value.toString());
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, BigDecimal value) {
+        writeName(name);
+        writeAscii(value.toString());
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, int value) {
+        writeName(name);
+        writeAscii(Integer.toString(value));
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, long value) {
+        writeName(name);
+        writeAscii(Long.toString(value));
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, double value) {
+        writeName(name);
+        writeAscii(toString(value));
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String name, boolean value) {
+        writeName(name);
+        writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeNull(String name) {
+        writeName(name);
+        writeBytes(NULL);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeEnd() {
+        if (depth == 0) {
+            throw new JsonGenerationException("writeEnd() cannot be called outside of an object or array");
+        }
+        if (keyWritten) {
+            throw new JsonGenerationException("writeEnd() cannot be called after writeKey(String)");
+        }
+        boolean isObject = object[--depth];
+        if (prettyPrinting) {
+            writeNewLineAndIndent();
+        }
+        writeByte(isObject ? '}' : ']');
+        if (depth == 0) {
+            complete = true;
+        }
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(JsonValue value) {
+        beforeValue();
+        writeJsonValue(value);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(String value) {
+        beforeValue();
+        writeQuoted(value);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(BigDecimal value) {
+        beforeValue();
+        writeAscii(value.toString());
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(BigInteger value) {
+        beforeValue();
+        writeAscii(value.toString());
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(int value) {
+        beforeValue();
+        writeAscii(Integer.toString(value));
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(long value) {
+        beforeValue();
+        writeAscii(Long.toString(value));
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(double value) {
+        beforeValue();
+        writeAscii(toString(value));
+        return this;
+    }
+
+    @Override
+    public JsonGenerator write(boolean value) {
+        beforeValue();
+        writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonGenerator writeNull() {
+        beforeValue();
+        writeBytes(NULL);
+        return this;
+    }
+
+    @Override
+    public void flush() {
+        flushBuffer();
+        try {
+            if (out != null) {
+                out.flush();
+            } else {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (buffer == null && charBuffer == null) {
+            return;
+        }
+        try {
+            flushBuffer();
+        } finally {
+            if (buffer != null) {
+                releaseBuffer(buffer);
+                buffer = null;
+            } else {
+                releaseCharBuffer(charBuffer);
+                charBuffer = null;
+            }
+        }
+        if (depth != 0) {
+            throw new JsonGenerationException("Generating incomplete JSON");
+        }
+    }
+
+    private void push(boolean isObject) {
+        if (depth == object.length) {
+            if (depth == MAX_DEPTH) {
+                throw new JsonGenerationException("Maximum nesting depth exceeded: " + MAX_DEPTH);
+            }
+            object = Arrays.copyOf(object, depth * 2);
+            empty = Arrays.copyOf(empty, depth * 2);
+        }
+        object[depth] = isObject;
+        empty[depth] = true;
+        depth++;
+    }
+
+    /**
+     * Write the separator (and, when pretty printing, the newline and indentation) that precedes a value.
+     */
+    private void beforeValue() {
+        if (keyWritten) {
+            keyWritten = false;
+            return;
+        }
+        if (depth == 0) {
+            if (complete) {
+                throw new JsonGenerationException("Cannot generate more than one JSON value");
+            }
+            return;
+        }
+        if (object[depth - 1]) {
+            throw new JsonGenerationException("A value within an object must be preceded by a name");
+        }
+        beforeMember();
+    }
+
+    private void beforeMember() {
+        int level = depth - 1;
+        if (!empty[level]) {
+            writeByte(',');
+        } else {
+            empty[level] = false;
+        }
+        if (prettyPrinting) {
+            writeNewLineAndIndent();
+        }
+    }
+
+    private void writeName(String name) {
+        if (depth == 0 || !object[depth - 1] || keyWritten) {
+            throw new JsonGenerationException("A name can only be written within an object");
+        }
+        beforeMember();
+        EncodedName encodedName = encodeName(name);
+        if (charBuffer != null) {
+            writeChars(encodedName.chars);
+        } else {
+            writeBytes(encodedName.bytes);
+        }
+        if (prettyPrinting) {
+            writeByte(':');
+            writeByte(' ');
+        } else {
+            writeByte(':');
+        }
+    }
+
+    private void writeNewLineAndIndent() {
+        writeByte('\n');
+        int spaces = depth * indentAmount;
+        while (spaces > 0) {
+            int length = Math.min(spaces, SPACES.length);
+            writeBytes(SPACES, length);
+            spaces -= length;
+        }
+    }
+
+    private void writeJsonValue(JsonValue value) {
+        switch (value.getValueType()) {
+        case OBJECT:
+            writeByte('{');
+            push(true);
+            for (Map.Entry<String, JsonValue> entry : ((JsonObject) value).entrySet()) {
+                write(entry.getKey(), entry.getValue());
+            }
+            writeEnd();
+            break;
+        case ARRAY:
+            writeByte('[');
+            push(false);
+            for (JsonValue element : (JsonArray) value) {
+                write(element);
+            }
+            writeEnd();
+            break;
+        case STRING:
+            writeQuoted(((JsonString) value).getString());
+            break;
+        case NUMBER:
+            writeAscii(((JsonNumber) value).toString());
+            break;
+        case TRUE:
+            writeBytes(TRUE);
+            break;
+        case FALSE:
+            writeBytes(FALSE);
+            break;
+        case NULL:
+            writeBytes(NULL);
+            break;
+        }
+        if (depth == 0) {
+            complete = true;
+        }
+    }
+
+    private static EncodedName encodeName(String name) {
+        EncodedName encoded = ENCODED_NAMES.get(name);
+        if (encoded == null) {
+            StringBuilder sb = new StringBuilder(name.length() + 2).append('"');
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (c < 0x20 || c == '"' || c == '\\') {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+            }
+            encoded = new EncodedName(sb.append('"').toString());
+            // field names come from the model, so the cache is bounded in practice; the size check is a safeguard
+            if (ENCODED_NAMES.size() < MAX_ENCODED_NAMES) {
+                ENCODED_NAMES.putIfAbsent(name, encoded);
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Write the string as a quoted, escaped JSON string. The buffer is only flushed between characters so that a
+     * multi-byte sequence is never split across two writes to the underlying writer.
+     */
+    private void writeQuoted(String value) {
+        if (charBuffer != null) {
+            writeQuotedChars(value);
+            return;
+        }
+        writeByte('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (count + 6 > buffer.length) {
+                flushBuffer();
+            }
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buffer[count++] = (byte) c;
+                } else {
+                    writeEscaped(c);
+                }
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xc0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[count++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate; replace it as the JDK UTF-8 encoder does
+                buffer[count++] = '?';
+            } else {
+                buffer[count++] = (byte) (0xe0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[count++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Write the string as a quoted, escaped JSON string to the character buffer; characters outside of ASCII are
+     * left for the writer to encode.
+     */
+    private void writeQuotedChars(String value) {
+        writeByte('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (count + 6 > charBuffer.length) {
+                flushBuffer();
+            }
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                charBuffer[count++] = c;
+            } else {
+                writeEscaped(c);
+            }
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Write the escape sequence of the character; the caller ensures that the buffer has room for 6 more characters.
+     */
+    private void writeEscaped(char c) {
+        put('\\');
+        switch (c) {
+        case '"':
+        case '\\':
+            put(c);
+            break;
+        case '\b':
+            put('b');
+            break;
+        case '\f':
+            put('f');
+            break;
+        case '\n':
+            put('n');
+            break;
+        case '\r':
+            put('r');
+            break;
+        case '\t':
+            put('t');
+            break;
+        default:
+            put('u');
+            put('0');
+            put('0');
+            put((char) HEX[(c >> 4) & 0xf]);
+            put((char) HEX[c & 0xf]);
+        }
+    }
+
+    private void put(char c) {
+        if (charBuffer != null) {
+            charBuffer[count++] = c;
+        } else {
+            buffer[count++] = (byte) c;
+        }
+    }
+
+    private void writeAscii(String value) {
+        int length = value.length();
+        if (charBuffer != null) {
+            if (count + length > charBuffer.length) {
+                flushBuffer();
+                if (length > charBuffer.length) {
+                    writeDirect(value);
+                    return;
+                }
+            }
+            value.getChars(0, length, charBuffer, count);
+            count += length;
+            return;
+        }
+        if (count + length > buffer.length) {
+            flushBuffer();
+            if (length > buffer.length) {
+                writeBytes(value.getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            buffer[count++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeByte(char b) {
+        if (count == (charBuffer != null ? charBuffer.length : buffer.length)) {
+            flushBuffer();
+        }
+        put(b);
+    }
+
+    private void writeBytes(byte[] bytes) {
+        writeBytes(bytes, bytes.length);
+    }
+
+    /**
+     * Write the bytes of an ASCII constant, or of an encoded name when the target is an output stream.
+     */
+    private void writeBytes(byte[] bytes, int length) {
+        if (charBuffer != null) {
+            if (count + length > charBuffer.length) {
+                flushBuffer();
+                if (length > charBuffer.length) {
+                    writeDirect(new String(bytes, 0, length, StandardCharsets.US_ASCII));
+                    return;
+                }
+            }
+            for (int i = 0; i < length; i++) {
+                charBuffer[count++] = (char) bytes[i];
+            }
+            return;
+        }
+        if (count + length > buffer.length) {
+            flushBuffer();
+            if (length > buffer.length) {
+                writeDirect(bytes, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, count, length);
+        count += length;
+    }
+
+    private void writeChars(char[] chars) {
+        int length = chars.length;
+        if (count + length > charBuffer.length) {
+            flushBuffer();
+            if (length > charBuffer.length) {
+                writeDirect(new String(chars));
+                return;
+            }
+        }
+        System.arraycopy(chars, 0, charBuffer, count, length);
+        count += length;
+    }
+
+    private void flushBuffer() {
+        if (count > 0) {
+            try {
+                if (charBuffer != null) {
+                    writer.write(charBuffer, 0, count);
+                } else {
+                    out.write(buffer, 0, count);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            count = 0;
+        }
+    }
+
+    private void writeDirect(byte[] bytes, int length) {
+        try {
+            out.write(bytes, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeDirect(String value) {
+        try {
+            writer.write(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String toString(double value) {
+        if (Double.isInfinite(value) || Double.isNaN(value)) {
+            throw new NumberFormatException("Infinite or NaN value: " + value);
+        }
+        return String.valueOf(value);
+    }
+
+    private static byte[] acquireBuffer() {
+        byte[] buffer = BUFFER_POOL.get();
+        if (buffer != null) {
+            BUFFER_POOL.set(null);
+            return buffer;
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    private static void releaseBuffer(byte[] buffer) {
+        BUFFER_POOL.set(buffer);
+    }
+
+    private static char[] acquireCharBuffer() {
+        char[] buffer = CHAR_BUFFER_POOL.get();
+        if (buffer != null) {
+            CHAR_BUFFER_POOL.set(null);
+            return buffer;
+        }
+        return new char[BUFFER_SIZE];
+    }
+
+    private static void releaseCharBuffer(char[] buffer) {
+        CHAR_BUFFER_POOL.set(buffer);
+    }
+
+    /**
+     * A quoted, escaped field name in both of the forms the generator writes.
+     */
+    private static final class EncodedName {
+        private final byte[] bytes;
+        private final char[] chars;
+
+        private EncodedName(String quoted) {
+            this.bytes = quoted.getBytes(StandardCharsets.UTF_8);
+            this.chars = quoted.toCharArray();
+        }
+    }
+}
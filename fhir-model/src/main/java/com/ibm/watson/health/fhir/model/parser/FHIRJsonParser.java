@@ -6,6 +6,7 @@
 
 package com.ibm.watson.health.fhir.model.parser;
 
+import static com.ibm.watson.health.fhir.model.util.InterningSupport.intern;
 import static com.ibm.watson.health.fhir.model.util.JsonSupport.checkForUnrecognizedElements;
 import static com.ibm.watson.health.fhir.model.util.JsonSupport.getJsonArray;
 import static com.ibm.watson.health.fhir.model.util.JsonSupport.getJsonValue;
@@ -16,10 +17,13 @@ import static com.ibm.watson.health.fhir.model.util.ModelSupport.getChoiceElemen
 
 import java.io.InputStream;
 import java.io.Reader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.nio.charset.StandardCharsets;
 import java.util.Collection;
-import java.util.Stack;
-import java.util.StringJoiner;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.json.Json;
 import javax.json.JsonArray;
@@ -38,12 +42,13 @@ import com.ibm.watson.health.fhir.model.type.Boolean;
 import com.ibm.watson.health.fhir.model.type.Integer;
 import com.ibm.watson.health.fhir.model.type.String;
 import com.ibm.watson.health.fhir.model.util.ElementFilter;
+import com.ibm.watson.health.fhir.model.util.ModelSupport;
+import com.ibm.watson.health.fhir.model.visitor.Visitable;
 
 public class FHIRJsonParser implements FHIRParser {
     public static boolean DEBUG = false;
     private static final JsonReaderFactory JSON_READER_FACTORY = Json.createReaderFactory(null);
-
-    private final Stack<java.lang.String> stack = new Stack<>();
+    private static final Map<Class<?>, MethodHandle> PARSE_METHOD_HANDLE_MAP = new ConcurrentHashMap<>();
 
     FHIRJsonParser() {
         // only visible to subclasses or classes/interfaces in the same package (e.g. FHIRParser)
@@ -58,6 +63,8 @@ public class FHIRJsonParser implements FHIRParser {
         try (JsonReader jsonReader = JSON_READER_FACTORY.createReader(nonClosingInputStream(in), StandardCharsets.UTF_8)) {
             JsonObject jsonObject = jsonReader.readObject();
             return parseAndFilter(jsonObject, elementsToInclude);
+        } catch (FHIRParserException e) {
+            throw e;
         } catch (Exception e) {
             throw new FHIRParserException(e.getMessage(), getPath(), e);
         }
@@ -72,6 +79,8 @@ public class FHIRJsonParser implements FHIRParser {
         try (JsonReader jsonReader = JSON_READER_FACTORY.createReader(nonClosingReader(reader))) {
             JsonObject jsonObject = jsonReader.readObject();
             return parseAndFilter(jsonObject, elementsToInclude);
+        } catch (FHIRParserException e) {
+            throw e;
         } catch (Exception e) {
             throw new FHIRParserException(e.getMessage(), getPath(), e);
         }
@@ -83,8 +92,9 @@ public class FHIRJsonParser implements FHIRParser {
 
     @SuppressWarnings("unchecked")
     public <T extends Resource> T parseAndFilter(JsonObject jsonObject, Collection<java.lang.String> elementsToInclude) throws FHIRParserException {
+        ParsingContext context = ParsingContext.current();
+        int mark = context.mark();
         try {
-            reset();
             Class<?> resourceType = getResourceType(jsonObject);
             if (elementsToInclude != null) {
                 ElementFilter elementFilter = new ElementFilter(resourceType, elementsToInclude);
@@ -93,12 +103,91 @@ public class FHIRJsonParser implements FHIRParser {
             return (T) parseResource(resourceType.getSimpleName(), jsonObject, -1);
         } catch (Exception e) {
             throw new FHIRParserException(e.getMessage(), getPath(), e);
+        } finally {
+            context.reset(mark);
         }
     }
 
     @Override
     public void reset() {
-        stack.clear();
+        // do nothing (parsing state is kept in a per-thread ParsingContext)
+    }
+
+    /**
+     * Parse a single element (or resource) of the specified model type from a JSON value, e.g. the value of a JSON Patch 
+     * operation, without parsing the resource that contains it.
+     * 
+     * @param type
+     *     the model type of the element
+     * @param elementName
+     *     the name of the element
+     * @param jsonValue
+     *     the JSON value of the element
+     * @param _jsonValue
+     *     the JSON value of the "_" (id and extension) member that goes with a primitive element, or null
+     * @return
+     *     the parsed element or null if both JSON values are null
+     * @throws FHIRParserException
+     *     if the JSON value(s) could not be parsed into an element of the specified type
+     */
+    public <T extends Visitable> T parse(Class<T> type, java.lang.String elementName, JsonValue jsonValue, JsonValue _jsonValue) throws FHIRParserException {
+        ParsingContext context = ParsingContext.current();
+        int mark = context.mark();
+        try {
+            if (Resource.class.isAssignableFrom(type)) {
+                return type.cast(parseResource(elementName, (JsonObject) jsonValue, -1));
+            }
+            return type.cast(getParseMethodHandle(type).invoke(this, elementName, jsonValue, _jsonValue));
+        } catch (Throwable t) {
+            throw new FHIRParserException(t.getMessage(), getPath(), t);
+        } finally {
+            context.reset(mark);
+        }
+    }
+
+    private static MethodHandle getParseMethodHandle(Class<?> type) {
+        return PARSE_METHOD_HANDLE_MAP.computeIfAbsent(type, FHIRJsonParser::findParseMethodHandle);
+    }
+
+    /**
+     * Adapt the generated parse method for the specified type to (FHIRJsonParser, java.lang.String, JsonValue, JsonValue)Object
+     */
+    private static MethodHandle findParseMethodHandle(Class<?> type) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            boolean primitive = ModelSupport.isPrimitiveType(type);
+
+            // profiled types and primitive type specializations (e.g. SimpleQuantity and Code) are parsed by the method for their base type
+            Class<?> baseType = ModelSupport.getConcreteType(type);
+            while (primitive && ModelSupport.isPrimitiveType(baseType.getSuperclass())) {
+                baseType = baseType.getSuperclass();
+            }
+
+            java.lang.String methodName = "parse" + type.getName().substring(type.getPackage().getName().length() + 1).replace("$", "");
+            MethodType methodType = primitive ? 
+                    MethodType.methodType(baseType, java.lang.String.class, JsonValue.class, JsonValue.class, int.class) : 
+                    MethodType.methodType(baseType, java.lang.String.class, JsonObject.class, int.class);
+
+            MethodHandle methodHandle;
+            if (baseType.equals(type)) {
+                methodHandle = lookup.findVirtual(FHIRJsonParser.class, methodName, methodType);
+            } else {
+                Class<?> builderType = Class.forName(baseType.getName() + "$Builder");
+                methodName = "parse" + baseType.getSimpleName();
+                methodHandle = lookup.findVirtual(FHIRJsonParser.class, methodName, methodType.insertParameterTypes(0, builderType));
+                // a new builder is created (via the static builder() method of the type) for each invocation
+                MethodHandle builderMethodHandle = lookup.findStatic(type, "builder", MethodType.methodType(Class.forName(type.getName() + "$Builder")));
+                methodHandle = MethodHandles.collectArguments(methodHandle, 1, builderMethodHandle.asType(MethodType.methodType(builderType)));
+            }
+
+            methodHandle = MethodHandles.insertArguments(methodHandle, primitive ? 4 : 3, -1);
+            if (!primitive) {
+                methodHandle = MethodHandles.dropArguments(methodHandle, 3, JsonValue.class);
+            }
+            return methodHandle.asType(MethodType.methodType(Object.class, FHIRJsonParser.class, java.lang.String.class, JsonValue.class, JsonValue.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Unsupported element type: " + type.getName(), e);
+        }
     }
 
     private Resource parseResource(java.lang.String elementName, JsonObject jsonObject, int elementIndex) {
@@ -17912,7 +18001,7 @@ public class FHIRJsonParser implements FHIRParser {
             builder.value(jsonString.getString());
         }
         stackPop();
-        return builder.build();
+        return intern(builder.build());
     }
 
     private String parseString(java.lang.String elementName, JsonValue jsonValue, JsonValue _jsonValue, int elementIndex) {
@@ -20512,7 +20601,7 @@ public class FHIRJsonParser implements FHIRParser {
             builder.value(jsonString.getString());
         }
         stackPop();
-        return builder.build();
+        return intern(builder.build());
     }
 
     private Uri parseUri(java.lang.String elementName, JsonValue jsonValue, JsonValue _jsonValue, int elementIndex) {
@@ -20985,18 +21074,15 @@ public class FHIRJsonParser implements FHIRParser {
     }
 
     private void stackPush(java.lang.String elementName, int elementIndex) {
-        if (elementIndex != -1) {
-            stack.push(elementName + "[" + elementIndex + "]");
-        } else {
-            stack.push(elementName);
-        }
+        ParsingContext context = ParsingContext.current();
+        context.push(elementName, elementIndex);
         if (DEBUG) {
-            System.out.println(getPath());
+            System.out.println(context.getPath());
         }
     }
 
     private void stackPop() {
-        stack.pop();
+        ParsingContext.current().pop();
     }
 
     private Element parseChoiceElement(java.lang.String name, JsonObject jsonObject, Class<?>... choiceTypes) {
@@ -21155,11 +21241,7 @@ public class FHIRJsonParser implements FHIRParser {
     }
 
     private java.lang.String getPath() {
-        StringJoiner joiner = new StringJoiner(".");
-        for (java.lang.String s : stack) {
-            joiner.add(s);
-        }
-        return joiner.toString();
+        return ParsingContext.current().getPath();
     }
 
     private java.lang.String parseJavaString(java.lang.String elementName, JsonString jsonString, int elementIndex) {
@@ -6,6 +6,7 @@
 
 package com.ibm.watson.health.fhir.model.parser;
 
+import static com.ibm.watson.health.fhir.model.util.InterningSupport.intern;
 import static com.ibm.watson.health.fhir.model.util.XMLSupport.FHIR_NS_URI;
 import static com.ibm.watson.health.fhir.model.util.XMLSupport.XHTML_NS_URI;
 import static com.ibm.watson.health.fhir.model.util.XMLSupport.checkElementOrder;
@@ -16,8 +17,6 @@ import static com.ibm.watson.health.fhir.model.util.XMLSupport.requireNamespace;
 
 import java.io.InputStream;
 import java.io.Reader;
-import java.util.Stack;
-import java.util.StringJoiner;
 
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
@@ -34,8 +33,6 @@ import com.ibm.watson.health.fhir.model.util.XMLSupport.StreamReaderDelegate;
 public class FHIRXMLParser implements FHIRParser {
     public static boolean DEBUG = false;
 
-    private final Stack<java.lang.String> stack = new Stack<>();
-
     FHIRXMLParser() {
         // only visible to subclasses or classes/interfaces in the same package (e.g. FHIRParser)
     }
@@ -43,6 +40,8 @@ public class FHIRXMLParser implements FHIRParser {
     @SuppressWarnings("unchecked")
     @Override
     public <T extends Resource> T parse(InputStream in) throws FHIRParserException {
+        ParsingContext context = ParsingContext.current();
+        int mark = context.mark();
         try (StreamReaderDelegate delegate = createStreamReaderDelegate(in)) {
             while (delegate.hasNext()) {
                 int eventType = delegate.next();
@@ -55,12 +54,16 @@ public class FHIRXMLParser implements FHIRParser {
             throw new XMLStreamException("Unexpected end of stream");
         } catch (Exception e) {
             throw new FHIRParserException(e.getMessage(), getPath(), e);
+        } finally {
+            context.reset(mark);
         }
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public <T extends Resource> T parse(Reader reader) throws FHIRParserException {
+        ParsingContext context = ParsingContext.current();
+        int mark = context.mark();
         try (StreamReaderDelegate delegate = createStreamReaderDelegate(reader)) {
             while (delegate.hasNext()) {
                 int eventType = delegate.next();
@@ -73,12 +76,14 @@ public class FHIRXMLParser implements FHIRParser {
             throw new XMLStreamException("Unexpected end of stream");
         } catch (Exception e) {
             throw new FHIRParserException(e.getMessage(), getPath(), e);
+        } finally {
+            context.reset(mark);
         }
     }
 
     @Override
     public void reset() {
-        stack.clear();
+        // do nothing (parsing state is kept in a per-thread ParsingContext)
     }
 
     private Resource parseResource(java.lang.String elementName, XMLStreamReader reader, int elementIndex) throws XMLStreamException {
@@ -42433,7 +42438,7 @@ public class FHIRXMLParser implements FHIRParser {
             case XMLStreamReader.END_ELEMENT:
                 if (reader.getLocalName().equals(elementName)) {
                     stackPop();
-                    return builder.build();
+                    return intern(builder.build());
                 }
                 break;
             }
@@ -50016,7 +50021,7 @@ public class FHIRXMLParser implements FHIRParser {
             case XMLStreamReader.END_ELEMENT:
                 if (reader.getLocalName().equals(elementName)) {
                     stackPop();
-                    return builder.build();
+                    return intern(builder.build());
                 }
                 break;
             }
@@ -51236,26 +51241,19 @@ public class FHIRXMLParser implements FHIRParser {
     }
 
     private void stackPush(java.lang.String elementName, int elementIndex) {
-        if (elementIndex != -1) {
-            stack.push(elementName + "[" + elementIndex + "]");
-        } else {
-            stack.push(elementName);
-        }
+        ParsingContext context = ParsingContext.current();
+        context.push(elementName, elementIndex);
         if (DEBUG) {
-            System.out.println(getPath());
+            System.out.println(context.getPath());
         }
     }
 
     private void stackPop() {
-        stack.pop();
+        ParsingContext.current().pop();
     }
 
     private java.lang.String getPath() {
-        StringJoiner joiner = new StringJoiner(".");
-        for (java.lang.String s : stack) {
-            joiner.add(s);
-        }
-        return joiner.toString();
+        return ParsingContext.current().getPath();
     }
 
     private java.lang.String getResourceType(XMLStreamReader reader) throws XMLStreamException {
@@ -0,0 +1,97 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.model.parser;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread parsing state (the path to the element currently being parsed) for the FHIR parsers.
+ *
+ * <p>Keeping this state out of the parser instances makes the parsers stateless, so a single instance can be shared
+ * across threads. Element names and indices are stored separately and the path string is only built on demand (e.g.
+ * when reporting an error).
+ *
+ * <p>Usage from a public parse method:
+ * <pre>
+ * ParsingContext context = ParsingContext.current();
+ * int mark = context.mark();
+ * try {
+ *     ...
+ * } finally {
+ *     context.reset(mark);
+ * }
+ * </pre>
+ * Resetting to the mark (rather than clearing the context) keeps the context consistent when a parse is invoked
+ * re-entrantly on the same thread or when a parse method exits early with an exception.
+ */
+final class ParsingContext {
+    private static final int INITIAL_CAPACITY = 32;
+
+    private static final ThreadLocal<ParsingContext> CURRENT = new ThreadLocal<ParsingContext>() {
+        @Override
+        protected ParsingContext initialValue() {
+            return new ParsingContext();
+        }
+    };
+
+    private java.lang.String[] names = new java.lang.String[INITIAL_CAPACITY];
+    private int[] indices = new int[INITIAL_CAPACITY];
+    private int depth;
+
+    private ParsingContext() { }
+
+    /**
+     * @return
+     *     the parsing context for the current thread
+     */
+    static ParsingContext current() {
+        return CURRENT.get();
+    }
+
+    int mark() {
+        return depth;
+    }
+
+    void reset(int mark) {
+        for (int i = mark; i < depth; i++) {
+            names[i] = null;
+        }
+        depth = mark;
+    }
+
+    void push(java.lang.String elementName, int elementIndex) {
+        if (depth == names.length) {
+            names = Arrays.copyOf(names, depth * 2);
+            indices = Arrays.copyOf(indices, depth * 2);
+        }
+        names[depth] = elementName;
+        indices[depth] = elementIndex;
+        depth++;
+    }
+
+    void pop() {
+        names[--depth] = null;
+    }
+
+    /**
+     * @return
+     *     the path to the element currently being parsed, e.g. "Patient.name[0].given[1]"
+     */
+    java.lang.String getPath() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            if (i > 0) {
+                sb.append('.');
+            }
+            sb.append(names[i]);
+            if (indices[i] != -1) {
+                sb.append('[').append(indices[i]).append(']');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -7,6 +7,7 @@
 package com.ibm.watson.health.fhir.model.patch;
 
 import java.util.Objects;
+import java.util.Optional;
 
 import javax.json.JsonArray;
 import javax.json.JsonException;
@@ -26,6 +27,7 @@ import com.ibm.watson.health.fhir.model.util.JsonSupport;
 public class FHIRJsonPatch implements FHIRPatch {
     private static final JsonProvider PROVIDER = JsonProvider.provider();
     private final JsonPatch patch;
+    private final ModelPatch modelPatch;
     
     FHIRJsonPatch(JsonArray array) {
         this(PROVIDER.createPatch(array));
@@ -33,6 +35,7 @@ public class FHIRJsonPatch implements FHIRPatch {
     
     FHIRJsonPatch(JsonPatch patch) {
         this.patch = Objects.requireNonNull(patch);
+        this.modelPatch = ModelPatch.compile(patch.toJsonArray());
     }
     
     public JsonPatch getJsonPatch() {
@@ -41,6 +44,13 @@ public class FHIRJsonPatch implements FHIRPatch {
 
     @Override
     public <T extends Resource> T apply(T resource) throws FHIRPatchException {
+        if (modelPatch != null) {
+            // apply the patch directly to the model and only fall back to the JSON representation if that isn't possible
+            Optional<T> result = modelPatch.apply(resource);
+            if (result.isPresent()) {
+                return result.get();
+            }
+        }
         try {
             JsonObject object = JsonSupport.toJsonObject(resource);
             return FHIRParser.parser(Format.JSON)
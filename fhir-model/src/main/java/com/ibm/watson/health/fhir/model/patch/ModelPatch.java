@@ -0,0 +1,661 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.model.patch;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.lang.model.SourceVersion;
+
+import com.ibm.watson.health.fhir.model.builder.Builder;
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.parser.FHIRJsonParser;
+import com.ibm.watson.health.fhir.model.parser.FHIRParser;
+import com.ibm.watson.health.fhir.model.parser.exception.FHIRParserException;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.type.Element;
+import com.ibm.watson.health.fhir.model.util.ModelSupport;
+import com.ibm.watson.health.fhir.model.util.ModelSupport.ElementInfo;
+import com.ibm.watson.health.fhir.model.visitor.Visitable;
+
+/**
+ * A JSON Patch document compiled for direct application to the FHIR model.
+ *
+ * <p>JSON Pointer paths are resolved against the model classes (including choice elements such as "valueQuantity")
+ * and each operation rebuilds only the objects on the path from the resource to the changed element. All other
+ * elements of the patched resource are the same (unchanged) objects as in the original resource and are not
+ * re-parsed or re-validated.
+ *
+ * <p>Only operation values are parsed from JSON. Patches that cannot be applied this way (e.g. paths that target
+ * the "_" member of a primitive element) and operations that fail (e.g. a "test" operation or a path that does not
+ * exist) are reported as not applicable, so that the caller can fall back to applying the patch to the JSON
+ * representation of the resource, which reports the failure the same way as before.
+ */
+final class ModelPatch {
+    private static final FHIRJsonParser PARSER = FHIRParser.parser(Format.JSON).as(FHIRJsonParser.class);
+    private static final Map<Class<?>, Map<java.lang.String, MethodHandle>> GETTER_MAP = new ConcurrentHashMap<>();
+    private static final Map<java.lang.String, MethodHandle> SETTER_MAP = new ConcurrentHashMap<>();
+
+    private final List<Operation> operations;
+
+    private ModelPatch(List<Operation> operations) {
+        this.operations = operations;
+    }
+
+    /**
+     * Compile a JSON Patch document
+     *
+     * @param array
+     *     the JSON Patch document
+     * @return
+     *     the compiled patch or null if the patch cannot be applied directly to the model
+     */
+    static ModelPatch compile(JsonArray array) {
+        List<Operation> operations = new ArrayList<>(array.size());
+        for (JsonValue value : array) {
+            if (!(value instanceof JsonObject)) {
+                return null;
+            }
+            JsonObject object = (JsonObject) value;
+            java.lang.String op = object.getString("op", null);
+            java.lang.String[] path = tokens(object.getString("path", null));
+            if (op == null || path == null) {
+                return null;
+            }
+            switch (op) {
+            case "add":
+            case "replace":
+            case "test":
+                if (!object.containsKey("value")) {
+                    return null;
+                }
+                operations.add(new Operation(op, path, null, object.get("value")));
+                break;
+            case "remove":
+                operations.add(new Operation(op, path, null, null));
+                break;
+            case "copy":
+            case "move":
+                java.lang.String[] from = tokens(object.getString("from", null));
+                if (from == null || ("move".equals(op) && isProperPrefix(from, path))) {
+                    return null;
+                }
+                operations.add(new Operation(op, path, from, null));
+                break;
+            default:
+                return null;
+            }
+        }
+        return new ModelPatch(operations);
+    }
+
+    /**
+     * Apply this patch to a resource
+     *
+     * @param resource
+     *     the resource that this patch is applied to
+     * @return
+     *     a new resource that is the result of applying this patch or empty if the patch is not applicable directly
+     *     to the model
+     */
+    @SuppressWarnings("unchecked")
+    <T extends Resource> Optional<T> apply(T resource) {
+        try {
+            Visitable root = resource;
+            for (Operation operation : operations) {
+                switch (operation.op) {
+                case "add":
+                    root = update(root, operation.path, 0, new Add(operation.value, null));
+                    break;
+                case "remove":
+                    root = update(root, operation.path, 0, Remove.INSTANCE);
+                    break;
+                case "replace":
+                    root = update(root, operation.path, 0, new Replace(operation.value));
+                    break;
+                case "test":
+                    root = update(root, operation.path, 0, new Test(operation.value));
+                    break;
+                case "copy":
+                    root = update(root, operation.path, 0, new Add(null, get(root, operation.from, 0)));
+                    break;
+                case "move":
+                    Object value = get(root, operation.from, 0);
+                    root = update(root, operation.from, 0, Remove.INSTANCE);
+                    root = update(root, operation.path, 0, new Add(null, value));
+                    break;
+                }
+            }
+            return resource.getClass().isInstance(root) ? Optional.of((T) root) : Optional.empty();
+        } catch (NotApplicableException | FHIRParserException | IllegalArgumentException | IllegalStateException | IndexOutOfBoundsException e) {
+            // IllegalStateException is thrown by the builders for elements which fail validation
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Apply the edit to the element at the path and return a copy of the node that contains the result
+     */
+    private static Visitable update(Visitable node, java.lang.String[] path, int pos, Edit edit) throws NotApplicableException, FHIRParserException {
+        Target target = target(node, path[pos]);
+        Object value = invoke(getter(node.getClass(), target.name), node);
+        Object newValue;
+        if (target.repeating) {
+            List<?> list = (List<?>) value;
+            if (pos == path.length - 1) {
+                newValue = edit.edit(list.isEmpty() ? null : list, target);
+                if (newValue == null) {
+                    newValue = Collections.emptyList();
+                }
+            } else {
+                if (list.isEmpty()) {
+                    // the element is not present in JSON
+                    throw new IllegalArgumentException("Path not found: " + pointer(path, pos + 1));
+                }
+                List<Object> newList = new ArrayList<>(list);
+                if (pos == path.length - 2) {
+                    if (!edit.edit(newList, path[pos + 1], target)) {
+                        return node;
+                    }
+                } else {
+                    int index = index(path[pos + 1], list.size() - 1);
+                    Visitable item = (Visitable) list.get(index);
+                    Visitable newItem = update(item, path, pos + 2, edit);
+                    if (newItem == item) {
+                        return node;
+                    }
+                    newList.set(index, newItem);
+                }
+                newValue = newList;
+            }
+        } else {
+            if (target.choiceType != null && !target.choiceType.isInstance(value)) {
+                if (value != null && edit instanceof Add) {
+                    // in JSON, the result would have two members for the same choice element
+                    throw new IllegalArgumentException("Choice element: " + target.name + " already has a value of a different type");
+                }
+                value = null;
+            }
+            if (pos == path.length - 1) {
+                newValue = edit.edit(value, target);
+            } else {
+                if (!(value instanceof Visitable)) {
+                    throw new IllegalArgumentException("Path not found: " + pointer(path, pos + 1));
+                }
+                newValue = update((Visitable) value, path, pos + 1, edit);
+            }
+        }
+        if (newValue == value) {
+            return node;
+        }
+        return set(node, target, newValue);
+    }
+
+    /**
+     * Get the value (a model object, a list of model objects or a Java string) at the path
+     */
+    private static Object get(Visitable node, java.lang.String[] path, int pos) throws NotApplicableException {
+        Target target = target(node, path[pos]);
+        Object value = invoke(getter(node.getClass(), target.name), node);
+        if (target.repeating && pos < path.length - 1) {
+            List<?> list = (List<?>) value;
+            value = list.get(index(path[pos + 1], list.size() - 1));
+            pos++;
+        } else if (target.choiceType != null && !target.choiceType.isInstance(value)) {
+            value = null;
+        }
+        if (!isPresent(value)) {
+            throw new IllegalArgumentException("Path not found: " + pointer(path, pos + 1));
+        }
+        if (pos == path.length - 1) {
+            return value;
+        }
+        if (!(value instanceof Visitable)) {
+            throw new IllegalArgumentException("Path not found: " + pointer(path, pos + 2));
+        }
+        return get((Visitable) value, path, pos + 1);
+    }
+
+    private static Visitable set(Visitable node, Target target, Object value) throws NotApplicableException {
+        Builder<?> builder = (node instanceof Resource) ? ((Resource) node).toBuilder() : ((Element) node).toBuilder();
+        MethodHandle setter = setter(builder.getClass(), target);
+        try {
+            setter.invoke(builder, value);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            // the builder methods don't declare checked exceptions
+            throw new UndeclaredThrowableException(t);
+        }
+        return (Visitable) builder.build();
+    }
+
+    private static Object invoke(MethodHandle getter, Visitable node) {
+        try {
+            return getter.invoke(node);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            // the model getters don't declare checked exceptions
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    /**
+     * Resolve a path segment to an element of the node, e.g. "name", "class" or "valueQuantity"
+     */
+    private static Target target(Visitable node, java.lang.String token) throws NotApplicableException {
+        Class<?> modelClass = node.getClass();
+        ElementInfo elementInfo = ModelSupport.getElementInfo(modelClass, token);
+        if (elementInfo != null) {
+            if (elementInfo.isChoice()) {
+                throw new NotApplicableException("Path segment: " + token);
+            }
+            return new Target(elementInfo, null);
+        }
+        for (ElementInfo info : ModelSupport.getElementInfo(modelClass)) {
+            if (info.isChoice() && token.startsWith(info.getName())) {
+                for (Class<?> choiceType : info.getChoiceTypes()) {
+                    if (token.equals(ModelSupport.getChoiceElementName(info.getName(), choiceType))) {
+                        return new Target(info, choiceType);
+                    }
+                }
+            }
+        }
+        throw new IllegalArgumentException("Element: " + token + " is not a valid element of: " + modelClass.getSimpleName());
+    }
+
+    private static MethodHandle getter(Class<?> modelClass, java.lang.String elementName) throws NotApplicableException {
+        MethodHandle getter = GETTER_MAP.computeIfAbsent(modelClass, ModelPatch::buildGetterMap).get(elementName);
+        if (getter == null) {
+            throw new NotApplicableException("No getter for element: " + elementName + " of: " + modelClass.getName());
+        }
+        return getter;
+    }
+
+    private static Map<java.lang.String, MethodHandle> buildGetterMap(Class<?> modelClass) {
+        Map<java.lang.String, Method> methodMap = new HashMap<>();
+        for (Method method : modelClass.getMethods()) {
+            if (method.getParameterCount() == 0 && method.getName().startsWith("get")) {
+                methodMap.put(method.getName().toLowerCase(), method);
+            }
+        }
+        Map<java.lang.String, MethodHandle> getterMap = new HashMap<>();
+        try {
+            for (java.lang.String elementName : ModelSupport.getElementNames(modelClass)) {
+                // e.g. getName(), getClazz() and getabstract()
+                Method method = methodMap.get("get" + ("class".equals(elementName) ? "clazz" : elementName.toLowerCase()));
+                if (method != null) {
+                    getterMap.put(elementName, MethodHandles.publicLookup().unreflect(method));
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        return getterMap;
+    }
+
+    private static MethodHandle setter(Class<?> builderClass, Target target) throws NotApplicableException {
+        java.lang.String key = builderClass.getName() + "." + target.name;
+        MethodHandle setter = SETTER_MAP.get(key);
+        if (setter == null) {
+            try {
+                Class<?> parameterType = target.repeating ? Collection.class : target.info.getType();
+                setter = MethodHandles.publicLookup().unreflect(builderClass.getMethod(setterName(target.name), parameterType));
+                SETTER_MAP.put(key, setter);
+            } catch (ReflectiveOperationException e) {
+                throw new NotApplicableException("No setter for element: " + target.name + " of: " + builderClass.getName());
+            }
+        }
+        return setter;
+    }
+
+    private static java.lang.String setterName(java.lang.String elementName) {
+        if ("class".equals(elementName)) {
+            return "clazz";
+        }
+        if (SourceVersion.isKeyword(elementName)) {
+            return "_" + elementName;
+        }
+        return elementName;
+    }
+
+    /**
+     * Convert the JSON value of an operation to the (list) value of the target element
+     */
+    private static Object toModel(JsonValue jsonValue, Target target, boolean list) throws NotApplicableException, FHIRParserException {
+        if (list) {
+            if (!(jsonValue instanceof JsonArray)) {
+                throw new IllegalArgumentException("Expected a JSON array for element: " + target.name);
+            }
+            List<Object> values = new ArrayList<>();
+            for (JsonValue item : (JsonArray) jsonValue) {
+                values.add(toModel(item, target, false));
+            }
+            return values;
+        }
+        if (jsonValue == null || jsonValue.getValueType() == JsonValue.ValueType.NULL) {
+            throw new IllegalArgumentException("Null value for element: " + target.name);
+        }
+        Class<?> type = target.getType();
+        if (java.lang.String.class.equals(type)) {
+            if (!(jsonValue instanceof JsonString)) {
+                throw new IllegalArgumentException("Expected a JSON string for element: " + target.name);
+            }
+            return ((JsonString) jsonValue).getString();
+        }
+        if (!Visitable.class.isAssignableFrom(type)) {
+            throw new NotApplicableException("Element type: " + type.getName());
+        }
+        return PARSER.parse(type.asSubclass(Visitable.class), target.name, jsonValue, null);
+    }
+
+    /**
+     * Check that the value (from the source of a copy or move operation) can be set on the target element
+     */
+    private static Object checkType(Object value, Target target, boolean list) {
+        if (list) {
+            if (!(value instanceof List)) {
+                throw new IllegalArgumentException("Expected a list for element: " + target.name);
+            }
+            for (Object item : (List<?>) value) {
+                checkType(item, target, false);
+            }
+            return value;
+        }
+        if (!target.getType().isInstance(value)) {
+            throw new IllegalArgumentException("Invalid type for element: " + target.name);
+        }
+        return value;
+    }
+
+    /**
+     * Keep the id and extensions of a primitive element when only its value is replaced (they are represented by the
+     * separate "_" member in JSON which is not affected by the operation)
+     */
+    private static Object keepIdAndExtension(Object current, Object value) {
+        if (current instanceof Element && value instanceof Element && ModelSupport.isPrimitiveType(value.getClass())) {
+            Element element = (Element) current;
+            Element newElement = (Element) value;
+            if ((element.getId() != null || !element.getExtension().isEmpty()) &&
+                    newElement.getId() == null && newElement.getExtension().isEmpty()) {
+                return newElement.toBuilder()
+                        .id(element.getId())
+                        .extension(element.getExtension())
+                        .build();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * A primitive element without a value (e.g. one that only has extensions) is not present in the JSON representation
+     */
+    private static boolean isPresent(Object value) {
+        if (value == null) {
+            return false;
+        }
+        if (value instanceof Element && ModelSupport.isPrimitiveType(value.getClass())) {
+            return ((Element) value).hasValue();
+        }
+        return true;
+    }
+
+    private static boolean equalsIgnoringIdAndExtension(Object current, Object value) {
+        if (current instanceof Element && value instanceof Element && ModelSupport.isPrimitiveType(value.getClass())) {
+            Element element = (Element) current;
+            if (element.getId() != null || !element.getExtension().isEmpty()) {
+                current = element.toBuilder().id(null).extension(Collections.emptyList()).build();
+            }
+        }
+        return value.equals(current);
+    }
+
+    private static int index(java.lang.String token, int max) {
+        if (token.isEmpty() || token.length() > 9 || (token.length() > 1 && token.charAt(0) == '0')) {
+            throw new IllegalArgumentException("Invalid array index: " + token);
+        }
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isDigit(token.charAt(i))) {
+                throw new IllegalArgumentException("Invalid array index: " + token);
+            }
+        }
+        int index = java.lang.Integer.parseInt(token);
+        if (index > max) {
+            throw new IndexOutOfBoundsException("Array index: " + index + " is out of bounds");
+        }
+        return index;
+    }
+
+    /**
+     * Split a JSON Pointer into unescaped reference tokens
+     *
+     * @return
+     *     the reference tokens or null if the pointer is missing, refers to the whole document or the "resourceType"
+     *     member or contains a "_" member
+     */
+    private static java.lang.String[] tokens(java.lang.String pointer) {
+        if (pointer == null || pointer.isEmpty() || pointer.charAt(0) != '/') {
+            return null;
+        }
+        java.lang.String[] tokens = pointer.substring(1).split("/", -1);
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = tokens[i].replace("~1", "/").replace("~0", "~");
+            if (tokens[i].startsWith("_")) {
+                // the id and extensions of a primitive element
+                return null;
+            }
+        }
+        if ("resourceType".equals(tokens[0])) {
+            return null;
+        }
+        return tokens;
+    }
+
+    private static boolean isProperPrefix(java.lang.String[] prefix, java.lang.String[] path) {
+        if (prefix.length >= path.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (!prefix[i].equals(path[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static java.lang.String pointer(java.lang.String[] path, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Math.min(length, path.length); i++) {
+            sb.append('/').append(path[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Thrown when a patch can't be applied directly to the model, e.g. because of an element type that is only
+     * supported by the JSON representation
+     */
+    private static final class NotApplicableException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private NotApplicableException(java.lang.String message) {
+            // only used to fall back to the JSON representation, so there is no need for a stack trace
+            super(message, null, false, false);
+        }
+    }
+
+    private static final class Operation {
+        private final java.lang.String op;
+        private final java.lang.String[] path;
+        private final java.lang.String[] from;
+        private final JsonValue value;
+
+        private Operation(java.lang.String op, java.lang.String[] path, java.lang.String[] from, JsonValue value) {
+            this.op = op;
+            this.path = path;
+            this.from = from;
+            this.value = value;
+        }
+    }
+
+    /**
+     * The element (and, for choice elements, the type) that a path segment resolves to
+     */
+    private static final class Target {
+        private final ElementInfo info;
+        private final Class<?> choiceType;
+        private final java.lang.String name;
+        private final boolean repeating;
+
+        private Target(ElementInfo info, Class<?> choiceType) {
+            this.info = info;
+            this.choiceType = choiceType;
+            this.name = info.getName();
+            this.repeating = info.isRepeating();
+        }
+
+        private Class<?> getType() {
+            return (choiceType != null) ? choiceType : info.getType();
+        }
+    }
+
+    /**
+     * The effect of an operation on the element that its path refers to
+     */
+    private abstract static class Edit {
+        /**
+         * @param current
+         *     the current value of the element (or the current list of a repeating element) or null if not present
+         * @return
+         *     the new value or null to remove the element
+         */
+        abstract Object edit(Object current, Target target) throws NotApplicableException, FHIRParserException;
+
+        /**
+         * Edit the list of a repeating element in place at the position referred to by the last path segment
+         *
+         * @return
+         *     true if the list was modified
+         */
+        abstract boolean edit(List<Object> list, java.lang.String token, Target target) throws NotApplicableException, FHIRParserException;
+    }
+
+    private static final class Add extends Edit {
+        private final JsonValue jsonValue;
+        private final Object value;
+
+        private Add(JsonValue jsonValue, Object value) {
+            this.jsonValue = jsonValue;
+            this.value = value;
+        }
+
+        private Object value(Target target, boolean list) throws NotApplicableException, FHIRParserException {
+            return (jsonValue != null) ? toModel(jsonValue, target, list) : checkType(value, target, list);
+        }
+
+        @Override
+        Object edit(Object current, Target target) throws NotApplicableException, FHIRParserException {
+            Object newValue = value(target, target.repeating);
+            return (jsonValue != null && isPresent(current)) ? keepIdAndExtension(current, newValue) : newValue;
+        }
+
+        @Override
+        boolean edit(List<Object> list, java.lang.String token, Target target) throws NotApplicableException, FHIRParserException {
+            int index = "-".equals(token) ? list.size() : index(token, list.size());
+            list.add(index, value(target, false));
+            return true;
+        }
+    }
+
+    private static final class Remove extends Edit {
+        private static final Remove INSTANCE = new Remove();
+
+        @Override
+        Object edit(Object current, Target target) {
+            if (!isPresent(current)) {
+                throw new IllegalArgumentException("Element: " + target.name + " is not present");
+            }
+            return null;
+        }
+
+        @Override
+        boolean edit(List<Object> list, java.lang.String token, Target target) {
+            list.remove(index(token, list.size() - 1));
+            return true;
+        }
+    }
+
+    private static final class Replace extends Edit {
+        private final JsonValue jsonValue;
+
+        private Replace(JsonValue jsonValue) {
+            this.jsonValue = jsonValue;
+        }
+
+        @Override
+        Object edit(Object current, Target target) throws NotApplicableException, FHIRParserException {
+            if (!isPresent(current)) {
+                throw new IllegalArgumentException("Element: " + target.name + " is not present");
+            }
+            return keepIdAndExtension(current, toModel(jsonValue, target, target.repeating));
+        }
+
+        @Override
+        boolean edit(List<Object> list, java.lang.String token, Target target) throws NotApplicableException, FHIRParserException {
+            int index = index(token, list.size() - 1);
+            list.set(index, keepIdAndExtension(list.get(index), toModel(jsonValue, target, false)));
+            return true;
+        }
+    }
+
+    private static final class Test extends Edit {
+        private final JsonValue jsonValue;
+
+        private Test(JsonValue jsonValue) {
+            this.jsonValue = jsonValue;
+        }
+
+        @Override
+        Object edit(Object current, Target target) throws NotApplicableException, FHIRParserException {
+            if (!isPresent(current)) {
+                throw new IllegalArgumentException("Element: " + target.name + " is not present");
+            }
+            if (target.repeating) {
+                if (!toModel(jsonValue, target, true).equals(current)) {
+                    throw new IllegalArgumentException("Test failed for element: " + target.name);
+                }
+            } else if (!equalsIgnoringIdAndExtension(current, toModel(jsonValue, target, false))) {
+                throw new IllegalArgumentException("Test failed for element: " + target.name);
+            }
+            return current;
+        }
+
+        @Override
+        boolean edit(List<Object> list, java.lang.String token, Target target) throws NotApplicableException, FHIRParserException {
+            int index = index(token, list.size() - 1);
+            if (!equalsIgnoringIdAndExtension(list.get(index), toModel(jsonValue, target, false))) {
+                throw new IllegalArgumentException("Test failed for element: " + target.name);
+            }
+            return false;
+        }
+    }
+}
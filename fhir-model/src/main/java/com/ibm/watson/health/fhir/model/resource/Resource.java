@@ -9,6 +9,7 @@ package com.ibm.watson.health.fhir.model.resource;
 import javax.annotation.Generated;
 
 import com.ibm.watson.health.fhir.model.builder.AbstractBuilder;
+import com.ibm.watson.health.fhir.model.generator.JsonCache;
 import com.ibm.watson.health.fhir.model.type.Code;
 import com.ibm.watson.health.fhir.model.type.Id;
 import com.ibm.watson.health.fhir.model.type.Meta;
@@ -25,6 +26,8 @@ public abstract class Resource extends AbstractVisitable {
     protected final Uri implicitRules;
     protected final Code language;
 
+    private volatile JsonCache jsonCache;
+
     protected Resource(Builder builder) {
         id = builder.id;
         meta = builder.meta;
@@ -83,6 +86,23 @@ public abstract class Resource extends AbstractVisitable {
         return resourceType.cast(this);
     }
 
+    /**
+     * The memo which holds the compact JSON form of this resource once a generator has cached it. Only the generator can 
+     * fill it in; because resources are immutable, the cached form remains valid for the lifetime of this instance. The 
+     * memo is allocated on first use, so resources which are never generated with JSON caching enabled don't carry one.
+     * 
+     * @return
+     *     The JSON cache of this resource
+     */
+    public JsonCache getJsonCache() {
+        JsonCache result = jsonCache;
+        if (result == null) {
+            result = new JsonCache();
+            jsonCache = result;
+        }
+        return result;
+    }
+
     public boolean hasChildren() {
         return (id != null) || 
             (meta != null) || 
@@ -12,6 +12,7 @@ import java.util.regex.Pattern;
 
 import javax.annotation.Generated;
 
+import com.ibm.watson.health.fhir.model.util.InterningSupport;
 import com.ibm.watson.health.fhir.model.util.ValidationSupport;
 
 /**
@@ -35,15 +36,15 @@ public class Code extends String {
     }
 
     public static Code of(java.lang.String value) {
-        return Code.builder().value(value).build();
+        return InterningSupport.intern(Code.builder().value(value).build());
     }
 
     public static String string(java.lang.String value) {
-        return Code.builder().value(value).build();
+        return InterningSupport.intern(Code.builder().value(value).build());
     }
 
     public static Code code(java.lang.String value) {
-        return Code.builder().value(value).build();
+        return InterningSupport.intern(Code.builder().value(value).build());
     }
 
     @Override
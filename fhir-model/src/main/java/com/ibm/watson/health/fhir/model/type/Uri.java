@@ -12,6 +12,7 @@ import java.util.regex.Pattern;
 
 import javax.annotation.Generated;
 
+import com.ibm.watson.health.fhir.model.util.InterningSupport;
 import com.ibm.watson.health.fhir.model.util.ValidationSupport;
 import com.ibm.watson.health.fhir.model.visitor.Visitor;
 
@@ -55,11 +56,11 @@ public class Uri extends Element {
     }
 
     public static Uri of(java.lang.String value) {
-        return Uri.builder().value(value).build();
+        return InterningSupport.intern(Uri.builder().value(value).build());
     }
 
     public static Uri uri(java.lang.String value) {
-        return Uri.builder().value(value).build();
+        return InterningSupport.intern(Uri.builder().value(value).build());
     }
 
     @Override
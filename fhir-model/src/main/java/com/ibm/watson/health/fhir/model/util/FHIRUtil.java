@@ -196,7 +196,7 @@ public class FHIRUtil {
         try {
             FHIRGenerator generator = FHIRGenerator.generator(getToStringFormat(), getToStringPrettyPrinting());
             if (generator.isPropertySupported(FHIRGenerator.PROPERTY_INDENT_AMOUNT)) {
-                // indent amount is only supported by the XML generator and is only applicable if prettyPrinting is turned on
+                // indent amount is only applicable if prettyPrinting is turned on
                 generator.setProperty(FHIRGenerator.PROPERTY_INDENT_AMOUNT, getToStringIndentAmount());
             }
             StringWriter writer = new StringWriter();
@@ -0,0 +1,135 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.model.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ibm.watson.health.fhir.model.type.Code;
+import com.ibm.watson.health.fhir.model.type.Element;
+import com.ibm.watson.health.fhir.model.type.Uri;
+
+/**
+ * An opt-in, bounded interning table for the low-cardinality primitive values that are repeated many times across
+ * resources: codes ({@link Code}, including the subtypes for required value sets) and system URIs ({@link Uri}).
+ *
+ * <p>The table is shared by all tenants for the life of the JVM, so nothing that may hold patient data is interned:
+ * free text (String, Markdown, display and text elements), ids, identifiers and the other subtypes of String and Uri
+ * (such as Url, Uuid and Canonical) are always returned as-is, as are values longer than {@link #MAX_VALUE_LENGTH} and values with an id or extensions.
+ * Because model objects are immutable, the canonical instance returned by {@link #intern(Element)} may be
+ * shared safely between resources and threads.
+ *
+ * <p>Interning is disabled by default. Once the table reaches its maximum size, new values are no longer added
+ * and are returned as-is; values already in the table continue to be shared.
+ */
+public final class InterningSupport {
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    public static final int MAX_VALUE_LENGTH = 256;
+
+    private static volatile ConcurrentHashMap<Element, Element> table = null;
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    private InterningSupport() { }
+
+    /**
+     * Enable interning with the default maximum table size
+     */
+    public static void enable() {
+        enable(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Enable interning with the given maximum table size
+     *
+     * @param maxSize
+     *     the maximum number of distinct values retained by the interning table
+     */
+    public static synchronized void enable(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+        InterningSupport.maxSize = maxSize;
+        if (table == null) {
+            table = new ConcurrentHashMap<>(Math.min(maxSize, 1024));
+        }
+    }
+
+    /**
+     * Disable interning and release the interning table
+     */
+    public static synchronized void disable() {
+        table = null;
+    }
+
+    public static boolean isEnabled() {
+        return table != null;
+    }
+
+    /**
+     * @return
+     *     the number of values currently held by the interning table
+     */
+    public static int size() {
+        ConcurrentHashMap<Element, Element> table = InterningSupport.table;
+        return (table != null) ? table.size() : 0;
+    }
+
+    /**
+     * Remove all values from the interning table (interning remains enabled)
+     */
+    public static void clear() {
+        ConcurrentHashMap<Element, Element> table = InterningSupport.table;
+        if (table != null) {
+            table.clear();
+        }
+    }
+
+    /**
+     * Return the canonical instance for the given element if interning is enabled and the element is internable,
+     * otherwise return the element itself.
+     *
+     * @param element
+     *     the element to intern, may be null
+     * @return
+     *     an element that is equal to the given element
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Element> T intern(T element) {
+        ConcurrentHashMap<Element, Element> table = InterningSupport.table;
+        if (table == null || element == null || !isInternable(element)) {
+            return element;
+        }
+        // equals(...) requires the same runtime class, so the cast below is safe
+        Element interned = table.get(element);
+        if (interned != null) {
+            return (T) interned;
+        }
+        if (table.size() < maxSize) {
+            interned = table.putIfAbsent(element, element);
+            if (interned != null) {
+                return (T) interned;
+            }
+        }
+        return element;
+    }
+
+    /**
+     * @return
+     *     true if the element is a Code (or a value set subtype of Code) or a Uri (but not a subtype of Uri) with a short
+     *     value and no id or extensions
+     */
+    public static boolean isInternable(Element element) {
+        java.lang.String value;
+        if (element instanceof Code) {
+            value = ((Code) element).getValue();
+        } else if (element.getClass() == Uri.class) {
+            value = ((Uri) element).getValue();
+        } else {
+            return false;
+        }
+        return value != null && value.length() <= MAX_VALUE_LENGTH && element.getId() == null && element.getExtension().isEmpty();
+    }
+}
@@ -13,6 +13,7 @@ import static com.ibm.watson.health.fhir.model.type.String.string;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -29,9 +30,11 @@ import com.ibm.watson.health.fhir.model.type.CodeableConcept;
 import com.ibm.watson.health.fhir.model.type.Element;
 import com.ibm.watson.health.fhir.model.type.IssueSeverity;
 import com.ibm.watson.health.fhir.model.type.IssueType;
+import com.ibm.watson.health.fhir.model.util.CollectingVisitor;
 import com.ibm.watson.health.fhir.model.util.ModelSupport;
 import com.ibm.watson.health.fhir.model.validation.exception.FHIRValidationException;
 import com.ibm.watson.health.fhir.model.visitor.PathAwareVisitorAdapter;
+import com.ibm.watson.health.fhir.model.visitor.Visitable;
 
 public class FHIRValidator {
     public static boolean DEBUG = false;
@@ -46,8 +49,34 @@ public class FHIRValidator {
     }
     
     public List<Issue> validate() throws FHIRValidationException {
+        return validate(Collections.emptySet());
+    }
+    
+    /**
+     * Validate the resource, skipping the evaluation of constraints on elements that are unchanged from a previous 
+     * version of the resource (e.g. the elements that were not touched by a patch).
+     * 
+     * <p>An element is unchanged if it is the same object as an element of the previous version. Constraints that 
+     * refer to context outside of the element (e.g. %resource) or resolve references are always evaluated.
+     * Issues reported for the unchanged elements of the previous version are not reported again.
+     * 
+     * @param previousResource
+     *     the previous version of the resource
+     * @return
+     *     the list of issues found during validation
+     * @throws FHIRValidationException
+     */
+    public List<Issue> validate(Resource previousResource) throws FHIRValidationException {
+        CollectingVisitor<Visitable> visitor = new CollectingVisitor<>(Visitable.class);
+        previousResource.accept(visitor);
+        Set<Visitable> unchanged = Collections.newSetFromMap(new IdentityHashMap<>());
+        unchanged.addAll(visitor.getResult());
+        return validate(unchanged);
+    }
+    
+    private List<Issue> validate(Set<Visitable> unchanged) throws FHIRValidationException {
         try {
-            ValidatingVisitor visitor = new ValidatingVisitor(tree);
+            ValidatingVisitor visitor = new ValidatingVisitor(tree, unchanged);
             tree.getRoot().asResourceNode().resource().accept(visitor);
             return visitor.getIssues();
         } catch (Exception e) {
@@ -67,23 +96,25 @@ public class FHIRValidator {
         private final FHIRPathTree tree;
         private final FHIRPathEvaluator evaluator;
         private final EvaluationContext evaluationContext;
+        private final Set<Visitable> unchanged;
         
         private List<Issue> issues = new ArrayList<>(); 
         
-        private ValidatingVisitor(FHIRPathTree tree) {
+        private ValidatingVisitor(FHIRPathTree tree, Set<Visitable> unchanged) {
             this.tree = tree;
+            this.unchanged = unchanged;
             evaluator = FHIRPathEvaluator.evaluator(tree);
             evaluationContext = evaluator.getEvaluationContext();
         }
         
         @Override
         protected void doVisitStart(String elementName, int elementIndex, Element element) {
-            validate(element.getClass());
+            validate(element.getClass(), unchanged.contains(element));
         }
 
         @Override
         protected void doVisitStart(String elementName, int elementIndex, Resource resource) {
-            validate(resource.getClass());
+            validate(resource.getClass(), unchanged.contains(resource));
         }
 
         private List<Issue> getIssues() {
@@ -116,7 +147,7 @@ public class FHIRValidator {
             return null;
         }
 
-        private void validate(Class<?> type) {
+        private void validate(Class<?> type, boolean unchanged) {
             Set<Constraint> constraints = ModelSupport.getConstraints(type);
             String path = getPath();
             for (Constraint constraint : constraints) {
@@ -126,10 +157,36 @@ public class FHIRValidator {
                     }
                     continue;
                 }
+                if (unchanged && isLocal(constraint)) {
+                    // the element and all of its descendants are unchanged
+                    if (DEBUG) {
+                        System.out.println("    Constraint: " + constraint.id() + " is unchanged");
+                    }
+                    continue;
+                }
                 validate(type, constraint, path);
             }
         }
 
+        /**
+         * A local constraint only depends on the element that it is evaluated on and its descendants
+         */
+        private boolean isLocal(Constraint constraint) {
+            return !constraint.location().contains("%") && 
+                    !constraint.expression().contains("%") && 
+                    !constraint.expression().contains("resolve()");
+        }
+
+        private boolean isUnchanged(FHIRPathNode node) {
+            if (node.isElementNode()) {
+                return unchanged.contains(node.asElementNode().element());
+            }
+            if (node.isResourceNode()) {
+                return unchanged.contains(node.asResourceNode().resource());
+            }
+            return false;
+        }
+
         private void validate(Class<?> type, Constraint constraint, String path) {
             try {
                 if (DEBUG) {
@@ -142,8 +199,13 @@ public class FHIRValidator {
                 }
                 
                 IssueSeverity severity = Constraint.LEVEL_WARNING.equals(constraint.level()) ? IssueSeverity.WARNING : IssueSeverity.ERROR;
+                boolean local = !unchanged.isEmpty() && isLocal(constraint);
                 
                 for (FHIRPathNode node : initialContext) {
+                    if (local && isUnchanged(node)) {
+                        continue;
+                    }
+                    
                     evaluationContext.setExternalConstant("resource", getResource(type, node));
                     
                     Collection<FHIRPathNode> result = evaluator.evaluate(constraint.expression(), singleton(node));
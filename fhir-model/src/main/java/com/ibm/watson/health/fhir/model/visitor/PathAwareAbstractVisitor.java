@@ -9,8 +9,7 @@ package com.ibm.watson.health.fhir.model.visitor;
 import static com.ibm.watson.health.fhir.model.path.util.FHIRPathUtil.delimit;
 import static com.ibm.watson.health.fhir.model.path.util.FHIRPathUtil.isKeyword;
 
-import java.util.Stack;
-import java.util.stream.Collectors;
+import java.util.Arrays;
 
 import com.ibm.watson.health.fhir.model.resource.Resource;
 import com.ibm.watson.health.fhir.model.type.Element;
@@ -18,7 +17,10 @@ import com.ibm.watson.health.fhir.model.type.Element;
 public abstract class PathAwareAbstractVisitor extends AbstractVisitor implements PathAwareVisitor {
     public static boolean DEBUG = false;
     
-    private final Stack<String> pathStack = new Stack<>();
+    // element names and indices are kept separately; the path string is only built when requested
+    private String[] pathNames = new String[32];
+    private int[] pathIndices = new int[32];
+    private int pathDepth = 0;
         
     // called by template methods
     protected abstract void doVisitEnd(String elementName, int elementIndex, Element element);
@@ -28,25 +30,35 @@ public abstract class PathAwareAbstractVisitor extends AbstractVisitor implement
     
     @Override
     public final String getPath() {
-        if (!pathStack.isEmpty()) {
-            return pathStack.stream().collect(Collectors.joining("."));
+        if (pathDepth == 0) {
+            return null;
         }
-        return null;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < pathDepth; i++) {
+            if (i > 0) {
+                sb.append('.');
+            }
+            String elementName = pathNames[i];
+            sb.append(isKeyword(elementName) ? delimit(elementName) : elementName);
+            if (pathIndices[i] != -1) {
+                sb.append('[').append(pathIndices[i]).append(']');
+            }
+        }
+        return sb.toString();
     }
     
     private void pathStackPop() {
-        pathStack.pop();
+        pathNames[--pathDepth] = null;
     }
     
     private void pathStackPush(String elementName, int index) {
-        if (isKeyword(elementName)) {
-            elementName = delimit(elementName);
-        }
-        if (index != -1) {
-            pathStack.push(elementName + "[" + index + "]");
-        } else {
-            pathStack.push(elementName);
+        if (pathDepth == pathNames.length) {
+            pathNames = Arrays.copyOf(pathNames, pathDepth * 2);
+            pathIndices = Arrays.copyOf(pathIndices, pathDepth * 2);
         }
+        pathNames[pathDepth] = elementName;
+        pathIndices[pathDepth] = index;
+        pathDepth++;
         if (DEBUG) {
             System.out.println(getPath());
         }
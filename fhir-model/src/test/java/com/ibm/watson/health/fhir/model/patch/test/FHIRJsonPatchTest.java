@@ -10,7 +10,10 @@ import static com.ibm.watson.health.fhir.model.type.String.string;
 import static com.ibm.watson.health.fhir.model.type.Xhtml.xhtml;
 
 import java.io.FilterOutputStream;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -19,29 +22,39 @@ import java.util.UUID;
 
 import javax.json.Json;
 import javax.json.JsonObject;
+import javax.json.JsonPatch;
 
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import com.ibm.watson.health.fhir.examples.ExamplesUtil;
 import com.ibm.watson.health.fhir.model.format.Format;
 import com.ibm.watson.health.fhir.model.generator.FHIRGenerator;
 import com.ibm.watson.health.fhir.model.generator.exception.FHIRGeneratorException;
 import com.ibm.watson.health.fhir.model.parser.FHIRJsonParser;
 import com.ibm.watson.health.fhir.model.parser.FHIRParser;
 import com.ibm.watson.health.fhir.model.parser.exception.FHIRParserException;
+import com.ibm.watson.health.fhir.model.patch.FHIRJsonPatch;
 import com.ibm.watson.health.fhir.model.patch.FHIRPatch;
 import com.ibm.watson.health.fhir.model.patch.exception.FHIRPatchException;
+import com.ibm.watson.health.fhir.model.resource.Observation;
+import com.ibm.watson.health.fhir.model.resource.OperationOutcome.Issue;
 import com.ibm.watson.health.fhir.model.resource.Patient;
 import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.type.AdministrativeGender;
 import com.ibm.watson.health.fhir.model.type.Boolean;
 import com.ibm.watson.health.fhir.model.type.Date;
+import com.ibm.watson.health.fhir.model.type.Extension;
 import com.ibm.watson.health.fhir.model.type.HumanName;
 import com.ibm.watson.health.fhir.model.type.Id;
 import com.ibm.watson.health.fhir.model.type.Instant;
 import com.ibm.watson.health.fhir.model.type.Meta;
 import com.ibm.watson.health.fhir.model.type.Narrative;
 import com.ibm.watson.health.fhir.model.type.NarrativeStatus;
+import com.ibm.watson.health.fhir.model.type.Quantity;
+import com.ibm.watson.health.fhir.model.util.JsonSupport;
+import com.ibm.watson.health.fhir.model.validation.FHIRValidator;
 
 public class FHIRJsonPatchTest {        
     @BeforeClass
@@ -151,6 +164,147 @@ public class FHIRJsonPatchTest {
         Assert.assertEquals(patient, updatedPatient);
     }
     
+    @Test
+    public void testUnchangedElementsReused() throws FHIRPatchException {
+        Patient patient = buildPatient();
+        
+        FHIRPatch patch = FHIRPatch.patch(Json.createPatchBuilder()
+            .replace("/name/0/family", "Smith")
+            .build());
+        Patient patchedPatient = patch.apply(patient);
+        
+        Assert.assertEquals(patchedPatient.getName().get(0).getFamily(), string("Smith"));
+        
+        // only the path from the resource to the changed element is rebuilt
+        Assert.assertNotSame(patchedPatient.getName().get(0), patient.getName().get(0));
+        Assert.assertSame(patchedPatient.getName().get(0).getGiven().get(0), patient.getName().get(0).getGiven().get(0));
+        Assert.assertSame(patchedPatient.getMeta(), patient.getMeta());
+        Assert.assertSame(patchedPatient.getText(), patient.getText());
+        Assert.assertSame(patchedPatient.getBirthDate(), patient.getBirthDate());
+    }
+    
+    @Test
+    public void testChoiceElement() throws Exception {
+        Observation observation;
+        try (InputStream in = FHIRJsonPatchTest.class.getClassLoader().getResourceAsStream("JSON/observation-example-f001-glucose.json")) {
+            observation = FHIRParser.parser(Format.JSON).parse(in);
+        }
+        
+        FHIRPatch patch = FHIRPatch.patch(Json.createPatchBuilder()
+            .test("/valueQuantity/unit", "mmol/l")
+            .replace("/valueQuantity/value", Json.createValue(7.1))
+            .build());
+        Observation patchedObservation = patch.apply(observation);
+        
+        Assert.assertEquals(((Quantity) patchedObservation.getValue()).getValue().getValue(), new BigDecimal("7.1"));
+        Assert.assertSame(patchedObservation.getCode(), observation.getCode());
+        Assert.assertEquals(patchedObservation, applyToJson(patch, observation));
+    }
+    
+    @Test
+    public void testPrimitiveExtensionKept() throws FHIRPatchException, FHIRParserException, FHIRGeneratorException {
+        Patient patient = buildPatient();
+        Extension extension = Extension.builder()
+                .url("http://example.com/accuracy")
+                .value(string("estimated"))
+                .build();
+        patient = patient.toBuilder()
+                .birthDate(patient.getBirthDate().toBuilder().extension(extension).build())
+                .build();
+        
+        FHIRPatch patch = FHIRPatch.patch(Json.createPatchBuilder()
+            .replace("/birthDate", "1990-01-01")
+            .build());
+        Patient patchedPatient = patch.apply(patient);
+        
+        Assert.assertEquals(patchedPatient.getBirthDate().getValue(), Date.of("1990-01-01").getValue());
+        Assert.assertEquals(patchedPatient.getBirthDate().getExtension(), Collections.singletonList(extension));
+        Assert.assertEquals(patchedPatient, applyToJson(patch, patient));
+    }
+    
+    @Test
+    public void testUnsupportedPath() throws FHIRPatchException, FHIRParserException, FHIRGeneratorException {
+        Patient patient = buildPatient();
+        
+        // the "_" member of a primitive element is patched via the JSON representation of the resource
+        FHIRPatch patch = FHIRPatch.patch(Json.createPatchBuilder()
+            .add("/_birthDate", Json.createObjectBuilder()
+                .add("id", "birthDate")
+                .build())
+            .build());
+        Patient patchedPatient = patch.apply(patient);
+        
+        Assert.assertEquals(patchedPatient.getBirthDate().getId(), "birthDate");
+        Assert.assertEquals(patchedPatient, applyToJson(patch, patient));
+    }
+    
+    @Test(expectedExceptions = FHIRPatchException.class)
+    public void testFailedTestOperation() throws FHIRPatchException {
+        FHIRPatch patch = FHIRPatch.patch(Json.createPatchBuilder()
+            .test("/name/0/family", "Smith")
+            .replace("/active", false)
+            .build());
+        patch.apply(buildPatient());
+    }
+    
+    @Test
+    public void testSpecExample() throws Exception {
+        Patient patient;
+        try (Reader reader = ExamplesUtil.reader("json/spec/patient-example-a.json")) {
+            patient = FHIRParser.parser(Format.JSON).parse(reader);
+        }
+        
+        FHIRPatch patch = FHIRPatch.patch(Json.createPatchBuilder()
+            .add("/name/0/given/-", "Jack")
+            .add("/identifier/0/period", Json.createObjectBuilder()
+                .add("start", "2019-01-01")
+                .build())
+            .replace("/gender", "female")
+            .remove("/photo/0")
+            .add("/contact/0/name", Json.createObjectBuilder()
+                .add("family", "Duck")
+                .build())
+            .copy("/contact/0/name/given", "/name/0/given")
+            .move("/contact/0/name/given/0", "/name/0/given/0")
+            .add("/deceasedBoolean", false)
+            .build());
+        
+        Assert.assertEquals(patch.apply(patient), applyToJson(patch, patient));
+    }
+    
+    @Test
+    public void testValidateChanges() throws Exception {
+        // a contact without details violates constraint pat-1
+        Patient patient = buildPatient().toBuilder()
+                .contact(Patient.Contact.builder()
+                    .gender(AdministrativeGender.MALE)
+                    .build())
+                .build();
+        Assert.assertEquals(FHIRValidator.validator(patient).validate().size(), 1);
+        
+        // the unchanged contact is not re-validated
+        Patient patchedPatient = FHIRPatch.patch(Json.createPatchBuilder()
+            .replace("/active", false)
+            .build()).apply(patient);
+        Assert.assertTrue(FHIRValidator.validator(patchedPatient).validate(patient).isEmpty());
+        
+        // the changed contact is
+        patchedPatient = FHIRPatch.patch(Json.createPatchBuilder()
+            .replace("/contact/0/gender", "female")
+            .build()).apply(patient);
+        List<Issue> issues = FHIRValidator.validator(patchedPatient).validate(patient);
+        Assert.assertEquals(issues.size(), 1);
+        Assert.assertEquals(issues.get(0).getExpression().get(0), string("Patient.contact[0]"));
+    }
+    
+    /**
+     * Apply the patch to the JSON representation of the resource
+     */
+    private <T extends Resource> T applyToJson(FHIRPatch patch, T resource) throws FHIRGeneratorException, FHIRParserException {
+        JsonPatch jsonPatch = patch.as(FHIRJsonPatch.class).getJsonPatch();
+        return toResource(jsonPatch.apply(JsonSupport.toJsonObject(resource)));
+    }
+    
     public void print(Resource resource) throws FHIRGeneratorException {
         FHIRGenerator.generator(Format.JSON, true).generate(resource, nonClosingOutputStream(System.out));
     }
@@ -0,0 +1,156 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.model.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonWriter;
+import javax.json.stream.JsonGenerator;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.examples.ExamplesUtil;
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.generator.FHIRGenerator;
+import com.ibm.watson.health.fhir.model.parser.FHIRParser;
+import com.ibm.watson.health.fhir.model.resource.Patient;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.type.HumanName;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.model.type.String;
+
+/**
+ * Compares the output of the FHIR JSON generator with the javax.json reference implementation byte for byte
+ */
+public class FHIRJsonGeneratorTest {
+    @DataProvider(name = "examples")
+    public static Object[][] examples() {
+        return new Object[][] {
+            { "json/spec/patient-example-a.json" },
+            { "json/spec/bundle-example.json" },
+            { "json/spec/questionnaire-example.json" },
+            { "json/spec/diagnosticreport-example-ghp.json" },
+            { "json/spec/account.profile.json" },
+            { "json/spec/codesystem-dicom-dcim.json" }
+        };
+    }
+
+    @Test(dataProvider = "examples")
+    public void testCompact(java.lang.String example) throws Exception {
+        Resource resource = parse(example);
+        java.lang.String actual = generate(resource, false);
+        assertEquals(actual, reference(actual, false));
+        assertEquals(generateToWriter(resource, false), actual);
+    }
+
+    @Test(dataProvider = "examples")
+    public void testPrettyPrinting(java.lang.String example) throws Exception {
+        Resource resource = parse(example);
+        java.lang.String actual = generate(resource, true);
+        assertTrue(actual.startsWith("{\n    \"resourceType\": "));
+        assertEquals(actual, reference(actual, true));
+        assertEquals(generateToWriter(resource, true), actual);
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        Patient patient = Patient.builder()
+                .id(Id.of("escaping"))
+                .name(HumanName.builder()
+                    .text(String.of("quote \" backslash \\ slash / tab \t newline \n control \u0001 \u001f"))
+                    .family(String.of("Doe-é中 "))
+                    .given(String.of("😀 emoji"))
+                    .build())
+                .build();
+        java.lang.String actual = generate(patient, false);
+        assertEquals(actual, reference(actual, false));
+        assertTrue(actual.contains("control \\u0001 \\u001f"));
+        assertEquals(generateToWriter(patient, false), actual);
+    }
+
+    @Test
+    public void testValuesLargerThanBuffer() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 20000) {
+            sb.append("abcé中😀\n");
+        }
+        Patient patient = Patient.builder()
+                .id(Id.of("large"))
+                .name(HumanName.builder().text(String.of(sb.toString())).build())
+                .build();
+        java.lang.String actual = generate(patient, false);
+        assertEquals(actual, reference(actual, false));
+        assertEquals(generateToWriter(patient, false), actual);
+    }
+
+    @Test
+    public void testIndentAmount() throws Exception {
+        Patient patient = Patient.builder().id(Id.of("indent")).name(HumanName.builder().family(String.of("Doe")).build()).build();
+        FHIRGenerator generator = FHIRGenerator.generator(Format.JSON, true);
+        assertTrue(generator.isPropertySupported(FHIRGenerator.PROPERTY_INDENT_AMOUNT));
+        generator.setProperty(FHIRGenerator.PROPERTY_INDENT_AMOUNT, 2);
+        StringWriter writer = new StringWriter();
+        generator.generate(patient, writer);
+        assertEquals(writer.toString(), "{\n" +
+                "  \"resourceType\": \"Patient\",\n" +
+                "  \"id\": \"indent\",\n" +
+                "  \"name\": [\n" +
+                "    {\n" +
+                "      \"family\": \"Doe\"\n" +
+                "    }\n" +
+                "  ]\n" +
+                "}");
+    }
+
+    private Resource parse(java.lang.String example) throws Exception {
+        try (Reader reader = ExamplesUtil.reader(example)) {
+            return FHIRParser.parser(Format.JSON).parse(reader);
+        }
+    }
+
+    private java.lang.String generate(Resource resource, boolean prettyPrinting) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FHIRGenerator.generator(Format.JSON, prettyPrinting).generate(resource, out);
+        return new java.lang.String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private java.lang.String generateToWriter(Resource resource, boolean prettyPrinting) throws Exception {
+        StringWriter writer = new StringWriter();
+        FHIRGenerator.generator(Format.JSON, prettyPrinting).generate(resource, writer);
+        return writer.toString();
+    }
+
+    /**
+     * Re-serialize the JSON with the javax.json reference implementation (which preserves member order)
+     */
+    private java.lang.String reference(java.lang.String json, boolean prettyPrinting) {
+        JsonObject jsonObject = Json.createReader(new StringReader(json)).readObject();
+        Map<java.lang.String, Object> config = new HashMap<>();
+        if (prettyPrinting) {
+            config.put(JsonGenerator.PRETTY_PRINTING, true);
+        }
+        StringWriter writer = new StringWriter();
+        try (JsonWriter jsonWriter = Json.createWriterFactory(config).createWriter(writer)) {
+            jsonWriter.writeObject(jsonObject);
+        }
+        java.lang.String reference = writer.toString();
+        // the reference implementation emits a leading newline when pretty printing (eclipse-ee4j/jsonp#190)
+        return reference.startsWith("\n") ? reference.substring(1) : reference;
+    }
+}
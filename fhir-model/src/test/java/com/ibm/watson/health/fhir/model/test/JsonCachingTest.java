@@ -0,0 +1,87 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.model.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.model.FHIRModel;
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.generator.FHIRGenerator;
+import com.ibm.watson.health.fhir.model.parser.FHIRParser;
+import com.ibm.watson.health.fhir.model.resource.Observation;
+import com.ibm.watson.health.fhir.model.type.Id;
+
+public class JsonCachingTest {
+    @AfterMethod
+    public void reset() {
+        FHIRModel.removeProperty(FHIRModel.PROPERTY_JSON_CACHING);
+    }
+
+    @Test
+    public void testCachingDisabledByDefault() throws Exception {
+        Observation observation = parse();
+        generate(observation, false);
+        assertNull(observation.getJsonCache().get());
+    }
+
+    @Test
+    public void testCachedJsonReused() throws Exception {
+        Observation observation = parse();
+        java.lang.String expected = generate(observation, false);
+
+        FHIRModel.setJsonCaching(true);
+        assertEquals(generate(observation, false), expected);
+        byte[] cachedJson = observation.getJsonCache().get();
+        assertNotNull(cachedJson);
+        assertEquals(new java.lang.String(cachedJson, StandardCharsets.UTF_8), expected);
+
+        // the Writer variant and subsequent generators reuse the same memo
+        StringWriter writer = new StringWriter();
+        FHIRGenerator.generator(Format.JSON, false).generate(observation, writer);
+        assertEquals(writer.toString(), expected);
+        assertSame(observation.getJsonCache().get(), cachedJson);
+
+        // the pretty printing generator does not use the compact form
+        assertTrue(generate(observation, true).indexOf('\n') > 0);
+    }
+
+    @Test
+    public void testCachedJsonNotCopiedByBuilder() throws Exception {
+        FHIRModel.setJsonCaching(true);
+        Observation observation = parse();
+        generate(observation, false);
+        assertNotNull(observation.getJsonCache().get());
+
+        Observation modified = observation.toBuilder().id(Id.of("modified")).build();
+        assertNull(modified.getJsonCache().get());
+        assertTrue(generate(modified, false).contains("\"id\":\"modified\""));
+    }
+
+    private java.lang.String generate(Observation observation, boolean prettyPrinting) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FHIRGenerator.generator(Format.JSON, prettyPrinting).generate(observation, out);
+        return new java.lang.String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private Observation parse() throws Exception {
+        try (InputStream in = JsonCachingTest.class.getClassLoader().getResourceAsStream("JSON/observation-example-f001-glucose.json")) {
+            return FHIRParser.parser(Format.JSON).parse(in);
+        }
+    }
+}
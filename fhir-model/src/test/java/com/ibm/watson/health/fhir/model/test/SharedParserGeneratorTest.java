@@ -0,0 +1,107 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.model.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.examples.ExamplesUtil;
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.generator.FHIRGenerator;
+import com.ibm.watson.health.fhir.model.parser.FHIRParser;
+import com.ibm.watson.health.fhir.model.parser.exception.FHIRParserException;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+
+/**
+ * Parser and generator instances keep no per-call state, so a single instance can be shared across threads
+ */
+public class SharedParserGeneratorTest {
+    private static final java.lang.String[] EXAMPLES = {
+        "patient-example-a",
+        "bundle-example",
+        "questionnaire-example",
+        "diagnosticreport-example-ghp"
+    };
+
+    @Test
+    public void testSharedJsonParserAndGenerator() throws Exception {
+        testShared(Format.JSON);
+    }
+
+    @Test
+    public void testSharedXMLParserAndGenerator() throws Exception {
+        testShared(Format.XML);
+    }
+
+    @Test
+    public void testErrorPath() throws Exception {
+        FHIRParser parser = FHIRParser.parser(Format.JSON);
+        java.lang.String invalid = "{\"resourceType\":\"Patient\",\"name\":[{\"family\":\"Doe\"},{\"given\":[\"John\", 1]}]}";
+        try {
+            parser.parse(new StringReader(invalid));
+            fail();
+        } catch (FHIRParserException e) {
+            assertEquals(e.getPath(), "Patient.name[1]");
+        }
+        // the failed parse does not leave stale state behind for the next parse on this thread
+        try {
+            parser.parse(new StringReader("{\"resourceType\":\"Patient\",\"active\":\"yes\"}"));
+            fail();
+        } catch (FHIRParserException e) {
+            assertEquals(e.getPath(), "Patient");
+        }
+    }
+
+    private void testShared(Format format) throws Exception {
+        FHIRParser parser = FHIRParser.parser(format);
+        FHIRGenerator generator = FHIRGenerator.generator(format, false);
+
+        List<java.lang.String> expected = new ArrayList<>();
+        for (java.lang.String example : EXAMPLES) {
+            expected.add(generate(generator, parse(parser, format, example)));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<java.lang.String>> futures = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                java.lang.String example = EXAMPLES[i % EXAMPLES.length];
+                futures.add(executor.submit((Callable<java.lang.String>) () -> generate(generator, parse(parser, format, example))));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(futures.get(i).get(), expected.get(i % EXAMPLES.length));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Resource parse(FHIRParser parser, Format format, java.lang.String example) throws Exception {
+        java.lang.String path = (format == Format.JSON) ? "json/spec/" + example + ".json" : "xml/spec/" + example + ".xml";
+        try (Reader reader = ExamplesUtil.reader(path)) {
+            return parser.parse(reader);
+        }
+    }
+
+    private static java.lang.String generate(FHIRGenerator generator, Resource resource) throws Exception {
+        StringWriter writer = new StringWriter();
+        generator.generate(resource, writer);
+        return writer.toString();
+    }
+}
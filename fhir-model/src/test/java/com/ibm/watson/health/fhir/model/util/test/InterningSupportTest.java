@@ -0,0 +1,122 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.model.util.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import java.io.InputStream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.parser.FHIRParser;
+import com.ibm.watson.health.fhir.model.resource.Observation;
+import com.ibm.watson.health.fhir.model.type.Code;
+import com.ibm.watson.health.fhir.model.type.Coding;
+import com.ibm.watson.health.fhir.model.type.Extension;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.model.type.Markdown;
+import com.ibm.watson.health.fhir.model.type.String;
+import com.ibm.watson.health.fhir.model.type.Uri;
+import com.ibm.watson.health.fhir.model.type.Url;
+import com.ibm.watson.health.fhir.model.util.InterningSupport;
+
+public class InterningSupportTest {
+    @BeforeMethod
+    public void enable() {
+        InterningSupport.enable(10);
+    }
+
+    @AfterMethod
+    public void disable() {
+        InterningSupport.disable();
+    }
+
+    @Test
+    public void testIntern() {
+        Uri uri1 = Uri.builder().value("http://loinc.org").build();
+        Uri uri2 = Uri.builder().value("http://loinc.org").build();
+        assertNotSame(uri1, uri2);
+        assertSame(InterningSupport.intern(uri1), uri1);
+        assertSame(InterningSupport.intern(uri2), uri1);
+        assertSame(Uri.of("http://loinc.org"), uri1);
+    }
+
+    @Test
+    public void testFreeTextAndIdsNotInterned() {
+        assertNotSame(String.of("final"), String.of("final"));
+        assertNotSame(Markdown.of("final"), Markdown.of("final"));
+        assertNotSame(Id.of("final"), Id.of("final"));
+        assertNotSame(Url.of("http://example.com/Patient/1"), Url.of("http://example.com/Patient/1"));
+        assertFalse(InterningSupport.isInternable(Coding.builder().code(Code.of("final")).build()));
+        assertSame(Code.of("final"), Code.of("final"));
+        assertEquals(InterningSupport.size(), 1);
+
+        Code longCode = Code.builder().value(new java.lang.String(new char[InterningSupport.MAX_VALUE_LENGTH + 1]).replace('\0', 'x')).build();
+        assertFalse(InterningSupport.isInternable(longCode));
+    }
+
+    @Test
+    public void testExtensionsNotInterned() {
+        Code code = Code.builder()
+                .value("x")
+                .extension(Extension.builder().url("http://example.com").build())
+                .build();
+        assertFalse(InterningSupport.isInternable(code));
+        assertSame(InterningSupport.intern(code), code);
+        assertEquals(InterningSupport.size(), 0);
+
+        Coding coding = Coding.builder().system(Uri.of("http://loinc.org")).code(Code.builder().value("15074-8").id("c1").build()).build();
+        assertFalse(InterningSupport.isInternable(coding));
+    }
+
+    @Test
+    public void testBounded() {
+        for (int i = 0; i < 20; i++) {
+            Code.of("value" + i);
+        }
+        assertEquals(InterningSupport.size(), 10);
+        Code code = Code.builder().value("value15").build();
+        assertSame(InterningSupport.intern(code), code);
+    }
+
+    @Test
+    public void testDisabled() {
+        InterningSupport.disable();
+        assertFalse(InterningSupport.isEnabled());
+        assertNotSame(Code.of("x"), Code.of("x"));
+    }
+
+    @Test
+    public void testParsersShareCodes() throws Exception {
+        InterningSupport.enable(1000);
+        Observation observation1 = parse();
+        Observation observation2 = parse();
+        assertNotSame(observation1, observation2);
+        Coding coding1 = observation1.getCode().getCoding().get(0);
+        Coding coding2 = observation2.getCode().getCoding().get(0);
+        assertSame(coding1.getSystem(), coding2.getSystem());
+        assertSame(coding1.getCode(), coding2.getCode());
+        assertSame(observation1.getStatus(), observation2.getStatus());
+
+        // the display text and the identifiers are not shared
+        assertNotSame(coding1, coding2);
+        assertNotSame(coding1.getDisplay(), coding2.getDisplay());
+        assertNotSame(observation1.getIdentifier().get(0).getValue(), observation2.getIdentifier().get(0).getValue());
+    }
+
+    private Observation parse() throws Exception {
+        try (InputStream in = InterningSupportTest.class.getClassLoader().getResourceAsStream("JSON/observation-example-f001-glucose.json")) {
+            return FHIRParser.parser(Format.JSON).parse(in);
+        }
+    }
+}
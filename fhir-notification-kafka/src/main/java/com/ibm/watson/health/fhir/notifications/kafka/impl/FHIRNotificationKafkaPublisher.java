@@ -6,7 +6,9 @@
 
 package com.ibm.watson.health.fhir.notifications.kafka.impl;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,17 +27,26 @@ import com.ibm.watson.health.fhir.notification.util.FHIRNotificationUtil;
 
 /**
  * This class implements the FHIR server notification service via a Kafka topic.
+ *
+ * <p>Events are sent as UTF-8 encoded JSON (byte[] values) and keyed by resource type and id (e.g. "Patient/123"),
+ * so all events for a resource go to the same partition and are consumed in order. Sends are asynchronous; a failed
+ * send is logged and counted by the send callback, and the publisher stays subscribed.
  */
 public class FHIRNotificationKafkaPublisher implements FHIRNotificationSubscriber {
     private static final Logger log = Logger.getLogger(FHIRNotificationKafkaPublisher.class.getName());
 
-    private static FHIRNotificationService service = FHIRNotificationService.getInstance();
+    // Producer settings that are used unless they are specified in the connection properties.
+    public static final String DEFAULT_LINGER_MS = "5";
+    public static final String DEFAULT_BATCH_SIZE = "65536";
 
     private String topicName = null;
-    private Producer<String, String> producer = null;
+    private Producer<String, byte[]> producer = null;
 
     private Properties kafkaProps = null;
 
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
     // "Hide" the default ctor.
     protected FHIRNotificationKafkaPublisher() {
     }
@@ -49,6 +60,16 @@ public class FHIRNotificationKafkaPublisher implements FHIRNotificationSubscribe
         }
     }
 
+    /**
+     * Creates a publisher that sends the events with the specified producer (e.g. a MockProducer). The publisher is
+     * not subscribed to the notification service.
+     */
+    public FHIRNotificationKafkaPublisher(String topicName, Producer<String, byte[]> producer) {
+        this.topicName = topicName;
+        this.producer = producer;
+        this.kafkaProps = new Properties();
+    }
+
     /**
      * Performs any required initialization to allow us to publish events to the topic.
      */
@@ -57,15 +78,20 @@ public class FHIRNotificationKafkaPublisher implements FHIRNotificationSubscribe
         try {
             this.topicName = topicName;
             this.kafkaProps = kafkaProps;
-            if (log.isLoggable(Level.FINER)) {
-                log.finer("Kafka publisher is configured with the following properties:\n" + this.kafkaProps.toString());
-                log.finer("Topic name: " + this.topicName);
-            }
             
             // We'll hard-code some properties to ensure they are set correctly.
             this.kafkaProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringSerializer");
-            this.kafkaProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringSerializer");
+            this.kafkaProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.ByteArraySerializer");
             this.kafkaProps.put(ProducerConfig.CLIENT_ID_CONFIG, "fhir-server");
+
+            // Give the producer a chance to batch events unless configured otherwise.
+            this.kafkaProps.putIfAbsent(ProducerConfig.LINGER_MS_CONFIG, DEFAULT_LINGER_MS);
+            this.kafkaProps.putIfAbsent(ProducerConfig.BATCH_SIZE_CONFIG, DEFAULT_BATCH_SIZE);
+
+            if (log.isLoggable(Level.FINER)) {
+                log.finer("Kafka publisher is configured with the following properties:\n" + this.kafkaProps.toString());
+                log.finer("Topic name: " + this.topicName);
+            }
             
             // Make sure that the properties file contains the bootstrap.servers property at a minimum.
             String bootstrapServers = this.kafkaProps.getProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG);
@@ -74,11 +100,11 @@ public class FHIRNotificationKafkaPublisher implements FHIRNotificationSubscribe
             }
             
             // Create our producer object to be used for publishing.
-            producer = new KafkaProducer<String, String>(this.kafkaProps);
+            producer = new KafkaProducer<String, byte[]>(this.kafkaProps);
 
             // Register this Kafka implementation as a "subscriber" with our Notification Service.
             // This means that our "notify" method will be called when the server publishes an event.
-            service.subscribe(this);
+            FHIRNotificationService.getInstance().subscribe(this);
             log.info("Initialized Kafka publisher for topic '" + topicName + "' using bootstrap servers: " + bootstrapServers + ".");
         } catch (Throwable t) {
             String msg = "Caught exception while initializing Kafka publisher.";
@@ -99,6 +125,8 @@ public class FHIRNotificationKafkaPublisher implements FHIRNotificationSubscribe
             if (log.isLoggable(Level.FINE)) {   
                 log.fine("Shutting down Kafka publisher for topic: '" + topicName + "'.");
             }
+            // Stop receiving events before closing the producer.
+            FHIRNotificationService.getInstance().unsubscribe(this);
             if (producer != null) {
                 producer.close();
             }
@@ -117,34 +145,54 @@ public class FHIRNotificationKafkaPublisher implements FHIRNotificationSubscribe
     public void notify(FHIRNotificationEvent event) throws FHIRNotificationException {
         log.entering(this.getClass().getName(), "notify");
         String topicId = "[" + this.kafkaProps.getProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG) + "]/" + topicName;
-        String jsonString = null;
+        byte[] payload = null;
         try {
-            jsonString = FHIRNotificationUtil.toJsonString(event, true);
+            payload = FHIRNotificationUtil.toJsonBytes(event, true);
 
             if (log.isLoggable(Level.FINE)) { 
-                log.fine("Publishing kafka notification event to topic '" + topicId + "',\nmessage: " + jsonString);
+                log.fine("Publishing kafka notification event to topic '" + topicId + "',\nmessage: " + toString(payload));
             }
             
-            producer.send(new ProducerRecord<String, String>(topicName, jsonString), new KafkaPublisherCallback(event, jsonString, topicId));
+            producer.send(new ProducerRecord<String, byte[]>(topicName, FHIRNotificationUtil.getResourceKey(event), payload),
+                new KafkaPublisherCallback(event, payload, topicId));
 
             if (log.isLoggable(Level.FINE)) {
                 log.fine("Returned from async kafka send...");
             }
         } catch (Throwable e) {
-            String msg = buildNotificationErrorMessage(topicId, (jsonString == null ? "<null>" : jsonString));
+            // Count and log the failure, but keep the publisher subscribed so that later events are still published.
+            failedCount.incrementAndGet();
+            String msg = buildNotificationErrorMessage(topicId, toString(payload));
             log.log(Level.SEVERE, msg , e);
-            throw new FHIRNotificationException(msg, e);
         } finally {
             log.exiting(this.getClass().getName(), "notify");
         }
     }
+
+    /**
+     * @return the number of events that were acknowledged by the kafka server
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * @return the number of events that could not be published
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    private static String toString(byte[] payload) {
+        return (payload == null) ? "<null>" : new String(payload, StandardCharsets.UTF_8);
+    }
     
     public class KafkaPublisherCallback implements Callback {
         private FHIRNotificationEvent event;
-        private String notificationEvent;
+        private byte[] notificationEvent;
         private String topicId;
 
-        public KafkaPublisherCallback(FHIRNotificationEvent event, String notificationEvent, String topicId) {
+        public KafkaPublisherCallback(FHIRNotificationEvent event, byte[] notificationEvent, String topicId) {
             super();
             this.event = event;
             this.notificationEvent = notificationEvent;
@@ -161,13 +209,15 @@ public class FHIRNotificationKafkaPublisher implements FHIRNotificationSubscribe
             try {
                 // No exception implies that the send operation succeeded, so log an info message.
                 if (exception == null) {
+                    sentCount.incrementAndGet();
                     log.info("Successfully published kafka notification event for resource: " + event.getLocation());
                 } 
                 
                 // If we detected a 'send' failure, then log an error message that includes the notification message
                 // that we tried to send.
                 else {
-                    String msg = buildNotificationErrorMessage(topicId, notificationEvent);
+                    failedCount.incrementAndGet();
+                    String msg = buildNotificationErrorMessage(topicId, FHIRNotificationKafkaPublisher.toString(notificationEvent));
                     log.log(Level.SEVERE, msg, exception);
                 }
             } finally {
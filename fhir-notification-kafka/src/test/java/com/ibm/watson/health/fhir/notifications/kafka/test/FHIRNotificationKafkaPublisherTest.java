@@ -0,0 +1,89 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.notifications.kafka.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.model.resource.Patient;
+import com.ibm.watson.health.fhir.model.type.HumanName;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.notification.FHIRNotificationEvent;
+import com.ibm.watson.health.fhir.notifications.kafka.impl.FHIRNotificationKafkaPublisher;
+
+public class FHIRNotificationKafkaPublisherTest {
+    private static final String TOPIC = "fhirNotifications";
+
+    @Test
+    public void testPublish() throws Exception {
+        MockProducer<String, byte[]> producer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+        FHIRNotificationKafkaPublisher publisher = new FHIRNotificationKafkaPublisher(TOPIC, producer);
+        publisher.notify(event("create", "1", "1"));
+        publisher.notify(event("update", "1", "2"));
+        publisher.notify(event("create", "2", "1"));
+
+        List<ProducerRecord<String, byte[]>> history = producer.history();
+        assertEquals(history.size(), 3);
+        assertEquals(history.get(0).key(), "Patient/1");
+        assertEquals(history.get(1).key(), "Patient/1");
+        assertEquals(history.get(2).key(), "Patient/2");
+
+        JsonObject message = Json.createReader(new StringReader(new String(history.get(1).value(), StandardCharsets.UTF_8))).readObject();
+        assertEquals(message.getString("operationType"), "update");
+        assertEquals(message.getString("location"), "Patient/1/_history/2");
+        JsonObject resource = message.getJsonObject("resource");
+        assertEquals(resource.getString("resourceType"), "Patient");
+        assertEquals(resource.getJsonArray("name").getJsonObject(0).getString("family"), "Doe");
+
+        assertEquals(publisher.getSentCount(), 3);
+        assertEquals(publisher.getFailedCount(), 0);
+    }
+
+    @Test
+    public void testSendFailure() throws Exception {
+        MockProducer<String, byte[]> producer = new MockProducer<>(false, new StringSerializer(), new ByteArraySerializer());
+        FHIRNotificationKafkaPublisher publisher = new FHIRNotificationKafkaPublisher(TOPIC, producer);
+        publisher.notify(event("create", "1", "1"));
+        publisher.notify(event("create", "2", "1"));
+
+        assertTrue(producer.errorNext(new RuntimeException("broker not available")));
+        assertTrue(producer.completeNext());
+        assertEquals(publisher.getFailedCount(), 1);
+        assertEquals(publisher.getSentCount(), 1);
+
+        // the publisher keeps publishing after a failure
+        publisher.notify(event("create", "3", "1"));
+        assertEquals(producer.history().size(), 3);
+    }
+
+    private static FHIRNotificationEvent event(String operationType, String id, String version) {
+        Patient patient = Patient.builder()
+                .id(Id.of(id))
+                .name(HumanName.builder().family(com.ibm.watson.health.fhir.model.type.String.of("Doe")).build())
+                .build();
+        FHIRNotificationEvent event = new FHIRNotificationEvent();
+        event.setOperationType(operationType);
+        event.setLocation("Patient/" + id + "/_history/" + version);
+        event.setResourceId(id);
+        event.setLastUpdated("2019-10-01T00:00:00Z");
+        event.setResource(patient);
+        return event;
+    }
+}
@@ -18,6 +18,10 @@ public class FHIRNotificationEvent {
     private Resource resource = null;
     private HttpHeaders httpHeaders = null;
 
+    // serialized forms of the event (with and without the resource), shared by all subscribers
+    private volatile String jsonString = null;
+    private volatile String jsonStringWithResource = null;
+
     public FHIRNotificationEvent() {
     }
 
@@ -27,6 +31,7 @@ public class FHIRNotificationEvent {
 
     public void setResourceId(String resourceId) {
         this.resourceId = resourceId;
+        clearJsonString();
     }
 
     public String getLastUpdated() {
@@ -35,6 +40,7 @@ public class FHIRNotificationEvent {
 
     public void setLastUpdated(String lastUpdated) {
         this.lastUpdated = lastUpdated;
+        clearJsonString();
     }
 
     public String getLocation() {
@@ -43,6 +49,7 @@ public class FHIRNotificationEvent {
 
     public void setLocation(String location) {
         this.location = location;
+        clearJsonString();
     }
 
     public String getOperationType() {
@@ -51,6 +58,7 @@ public class FHIRNotificationEvent {
 
     public void setOperationType(String operationType) {
         this.operationType = operationType;
+        clearJsonString();
     }
 
     @Override
@@ -72,6 +80,7 @@ public class FHIRNotificationEvent {
 
     public void setResource(Resource resource) {
         this.resource = resource;
+        clearJsonString();
     }
 
     public HttpHeaders getHttpHeaders() {
@@ -81,4 +90,28 @@ public class FHIRNotificationEvent {
     public void setHttpHeaders(HttpHeaders httpHeaders) {
         this.httpHeaders = httpHeaders;
     }
+
+    /**
+     * @param includeResource whether the serialized form includes the resource
+     * @return the cached serialized form of this event or null if it has not been serialized yet
+     */
+    public String getJsonString(boolean includeResource) {
+        return includeResource ? jsonStringWithResource : jsonString;
+    }
+
+    /**
+     * Caches the serialized form of this event so that it is only generated once for all subscribers.
+     */
+    public void setJsonString(boolean includeResource, String jsonString) {
+        if (includeResource) {
+            this.jsonStringWithResource = jsonString;
+        } else {
+            this.jsonString = jsonString;
+        }
+    }
+
+    private void clearJsonString() {
+        this.jsonString = null;
+        this.jsonStringWithResource = null;
+    }
 }
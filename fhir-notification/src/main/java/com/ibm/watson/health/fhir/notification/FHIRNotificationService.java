@@ -15,8 +15,8 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.ibm.watson.health.fhir.config.FHIRConfiguration;
+import com.ibm.watson.health.fhir.config.PropertyGroup;
 import com.ibm.watson.health.fhir.model.resource.Resource;
-import com.ibm.watson.health.fhir.notification.exception.FHIRNotificationException;
 import com.ibm.watson.health.fhir.persistence.interceptor.FHIRPersistenceEvent;
 import com.ibm.watson.health.fhir.persistence.interceptor.FHIRPersistenceInterceptor;
 import com.ibm.watson.health.fhir.persistence.interceptor.FHIRPersistenceInterceptorException;
@@ -24,10 +24,16 @@ import com.ibm.watson.health.fhir.persistence.interceptor.impl.FHIRPersistenceIn
 
 /**
  * This class coordinates the activities of the FHIR Server notification service.
+ *
+ * <p>Each subscriber gets its own {@link FHIRNotificationSubscriberQueue}, so publishing an event only adds it to the
+ * subscriber queues and never waits for a subscriber.
  */
 public class FHIRNotificationService implements FHIRPersistenceInterceptor {
     private static final Logger log = java.util.logging.Logger.getLogger(FHIRNotificationService.class.getName());
-    private List<FHIRNotificationSubscriber> subscribers = new CopyOnWriteArrayList<FHIRNotificationSubscriber>();
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+    private List<FHIRNotificationSubscriberQueue> subscriberQueues = new CopyOnWriteArrayList<FHIRNotificationSubscriberQueue>();
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private boolean coalesceUpdates = true;
     private static final FHIRNotificationService INSTANCE = new FHIRNotificationService();
     private Set<String> includedResourceTypes = Collections.synchronizedSortedSet(new TreeSet<String>());
 
@@ -46,7 +52,10 @@ public class FHIRNotificationService implements FHIRPersistenceInterceptor {
 
     private void initNotificationResourceTypes() throws Exception {
         Set<String> includedResourceTypes = Collections.synchronizedSortedSet(new TreeSet<String>());
-        List<String> types = FHIRConfiguration.getInstance().loadConfiguration().getStringListProperty(FHIRConfiguration.PROPERTY_NOTIFICATION_RESOURCE_TYPES);
+        PropertyGroup config = FHIRConfiguration.getInstance().loadConfiguration();
+        List<String> types = config.getStringListProperty(FHIRConfiguration.PROPERTY_NOTIFICATION_RESOURCE_TYPES);
+        queueSize = config.getIntProperty(FHIRConfiguration.PROPERTY_NOTIFICATION_QUEUE_SIZE, DEFAULT_QUEUE_SIZE);
+        coalesceUpdates = config.getBooleanProperty(FHIRConfiguration.PROPERTY_NOTIFICATION_COALESCE_UPDATES, Boolean.TRUE);
         if (types != null) {
             for (String type : types) {
                 includedResourceTypes.add(type);
@@ -62,19 +71,15 @@ public class FHIRNotificationService implements FHIRPersistenceInterceptor {
     }
 
     /**
-     * Method for broadcasting message to each subscriber.
+     * Method for broadcasting message to each subscriber. The event is added to each subscriber's queue and
+     * delivered by the queue's worker thread. A subscriber that fails to handle an event is unsubscribed.
      *
      * @param event
      */
     public void publish(FHIRNotificationEvent event) {
         log.entering(this.getClass().getName(), "publish");
-        for (FHIRNotificationSubscriber subscriber : subscribers) {
-            try {
-                subscriber.notify(event);
-            } catch (FHIRNotificationException e) {
-                subscribers.remove(subscriber);
-                log.log(Level.WARNING, FHIRNotificationService.class.getName() + ": unable to publish event", e);
-            }
+        for (FHIRNotificationSubscriberQueue subscriberQueue : subscriberQueues) {
+            subscriberQueue.offer(event);
         }
         log.exiting(this.getClass().getName(), "publish");
     }
@@ -84,11 +89,11 @@ public class FHIRNotificationService implements FHIRPersistenceInterceptor {
      *
      * @param subscriber
      */
-    public void subscribe(FHIRNotificationSubscriber subscriber) {
+    public synchronized void subscribe(FHIRNotificationSubscriber subscriber) {
         log.entering(this.getClass().getName(), "subscribe");
         try {
-            if (!subscribers.contains(subscriber)) {
-                subscribers.add(subscriber);
+            if (getSubscriberQueue(subscriber) == null) {
+                subscriberQueues.add(new FHIRNotificationSubscriberQueue(subscriber, queueSize, coalesceUpdates, this::failed));
             }
         } finally {
             log.exiting(this.getClass().getName(), "subscribe");
@@ -100,17 +105,48 @@ public class FHIRNotificationService implements FHIRPersistenceInterceptor {
      *
      * @param subscriber
      */
-    public void unsubscribe(FHIRNotificationSubscriber subscriber) {
+    public synchronized void unsubscribe(FHIRNotificationSubscriber subscriber) {
         log.entering(this.getClass().getName(), "unsubscribe");
         try {
-            if (subscribers.contains(subscriber)) {
-                subscribers.remove(subscriber);
+            FHIRNotificationSubscriberQueue subscriberQueue = getSubscriberQueue(subscriber);
+            if (subscriberQueue != null) {
+                subscriberQueues.remove(subscriberQueue);
+                subscriberQueue.stop();
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Unsubscribed notification subscriber: " + subscriberQueue);
+                }
             }
         } finally {
             log.exiting(this.getClass().getName(), "unsubscribe");
         }
     }
 
+    /**
+     * Called by a subscriber queue after its subscriber failed to handle an event.
+     */
+    private void failed(FHIRNotificationSubscriberQueue subscriberQueue) {
+        subscriberQueues.remove(subscriberQueue);
+    }
+
+    /**
+     * @return the queue (with its delivery metrics) of the subscriber or null if the subscriber is not subscribed
+     */
+    public FHIRNotificationSubscriberQueue getSubscriberQueue(FHIRNotificationSubscriber subscriber) {
+        for (FHIRNotificationSubscriberQueue subscriberQueue : subscriberQueues) {
+            if (subscriberQueue.getSubscriber().equals(subscriber)) {
+                return subscriberQueue;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the queues (with their delivery metrics) of all subscribers
+     */
+    public List<FHIRNotificationSubscriberQueue> getSubscriberQueues() {
+        return Collections.unmodifiableList(subscriberQueues);
+    }
+
     /**
      * Check if this subscriber has subscribed to this service
      *
@@ -120,7 +156,7 @@ public class FHIRNotificationService implements FHIRPersistenceInterceptor {
     public boolean isSubscribed(FHIRNotificationSubscriber subscriber) {
         log.entering(this.getClass().getName(), "isSubscribed");
         try {
-            return subscribers.contains(subscriber);
+            return getSubscriberQueue(subscriber) != null;
         } finally {
             log.exiting(this.getClass().getName(), "isSubscribed");
         }
@@ -0,0 +1,227 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.notification;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.watson.health.fhir.notification.exception.FHIRNotificationException;
+import com.ibm.watson.health.fhir.notification.util.FHIRNotificationUtil;
+
+/**
+ * A bounded queue of notification events for a single subscriber, with a worker thread that delivers the events to
+ * the subscriber. This keeps a slow subscriber (e.g. a WebSocket client) from stalling the request threads that
+ * publish the events and from delaying the delivery to the other subscribers.
+ *
+ * <p>When coalescing is enabled, an update event for a resource that still has an update event waiting in the queue
+ * replaces the waiting event (at its position in the queue), so the subscriber only sees the latest update. Any other
+ * event for the resource (e.g. a delete) ends the coalescing, so an update which follows it is queued behind it and the
+ * subscriber still sees the events in order. When the queue is full, new events are dropped.
+ */
+public class FHIRNotificationSubscriberQueue {
+    private static final Logger log = java.util.logging.Logger.getLogger(FHIRNotificationSubscriberQueue.class.getName());
+
+    private static final String OPERATION_UPDATE = "update";
+
+    private final FHIRNotificationSubscriber subscriber;
+    private final int capacity;
+    private final boolean coalesce;
+    private final Consumer<FHIRNotificationSubscriberQueue> onFailure;
+    private final Thread worker;
+
+    // guarded by "this"
+    private final Deque<PendingEvent> queue = new ArrayDeque<>();
+    private final Map<String, PendingEvent> pendingUpdates = new HashMap<>();
+    private boolean running = true;
+
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile long lastLagNanos = 0;
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    /**
+     * @param subscriber
+     *     the subscriber to deliver the events to
+     * @param capacity
+     *     the maximum number of events waiting to be delivered
+     * @param coalesce
+     *     whether waiting update events are replaced by newer update events for the same resource
+     * @param onFailure
+     *     called (on the worker thread) when the subscriber fails to handle an event; the queue is stopped afterwards
+     */
+    public FHIRNotificationSubscriberQueue(FHIRNotificationSubscriber subscriber, int capacity, boolean coalesce,
+        Consumer<FHIRNotificationSubscriberQueue> onFailure) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid notification queue size: " + capacity);
+        }
+        this.subscriber = subscriber;
+        this.capacity = capacity;
+        this.coalesce = coalesce;
+        this.onFailure = onFailure;
+        this.worker = new Thread(this::run, "fhir-notification-" + subscriber.getClass().getSimpleName());
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public FHIRNotificationSubscriber getSubscriber() {
+        return subscriber;
+    }
+
+    /**
+     * Add an event to the queue; this method never waits for the subscriber.
+     *
+     * @return true if the event was queued or coalesced with a waiting event, false if it was dropped
+     */
+    public boolean offer(FHIRNotificationEvent event) {
+        publishedCount.incrementAndGet();
+        String resourceKey = coalesce ? FHIRNotificationUtil.getResourceKey(event) : null;
+        String key = OPERATION_UPDATE.equals(event.getOperationType()) ? resourceKey : null;
+        synchronized (this) {
+            if (!running) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            if (key != null) {
+                PendingEvent pending = pendingUpdates.get(key);
+                if (pending != null) {
+                    // keep the position (and the publish time) of the waiting event
+                    pending.event = event;
+                    coalescedCount.incrementAndGet();
+                    return true;
+                }
+            }
+            if (queue.size() >= capacity) {
+                droppedCount.incrementAndGet();
+                log.warning("Notification queue is full; dropped event for resource: " + event.getLocation());
+                return false;
+            }
+            PendingEvent pending = new PendingEvent(event, key, System.nanoTime());
+            queue.addLast(pending);
+            if (key != null) {
+                pendingUpdates.put(key, pending);
+            } else if (resourceKey != null) {
+                // a later update must not move ahead of this event
+                pendingUpdates.remove(resourceKey);
+            }
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Stop delivering events; events that are still waiting are discarded.
+     */
+    public void stop() {
+        synchronized (this) {
+            running = false;
+            droppedCount.addAndGet(queue.size());
+            queue.clear();
+            pendingUpdates.clear();
+            notifyAll();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            PendingEvent pending;
+            synchronized (this) {
+                while (running && queue.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                pending = queue.removeFirst();
+                if (pending.key != null) {
+                    pendingUpdates.remove(pending.key, pending);
+                }
+            }
+            try {
+                subscriber.notify(pending.event);
+                deliveredCount.incrementAndGet();
+                long lag = System.nanoTime() - pending.publishTime;
+                lastLagNanos = lag;
+                maxLagNanos.accumulateAndGet(lag, Math::max);
+            } catch (FHIRNotificationException | RuntimeException e) {
+                log.log(Level.WARNING, FHIRNotificationSubscriberQueue.class.getName() + ": unable to publish event", e);
+                stop();
+                if (onFailure != null) {
+                    onFailure.accept(this);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of events waiting to be delivered
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return the time in milliseconds between publishing and delivering the most recently delivered event
+     */
+    public double getLastLagMillis() {
+        return lastLagNanos / 1000000.0;
+    }
+
+    /**
+     * @return the maximum time in milliseconds between publishing and delivering an event
+     */
+    public double getMaxLagMillis() {
+        return maxLagNanos.get() / 1000000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[queueDepth=%d, published=%d, delivered=%d, coalesced=%d, dropped=%d, lastLagMs=%.2f, maxLagMs=%.2f]",
+            subscriber.getClass().getSimpleName(), getQueueDepth(), getPublishedCount(), getDeliveredCount(),
+            getCoalescedCount(), getDroppedCount(), getLastLagMillis(), getMaxLagMillis());
+    }
+
+    private static class PendingEvent {
+        private FHIRNotificationEvent event;
+        private final String key;
+        private final long publishTime;
+
+        private PendingEvent(FHIRNotificationEvent event, String key, long publishTime) {
+            this.event = event;
+            this.key = key;
+            this.publishTime = publishTime;
+        }
+    }
+}
@@ -6,7 +6,10 @@
 
 package com.ibm.watson.health.fhir.notification.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 
 import javax.json.Json;
 import javax.json.JsonObject;
@@ -15,10 +18,22 @@ import javax.json.JsonReader;
 import javax.xml.bind.JAXBException;
 
 import com.ibm.watson.health.fhir.exception.FHIRException;
-import com.ibm.watson.health.fhir.model.util.FHIRUtil;
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.generator.FHIRGenerator;
 import com.ibm.watson.health.fhir.notification.FHIRNotificationEvent;
 
 public class FHIRNotificationUtil {
+    private static final byte[] RESOURCE_MEMBER = ",\"resource\":".getBytes(StandardCharsets.UTF_8);
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    // per-thread buffer for toJsonBytes; replaced when an unusually large event made it grow past the maximum size
+    private static final ThreadLocal<ByteArrayOutputStream> BUFFER = new ThreadLocal<ByteArrayOutputStream>() {
+        @Override
+        protected ByteArrayOutputStream initialValue() {
+            return new ByteArrayOutputStream(8192);
+        }
+    };
+
     public static FHIRNotificationEvent toNotificationEvent(String jsonString) {
         JsonReader reader = Json.createReader(new StringReader(jsonString));
         JsonObject jsonObject = reader.readObject();
@@ -32,7 +47,8 @@ public class FHIRNotificationUtil {
     }
     
     /**
-     * Serializes the notification event into a JSON string.
+     * Serializes the notification event into a JSON string. The result is cached on the event, so an event that is
+     * delivered to several subscribers is only serialized once.
      * @param event the FHIRNotificationEvent structure to be serialized
      * @param includeResource a flag that controls whether or not the resource object within
      * the event structure should be included in the serialized message.
@@ -41,16 +57,72 @@ public class FHIRNotificationUtil {
      * @throws FHIRException 
      */
     public static String toJsonString(FHIRNotificationEvent event, boolean includeResource) throws JAXBException, FHIRException {
+        String cached = event.getJsonString(includeResource);
+        if (cached != null) {
+            return cached;
+        }
         JsonObjectBuilder builder = Json.createObjectBuilder();
         builder.add("lastUpdated", event.getLastUpdated());
         builder.add("location", event.getLocation());
         builder.add("operationType", event.getOperationType());
         builder.add("resourceId", event.getResourceId());
-        if (includeResource && event.getResource() != null) {
-            builder.add("resource", FHIRUtil.toJsonObject(event.getResource()));
-        }
         JsonObject jsonObject = builder.build();
         String jsonString = jsonObject.toString();
+        if (includeResource && event.getResource() != null) {
+            // splice the generated resource into the event object rather than re-parsing it into a JsonObject;
+            // this also lets the generator reuse the resource's cached JSON form when one is present
+            StringWriter writer = new StringWriter(jsonString.length() + 4096);
+            writer.write(jsonString, 0, jsonString.length() - 1);
+            writer.write(",\"resource\":");
+            FHIRGenerator.generator(Format.JSON, false).generate(event.getResource(), writer);
+            writer.write('}');
+            jsonString = writer.toString();
+        }
+        event.setJsonString(includeResource, jsonString);
         return jsonString;
     }
+
+    /**
+     * Serializes the notification event into UTF-8 encoded JSON. The resource is generated straight into a reusable
+     * per-thread buffer, so no intermediate String is created for it.
+     * @param event the FHIRNotificationEvent structure to be serialized
+     * @param includeResource a flag that controls whether or not the resource object within
+     * the event structure should be included in the serialized message.
+     * @return the serialized message
+     * @throws JAXBException
+     * @throws FHIRException
+     */
+    public static byte[] toJsonBytes(FHIRNotificationEvent event, boolean includeResource) throws JAXBException, FHIRException {
+        byte[] header = toJsonString(event, false).getBytes(StandardCharsets.UTF_8);
+        if (!includeResource || event.getResource() == null) {
+            return header;
+        }
+        ByteArrayOutputStream out = BUFFER.get();
+        try {
+            out.write(header, 0, header.length - 1);
+            out.write(RESOURCE_MEMBER, 0, RESOURCE_MEMBER.length);
+            FHIRGenerator.generator(Format.JSON, false).generate(event.getResource(), out);
+            out.write('}');
+            return out.toByteArray();
+        } finally {
+            if (out.size() > MAX_POOLED_BUFFER_SIZE) {
+                BUFFER.remove();
+            } else {
+                out.reset();
+            }
+        }
+    }
+
+    /**
+     * @return the resource type and id of the event's resource (e.g. "Patient/123") or null if the event has no
+     * location or resource id
+     */
+    public static String getResourceKey(FHIRNotificationEvent event) {
+        String location = event.getLocation();
+        if (location == null || event.getResourceId() == null) {
+            return null;
+        }
+        int index = location.indexOf('/');
+        return ((index == -1) ? location : location.substring(0, index)) + "/" + event.getResourceId();
+    }
 }
@@ -0,0 +1,163 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.notification.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.notification.FHIRNotificationEvent;
+import com.ibm.watson.health.fhir.notification.FHIRNotificationSubscriber;
+import com.ibm.watson.health.fhir.notification.FHIRNotificationSubscriberQueue;
+import com.ibm.watson.health.fhir.notification.exception.FHIRNotificationException;
+import com.ibm.watson.health.fhir.notification.util.FHIRNotificationUtil;
+
+public class FHIRNotificationSubscriberQueueTest {
+
+    @Test
+    public void testDelivery() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        FHIRNotificationSubscriberQueue queue = new FHIRNotificationSubscriberQueue(subscriber, 10, true, null);
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(queue.offer(event("create", "Patient", "" + i, "1")));
+            }
+            waitFor(() -> queue.getDeliveredCount() == 5);
+            for (int i = 0; i < 5; i++) {
+                assertEquals(subscriber.events.get(i).getResourceId(), "" + i);
+            }
+            assertEquals(queue.getQueueDepth(), 0);
+            assertTrue(queue.getMaxLagMillis() >= queue.getLastLagMillis());
+        } finally {
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void testCoalescingAndOverflow() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        FHIRNotificationSubscriberQueue queue = new FHIRNotificationSubscriberQueue(subscriber, 3, true, null);
+        try {
+            // hold the worker in the first notify call
+            queue.offer(subscriber.blockingEvent);
+            assertTrue(subscriber.notifying.await(5, TimeUnit.SECONDS));
+
+            assertTrue(queue.offer(event("create", "Patient", "1", "1")));
+            assertTrue(queue.offer(event("update", "Patient", "1", "2")));
+            assertTrue(queue.offer(event("update", "Observation", "1", "2")));
+            assertTrue(queue.offer(event("update", "Patient", "1", "3")));
+            assertEquals(queue.getQueueDepth(), 3);
+            assertEquals(queue.getCoalescedCount(), 1);
+
+            assertFalse(queue.offer(event("update", "Patient", "2", "2")));
+            assertEquals(queue.getDroppedCount(), 1);
+
+            subscriber.release.countDown();
+            waitFor(() -> queue.getDeliveredCount() == 4);
+            assertEquals(subscriber.events.get(1).getLocation(), "Patient/1/_history/1");
+            assertEquals(subscriber.events.get(2).getLocation(), "Patient/1/_history/3");
+            assertEquals(subscriber.events.get(3).getLocation(), "Observation/1/_history/2");
+        } finally {
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void testNoCoalescingAcrossDelete() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        FHIRNotificationSubscriberQueue queue = new FHIRNotificationSubscriberQueue(subscriber, 10, true, null);
+        try {
+            queue.offer(subscriber.blockingEvent);
+            assertTrue(subscriber.notifying.await(5, TimeUnit.SECONDS));
+
+            assertTrue(queue.offer(event("update", "Patient", "1", "2")));
+            assertTrue(queue.offer(event("delete", "Patient", "1", "3")));
+            assertTrue(queue.offer(event("update", "Patient", "1", "4")));
+            assertTrue(queue.offer(event("update", "Patient", "1", "5")));
+            assertEquals(queue.getQueueDepth(), 3);
+            assertEquals(queue.getCoalescedCount(), 1);
+
+            subscriber.release.countDown();
+            waitFor(() -> queue.getDeliveredCount() == 4);
+            assertEquals(subscriber.events.get(1).getLocation(), "Patient/1/_history/2");
+            assertEquals(subscriber.events.get(2).getLocation(), "Patient/1/_history/3");
+            assertEquals(subscriber.events.get(3).getLocation(), "Patient/1/_history/5");
+        } finally {
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        AtomicReference<FHIRNotificationSubscriberQueue> failed = new AtomicReference<>();
+        FHIRNotificationSubscriber subscriber = event -> {
+            throw new FHIRNotificationException("closed");
+        };
+        FHIRNotificationSubscriberQueue queue = new FHIRNotificationSubscriberQueue(subscriber, 10, true, failed::set);
+        queue.offer(event("create", "Patient", "1", "1"));
+        waitFor(() -> failed.get() != null);
+        assertSame(failed.get(), queue);
+        assertFalse(queue.offer(event("create", "Patient", "2", "1")));
+    }
+
+    @Test
+    public void testSerializedOnce() throws Exception {
+        FHIRNotificationEvent event = event("create", "Patient", "1", "1");
+        String jsonString = FHIRNotificationUtil.toJsonString(event, false);
+        assertSame(FHIRNotificationUtil.toJsonString(event, false), jsonString);
+
+        // changing the event invalidates the serialized form
+        event.setLastUpdated("2019-10-02T00:00:00Z");
+        assertTrue(FHIRNotificationUtil.toJsonString(event, false).contains("2019-10-02T00:00:00Z"));
+    }
+
+    private static FHIRNotificationEvent event(String operationType, String resourceType, String id, String version) {
+        FHIRNotificationEvent event = new FHIRNotificationEvent();
+        event.setOperationType(operationType);
+        event.setLocation(resourceType + "/" + id + "/_history/" + version);
+        event.setResourceId(id);
+        event.setLastUpdated("2019-10-01T00:00:00Z");
+        return event;
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private static class RecordingSubscriber implements FHIRNotificationSubscriber {
+        private final List<FHIRNotificationEvent> events = new CopyOnWriteArrayList<>();
+        private final FHIRNotificationEvent blockingEvent = event("create", "Patient", "blocking", "1");
+        private final CountDownLatch notifying = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void notify(FHIRNotificationEvent event) throws FHIRNotificationException {
+            if (event == blockingEvent) {
+                notifying.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new FHIRNotificationException("interrupted", e);
+                }
+            }
+            events.add(event);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.operation.bulkdata;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.watson.health.fhir.config.FHIRRequestContext;
+import com.ibm.watson.health.fhir.exception.FHIRException;
+import com.ibm.watson.health.fhir.persistence.FHIRPersistence;
+import com.ibm.watson.health.fhir.persistence.helper.PersistenceHelper;
+
+/**
+ * An asynchronous bulk data request, which runs on an executor after the request that started it has returned.
+ *
+ * <p>A job splits its work into tasks which are run by up to {@code parallelism} workers at a time. The thread
+ * running the job acts as one of the workers. Each worker uses its own FHIRPersistence instance and a copy of the
+ * request context of the request which started the job, since neither is meant to be shared between threads.
+ */
+public abstract class BulkDataJob implements Runnable {
+    private static final Logger log = Logger.getLogger(BulkDataJob.class.getName());
+
+    public static enum Status { QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED }
+
+    /**
+     * A unit of work of a job, run by one worker with that worker's FHIRPersistence instance.
+     */
+    public interface Task {
+        void run(FHIRPersistence persistence) throws Exception;
+    }
+
+    /**
+     * An NDJSON file written or read by a job.
+     */
+    public static class Output {
+        private final String type;
+        private final String url;
+        private final long count;
+
+        public Output(String type, String url, long count) {
+            this.type = type;
+            this.url = url;
+            this.count = count;
+        }
+
+        /**
+         * @return the resource type of the resources in the file
+         */
+        public String getType() {
+            return type;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return the number of resources in the file
+         */
+        public long getCount() {
+            return count;
+        }
+    }
+
+    private final String id;
+    private final Instant transactionTime = Instant.now();
+    private final String request;
+    private final Path directory;
+    private final PersistenceHelper persistenceHelper;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final String tenantId;
+    private final String dataStoreId;
+    private final String tenantKey;
+    private final Duration retention;
+
+    private final List<Output> outputs = Collections.synchronizedList(new ArrayList<>());
+    private final List<Output> errors = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final AtomicInteger completedTasks = new AtomicInteger();
+    private volatile int taskCount;
+    private volatile Status status = Status.QUEUED;
+    private volatile String failureMessage;
+    private volatile Instant endTime;
+
+    /**
+     * @param request the url of the request which started the job
+     * @param outputDirectory the directory under which the job creates a directory for its files
+     * @param persistenceHelper used to obtain a FHIRPersistence instance for each worker
+     * @param executor the executor which runs the job and its additional workers
+     * @param parallelism the maximum number of tasks run at the same time
+     */
+    protected BulkDataJob(String request, Path outputDirectory, PersistenceHelper persistenceHelper, ExecutorService executor, int parallelism) {
+        this(UUID.randomUUID().toString(), request, outputDirectory, persistenceHelper, executor, parallelism);
+    }
+
+    /**
+     * @param id the id of the job, e.g. the id of an earlier job which the job resumes
+     */
+    protected BulkDataJob(String id, String request, Path outputDirectory, PersistenceHelper persistenceHelper, ExecutorService executor, int parallelism) {
+        this.id = id;
+        this.request = request;
+        this.directory = outputDirectory.resolve(id);
+        this.persistenceHelper = persistenceHelper;
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+
+        FHIRRequestContext requestContext = FHIRRequestContext.get();
+        this.tenantId = requestContext.getTenantId();
+        this.dataStoreId = requestContext.getDataStoreId();
+        this.tenantKey = requestContext.getTenantKey();
+        this.retention = BulkDataJobManager.getJobRetention();
+    }
+
+    @Override
+    public void run() {
+        if (cancelled.get()) {
+            return;
+        }
+        status = Status.RUNNING;
+        try {
+            FHIRRequestContext.set(copyRequestContext());
+            doRun(persistenceHelper.getFHIRPersistenceImplementation());
+            status = cancelled.get() ? Status.CANCELLED : Status.COMPLETED;
+        } catch (Throwable t) {
+            if (cancelled.get()) {
+                status = Status.CANCELLED;
+            } else {
+                log.log(Level.SEVERE, "Bulk data job '" + id + "' failed", t);
+                failureMessage = t.getClass().getName() + ": " + t.getMessage();
+                status = Status.FAILED;
+            }
+        } finally {
+            endTime = Instant.now();
+            FHIRRequestContext.remove();
+        }
+    }
+
+    /**
+     * Performs the work of the job on the thread running it.
+     * @param persistence the FHIRPersistence instance of the thread running the job
+     */
+    protected abstract void doRun(FHIRPersistence persistence) throws Exception;
+
+    /**
+     * Runs the tasks with up to {@code parallelism} workers and waits for them to finish. If a task fails, the
+     * workers stop picking up new tasks and the first failure is rethrown once all of the workers are done.
+     */
+    protected void runTasks(List<Task> tasks, FHIRPersistence persistence) throws Exception {
+        taskCount = tasks.size();
+        runTasks(tasks.iterator(), Math.min(parallelism, tasks.size()), persistence);
+    }
+
+    /**
+     * Runs the tasks of the iterator with {@code parallelism} workers and waits for them to finish. The iterator is
+     * only used by one worker at a time, so it can produce the tasks as they are needed (e.g. while reading a file).
+     */
+    protected void runTasks(Iterator<Task> tasks, FHIRPersistence persistence) throws Exception {
+        runTasks(tasks, parallelism, persistence);
+    }
+
+    private void runTasks(Iterator<Task> tasks, int workerCount, FHIRPersistence persistence) throws Exception {
+        AtomicBoolean failed = new AtomicBoolean();
+
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 1; i < workerCount; i++) {
+            futures.add(executor.submit(() -> {
+                try {
+                    FHIRRequestContext.set(copyRequestContext());
+                    runWorker(tasks, persistenceHelper.getFHIRPersistenceImplementation(), failed);
+                } finally {
+                    FHIRRequestContext.remove();
+                }
+                return null;
+            }));
+        }
+
+        Exception failure = null;
+        try {
+            runWorker(tasks, persistence, failed);
+        } catch (Exception e) {
+            failure = e;
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void runWorker(Iterator<Task> tasks, FHIRPersistence persistence, AtomicBoolean failed) throws Exception {
+        while (!failed.get() && !cancelled.get()) {
+            try {
+                Task task;
+                synchronized (tasks) {
+                    if (!tasks.hasNext()) {
+                        return;
+                    }
+                    task = tasks.next();
+                }
+                task.run(persistence);
+                completedTasks.incrementAndGet();
+            } catch (Exception e) {
+                failed.set(true);
+                throw e;
+            }
+        }
+    }
+
+    private FHIRRequestContext copyRequestContext() throws FHIRException {
+        FHIRRequestContext requestContext = new FHIRRequestContext(tenantId, dataStoreId);
+        if (tenantKey != null) {
+            requestContext.setTenantKey(tenantKey);
+        }
+        return requestContext;
+    }
+
+    /**
+     * Records an output file of the job.
+     */
+    protected void addOutput(Output output) {
+        outputs.add(output);
+    }
+
+    /**
+     * Records a file of OperationOutcome resources which describe the errors found by the job.
+     */
+    protected void addError(Output error) {
+        errors.add(error);
+    }
+
+    /**
+     * Asks the job to stop. The tasks which are running are finished, but no new ones are started.
+     */
+    public void cancel() {
+        cancelled.set(true);
+        if (status == Status.QUEUED) {
+            status = Status.CANCELLED;
+            endTime = Instant.now();
+        }
+    }
+
+    /**
+     * @return true if the job was cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the time the job was started; the job's output reflects the resources as of about this time
+     */
+    public Instant getTransactionTime() {
+        return transactionTime;
+    }
+
+    public String getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the tenant of the request which started the job
+     */
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    /**
+     * @return the datastore of the request which started the job
+     */
+    public String getDataStoreId() {
+        return dataStoreId;
+    }
+
+    /**
+     * @return the directory holding the files of the job
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the time the job finished, or null if it hasn't finished yet
+     */
+    public Instant getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return true if the job finished longer ago than the job retention period (configured for the tenant which
+     *         started it), after which it is forgotten and its files are deleted
+     */
+    public boolean isExpired(Instant now) {
+        Instant endTime = this.endTime;
+        return endTime != null && !now.isBefore(endTime.plus(retention));
+    }
+
+    /**
+     * @return a description of the failure of a FAILED job
+     */
+    public String getFailureMessage() {
+        return failureMessage;
+    }
+
+    public List<Output> getOutputs() {
+        synchronized (outputs) {
+            return new ArrayList<>(outputs);
+        }
+    }
+
+    public List<Output> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    /**
+     * @return a short description of the progress of the job
+     */
+    public String getProgress() {
+        if (status == Status.RUNNING && taskCount > 0) {
+            return completedTasks.get() + " of " + taskCount + " tasks completed";
+        }
+        return status.name().toLowerCase();
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.operation.bulkdata;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import javax.naming.InitialContext;
+
+import com.ibm.watson.health.fhir.config.FHIRConfigHelper;
+import com.ibm.watson.health.fhir.config.FHIRConfiguration;
+import com.ibm.watson.health.fhir.config.FHIRRequestContext;
+
+/**
+ * Keeps track of the bulk data jobs of the server. Jobs are kept in memory only, so the jobs which are running when
+ * the server stops are lost. A job which has finished is kept for the job retention period, after which it is forgotten
+ * and its files are deleted.
+ *
+ * <p>A job belongs to the tenant and datastore of the request which started it: its files are kept in the directory of
+ * that tenant and datastore, and it is only found by the requests of that tenant and datastore.
+ */
+public class BulkDataJobManager {
+    private static final Logger log = Logger.getLogger(BulkDataJobManager.class.getName());
+
+    private static final String EXECUTOR_JNDI_NAME = "java:comp/DefaultManagedExecutorService";
+    private static final String DEFAULT_OUTPUT_DIRECTORY = System.getProperty("java.io.tmpdir") + "/fhir-bulkdata";
+    private static final int DEFAULT_PARALLELISM = 4;
+    private static final int DEFAULT_JOB_RETENTION_MINUTES = 24 * 60;
+
+    private static final Map<String, BulkDataJob> jobs = new ConcurrentHashMap<>();
+
+    // Used when no managed executor is available, e.g. outside of the server
+    private static ExecutorService defaultExecutor;
+
+    private BulkDataJobManager() {
+        // No Operation
+    }
+
+    /**
+     * Returns the executor which runs the jobs. The container's default managed executor is used if it is available,
+     * so that the JNDI context is available to the jobs; it must be looked up on a request thread.
+     */
+    public static ExecutorService getExecutor() {
+        try {
+            Object jndiValue = new InitialContext().lookup(EXECUTOR_JNDI_NAME);
+            if (jndiValue instanceof ExecutorService) {
+                return (ExecutorService) jndiValue;
+            }
+        } catch (Exception e) {
+            log.fine("Managed executor '" + EXECUTOR_JNDI_NAME + "' is not available: " + e.getMessage());
+        }
+        return getDefaultExecutor();
+    }
+
+    private static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "fhir-bulkdata");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * @return the directory under which the jobs write their files
+     */
+    public static Path getOutputDirectory() {
+        return Paths.get(FHIRConfigHelper.getStringProperty(FHIRConfiguration.PROPERTY_BULKDATA_OUTPUT_DIRECTORY, DEFAULT_OUTPUT_DIRECTORY));
+    }
+
+    /**
+     * @return the directory under which the jobs of the tenant and datastore of the current request write their files
+     */
+    public static Path getTenantDirectory() {
+        FHIRRequestContext requestContext = FHIRRequestContext.get();
+        // tenant and datastore ids are restricted to characters which are safe in a file name
+        return getOutputDirectory().resolve(requestContext.getTenantId()).resolve(requestContext.getDataStoreId());
+    }
+
+    /**
+     * @return true if the tenant and datastore are those of the current request
+     */
+    public static boolean isCurrentTenant(String tenantId, String dataStoreId) {
+        FHIRRequestContext requestContext = FHIRRequestContext.get();
+        return Objects.equals(tenantId, requestContext.getTenantId()) && Objects.equals(dataStoreId, requestContext.getDataStoreId());
+    }
+
+    /**
+     * @return the maximum number of tasks run at the same time by a job
+     */
+    public static int getParallelism() {
+        return FHIRConfigHelper.getIntProperty(FHIRConfiguration.PROPERTY_BULKDATA_PARALLELISM, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @return how long a job is kept after it has finished
+     */
+    public static Duration getJobRetention() {
+        return Duration.ofMinutes(Math.max(0, FHIRConfigHelper.getIntProperty(FHIRConfiguration.PROPERTY_BULKDATA_JOB_RETENTION_MINUTES,
+            DEFAULT_JOB_RETENTION_MINUTES)));
+    }
+
+    /**
+     * Starts the job on the specified executor.
+     */
+    public static void submit(BulkDataJob job, ExecutorService executor) throws IOException {
+        Files.createDirectories(job.getDirectory());
+        jobs.put(job.getId(), job);
+        expireJobs();
+        // the job is known by now, so the directory of a job which is resumed is kept
+        deleteUnknownJobDirectories();
+        executor.submit(job);
+    }
+
+    /**
+     * @return the job with the specified id, or null if there is no such job for the tenant and datastore of the
+     *         current request
+     */
+    public static BulkDataJob getJob(String jobId) {
+        expireJobs();
+        BulkDataJob job = jobs.get(jobId);
+        if (job == null || !isCurrentTenant(job.getTenantId(), job.getDataStoreId())) {
+            return null;
+        }
+        return job;
+    }
+
+    /**
+     * Cancels the job with the specified id, forgets it and deletes its files.
+     * @return the job, or null if there is no such job for the tenant and datastore of the current request
+     */
+    public static BulkDataJob cancel(String jobId) {
+        BulkDataJob job = getJob(jobId);
+        if (job == null || !jobs.remove(jobId, job)) {
+            return null;
+        }
+        job.cancel();
+        delete(job.getDirectory());
+        return job;
+    }
+
+    /**
+     * Forgets the expired jobs and deletes their files.
+     */
+    private static void expireJobs() {
+        Instant now = Instant.now();
+        for (BulkDataJob job : jobs.values()) {
+            if (job.isExpired(now) && jobs.remove(job.getId(), job)) {
+                log.fine("Bulk data job '" + job.getId() + "' expired");
+                delete(job.getDirectory());
+            }
+        }
+    }
+
+    /**
+     * Deletes the job directories of the tenant and datastore of the current request which no job refers to, such as
+     * those of the jobs which ran before the server was restarted, once they haven't been modified for the job
+     * retention period.
+     */
+    private static void deleteUnknownJobDirectories() {
+        Path tenantDirectory = getTenantDirectory();
+        if (!Files.isDirectory(tenantDirectory)) {
+            return;
+        }
+        Instant expiry = Instant.now().minus(getJobRetention());
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(tenantDirectory, Files::isDirectory)) {
+            for (Path directory : directories) {
+                // only the directories named after a job id are job directories
+                String name = directory.getFileName().toString();
+                if (isJobId(name) && !jobs.containsKey(name) && Files.getLastModifiedTime(directory).toInstant().isBefore(expiry)) {
+                    log.fine("Deleting the directory of expired bulk data job '" + name + "'");
+                    delete(directory);
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Unable to list the job directories in '" + tenantDirectory + "'", e);
+        }
+    }
+
+    private static boolean isJobId(String name) {
+        try {
+            return UUID.fromString(name).toString().equals(name);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static void delete(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    // the file may still be written by a task which is finishing
+                    log.log(Level.FINE, "Unable to delete '" + path + "'", e);
+                }
+            });
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Unable to delete '" + directory + "'", e);
+        }
+    }
+}
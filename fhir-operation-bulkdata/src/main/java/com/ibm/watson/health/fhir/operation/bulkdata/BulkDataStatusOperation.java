@@ -0,0 +1,150 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.operation.bulkdata;
+
+import static com.ibm.watson.health.fhir.model.type.String.string;
+
+import java.io.InputStream;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import javax.ws.rs.core.Response;
+
+import com.ibm.watson.health.fhir.exception.FHIROperationException;
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.parser.FHIRParser;
+import com.ibm.watson.health.fhir.model.resource.OperationDefinition;
+import com.ibm.watson.health.fhir.model.resource.OperationOutcome;
+import com.ibm.watson.health.fhir.model.resource.Parameters;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.type.Code;
+import com.ibm.watson.health.fhir.model.type.Instant;
+import com.ibm.watson.health.fhir.model.type.IssueSeverity;
+import com.ibm.watson.health.fhir.model.type.IssueType;
+import com.ibm.watson.health.fhir.model.type.Uri;
+import com.ibm.watson.health.fhir.model.util.FHIRUtil;
+import com.ibm.watson.health.fhir.operation.AbstractOperation;
+import com.ibm.watson.health.fhir.operation.context.FHIROperationContext;
+import com.ibm.watson.health.fhir.operation.util.FHIROperationUtil;
+import com.ibm.watson.health.fhir.rest.FHIRResourceHelpers;
+
+/**
+ * Reports the status of a bulk data job ([base]/$bulkdata-status?job=[id]), or cancels it
+ * ([base]/$bulkdata-status?job=[id]&amp;cancel=true).
+ *
+ * <p>While the job is running, the response has the status 202 Accepted and an OperationOutcome which describes its
+ * progress. Once the job is complete, the response lists the files the job wrote or imported.
+ */
+public class BulkDataStatusOperation extends AbstractOperation {
+    public BulkDataStatusOperation() {
+        super();
+    }
+
+    @Override
+    protected OperationDefinition buildOperationDefinition() {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("bulkdata-status.json")) {
+            return FHIRParser.parser(Format.JSON).parse(in);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    @Override
+    protected Parameters doInvoke(FHIROperationContext operationContext, Class<? extends Resource> resourceType, String logicalId, String versionId, Parameters parameters,
+        FHIRResourceHelpers resourceHelper) throws FHIROperationException {
+        try {
+            String jobId = ((com.ibm.watson.health.fhir.model.type.String) getParameter(parameters, "job").getValue()).getValue();
+            Parameters.Parameter cancel = getParameter(parameters, "cancel");
+
+            BulkDataJob job;
+            if (cancel != null && Boolean.TRUE.equals(((com.ibm.watson.health.fhir.model.type.Boolean) cancel.getValue()).getValue())) {
+                job = BulkDataJobManager.cancel(jobId);
+                checkJob(job, jobId);
+                operationContext.setProperty(FHIROperationContext.PROPNAME_HTTP_STATUS, Response.Status.ACCEPTED);
+                return getOutputParameters("Cancelled job '" + jobId + "'");
+            }
+
+            job = BulkDataJobManager.getJob(jobId);
+            checkJob(job, jobId);
+            switch (job.getStatus()) {
+            case COMPLETED:
+                return getResult(job);
+            case FAILED:
+                throw buildExceptionWithIssue("Job '" + jobId + "' failed: " + job.getFailureMessage(), IssueType.ValueSet.EXCEPTION);
+            default:
+                operationContext.setProperty(FHIROperationContext.PROPNAME_HTTP_STATUS, Response.Status.ACCEPTED);
+                return getOutputParameters("Job '" + jobId + "' is " + job.getProgress());
+            }
+        } catch (FHIROperationException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new FHIROperationException("Unexpected error occurred while processing request for operation '" +
+                    getName() + "': " + getCausedByMessage(t), t);
+        }
+    }
+
+    private void checkJob(BulkDataJob job, String jobId) throws FHIROperationException {
+        if (job == null) {
+            throw buildExceptionWithIssue("Job '" + jobId + "' not found", IssueType.ValueSet.NOT_FOUND);
+        }
+    }
+
+    private Parameters getOutputParameters(String message) throws Exception {
+        OperationOutcome operationOutcome = FHIRUtil.buildOperationOutcome(message, IssueType.ValueSet.INFORMATIONAL, IssueSeverity.ValueSet.INFORMATION);
+        return FHIROperationUtil.getOutputParameters(operationOutcome);
+    }
+
+    /**
+     * Builds the result of a completed job, which lists the files the job wrote or imported.
+     */
+    private Parameters getResult(BulkDataJob job) {
+        Parameters.Builder parametersBuilder = Parameters.builder();
+        parametersBuilder.parameter(Parameters.Parameter.builder()
+            .name(string("transactionTime"))
+            .value(Instant.of(ZonedDateTime.ofInstant(job.getTransactionTime(), ZoneOffset.UTC)))
+            .build());
+        if (job.getRequest() != null) {
+            parametersBuilder.parameter(Parameters.Parameter.builder()
+                .name(string("request"))
+                .value(Uri.of(job.getRequest()))
+                .build());
+        }
+        parametersBuilder.parameter(Parameters.Parameter.builder()
+            .name(string("requiresAccessToken"))
+            .value(com.ibm.watson.health.fhir.model.type.Boolean.of(false))
+            .build());
+        for (BulkDataJob.Output output : job.getOutputs()) {
+            parametersBuilder.parameter(getOutputParameter("output", output));
+        }
+        for (BulkDataJob.Output error : job.getErrors()) {
+            parametersBuilder.parameter(getOutputParameter("error", error));
+        }
+        return parametersBuilder.build();
+    }
+
+    private Parameters.Parameter getOutputParameter(String name, BulkDataJob.Output output) {
+        return Parameters.Parameter.builder()
+            .name(string(name))
+            .part(Parameters.Parameter.builder()
+                .name(string("type"))
+                .value(Code.of(output.getType()))
+                .build())
+            .part(Parameters.Parameter.builder()
+                .name(string("url"))
+                .value(Uri.of(output.getUrl()))
+                .build())
+            .part(Parameters.Parameter.builder()
+                .name(string("count"))
+                .value(com.ibm.watson.health.fhir.model.type.Integer.of(Math.toIntExact(output.getCount())))
+                .build())
+            .build();
+    }
+
+    private String getCausedByMessage(Throwable throwable) {
+        return throwable.getClass().getName() + ": " + throwable.getMessage();
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.operation.bulkdata;
+
+import java.io.InputStream;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.ibm.watson.health.fhir.config.FHIRConfigHelper;
+import com.ibm.watson.health.fhir.config.FHIRConfiguration;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.util.ModelSupport;
+import com.ibm.watson.health.fhir.persistence.ExportPartition;
+import com.ibm.watson.health.fhir.persistence.FHIRPersistence;
+import com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContext;
+import com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContextFactory;
+import com.ibm.watson.health.fhir.persistence.helper.PersistenceHelper;
+import com.ibm.watson.health.fhir.persistence.interceptor.FHIRPersistenceEvent;
+import com.ibm.watson.health.fhir.search.compartment.CompartmentUtil;
+import com.ibm.watson.health.fhir.search.context.FHIRSearchContext;
+import com.ibm.watson.health.fhir.search.util.SearchUtil;
+
+/**
+ * A $export job, which writes the current versions of the requested resources to one or more NDJSON files per
+ * resource type.
+ *
+ * <p>A system level export of a resource type is split into partitions of the stored resources (see
+ * {@link FHIRPersistence#getExportPartitions}) which are exported in parallel, and the stored JSON of each resource
+ * is written out as it is, without being parsed. Patient and group level exports search the Patient compartment of
+ * the patients for each resource type instead.
+ */
+public class ExportJob extends BulkDataJob {
+    private static final Logger log = Logger.getLogger(ExportJob.class.getName());
+
+    public static enum Level { SYSTEM, PATIENT, GROUP }
+
+    private static final String PATIENT = "Patient";
+    private static final int DEFAULT_FETCH_SIZE = 1000;
+    private static final int DEFAULT_PARTITION_SIZE = 100000;
+
+    // The number of patients whose compartment is searched at a time
+    private static final int PATIENT_BATCH_SIZE = 100;
+
+    private final Level level;
+    private final List<String> types;
+    private final Instant since;
+    private final int fetchSize;
+    private final int partitionSize;
+    private List<String> patientIds;
+
+    /**
+     * @param level the level of the export
+     * @param types the resource types to export
+     * @param since if not null, only the resources last updated at or after this time are exported
+     * @param patientIds the logical ids of the patients to export for a group level export
+     */
+    public ExportJob(String request, Path outputDirectory, PersistenceHelper persistenceHelper, ExecutorService executor, int parallelism,
+        Level level, List<String> types, Instant since, List<String> patientIds) {
+        super(request, outputDirectory, persistenceHelper, executor, parallelism);
+        this.level = level;
+        this.types = types;
+        this.since = since;
+        this.patientIds = patientIds;
+        this.fetchSize = FHIRConfigHelper.getIntProperty(FHIRConfiguration.PROPERTY_BULKDATA_FETCH_SIZE, DEFAULT_FETCH_SIZE);
+        this.partitionSize = FHIRConfigHelper.getIntProperty(FHIRConfiguration.PROPERTY_BULKDATA_PARTITION_SIZE, DEFAULT_PARTITION_SIZE);
+    }
+
+    /**
+     * @return the names of the resource types which can be exported, i.e. all the concrete resource types
+     */
+    public static List<String> getExportableTypes() {
+        return ModelSupport.getResourceTypes().stream()
+                .filter(type -> !Modifier.isAbstract(type.getModifiers()))
+                .map(Class::getSimpleName)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the names of the resource types in the Patient compartment, including Patient itself
+     */
+    public static List<String> getPatientCompartmentTypes() throws Exception {
+        Set<String> types = new HashSet<>(CompartmentUtil.getCompartmentResourceTypes(PATIENT));
+        types.add(PATIENT);
+        return types.stream().sorted().collect(Collectors.toList());
+    }
+
+    @Override
+    protected void doRun(FHIRPersistence persistence) throws Exception {
+        List<Task> tasks = new ArrayList<>();
+        if (level == Level.PATIENT && types.stream().anyMatch(type -> !PATIENT.equals(type))) {
+            patientIds = readPatientIds(persistence);
+        }
+        for (String type : types) {
+            if (level == Level.SYSTEM || (level == Level.PATIENT && PATIENT.equals(type))) {
+                addTypeTasks(persistence, type, tasks);
+            } else if (PATIENT.equals(type)) {
+                tasks.add(p -> exportPatients(p));
+            } else {
+                tasks.add(p -> exportCompartments(p, type));
+            }
+        }
+        runTasks(tasks, persistence);
+    }
+
+    /**
+     * Adds the tasks which export all the resources of the type.
+     */
+    private void addTypeTasks(FHIRPersistence persistence, String type, List<Task> tasks) throws Exception {
+        Class<? extends Resource> resourceType = getResourceType(type);
+        if (!persistence.isExportSupported()) {
+            tasks.add(p -> {
+                try (NdjsonWriter writer = new NdjsonWriter(getDirectory().resolve(type + ".ndjson.gz"))) {
+                    write(writer, search(p, resourceType, Collections.emptyMap(), true), null);
+                    addOutput(writer, type);
+                }
+            });
+            return;
+        }
+        int n = 0;
+        for (ExportPartition partition : persistence.getExportPartitions(resourceType, partitionSize)) {
+            String name = type + "-" + (++n);
+            tasks.add(p -> {
+                try (NdjsonWriter writer = new NdjsonWriter(getDirectory().resolve(name + ".ndjson.gz"));
+                        Stream<InputStream> stream = p.exportStream(partition, since, fetchSize)) {
+                    Iterator<InputStream> iterator = stream.iterator();
+                    while (iterator.hasNext() && !isCancelled()) {
+                        try (InputStream json = iterator.next()) {
+                            writer.write(json);
+                        }
+                    }
+                    addOutput(writer, type);
+                }
+            });
+        }
+    }
+
+    /**
+     * Exports the patients of a group.
+     */
+    private void exportPatients(FHIRPersistence persistence) throws Exception {
+        try (NdjsonWriter writer = new NdjsonWriter(getDirectory().resolve(PATIENT + ".ndjson.gz"))) {
+            for (int i = 0; i < patientIds.size() && !isCancelled(); i += PATIENT_BATCH_SIZE) {
+                String ids = String.join(",", patientIds.subList(i, Math.min(i + PATIENT_BATCH_SIZE, patientIds.size())));
+                write(writer, search(persistence, getResourceType(PATIENT), Collections.singletonMap("_id", ids), true), null);
+            }
+            addOutput(writer, PATIENT);
+        }
+    }
+
+    /**
+     * Exports the resources of the type in the Patient compartments of the patients. A resource may be in the
+     * compartment of several patients, or in one compartment for several reasons, so the resources written are
+     * remembered and each one is written once.
+     */
+    private void exportCompartments(FHIRPersistence persistence, String type) throws Exception {
+        Class<? extends Resource> resourceType = getResourceType(type);
+        List<String> criteria = CompartmentUtil.getCompartmentResourceTypeInclusionCriteria(PATIENT, type);
+        Set<String> written = new HashSet<>();
+
+        try (NdjsonWriter writer = new NdjsonWriter(getDirectory().resolve(type + ".ndjson.gz"))) {
+            for (int i = 0; i < patientIds.size() && !isCancelled(); i += PATIENT_BATCH_SIZE) {
+                String references = patientIds.subList(i, Math.min(i + PATIENT_BATCH_SIZE, patientIds.size())).stream()
+                        .map(id -> PATIENT + "/" + id)
+                        .collect(Collectors.joining(","));
+                for (String criterion : criteria) {
+                    Stream<Resource> stream;
+                    try {
+                        stream = search(persistence, resourceType, Collections.singletonMap(criterion, references), true);
+                    } catch (Exception e) {
+                        // not every inclusion criterion of the compartment definition is a supported search parameter
+                        log.fine("Skipping the inclusion criterion '" + criterion + "' of " + type + ": " + e.getMessage());
+                        continue;
+                    }
+                    write(writer, stream, written);
+                }
+            }
+            addOutput(writer, type);
+        }
+    }
+
+    /**
+     * Writes the resources of the stream and closes it.
+     * @param written if not null, the logical ids of the resources already written, which are skipped
+     */
+    private void write(NdjsonWriter writer, Stream<Resource> stream, Set<String> written) throws Exception {
+        try (Stream<Resource> resources = stream) {
+            Iterator<Resource> iterator = resources.iterator();
+            while (iterator.hasNext() && !isCancelled()) {
+                Resource resource = iterator.next();
+                if (written == null || written.add(resource.getId().getValue())) {
+                    writer.write(resource);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the logical ids of all the patients. _since only applies to the resources which are exported, so the
+     * compartments of the patients which weren't updated since then are exported too.
+     */
+    private List<String> readPatientIds(FHIRPersistence persistence) throws Exception {
+        try (Stream<Resource> patients = search(persistence, getResourceType(PATIENT), Collections.singletonMap("_elements", "id"), false)) {
+            return patients.map(patient -> patient.getId().getValue()).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Streams all the resources of the type which match the search parameters, in a single page.
+     * @param applySince true to only stream the resources last updated at or after _since, if it was specified
+     */
+    private Stream<Resource> search(FHIRPersistence persistence, Class<? extends Resource> resourceType, Map<String, String> parameters,
+        boolean applySince) throws Exception {
+        Map<String, List<String>> queryParameters = new HashMap<>();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            queryParameters.put(parameter.getKey(), Collections.singletonList(parameter.getValue()));
+        }
+        if (applySince && since != null) {
+            queryParameters.put("_lastUpdated", Collections.singletonList("ge" + since));
+        }
+        FHIRSearchContext searchContext = SearchUtil.parseQueryParameters(resourceType, queryParameters, "", false);
+        searchContext.setPageSize(Integer.MAX_VALUE);
+        FHIRPersistenceContext context = FHIRPersistenceContextFactory.createPersistenceContext(new FHIRPersistenceEvent(), searchContext);
+        return persistence.searchStream(context, resourceType);
+    }
+
+    private void addOutput(NdjsonWriter writer, String type) {
+        // the writer creates no file if nothing was written
+        if (writer.getCount() > 0) {
+            addOutput(new Output(type, writer.getFile().toUri().toString(), writer.getCount()));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Resource> getResourceType(String type) {
+        return (Class<? extends Resource>) ModelSupport.getResourceType(type);
+    }
+}
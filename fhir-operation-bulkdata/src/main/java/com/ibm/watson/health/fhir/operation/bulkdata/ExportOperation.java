@@ -0,0 +1,156 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.operation.bulkdata;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+import com.ibm.watson.health.fhir.exception.FHIROperationException;
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.parser.FHIRParser;
+import com.ibm.watson.health.fhir.model.resource.Group;
+import com.ibm.watson.health.fhir.model.resource.OperationDefinition;
+import com.ibm.watson.health.fhir.model.resource.OperationOutcome;
+import com.ibm.watson.health.fhir.model.resource.Parameters;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.type.IssueSeverity;
+import com.ibm.watson.health.fhir.model.type.IssueType;
+import com.ibm.watson.health.fhir.model.util.FHIRUtil;
+import com.ibm.watson.health.fhir.operation.AbstractOperation;
+import com.ibm.watson.health.fhir.operation.context.FHIROperationContext;
+import com.ibm.watson.health.fhir.operation.util.FHIROperationUtil;
+import com.ibm.watson.health.fhir.persistence.helper.PersistenceHelper;
+import com.ibm.watson.health.fhir.rest.FHIRResourceHelpers;
+
+/**
+ * Starts an asynchronous $export job at the system level ([base]/$export), for all patients ([base]/Patient/$export),
+ * or for the patients of a group ([base]/Group/[id]/$export). The response has the status 202 Accepted and points to
+ * the $bulkdata-status request which reports the progress and the result of the job.
+ */
+public class ExportOperation extends AbstractOperation {
+    private static final List<String> OUTPUT_FORMATS = Arrays.asList("application/fhir+ndjson", "application/ndjson", "ndjson");
+
+    public ExportOperation() {
+        super();
+    }
+
+    @Override
+    protected OperationDefinition buildOperationDefinition() {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("export.json")) {
+            return FHIRParser.parser(Format.JSON).parse(in);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    @Override
+    protected Parameters doInvoke(FHIROperationContext operationContext, Class<? extends Resource> resourceType, String logicalId, String versionId, Parameters parameters,
+        FHIRResourceHelpers resourceHelper) throws FHIROperationException {
+        try {
+            ExportJob.Level level;
+            List<String> patientIds = null;
+            switch (operationContext.getType()) {
+            case RESOURCE_TYPE:
+                if (!"Patient".equals(resourceType.getSimpleName())) {
+                    throw buildExceptionWithIssue("The '" + getName() + "' operation is not allowed for resource type '"
+                            + resourceType.getSimpleName() + "' without a resource id", IssueType.ValueSet.INVALID);
+                }
+                level = ExportJob.Level.PATIENT;
+                break;
+            case INSTANCE:
+                if (!"Group".equals(resourceType.getSimpleName())) {
+                    throw buildExceptionWithIssue("The '" + getName() + "' operation is not allowed for a resource of type '"
+                            + resourceType.getSimpleName() + "'", IssueType.ValueSet.INVALID);
+                }
+                level = ExportJob.Level.GROUP;
+                patientIds = getPatientIds((Group) resourceHelper.doRead("Group", logicalId, true, false, null, null));
+                break;
+            default:
+                level = ExportJob.Level.SYSTEM;
+                break;
+            }
+
+            Parameters.Parameter outputFormat = getParameter(parameters, "_outputFormat");
+            if (outputFormat != null && !OUTPUT_FORMATS.contains(getStringValue(outputFormat))) {
+                throw buildExceptionWithIssue("Invalid value for parameter '_outputFormat': '" + getStringValue(outputFormat)
+                        + "'; only application/fhir+ndjson is supported", IssueType.ValueSet.INVALID);
+            }
+
+            Instant since = null;
+            Parameters.Parameter sinceParameter = getParameter(parameters, "_since");
+            if (sinceParameter != null) {
+                since = ((com.ibm.watson.health.fhir.model.type.Instant) sinceParameter.getValue()).getValue().toInstant();
+            }
+
+            List<String> allowedTypes = level == ExportJob.Level.SYSTEM ? ExportJob.getExportableTypes() : ExportJob.getPatientCompartmentTypes();
+            List<String> types = allowedTypes;
+            Parameters.Parameter typeParameter = getParameter(parameters, "_type");
+            if (typeParameter != null) {
+                types = new ArrayList<>();
+                for (String type : getStringValue(typeParameter).split(",")) {
+                    type = type.trim();
+                    if (!allowedTypes.contains(type)) {
+                        throw buildExceptionWithIssue("Invalid resource type in parameter '_type': '" + type + "'", IssueType.ValueSet.INVALID);
+                    }
+                    if (!types.contains(type)) {
+                        types.add(type);
+                    }
+                }
+            }
+
+            UriInfo uriInfo = (UriInfo) operationContext.getProperty(FHIROperationContext.PROPNAME_URI_INFO);
+            String request = uriInfo != null ? uriInfo.getRequestUri().toString() : null;
+            PersistenceHelper persistenceHelper = (PersistenceHelper) operationContext.getProperty(FHIROperationContext.PROPNAME_PERSISTENCE_HELPER);
+
+            ExecutorService executor = BulkDataJobManager.getExecutor();
+            ExportJob job = new ExportJob(request, BulkDataJobManager.getTenantDirectory(), persistenceHelper, executor,
+                BulkDataJobManager.getParallelism(), level, types, since, patientIds);
+            BulkDataJobManager.submit(job, executor);
+
+            operationContext.setProperty(FHIROperationContext.PROPNAME_HTTP_STATUS, Response.Status.ACCEPTED);
+            operationContext.setProperty(FHIROperationContext.PROPNAME_LOCATION_URI, new URI("$bulkdata-status?job=" + job.getId()));
+            OperationOutcome operationOutcome = FHIRUtil.buildOperationOutcome("Started export job '" + job.getId() + "'",
+                IssueType.ValueSet.INFORMATIONAL, IssueSeverity.ValueSet.INFORMATION);
+            return FHIROperationUtil.getOutputParameters(operationOutcome);
+        } catch (FHIROperationException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new FHIROperationException("Unexpected error occurred while processing request for operation '" +
+                    getName() + "': " + getCausedByMessage(t), t);
+        }
+    }
+
+    /**
+     * @return the logical ids of the patients which are active members of the group
+     */
+    private List<String> getPatientIds(Group group) {
+        return group.getMember().stream()
+                .filter(member -> member.getInactive() == null || !Boolean.TRUE.equals(member.getInactive().getValue()))
+                .map(member -> member.getEntity().getReference())
+                .filter(reference -> reference != null && reference.getValue() != null && reference.getValue().startsWith("Patient/"))
+                .map(reference -> reference.getValue().substring("Patient/".length()))
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    private String getStringValue(Parameters.Parameter parameter) {
+        return ((com.ibm.watson.health.fhir.model.type.String) parameter.getValue()).getValue();
+    }
+
+    private String getCausedByMessage(Throwable throwable) {
+        return throwable.getClass().getName() + ": " + throwable.getMessage();
+    }
+}
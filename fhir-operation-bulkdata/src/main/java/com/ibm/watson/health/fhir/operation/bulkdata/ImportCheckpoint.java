@@ -0,0 +1,224 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.operation.bulkdata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * The progress of an $import job, which is saved in the job's directory each time a batch of lines is committed so
+ * that a job which failed or was stopped by a restart of the server can be resumed.
+ *
+ * <p>The lines of each input file are split into batches of {@code batchSize} lines, which are committed in any
+ * order by the workers of the job. The checkpoint records which batches were committed, so a resumed job skips exactly
+ * those batches. The checkpoint also records the tenant and datastore of the job, which a resumed job must belong to.
+ */
+public class ImportCheckpoint {
+    private static final String FILE_NAME = "checkpoint.properties";
+
+    /**
+     * An input file of an $import job and its progress.
+     */
+    public static class Input {
+        private final String type;
+        private final String url;
+        // batches [0, committed) are committed, as are the batches in 'extra'
+        private long committed;
+        private final TreeSet<Long> extra = new TreeSet<>();
+        private long imported;
+
+        public Input(String type, String url) {
+            this.type = type;
+            this.url = url;
+        }
+
+        /**
+         * @return the resource type of the resources in the file
+         */
+        public String getType() {
+            return type;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return the number of resources of the file which were imported
+         */
+        public long getImported() {
+            return imported;
+        }
+    }
+
+    private final Path file;
+    private final String tenantId;
+    private final String dataStoreId;
+    private final int batchSize;
+    private final List<Input> inputs;
+    // the number of lines with errors, by attempt (i.e. by error file)
+    private final List<Long> errors;
+
+    private ImportCheckpoint(Path directory, String tenantId, String dataStoreId, int batchSize, List<Input> inputs, List<Long> errors) {
+        this.file = directory.resolve(FILE_NAME);
+        this.tenantId = tenantId;
+        this.dataStoreId = dataStoreId;
+        this.batchSize = batchSize;
+        this.inputs = inputs;
+        this.errors = errors;
+    }
+
+    /**
+     * Creates the checkpoint of a new job.
+     * @param tenantId the tenant of the job
+     * @param dataStoreId the datastore of the job
+     */
+    public static ImportCheckpoint create(Path directory, String tenantId, String dataStoreId, int batchSize, List<Input> inputs) {
+        return new ImportCheckpoint(directory, tenantId, dataStoreId, batchSize, inputs, new ArrayList<>());
+    }
+
+    /**
+     * Reads the checkpoint of an earlier job.
+     * @return the checkpoint, or null if the directory holds no checkpoint
+     */
+    public static ImportCheckpoint read(Path directory) throws IOException {
+        Path file = directory.resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+
+        List<Input> inputs = new ArrayList<>();
+        int inputCount = Integer.parseInt(properties.getProperty("inputs"));
+        for (int i = 0; i < inputCount; i++) {
+            String prefix = "input." + i + ".";
+            Input input = new Input(properties.getProperty(prefix + "type"), properties.getProperty(prefix + "url"));
+            input.committed = Long.parseLong(properties.getProperty(prefix + "committed"));
+            input.imported = Long.parseLong(properties.getProperty(prefix + "imported"));
+            String extra = properties.getProperty(prefix + "extra");
+            if (!extra.isEmpty()) {
+                Arrays.stream(extra.split(",")).map(Long::valueOf).forEach(input.extra::add);
+            }
+            inputs.add(input);
+        }
+        List<Long> errors = new ArrayList<>();
+        String errorCounts = properties.getProperty("errors");
+        if (!errorCounts.isEmpty()) {
+            Arrays.stream(errorCounts.split(",")).map(Long::valueOf).forEach(errors::add);
+        }
+        return new ImportCheckpoint(directory, properties.getProperty("tenantId"), properties.getProperty("dataStoreId"),
+            Integer.parseInt(properties.getProperty("batchSize")), inputs, errors);
+    }
+
+    /**
+     * @return the tenant of the job, or null if the checkpoint doesn't record it
+     */
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    /**
+     * @return the datastore of the job, or null if the checkpoint doesn't record it
+     */
+    public String getDataStoreId() {
+        return dataStoreId;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public List<Input> getInputs() {
+        return inputs;
+    }
+
+    /**
+     * Starts a new attempt at running the job, whose errors are written to a new error file.
+     * @return the number of the attempt, starting with 1
+     */
+    public synchronized int startAttempt() throws IOException {
+        errors.add(0L);
+        save();
+        return errors.size();
+    }
+
+    /**
+     * @return the number of lines with errors of each attempt
+     */
+    public synchronized List<Long> getErrors() {
+        return new ArrayList<>(errors);
+    }
+
+    /**
+     * @return true if the batch of the input file was already committed
+     */
+    public synchronized boolean isCommitted(int inputIndex, long batch) {
+        Input input = inputs.get(inputIndex);
+        return batch < input.committed || input.extra.contains(batch);
+    }
+
+    /**
+     * Records that a batch of an input file was committed, and saves the checkpoint.
+     * @param imported the number of resources of the batch which were imported
+     * @param errorCount the number of lines of the batch with errors
+     */
+    public synchronized void commit(int inputIndex, long batch, long imported, long errorCount) throws IOException {
+        Input input = inputs.get(inputIndex);
+        input.extra.add(batch);
+        while (input.extra.remove(input.committed)) {
+            input.committed++;
+        }
+        input.imported += imported;
+        errors.set(errors.size() - 1, errors.get(errors.size() - 1) + errorCount);
+        save();
+    }
+
+    /**
+     * @return the number of resources imported by all of the attempts
+     */
+    public synchronized long getImported() {
+        return inputs.stream().mapToLong(Input::getImported).sum();
+    }
+
+    private void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("tenantId", tenantId);
+        properties.setProperty("dataStoreId", dataStoreId);
+        properties.setProperty("batchSize", Integer.toString(batchSize));
+        properties.setProperty("inputs", Integer.toString(inputs.size()));
+        for (int i = 0; i < inputs.size(); i++) {
+            Input input = inputs.get(i);
+            String prefix = "input." + i + ".";
+            properties.setProperty(prefix + "type", input.type);
+            properties.setProperty(prefix + "url", input.url);
+            properties.setProperty(prefix + "committed", Long.toString(input.committed));
+            properties.setProperty(prefix + "extra", input.extra.stream().map(String::valueOf).collect(Collectors.joining(",")));
+            properties.setProperty(prefix + "imported", Long.toString(input.imported));
+        }
+        properties.setProperty("errors", errors.stream().map(String::valueOf).collect(Collectors.joining(",")));
+
+        // replace the previous checkpoint in one step, so that a crash leaves either the old or the new one
+        Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, null);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
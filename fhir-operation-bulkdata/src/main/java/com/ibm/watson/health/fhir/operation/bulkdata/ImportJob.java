@@ -0,0 +1,401 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.operation.bulkdata;
+
+import static com.ibm.watson.health.fhir.model.type.String.string;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.parser.FHIRParser;
+import com.ibm.watson.health.fhir.model.parser.exception.FHIRParserException;
+import com.ibm.watson.health.fhir.model.resource.OperationOutcome;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.type.CodeableConcept;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.model.type.IssueSeverity;
+import com.ibm.watson.health.fhir.model.type.IssueType;
+import com.ibm.watson.health.fhir.model.util.FHIRUtil;
+import com.ibm.watson.health.fhir.model.validation.FHIRValidator;
+import com.ibm.watson.health.fhir.persistence.FHIRPersistence;
+import com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContext;
+import com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContextFactory;
+import com.ibm.watson.health.fhir.persistence.helper.FHIRTransactionHelper;
+import com.ibm.watson.health.fhir.persistence.helper.PersistenceHelper;
+import com.ibm.watson.health.fhir.persistence.interceptor.FHIRPersistenceEvent;
+
+/**
+ * An $import job, which stores the resources of NDJSON files.
+ *
+ * <p>The files are read line by line and split into batches of lines. The workers of the job parse and validate the
+ * lines of a batch, and store its resources with a single call to {@link FHIRPersistence#createAll} in a transaction
+ * of its own. If the batch can't be stored as a whole, e.g. because some of its resources already exist, its resources
+ * are stored one at a time instead, as an update of the existing resource if there is one. Each batch which is
+ * committed is recorded in an {@link ImportCheckpoint}, so that the job can be resumed.
+ *
+ * <p>A line which can't be parsed, validated or stored is reported by an OperationOutcome in the error file of the job.
+ */
+public class ImportJob extends BulkDataJob {
+    private static final Logger log = Logger.getLogger(ImportJob.class.getName());
+
+    // So that an unresponsive server of an input file fails the job instead of blocking its workers forever
+    private static final int CONNECT_TIMEOUT = 30 * 1000;
+    private static final int READ_TIMEOUT = 5 * 60 * 1000;
+
+    private final ImportCheckpoint checkpoint;
+    private NdjsonWriter errorWriter;
+
+    /**
+     * @param checkpoint the checkpoint of the job, which is either new or the checkpoint of the job which is resumed
+     */
+    public ImportJob(String id, String request, Path outputDirectory, PersistenceHelper persistenceHelper, ExecutorService executor, int parallelism,
+        ImportCheckpoint checkpoint) {
+        super(id, request, outputDirectory, persistenceHelper, executor, parallelism);
+        this.checkpoint = checkpoint;
+    }
+
+    @Override
+    protected void doRun(FHIRPersistence persistence) throws Exception {
+        int attempt = checkpoint.startAttempt();
+        try (NdjsonWriter errorWriter = new NdjsonWriter(getErrorFile(attempt));
+                BatchIterator batches = new BatchIterator()) {
+            this.errorWriter = errorWriter;
+            runTasks(batches, persistence);
+        }
+
+        List<ImportCheckpoint.Input> inputs = checkpoint.getInputs();
+        for (ImportCheckpoint.Input input : inputs) {
+            addOutput(new Output(input.getType(), input.getUrl(), input.getImported()));
+        }
+        List<Long> errors = checkpoint.getErrors();
+        for (int i = 0; i < errors.size(); i++) {
+            if (errors.get(i) > 0) {
+                addError(new Output("OperationOutcome", getErrorFile(i + 1).toUri().toString(), errors.get(i)));
+            }
+        }
+    }
+
+    @Override
+    public String getProgress() {
+        if (getStatus() == Status.RUNNING) {
+            long errors = checkpoint.getErrors().stream().mapToLong(Long::longValue).sum();
+            return checkpoint.getImported() + " resources imported, " + errors + " lines with errors";
+        }
+        return super.getProgress();
+    }
+
+    private Path getErrorFile(int attempt) {
+        return getDirectory().resolve("OperationOutcome-" + attempt + ".ndjson.gz");
+    }
+
+    /**
+     * Reads the input files one after the other and produces a task for each batch of lines which was not committed
+     * yet. The lines are read only when the workers ask for the next task, so that no more than a batch per worker is
+     * held in memory.
+     */
+    private class BatchIterator implements Iterator<Task>, Closeable {
+        private final int batchSize = checkpoint.getBatchSize();
+        private int inputIndex = -1;
+        private BufferedReader reader;
+        private long batch;
+        private Task next;
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    if (reader == null && !openNextInput()) {
+                        return false;
+                    }
+                    List<String> lines = new ArrayList<>(batchSize);
+                    for (String line = null; lines.size() < batchSize && (line = reader.readLine()) != null; ) {
+                        lines.add(line);
+                    }
+                    if (lines.isEmpty()) {
+                        reader.close();
+                        reader = null;
+                        continue;
+                    }
+                    if (!checkpoint.isCommitted(inputIndex, batch)) {
+                        next = new BatchTask(inputIndex, batch, lines);
+                    }
+                    batch++;
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to read '" + checkpoint.getInputs().get(inputIndex).getUrl() + "'", e);
+            }
+        }
+
+        @Override
+        public Task next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Task task = next;
+            next = null;
+            return task;
+        }
+
+        private boolean openNextInput() throws IOException {
+            if (++inputIndex >= checkpoint.getInputs().size()) {
+                return false;
+            }
+            String url = checkpoint.getInputs().get(inputIndex).getUrl();
+            URLConnection connection = new URL(url).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            if (connection instanceof HttpURLConnection) {
+                // the host is checked again, as its address may have changed since the job was started, and
+                // redirects aren't followed, as they could lead anywhere
+                if (isInternalHost(connection.getURL().getHost())) {
+                    throw new IOException("Refusing to read '" + url + "', whose host has an internal address");
+                }
+                HttpURLConnection httpConnection = (HttpURLConnection) connection;
+                httpConnection.setInstanceFollowRedirects(false);
+                if (httpConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("Unable to read '" + url + "': HTTP status " + httpConnection.getResponseCode());
+                }
+            }
+            InputStream in = connection.getInputStream();
+            if (url.endsWith(".gz")) {
+                in = new GZIPInputStream(in, 64 * 1024);
+            }
+            reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+            batch = 0;
+            return true;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+
+    /**
+     * Imports a batch of lines of an input file.
+     */
+    private class BatchTask implements Task {
+        private final int inputIndex;
+        private final long batch;
+        private final List<String> lines;
+        private final List<OperationOutcome> errors = new ArrayList<>();
+
+        BatchTask(int inputIndex, long batch, List<String> lines) {
+            this.inputIndex = inputIndex;
+            this.batch = batch;
+            this.lines = lines;
+        }
+
+        @Override
+        public void run(FHIRPersistence persistence) throws Exception {
+            ImportCheckpoint.Input input = checkpoint.getInputs().get(inputIndex);
+            FHIRParser parser = FHIRParser.parser(Format.JSON);
+
+            List<Resource> resources = new ArrayList<>(lines.size());
+            List<Long> lineNumbers = new ArrayList<>(lines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                long lineNumber = batch * checkpoint.getBatchSize() + i + 1;
+                if (lines.get(i).trim().isEmpty()) {
+                    continue;
+                }
+                Resource resource = prepare(persistence, parser, input, lineNumber, lines.get(i));
+                if (resource != null) {
+                    resources.add(resource);
+                    lineNumbers.add(lineNumber);
+                }
+            }
+
+            long imported = resources.isEmpty() ? 0 : store(persistence, input, resources, lineNumbers);
+
+            synchronized (errorWriter) {
+                for (OperationOutcome error : errors) {
+                    errorWriter.write(error);
+                }
+            }
+            checkpoint.commit(inputIndex, batch, imported, errors.size());
+        }
+
+        /**
+         * Parses and validates a line, and assigns a logical id to the resource if it has none.
+         * @return the resource, or null if the line has errors
+         */
+        private Resource prepare(FHIRPersistence persistence, FHIRParser parser, ImportCheckpoint.Input input, long lineNumber, String line) {
+            Resource resource;
+            try {
+                resource = parser.parse(new StringReader(line));
+            } catch (Exception e) {
+                // the message of the parser may quote the line, so only the path of the element is reported
+                log.log(Level.FINE, "Unable to parse line " + lineNumber + " of '" + input.getUrl() + "'", e);
+                String path = e instanceof FHIRParserException ? ((FHIRParserException) e).getPath() : null;
+                addError(input, lineNumber, IssueType.ValueSet.INVALID, "Unable to parse the resource" + (path != null && !path.isEmpty() ? " at " + path : ""), null);
+                return null;
+            }
+            if (!input.getType().equals(resource.getClass().getSimpleName())) {
+                addError(input, lineNumber, IssueType.ValueSet.INVALID, "Resource type '" + resource.getClass().getSimpleName()
+                        + "' does not match the type of the input: " + input.getType(), null);
+                return null;
+            }
+            try {
+                List<OperationOutcome.Issue> issues = FHIRValidator.validator(resource).validate();
+                List<OperationOutcome.Issue> failures = new ArrayList<>();
+                for (OperationOutcome.Issue issue : issues) {
+                    if (FHIRUtil.isFailure(issue.getSeverity())) {
+                        failures.add(issue);
+                    }
+                }
+                if (!failures.isEmpty()) {
+                    addError(input, lineNumber, IssueType.ValueSet.INVALID, "The resource failed validation", failures);
+                    return null;
+                }
+            } catch (Exception e) {
+                log.log(Level.FINE, "Unable to validate line " + lineNumber + " of '" + input.getUrl() + "'", e);
+                addError(input, lineNumber, IssueType.ValueSet.EXCEPTION, "Unable to validate the resource", null);
+                return null;
+            }
+            if (resource.getId() == null || resource.getId().getValue() == null) {
+                resource = resource.toBuilder().id(Id.of(persistence.generateResourceId())).build();
+            }
+            return resource;
+        }
+
+        /**
+         * Stores the resources of the batch, as a whole if possible.
+         * @return the number of resources stored
+         */
+        private long store(FHIRPersistence persistence, ImportCheckpoint.Input input, List<Resource> resources, List<Long> lineNumbers) throws Exception {
+            List<FHIRPersistenceContext> contexts = new ArrayList<>(resources.size());
+            for (Resource resource : resources) {
+                contexts.add(createPersistenceContext(resource));
+            }
+
+            FHIRTransactionHelper txn = new FHIRTransactionHelper(persistence.getTransaction());
+            try {
+                txn.begin();
+                persistence.createAll(contexts, resources);
+                txn.commit();
+                txn = null;
+                return resources.size();
+            } catch (Exception e) {
+                log.log(Level.FINE, "Unable to store batch " + batch + " of '" + input.getUrl() + "' as a whole", e);
+            } finally {
+                if (txn != null) {
+                    txn.rollback();
+                }
+            }
+
+            long imported = 0;
+            for (int i = 0; i < resources.size(); i++) {
+                try {
+                    storeOne(persistence, resources.get(i));
+                    imported++;
+                } catch (Exception e) {
+                    addError(input, lineNumbers.get(i), IssueType.ValueSet.EXCEPTION, "Unable to store the resource: " + e.getMessage(), null);
+                }
+            }
+            return imported;
+        }
+
+        /**
+         * Stores a resource as a new resource, or as a new version of the existing resource with the same logical id.
+         */
+        private void storeOne(FHIRPersistence persistence, Resource resource) throws Exception {
+            FHIRTransactionHelper txn = new FHIRTransactionHelper(persistence.getTransaction());
+            try {
+                txn.begin();
+                String logicalId = resource.getId().getValue();
+                FHIRPersistenceContext context = createPersistenceContext(resource);
+                if (persistence.readVersionInfo(FHIRPersistenceContextFactory.createPersistenceContext(new FHIRPersistenceEvent(), true), resource.getClass(), logicalId) == null) {
+                    persistence.createAll(Collections.singletonList(context), Collections.singletonList(resource));
+                } else {
+                    persistence.update(context, logicalId, resource);
+                }
+                txn.commit();
+                txn = null;
+            } finally {
+                if (txn != null) {
+                    txn.rollback();
+                }
+            }
+        }
+
+        private FHIRPersistenceContext createPersistenceContext(Resource resource) {
+            return FHIRPersistenceContextFactory.createPersistenceContext(new FHIRPersistenceEvent(resource, new HashMap<>()));
+        }
+
+        /**
+         * Records an error for a line of the input file.
+         * @param issues further issues which describe the error, if any
+         */
+        private void addError(ImportCheckpoint.Input input, long lineNumber, IssueType.ValueSet issueType, String message,
+            List<OperationOutcome.Issue> issues) {
+            OperationOutcome.Builder builder = OperationOutcome.builder()
+                    .issue(OperationOutcome.Issue.builder()
+                        .severity(IssueSeverity.ERROR)
+                        .code(IssueType.of(issueType))
+                        .details(CodeableConcept.builder().text(string("Line " + lineNumber + " of " + input.getUrl() + ": " + message)).build())
+                        .build());
+            if (issues != null) {
+                builder.issue(issues.toArray(new OperationOutcome.Issue[issues.size()]));
+            }
+            errors.add(builder.build());
+        }
+    }
+
+    /**
+     * @return true if an address of the host is a loopback, link-local, site-local (private), unique local, wildcard
+     *         or multicast address, which an input url must not refer to
+     * @throws UnknownHostException if the host can't be resolved
+     */
+    public static boolean isInternalHost(String host) throws UnknownHostException {
+        if (host == null) {
+            throw new UnknownHostException("No host");
+        }
+        for (InetAddress address : InetAddress.getAllByName(host)) {
+            if (address.isLoopbackAddress() || address.isLinkLocalAddress() || address.isSiteLocalAddress()
+                    || address.isAnyLocalAddress() || address.isMulticastAddress()
+                    || (address instanceof Inet6Address && (address.getAddress()[0] & 0xfe) == 0xfc)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the name is the name of a resource type which can be imported
+     */
+    public static boolean isImportableType(String type) {
+        return ExportJob.getExportableTypes().contains(type);
+    }
+}
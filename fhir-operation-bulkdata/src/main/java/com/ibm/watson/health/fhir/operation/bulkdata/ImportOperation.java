@@ -0,0 +1,256 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.operation.bulkdata;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Logger;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+import com.ibm.watson.health.fhir.config.FHIRConfigHelper;
+import com.ibm.watson.health.fhir.config.FHIRConfiguration;
+import com.ibm.watson.health.fhir.config.FHIRRequestContext;
+import com.ibm.watson.health.fhir.exception.FHIROperationException;
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.parser.FHIRParser;
+import com.ibm.watson.health.fhir.model.resource.OperationDefinition;
+import com.ibm.watson.health.fhir.model.resource.OperationOutcome;
+import com.ibm.watson.health.fhir.model.resource.Parameters;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.type.Code;
+import com.ibm.watson.health.fhir.model.type.IssueSeverity;
+import com.ibm.watson.health.fhir.model.type.IssueType;
+import com.ibm.watson.health.fhir.model.type.Uri;
+import com.ibm.watson.health.fhir.model.util.FHIRUtil;
+import com.ibm.watson.health.fhir.operation.AbstractOperation;
+import com.ibm.watson.health.fhir.operation.context.FHIROperationContext;
+import com.ibm.watson.health.fhir.operation.util.FHIROperationUtil;
+import com.ibm.watson.health.fhir.persistence.helper.PersistenceHelper;
+import com.ibm.watson.health.fhir.rest.FHIRResourceHelpers;
+
+/**
+ * Starts an asynchronous $import job ([base]/$import) which stores the resources of the NDJSON files passed as
+ * 'input' parameters, or resumes the import job passed as the 'job' parameter. The response has the status
+ * 202 Accepted and points to the $bulkdata-status request which reports the progress and the result of the job.
+ */
+public class ImportOperation extends AbstractOperation {
+    private static final Logger log = Logger.getLogger(ImportOperation.class.getName());
+
+    private static final List<String> INPUT_FORMATS = Arrays.asList("application/fhir+ndjson", "application/ndjson", "ndjson");
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    public ImportOperation() {
+        super();
+    }
+
+    @Override
+    protected OperationDefinition buildOperationDefinition() {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("import.json")) {
+            return FHIRParser.parser(Format.JSON).parse(in);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    @Override
+    protected Parameters doInvoke(FHIROperationContext operationContext, Class<? extends Resource> resourceType, String logicalId, String versionId, Parameters parameters,
+        FHIRResourceHelpers resourceHelper) throws FHIROperationException {
+        try {
+            Parameters.Parameter inputFormat = getParameter(parameters, "inputFormat");
+            if (inputFormat != null && !INPUT_FORMATS.contains(getStringValue(inputFormat))) {
+                throw buildExceptionWithIssue("Invalid value for parameter 'inputFormat': '" + getStringValue(inputFormat)
+                        + "'; only application/fhir+ndjson is supported", IssueType.ValueSet.INVALID);
+            }
+
+            Path tenantDirectory = BulkDataJobManager.getTenantDirectory();
+            List<Parameters.Parameter> inputs = getParameters(parameters, "input");
+            Parameters.Parameter jobParameter = getParameter(parameters, "job");
+            String jobId;
+            ImportCheckpoint checkpoint;
+            if (jobParameter != null) {
+                if (!inputs.isEmpty()) {
+                    throw buildExceptionWithIssue("The 'input' and 'job' parameters can't be used together", IssueType.ValueSet.INVALID);
+                }
+                jobId = getStringValue(jobParameter);
+                checkpoint = readCheckpoint(tenantDirectory, jobId);
+            } else {
+                if (inputs.isEmpty()) {
+                    throw buildExceptionWithIssue("Either the 'input' or the 'job' parameter is required", IssueType.ValueSet.REQUIRED);
+                }
+                jobId = UUID.randomUUID().toString();
+                int batchSize = Math.max(1, FHIRConfigHelper.getIntProperty(FHIRConfiguration.PROPERTY_BULKDATA_IMPORT_BATCH_SIZE, DEFAULT_BATCH_SIZE));
+                FHIRRequestContext requestContext = FHIRRequestContext.get();
+                checkpoint = ImportCheckpoint.create(tenantDirectory.resolve(jobId), requestContext.getTenantId(), requestContext.getDataStoreId(),
+                    batchSize, getInputs(inputs, tenantDirectory));
+            }
+
+            UriInfo uriInfo = (UriInfo) operationContext.getProperty(FHIROperationContext.PROPNAME_URI_INFO);
+            String request = uriInfo != null ? uriInfo.getRequestUri().toString() : null;
+            PersistenceHelper persistenceHelper = (PersistenceHelper) operationContext.getProperty(FHIROperationContext.PROPNAME_PERSISTENCE_HELPER);
+
+            ExecutorService executor = BulkDataJobManager.getExecutor();
+            ImportJob job = new ImportJob(jobId, request, tenantDirectory, persistenceHelper, executor, BulkDataJobManager.getParallelism(), checkpoint);
+            BulkDataJobManager.submit(job, executor);
+
+            operationContext.setProperty(FHIROperationContext.PROPNAME_HTTP_STATUS, Response.Status.ACCEPTED);
+            operationContext.setProperty(FHIROperationContext.PROPNAME_LOCATION_URI, new URI("$bulkdata-status?job=" + job.getId()));
+            OperationOutcome operationOutcome = FHIRUtil.buildOperationOutcome((jobParameter != null ? "Resumed" : "Started") + " import job '" + job.getId() + "'",
+                IssueType.ValueSet.INFORMATIONAL, IssueSeverity.ValueSet.INFORMATION);
+            return FHIROperationUtil.getOutputParameters(operationOutcome);
+        } catch (FHIROperationException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new FHIROperationException("Unexpected error occurred while processing request for operation '" +
+                    getName() + "': " + getCausedByMessage(t), t);
+        }
+    }
+
+    /**
+     * Reads the checkpoint of the import job to resume, which must belong to the tenant and datastore of the request.
+     */
+    private ImportCheckpoint readCheckpoint(Path tenantDirectory, String jobId) throws Exception {
+        // the job id names a directory, so only accept the ids this server generates
+        boolean validJobId;
+        try {
+            validJobId = UUID.fromString(jobId).toString().equals(jobId);
+        } catch (IllegalArgumentException e) {
+            validJobId = false;
+        }
+        ImportCheckpoint checkpoint = validJobId ? ImportCheckpoint.read(tenantDirectory.resolve(jobId)) : null;
+        if (checkpoint == null || !BulkDataJobManager.isCurrentTenant(checkpoint.getTenantId(), checkpoint.getDataStoreId())) {
+            throw buildExceptionWithIssue("Import job '" + jobId + "' not found", IssueType.ValueSet.NOT_FOUND);
+        }
+        BulkDataJob job = BulkDataJobManager.getJob(jobId);
+        if (job != null && (job.getStatus() == BulkDataJob.Status.QUEUED || job.getStatus() == BulkDataJob.Status.RUNNING)) {
+            throw buildExceptionWithIssue("Import job '" + jobId + "' is still running", IssueType.ValueSet.CONFLICT);
+        }
+        return checkpoint;
+    }
+
+    private List<ImportCheckpoint.Input> getInputs(List<Parameters.Parameter> inputs, Path tenantDirectory) throws FHIROperationException {
+        List<ImportCheckpoint.Input> result = new ArrayList<>();
+        for (Parameters.Parameter input : inputs) {
+            String type = null;
+            String url = null;
+            for (Parameters.Parameter part : input.getPart()) {
+                String name = part.getName().getValue();
+                if ("type".equals(name) && part.getValue() instanceof Code) {
+                    type = ((Code) part.getValue()).getValue();
+                } else if ("url".equals(name) && part.getValue() instanceof Uri) {
+                    url = ((Uri) part.getValue()).getValue();
+                }
+            }
+            if (type == null || url == null) {
+                throw buildExceptionWithIssue("Each 'input' parameter requires a 'type' (code) and a 'url' (uri) part", IssueType.ValueSet.REQUIRED);
+            }
+            if (!ImportJob.isImportableType(type)) {
+                throw buildExceptionWithIssue("Invalid resource type in parameter 'input': '" + type + "'", IssueType.ValueSet.INVALID);
+            }
+            checkUrl(url, tenantDirectory);
+            result.add(new ImportCheckpoint.Input(type, url));
+        }
+        return result;
+    }
+
+    /**
+     * Only file urls within the bulk data directory of the tenant and datastore of the request, and the http(s) urls
+     * which match one of the configured {@link FHIRConfiguration#PROPERTY_BULKDATA_IMPORT_ALLOWED_URLS} prefixes, can
+     * be imported, so that a client can't make the server read any of its other files, the files of another tenant,
+     * or the services of its own network.
+     */
+    private void checkUrl(String url, Path tenantDirectory) throws FHIROperationException {
+        URI uri;
+        try {
+            uri = new URI(url).normalize();
+        } catch (Exception e) {
+            throw buildExceptionWithIssue("Invalid url in parameter 'input': '" + url + "'", IssueType.ValueSet.INVALID);
+        }
+        String scheme = uri.getScheme();
+        if (("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme)) && isAllowedUrl(uri)) {
+            try {
+                if (ImportJob.isInternalHost(uri.getHost())) {
+                    throw buildExceptionWithIssue("Url in parameter 'input' refers to an internal address: '" + url + "'", IssueType.ValueSet.FORBIDDEN);
+                }
+            } catch (UnknownHostException e) {
+                throw buildExceptionWithIssue("Unknown host in parameter 'input': '" + url + "'", IssueType.ValueSet.INVALID);
+            }
+            return;
+        }
+        if ("file".equalsIgnoreCase(scheme)) {
+            try {
+                Path path = Paths.get(uri).toAbsolutePath().normalize();
+                if (path.startsWith(tenantDirectory.toAbsolutePath().normalize())) {
+                    return;
+                }
+            } catch (Exception e) {
+                // reported below
+            }
+        }
+        throw buildExceptionWithIssue("Unsupported url in parameter 'input': '" + url
+                + "'; only file urls within the bulk data directory of the tenant and the configured http(s) urls are supported", IssueType.ValueSet.NOT_SUPPORTED);
+    }
+
+    /**
+     * @return true if the url has the scheme, host and port of one of the allowed url prefixes, and its path lies
+     *         under the path of that prefix; none are allowed by default
+     */
+    private boolean isAllowedUrl(URI uri) {
+        List<String> allowedUrls = FHIRConfigHelper.getStringListProperty(FHIRConfiguration.PROPERTY_BULKDATA_IMPORT_ALLOWED_URLS);
+        if (allowedUrls == null || uri.getHost() == null || uri.getRawUserInfo() != null) {
+            return false;
+        }
+        String path = uri.getPath() != null ? uri.getPath() : "";
+        for (String allowedUrl : allowedUrls) {
+            try {
+                URI allowed = new URI(allowedUrl).normalize();
+                String allowedPath = allowed.getPath() != null ? allowed.getPath() : "";
+                if (allowed.getScheme() != null && allowed.getScheme().equalsIgnoreCase(uri.getScheme())
+                        && allowed.getHost() != null && allowed.getHost().equalsIgnoreCase(uri.getHost())
+                        && getPort(allowed) == getPort(uri)
+                        && isPathPrefix(allowedPath, path)) {
+                    return true;
+                }
+            } catch (URISyntaxException e) {
+                log.warning("Ignoring invalid url in " + FHIRConfiguration.PROPERTY_BULKDATA_IMPORT_ALLOWED_URLS + ": '" + allowedUrl + "'");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the path is the prefix or lies under it, so that "/bulk" doesn't allow "/bulk-other"
+     */
+    private boolean isPathPrefix(String prefix, String path) {
+        return prefix.isEmpty() || prefix.endsWith("/") ? path.startsWith(prefix) : path.equals(prefix) || path.startsWith(prefix + "/");
+    }
+
+    private int getPort(URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    private String getStringValue(Parameters.Parameter parameter) {
+        return ((com.ibm.watson.health.fhir.model.type.String) parameter.getValue()).getValue();
+    }
+
+    private String getCausedByMessage(Throwable throwable) {
+        return throwable.getClass().getName() + ": " + throwable.getMessage();
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.operation.bulkdata;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import com.ibm.watson.health.fhir.exception.FHIRException;
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.generator.FHIRGenerator;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+
+/**
+ * Writes resources to a gzip-compressed NDJSON file, one resource per line. The file is created when the first
+ * resource is written, so a writer which is closed without writing anything leaves no file behind.
+ */
+public class NdjsonWriter implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final FHIRGenerator generator = FHIRGenerator.generator(Format.JSON, false);
+    private OutputStream out;
+    private long count;
+
+    public NdjsonWriter(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Writes the JSON representation of a resource as it was stored, without parsing it. The JSON must not be
+     * pretty-printed.
+     */
+    public void write(InputStream json) throws IOException {
+        OutputStream out = getOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int n = json.read(buffer); n >= 0; n = json.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+        out.write('\n');
+        count++;
+    }
+
+    /**
+     * Writes the JSON representation of a resource.
+     */
+    public void write(Resource resource) throws IOException, FHIRException {
+        OutputStream out = getOutputStream();
+        // the generator closes the stream it writes to
+        generator.generate(resource, new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        });
+        out.write('\n');
+        count++;
+    }
+
+    /**
+     * @return the file written to
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of resources written
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private OutputStream getOutputStream() throws IOException {
+        if (out == null) {
+            out = new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file), BUFFER_SIZE), BUFFER_SIZE);
+        }
+        return out;
+    }
+}
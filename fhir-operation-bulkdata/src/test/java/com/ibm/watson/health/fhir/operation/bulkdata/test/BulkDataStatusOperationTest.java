@@ -0,0 +1,160 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.operation.bulkdata.test;
+
+import static com.ibm.watson.health.fhir.model.type.String.string;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.config.FHIRConfiguration;
+import com.ibm.watson.health.fhir.config.FHIRRequestContext;
+import com.ibm.watson.health.fhir.exception.FHIROperationException;
+import com.ibm.watson.health.fhir.model.resource.Parameters;
+import com.ibm.watson.health.fhir.model.type.IssueType;
+import com.ibm.watson.health.fhir.operation.bulkdata.BulkDataJob;
+import com.ibm.watson.health.fhir.operation.bulkdata.BulkDataJobManager;
+import com.ibm.watson.health.fhir.operation.bulkdata.BulkDataStatusOperation;
+import com.ibm.watson.health.fhir.operation.bulkdata.ExportJob;
+import com.ibm.watson.health.fhir.operation.context.FHIROperationContext;
+
+/**
+ * Tests that a bulk data job is only visible to the tenant and datastore which started it, and that it expires once
+ * the job retention period has passed.
+ */
+public class BulkDataStatusOperationTest {
+    private Path outputDirectory;
+    private ExecutorService executor;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        FHIRConfiguration.setConfigHome("src/test/resources");
+        outputDirectory = Files.createTempDirectory("fhir-bulkdata-status");
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        try (Stream<Path> paths = Files.walk(outputDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @AfterMethod
+    public void resetRequestContext() {
+        FHIRRequestContext.remove();
+    }
+
+    @Test
+    public void testJobOfOtherTenant() throws Exception {
+        FHIRRequestContext.set(new FHIRRequestContext("tenant1", "default"));
+        InMemoryPersistence persistence = new InMemoryPersistence(true);
+        persistence.add(ExportJobTest.patient("p1"));
+        ExportJob job = new ExportJob(null, outputDirectory, persistence, executor, 1, ExportJob.Level.SYSTEM,
+            Collections.singletonList("Patient"), null, null);
+        BulkDataJobManager.submit(job, executor);
+        for (int i = 0; i < 100 && (job.getStatus() == BulkDataJob.Status.QUEUED || job.getStatus() == BulkDataJob.Status.RUNNING); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(job.getStatus(), BulkDataJob.Status.COMPLETED, job.getFailureMessage());
+        assertNotNull(getStatus(job.getId(), false));
+
+        // neither another tenant nor another datastore of the tenant can see or cancel the job
+        FHIRRequestContext.set(new FHIRRequestContext("tenant2", "default"));
+        assertNull(BulkDataJobManager.getJob(job.getId()));
+        assertNotFound(job.getId(), false);
+        assertNotFound(job.getId(), true);
+
+        FHIRRequestContext.set(new FHIRRequestContext("tenant1", "other"));
+        assertNotFound(job.getId(), false);
+        assertNotFound(job.getId(), true);
+
+        // the job is still there for its own tenant, which can cancel it
+        FHIRRequestContext.set(new FHIRRequestContext("tenant1", "default"));
+        assertNotNull(getStatus(job.getId(), false));
+        assertNotNull(getStatus(job.getId(), true));
+        assertNull(BulkDataJobManager.getJob(job.getId()));
+        assertEquals(Files.exists(job.getDirectory()), false);
+    }
+
+    @Test
+    public void testJobExpiry() throws Exception {
+        // the configuration of the tenant keeps finished jobs for 0 minutes
+        FHIRRequestContext.set(new FHIRRequestContext("retentiontest", "default"));
+        Path tenantDirectory = BulkDataJobManager.getTenantDirectory();
+        Path unknownJobDirectory = Files.createDirectories(tenantDirectory.resolve(UUID.randomUUID().toString()));
+        Path otherDirectory = Files.createDirectories(tenantDirectory.resolve("inputs"));
+        FileTime anHourAgo = FileTime.from(Instant.now().minus(1, ChronoUnit.HOURS));
+        Files.setLastModifiedTime(unknownJobDirectory, anHourAgo);
+        Files.setLastModifiedTime(otherDirectory, anHourAgo);
+        try {
+            InMemoryPersistence persistence = new InMemoryPersistence(true);
+            persistence.add(ExportJobTest.patient("p1"));
+            ExportJob job = new ExportJob(null, tenantDirectory, persistence, executor, 1, ExportJob.Level.SYSTEM,
+                Collections.singletonList("Patient"), null, null);
+            BulkDataJobManager.submit(job, executor);
+
+            // the directory of a job which isn't known any more is deleted, but no other directory
+            assertFalse(Files.exists(unknownJobDirectory));
+            assertTrue(Files.exists(otherDirectory));
+
+            for (int i = 0; i < 100 && job.getEndTime() == null; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(job.getStatus(), BulkDataJob.Status.COMPLETED, job.getFailureMessage());
+            assertNull(BulkDataJobManager.getJob(job.getId()));
+            assertFalse(Files.exists(job.getDirectory()));
+        } finally {
+            try (Stream<Path> paths = Files.walk(tenantDirectory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private void assertNotFound(String jobId, boolean cancel) throws Exception {
+        try {
+            getStatus(jobId, cancel);
+            fail("Job '" + jobId + "' found by tenant '" + FHIRRequestContext.get().getTenantId() + "'");
+        } catch (FHIROperationException e) {
+            assertEquals(e.getIssues().get(0).getCode().getValue(), IssueType.ValueSet.NOT_FOUND.value());
+        }
+    }
+
+    private Parameters getStatus(String jobId, boolean cancel) throws Exception {
+        Parameters.Builder parameters = Parameters.builder()
+                .parameter(Parameters.Parameter.builder().name(string("job")).value(string(jobId)).build());
+        if (cancel) {
+            parameters.parameter(Parameters.Parameter.builder()
+                .name(string("cancel"))
+                .value(com.ibm.watson.health.fhir.model.type.Boolean.of(true))
+                .build());
+        }
+        return new BulkDataStatusOperation().invoke(FHIROperationContext.createSystemOperationContext(), null, null, null, parameters.build(), null);
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.operation.bulkdata.test;
+
+import static com.ibm.watson.health.fhir.model.type.String.string;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.parser.FHIRParser;
+import com.ibm.watson.health.fhir.model.resource.Observation;
+import com.ibm.watson.health.fhir.model.resource.Patient;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.type.CodeableConcept;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.model.type.ObservationStatus;
+import com.ibm.watson.health.fhir.model.type.Reference;
+import com.ibm.watson.health.fhir.operation.bulkdata.BulkDataJob;
+import com.ibm.watson.health.fhir.operation.bulkdata.ExportJob;
+
+/**
+ * Tests that a system level $export job writes an NDJSON file of the current resources of each requested type, and that
+ * a patient level $export job applies _since to the exported resources only.
+ */
+public class ExportJobTest {
+    private Path outputDirectory;
+    private ExecutorService executor;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        outputDirectory = Files.createTempDirectory("fhir-bulkdata-export");
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        try (Stream<Path> paths = Files.walk(outputDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testExportPartitions() throws Exception {
+        testExport(true);
+    }
+
+    @Test
+    public void testExportSearchResults() throws Exception {
+        testExport(false);
+    }
+
+    @Test
+    public void testPatientExportSince() throws Exception {
+        InMemoryPersistence persistence = new InMemoryPersistence(false);
+        persistence.add(patient("s1"), patient("s2"), observation("so1", "s1"));
+        Thread.sleep(10);
+        java.time.Instant since = java.time.Instant.now();
+        Thread.sleep(10);
+        persistence.add(observation("so2", "s2"));
+
+        // the patients weren't updated since then, but the observation in the compartment of one of them was
+        ExportJob job = new ExportJob(null, outputDirectory, persistence, executor, 2, ExportJob.Level.PATIENT,
+            Arrays.asList("Patient", "Observation"), since, null);
+        Files.createDirectories(job.getDirectory());
+        job.run();
+        assertEquals(job.getStatus(), BulkDataJob.Status.COMPLETED, job.getFailureMessage());
+
+        assertEquals(job.getOutputs().size(), 1);
+        BulkDataJob.Output output = job.getOutputs().get(0);
+        assertEquals(output.getType(), "Observation");
+        assertEquals(readIds(output, Observation.class), Collections.singletonList("so2"));
+    }
+
+    private void testExport(boolean exportSupported) throws Exception {
+        InMemoryPersistence persistence = new InMemoryPersistence(exportSupported);
+        persistence.add(patient("p1"), patient("p2"), patient("p3"), observation("o1", "p1"), observation("o2", "p2"));
+
+        ExportJob job = new ExportJob(null, outputDirectory, persistence, executor, 2, ExportJob.Level.SYSTEM,
+            Arrays.asList("Patient", "Observation", "Encounter"), null, null);
+        Files.createDirectories(job.getDirectory());
+        job.run();
+        assertEquals(job.getStatus(), BulkDataJob.Status.COMPLETED, job.getFailureMessage());
+
+        // one file per type with resources, none for the Encounters
+        Map<String, BulkDataJob.Output> outputs = new HashMap<>();
+        for (BulkDataJob.Output output : job.getOutputs()) {
+            assertEquals(outputs.put(output.getType(), output), null, "More than one file for " + output.getType());
+        }
+        assertEquals(outputs.keySet(), new HashSet<>(Arrays.asList("Patient", "Observation")));
+        assertTrue(job.getErrors().isEmpty());
+
+        assertEquals(outputs.get("Patient").getCount(), 3);
+        assertEquals(readIds(outputs.get("Patient"), Patient.class), Arrays.asList("p1", "p2", "p3"));
+        assertEquals(outputs.get("Observation").getCount(), 2);
+        assertEquals(readIds(outputs.get("Observation"), Observation.class), Arrays.asList("o1", "o2"));
+    }
+
+    /**
+     * Reads the NDJSON file of the output, checking the type of each resource.
+     * @return the logical ids of the resources, in logical id order
+     */
+    private List<String> readIds(BulkDataJob.Output output, Class<? extends Resource> type) throws Exception {
+        Path file = Paths.get(new URI(output.getUrl()));
+        assertTrue(file.startsWith(outputDirectory), "File outside of the output directory: " + file);
+
+        List<String> ids = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                Resource resource = FHIRParser.parser(Format.JSON).parse(new StringReader(line));
+                assertTrue(type.isInstance(resource), "Unexpected resource type in " + file + ": " + line);
+                ids.add(resource.getId().getValue());
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    static Patient patient(String logicalId) {
+        return Patient.builder()
+                .id(Id.of(logicalId))
+                .active(com.ibm.watson.health.fhir.model.type.Boolean.of(true))
+                .build();
+    }
+
+    static Observation observation(String logicalId, String patientId) {
+        return Observation.builder()
+                .id(Id.of(logicalId))
+                .status(ObservationStatus.FINAL)
+                .code(CodeableConcept.builder().text(string("test")).build())
+                .subject(Reference.builder().reference(string("Patient/" + patientId)).build())
+                .build();
+    }
+}
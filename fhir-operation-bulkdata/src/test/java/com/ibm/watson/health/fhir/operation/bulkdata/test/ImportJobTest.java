@@ -0,0 +1,194 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.operation.bulkdata.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.generator.FHIRGenerator;
+import com.ibm.watson.health.fhir.model.parser.FHIRParser;
+import com.ibm.watson.health.fhir.model.resource.OperationOutcome;
+import com.ibm.watson.health.fhir.model.resource.Patient;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.type.IssueType;
+import com.ibm.watson.health.fhir.operation.bulkdata.BulkDataJob;
+import com.ibm.watson.health.fhir.operation.bulkdata.ImportCheckpoint;
+import com.ibm.watson.health.fhir.operation.bulkdata.ImportJob;
+
+/**
+ * Tests that an $import job stores the resources of its input file, reports the lines it can't import, and can be
+ * resumed from its checkpoint after a failure.
+ */
+public class ImportJobTest {
+    private Path outputDirectory;
+    private ExecutorService executor;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        outputDirectory = Files.createTempDirectory("fhir-bulkdata-import");
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        try (Stream<Path> paths = Files.walk(outputDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testFallbackAndErrorLines() throws Exception {
+        InMemoryPersistence persistence = new InMemoryPersistence(false);
+        persistence.add(ExportJobTest.patient("p1"));
+        persistence.reject("bad");
+
+        String url = writeInput("fallback.ndjson",
+            json(ExportJobTest.patient("p1")),
+            json(ExportJobTest.patient("p2")),
+            "not json",
+            json(ExportJobTest.observation("o1", "p1")),
+            json(ExportJobTest.patient("bad")),
+            json(Patient.builder().active(com.ibm.watson.health.fhir.model.type.Boolean.of(true)).build()),
+            "");
+
+        // p1 already exists, so the batch can't be created as a whole and its resources are stored one at a time
+        String jobId = UUID.randomUUID().toString();
+        ImportJob job = createJob(jobId, persistence, 2, ImportCheckpoint.create(outputDirectory.resolve(jobId), "default", "default", 10,
+            Collections.singletonList(new ImportCheckpoint.Input("Patient", url))));
+        job.run();
+        assertEquals(job.getStatus(), BulkDataJob.Status.COMPLETED, job.getFailureMessage());
+
+        assertEquals(job.getOutputs().size(), 1);
+        assertEquals(job.getOutputs().get(0).getCount(), 3);
+        assertEquals(persistence.get("Patient", "p1").getMeta().getVersionId().getValue(), "2");
+        assertNotNull(persistence.get("Patient", "p2"));
+        List<String> created = persistence.getCreated();
+        assertEquals(created.size(), 2);
+        assertTrue(created.contains("Patient/p2"));
+        assertFalse(created.contains("Patient/p1"));
+
+        assertEquals(job.getErrors().size(), 1);
+        assertEquals(job.getErrors().get(0).getType(), "OperationOutcome");
+        assertEquals(job.getErrors().get(0).getCount(), 3);
+        List<OperationOutcome> errors = readErrors(job.getErrors().get(0));
+        assertEquals(errors.size(), 3);
+        assertError(errors.get(0), 3, url, IssueType.ValueSet.INVALID, "Unable to parse the resource");
+        assertError(errors.get(1), 4, url, IssueType.ValueSet.INVALID, "does not match the type of the input");
+        assertError(errors.get(2), 5, url, IssueType.ValueSet.EXCEPTION, "Unable to store the resource");
+    }
+
+    @Test
+    public void testResumeAfterFailure() throws Exception {
+        InMemoryPersistence persistence = new InMemoryPersistence(false);
+        String url = writeInput("resume.ndjson",
+            json(ExportJobTest.patient("r1")),
+            json(ExportJobTest.patient("r2")),
+            json(ExportJobTest.patient("r3")),
+            json(ExportJobTest.patient("r4")),
+            json(Patient.builder().active(com.ibm.watson.health.fhir.model.type.Boolean.of(true)).build()),
+            json(ExportJobTest.patient("r6")));
+
+        // the third batch of two lines fails, as a resource id can't be generated for its first line
+        persistence.setFailIdGeneration(true);
+        String jobId = UUID.randomUUID().toString();
+        ImportJob job = createJob(jobId, persistence, 1, ImportCheckpoint.create(outputDirectory.resolve(jobId), "default", "default", 2,
+            Collections.singletonList(new ImportCheckpoint.Input("Patient", url))));
+        job.run();
+        assertEquals(job.getStatus(), BulkDataJob.Status.FAILED);
+
+        ImportCheckpoint checkpoint = ImportCheckpoint.read(job.getDirectory());
+        assertEquals(checkpoint.getTenantId(), "default");
+        assertEquals(checkpoint.getDataStoreId(), "default");
+        assertEquals(checkpoint.getImported(), 4);
+        assertTrue(checkpoint.isCommitted(0, 0));
+        assertTrue(checkpoint.isCommitted(0, 1));
+        assertFalse(checkpoint.isCommitted(0, 2));
+
+        // the resumed job only imports the batch which wasn't committed
+        persistence.setFailIdGeneration(false);
+        ImportJob resumed = createJob(jobId, persistence, 1, checkpoint);
+        resumed.run();
+        assertEquals(resumed.getStatus(), BulkDataJob.Status.COMPLETED, resumed.getFailureMessage());
+        assertEquals(resumed.getOutputs().size(), 1);
+        assertEquals(resumed.getOutputs().get(0).getCount(), 6);
+        assertTrue(resumed.getErrors().isEmpty());
+
+        List<String> created = persistence.getCreated();
+        assertEquals(created.size(), 6);
+        assertEquals(new HashSet<>(created).size(), 6);
+        assertTrue(created.containsAll(Arrays.asList("Patient/r1", "Patient/r2", "Patient/r3", "Patient/r4", "Patient/r6")));
+        assertEquals(ImportCheckpoint.read(job.getDirectory()).getErrors(), Arrays.asList(0L, 0L));
+    }
+
+    private ImportJob createJob(String jobId, InMemoryPersistence persistence, int parallelism, ImportCheckpoint checkpoint) throws IOException {
+        ImportJob job = new ImportJob(jobId, null, outputDirectory, persistence, executor, parallelism, checkpoint);
+        Files.createDirectories(job.getDirectory());
+        return job;
+    }
+
+    private String writeInput(String name, String... lines) throws IOException {
+        Path file = outputDirectory.resolve(name);
+        Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+        return file.toUri().toString();
+    }
+
+    private String json(Resource resource) throws Exception {
+        StringWriter writer = new StringWriter();
+        FHIRGenerator.generator(Format.JSON, false).generate(resource, writer);
+        return writer.toString();
+    }
+
+    private List<OperationOutcome> readErrors(BulkDataJob.Output error) throws Exception {
+        Path file = Paths.get(new URI(error.getUrl()));
+        List<OperationOutcome> errors = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                errors.add(FHIRParser.parser(Format.JSON).parse(new StringReader(line)));
+            }
+        }
+        // the errors of a batch are written in line order
+        return errors;
+    }
+
+    private void assertError(OperationOutcome error, long lineNumber, String url, IssueType.ValueSet issueType, String message) {
+        OperationOutcome.Issue issue = error.getIssue().get(0);
+        assertEquals(issue.getCode().getValue(), issueType.value());
+        String text = issue.getDetails().getText().getValue();
+        assertTrue(text.startsWith("Line " + lineNumber + " of " + url + ": "), text);
+        assertTrue(text.contains(message), text);
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.operation.bulkdata.test;
+
+import static com.ibm.watson.health.fhir.model.type.String.string;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import javax.ws.rs.core.Response;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.config.FHIRConfiguration;
+import com.ibm.watson.health.fhir.config.FHIRRequestContext;
+import com.ibm.watson.health.fhir.exception.FHIROperationException;
+import com.ibm.watson.health.fhir.model.resource.Parameters;
+import com.ibm.watson.health.fhir.model.type.Code;
+import com.ibm.watson.health.fhir.model.type.IssueType;
+import com.ibm.watson.health.fhir.model.type.Uri;
+import com.ibm.watson.health.fhir.operation.bulkdata.BulkDataJob;
+import com.ibm.watson.health.fhir.operation.bulkdata.BulkDataJobManager;
+import com.ibm.watson.health.fhir.operation.bulkdata.ImportCheckpoint;
+import com.ibm.watson.health.fhir.operation.bulkdata.ImportJob;
+import com.ibm.watson.health.fhir.operation.bulkdata.ImportOperation;
+import com.ibm.watson.health.fhir.operation.context.FHIROperationContext;
+
+/**
+ * Tests that $import only reads the input urls it is allowed to, never from internal addresses, and only resumes the jobs of the requesting tenant.
+ */
+public class ImportOperationTest {
+    private static final String TENANT = "importtest1";
+    private static final String OTHER_TENANT = "importtest2";
+    // a tenant whose configuration allows some http(s) urls
+    private static final String HTTP_TENANT = "importtest3";
+
+    @BeforeClass
+    public void setUp() {
+        FHIRConfiguration.setConfigHome("src/test/resources");
+    }
+
+    @AfterMethod
+    public void resetRequestContext() {
+        FHIRRequestContext.remove();
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        for (String tenant : new String[] { TENANT, OTHER_TENANT, HTTP_TENANT }) {
+            Path directory = BulkDataJobManager.getOutputDirectory().resolve(tenant);
+            if (Files.exists(directory)) {
+                try (Stream<Path> paths = Files.walk(directory)) {
+                    paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDisallowedUrls() throws Exception {
+        FHIRRequestContext.set(new FHIRRequestContext(TENANT, "default"));
+        Path tenantDirectory = BulkDataJobManager.getTenantDirectory();
+        Path otherTenantDirectory = BulkDataJobManager.getOutputDirectory().resolve(OTHER_TENANT).resolve("default");
+
+        assertRejected("ftp://example.com/Patient.ndjson", IssueType.ValueSet.NOT_SUPPORTED);
+        // http(s) urls aren't allowed unless they are configured
+        assertRejected("https://93.184.216.34/bulk/Patient.ndjson", IssueType.ValueSet.NOT_SUPPORTED);
+        assertRejected("http://127.0.0.1:8080/Patient.ndjson", IssueType.ValueSet.NOT_SUPPORTED);
+        assertRejected("jar:file:/tmp/x.jar!/Patient.ndjson", IssueType.ValueSet.NOT_SUPPORTED);
+        assertRejected(Paths.get("/etc/passwd").toUri().toString(), IssueType.ValueSet.NOT_SUPPORTED);
+        assertRejected(otherTenantDirectory.resolve("Patient.ndjson").toUri().toString(), IssueType.ValueSet.NOT_SUPPORTED);
+        assertRejected(BulkDataJobManager.getOutputDirectory().resolve("Patient.ndjson").toUri().toString(), IssueType.ValueSet.NOT_SUPPORTED);
+        // a path which leaves the tenant directory
+        assertRejected(tenantDirectory.toUri().toString() + "../../" + OTHER_TENANT + "/default/Patient.ndjson", IssueType.ValueSet.NOT_SUPPORTED);
+        assertRejected("file:%zz/Patient.ndjson", IssueType.ValueSet.INVALID);
+
+        // a file of the tenant can be imported
+        Files.createDirectories(tenantDirectory);
+        Path file = tenantDirectory.resolve("Patient.ndjson");
+        Files.write(file, Collections.singletonList("{\"resourceType\":\"Patient\",\"id\":\"i1\"}"), StandardCharsets.UTF_8);
+        InMemoryPersistence persistence = new InMemoryPersistence(false);
+        FHIROperationContext operationContext = FHIROperationContext.createSystemOperationContext();
+        operationContext.setProperty(FHIROperationContext.PROPNAME_PERSISTENCE_HELPER, persistence);
+        new ImportOperation().invoke(operationContext, null, null, null, input(file.toUri().toString()), null);
+        assertEquals(operationContext.getProperty(FHIROperationContext.PROPNAME_HTTP_STATUS), Response.Status.ACCEPTED);
+
+        String location = operationContext.getProperty(FHIROperationContext.PROPNAME_LOCATION_URI).toString();
+        BulkDataJob job = BulkDataJobManager.getJob(location.substring(location.indexOf("job=") + "job=".length()));
+        assertNotNull(job);
+        for (int i = 0; i < 100 && (job.getStatus() == BulkDataJob.Status.QUEUED || job.getStatus() == BulkDataJob.Status.RUNNING); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(job.getStatus(), BulkDataJob.Status.COMPLETED, job.getFailureMessage());
+        assertNotNull(persistence.get("Patient", "i1"));
+    }
+
+    @Test
+    public void testAllowedHttpUrls() throws Exception {
+        FHIRRequestContext.set(new FHIRRequestContext(HTTP_TENANT, "default"));
+
+        // urls which don't match an allowed prefix
+        assertRejected("https://93.184.216.34/bulk-other/Patient.ndjson", IssueType.ValueSet.NOT_SUPPORTED);
+        assertRejected("https://93.184.216.34/bulk/../other/Patient.ndjson", IssueType.ValueSet.NOT_SUPPORTED);
+        assertRejected("https://93.184.216.34:8443/bulk/Patient.ndjson", IssueType.ValueSet.NOT_SUPPORTED);
+        assertRejected("http://93.184.216.34/bulk/Patient.ndjson", IssueType.ValueSet.NOT_SUPPORTED);
+        assertRejected("https://user@93.184.216.34/bulk/Patient.ndjson", IssueType.ValueSet.NOT_SUPPORTED);
+        assertRejected("http://127.0.0.1:8081/Patient.ndjson", IssueType.ValueSet.NOT_SUPPORTED);
+
+        // allowed urls which refer to internal addresses
+        assertRejected("http://127.0.0.1:8080/Patient.ndjson", IssueType.ValueSet.FORBIDDEN);
+        assertRejected("http://10.0.0.1/Patient.ndjson", IssueType.ValueSet.FORBIDDEN);
+
+        assertFalse(ImportJob.isInternalHost("93.184.216.34"));
+        for (String host : new String[] { "localhost", "127.0.0.1", "0.0.0.0", "10.1.2.3", "172.16.0.1", "192.168.1.1", "169.254.169.254",
+                "224.0.0.1", "[::1]", "[fe80::1]", "[fd00::1]" }) {
+            assertTrue(ImportJob.isInternalHost(host), host);
+        }
+    }
+
+    @Test
+    public void testResumeJobOfOtherTenant() throws Exception {
+        // a checkpoint of the tenant, in the directory of the tenant and in the directory of the other tenant
+        FHIRRequestContext.set(new FHIRRequestContext(TENANT, "default"));
+        String jobId = UUID.randomUUID().toString();
+        saveCheckpoint(BulkDataJobManager.getTenantDirectory().resolve(jobId));
+        saveCheckpoint(BulkDataJobManager.getOutputDirectory().resolve(OTHER_TENANT).resolve("default").resolve(jobId));
+
+        FHIRRequestContext.set(new FHIRRequestContext(OTHER_TENANT, "default"));
+        assertResumeNotFound(jobId);
+        FHIRRequestContext.set(new FHIRRequestContext(TENANT, "other"));
+        assertResumeNotFound(jobId);
+    }
+
+    private void saveCheckpoint(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        ImportCheckpoint checkpoint = ImportCheckpoint.create(directory, TENANT, "default", 10,
+            Collections.singletonList(new ImportCheckpoint.Input("Patient", directory.resolve("Patient.ndjson").toUri().toString())));
+        checkpoint.startAttempt();
+    }
+
+    private void assertResumeNotFound(String jobId) throws Exception {
+        Parameters parameters = Parameters.builder()
+                .parameter(Parameters.Parameter.builder().name(string("job")).value(string(jobId)).build())
+                .build();
+        try {
+            new ImportOperation().invoke(FHIROperationContext.createSystemOperationContext(), null, null, null, parameters, null);
+            fail("Job '" + jobId + "' resumed by tenant '" + FHIRRequestContext.get().getTenantId() + "'");
+        } catch (FHIROperationException e) {
+            assertEquals(e.getIssues().get(0).getCode().getValue(), IssueType.ValueSet.NOT_FOUND.value());
+        }
+    }
+
+    private void assertRejected(String url, IssueType.ValueSet issueType) throws Exception {
+        try {
+            new ImportOperation().invoke(FHIROperationContext.createSystemOperationContext(), null, null, null, input(url), null);
+            fail("Input url accepted: " + url);
+        } catch (FHIROperationException e) {
+            assertEquals(e.getIssues().get(0).getCode().getValue(), issueType.value(), url);
+        }
+    }
+
+    private Parameters input(String url) {
+        return Parameters.builder()
+                .parameter(Parameters.Parameter.builder()
+                    .name(string("input"))
+                    .part(Parameters.Parameter.builder().name(string("type")).value(Code.of("Patient")).build())
+                    .part(Parameters.Parameter.builder().name(string("url")).value(Uri.of(url)).build())
+                    .build())
+                .build();
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.operation.bulkdata.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.generator.FHIRGenerator;
+import com.ibm.watson.health.fhir.model.resource.OperationOutcome;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.model.type.Instant;
+import com.ibm.watson.health.fhir.model.type.Meta;
+import com.ibm.watson.health.fhir.persistence.ExportPartition;
+import com.ibm.watson.health.fhir.persistence.FHIRPersistence;
+import com.ibm.watson.health.fhir.persistence.FHIRPersistenceTransaction;
+import com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContext;
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
+import com.ibm.watson.health.fhir.persistence.helper.PersistenceHelper;
+import com.ibm.watson.health.fhir.search.parameters.Parameter;
+
+/**
+ * A FHIRPersistence which keeps the current version of each resource in memory, shared by all of its users. Like a
+ * database, createAll fails as a whole if one of the resources already exists. Without a transaction, every call
+ * takes effect immediately.
+ */
+public class InMemoryPersistence implements FHIRPersistence, PersistenceHelper {
+    // the current versions by "resourceType/logicalId", in the order they were first created
+    private final Map<String, Resource> resources = new LinkedHashMap<>();
+    private final List<String> created = new ArrayList<>();
+    private final Set<String> rejectedIds = Collections.synchronizedSet(new HashSet<>());
+    private final AtomicBoolean failIdGeneration = new AtomicBoolean();
+    private final boolean exportSupported;
+
+    /**
+     * @param exportSupported true to export the stored JSON of the resources, false to export the search results
+     */
+    public InMemoryPersistence(boolean exportSupported) {
+        this.exportSupported = exportSupported;
+    }
+
+    /**
+     * Stores the resources as if they had been created earlier.
+     */
+    public void add(Resource... resources) throws FHIRPersistenceException {
+        for (Resource resource : resources) {
+            store(resource, 1);
+        }
+    }
+
+    /**
+     * Makes the creation or update of the resource with the logical id fail.
+     */
+    public void reject(String logicalId) {
+        rejectedIds.add(logicalId);
+    }
+
+    /**
+     * Makes generateResourceId fail (with an unchecked exception) while set.
+     */
+    public void setFailIdGeneration(boolean fail) {
+        failIdGeneration.set(fail);
+    }
+
+    /**
+     * @return the current version of the resource, or null if there is no such resource
+     */
+    public synchronized Resource get(String resourceType, String logicalId) {
+        return resources.get(resourceType + "/" + logicalId);
+    }
+
+    /**
+     * @return the "resourceType/logicalId" of each resource creation, in order
+     */
+    public synchronized List<String> getCreated() {
+        return new ArrayList<>(created);
+    }
+
+    private synchronized void store(Resource resource, int versionId) throws FHIRPersistenceException {
+        if (rejectedIds.contains(resource.getId().getValue())) {
+            throw new FHIRPersistenceException("Rejected resource '" + resource.getId().getValue() + "'");
+        }
+        Meta meta = Meta.builder().versionId(Id.of(Integer.toString(versionId))).lastUpdated(Instant.now(ZoneOffset.UTC)).build();
+        resources.put(key(resource), resource.toBuilder().meta(meta).build());
+    }
+
+    private String key(Resource resource) {
+        return resource.getClass().getSimpleName() + "/" + resource.getId().getValue();
+    }
+
+    @Override
+    public Resource create(FHIRPersistenceContext context, Resource resource) throws FHIRPersistenceException {
+        createAll(Collections.singletonList(context), Collections.singletonList(resource));
+        return get(resource.getClass().getSimpleName(), resource.getId().getValue());
+    }
+
+    @Override
+    public synchronized List<Resource> createAll(List<FHIRPersistenceContext> contexts, List<Resource> resources) throws FHIRPersistenceException {
+        for (Resource resource : resources) {
+            if (this.resources.containsKey(key(resource)) || rejectedIds.contains(resource.getId().getValue())) {
+                throw new FHIRPersistenceException("Unable to create '" + key(resource) + "'");
+            }
+        }
+        for (Resource resource : resources) {
+            store(resource, 1);
+            created.add(key(resource));
+        }
+        return resources;
+    }
+
+    @Override
+    public boolean isCreateAllSupported() {
+        return true;
+    }
+
+    @Override
+    public String generateResourceId() {
+        if (failIdGeneration.get()) {
+            throw new IllegalStateException("Unable to generate a resource id");
+        }
+        return FHIRPersistence.super.generateResourceId();
+    }
+
+    @Override
+    public Resource read(FHIRPersistenceContext context, Class<? extends Resource> resourceType, String logicalId) throws FHIRPersistenceException {
+        return get(resourceType.getSimpleName(), logicalId);
+    }
+
+    @Override
+    public Resource vread(FHIRPersistenceContext context, Class<? extends Resource> resourceType, String logicalId, String versionId)
+        throws FHIRPersistenceException {
+        return null;
+    }
+
+    @Override
+    public synchronized Resource update(FHIRPersistenceContext context, String logicalId, Resource resource) throws FHIRPersistenceException {
+        Resource existing = resources.get(key(resource));
+        int versionId = existing != null ? Integer.parseInt(existing.getMeta().getVersionId().getValue()) + 1 : 1;
+        store(resource, versionId);
+        return resources.get(key(resource));
+    }
+
+    @Override
+    public List<Resource> history(FHIRPersistenceContext context, Class<? extends Resource> resourceType, String logicalId) throws FHIRPersistenceException {
+        return null;
+    }
+
+    /**
+     * Only a "ge" _lastUpdated search parameter is applied; all the other search parameters are ignored.
+     */
+    @Override
+    public synchronized List<Resource> search(FHIRPersistenceContext context, Class<? extends Resource> resourceType) throws FHIRPersistenceException {
+        java.time.Instant lastUpdated = null;
+        if (context != null && context.getSearchContext() != null) {
+            for (Parameter parameter : context.getSearchContext().getSearchParameters()) {
+                if ("_lastUpdated".equals(parameter.getName())) {
+                    lastUpdated = java.time.Instant.from(parameter.getValues().get(0).getValueDate().getValue());
+                }
+            }
+        }
+        java.time.Instant since = lastUpdated;
+        return resources.values().stream()
+                .filter(resourceType::isInstance)
+                .filter(resource -> since == null || !resource.getMeta().getLastUpdated().getValue().toInstant().isBefore(since))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean isExportSupported() {
+        return exportSupported;
+    }
+
+    @Override
+    public List<ExportPartition> getExportPartitions(Class<? extends Resource> resourceType, int partitionSize) throws FHIRPersistenceException {
+        return Collections.singletonList(new ExportPartition(resourceType, 1, Long.MAX_VALUE));
+    }
+
+    @Override
+    public Stream<InputStream> exportStream(ExportPartition partition, java.time.Instant since, int fetchSize) throws FHIRPersistenceException {
+        List<InputStream> streams = new ArrayList<>();
+        for (Resource resource : search(null, partition.getResourceType())) {
+            ByteArrayOutputStream json = new ByteArrayOutputStream();
+            try {
+                FHIRGenerator.generator(Format.JSON, false).generate(resource, json);
+            } catch (Exception e) {
+                throw new FHIRPersistenceException("Unable to generate '" + key(resource) + "'", e);
+            }
+            streams.add(new ByteArrayInputStream(json.toByteArray()));
+        }
+        return streams.stream();
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return false;
+    }
+
+    @Override
+    public FHIRPersistenceTransaction getTransaction() {
+        return null;
+    }
+
+    @Override
+    public OperationOutcome getHealth() throws FHIRPersistenceException {
+        return null;
+    }
+
+    @Override
+    public FHIRPersistence getFHIRPersistenceImplementation() throws FHIRPersistenceException {
+        return this;
+    }
+
+    @Override
+    public FHIRPersistence getFHIRPersistenceImplementation(String factoryPropertyName) throws FHIRPersistenceException {
+        return this;
+    }
+}
@@ -164,7 +164,8 @@ public abstract class AbstractOperation implements FHIROperation {
                     throw buildExceptionWithIssue(msg, IssueType.ValueSet.INVALID);
                 }
             }
-            if (count > 0) {
+            // Parameters made up of parts have no type of their own
+            if (count > 0 && parameterDefinition.getType() != null) {
                 List<Parameters.Parameter> inputParameters = getParameters(parameters, name);
                 for (Parameters.Parameter inputParameter : inputParameters) {
                     String parameterValueTypeName = inputParameter.getResource() != null? 
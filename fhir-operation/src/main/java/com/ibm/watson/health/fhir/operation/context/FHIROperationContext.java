@@ -43,6 +43,19 @@ public class FHIROperationContext {
      */
     public static final String PROPNAME_PERSISTENCE_IMPL = "PERSISTENCE_IMPL";
     
+    /**
+     * This property is of type PersistenceHelper and can be used to obtain additional FHIRPersistence instances,
+     * e.g. for work which an operation performs on threads other than the request thread. A FHIRPersistence
+     * instance is not meant to be used by multiple threads.
+     */
+    public static final String PROPNAME_PERSISTENCE_HELPER = "PERSISTENCE_HELPER";
+    
+    /**
+     * This property is of type javax.ws.rs.core.Response.Status and can be set by an operation to
+     * return a status other than "200 OK" (e.g. "202 Accepted" for an operation which continues asynchronously).
+     */
+    public static final String PROPNAME_HTTP_STATUS = "HTTP_STATUS";
+    
     /**
      * This property is of type javax.ws.rs.core.UriInfo and contains Application and Request
      * URI information associated with the REST API request for which the interceptor is being invoked.
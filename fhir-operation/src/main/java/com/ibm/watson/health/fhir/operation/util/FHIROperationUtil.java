@@ -32,7 +32,8 @@ public class FHIROperationUtil {
             if (definition != null) {
 
                 for (OperationDefinition.Parameter parameter : definition.getParameter()) {
-                    if (OperationParameterUse.IN.getValue().equals(parameter.getUse().getValue())) {
+                    // Parameters made up of parts can't be passed as query parameters
+                    if (OperationParameterUse.IN.getValue().equals(parameter.getUse().getValue()) && parameter.getType() != null) {
                         String name = parameter.getName().getValue();
                         String typeName = parameter.getType().getValue();
                         List<String> values = queryParameters.get(name);
@@ -48,6 +49,8 @@ public class FHIROperationUtil {
                                 parameterBuilder.value(com.ibm.watson.health.fhir.model.type.Decimal.of(value));
                             } else if ("integer".equals(typeName)) {
                                 parameterBuilder.value(com.ibm.watson.health.fhir.model.type.Integer.of(value));
+                            } else if ("instant".equals(typeName)) {
+                                parameterBuilder.value(com.ibm.watson.health.fhir.model.type.Instant.of(value));
                             } else {
                                 throw new FHIROperationException("Invalid parameter type: '"
                                         + typeName + "'");
@@ -71,6 +74,10 @@ public class FHIROperationUtil {
         Parameters.Builder parametersBuilder = Parameters.builder();
         parametersBuilder.id(Id.of("InputParameters"));
         for (OperationDefinition.Parameter parameterDefinition : definition.getParameter()) {
+            if (parameterDefinition.getType() == null) {
+                // Parameters made up of parts can't take a resource
+                continue;
+            }
             String parameterTypeName = parameterDefinition.getType().getValue();
             String resourceTypeName = resource.getClass().getSimpleName();
             if ((resourceTypeName.equals(parameterTypeName) || "Resource".equals(parameterTypeName))
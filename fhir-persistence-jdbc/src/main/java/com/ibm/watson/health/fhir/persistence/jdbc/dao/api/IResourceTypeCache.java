@@ -0,0 +1,25 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.dao.api;
+
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
+
+/**
+ * Abstraction of the cache service managing resource types
+ */
+public interface IResourceTypeCache {
+
+    /**
+     * Reads the id associated with the given resource type name from the resource_types table.
+     * If the resource type is not present in the database, an id is generated, persisted and
+     * returned where the implementation supports it.
+     * @param resourceType A valid FHIR resource type name.
+     * @return int - the id associated with the resource type.
+     * @throws FHIRPersistenceException
+     */
+    int readOrAddResourceTypeId(String resourceType) throws FHIRPersistenceException;
+}
@@ -42,6 +42,19 @@ public interface ResourceDAO extends FHIRDbDAO {
     Resource read(String logicalId, String resourceType)
             throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException;
 
+    /**
+     * Reads and returns the id, logical id, version id, last updated time and deleted flag of the latest version
+     * of the Resource with the passed logical id and resource type. The data of the returned Resource DTO is not set.
+     * If no matching resource is found, null is returned.
+     * @param logicalId
+     * @param resourceType
+     * @return Resource - The most recent version of the Resource (without data), or null if not found.
+     * @throws FHIRPersistenceDataAccessException
+     * @throws FHIRPersistenceDBConnectException
+     */
+    Resource readVersionInfo(String logicalId, String resourceType)
+            throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException;
+
     /**
      * Reads and returns the version of the Resource with the passed logical id, resource type, and version id.
      * If no matching resource is found, null is returned.
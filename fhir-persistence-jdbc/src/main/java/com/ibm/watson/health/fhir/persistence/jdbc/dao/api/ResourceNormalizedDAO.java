@@ -6,8 +6,10 @@
 
 package com.ibm.watson.health.fhir.persistence.jdbc.dao.api;
 
+import java.sql.Timestamp;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContext;
 import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
@@ -36,6 +38,45 @@ public interface ResourceNormalizedDAO extends ResourceDAO {
      * @throws FHIRPersistenceDBConnectException
      */
     List<Resource> search(SqlQueryData queryData) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException;
+
+    /**
+     * Executes the search contained in the passed SqlQueryData like {@link #search(SqlQueryData)}, but returns the
+     * Resources as a stream which fetches the rows of the result set as it is consumed, fetchSize rows at a time.
+     * The statement and connection are held until the stream is closed. A failure while reading the stream is thrown
+     * as a FHIRPersistenceStreamException.
+     * @param queryData - Contains a search string and (optionally) bind variables.
+     * @param fetchSize - The number of rows to fetch from the database at a time.
+     * @return Stream<Resource> A stream of the FHIR Resources satisfying the passed search; it must be closed.
+     * @throws FHIRPersistenceDataAccessException
+     * @throws FHIRPersistenceDBConnectException
+     */
+    Stream<Resource> searchStream(SqlQueryData queryData, int fetchSize) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException;
+
+    /**
+     * Reads the range of logical resource ids of the passed resource type.
+     * @param resourceType - The FHIR resource type.
+     * @return long[] The smallest and largest logical resource id, and the number of logical resources (including
+     * deleted ones), or null if there are no resources of the type.
+     * @throws FHIRPersistenceDataAccessException
+     * @throws FHIRPersistenceDBConnectException
+     */
+    long[] readLogicalResourceIdRange(String resourceType) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException;
+
+    /**
+     * Streams the current versions of the resources of the passed type with a logical resource id in the passed range,
+     * skipping deleted resources, ordered by logical resource id. The stream must be closed, as for
+     * {@link #searchStream(SqlQueryData, int)}.
+     * @param resourceType - The FHIR resource type.
+     * @param firstId - The first logical resource id of the range.
+     * @param lastId - The last logical resource id of the range (inclusive).
+     * @param since - If not null, only the resources last updated at or after this time are returned.
+     * @param fetchSize - The number of rows to fetch from the database at a time.
+     * @return Stream<Resource> A stream of the Resource DTOs; it must be closed.
+     * @throws FHIRPersistenceDataAccessException
+     * @throws FHIRPersistenceDBConnectException
+     */
+    Stream<Resource> exportStream(String resourceType, long firstId, long lastId, Timestamp since, int fetchSize) 
+            throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException;
     
     
     /**
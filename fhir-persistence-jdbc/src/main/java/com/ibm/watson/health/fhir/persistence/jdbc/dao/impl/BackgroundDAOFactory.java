@@ -0,0 +1,95 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.dao.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.watson.health.fhir.config.FHIRConfiguration;
+import com.ibm.watson.health.fhir.persistence.jdbc.derby.DerbyParameterNamesDAO;
+import com.ibm.watson.health.fhir.persistence.jdbc.derby.FhirRefSequenceDAOImpl;
+
+/**
+ * Creates the DAOs used by the work which runs on its own connection after the writing
+ * transaction has committed (see {@link com.ibm.watson.health.fhir.persistence.jdbc.util.PendingReferenceResolver}
+ * and {@link com.ibm.watson.health.fhir.persistence.jdbc.util.TextIndexer}), for the type of
+ * database behind the connection. DB2 tables are partitioned by tenant, using the tenant
+ * session variable held in the admin schema; Derby doesn't support partitioned multi-tenancy.
+ */
+public class BackgroundDAOFactory {
+    private static final Logger log = Logger.getLogger(BackgroundDAOFactory.class.getName());
+
+    public static final String ADMIN_SCHEMA_NAME_DEFAULT = "FHIR_ADMIN";
+
+    private static volatile String adminSchemaName;
+
+    private BackgroundDAOFactory() {
+    }
+
+    /**
+     * Retrieves the name of the admin schema, which holds the tenant session variable, from the fhir server
+     * configuration.
+     * @return the admin schema name
+     */
+    public static String getAdminSchemaName() {
+        String result = adminSchemaName;
+        if (result == null) {
+            try {
+                result = FHIRConfiguration.getInstance().loadConfiguration()
+                        .getStringProperty(FHIRConfiguration.PROPERTY_JDBC_ADMIN_SCHEMA_NAME, ADMIN_SCHEMA_NAME_DEFAULT);
+            } catch (Exception e) {
+                log.log(Level.WARNING, "Unable to read the admin schema name from the configuration; using " + ADMIN_SCHEMA_NAME_DEFAULT, e);
+                result = ADMIN_SCHEMA_NAME_DEFAULT;
+            }
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Using admin schema name: " + result);
+            }
+            adminSchemaName = result;
+        }
+        return result;
+    }
+
+    /**
+     * @param connection
+     * @return true if the connection is to a DB2 database, whose tables are partitioned by tenant
+     * @throws SQLException
+     */
+    public static boolean isMultitenant(Connection connection) throws SQLException {
+        return connection.getMetaData().getURL().toLowerCase().contains("db2");
+    }
+
+    /**
+     * Create the DAO which maintains the normalized reference tables
+     * @param connection
+     * @return
+     * @throws SQLException
+     */
+    public static ResourceReferenceDAO createResourceReferenceDAO(Connection connection) throws SQLException {
+        if (isMultitenant(connection)) {
+            return new ResourceReferenceDAO(connection, getAdminSchemaName(), true);
+        } else {
+            return new ResourceReferenceDAO(connection, null, false);
+        }
+    }
+
+    /**
+     * Create the DAO which maintains the full-text index
+     * @param connection
+     * @return
+     * @throws SQLException
+     */
+    public static TextIndexDAO createTextIndexDAO(Connection connection) throws SQLException {
+        if (isMultitenant(connection)) {
+            return new TextIndexDAO(connection, getAdminSchemaName(), true, new ParameterNameCacheAdapter(new ParameterDAONormalizedImpl(connection)));
+        } else {
+            return new TextIndexDAO(connection, null, false, new com.ibm.watson.health.fhir.persistence.jdbc.derby.ParameterNameCacheAdapter(
+                new DerbyParameterNamesDAO(connection, new FhirRefSequenceDAOImpl(connection))));
+        }
+    }
+}
@@ -210,7 +210,8 @@ public class FHIRDbDAOBasicImpl<T> implements FHIRDbDAO {
                 if (log.isLoggable(Level.FINE)) {
                     log.fine("Setting tenant access on connection for: " + tenantName);
                 }
-                Db2SetTenantVariable cmd = new Db2SetTenantVariable("FHIR_ADMIN", tenantName, tenantKey);
+                Db2SetTenantVariable cmd = new Db2SetTenantVariable(adminSchemaName != null ? adminSchemaName : BackgroundDAOFactory.getAdminSchemaName(),
+                    tenantName, tenantKey);
                 JdbcTarget target = new JdbcTarget(connection);
                 Db2Adapter adapter = new Db2Adapter(target);
                 adapter.runStatement(cmd);
@@ -20,6 +20,7 @@ import java.util.logging.Logger;
 
 import javax.transaction.TransactionSynchronizationRegistry;
 
+import com.ibm.watson.health.fhir.config.FHIRRequestContext;
 import com.ibm.watson.health.fhir.model.type.IssueType;
 import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
 import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.CodeSystemDAO;
@@ -328,7 +329,8 @@ public class ParameterDAONormalizedImpl extends FHIRDbDAOBasicImpl<Parameter> im
         if (this.runningInTrx && CodeSystemsCache.isEnabled()) {
             if (this.csCacheUpdater == null) {
                 // Register a new CodeSystemsCacheUpdater for this thread/trx, if one hasn't been already registered.
-                this.csCacheUpdater = new CodeSystemsCacheUpdater(CodeSystemsCache.getCacheNameForTenantDatastore(), this.newCodeSystemIds);
+                FHIRRequestContext requestContext = FHIRRequestContext.get();
+                this.csCacheUpdater = new CodeSystemsCacheUpdater(requestContext.getTenantId(), requestContext.getDataStoreId(), this.newCodeSystemIds);
                 try {
                     trxSynchRegistry.registerInterposedSynchronization(csCacheUpdater);
                     log.fine("Registered CodeSystemsCacheUpdater.");
@@ -360,7 +362,8 @@ public class ParameterDAONormalizedImpl extends FHIRDbDAOBasicImpl<Parameter> im
         if (this.runningInTrx && ParameterNamesCache.isEnabled()) {
             if (this.pnCacheUpdater == null) {
                 // Register a new ParameterNamesCacheUpdater for this thread/trx, if one hasn't been already registered.
-                this.pnCacheUpdater = new ParameterNamesCacheUpdater(ParameterNamesCache.getCacheNameForTenantDatastore(), this.newParameterNameIds);
+                FHIRRequestContext requestContext = FHIRRequestContext.get();
+                this.pnCacheUpdater = new ParameterNamesCacheUpdater(requestContext.getTenantId(), requestContext.getDataStoreId(), this.newParameterNameIds);
                 try {
                     trxSynchRegistry.registerInterposedSynchronization(pnCacheUpdater);
                     log.fine("Registered ParameterNamesCacheUpdater.");
@@ -9,18 +9,26 @@ package com.ibm.watson.health.fhir.persistence.jdbc.dao.impl;
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
 import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.ICodeSystemCache;
 import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.IParameterNameCache;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.IResourceTypeCache;
 import com.ibm.watson.health.fhir.persistence.jdbc.dto.IParameterVisitor;
 import com.ibm.watson.health.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.CompartmentMembershipUtil;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.GeoCellUtil;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.NGramUtil;
 import com.ibm.watson.health.fhir.schema.control.FhirSchemaConstants;
+import com.ibm.watson.health.fhir.search.util.SearchUtil;
 
 /**
  * Batch insert into the parameter values tables. Avoids having to create one stored procedure
@@ -38,6 +46,9 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
     
     // FK to the logical resource for the parameters being added
     private final long logicalResourceId;
+
+    // The resource type of the logical resource, used when parking a pending reference
+    private final String resourceType;
     
     // Maintainers: remember to close all statements in AutoCloseable#close()
     private final PreparedStatement strings;
@@ -57,6 +68,32 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
     
     private final PreparedStatement locations;
     private int locationCount;
+
+    // References with a normalized (integer) target
+    private final PreparedStatement refs;
+    private int refCount;
+
+    // References to a target which doesn't exist yet
+    private final PreparedStatement pendingRefs;
+    private int pendingRefCount;
+    private boolean pendingRefsStored;
+
+    // Look up the logical_resource_id of a reference target
+    private final PreparedStatement refTargets;
+
+    // Compartments the logical resource belongs to
+    private final PreparedStatement compartments;
+    private int compartmentCount;
+
+    // Several references can place the resource in the same compartment
+    private final Set<String> compartmentsSeen = new HashSet<>();
+
+    // Fragments of string values, for :contains searches
+    private final PreparedStatement ngrams;
+    private int ngramCount;
+
+    // Each n-gram is only stored once per parameter
+    private final Set<String> ngramsSeen = new HashSet<>();
     
     // Searchable string attributes stored at the Resource (system) level
     private final PreparedStatement resourceStrings;
@@ -75,6 +112,9 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
 
     // For looking up code system ids
     private final ICodeSystemCache codeSystemCache;
+
+    // For looking up resource type ids
+    private final IResourceTypeCache resourceTypeCache;
     
     /**
      * Public constructor
@@ -82,7 +122,7 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
      * @param resourceId
      */
     public ParameterVisitorBatchDAO(Connection c, String adminSchemaName, String tablePrefix, boolean multitenant, long logicalResourceId, int batchSize,
-        IParameterNameCache pnc, ICodeSystemCache csc) throws SQLException {
+        IParameterNameCache pnc, ICodeSystemCache csc, IResourceTypeCache rtc) throws SQLException {
         if (batchSize < 1) {
             throw new IllegalArgumentException("batchSize must be >= 1");
         }
@@ -91,32 +131,52 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
         this.batchSize = batchSize;
         this.parameterNameCache = pnc;
         this.codeSystemCache = csc;
+        this.resourceTypeCache = rtc;
+        this.resourceType = tablePrefix;
 
         String insert;
-        insert = multitenant ? "INSERT INTO " + tablePrefix + "_str_values (mt_id, parameter_name_id, str_value, str_value_lcase, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?)"
-                : "INSERT INTO " + tablePrefix + "_str_values (parameter_name_id, str_value, str_value_lcase, logical_resource_id) VALUES (?,?,?,?)";
+        insert = multitenant ? "INSERT INTO " + tablePrefix + "_str_values (mt_id, parameter_name_id, str_value, str_value_lcase, logical_resource_id, composite_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?,?)"
+                : "INSERT INTO " + tablePrefix + "_str_values (parameter_name_id, str_value, str_value_lcase, logical_resource_id, composite_id) VALUES (?,?,?,?,?)";
         strings = c.prepareStatement(insert);
         
-        insert = multitenant ? "INSERT INTO " + tablePrefix + "_number_values (mt_id, parameter_name_id, number_value, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?)"
-                :"INSERT INTO " + tablePrefix + "_number_values (parameter_name_id, number_value, logical_resource_id) VALUES (?,?,?)";
+        insert = multitenant ? "INSERT INTO " + tablePrefix + "_number_values (mt_id, parameter_name_id, number_value, logical_resource_id, composite_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?)"
+                :"INSERT INTO " + tablePrefix + "_number_values (parameter_name_id, number_value, logical_resource_id, composite_id) VALUES (?,?,?,?)";
         numbers = c.prepareStatement(insert);
         
-        insert = multitenant ? "INSERT INTO " + tablePrefix + "_date_values (mt_id, parameter_name_id, date_value, date_start, date_end, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?,?)"
-                : "INSERT INTO " + tablePrefix + "_date_values (parameter_name_id, date_value, date_start, date_end, logical_resource_id) VALUES (?,?,?,?,?)";
+        insert = multitenant ? "INSERT INTO " + tablePrefix + "_date_values (mt_id, parameter_name_id, date_value, date_start, date_end, logical_resource_id, composite_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?,?,?)"
+                : "INSERT INTO " + tablePrefix + "_date_values (parameter_name_id, date_value, date_start, date_end, logical_resource_id, composite_id) VALUES (?,?,?,?,?,?)";
         dates = c.prepareStatement(insert);
         
-        insert = multitenant ? "INSERT INTO " + tablePrefix + "_token_values (mt_id, parameter_name_id, code_system_id, token_value, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?)"
-                : "INSERT INTO " + tablePrefix + "_token_values (parameter_name_id, code_system_id, token_value, logical_resource_id) VALUES (?,?,?,?)";
+        insert = multitenant ? "INSERT INTO " + tablePrefix + "_token_values (mt_id, parameter_name_id, code_system_id, token_value, logical_resource_id, composite_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?,?)"
+                : "INSERT INTO " + tablePrefix + "_token_values (parameter_name_id, code_system_id, token_value, logical_resource_id, composite_id) VALUES (?,?,?,?,?)";
         tokens = c.prepareStatement(insert);
         
-        insert = multitenant ? "INSERT INTO " + tablePrefix + "_quantity_values (mt_id, parameter_name_id, code_system_id, code, quantity_value, quantity_value_low, quantity_value_high, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?,?,?,?)"
-                : "INSERT INTO " + tablePrefix + "_quantity_values (parameter_name_id, code_system_id, code, quantity_value, quantity_value_low, quantity_value_high, logical_resource_id) VALUES (?,?,?,?,?,?,?)";
+        insert = multitenant ? "INSERT INTO " + tablePrefix + "_quantity_values (mt_id, parameter_name_id, code_system_id, code, quantity_value, quantity_value_low, quantity_value_high, logical_resource_id, composite_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?,?,?,?,?)"
+                : "INSERT INTO " + tablePrefix + "_quantity_values (parameter_name_id, code_system_id, code, quantity_value, quantity_value_low, quantity_value_high, logical_resource_id, composite_id) VALUES (?,?,?,?,?,?,?,?)";
         quantities = c.prepareStatement(insert);
         
-        insert = multitenant ? "INSERT INTO " + tablePrefix + "_latlng_values (mt_id, parameter_name_id, latitude_value, longitude_value, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?)"
-                : "INSERT INTO " + tablePrefix + "_latlng_values (parameter_name_id, latitude_value, longitude_value, logical_resource_id) VALUES (?,?,?,?)";
+        insert = multitenant ? "INSERT INTO " + tablePrefix + "_latlng_values (mt_id, parameter_name_id, latitude_value, longitude_value, geo_cell, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?,?)"
+                : "INSERT INTO " + tablePrefix + "_latlng_values (parameter_name_id, latitude_value, longitude_value, geo_cell, logical_resource_id) VALUES (?,?,?,?,?)";
         locations = c.prepareStatement(insert);
 
+        insert = multitenant ? "INSERT INTO " + tablePrefix + "_ref_values (mt_id, parameter_name_id, ref_resource_type_id, ref_logical_resource_id, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?)"
+                : "INSERT INTO " + tablePrefix + "_ref_values (parameter_name_id, ref_resource_type_id, ref_logical_resource_id, logical_resource_id) VALUES (?,?,?,?)";
+        refs = c.prepareStatement(insert);
+
+        insert = multitenant ? "INSERT INTO pending_references (mt_id, ref_resource_type_id, ref_logical_id, parameter_name_id, resource_type_id, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?,?)"
+                : "INSERT INTO pending_references (ref_resource_type_id, ref_logical_id, parameter_name_id, resource_type_id, logical_resource_id) VALUES (?,?,?,?,?)";
+        pendingRefs = c.prepareStatement(insert);
+
+        refTargets = c.prepareStatement("SELECT logical_resource_id FROM logical_resources WHERE resource_type_id = ? AND logical_id = ?");
+
+        insert = multitenant ? "INSERT INTO compartment_members (mt_id, compartment_type_id, compartment_logical_id, resource_type_id, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?)"
+                : "INSERT INTO compartment_members (compartment_type_id, compartment_logical_id, resource_type_id, logical_resource_id) VALUES (?,?,?,?)";
+        compartments = c.prepareStatement(insert);
+
+        insert = multitenant ? "INSERT INTO str_ngrams (mt_id, parameter_name_id, ngram, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?)"
+                : "INSERT INTO str_ngrams (parameter_name_id, ngram, logical_resource_id) VALUES (?,?,?)";
+        ngrams = c.prepareStatement(insert);
+
         // Resource level string attributes
         insert = multitenant ? "INSERT INTO resource_str_values (mt_id, parameter_name_id, str_value, str_value_lcase, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?)"
                 : "INSERT INTO resource_str_values (parameter_name_id, str_value, str_value_lcase, logical_resource_id) VALUES (?,?,?,?)";
@@ -153,11 +213,28 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
         return codeSystemCache.readOrAddCodeSystem(codeSystem);
     }
 
+    /**
+     * Set the composite_id column, which is null unless the value is a component
+     * of a composite parameter value
+     * @param ps
+     * @param parameterIndex
+     * @param compositeId
+     * @throws SQLException
+     */
+    private void setCompositeId(PreparedStatement ps, int parameterIndex, Integer compositeId) throws SQLException {
+        if (compositeId != null) {
+            ps.setInt(parameterIndex, compositeId);
+        }
+        else {
+            ps.setNull(parameterIndex, Types.INTEGER);
+        }
+    }
+
     /* (non-Javadoc)
-     * @see com.ibm.watson.health.fhir.persistence.jdbc.dto.IParameterVisitor#stringValue(java.lang.String, java.lang.String)
+     * @see com.ibm.watson.health.fhir.persistence.jdbc.dto.IParameterVisitor#stringValue(java.lang.String, java.lang.String, boolean, java.lang.Integer)
      */
     @Override
-    public void stringValue(String parameterName, String value, boolean isBase) throws FHIRPersistenceException {
+    public void stringValue(String parameterName, String value, boolean isBase, Integer compositeId) throws FHIRPersistenceException {
         while (value != null && value.getBytes().length > FhirSchemaConstants.MAX_SEARCH_STRING_BYTES) {
             // keep chopping the string in half until its byte representation fits inside
             // the VARCHAR
@@ -175,7 +252,7 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
                 if (value != null) {
                     
                     resourceStrings.setString(2, value);
-                    resourceStrings.setString(3, value.toLowerCase());
+                    resourceStrings.setString(3, SearchUtil.normalizeForSearch(value));
                 }
                 else {
                     resourceStrings.setNull(2, Types.VARCHAR);
@@ -199,13 +276,14 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
                 if (value != null) {
                     
                     strings.setString(2, value);
-                    strings.setString(3, value.toLowerCase());
+                    strings.setString(3, SearchUtil.normalizeForSearch(value));
                 }
                 else {
                     strings.setNull(2, Types.VARCHAR);
                     strings.setNull(3, Types.VARCHAR);
                 }
                 strings.setLong(4, logicalResourceId);
+                setCompositeId(strings, 5, compositeId);
                 strings.addBatch();
                 
                 if (++stringCount == this.batchSize) {
@@ -219,15 +297,165 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
         }
     }
 
+    /* (non-Javadoc)
+     * @see com.ibm.watson.health.fhir.persistence.jdbc.dto.IParameterVisitor#substringValue(java.lang.String, java.lang.String)
+     */
+    @Override
+    public void substringValue(String parameterName, String value) throws FHIRPersistenceException {
+        try {
+            int parameterNameId = getParameterNameId(parameterName);
+            for (String ngram: NGramUtil.ngrams(SearchUtil.normalizeForSearch(value))) {
+                if (ngramsSeen.add(parameterNameId + ":" + ngram)) {
+                    ngrams.setInt(1, parameterNameId);
+                    ngrams.setString(2, ngram);
+                    ngrams.setLong(3, logicalResourceId);
+                    ngrams.addBatch();
+
+                    if (++ngramCount == this.batchSize) {
+                        ngrams.executeBatch();
+                        ngramCount = 0;
+                    }
+                }
+            }
+        }
+        catch (SQLException x) {
+            throw new FHIRPersistenceDataAccessException(parameterName + "=" + value, x);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.ibm.watson.health.fhir.persistence.jdbc.dto.IParameterVisitor#referenceValue(java.lang.String, java.lang.String, java.lang.String)
+     */
+    @Override
+    public void referenceValue(String parameterName, String refResourceType, String refLogicalId) throws FHIRPersistenceException {
+        try {
+            int parameterNameId = getParameterNameId(parameterName);
+            int refResourceTypeId = resourceTypeCache.readOrAddResourceTypeId(refResourceType);
+
+            // The compartment doesn't need to exist for the resource to be a member
+            for (String compartment: CompartmentMembershipUtil.getCompartments(resourceType, parameterName)) {
+                if (compartment.equals(refResourceType)) {
+                    compartmentMember(refResourceTypeId, refLogicalId);
+                }
+            }
+
+            // The target logical_resource_id is unique across all resource types. If the
+            // target doesn't exist yet, the reference is resolved when it is created
+            Long refLogicalResourceId = null;
+            refTargets.setInt(1, refResourceTypeId);
+            refTargets.setString(2, refLogicalId);
+            try (ResultSet rs = refTargets.executeQuery()) {
+                if (rs.next()) {
+                    refLogicalResourceId = rs.getLong(1);
+                }
+            }
+
+            if (refLogicalResourceId != null) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("referenceValue: " + parameterName + "[" + parameterNameId + "], " 
+                            + refResourceType + "/" + refLogicalId + "[" + refLogicalResourceId + "]");
+                }
+
+                refs.setInt(1, parameterNameId);
+                refs.setInt(2, refResourceTypeId);
+                refs.setLong(3, refLogicalResourceId);
+                refs.setLong(4, logicalResourceId);
+                refs.addBatch();
+
+                if (++refCount == this.batchSize) {
+                    refs.executeBatch();
+                    refCount = 0;
+                }
+            }
+            else {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("pendingReferenceValue: " + parameterName + "[" + parameterNameId + "], " 
+                            + refResourceType + "/" + refLogicalId);
+                }
+
+                pendingRefs.setInt(1, refResourceTypeId);
+                pendingRefs.setString(2, refLogicalId);
+                pendingRefs.setInt(3, parameterNameId);
+                pendingRefs.setInt(4, resourceTypeCache.readOrAddResourceTypeId(resourceType));
+                pendingRefs.setLong(5, logicalResourceId);
+                pendingRefs.addBatch();
+                pendingRefsStored = true;
+
+                if (++pendingRefCount == this.batchSize) {
+                    pendingRefs.executeBatch();
+                    pendingRefCount = 0;
+                }
+            }
+        }
+        catch (FHIRPersistenceDataAccessException x) {
+            throw new FHIRPersistenceDataAccessException(parameterName + "=" + refResourceType + "/" + refLogicalId, x);
+        }
+        catch (SQLException x) {
+            throw new FHIRPersistenceDataAccessException(parameterName + "=" + refResourceType + "/" + refLogicalId, x);
+        }
+    }
+
+    /**
+     * @return true if any of the references were parked in PENDING_REFERENCES, because
+     *     their target didn't exist (or wasn't visible to this transaction)
+     */
+    public boolean isPendingReferencesStored() {
+        return pendingRefsStored;
+    }
+
+    /**
+     * Record the membership of the resource in its own compartment, for those compartment
+     * definitions which include the compartment resource itself (e.g. Encounter). This
+     * isn't expressed by any of the resource's references
+     * @param logicalId the logical id of the resource being stored
+     * @throws FHIRPersistenceException
+     */
+    public void selfCompartment(String logicalId) throws FHIRPersistenceException {
+        if (CompartmentMembershipUtil.getCompartments(resourceType, CompartmentMembershipUtil.SELF_CRITERION).contains(resourceType)) {
+            try {
+                compartmentMember(resourceTypeCache.readOrAddResourceTypeId(resourceType), logicalId);
+            }
+            catch (SQLException x) {
+                throw new FHIRPersistenceDataAccessException(resourceType + "/" + logicalId, x);
+            }
+        }
+    }
+
+    /**
+     * Add the logical resource to the compartment, unless it has already been added
+     * @param compartmentTypeId
+     * @param compartmentLogicalId
+     * @throws SQLException
+     */
+    private void compartmentMember(int compartmentTypeId, String compartmentLogicalId) throws FHIRPersistenceException, SQLException {
+        if (compartmentsSeen.add(compartmentTypeId + "/" + compartmentLogicalId)) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("compartmentMember: " + compartmentTypeId + "/" + compartmentLogicalId);
+            }
+
+            compartments.setInt(1, compartmentTypeId);
+            compartments.setString(2, compartmentLogicalId);
+            compartments.setInt(3, resourceTypeCache.readOrAddResourceTypeId(resourceType));
+            compartments.setLong(4, logicalResourceId);
+            compartments.addBatch();
+
+            if (++compartmentCount == this.batchSize) {
+                compartments.executeBatch();
+                compartmentCount = 0;
+            }
+        }
+    }
+
     /* (non-Javadoc)
      * @see com.ibm.watson.health.fhir.persistence.jdbc.dto.IParameterVisitor#numberValue(java.lang.String, double)
      */
     @Override
-    public void numberValue(String parameterName, BigDecimal value, BigDecimal valueLow, BigDecimal valueHigh) throws FHIRPersistenceException {
+    public void numberValue(String parameterName, BigDecimal value, BigDecimal valueLow, BigDecimal valueHigh, Integer compositeId) throws FHIRPersistenceException {
         try {
             numbers.setInt(1, getParameterNameId(parameterName));
             numbers.setBigDecimal(2, value);
             numbers.setLong(3, logicalResourceId);
+            setCompositeId(numbers, 4, compositeId);
             numbers.addBatch();
         
             if (++numberCount == this.batchSize) {
@@ -244,7 +472,7 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
      * @see com.ibm.watson.health.fhir.persistence.jdbc.dto.IParameterVisitor#dateValue(java.lang.String, java.sql.Timestamp, java.sql.Timestamp, java.sql.Timestamp)
      */
     @Override
-    public void dateValue(String parameterName, Timestamp date, Timestamp dateStart, Timestamp dateEnd, boolean isBase) throws FHIRPersistenceException {
+    public void dateValue(String parameterName, Timestamp date, Timestamp dateStart, Timestamp dateEnd, boolean isBase, Integer compositeId) throws FHIRPersistenceException {
         try {
             int parameterNameId = getParameterNameId(parameterName);
             
@@ -268,6 +496,7 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
                 dates.setTimestamp(3, dateStart);
                 dates.setTimestamp(4, dateEnd);
                 dates.setLong(5, logicalResourceId);
+                setCompositeId(dates, 6, compositeId);
                 dates.addBatch();
                 
                 if (++dateCount == this.batchSize) {
@@ -286,7 +515,7 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
      * @see com.ibm.watson.health.fhir.persistence.jdbc.dto.IParameterVisitor#tokenValue(java.lang.String, java.lang.String, java.lang.String)
      */
     @Override
-    public void tokenValue(String parameterName, String codeSystem, String tokenValue, boolean isBase) throws FHIRPersistenceException {
+    public void tokenValue(String parameterName, String codeSystem, String tokenValue, boolean isBase, Integer compositeId) throws FHIRPersistenceException {
         
         try {
             int parameterNameId = getParameterNameId(parameterName);
@@ -320,6 +549,7 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
                 tokens.setInt(2, codeSystemId);
                 tokens.setString(3, tokenValue);
                 tokens.setLong(4, logicalResourceId);
+                setCompositeId(tokens, 5, compositeId);
                 tokens.addBatch();
                 
                 if (++tokenCount == this.batchSize) {
@@ -340,7 +570,7 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
      * @see com.ibm.watson.health.fhir.persistence.jdbc.dto.IParameterVisitor#quantityValue(java.lang.String, java.lang.String, java.lang.String, java.lang.Double, java.lang.Double, java.lang.Double)
      */
     @Override
-    public void quantityValue(String parameterName, String code, String codeSystem, BigDecimal quantityValue, BigDecimal quantityLow, BigDecimal quantityHigh) throws FHIRPersistenceException {
+    public void quantityValue(String parameterName, String code, String codeSystem, BigDecimal quantityValue, BigDecimal quantityLow, BigDecimal quantityHigh, Integer compositeId) throws FHIRPersistenceException {
 
         // Skip anything with a null code
         if (code == null || code.isEmpty()) {
@@ -357,6 +587,7 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
                 quantities.setBigDecimal(5, quantityLow);
                 quantities.setBigDecimal(6, quantityHigh);
                 quantities.setLong(7, logicalResourceId);
+                setCompositeId(quantities, 8, compositeId);
                 quantities.addBatch();
                 
                 if (++quantityCount == batchSize) {
@@ -384,6 +615,8 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
             locations.setInt(1, getParameterNameId(parameterName));
             locations.setDouble(2, lat);
             locations.setDouble(3, lng);
+            locations.setLong(4, GeoCellUtil.cell(lat, lng));
+            locations.setLong(5, logicalResourceId);
             locations.addBatch();
             
             if (++locationCount == this.batchSize) {
@@ -434,6 +667,26 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
                 locationCount = 0;
             }
             
+            if (refCount > 0) {
+                refs.executeBatch();
+                refCount = 0;
+            }
+            
+            if (pendingRefCount > 0) {
+                pendingRefs.executeBatch();
+                pendingRefCount = 0;
+            }
+
+            if (compartmentCount > 0) {
+                compartments.executeBatch();
+                compartmentCount = 0;
+            }
+
+            if (ngramCount > 0) {
+                ngrams.executeBatch();
+                ngramCount = 0;
+            }
+            
             if (resourceStringCount > 0) {
                 resourceStrings.executeBatch();
                 resourceStringCount = 0;
@@ -466,6 +719,11 @@ public class ParameterVisitorBatchDAO implements IParameterVisitor, AutoCloseabl
         closeStatement(tokens);
         closeStatement(quantities);
         closeStatement(locations);
+        closeStatement(refs);
+        closeStatement(pendingRefs);
+        closeStatement(refTargets);
+        closeStatement(compartments);
+        closeStatement(ngrams);
         closeStatement(resourceStrings);
         closeStatement(resourceDates);
         closeStatement(resourceTokens);
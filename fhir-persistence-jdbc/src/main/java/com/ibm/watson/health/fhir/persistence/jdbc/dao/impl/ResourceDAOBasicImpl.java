@@ -188,6 +188,15 @@ public class ResourceDAOBasicImpl extends FHIRDbDAOBasicImpl<Resource> implement
         return resource;
     }
     
+    /* (non-Javadoc)
+     * @see com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ResourceDAO#readVersionInfo(java.lang.String, java.lang.String)
+     */
+    @Override
+    public Resource readVersionInfo(String logicalId, String resourceType) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
+        // The basic schema has no cheaper way to find the latest version.
+        return this.read(logicalId, resourceType);
+    }
+    
     /* (non-Javadoc)
      * @see com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ResourceDAO#versionRead(java.lang.String, java.lang.String, int)
      */
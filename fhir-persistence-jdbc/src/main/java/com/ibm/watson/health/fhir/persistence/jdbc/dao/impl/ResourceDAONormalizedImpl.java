@@ -25,12 +25,16 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import javax.transaction.TransactionSynchronizationRegistry;
 
+import com.ibm.watson.health.database.utils.streams.Streamer;
+import com.ibm.watson.health.fhir.config.FHIRRequestContext;
 import com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContext;
 import com.ibm.watson.health.fhir.persistence.context.FHIRReplicationContext;
 import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceStreamException;
 import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceVersionIdMismatchException;
 import com.ibm.watson.health.fhir.persistence.interceptor.FHIRPersistenceEvent;
 import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.ParameterNormalizedDAO;
@@ -62,6 +66,11 @@ public class ResourceDAONormalizedImpl extends ResourceDAOBasicImpl implements R
                                             "FROM %s_RESOURCES R, %s_LOGICAL_RESOURCES LR WHERE " +
                                            "LR.LOGICAL_ID = ? AND R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID";
 
+    // Read the version information (but not the data) of the current version of the resource
+    private static final String SQL_READ_VERSION_INFO = "SELECT R.RESOURCE_ID, R.VERSION_ID, R.LAST_UPDATED, R.IS_DELETED " +
+                                            "FROM %s_RESOURCES R, %s_LOGICAL_RESOURCES LR WHERE " +
+                                           "LR.LOGICAL_ID = ? AND R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID";
+
     // Read a specific version of the resource
     private static final String SQL_VERSION_READ = "SELECT R.RESOURCE_ID, R.LOGICAL_RESOURCE_ID, R.VERSION_ID, R.LAST_UPDATED, R.IS_DELETED, R.DATA, LR.LOGICAL_ID " +
                                                       "FROM %s_RESOURCES R, %s_LOGICAL_RESOURCES LR WHERE " +
@@ -98,6 +107,19 @@ public class ResourceDAONormalizedImpl extends ResourceDAOBasicImpl implements R
                                                     "FROM %s_RESOURCES R, %s_LOGICAL_RESOURCES LR WHERE R.LOGICAL_RESOURCE_ID = LR.LOGICAL_RESOURCE_ID AND " +
                                                     "R.RESOURCE_ID IN ";
 
+    // Read the range of logical resource ids of a resource type, to split its export into partitions
+    private static final String SQL_READ_LOGICAL_RESOURCE_ID_RANGE = "SELECT MIN(LR.LOGICAL_RESOURCE_ID), MAX(LR.LOGICAL_RESOURCE_ID), COUNT(*) " +
+                                                                     "FROM %s_LOGICAL_RESOURCES LR";
+
+    // Read the current versions of the (non-deleted) resources in a range of logical resource ids
+    private static final String SQL_EXPORT = "SELECT R.RESOURCE_ID, R.LOGICAL_RESOURCE_ID, R.VERSION_ID, R.LAST_UPDATED, R.IS_DELETED, R.DATA, LR.LOGICAL_ID " +
+                                             "FROM %s_RESOURCES R, %s_LOGICAL_RESOURCES LR WHERE " +
+                                             "LR.LOGICAL_RESOURCE_ID BETWEEN ? AND ? AND R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID AND R.IS_DELETED <> 'Y' ";
+
+    private static final String SQL_EXPORT_SINCE = "AND R.LAST_UPDATED >= ? ";
+
+    private static final String SQL_EXPORT_ORDER = "ORDER BY LR.LOGICAL_RESOURCE_ID";
+
     private FHIRPersistenceContext context;
     private ReplicationInfo replicationInfo;
     private boolean isRepInfoRequired;
@@ -147,6 +169,52 @@ public class ResourceDAONormalizedImpl extends ResourceDAOBasicImpl implements R
         return resource;
     }
 
+    @Override
+    public Resource readVersionInfo(String logicalId, String resourceType)
+            throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
+        final String METHODNAME = "readVersionInfo";
+        log.entering(CLASSNAME, METHODNAME);
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+        ResultSet resultSet = null;
+        Resource resource = null;
+        long dbCallStartTime;
+        double dbCallDuration;
+
+        try {
+            connection = this.getConnection();
+            stmt = connection.prepareStatement(String.format(SQL_READ_VERSION_INFO, resourceType, resourceType));
+            stmt.setString(1, logicalId);
+            dbCallStartTime = System.nanoTime();
+            resultSet = stmt.executeQuery();
+            if (resultSet.next()) {
+                resource = new Resource();
+                resource.setId(resultSet.getLong(1));
+                resource.setLogicalId(logicalId);
+                resource.setResourceType(resourceType);
+                resource.setVersionId(resultSet.getInt(2));
+                resource.setLastUpdated(resultSet.getTimestamp(3));
+                resource.setDeleted("Y".equals(resultSet.getString(4)));
+            }
+
+            if (log.isLoggable(Level.FINE)) {
+                dbCallDuration = (System.nanoTime()-dbCallStartTime)/1e6;
+                log.fine("DB read version info complete. executionTime=" + dbCallDuration + "ms");
+            }
+        }
+        catch (Throwable e) {
+            final String errMsg = "Failure retrieving the version of the resource.";
+            FHIRPersistenceDataAccessException fx = new FHIRPersistenceDataAccessException(errMsg);
+            throw severe(log, fx, e);
+        }
+        finally {
+            this.cleanup(resultSet, stmt, connection);
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+        return resource;
+    }
+
     @Override
     public Resource versionRead(String logicalId, String resourceType, int versionId)
             throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
@@ -290,6 +358,100 @@ public class ResourceDAONormalizedImpl extends ResourceDAOBasicImpl implements R
         return resources;
     }
 
+    @Override
+    public Stream<Resource> searchStream(SqlQueryData queryData, int fetchSize) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
+        final String METHODNAME = "searchStream(SqlQueryData, int)";
+        log.entering(CLASSNAME, METHODNAME);
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+        ResultSet resultSet = null;
+        String sqlSelect = queryData.getQueryString();
+        Object[] bindVariables = queryData.getBindVariables().toArray();
+        boolean streaming = false;
+
+        try {
+            connection = this.getConnection();
+            stmt = connection.prepareStatement(sqlSelect);
+            for (int i = 0; i < bindVariables.length; i++) {
+                stmt.setObject(i+1, bindVariables[i]);
+            }
+            stmt.setFetchSize(fetchSize);
+            resultSet = stmt.executeQuery();
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Streaming FHIR objects. SQL=" + sqlSelect + "  searchArgs=" + Arrays.toString(bindVariables));
+            }
+
+            // The rows are turned into DTOs only as the stream is consumed, and the statement
+            // is released when the stream is closed.
+            final Connection streamConnection = connection;
+            final PreparedStatement streamStmt = stmt;
+            final ResultSet streamResultSet = resultSet;
+            Stream<Resource> resources = new Streamer().wrap(resultSet, this::createDTO, e -> {
+                FHIRPersistenceDataAccessException fx = new FHIRPersistenceDataAccessException("Failure retrieving FHIR objects");
+                return new FHIRPersistenceStreamException(severe(log, fx, "Failure streaming FHIR objects. SQL=" + sqlSelect, e));
+            }).onClose(() -> this.cleanup(streamResultSet, streamStmt, streamConnection));
+            streaming = true;
+            return resources;
+        }
+        catch (Throwable e) {
+            // avoid leaking SQL because the exception message might be returned to a client
+            FHIRPersistenceDataAccessException fx = new FHIRPersistenceDataAccessException("Failure retrieving FHIR objects");
+            throw severe(log, fx, "Failure retrieving FHIR objects. SQL=" + sqlSelect + "  searchArgs=" + Arrays.toString(bindVariables), e);
+        }
+        finally {
+            if (!streaming) {
+                this.cleanup(resultSet, stmt, connection);
+            }
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+    }
+
+    @Override
+    public long[] readLogicalResourceIdRange(String resourceType) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
+        final String METHODNAME = "readLogicalResourceIdRange";
+        log.entering(CLASSNAME, METHODNAME);
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+        ResultSet resultSet = null;
+        long[] range = null;
+        String stmtString = String.format(SQL_READ_LOGICAL_RESOURCE_ID_RANGE, resourceType);
+
+        try {
+            connection = this.getConnection();
+            stmt = connection.prepareStatement(stmtString);
+            resultSet = stmt.executeQuery();
+            if (resultSet.next() && resultSet.getLong(3) > 0) {
+                range = new long[] { resultSet.getLong(1), resultSet.getLong(2), resultSet.getLong(3) };
+            }
+        }
+        catch (Throwable e) {
+            FHIRPersistenceDataAccessException fx = new FHIRPersistenceDataAccessException("Failure reading the logical resource id range.");
+            throw severe(log, fx, "Failure reading the logical resource id range. SQL=" + stmtString, e);
+        }
+        finally {
+            this.cleanup(resultSet, stmt, connection);
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+        return range;
+    }
+
+    @Override
+    public Stream<Resource> exportStream(String resourceType, long firstId, long lastId, Timestamp since, int fetchSize) 
+            throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
+        List<Object> bindVariables = new ArrayList<>();
+        StringBuilder stmtString = new StringBuilder(String.format(SQL_EXPORT, resourceType, resourceType));
+        bindVariables.add(firstId);
+        bindVariables.add(lastId);
+        if (since != null) {
+            stmtString.append(SQL_EXPORT_SINCE);
+            bindVariables.add(since);
+        }
+        stmtString.append(SQL_EXPORT_ORDER);
+        return this.searchStream(new SqlQueryData(stmtString.toString(), bindVariables), fetchSize);
+    }
+
     @Override
     public int searchCount(SqlQueryData queryData)     throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
         final String METHODNAME = "searchCount(SqlQueryData)";
@@ -610,7 +772,8 @@ public class ResourceDAONormalizedImpl extends ResourceDAOBasicImpl implements R
         if (this.runningInTrx && ResourceTypesCache.isEnabled()) {
             if (this.rtCacheUpdater == null) {
                 // Register a new ResourceTypeCacheUpdater for this thread/trx, if one hasn't been already registered.
-                this.rtCacheUpdater = new ResourceTypesCacheUpdater(ResourceTypesCache.getCacheNameForTenantDatastore(), this.newResourceTypeIds);
+                FHIRRequestContext requestContext = FHIRRequestContext.get();
+                this.rtCacheUpdater = new ResourceTypesCacheUpdater(requestContext.getTenantId(), requestContext.getDataStoreId(), this.newResourceTypeIds);
                 try {
                     trxSynchRegistry.registerInterposedSynchronization(rtCacheUpdater);
                     log.fine("Registered ResourceTypeCacheUpdater.");
@@ -726,14 +889,32 @@ public class ResourceDAONormalizedImpl extends ResourceDAOBasicImpl implements R
 
             resource.setId(stmt.getLong(20));
 
+            // The stored procedure doesn't know about the normalized reference tables, so we
+            // maintain them here. The first version of a resource may be the target of
+            // references which were stored before it existed.
+            ResourceReferenceDAO rrd = new ResourceReferenceDAO(connection, BackgroundDAOFactory.getAdminSchemaName(), true);
+            if (resource.getVersionId() > 1) {
+                rrd.deleteReferences(resource.getResourceType(), resource.getId());
+
+                // Nor about the n-grams used for :contains searches
+                try (PreparedStatement ps = connection.prepareStatement("DELETE FROM str_ngrams WHERE logical_resource_id = ?")) {
+                    ps.setLong(1, resource.getId());
+                    ps.executeUpdate();
+                }
+            }
+            else {
+                rrd.resolvePendingReferences(resourceTypeId, resource.getLogicalId(), resource.getId());
+            }
+
             // Parameter time - enable multitenncy on the DAO.
-            // TODO FHIR_ADMIN schema name needs to come from the configuration/context
             if (parameters != null) {
-                try (ParameterVisitorBatchDAO pvd = new ParameterVisitorBatchDAO(connection, "FHIR_ADMIN", resource.getResourceType(), true, resource.getId(), 100,
-                    new ParameterNameCacheAdapter(parameterDao), new CodeSystemCacheAdapter(parameterDao))) {
+                try (ParameterVisitorBatchDAO pvd = new ParameterVisitorBatchDAO(connection, BackgroundDAOFactory.getAdminSchemaName(), resource.getResourceType(), true, resource.getId(), 100,
+                    new ParameterNameCacheAdapter(parameterDao), new CodeSystemCacheAdapter(parameterDao), new ResourceTypeCacheAdapter(this))) {
                     for (Parameter p: parameters) {
                         p.visit(pvd);
                     }
+                    pvd.selfCompartment(resource.getLogicalId());
+                    resource.setPendingReferencesStored(pvd.isPendingReferencesStored());
                 }
             }
 
@@ -848,6 +1029,7 @@ public class ResourceDAONormalizedImpl extends ResourceDAOBasicImpl implements R
             dbCallDuration = (System.nanoTime()-dbCallStartTime)/1e6;
 
             resource.setId(resourceId);
+            resource.setPendingReferencesStored(derbyResourceDAO.isPendingReferencesStored());
             if (log.isLoggable(Level.FINE)) {
                 log.fine("Successfully inserted Resource. id=" + resource.getId() + " executionTime=" + dbCallDuration + "ms");
             }
@@ -0,0 +1,466 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.dao.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.parser.FHIRParser;
+import com.ibm.watson.health.fhir.model.path.FHIRPathNode;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.resource.SearchParameter;
+import com.ibm.watson.health.fhir.model.type.SearchParamType;
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
+import com.ibm.watson.health.fhir.persistence.jdbc.dto.IParameterVisitor;
+import com.ibm.watson.health.fhir.persistence.jdbc.dto.Parameter;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.CompartmentMembershipUtil;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.JDBCParameterBuilder;
+import com.ibm.watson.health.fhir.search.SearchConstants.Type;
+import com.ibm.watson.health.fhir.search.util.SearchUtil;
+
+/**
+ * Maintains the normalized reference tables (<RESOURCE_TYPE>_REF_VALUES) outside of the
+ * parameter visitor. A reference is stored with the logical_resource_id of its target, which
+ * isn't known until the target is created. References to targets which don't exist yet are
+ * parked in PENDING_REFERENCES by the {@link ParameterVisitorBatchDAO} and moved into the
+ * REF_VALUES table of the referring resource type here, in the same transaction which
+ * creates the target. References whose referring and target resources are written by
+ * concurrent transactions are resolved after the referring transaction has committed, by the
+ * {@link com.ibm.watson.health.fhir.persistence.jdbc.util.PendingReferenceResolver}.
+ * The COMPARTMENT_MEMBERS table, which is derived from the references, can be rebuilt from
+ * the stored resources by {@link #rebuildCompartmentMembers(String)}.
+ */
+public class ResourceReferenceDAO {
+    private static final Logger logger = Logger.getLogger(ResourceReferenceDAO.class.getName());
+
+    private final Connection connection;
+
+    // Schema holding the tenant session variable when multitenant
+    private final String adminSchemaName;
+
+    // True if the tables include the MT_ID column
+    private final boolean multitenant;
+
+    /**
+     * Public constructor
+     * @param c
+     * @param adminSchemaName
+     * @param multitenant
+     */
+    public ResourceReferenceDAO(Connection c, String adminSchemaName, boolean multitenant) {
+        this.connection = c;
+        this.adminSchemaName = adminSchemaName;
+        this.multitenant = multitenant;
+    }
+
+    /**
+     * Delete the references held for the given logical resource, which is about to
+     * get a new set of parameters. Compartment membership is derived from the references,
+     * so it goes too
+     * @param tablePrefix the resource type of the referring resource
+     * @param logicalResourceId the referring logical resource
+     * @throws SQLException
+     */
+    public void deleteReferences(String tablePrefix, long logicalResourceId) throws SQLException {
+        final String delRefs = "DELETE FROM " + tablePrefix + "_ref_values WHERE logical_resource_id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(delRefs)) {
+            stmt.setLong(1, logicalResourceId);
+            stmt.executeUpdate();
+        }
+
+        final String delPending = "DELETE FROM pending_references WHERE logical_resource_id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(delPending)) {
+            stmt.setLong(1, logicalResourceId);
+            stmt.executeUpdate();
+        }
+
+        final String delCompartments = "DELETE FROM compartment_members WHERE logical_resource_id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(delCompartments)) {
+            stmt.setLong(1, logicalResourceId);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Resolve any references waiting for the newly created logical resource identified
+     * by resourceTypeId and logicalId.
+     * @param resourceTypeId the resource type of the new resource
+     * @param logicalId the logical id of the new resource
+     * @param logicalResourceId the id allocated to the new resource
+     * @return the number of references resolved
+     * @throws SQLException
+     */
+    public int resolvePendingReferences(int resourceTypeId, String logicalId, long logicalResourceId) throws SQLException {
+        final String select = "SELECT rt.resource_type, pr.parameter_name_id, pr.logical_resource_id "
+                + "  FROM pending_references pr "
+                + "  JOIN resource_types rt ON rt.resource_type_id = pr.resource_type_id "
+                + " WHERE pr.ref_resource_type_id = ? "
+                + "   AND pr.ref_logical_id = ?";
+        List<PendingReference> refs = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(select)) {
+            stmt.setInt(1, resourceTypeId);
+            stmt.setString(2, logicalId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                refs.add(new PendingReference(rs.getString(1), rs.getInt(2), rs.getLong(3), resourceTypeId, logicalId, logicalResourceId));
+            }
+        }
+
+        int count = moveToRefValues(refs);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Resolved " + count + " pending references to logical_resource_id=" + logicalResourceId);
+        }
+        return count;
+    }
+
+    /**
+     * Resolve the pending references to and from a resource written by a transaction which
+     * has since committed. A reference is parked when its target isn't visible to the
+     * referring transaction, and is only resolved in the transaction creating the target if
+     * that transaction can see the parked row. When both transactions run concurrently,
+     * neither sees the other's rows, so whichever commits last resolves them here.
+     * @param resourceType the resource type of the written resource
+     * @param logicalId the logical id of the written resource
+     * @return the number of references resolved
+     * @throws SQLException
+     */
+    public int resolveCommittedReferences(String resourceType, String logicalId) throws SQLException {
+        int resourceTypeId = 0;
+        long logicalResourceId = 0;
+        final String lookup = "SELECT lr.resource_type_id, lr.logical_resource_id "
+                + "  FROM logical_resources lr "
+                + "  JOIN resource_types rt ON rt.resource_type_id = lr.resource_type_id "
+                + " WHERE rt.resource_type = ? "
+                + "   AND lr.logical_id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(lookup)) {
+            stmt.setString(1, resourceType);
+            stmt.setString(2, logicalId);
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next()) {
+                return 0;
+            }
+            resourceTypeId = rs.getInt(1);
+            logicalResourceId = rs.getLong(2);
+        }
+
+        // References to the resource...
+        int count = resolvePendingReferences(resourceTypeId, logicalId, logicalResourceId);
+
+        // ...and references from the resource to targets which exist by now
+        final String select = "SELECT pr.parameter_name_id, pr.ref_resource_type_id, pr.ref_logical_id, lr.logical_resource_id "
+                + "  FROM pending_references pr "
+                + "  JOIN logical_resources lr ON lr.resource_type_id = pr.ref_resource_type_id AND lr.logical_id = pr.ref_logical_id "
+                + " WHERE pr.logical_resource_id = ?";
+        List<PendingReference> refs = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(select)) {
+            stmt.setLong(1, logicalResourceId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                refs.add(new PendingReference(resourceType, rs.getInt(1), logicalResourceId, rs.getInt(2), rs.getString(3), rs.getLong(4)));
+            }
+        }
+        count += moveToRefValues(refs);
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Resolved " + count + " pending references to and from " + resourceType + "/" + logicalId);
+        }
+        return count;
+    }
+
+    /**
+     * Does the given resource still have references parked in PENDING_REFERENCES
+     * @param resourceType the resource type of the referring resource
+     * @param logicalId the logical id of the referring resource
+     * @return
+     * @throws SQLException
+     */
+    public boolean hasPendingReferences(String resourceType, String logicalId) throws SQLException {
+        final String select = "SELECT pr.logical_resource_id "
+                + "  FROM pending_references pr "
+                + "  JOIN logical_resources lr ON lr.logical_resource_id = pr.logical_resource_id "
+                + "  JOIN resource_types rt ON rt.resource_type_id = lr.resource_type_id "
+                + " WHERE rt.resource_type = ? "
+                + "   AND lr.logical_id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(select)) {
+            stmt.setString(1, resourceType);
+            stmt.setString(2, logicalId);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next();
+        }
+    }
+
+    /**
+     * Rebuild the compartment membership of all the resources of the given type from their
+     * current version. Databases created before the COMPARTMENT_MEMBERS table was introduced
+     * need this to be run once per resource type, as compartment searches only look at the
+     * table. Deleted resources are removed from their compartments.
+     * @param resourceType
+     * @return the number of resources whose membership was rebuilt
+     * @throws SQLException
+     */
+    public int rebuildCompartmentMembers(String resourceType) throws SQLException {
+        final String select = "SELECT lr.logical_resource_id, lr.logical_id, r.is_deleted, r.data "
+                + "  FROM " + resourceType + "_logical_resources lr "
+                + "  JOIN " + resourceType + "_resources r ON r.resource_id = lr.current_resource_id";
+        final String delete = "DELETE FROM compartment_members WHERE logical_resource_id = ?";
+        final String insert = multitenant ?
+                "INSERT INTO compartment_members (mt_id, compartment_type_id, compartment_logical_id, resource_type_id, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?)"
+                : "INSERT INTO compartment_members (compartment_type_id, compartment_logical_id, resource_type_id, logical_resource_id) VALUES (?,?,?,?)";
+        Map<String, Integer> resourceTypeIds = new HashMap<>();
+        int count = 0;
+        try (PreparedStatement stmt = connection.prepareStatement(select);
+                PreparedStatement deleteStmt = connection.prepareStatement(delete);
+                PreparedStatement insertStmt = connection.prepareStatement(insert)) {
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                long logicalResourceId = rs.getLong(1);
+                String logicalId = rs.getString(2);
+                Set<String> compartments;
+                if ("Y".equals(rs.getString(3))) {
+                    compartments = new LinkedHashSet<>();
+                } else {
+                    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(rs.getBytes(4)))) {
+                        compartments = extractCompartments(FHIRParser.parser(Format.JSON).parse(in));
+                    } catch (Exception x) {
+                        logger.log(Level.WARNING, "Unable to read the compartments of " + resourceType + " logical_resource_id=" + logicalResourceId, x);
+                        continue;
+                    }
+                    if (CompartmentMembershipUtil.getCompartments(resourceType, CompartmentMembershipUtil.SELF_CRITERION).contains(resourceType)) {
+                        compartments.add(resourceType + "/" + logicalId);
+                    }
+                }
+
+                deleteStmt.setLong(1, logicalResourceId);
+                deleteStmt.executeUpdate();
+                for (String compartment: compartments) {
+                    int slash = compartment.indexOf('/');
+                    Integer compartmentTypeId = readResourceTypeId(resourceTypeIds, compartment.substring(0, slash));
+                    Integer resourceTypeId = readResourceTypeId(resourceTypeIds, resourceType);
+                    if (compartmentTypeId == null || resourceTypeId == null) {
+                        // no resource of the compartment type has ever been stored
+                        continue;
+                    }
+                    insertStmt.setInt(1, compartmentTypeId);
+                    insertStmt.setString(2, compartment.substring(slash + 1));
+                    insertStmt.setInt(3, resourceTypeId);
+                    insertStmt.setLong(4, logicalResourceId);
+                    insertStmt.addBatch();
+                }
+                insertStmt.executeBatch();
+                count++;
+            }
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Rebuilt the compartment membership of " + count + " " + resourceType + " resources");
+        }
+        return count;
+    }
+
+    /**
+     * Get the compartments the references of the resource place it in, using the same
+     * parameter extraction as the write path
+     * @param resource
+     * @return the compartments, as relative references (compartment-type/compartment-id)
+     * @throws Exception if the search parameter values can't be extracted from the resource
+     */
+    private Set<String> extractCompartments(Resource resource) throws Exception {
+        final String resourceType = resource.getClass().getSimpleName();
+        final Set<String> result = new LinkedHashSet<>();
+        CompartmentVisitor visitor = new CompartmentVisitor(resourceType, result);
+        JDBCParameterBuilder processor = new JDBCParameterBuilder();
+        for (Map.Entry<SearchParameter, List<FHIRPathNode>> entry: SearchUtil.extractParameterValues(resource).entrySet()) {
+            if (!SearchParamType.REFERENCE.equals(entry.getKey().getType())) {
+                continue;
+            }
+            for (FHIRPathNode value: entry.getValue()) {
+                for (Parameter p: processor.process(entry.getKey(), value)) {
+                    p.setType(Type.REFERENCE);
+                    p.setResourceType(resourceType);
+                    p.visit(visitor);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Look up the id of the given resource type
+     * @param cache the ids already looked up
+     * @param resourceType
+     * @return the id, or null if the resource type isn't in RESOURCE_TYPES
+     * @throws SQLException
+     */
+    private Integer readResourceTypeId(Map<String, Integer> cache, String resourceType) throws SQLException {
+        if (cache.containsKey(resourceType)) {
+            return cache.get(resourceType);
+        }
+        Integer result = null;
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT resource_type_id FROM resource_types WHERE resource_type = ?")) {
+            stmt.setString(1, resourceType);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                result = rs.getInt(1);
+            }
+        }
+        cache.put(resourceType, result);
+        return result;
+    }
+
+    /**
+     * Move the given pending references into the REF_VALUES tables of the referring resource
+     * types. Each reference is only moved by the transaction which deletes its pending row,
+     * so concurrent resolutions of the same reference don't store it twice.
+     * @param refs
+     * @return the number of references moved
+     * @throws SQLException
+     */
+    private int moveToRefValues(List<PendingReference> refs) throws SQLException {
+        if (refs.isEmpty()) {
+            return 0;
+        }
+
+        final String delete = "DELETE FROM pending_references "
+                + " WHERE ref_resource_type_id = ? AND ref_logical_id = ? AND parameter_name_id = ? AND logical_resource_id = ?";
+        Map<String, PreparedStatement> inserts = new HashMap<>();
+        int count = 0;
+        try (PreparedStatement deleteStmt = connection.prepareStatement(delete)) {
+            for (PendingReference ref: refs) {
+                deleteStmt.setInt(1, ref.refResourceTypeId);
+                deleteStmt.setString(2, ref.refLogicalId);
+                deleteStmt.setInt(3, ref.parameterNameId);
+                deleteStmt.setLong(4, ref.logicalResourceId);
+                // the same reference can be held more than once, in which case the first delete takes all of them
+                int deleted = deleteStmt.executeUpdate();
+                if (deleted == 0) {
+                    continue;
+                }
+
+                PreparedStatement insertStmt = inserts.get(ref.tablePrefix);
+                if (insertStmt == null) {
+                    final String insert = multitenant ?
+                            "INSERT INTO " + ref.tablePrefix + "_ref_values (mt_id, parameter_name_id, ref_resource_type_id, ref_logical_resource_id, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?)"
+                            : "INSERT INTO " + ref.tablePrefix + "_ref_values (parameter_name_id, ref_resource_type_id, ref_logical_resource_id, logical_resource_id) VALUES (?,?,?,?)";
+                    insertStmt = connection.prepareStatement(insert);
+                    inserts.put(ref.tablePrefix, insertStmt);
+                }
+                for (int i = 0; i < deleted; i++) {
+                    insertStmt.setInt(1, ref.parameterNameId);
+                    insertStmt.setInt(2, ref.refResourceTypeId);
+                    insertStmt.setLong(3, ref.refLogicalResourceId);
+                    insertStmt.setLong(4, ref.logicalResourceId);
+                    insertStmt.addBatch();
+                    count++;
+                }
+            }
+            for (PreparedStatement insertStmt: inserts.values()) {
+                insertStmt.executeBatch();
+            }
+        }
+        finally {
+            for (PreparedStatement insertStmt: inserts.values()) {
+                insertStmt.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Collects the compartments a resource is placed in by its reference values, the same
+     * way the {@link ParameterVisitorBatchDAO} does when the resource is stored
+     */
+    private static class CompartmentVisitor implements IParameterVisitor {
+        private final String resourceType;
+        private final Set<String> compartments;
+
+        private CompartmentVisitor(String resourceType, Set<String> compartments) {
+            this.resourceType = resourceType;
+            this.compartments = compartments;
+        }
+
+        @Override
+        public void referenceValue(String parameterName, String refResourceType, String refLogicalId) throws FHIRPersistenceException {
+            if (CompartmentMembershipUtil.getCompartments(resourceType, parameterName).contains(refResourceType)) {
+                compartments.add(refResourceType + "/" + refLogicalId);
+            }
+        }
+
+        @Override
+        public void stringValue(String parameterName, String value, boolean isBase, Integer compositeId) {
+            // NOP
+        }
+
+        @Override
+        public void substringValue(String parameterName, String value) {
+            // NOP
+        }
+
+        @Override
+        public void numberValue(String parameterName, BigDecimal value, BigDecimal valueLow, BigDecimal valueHigh, Integer compositeId) {
+            // NOP
+        }
+
+        @Override
+        public void dateValue(String parameterName, Timestamp date, Timestamp dateStart, Timestamp dateEnd, boolean isBase, Integer compositeId) {
+            // NOP
+        }
+
+        @Override
+        public void tokenValue(String parameterName, String codeSystem, String tokenValue, boolean isBase, Integer compositeId) {
+            // NOP
+        }
+
+        @Override
+        public void quantityValue(String parameterName, String code, String codeSystem, BigDecimal quantityValue, BigDecimal quantityLow,
+            BigDecimal quantityHigh, Integer compositeId) {
+            // NOP
+        }
+
+        @Override
+        public void locationValue(String parameterName, double lat, double lng) {
+            // NOP
+        }
+    }
+
+    /**
+     * A row of PENDING_REFERENCES along with the logical_resource_id of its target
+     */
+    private static class PendingReference {
+        private final String tablePrefix;
+        private final int parameterNameId;
+        private final long logicalResourceId;
+        private final int refResourceTypeId;
+        private final String refLogicalId;
+        private final long refLogicalResourceId;
+
+        private PendingReference(String tablePrefix, int parameterNameId, long logicalResourceId, int refResourceTypeId, String refLogicalId,
+            long refLogicalResourceId) {
+            this.tablePrefix = tablePrefix;
+            this.parameterNameId = parameterNameId;
+            this.logicalResourceId = logicalResourceId;
+            this.refResourceTypeId = refResourceTypeId;
+            this.refLogicalId = refLogicalId;
+            this.refLogicalResourceId = refLogicalResourceId;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.dao.impl;
+
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.IResourceTypeCache;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.ResourceNormalizedDAO;
+import com.ibm.watson.health.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.ResourceTypesCache;
+
+/**
+ * Adapter to provide access to the cached resource type ids managed
+ * by the {@link ResourceNormalizedDAO} implementation. The resource_types
+ * table is populated when the schema is deployed, so we never add to it here.
+ */
+public class ResourceTypeCacheAdapter implements IResourceTypeCache {
+
+    private final ResourceNormalizedDAO delegate;
+
+    public ResourceTypeCacheAdapter(ResourceNormalizedDAO delegate) {
+        this.delegate = delegate;
+    }
+
+    /* (non-Javadoc)
+     * @see com.ibm.watson.health.fhir.persistence.jdbc.dao.api.IResourceTypeCache#readOrAddResourceTypeId(java.lang.String)
+     */
+    @Override
+    public int readOrAddResourceTypeId(String resourceType) throws FHIRPersistenceException {
+        Integer result = ResourceTypesCache.getResourceTypeId(resourceType);
+        if (result == null) {
+            result = delegate.readResourceTypeId(resourceType);
+            if (result == null) {
+                throw new FHIRPersistenceDataAccessException("Resource type not found: " + resourceType);
+            }
+            delegate.addResourceTypeCacheCandidate(resourceType, result);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,226 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.dao.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.parser.FHIRParser;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.IParameterNameCache;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.TextIndexUtil;
+
+/**
+ * Maintains the full-text index (the TEXT_TERMS table). The index isn't written with the
+ * resource; the terms of a resource are replaced after it has been stored, see
+ * {@link com.ibm.watson.health.fhir.persistence.jdbc.util.TextIndexer}, or for all the
+ * resources of a type at once by {@link #rebuild(String)}.
+ */
+public class TextIndexDAO {
+    private static final Logger logger = Logger.getLogger(TextIndexDAO.class.getName());
+
+    private final Connection connection;
+
+    // Schema holding the tenant session variable when multitenant
+    private final String adminSchemaName;
+
+    // True if the tables include the MT_ID column
+    private final boolean multitenant;
+
+    // For looking up parameter name ids
+    private final IParameterNameCache parameterNameCache;
+
+    /**
+     * Public constructor
+     * @param c
+     * @param adminSchemaName
+     * @param multitenant
+     * @param pnc
+     */
+    public TextIndexDAO(Connection c, String adminSchemaName, boolean multitenant, IParameterNameCache pnc) {
+        this.connection = c;
+        this.adminSchemaName = adminSchemaName;
+        this.multitenant = multitenant;
+        this.parameterNameCache = pnc;
+    }
+
+    /**
+     * Replace the indexed terms of the current version of the given resource. Does
+     * nothing if the resource doesn't exist (e.g. its transaction isn't visible yet), or
+     * if it is older than the current version, which is indexed when it is offered itself.
+     * @param resource
+     * @return true if the resource was found
+     * @throws Exception if the terms can't be extracted from the resource, or written
+     */
+    public boolean index(Resource resource) throws Exception {
+        String resourceType = resource.getClass().getSimpleName();
+        Long logicalResourceId = readLogicalResourceId(resourceType, resource.getId().getValue());
+        if (logicalResourceId == null) {
+            return false;
+        }
+        Integer versionId = TextIndexUtil.getVersionId(resource);
+        if (versionId != null && versionId < readCurrentVersionId(resourceType, logicalResourceId)) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Not indexing " + resourceType + "/" + resource.getId().getValue() + " version " + versionId
+                        + ", which has been replaced");
+            }
+            return true;
+        }
+        replaceTerms(logicalResourceId, TextIndexUtil.extractTerms(resource));
+        return true;
+    }
+
+    /**
+     * Remove the given resource from the index
+     * @param resourceType
+     * @param logicalId
+     * @return true if the resource was found
+     * @throws SQLException
+     */
+    public boolean delete(String resourceType, String logicalId) throws SQLException {
+        Long logicalResourceId = readLogicalResourceId(resourceType, logicalId);
+        if (logicalResourceId == null) {
+            return false;
+        }
+        deleteTerms(logicalResourceId);
+        return true;
+    }
+
+    /**
+     * Re-index the current version of every resource of the given type, from the data
+     * held in the resource table. Resources which can't be read are logged and skipped.
+     * @param resourceType
+     * @return the number of resources indexed
+     * @throws SQLException
+     * @throws FHIRPersistenceException
+     */
+    public int rebuild(String resourceType) throws SQLException, FHIRPersistenceException {
+        final String select = "SELECT lr.logical_resource_id, r.is_deleted, r.data "
+                + "  FROM " + resourceType + "_logical_resources lr "
+                + "  JOIN " + resourceType + "_resources r ON r.resource_id = lr.current_resource_id";
+        int count = 0;
+        try (PreparedStatement stmt = connection.prepareStatement(select)) {
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                long logicalResourceId = rs.getLong(1);
+                if ("Y".equals(rs.getString(2))) {
+                    deleteTerms(logicalResourceId);
+                    continue;
+                }
+                Map<String, Set<String>> terms;
+                try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(rs.getBytes(3)))) {
+                    terms = TextIndexUtil.extractTerms(FHIRParser.parser(Format.JSON).parse(in));
+                } catch (Exception x) {
+                    logger.log(Level.WARNING, "Unable to index " + resourceType + " logical_resource_id=" + logicalResourceId, x);
+                    continue;
+                }
+                replaceTerms(logicalResourceId, terms);
+                count++;
+            }
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Rebuilt the text index of " + count + " " + resourceType + " resources");
+        }
+        return count;
+    }
+
+    /**
+     * Look up the logical_resource_id of the given resource
+     * @param resourceType
+     * @param logicalId
+     * @return the id, or null if the resource doesn't exist
+     * @throws SQLException
+     */
+    protected Long readLogicalResourceId(String resourceType, String logicalId) throws SQLException {
+        final String select = "SELECT lr.logical_resource_id "
+                + "  FROM logical_resources lr "
+                + "  JOIN resource_types rt ON rt.resource_type_id = lr.resource_type_id "
+                + " WHERE rt.resource_type = ? "
+                + "   AND lr.logical_id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(select)) {
+            stmt.setString(1, resourceType);
+            stmt.setString(2, logicalId);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getLong(1) : null;
+        }
+    }
+
+    /**
+     * Read the version_id of the current version of the given logical resource
+     * @param resourceType
+     * @param logicalResourceId
+     * @return the version id, or 0 if the logical resource has no current version
+     * @throws SQLException
+     */
+    protected int readCurrentVersionId(String resourceType, long logicalResourceId) throws SQLException {
+        final String select = "SELECT r.version_id "
+                + "  FROM " + resourceType + "_logical_resources lr "
+                + "  JOIN " + resourceType + "_resources r ON r.resource_id = lr.current_resource_id "
+                + " WHERE lr.logical_resource_id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(select)) {
+            stmt.setLong(1, logicalResourceId);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Replace the indexed terms of the logical resource
+     * @param logicalResourceId
+     * @param terms the terms, keyed by the parameter name they are indexed under
+     * @throws SQLException
+     * @throws FHIRPersistenceException
+     */
+    protected void replaceTerms(long logicalResourceId, Map<String, Set<String>> terms) throws SQLException, FHIRPersistenceException {
+        deleteTerms(logicalResourceId);
+
+        final String insert = multitenant ?
+                "INSERT INTO text_terms (mt_id, parameter_name_id, term, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?)"
+                : "INSERT INTO text_terms (parameter_name_id, term, logical_resource_id) VALUES (?,?,?)";
+        try (PreparedStatement stmt = connection.prepareStatement(insert)) {
+            int count = 0;
+            for (Map.Entry<String, Set<String>> entry: terms.entrySet()) {
+                int parameterNameId = parameterNameCache.readOrAddParameterNameId(entry.getKey());
+                for (String term: entry.getValue()) {
+                    stmt.setInt(1, parameterNameId);
+                    stmt.setString(2, term);
+                    stmt.setLong(3, logicalResourceId);
+                    stmt.addBatch();
+                    count++;
+                }
+            }
+            if (count > 0) {
+                stmt.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Delete the indexed terms of the logical resource
+     * @param logicalResourceId
+     * @throws SQLException
+     */
+    protected void deleteTerms(long logicalResourceId) throws SQLException {
+        final String delete = "DELETE FROM text_terms WHERE logical_resource_id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(delete)) {
+            stmt.setLong(1, logicalResourceId);
+            stmt.executeUpdate();
+        }
+    }
+}
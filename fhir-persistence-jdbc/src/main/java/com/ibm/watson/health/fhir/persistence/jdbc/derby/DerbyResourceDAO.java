@@ -19,6 +19,7 @@ import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.CodeSystemDAO;
 import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.FhirRefSequenceDAO;
 import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.ParameterNameDAO;
 import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ParameterVisitorBatchDAO;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ResourceReferenceDAO;
 import com.ibm.watson.health.fhir.persistence.jdbc.dto.Parameter;
 
 /**
@@ -51,6 +52,9 @@ public class DerbyResourceDAO {
     
     private final Connection conn;
 
+    // True if the last resource stored parked any of its references in PENDING_REFERENCES
+    private boolean pendingReferencesStored;
+
     /**
      * public constructor
      * @param connection the database connection
@@ -112,6 +116,7 @@ public class DerbyResourceDAO {
 
         final String METHODNAME = "storeResource() for " + tablePrefix + " resource";
         logger.entering(CLASSNAME, METHODNAME);
+        pendingReferencesStored = false;
 
         Long v_logical_resource_id = null;
         Long v_current_resource_id = null;
@@ -213,6 +218,10 @@ public class DerbyResourceDAO {
                     stmt.setString(2, p_logical_id);
                     stmt.executeUpdate();
                 }
+
+                // Now that the target exists, resolve any references which were waiting for it
+                ResourceReferenceDAO rrd = new ResourceReferenceDAO(conn, null, false);
+                rrd.resolvePendingReferences(v_resource_type_id, p_logical_id, v_logical_resource_id);
             }
         }
 
@@ -278,6 +287,10 @@ public class DerbyResourceDAO {
                 deleteFromParameterTable(conn, tablePrefix + "_latlng_values", v_logical_resource_id);
                 deleteFromParameterTable(conn, tablePrefix + "_token_values", v_logical_resource_id);
                 deleteFromParameterTable(conn, tablePrefix + "_quantity_values", v_logical_resource_id);
+                deleteFromParameterTable(conn, tablePrefix + "_ref_values", v_logical_resource_id);
+                deleteFromParameterTable(conn, "pending_references", v_logical_resource_id);
+                deleteFromParameterTable(conn, "compartment_members", v_logical_resource_id);
+                deleteFromParameterTable(conn, "str_ngrams", v_logical_resource_id);
             }
         }
         
@@ -355,16 +368,26 @@ public class DerbyResourceDAO {
             if (parameters != null) {
                 // Derby doesn't support partitioned multi-tenancy, so we disable it on the DAO:
                 try (ParameterVisitorBatchDAO pvd = new ParameterVisitorBatchDAO(conn, null, tablePrefix, false, v_logical_resource_id, 100, 
-                    new ParameterNameCacheAdapter(parameterNameDAO), new CodeSystemCacheAdapter(codeSystemDAO))) {
+                    new ParameterNameCacheAdapter(parameterNameDAO), new CodeSystemCacheAdapter(codeSystemDAO), new ResourceTypeCacheAdapter(this))) {
                     for (Parameter p: parameters) {
                         p.visit(pvd);
                     }
+                    pvd.selfCompartment(p_logical_id);
+                    pendingReferencesStored = pvd.isPendingReferencesStored();
                 }
             }
         }
         logger.exiting(CLASSNAME, METHODNAME);
         return v_resource_id;
     }
+
+    /**
+     * @return true if the last resource stored by {@link #storeResource} parked any of its
+     *     references in PENDING_REFERENCES, because their target wasn't visible
+     */
+    public boolean isPendingReferencesStored() {
+        return pendingReferencesStored;
+    }
     
 
     /**
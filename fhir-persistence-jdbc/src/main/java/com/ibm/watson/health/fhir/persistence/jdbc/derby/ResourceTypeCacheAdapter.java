@@ -0,0 +1,38 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.derby;
+
+import java.sql.SQLException;
+
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.IResourceTypeCache;
+import com.ibm.watson.health.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
+
+/**
+ * Resource type lookup for Derby, where resource types are created on demand
+ */
+public class ResourceTypeCacheAdapter implements IResourceTypeCache {
+    private final DerbyResourceDAO delegate;
+
+    public ResourceTypeCacheAdapter(DerbyResourceDAO delegate) {
+        this.delegate = delegate;
+    }
+
+    /* (non-Javadoc)
+     * @see com.ibm.watson.health.fhir.persistence.jdbc.dao.api.IResourceTypeCache#readOrAddResourceTypeId(java.lang.String)
+     */
+    @Override
+    public int readOrAddResourceTypeId(String resourceType) throws FHIRPersistenceException {
+        try {
+            return delegate.getOrCreateResourceType(resourceType);
+        }
+        catch (SQLException x) {
+            throw new FHIRPersistenceDataAccessException("Resource type lookup failed: " + resourceType, x);
+        }
+    }
+
+}
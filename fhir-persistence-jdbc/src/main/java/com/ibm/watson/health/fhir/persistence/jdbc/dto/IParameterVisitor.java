@@ -21,9 +21,30 @@ public interface IParameterVisitor {
      * Process a string parameter value
      * @param parameterName
      * @param value
+     * @param isBase
+     * @param compositeId the id of the composite value this is a component of, or null
      * @throws SQLException
      */
-    void stringValue(String parameterName, String value, boolean isBase) throws FHIRPersistenceException;
+    void stringValue(String parameterName, String value, boolean isBase, Integer compositeId) throws FHIRPersistenceException;
+
+    /**
+     * Process a string parameter value for substring (:contains) search. This is called in
+     * addition to {@link #stringValue(String, String, boolean, Integer)} for string parameters
+     * @param parameterName
+     * @param value
+     * @throws FHIRPersistenceException
+     */
+    void substringValue(String parameterName, String value) throws FHIRPersistenceException;
+
+    /**
+     * Process the target of a relative reference parameter value. This is called in
+     * addition to {@link #stringValue(String, String, boolean, Integer)} for the same parameter
+     * @param parameterName
+     * @param refResourceType the resource type of the reference target
+     * @param refLogicalId the logical id of the reference target
+     * @throws FHIRPersistenceException
+     */
+    void referenceValue(String parameterName, String refResourceType, String refLogicalId) throws FHIRPersistenceException;
 
     /**
      * Process a number parameter value
@@ -31,9 +52,10 @@ public interface IParameterVisitor {
      * @param value
      * @param valueLow
      * @param valueHigh
+     * @param compositeId the id of the composite value this is a component of, or null
      * @throws SQLException
      */
-    void numberValue(String parameterName, BigDecimal value, BigDecimal valueLow, BigDecimal valueHigh) throws FHIRPersistenceException;
+    void numberValue(String parameterName, BigDecimal value, BigDecimal valueLow, BigDecimal valueHigh, Integer compositeId) throws FHIRPersistenceException;
 
     /**
      * Process a date parameter value
@@ -41,18 +63,22 @@ public interface IParameterVisitor {
      * @param date
      * @param dateStart
      * @param dateEnd
+     * @param isBase
+     * @param compositeId the id of the composite value this is a component of, or null
      * @throws SQLException
      */
-    void dateValue(String parameterName, java.sql.Timestamp date, java.sql.Timestamp dateStart, java.sql.Timestamp dateEnd, boolean isBase) throws FHIRPersistenceException;
+    void dateValue(String parameterName, java.sql.Timestamp date, java.sql.Timestamp dateStart, java.sql.Timestamp dateEnd, boolean isBase, Integer compositeId) throws FHIRPersistenceException;
 
     /**
      * Process a token parameter value
      * @param parameterName
      * @param codeSystem
      * @param tokenValue
+     * @param isBase
+     * @param compositeId the id of the composite value this is a component of, or null
      * @throws SQLException
      */
-    void tokenValue(String parameterName, String codeSystem, String tokenValue, boolean isBase) throws FHIRPersistenceException;
+    void tokenValue(String parameterName, String codeSystem, String tokenValue, boolean isBase, Integer compositeId) throws FHIRPersistenceException;
 
     /**
      * Process a quantity parameter value
@@ -62,9 +88,10 @@ public interface IParameterVisitor {
      * @param quantityValue
      * @param quantityLow
      * @param quantityHigh
+     * @param compositeId the id of the composite value this is a component of, or null
      * @throws SQLException
      */
-    void quantityValue(String parameterName, String code, String codeSystem, BigDecimal quantityValue, BigDecimal quantityLow, BigDecimal quantityHigh) throws FHIRPersistenceException;
+    void quantityValue(String parameterName, String code, String codeSystem, BigDecimal quantityValue, BigDecimal quantityLow, BigDecimal quantityHigh, Integer compositeId) throws FHIRPersistenceException;
 
     /**
      * Process a location parameter value
@@ -8,7 +8,10 @@ package com.ibm.watson.health.fhir.persistence.jdbc.dto;
 
 import java.math.BigDecimal;
 import java.sql.Timestamp;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import com.ibm.watson.health.fhir.model.util.ModelSupport;
 import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
 import com.ibm.watson.health.fhir.search.SearchConstants.Type;
 
@@ -39,10 +42,17 @@ public class Parameter {
     
     // The SearchParameter base type. If "Resource", then this is a Resource-level attribute
     private String base;
+
+    // Set when this is the value of a component of a composite parameter. The components
+    // of the same composite value share the id, which is unique within the logical resource
+    private Integer compositeId;
     
     // We need to provide a default value for the token-system as the schema
     // column is not null (simplifying queries)
     public static final String DEFAULT_TOKEN_SYSTEM = "default-token-system";
+
+    // A relative reference "Type/id" with an optional "/_history/vid" suffix
+    private static final Pattern RELATIVE_REFERENCE = Pattern.compile("([A-Z][A-Za-z]+)/([A-Za-z0-9\\-\\.]{1,64})(/_history/[^/]+)?");
     
     public enum TimeType{
         YEAR,
@@ -191,38 +201,56 @@ public class Parameter {
      * @param visitor
      */
     public void visit(IParameterVisitor visitor) throws FHIRPersistenceException {
-        
         // Search parameters _id, _lastUpdated, _tag, _profile, _security
-        // are stored at the system level.
-        boolean baseLevel = "Resource".equals(this.base);
-        
+        // are stored at the system level. Composite components are always
+        // stored with the resource type.
+        boolean baseLevel = "Resource".equals(this.base) && this.compositeId == null;
         switch (this.type) {
         case STRING:
-            visitor.stringValue(name, valueString, baseLevel);
+            visitor.stringValue(name, valueString, baseLevel, compositeId);
+            if (valueString != null && compositeId == null) {
+                visitor.substringValue(name, valueString);
+            }
             break;
         case NUMBER:
-            visitor.numberValue(name, this.valueNumber, this.valueNumberLow, this.valueNumberHigh);
+            visitor.numberValue(name, this.valueNumber, this.valueNumberLow, this.valueNumberHigh, compositeId);
             break;
         case DATE:
-            visitor.dateValue(name, this.valueDate, this.valueDateStart, this.valueDateEnd, baseLevel);
+            visitor.dateValue(name, this.valueDate, this.valueDateStart, this.valueDateEnd, baseLevel, compositeId);
             break;
         case TOKEN:
             if (valueSystem == null || valueSystem.isEmpty()) {
                 valueSystem = DEFAULT_TOKEN_SYSTEM;
             }
-            visitor.tokenValue(name, this.valueSystem, this.valueCode, baseLevel);
+            visitor.tokenValue(name, this.valueSystem, this.valueCode, baseLevel, compositeId);
             break;
         case QUANTITY:
             if (valueSystem == null || valueSystem.isEmpty()) {
                 valueSystem = DEFAULT_TOKEN_SYSTEM;
             }
-            visitor.quantityValue(name, this.valueCode, this.valueSystem, this.valueNumber, this.valueNumberLow, this.valueNumberHigh);
+            visitor.quantityValue(name, this.valueCode, this.valueSystem, this.valueNumber, this.valueNumberLow, this.valueNumberHigh, compositeId);
             break;
         case REFERENCE:
-            visitor.stringValue(name, this.valueString, baseLevel);
+            visitor.stringValue(name, this.valueString, baseLevel, compositeId);
+            if (!baseLevel && this.valueString != null && compositeId == null) {
+                // Relative references are also stored with a normalized (integer) target
+                Matcher m = RELATIVE_REFERENCE.matcher(this.valueString);
+                if (m.matches() && ModelSupport.isResourceType(m.group(1))) {
+                    visitor.referenceValue(name, m.group(1), m.group(2));
+                }
+            }
             break;
         case URI:
-            visitor.stringValue(name, this.valueString, baseLevel);
+            visitor.stringValue(name, this.valueString, baseLevel, compositeId);
+            break;
+        case SPECIAL:
+            // Location near, extracted from Location.position
+            if (this.valueLatitude != null && this.valueLongitude != null) {
+                visitor.locationValue(name, this.valueLatitude, this.valueLongitude);
+            }
+            break;
+        default:
+            // composite values are stored as their components
             break;
         }
     }
@@ -248,4 +276,18 @@ public class Parameter {
     public void setBase(String base) {
         this.base = base;
     }
+
+    /**
+     * @return the id of the composite value this is a component of, or null
+     */
+    public Integer getCompositeId() {
+        return compositeId;
+    }
+
+    /**
+     * @param compositeId the id of the composite value this is a component of
+     */
+    public void setCompositeId(Integer compositeId) {
+        this.compositeId = compositeId;
+    }
 }
@@ -22,6 +22,8 @@ public class Resource {
     private Timestamp lastUpdated;
     private byte[] data;
     private boolean deleted;
+    // Set by the insert when references of the resource were parked in PENDING_REFERENCES
+    private boolean pendingReferencesStored;
 
     
     public Resource() {
@@ -83,6 +85,14 @@ public class Resource {
     public void setDeleted(boolean deleted) {
         this.deleted = deleted;
     }
+
+    public boolean isPendingReferencesStored() {
+        return pendingReferencesStored;
+    }
+
+    public void setPendingReferencesStored(boolean pendingReferencesStored) {
+        this.pendingReferencesStored = pendingReferencesStored;
+    }
     
     @Override
     public String toString() {
@@ -8,12 +8,23 @@ package com.ibm.watson.health.fhir.persistence.jdbc.impl;
 
 import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ENABLE_CODE_SYSTEMS_CACHE;
 import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ENABLE_PARAMETER_NAMES_CACHE;
+import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ENABLE_RESOURCE_CACHE;
 import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ENABLE_RESOURCE_TYPES_CACHE;
+import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ENABLE_SEARCH_CACHE;
+import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ENABLE_TEXT_INDEX;
+import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ID_CACHE_MAX_AGE_SECONDS;
+import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ID_CACHE_MAX_ENTRIES;
+import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_JDBC_RESOURCE_CACHE_SIZE_MB;
+import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_JDBC_SEARCH_CACHE_MAX_ENTRIES;
+import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_JDBC_SEARCH_CACHE_TTL_SECONDS;
+import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_JDBC_TEXT_INDEX_QUEUE_SIZE;
 import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_REPL_INTERCEPTOR_ENABLED;
 import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_UPDATE_CREATE_ENABLED;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Timestamp;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
@@ -23,8 +34,13 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.naming.InitialContext;
@@ -33,6 +49,7 @@ import javax.xml.bind.JAXBException;
 
 import com.ibm.watson.health.database.utils.api.IConnectionProvider;
 import com.ibm.watson.health.fhir.config.FHIRConfiguration;
+import com.ibm.watson.health.fhir.config.FHIRRequestContext;
 import com.ibm.watson.health.fhir.config.PropertyGroup;
 import com.ibm.watson.health.fhir.core.FHIRUtilities;
 import com.ibm.watson.health.fhir.exception.FHIRException;
@@ -44,13 +61,16 @@ import com.ibm.watson.health.fhir.model.resource.SearchParameter;
 import com.ibm.watson.health.fhir.model.type.Id;
 import com.ibm.watson.health.fhir.model.type.Instant;
 import com.ibm.watson.health.fhir.model.type.Meta;
+import com.ibm.watson.health.fhir.persistence.ExportPartition;
 import com.ibm.watson.health.fhir.persistence.FHIRPersistence;
 import com.ibm.watson.health.fhir.persistence.FHIRPersistenceTransaction;
+import com.ibm.watson.health.fhir.persistence.ResourceVersionInfo;
 import com.ibm.watson.health.fhir.persistence.context.FHIRHistoryContext;
 import com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContext;
 import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
 import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceResourceDeletedException;
 import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceResourceNotFoundException;
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceStreamException;
 import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.ParameterDAO;
 import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.ParameterNormalizedDAO;
 import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.ResourceNormalizedDAO;
@@ -62,16 +82,25 @@ import com.ibm.watson.health.fhir.persistence.jdbc.exception.FHIRPersistenceDBCo
 import com.ibm.watson.health.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
 import com.ibm.watson.health.fhir.persistence.jdbc.exception.FHIRPersistenceFKVException;
 import com.ibm.watson.health.fhir.persistence.jdbc.util.CodeSystemsCache;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.IdCache;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.IdCacheInvalidationStrategy;
 import com.ibm.watson.health.fhir.persistence.jdbc.util.JDBCNormalizedQueryBuilder;
 import com.ibm.watson.health.fhir.persistence.jdbc.util.JDBCParameterBuilder;
 import com.ibm.watson.health.fhir.persistence.jdbc.util.ParameterNamesCache;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.PendingReferenceResolver;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.ResourceCache;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.ResourceCacheUpdater;
 import com.ibm.watson.health.fhir.persistence.jdbc.util.ResourceTypesCache;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.SearchCache;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.SearchCacheUpdater;
 import com.ibm.watson.health.fhir.persistence.jdbc.util.SqlQueryData;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.TextIndexUpdater;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.TextIndexer;
 import com.ibm.watson.health.fhir.persistence.util.FHIRPersistenceUtil;
-import com.ibm.watson.health.fhir.persistence.util.Processor;
 import com.ibm.watson.health.fhir.replication.api.util.ReplicationUtil;
 import com.ibm.watson.health.fhir.search.SearchConstants.Type;
 import com.ibm.watson.health.fhir.search.context.FHIRSearchContext;
+import com.ibm.watson.health.fhir.search.util.CompositeValue;
 import com.ibm.watson.health.fhir.search.util.SearchUtil;
 
 /**
@@ -86,6 +115,12 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
         
     public static final String TRX_SYNCH_REG_JNDI_NAME = "java:comp/TransactionSynchronizationRegistry";
     
+    // Resolves the pending references of committed transactions
+    private static final String EXECUTOR_JNDI_NAME = "java:comp/DefaultManagedExecutorService";
+    
+    // The number of rows fetched at a time by searchStream
+    private static final int SEARCH_STREAM_FETCH_SIZE = 100;
+    
     private ResourceNormalizedDAO resourceDao;
     private ParameterNormalizedDAO parameterDao;
     private TransactionSynchronizationRegistry trxSynchRegistry;
@@ -107,9 +142,25 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
                                     Boolean.TRUE.booleanValue()));
         ResourceTypesCache.setEnabled(fhirConfig.getBooleanProperty(PROPERTY_JDBC_ENABLE_RESOURCE_TYPES_CACHE, 
                                       Boolean.TRUE.booleanValue()));
+        this.configureIdCaches(fhirConfig.getIntProperty(PROPERTY_JDBC_ID_CACHE_MAX_ENTRIES, IdCache.DEFAULT_MAX_ENTRIES),
+                               fhirConfig.getIntProperty(PROPERTY_JDBC_ID_CACHE_MAX_AGE_SECONDS, 0));
+        ResourceCache.setEnabled(fhirConfig.getBooleanProperty(PROPERTY_JDBC_ENABLE_RESOURCE_CACHE, 
+                                 Boolean.FALSE.booleanValue()));
+        ResourceCache.setMaxSize(fhirConfig.getIntProperty(PROPERTY_JDBC_RESOURCE_CACHE_SIZE_MB, 
+                                 ResourceCache.DEFAULT_MAX_SIZE_MB) * 1024L * 1024L);
+        SearchCache.setEnabled(fhirConfig.getBooleanProperty(PROPERTY_JDBC_ENABLE_SEARCH_CACHE, 
+                               Boolean.FALSE.booleanValue()));
+        SearchCache.setMaxEntries(fhirConfig.getIntProperty(PROPERTY_JDBC_SEARCH_CACHE_MAX_ENTRIES, 
+                                  SearchCache.DEFAULT_MAX_ENTRIES));
+        SearchCache.setTtlMillis(fhirConfig.getIntProperty(PROPERTY_JDBC_SEARCH_CACHE_TTL_SECONDS, 
+                                 SearchCache.DEFAULT_TTL_SECONDS) * 1000L);
+        if (fhirConfig.getBooleanProperty(PROPERTY_JDBC_ENABLE_TEXT_INDEX, Boolean.FALSE)) {
+            TextIndexer.enable(fhirConfig.getIntProperty(PROPERTY_JDBC_TEXT_INDEX_QUEUE_SIZE, TextIndexer.DEFAULT_QUEUE_SIZE));
+        }
         this.resourceDao = new ResourceDAONormalizedImpl(this.getTrxSynchRegistry());
         this.resourceDao.setRepInfoRequired(fhirConfig.getBooleanProperty(PROPERTY_REPL_INTERCEPTOR_ENABLED, Boolean.FALSE));
         this.parameterDao = new ParameterDAONormalizedImpl(this.getTrxSynchRegistry());
+        this.preloadIdCaches();
         
         log.exiting(CLASSNAME, METHODNAME);
     }
@@ -131,6 +182,7 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
         this.resourceDao = new ResourceDAONormalizedImpl(this.getManagedConnection());
         this.resourceDao.setRepInfoRequired(false);
         this.parameterDao = new ParameterDAONormalizedImpl(this.getManagedConnection());
+        this.preloadIdCaches();
                 
         log.exiting(CLASSNAME, METHODNAME);
     }
@@ -152,10 +204,48 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
         this.resourceDao = new ResourceDAONormalizedImpl(this.getManagedConnection());
         this.resourceDao.setRepInfoRequired(false);
         this.parameterDao = new ParameterDAONormalizedImpl(this.getManagedConnection());
+        this.preloadIdCaches();
                 
         log.exiting(CLASSNAME, METHODNAME);
     }
 
+    /**
+     * Applies the configured size limit and maximum age to the resource type, parameter name and code system caches.
+     * @param maxEntries The maximum number of entries per tenant-datastore.
+     * @param maxAgeSeconds The number of seconds after which the cached ids of a tenant-datastore are discarded, or 0
+     *            to keep them indefinitely.
+     */
+    private void configureIdCaches(int maxEntries, int maxAgeSeconds) {
+        IdCacheInvalidationStrategy invalidationStrategy = maxAgeSeconds > 0 ? IdCacheInvalidationStrategy.maxAge(maxAgeSeconds, TimeUnit.SECONDS) : null;
+        for (IdCache idCache : new IdCache[] { ParameterNamesCache.getCache(), CodeSystemsCache.getCache(), ResourceTypesCache.getCache() }) {
+            idCache.setMaxEntries(maxEntries);
+            idCache.setInvalidationStrategy(invalidationStrategy);
+        }
+    }
+
+    /**
+     * Loads the resource type, parameter name and code system tables of the current tenant-datastore into their caches,
+     * so that the ids needed by subsequent requests don't have to be read one at a time. Each table is only loaded
+     * once per tenant-datastore (or again after its cached ids have been discarded). A failure is not fatal, since
+     * the ids are read from the database on a cache miss anyway.
+     */
+    private void preloadIdCaches() {
+        final String METHODNAME = "preloadIdCaches";
+        log.entering(CLASSNAME, METHODNAME);
+        
+        try {
+            ResourceTypesCache.preload(this.resourceDao);
+            ParameterNamesCache.preload(this.parameterDao);
+            CodeSystemsCache.preload(this.parameterDao);
+        }
+        catch (Throwable e) {
+            log.log(Level.WARNING, "Failure preloading the JDBC id caches for tenantDatastore=" + ResourceTypesCache.getCacheNameForTenantDatastore(), e);
+        }
+        finally {
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+    }
+
     /* (non-Javadoc)
      * @see com.ibm.watson.health.fhir.persistence.FHIRPersistence#isDeleteSupported()
      */
@@ -172,58 +262,20 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
         final String METHODNAME = "create";
         log.entering(CLASSNAME, METHODNAME);
         
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        String logicalId;
-        
-        // We need to update the meta in the resource, so we need a modifiable version
-        Resource.Builder resultBuilder = resource.toBuilder();
-
-        
         try {
             // This create() operation is only called by a REST create. If the given resource
             // contains an id, the for R4 we need to ignore it and replace it with our
             // system-generated value. For the update-or-create scenario, see doUpdate()
-            // Default version is 1 for a brand new FHIR Resource.
-            int newVersionNumber = 1;
-            logicalId = UUID.randomUUID().toString();
+            String logicalId = generateResourceId();
             if (log.isLoggable(Level.FINE)) {
                 log.fine("Creating new FHIR Resource of type '" + resource.getClass().getSimpleName() + "'");
             }
 
-            // Set the resource id and meta fields.
-            Instant lastUpdated = Instant.now(ZoneOffset.UTC);
-            resultBuilder.id(Id.of(logicalId));
-            Meta meta = resource.getMeta();
-            Meta.Builder metaBuilder = meta == null ? Meta.builder() : meta.toBuilder();
-            metaBuilder.versionId(Id.of(Integer.toString(newVersionNumber)));
-            metaBuilder.lastUpdated(lastUpdated);
-            resultBuilder.meta(metaBuilder.build());
-            
-            // rebuild the resource with updated meta
-            resource = resultBuilder.build();
-            
-            // Create the new Resource DTO instance.
-            com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource resourceDTO = new com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource();
-            resourceDTO.setLogicalId(logicalId);
-            resourceDTO.setVersionId(newVersionNumber);
-            Timestamp timestamp = FHIRUtilities.convertToTimestamp(lastUpdated.getValue());
-            resourceDTO.setLastUpdated(timestamp);
-            resourceDTO.setResourceType(resource.getClass().getSimpleName());
-            
-            // Serialize and compress the Resource
-            GZIPOutputStream zipStream = new GZIPOutputStream(stream);
-            FHIRGenerator.generator( Format.JSON, false).generate(resource, zipStream);
-            zipStream.finish();
-            resourceDTO.setData(stream.toByteArray());
-            zipStream.close();
-            
-            // Persist the Resource DTO.
-            this.getResourceDao().setPersistenceContext(context);
-            this.getResourceDao().insert(resourceDTO, this.extractSearchParameters(resource, resourceDTO), this.parameterDao);
-            if (log.isLoggable(Level.FINE)) {
-                log.fine("Persisted FHIR Resource '" + resourceDTO.getResourceType() + "/" + resourceDTO.getLogicalId() + "' id=" + resourceDTO.getId()
-                            + ", version=" + resourceDTO.getVersionId());
-            }
+            PreparedResource prepared = prepareCreate(resource, logicalId, Instant.now(ZoneOffset.UTC));
+            insertPrepared(context, prepared);
+
+            // Return the resource updated with the id/meta
+            return prepared.resource;
         }
         catch(FHIRPersistenceFKVException e) {
             log.log(Level.SEVERE, "FK violation", e);
@@ -241,9 +293,147 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
         finally {
            log.exiting(CLASSNAME, METHODNAME);
         }
+    }
 
-        // Return the resource updated with the id/meta
-        return resource;
+    /* (non-Javadoc)
+     * @see com.ibm.watson.health.fhir.persistence.FHIRPersistence#createAll(java.util.List, java.util.List)
+     */
+    @Override
+    public List<Resource> createAll(List<FHIRPersistenceContext> contexts, List<Resource> resources) throws FHIRPersistenceException {
+        final String METHODNAME = "createAll";
+        log.entering(CLASSNAME, METHODNAME);
+
+        try {
+            if (contexts.size() != resources.size()) {
+                throw new IllegalArgumentException("The number of contexts does not match the number of resources");
+            }
+
+            // All of the resources are serialized and their search parameters extracted before the first insert.
+            // This runs on the calling thread. The callers are the POST entries of transaction bundles, which share
+            // one transaction, and $import, which runs the createAll calls of several batches at once on the
+            // server's managed executor.
+            Instant lastUpdated = Instant.now(ZoneOffset.UTC);
+            List<PreparedResource> preparedResources = new ArrayList<>(resources.size());
+            for (Resource resource : resources) {
+                if (resource.getId() == null || resource.getId().getValue() == null) {
+                    throw new IllegalArgumentException("Resources passed to createAll must have an id");
+                }
+                preparedResources.add(prepareCreate(resource, resource.getId().getValue(), lastUpdated));
+            }
+
+            // The inserts are made one after the other within the current transaction.
+            List<Resource> result = new ArrayList<>(preparedResources.size());
+            for (int i = 0; i < preparedResources.size(); i++) {
+                PreparedResource prepared = preparedResources.get(i);
+                insertPrepared(contexts.get(i), prepared);
+                result.add(prepared.resource);
+            }
+            return result;
+        }
+        catch(FHIRPersistenceFKVException e) {
+            log.log(Level.SEVERE, "FK violation", e);
+            throw e;
+        }
+        catch(FHIRPersistenceException e) {
+            throw e;
+        }
+        catch(Throwable e) {
+            FHIRPersistenceException fx = new FHIRPersistenceException("Unexpected error while performing a createAll operation.");
+            log.log(Level.SEVERE, fx.getMessage(), e);
+            throw fx;
+        }
+        finally {
+           log.exiting(CLASSNAME, METHODNAME);
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.ibm.watson.health.fhir.persistence.FHIRPersistence#isCreateAllSupported()
+     */
+    @Override
+    public boolean isCreateAllSupported() {
+        return true;
+    }
+
+    /**
+     * Sets the id and meta of a new resource and builds the Resource DTO (with the serialized resource) and the
+     * search parameters to be stored for it. This method does not access the database.
+     * @param resource the resource to be created
+     * @param logicalId the logical id of the new resource
+     * @param lastUpdated the last updated time of the new resource
+     * @return the resource with its id/meta, the Resource DTO and the search parameters
+     * @throws Exception
+     */
+    private PreparedResource prepareCreate(Resource resource, String logicalId, Instant lastUpdated) throws Exception {
+        // Default version is 1 for a brand new FHIR Resource.
+        int newVersionNumber = 1;
+
+        // We need to update the meta in the resource, so we need a modifiable version
+        Resource.Builder resultBuilder = resource.toBuilder();
+
+        // Set the resource id and meta fields.
+        resultBuilder.id(Id.of(logicalId));
+        Meta meta = resource.getMeta();
+        Meta.Builder metaBuilder = meta == null ? Meta.builder() : meta.toBuilder();
+        metaBuilder.versionId(Id.of(Integer.toString(newVersionNumber)));
+        metaBuilder.lastUpdated(lastUpdated);
+        resultBuilder.meta(metaBuilder.build());
+        
+        // rebuild the resource with updated meta
+        resource = resultBuilder.build();
+        
+        // Create the new Resource DTO instance.
+        com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource resourceDTO = new com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource();
+        resourceDTO.setLogicalId(logicalId);
+        resourceDTO.setVersionId(newVersionNumber);
+        Timestamp timestamp = FHIRUtilities.convertToTimestamp(lastUpdated.getValue());
+        resourceDTO.setLastUpdated(timestamp);
+        resourceDTO.setResourceType(resource.getClass().getSimpleName());
+        
+        // Serialize and compress the Resource
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        GZIPOutputStream zipStream = new GZIPOutputStream(stream);
+        FHIRGenerator.generator( Format.JSON, false).generate(resource, zipStream);
+        zipStream.finish();
+        resourceDTO.setData(stream.toByteArray());
+        zipStream.close();
+
+        return new PreparedResource(resource, resourceDTO, this.extractSearchParameters(resource, resourceDTO));
+    }
+
+    /**
+     * Persists a resource prepared by {@link #prepareCreate}.
+     */
+    private void insertPrepared(FHIRPersistenceContext context, PreparedResource prepared) throws FHIRPersistenceException {
+        com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource resourceDTO = prepared.resourceDTO;
+        this.getResourceDao().setPersistenceContext(context);
+        this.getResourceDao().insert(resourceDTO, prepared.parameters, this.parameterDao);
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Persisted FHIR Resource '" + resourceDTO.getResourceType() + "/" + resourceDTO.getLogicalId() + "' id=" + resourceDTO.getId()
+                        + ", version=" + resourceDTO.getVersionId());
+        }
+        ResourceCacheUpdater cacheUpdater = this.getResourceCacheUpdater();
+        if (cacheUpdater != null) {
+            cacheUpdater.addWriteCandidate(prepared.resource, resourceDTO.getData().length);
+        }
+        this.recordSearchCacheWrite(resourceDTO.getResourceType());
+        this.recordReferenceWrite(resourceDTO);
+        this.recordTextIndexWrite(prepared.resource, false);
+    }
+
+    /**
+     * A new resource along with the Resource DTO and search parameters to be stored for it.
+     */
+    private static class PreparedResource {
+        private final Resource resource;
+        private final com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource resourceDTO;
+        private final List<Parameter> parameters;
+
+        private PreparedResource(Resource resource, com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource resourceDTO, List<Parameter> parameters) {
+            this.resource = resource;
+            this.resourceDTO = resourceDTO;
+            this.parameters = parameters;
+        }
     }
 
     /* (non-Javadoc)
@@ -268,13 +458,12 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
             // Compute the new version # from the existing version #.
             
             // If the "previous resource" is set in the persistence event, then get the 
-            // existing version # from that.
+            // existing version # from its version info (without loading the resource if it was set lazily).
             if (context.getPersistenceEvent() != null && context.getPersistenceEvent().isPrevFhirResourceSet()) {
-                Resource existingResource = context.getPersistenceEvent().getPrevFhirResource();
-                if (existingResource != null) {
-                    log.fine("Using pre-fetched 'previous' resource.");
-                    String version = existingResource.getMeta().getVersionId().getValue();
-                    existingVersion = Integer.valueOf(version);
+                ResourceVersionInfo existingVersionInfo = context.getPersistenceEvent().getPrevFhirResourceVersionInfo();
+                if (existingVersionInfo != null) {
+                    log.fine("Using pre-fetched 'previous' resource version.");
+                    existingVersion = existingVersionInfo.getVersionId();
                 }
             } 
             
@@ -340,6 +529,13 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
                 log.fine("Persisted FHIR Resource '" + resourceDTO.getResourceType() + "/" + resourceDTO.getLogicalId() + "' id=" + resourceDTO.getId()
                             + ", version=" + resourceDTO.getVersionId());
             }
+            ResourceCacheUpdater cacheUpdater = this.getResourceCacheUpdater();
+            if (cacheUpdater != null) {
+                cacheUpdater.addWriteCandidate(resource, resourceDTO.getData().length);
+            }
+            this.recordSearchCacheWrite(resourceDTO.getResourceType());
+            this.recordReferenceWrite(resourceDTO);
+            this.recordTextIndexWrite(resource, false);
         }
         catch(FHIRPersistenceFKVException e) {
             log.log(Level.SEVERE, this.performCacheDiagnostics());
@@ -376,12 +572,31 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
         List<Long> sortedIdList;
         List<com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource> unsortedResultsList;
         int searchResultCount = 0;
-        int pageSize;
-        int lastPageNumber;
         SqlQueryData countQuery;
         SqlQueryData query;
+        String cacheKey = null;
+        long cacheEpoch = 0;
                 
         try {
+            // Searches of a resource type written by the current transaction can't be served from the cache.
+            SearchCacheUpdater searchCacheUpdater = this.getSearchCacheUpdater();
+            if (searchCacheUpdater != null && !searchCacheUpdater.isWritten(resourceType.getSimpleName())) {
+                String tenantDatastoreCacheName = searchCacheUpdater.getTenantDatastoreCacheName();
+                cacheKey = SearchCache.buildKey(tenantDatastoreCacheName, resourceType, searchContext);
+                SearchCache.CachedResult cachedResult = SearchCache.get(cacheKey);
+                if (cachedResult != null) {
+                    this.setPagingInfo(searchContext, cachedResult.getTotalCount());
+                    if (!cachedResult.getResourceIds().isEmpty()) {
+                        resources = this.buildSortedFhirResources(context, resourceType, cachedResult.getResourceIds(), 
+                                                                  searchContext.getElementsParameters());
+                    }
+                    return resources;
+                }
+                // The epoch must be read before the queries are run, so that a write committed meanwhile
+                // keeps their results from being cached.
+                cacheEpoch = SearchCache.getEpoch(tenantDatastoreCacheName, resourceType.getSimpleName());
+            }
+            
             queryBuilder = new JDBCNormalizedQueryBuilder((ParameterNormalizedDAO)this.getParameterDao(),
                                                           (ResourceNormalizedDAO)this.getResourceDao());
              
@@ -391,12 +606,9 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
                 if (log.isLoggable(Level.FINE)) {
                     log.fine("searchResultCount = " + searchResultCount);
                 }
-                searchContext.setTotalCount(searchResultCount);
-                pageSize = searchContext.getPageSize();
-                lastPageNumber = (int) ((searchResultCount + pageSize - 1) / pageSize);
-                searchContext.setLastPageNumber(lastPageNumber);
+                this.setPagingInfo(searchContext, searchResultCount);
                 
-                 
+                List<Long> resourceIds = new ArrayList<>();
                 if (searchResultCount > 0) {
                     query = queryBuilder.buildQuery(resourceType, searchContext);
                     
@@ -411,13 +623,22 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
                         else {
                             sortedIdList = this.resourceDao.searchForIds(query);
                             resources = this.buildSortedFhirResources(context, resourceType, sortedIdList, elements);
+                            resourceIds = sortedIdList;
                         }
                     }
                     else {
                         unsortedResultsList = this.getResourceDao().search(query);
                         resources = this.convertResourceDTOList(unsortedResultsList, resourceType, elements);
+                        for (com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource resourceDTO : unsortedResultsList) {
+                            resourceIds.add(resourceDTO.getId());
+                        }
                     }  
                 }
+                
+                if (cacheKey != null) {
+                    SearchCache.put(cacheKey, searchCacheUpdater.getTenantDatastoreCacheName(), resourceType.getSimpleName(), 
+                                    cacheEpoch, searchResultCount, resourceIds);
+                }
             }
         }
         catch(FHIRPersistenceException e) {
@@ -435,6 +656,160 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
         return resources;
     }
     
+    /* (non-Javadoc)
+     * @see com.ibm.watson.health.fhir.persistence.FHIRPersistence#searchStream(com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContext, java.lang.Class)
+     */
+    @Override
+    public Stream<Resource> searchStream(FHIRPersistenceContext context, Class<? extends Resource> resourceType)
+            throws FHIRPersistenceException {
+        final String METHODNAME = "searchStream";
+        log.entering(CLASSNAME, METHODNAME);
+        
+        FHIRSearchContext searchContext = context.getSearchContext();
+        JDBCNormalizedQueryBuilder queryBuilder;
+        int searchResultCount = 0;
+        SqlQueryData countQuery;
+        SqlQueryData query;
+        
+        try {
+            // The search cache holds the ids of a page, which doesn't help a stream; it is neither read nor filled here.
+            queryBuilder = new JDBCNormalizedQueryBuilder((ParameterNormalizedDAO)this.getParameterDao(),
+                                                          (ResourceNormalizedDAO)this.getResourceDao());
+            
+            countQuery = queryBuilder.buildCountQuery(resourceType, searchContext);
+            if (countQuery == null) {
+                return Stream.empty();
+            }
+            searchResultCount = this.getResourceDao().searchCount(countQuery);
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("searchResultCount = " + searchResultCount);
+            }
+            this.setPagingInfo(searchContext, searchResultCount);
+            if (searchResultCount == 0) {
+                return Stream.empty();
+            }
+            
+            query = queryBuilder.buildQuery(resourceType, searchContext);
+            List<String> elements = searchContext.getElementsParameters();
+            
+            if (searchContext.hasSortParameters() && !resourceType.equals(Resource.class)) {
+                // Sorted type-level searches select only the ids in order; the resources are then read 
+                // a chunk of ids at a time as the stream is consumed.
+                List<Long> sortedIdList = this.getResourceDao().searchForIds(query);
+                int chunkCount = (sortedIdList.size() + SEARCH_STREAM_FETCH_SIZE - 1) / SEARCH_STREAM_FETCH_SIZE;
+                return IntStream.range(0, chunkCount).boxed().flatMap(chunk -> {
+                    int fromIndex = chunk * SEARCH_STREAM_FETCH_SIZE;
+                    int toIndex = Math.min(fromIndex + SEARCH_STREAM_FETCH_SIZE, sortedIdList.size());
+                    try {
+                        return this.buildSortedFhirResources(context, resourceType, sortedIdList.subList(fromIndex, toIndex), elements).stream();
+                    }
+                    catch (FHIRPersistenceException e) {
+                        throw new FHIRPersistenceStreamException(e);
+                    }
+                    catch (Exception e) {
+                        throw new FHIRPersistenceStreamException(streamFailure(e));
+                    }
+                });
+            }
+            
+            return this.getResourceDao().searchStream(query, SEARCH_STREAM_FETCH_SIZE).map(resourceDTO -> {
+                try {
+                    return this.convertResourceDTO(resourceDTO, resourceType, elements);
+                }
+                catch (Exception e) {
+                    throw new FHIRPersistenceStreamException(streamFailure(e));
+                }
+            });
+        }
+        catch(FHIRPersistenceException e) {
+            throw e;
+        }
+        catch(Throwable e) {
+            FHIRPersistenceException fx = new FHIRPersistenceException("Unexpected error while performing a search operation.");
+            log.log(Level.SEVERE, fx.getMessage(), e);
+            throw fx;
+        }
+        finally {
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+    }
+    
+    /* (non-Javadoc)
+     * @see com.ibm.watson.health.fhir.persistence.FHIRPersistence#getExportPartitions(java.lang.Class, int)
+     */
+    @Override
+    public List<ExportPartition> getExportPartitions(Class<? extends Resource> resourceType, int partitionSize) throws FHIRPersistenceException {
+        final String METHODNAME = "getExportPartitions";
+        log.entering(CLASSNAME, METHODNAME);
+        
+        List<ExportPartition> partitions = new ArrayList<>();
+        try {
+            // The logical resource ids come from a sequence, so splitting the range of ids evenly gives 
+            // partitions of about the same size without reading the ids themselves.
+            long[] range = this.getResourceDao().readLogicalResourceIdRange(resourceType.getSimpleName());
+            if (range != null) {
+                long firstId = range[0];
+                long lastId = range[1];
+                long partitionCount = (range[2] + Math.max(1, partitionSize) - 1) / Math.max(1, partitionSize);
+                long width = (lastId - firstId + partitionCount) / partitionCount;
+                for (long partitionFirstId = firstId; partitionFirstId <= lastId; partitionFirstId += width) {
+                    partitions.add(new ExportPartition(resourceType, partitionFirstId, Math.min(lastId, partitionFirstId + width - 1)));
+                }
+            }
+        }
+        finally {
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+        return partitions;
+    }
+    
+    /* (non-Javadoc)
+     * @see com.ibm.watson.health.fhir.persistence.FHIRPersistence#exportStream(com.ibm.watson.health.fhir.persistence.ExportPartition, java.time.Instant, int)
+     */
+    @Override
+    public Stream<InputStream> exportStream(ExportPartition partition, java.time.Instant since, int fetchSize) throws FHIRPersistenceException {
+        // The stored payload is the gzip-compressed JSON of the resource, which is only inflated here; 
+        // it isn't parsed and generated again.
+        return this.getResourceDao().exportStream(partition.getResourceType().getSimpleName(), partition.getFirstId(), partition.getLastId(), 
+            since != null ? Timestamp.from(since) : null, fetchSize).map(resourceDTO -> {
+                try {
+                    return new GZIPInputStream(new ByteArrayInputStream(resourceDTO.getData()));
+                }
+                catch (IOException e) {
+                    throw new FHIRPersistenceStreamException(streamFailure(e));
+                }
+            });
+    }
+    
+    /* (non-Javadoc)
+     * @see com.ibm.watson.health.fhir.persistence.FHIRPersistence#isExportSupported()
+     */
+    @Override
+    public boolean isExportSupported() {
+        return true;
+    }
+    
+    /**
+     * Logs a failure to read a streamed search result and returns the exception which ends the stream.
+     */
+    private FHIRPersistenceException streamFailure(Exception e) {
+        // don't chain the exception to avoid leaking secrets
+        FHIRPersistenceException fx = new FHIRPersistenceException("Unexpected error while reading a search result.");
+        log.log(Level.SEVERE, fx.getMessage(), e);
+        return fx;
+    }
+    
+    /**
+     * Sets the total count and last page number of the passed search context.
+     */
+    private void setPagingInfo(FHIRSearchContext searchContext, int searchResultCount) {
+        searchContext.setTotalCount(searchResultCount);
+        int pageSize = searchContext.getPageSize();
+        // in long arithmetic, so that a page size of Integer.MAX_VALUE doesn't overflow
+        int lastPageNumber = (int) (((long) searchResultCount + pageSize - 1) / pageSize);
+        searchContext.setLastPageNumber(lastPageNumber);
+    }
+    
     protected ParameterDAO getParameterDao() {
         return this.parameterDao;
     }
@@ -455,71 +830,88 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
         com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource existingResourceDTO = null;
         Resource existingResource = null;
         ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        int existingVersion;
+        boolean existingDeleted;
         
         Resource.Builder resourceBuilder;
         
         try {
-            existingResourceDTO = this.getResourceDao().read(logicalId, resourceType.getSimpleName());
+            // If the server already read the (non-deleted) resource for the 'beforeDelete' interceptors,
+            // then reuse it rather than reading and parsing it again.
+            Resource prefetchedResource = null;
+            if (context.getPersistenceEvent() != null && context.getPersistenceEvent().isPrevFhirResourceLoaded()) {
+                prefetchedResource = context.getPersistenceEvent().getPrevFhirResource();
+            }
+            if (prefetchedResource != null && prefetchedResource.getMeta() != null && prefetchedResource.getMeta().getVersionId() != null) {
+                log.fine("Using pre-fetched resource for delete.");
+                existingResource = prefetchedResource;
+                existingVersion = ResourceVersionInfo.of(prefetchedResource).getVersionId();
+                existingDeleted = false;
+            }
+            else {
+                existingResourceDTO = this.getResourceDao().read(logicalId, resourceType.getSimpleName());
+                if (existingResourceDTO == null) {
+                    // issue fhir-527. Need to return not found
+                    throw new FHIRPersistenceResourceNotFoundException("resource does not exist: " + resourceType.getSimpleName() + ":" + logicalId);
+                }
+                existingResource = this.convertResourceDTO(existingResourceDTO, resourceType, null);
+                existingVersion = existingResourceDTO.getVersionId();
+                existingDeleted = existingResourceDTO.isDeleted();
+            }
             
-            if (existingResourceDTO != null) {
-                if (existingResourceDTO.isDeleted()) {
-                    existingResource = this.convertResourceDTO(existingResourceDTO, resourceType, null);
-                    resourceBuilder = existingResource.toBuilder();
+            if (!existingDeleted) {
+                // If replication info is required, add the value of the patientId, siteId, and subjectId extensions 
+                // to the RepInfo
+                if (this.resourceDao.isRepInfoRequired()) {
+                    ReplicationUtil.addExtensionDataToRepInfo(context, existingResource);
                 }
-                else {
-                    existingResource = this.convertResourceDTO(existingResourceDTO, resourceType, null);
-                    
-                    // If replication info is required, add the value of the patientId, siteId, and subjectId extensions 
-                    // to the RepInfo
-                    if (this.resourceDao.isRepInfoRequired()) {
-                        ReplicationUtil.addExtensionDataToRepInfo(context, existingResource);
-                    }
-                    
-                    // Resources are immutable, so we need a new builder to update it (since R4)
-                    resourceBuilder = existingResource.toBuilder();
-    
-                    int newVersionNumber = existingResourceDTO.getVersionId() + 1;
-                    Instant lastUpdated = Instant.now(ZoneOffset.UTC);
-                    
-                    // Update the soft-delete resource to reflect the new version and lastUpdated values.
-                    Meta meta = existingResource.getMeta();
-                    Meta.Builder metaBuilder = meta == null ? Meta.builder() : meta.toBuilder();
-                    metaBuilder.versionId(Id.of(Integer.toString(newVersionNumber)));
-                    metaBuilder.lastUpdated(lastUpdated);
-                    resourceBuilder.meta(metaBuilder.build());
-                    
-                    existingResource = resourceBuilder.build();
-    
-                    // Create a new Resource DTO instance to represent the deleted version.
-                    com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource resourceDTO = new com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource();
-                    resourceDTO.setLogicalId(logicalId);
-                    resourceDTO.setVersionId(newVersionNumber);
-                    
-                    // Serialize and compress the Resource
-                    GZIPOutputStream zipStream = new GZIPOutputStream(stream);
-                    FHIRGenerator.generator(Format.JSON, false).generate(existingResource, zipStream);
-                    zipStream.finish();
-                    resourceDTO.setData(stream.toByteArray());
-                    zipStream.close();
-                    
-                    Timestamp timestamp = FHIRUtilities.convertToTimestamp(lastUpdated.getValue());
-                    resourceDTO.setLastUpdated(timestamp);
-                    resourceDTO.setResourceType(resourceType.getSimpleName());
-                    resourceDTO.setDeleted(true);
-    
-                    // Persist the logically deleted Resource DTO.
-                    this.getResourceDao().setPersistenceContext(context);
-                    this.getResourceDao().insert(resourceDTO, null, null);
-                    
-                    if (log.isLoggable(Level.FINE)) {
-                        log.fine("Persisted FHIR Resource '" + resourceDTO.getResourceType() + "/" + resourceDTO.getLogicalId() + "' id=" + resourceDTO.getId()
-                                    + ", version=" + resourceDTO.getVersionId());
-                    }
+                
+                // Resources are immutable, so we need a new builder to update it (since R4)
+                resourceBuilder = existingResource.toBuilder();
+
+                int newVersionNumber = existingVersion + 1;
+                Instant lastUpdated = Instant.now(ZoneOffset.UTC);
+                
+                // Update the soft-delete resource to reflect the new version and lastUpdated values.
+                Meta meta = existingResource.getMeta();
+                Meta.Builder metaBuilder = meta == null ? Meta.builder() : meta.toBuilder();
+                metaBuilder.versionId(Id.of(Integer.toString(newVersionNumber)));
+                metaBuilder.lastUpdated(lastUpdated);
+                resourceBuilder.meta(metaBuilder.build());
+                
+                existingResource = resourceBuilder.build();
+
+                // Create a new Resource DTO instance to represent the deleted version.
+                com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource resourceDTO = new com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource();
+                resourceDTO.setLogicalId(logicalId);
+                resourceDTO.setVersionId(newVersionNumber);
+                
+                // Serialize and compress the Resource
+                GZIPOutputStream zipStream = new GZIPOutputStream(stream);
+                FHIRGenerator.generator(Format.JSON, false).generate(existingResource, zipStream);
+                zipStream.finish();
+                resourceDTO.setData(stream.toByteArray());
+                zipStream.close();
+                
+                Timestamp timestamp = FHIRUtilities.convertToTimestamp(lastUpdated.getValue());
+                resourceDTO.setLastUpdated(timestamp);
+                resourceDTO.setResourceType(resourceType.getSimpleName());
+                resourceDTO.setDeleted(true);
+
+                // Persist the logically deleted Resource DTO.
+                this.getResourceDao().setPersistenceContext(context);
+                this.getResourceDao().insert(resourceDTO, null, null);
+                
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Persisted FHIR Resource '" + resourceDTO.getResourceType() + "/" + resourceDTO.getLogicalId() + "' id=" + resourceDTO.getId()
+                                + ", version=" + resourceDTO.getVersionId());
                 }
-            }
-            else {
-                // issue fhir-527. Need to return not found
-                throw new FHIRPersistenceResourceNotFoundException("resource does not exist: " + resourceType.getSimpleName() + ":" + logicalId);
+                ResourceCacheUpdater cacheUpdater = this.getResourceCacheUpdater();
+                if (cacheUpdater != null) {
+                    cacheUpdater.addDeleteCandidate(resourceType.getSimpleName(), logicalId, newVersionNumber);
+                }
+                this.recordSearchCacheWrite(resourceType.getSimpleName());
+                this.recordTextIndexWrite(existingResource, true);
             }
                     
             return existingResource;
@@ -554,11 +946,26 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
         com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource resourceDTO = null;
                 
         try {
+            // The cached current version can't be used if the resource was changed by the current transaction.
+            ResourceCacheUpdater cacheUpdater = this.getResourceCacheUpdater();
+            boolean useCache = cacheUpdater != null && !cacheUpdater.isWritten(resourceType.getSimpleName(), logicalId);
+            long pointerStamp = 0;
+            if (useCache) {
+                resource = ResourceCache.getCurrentVersion(cacheUpdater.getTenantDatastoreCacheName(), resourceType.getSimpleName(), logicalId);
+                if (resource != null) {
+                    return resource;
+                }
+                pointerStamp = ResourceCache.getPointerStamp();
+            }
+            
             resourceDTO = this.getResourceDao().read(logicalId, resourceType.getSimpleName());
             if (resourceDTO != null && resourceDTO.isDeleted() && !context.includeDeleted()) {
                 throw new FHIRPersistenceResourceDeletedException("Resource '" + resourceType.getSimpleName() + "/" + logicalId + "' is deleted.");
             }
             resource = this.convertResourceDTO(resourceDTO, resourceType, null);
+            if (useCache && resource != null && !resourceDTO.isDeleted()) {
+                cacheUpdater.addReadCandidate(resource, resourceDTO.getData().length, pointerStamp);
+            }
         }
         catch(FHIRPersistenceResourceDeletedException e) {
             throw e;
@@ -576,6 +983,36 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
         return resource;
     }
 
+    /* (non-Javadoc)
+     * @see com.ibm.watson.health.fhir.persistence.FHIRPersistence#readVersionInfo(com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContext, java.lang.Class, java.lang.String)
+     */
+    @Override
+    public ResourceVersionInfo readVersionInfo(FHIRPersistenceContext context, Class<? extends Resource> resourceType, String logicalId)
+                            throws FHIRPersistenceException {
+        final String METHODNAME = "readVersionInfo";
+        log.entering(CLASSNAME, METHODNAME);
+
+        try {
+            com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource resourceDTO = this.getResourceDao().readVersionInfo(logicalId, resourceType.getSimpleName());
+            if (resourceDTO == null) {
+                return null;
+            }
+            return new ResourceVersionInfo(resourceDTO.getLogicalId(), resourceDTO.getVersionId(),
+                resourceDTO.getLastUpdated().toInstant(), resourceDTO.isDeleted());
+        }
+        catch(FHIRPersistenceException e) {
+            throw e;
+        }
+        catch(Throwable e) {
+            FHIRPersistenceException fx = new FHIRPersistenceException("Unexpected error while performing a read operation.");
+            log.log(Level.SEVERE, fx.getMessage(), e);
+            throw fx;
+        }
+        finally {
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+    }
+
     /* (non-Javadoc)
      * @see com.ibm.watson.health.fhir.persistence.FHIRPersistence#history(com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContext, java.lang.Class, java.lang.String)
      */
@@ -655,11 +1092,24 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
                                         
         try {
             version = Integer.parseInt(versionId);
+            
+            // Resource versions never change, so a cached version can be returned as is.
+            ResourceCacheUpdater cacheUpdater = this.getResourceCacheUpdater();
+            if (cacheUpdater != null) {
+                resource = ResourceCache.getVersion(cacheUpdater.getTenantDatastoreCacheName(), resourceType.getSimpleName(), logicalId, version);
+                if (resource != null) {
+                    return resource;
+                }
+            }
+            
             resourceDTO = this.getResourceDao().versionRead(logicalId, resourceType.getSimpleName(), version);
             if (resourceDTO != null && resourceDTO.isDeleted()) {
                 throw new FHIRPersistenceResourceDeletedException("Resource '" + resourceType.getSimpleName() + "/" + logicalId + "' version " + versionId + " is deleted.");
             }
             resource = this.convertResourceDTO(resourceDTO, resourceType, null);
+            if (cacheUpdater != null && resource != null) {
+                cacheUpdater.addVersionReadCandidate(resource, resourceDTO.getData().length);
+            }
         }
         catch(FHIRPersistenceResourceDeletedException e) {
             throw e;
@@ -766,6 +1216,176 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
         return this.trxSynchRegistry;
     }
     
+    /**
+     * Returns the ResourceCacheUpdater registered with the current transaction, registering a new one if necessary.
+     * Null is returned if the ResourceCache is disabled or there is no active (container-managed) transaction.
+     * @return ResourceCacheUpdater
+     */
+    private ResourceCacheUpdater getResourceCacheUpdater() {
+        final String METHODNAME = "getResourceCacheUpdater";
+        
+        if (!ResourceCache.isEnabled() || this.trxSynchRegistry == null) {
+            return null;
+        }
+        
+        try {
+            if (this.trxSynchRegistry.getTransactionStatus() != javax.transaction.Status.STATUS_ACTIVE) {
+                return null;
+            }
+            ResourceCacheUpdater cacheUpdater = (ResourceCacheUpdater) this.trxSynchRegistry.getResource(ResourceCacheUpdater.class);
+            if (cacheUpdater == null) {
+                // Register a new ResourceCacheUpdater for this trx, if one hasn't been already registered.
+                cacheUpdater = new ResourceCacheUpdater(ResourceTypesCache.getCacheNameForTenantDatastore());
+                this.trxSynchRegistry.registerInterposedSynchronization(cacheUpdater);
+                this.trxSynchRegistry.putResource(ResourceCacheUpdater.class, cacheUpdater);
+                log.fine("Registered ResourceCacheUpdater.");
+            }
+            return cacheUpdater;
+        }
+        catch(Throwable e) {
+            // The cache is an optimization only; carry on without it.
+            log.logp(Level.WARNING, CLASSNAME, METHODNAME, "Failure registering ResourceCacheUpdater", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Returns the SearchCacheUpdater registered with the current transaction, registering a new one if necessary.
+     * Null is returned if the SearchCache is disabled or there is no active (container-managed) transaction.
+     * @return SearchCacheUpdater
+     */
+    private SearchCacheUpdater getSearchCacheUpdater() {
+        final String METHODNAME = "getSearchCacheUpdater";
+        
+        if (!SearchCache.isEnabled() || this.trxSynchRegistry == null) {
+            return null;
+        }
+        
+        try {
+            if (this.trxSynchRegistry.getTransactionStatus() != javax.transaction.Status.STATUS_ACTIVE) {
+                return null;
+            }
+            SearchCacheUpdater cacheUpdater = (SearchCacheUpdater) this.trxSynchRegistry.getResource(SearchCacheUpdater.class);
+            if (cacheUpdater == null) {
+                // Register a new SearchCacheUpdater for this trx, if one hasn't been already registered.
+                cacheUpdater = new SearchCacheUpdater(ResourceTypesCache.getCacheNameForTenantDatastore());
+                this.trxSynchRegistry.registerInterposedSynchronization(cacheUpdater);
+                this.trxSynchRegistry.putResource(SearchCacheUpdater.class, cacheUpdater);
+                log.fine("Registered SearchCacheUpdater.");
+            }
+            return cacheUpdater;
+        }
+        catch(Throwable e) {
+            // The cache is an optimization only; carry on without it.
+            log.logp(Level.WARNING, CLASSNAME, METHODNAME, "Failure registering SearchCacheUpdater", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Records a write of the passed resource type, so that the cached searches of the type are invalidated when the
+     * current transaction commits. If the write can't be tied to a transaction, the searches are invalidated at once.
+     * @param resourceType A valid FHIR resource type name.
+     */
+    private void recordSearchCacheWrite(String resourceType) {
+        if (!SearchCache.isEnabled()) {
+            return;
+        }
+        
+        SearchCacheUpdater cacheUpdater = this.getSearchCacheUpdater();
+        if (cacheUpdater != null) {
+            cacheUpdater.addWrittenResourceType(resourceType);
+        }
+        else {
+            SearchCache.invalidate(ResourceTypesCache.getCacheNameForTenantDatastore(), resourceType);
+        }
+    }
+    
+    /**
+     * Records a create or update of the passed resource which parked some of its references in PENDING_REFERENCES, so
+     * that they are resolved again when the current transaction commits. Without a (container-managed) transaction, the
+     * references are only resolved by the writes themselves.
+     * @param resourceDTO The Resource DTO of the resource just inserted.
+     */
+    private void recordReferenceWrite(com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource resourceDTO) {
+        final String METHODNAME = "recordReferenceWrite";
+        
+        if (this.trxSynchRegistry == null || !resourceDTO.isPendingReferencesStored()) {
+            return;
+        }
+        
+        try {
+            if (this.trxSynchRegistry.getTransactionStatus() != javax.transaction.Status.STATUS_ACTIVE) {
+                return;
+            }
+            PendingReferenceResolver resolver = (PendingReferenceResolver) this.trxSynchRegistry.getResource(PendingReferenceResolver.class);
+            if (resolver == null) {
+                // Register a new PendingReferenceResolver for this trx, if one hasn't been already registered.
+                resolver = new PendingReferenceResolver(FHIRRequestContext.get(), this.getExecutor());
+                this.trxSynchRegistry.registerInterposedSynchronization(resolver);
+                this.trxSynchRegistry.putResource(PendingReferenceResolver.class, resolver);
+                log.fine("Registered PendingReferenceResolver.");
+            }
+            resolver.addWrittenResource(resourceDTO.getResourceType(), resourceDTO.getLogicalId());
+        }
+        catch(Throwable e) {
+            log.logp(Level.WARNING, CLASSNAME, METHODNAME, "Failure registering PendingReferenceResolver", e);
+        }
+    }
+    
+    /**
+     * Records a write of the passed resource, so that it is queued with the text indexer (if the full-text index is
+     * enabled) when the current transaction commits. If the write can't be tied to a transaction, the resource is
+     * queued at once.
+     * @param resource A resource with an id.
+     * @param deleted True if the resource was deleted.
+     */
+    private void recordTextIndexWrite(Resource resource, boolean deleted) {
+        final String METHODNAME = "recordTextIndexWrite";
+        
+        TextIndexer indexer = TextIndexer.getInstance();
+        if (indexer == null) {
+            return;
+        }
+        
+        try {
+            if (this.trxSynchRegistry != null && this.trxSynchRegistry.getTransactionStatus() == javax.transaction.Status.STATUS_ACTIVE) {
+                TextIndexUpdater indexUpdater = (TextIndexUpdater) this.trxSynchRegistry.getResource(TextIndexUpdater.class);
+                if (indexUpdater == null) {
+                    // Register a new TextIndexUpdater for this trx, if one hasn't been already registered.
+                    indexUpdater = new TextIndexUpdater(indexer, FHIRRequestContext.get());
+                    this.trxSynchRegistry.registerInterposedSynchronization(indexUpdater);
+                    this.trxSynchRegistry.putResource(TextIndexUpdater.class, indexUpdater);
+                    log.fine("Registered TextIndexUpdater.");
+                }
+                indexUpdater.addWrittenResource(resource, deleted);
+                return;
+            }
+        }
+        catch(Throwable e) {
+            log.logp(Level.WARNING, CLASSNAME, METHODNAME, "Failure registering TextIndexUpdater", e);
+        }
+        indexer.offer(resource, deleted);
+    }
+    
+    /**
+     * Returns the container's default managed executor, or null if it isn't available. It must be looked up on a
+     * request thread.
+     * @return
+     */
+    private Executor getExecutor() {
+        try {
+            Object jndiValue = new InitialContext().lookup(EXECUTOR_JNDI_NAME);
+            if (jndiValue instanceof Executor) {
+                return (Executor) jndiValue;
+            }
+        }
+        catch(Throwable e) {
+            log.fine("Managed executor '" + EXECUTOR_JNDI_NAME + "' is not available: " + e.getMessage());
+        }
+        return null;
+    }
+    
     /**
      * Extracts search parameters for the passed FHIR Resource.
      * @param fhirResource - Some FHIR Resource
@@ -783,7 +1403,7 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
         String expression;
         
         List<Parameter> allParameters = new ArrayList<>();
-        Processor<List<Parameter>> processor = new JDBCParameterBuilder();
+        JDBCParameterBuilder processor = new JDBCParameterBuilder();
         
         try {
             map = SearchUtil.extractParameterValues(fhirResource);
@@ -812,6 +1432,23 @@ public class FHIRPersistenceJDBCNormalizedImpl extends FHIRPersistenceJDBCImpl i
                     }
                 }
             }
+
+            // Composite parameters are stored as their components, with the components of
+            // each composite value tied together by an id unique within the resource
+            int compositeId = 0;
+            for (Entry<SearchParameter, List<CompositeValue>> entry : SearchUtil.extractCompositeParameterValues(fhirResource).entrySet()) {
+                for (CompositeValue value : entry.getValue()) {
+                    List<Parameter> parameters = processor.processComposite(entry.getKey(), value, ++compositeId);
+                    for (Parameter p : parameters) {
+                        p.setResourceId(resourceDTO.getId());
+                        p.setResourceType(fhirResource.getClass().getSimpleName());
+                        allParameters.add(p);
+                    }
+                    if (log.isLoggable(Level.FINE) && !parameters.isEmpty()) {
+                        log.fine("Extracted composite Parameter '" + entry.getKey().getCode().getValue() + "' from Resource.");
+                    }
+                }
+            }
         }
         finally {
             log.exiting(CLASSNAME, METHODNAME);
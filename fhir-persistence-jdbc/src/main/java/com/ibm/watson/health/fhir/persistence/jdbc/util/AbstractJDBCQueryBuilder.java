@@ -99,6 +99,9 @@ public abstract class AbstractJDBCQueryBuilder<T1, T2> extends AbstractQueryBuil
             if (Modifier.MISSING.equals(queryParm.getModifier())) {
                 return this.processMissingParm(resourceType, queryParm, tableAlias);
             }
+            if (TextIndexUtil.isFullTextSearch(queryParm)) {
+                return this.processTextParm(queryParm);
+            }
             // NOTE: The special logic needed to process NEAR and NEAR_DISTANCE query parms for the Location resource type is
             // found in method processLocationPosition(). This method will not handle those.
             if (! (Location.class.equals(resourceType) && 
@@ -128,6 +131,8 @@ public abstract class AbstractJDBCQueryBuilder<T1, T2> extends AbstractQueryBuil
                         break;
                 case URI:       databaseQueryParm = this.processUriParm(queryParm, tableAlias);
                         break;
+                case COMPOSITE: databaseQueryParm = this.processCompositeParm(resourceType, queryParm);
+                        break;
                 
                 default: throw new FHIRPersistenceNotSupportedException("Parm type not yet supported: " + type.value());
                 }
@@ -145,6 +150,29 @@ public abstract class AbstractJDBCQueryBuilder<T1, T2> extends AbstractQueryBuil
 
     protected abstract T1 processMissingParm(Class<?> resourceType, Parameter queryParm, String tableAlias) throws FHIRPersistenceException;
 
+    /**
+     * Process a _text, _content or :text search, which is answered by the full-text index
+     * rather than by one of the parameter values tables.
+     * @param queryParm
+     * @return
+     * @throws FHIRPersistenceException
+     */
+    protected T1 processTextParm(Parameter queryParm) throws FHIRPersistenceException {
+        throw new FHIRPersistenceNotSupportedException("Full-text search is not supported: " + queryParm.getName());
+    }
+
+    /**
+     * Process a composite search parameter. The components of each value must all match
+     * the same occurrence of the composite in the resource.
+     * @param resourceType
+     * @param queryParm
+     * @return
+     * @throws Exception
+     */
+    protected T1 processCompositeParm(Class<?> resourceType, Parameter queryParm) throws Exception {
+        throw new FHIRPersistenceNotSupportedException("Composite search is not supported: " + queryParm.getName());
+    }
+
     @Override
     protected T1 processNumberParm(Class<?> resourceType, Parameter queryParm) throws FHIRPersistenceException {
         return processNumberParm(resourceType, queryParm, PARAMETERS_TABLE_ALIAS);
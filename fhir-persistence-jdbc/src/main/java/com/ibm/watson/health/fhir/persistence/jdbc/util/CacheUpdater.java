@@ -24,14 +24,16 @@ public abstract class CacheUpdater implements Synchronization {
     private static final Logger log = Logger.getLogger(CLASSNAME);
         
     private Map<String, Integer> cacheCandidates;
-    private String tenantDatastoreCacheName;
+    private String tenantId;
+    private String dataStoreId;
     
     
-    public CacheUpdater(String tenantDatastoreCacheName, Map<String, Integer> newCacheCandidates) {
+    public CacheUpdater(String tenantId, String dataStoreId, Map<String, Integer> newCacheCandidates) {
         super();
         Objects.requireNonNull(newCacheCandidates);
         this.setCacheCandidates(newCacheCandidates);
-        this.setTenantDatastoreCacheName(tenantDatastoreCacheName);
+        this.setTenantId(tenantId);
+        this.setDataStoreId(dataStoreId);
     }
     
      /**
@@ -84,12 +86,20 @@ public abstract class CacheUpdater implements Synchronization {
         this.cacheCandidates = cacheCandidates;
     }
 
-    public String getTenantDatastoreCacheName() {
-        return tenantDatastoreCacheName;
+    public String getTenantId() {
+        return tenantId;
     }
 
-    public void setTenantDatastoreCacheName(String tenantDatastoreCacheName) {
-        this.tenantDatastoreCacheName = tenantDatastoreCacheName;
+    public void setTenantId(String tenantId) {
+        this.tenantId = tenantId;
+    }
+
+    public String getDataStoreId() {
+        return dataStoreId;
+    }
+
+    public void setDataStoreId(String dataStoreId) {
+        this.dataStoreId = dataStoreId;
     }
 
 }
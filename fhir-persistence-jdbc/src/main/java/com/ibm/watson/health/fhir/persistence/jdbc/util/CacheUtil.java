@@ -51,7 +51,7 @@ public class CacheUtil {
      * @param dbMap - The contents of the DB table that back the passed cachedMap.
      * @return String - A report of the discrepancies between the passed maps.
      */
-    public static String reportCacheDiscrepancies(String cacheName, ConcurrentHashMap<String,Integer> cachedMap, Map<String, Integer> dbMap) {
+    public static String reportCacheDiscrepancies(String cacheName, Map<String,Integer> cachedMap, Map<String, Integer> dbMap) {
         
         StringBuilder report = new StringBuilder();
         int dbMapCount, cachedMapCount;
@@ -7,7 +7,6 @@
 package com.ibm.watson.health.fhir.persistence.jdbc.util;
 
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,6 +18,8 @@ import com.ibm.watson.health.fhir.persistence.jdbc.exception.FHIRPersistenceData
 /**
  * This class provides a static cache for FHIR Systems that are part of Token type Search parameters. This data is gathered from tables
  * defined as part of the "normalized" relational database schema.
+ * Each FHIR tenant/datastore combination has its own mapping of system-name to system-id, which is held
+ * in a bounded {@link IdCache}.
  * @author markd
  *
  */
@@ -27,77 +28,73 @@ public class CodeSystemsCache {
     private static final String CLASSNAME = CodeSystemsCache.class.getName(); 
     private static final Logger log = Logger.getLogger(CLASSNAME);
     
-    private static boolean enabled = true;
-
-    /**
-     * The following is a map of parameter name maps. Each FHIR tenant/datastore combination will have its own
-     * mapping of system-name to system-id.
-     */
-    private static ConcurrentHashMap<String,ConcurrentHashMap<String,Integer>> codeSystemIdMaps = new ConcurrentHashMap<>();
+    private static final IdCache codeSystemIds = new IdCache("CodeSystemsCache");
     
     /**
-     * Retrieves the id for the passed system, for the current tenant-datastore. 
+     * Retrieves the id for the passed code system name, for the current tenant-datastore. 
      * If not found, null is returned.
-     * @param parameter The name of a code system
-     * @return Integer The id corresponding to the passed code system
+     * @param systemName The name of a code system.
+     * @return Integer The id corresponding to the passed code system name.
      */
     public static Integer getCodeSystemId(String systemName) {
         
-        String tenantDatstoreCacheName = getCacheNameForTenantDatastore();
-        ConcurrentHashMap<String,Integer> currentDsMap;
-        Integer systemId = null;
-        String encodedSysName = SQLParameterEncoder.encode(systemName);
-        
-        if (enabled) {
-            currentDsMap = codeSystemIdMaps.putIfAbsent(tenantDatstoreCacheName, new ConcurrentHashMap<String,Integer>());
-            if (currentDsMap == null) {
-                log.fine("getCodeSystemId() - Added new cache map for tennantDatastore=" + tenantDatstoreCacheName);
-            }
-            currentDsMap = codeSystemIdMaps.get(tenantDatstoreCacheName);
-            systemId = currentDsMap.get(encodedSysName);
-        }
-        return systemId;
+        FHIRRequestContext requestContext = FHIRRequestContext.get();
+        return codeSystemIds.getId(requestContext.getTenantId(), requestContext.getDataStoreId(), SQLParameterEncoder.encode(systemName));
     }
     
     /**
-     * Adds the passed code system name and id to the current tenant-datastore cache.
-     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to. 
-     * @param systemName A valid code system name.
+     * Adds the passed code system name and id to the cache of the passed tenant-datastore.
+     * @param tenantId The tenant id of the datastore-specific cache the entry should be added to.
+     * @param dataStoreId The datastore id of the datastore-specific cache the entry should be added to.
+     * @param systemName The name of a code system.
      * @param systemId The id associated with the passed code system name.
      */
-    public static void putCodeSystemId(String tenantDatastoreCacheName, String systemName, Integer systemId) {
+    public static void putCodeSystemId(String tenantId, String dataStoreId, String systemName, Integer systemId) {
         
-        ConcurrentHashMap<String,Integer> currentDsMap;
-        Integer tempValue;
-        String encodedSysName = SQLParameterEncoder.encode(systemName);
+        codeSystemIds.putId(tenantId, dataStoreId, SQLParameterEncoder.encode(systemName), systemId);
+    }
+    
+    /**
+     * Adds the passed code system name/id pairs to the cache of the passed tenant-datastore.
+     * @param tenantId The tenant id of the datastore-specific cache the entries should be added to.
+     * @param dataStoreId The datastore id of the datastore-specific cache the entries should be added to.
+     * @param newCodeSystems A Map containing code system name/id pairs.
+     */
+    public static void putCodeSystemIds(String tenantId, String dataStoreId, Map<String, Integer> newCodeSystems) {
         
-        if (enabled) {
-            currentDsMap = codeSystemIdMaps.putIfAbsent(tenantDatastoreCacheName, new ConcurrentHashMap<String,Integer>());
-            if (currentDsMap == null) {
-                log.fine("putCodeSystemId() - Added new cache map for tennantDatastore=" + tenantDatastoreCacheName);
-            }
-            currentDsMap = codeSystemIdMaps.get(tenantDatastoreCacheName);
-            tempValue = currentDsMap.putIfAbsent(encodedSysName, systemId);
-            if (tempValue == null) {
-                log.fine("putCodeSystemId() - Added new cache entry, key=" + encodedSysName + "  value=" + systemId + "  tenantDatstoreCacheName=" + tenantDatastoreCacheName);
-            }
+        for (Map.Entry<String, Integer> entry : newCodeSystems.entrySet()) {
+            putCodeSystemId(tenantId, dataStoreId, entry.getKey(), entry.getValue());
         }
     }
     
     /**
-     * Adds the passed code system name/id pairs to the the current tenant-datastore cache.
-     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to. 
-     * @param newParameters A Map containing code system name/id pairs.
+     * Loads the entire CODE_SYSTEMS table into the cache of the current tenant-datastore with a single query,
+     * unless this has already been done.
+     * @param dao A Parameter DAO instance
+     * @throws FHIRPersistenceDBConnectException
+     * @throws FHIRPersistenceDataAccessException
      */
-    public static void putCodeSystemIds(String tenantDatastoreCacheName, Map<String, Integer> newCodeSystems) {
+    public static void preload(ParameterNormalizedDAO dao) throws FHIRPersistenceDBConnectException, FHIRPersistenceDataAccessException {
         
-        if (enabled) {
-            for (Map.Entry<String, Integer> entry : newCodeSystems.entrySet()) {
-                 putCodeSystemId(tenantDatastoreCacheName, entry.getKey(), entry.getValue());
-            }
+        FHIRRequestContext requestContext = FHIRRequestContext.get();
+        String tenantId = requestContext.getTenantId();
+        String dataStoreId = requestContext.getDataStoreId();
+        
+        if (codeSystemIds.isEnabled() && !codeSystemIds.isPreloaded(tenantId, dataStoreId)) {
+            codeSystemIds.preload(tenantId, dataStoreId, dao.readAllCodeSystems());
         }
     }
     
+    /**
+     * Discards the cached code system name ids of the passed tenant-datastore.
+     * @param tenantId The tenant id.
+     * @param dataStoreId The datastore id.
+     */
+    public static void invalidate(String tenantId, String dataStoreId) {
+        
+        codeSystemIds.invalidate(tenantId, dataStoreId);
+    }
+    
     /**
      * Returns a String containing a combination of the current tenantId and datastoreId.
      * @return
@@ -117,7 +114,7 @@ public class CodeSystemsCache {
      */
     public static String dumpCacheContents() {
         
-        return CacheUtil.dumpCacheContents("CodeSystemsCache", codeSystemIdMaps);
+        return codeSystemIds.dumpCacheContents();
     }
     
     /**
@@ -127,12 +124,12 @@ public class CodeSystemsCache {
      */
     public static String reportCacheDiscrepancies(ParameterNormalizedDAO dao) {
         
-        String tenantDatstoreCacheName = getCacheNameForTenantDatastore();
+        FHIRRequestContext requestContext = FHIRRequestContext.get();
         Map<String, Integer> dbMap;
-        ConcurrentHashMap<String,Integer> cachedMap = codeSystemIdMaps.get(tenantDatstoreCacheName);
+        Map<String,Integer> cachedMap = codeSystemIds.getIds(requestContext.getTenantId(), requestContext.getDataStoreId());
         String discrepancies = "";
         
-        if (enabled) {
+        if (codeSystemIds.isEnabled()) {
             try {
                 dbMap = dao.readAllCodeSystems();
                 discrepancies = CacheUtil.reportCacheDiscrepancies("CodeSystemsCache", cachedMap, dbMap);
@@ -145,21 +142,21 @@ public class CodeSystemsCache {
         
         return discrepancies;
     }
+    
+    /**
+     * 
+     * @return IdCache - The cache instance backing this class, e.g. for configuring its size and invalidation strategy.
+     */
+    public static IdCache getCache() {
+        return codeSystemIds;
+    }
 
     public static boolean isEnabled() {
-        return enabled;
+        return codeSystemIds.isEnabled();
     }
 
-    public static void setEnabled(boolean newEnabled) {
-        
-        if (newEnabled != enabled) {
-            synchronized(CodeSystemsCache.class) {
-                enabled = newEnabled;
-                // When enabling the cache, clear out any old stuff.
-                if (newEnabled) {
-                    codeSystemIdMaps.clear();
-                }
-            }
-        }
+    public static void setEnabled(boolean enabled) {
+        codeSystemIds.setEnabled(enabled);
     }
+
 }
@@ -0,0 +1,69 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ibm.watson.health.fhir.search.compartment.CompartmentCache;
+import com.ibm.watson.health.fhir.search.compartment.CompartmentUtil;
+
+/**
+ * Answers the question "which compartments does a reference put this resource in", using
+ * the compartment definitions loaded by {@link CompartmentUtil}. The definitions are
+ * inverted once per resource type, so the write path doesn't have to walk every
+ * compartment for every reference parameter.
+ */
+public class CompartmentMembershipUtil {
+
+    // The inclusion criterion which means "the compartment resource itself", e.g. an Encounter
+    // is in its own Encounter compartment
+    public static final String SELF_CRITERION = "{def}";
+
+    // resource type -> parameter name -> compartments the parameter places the resource in
+    private static final Map<String, Map<String, List<String>>> membership = new ConcurrentHashMap<>();
+
+    /**
+     * Private constructor. Static methods only
+     */
+    private CompartmentMembershipUtil() {
+        // NOP
+    }
+
+    /**
+     * Get the compartments a resource of the given type joins when its reference search
+     * parameter called parameterName refers to a resource of that compartment's type. Use
+     * {@link #SELF_CRITERION} as the parameterName to get the compartments which include
+     * the resource itself.
+     * @param resourceType the type of the referring resource
+     * @param parameterName the name of the reference search parameter
+     * @return the compartment types, never null
+     */
+    public static List<String> getCompartments(String resourceType, String parameterName) {
+        List<String> result = membership.computeIfAbsent(resourceType, CompartmentMembershipUtil::invert).get(parameterName);
+        return result != null ? result : Collections.emptyList();
+    }
+
+    /**
+     * Build the parameter name to compartments map for the given resource type
+     * @param resourceType
+     * @return
+     */
+    private static Map<String, List<String>> invert(String resourceType) {
+        Map<String, List<String>> result = new HashMap<>();
+        for (Map.Entry<String, CompartmentCache> entry: CompartmentUtil.buildCompartmentMap().entrySet()) {
+            for (String parameterName: entry.getValue().getParametersByResourceTypeInCompartment(resourceType)) {
+                result.computeIfAbsent(parameterName, k -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+        return result;
+    }
+}
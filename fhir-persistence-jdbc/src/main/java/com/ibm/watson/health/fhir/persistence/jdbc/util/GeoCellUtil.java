@@ -0,0 +1,160 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.ibm.watson.health.fhir.persistence.util.BoundingBox;
+
+/**
+ * Computes the spatial index cell (the GEO_CELL column of the xx_LATLNG_VALUES tables) of a position, and the
+ * ranges of cells which cover a bounding box.
+ *
+ * <p>The cell of a position is the Z-order (Morton) code of its longitude and latitude, each scaled to a grid of
+ * 2^{@value #BITS} steps and interleaved bit by bit. This is the integer form of a geohash: the cells of a coarser
+ * grid are prefixes of the code, so all the positions in a coarse cell form one contiguous range of codes, and an
+ * area can be searched with a few BETWEEN predicates on a single index.
+ */
+public class GeoCellUtil {
+
+    // The number of bits per coordinate; the finest cells are about 0.6m (longitude) by 0.3m (latitude)
+    public static final int BITS = 26;
+
+    // The default maximum number of cells used to cover a bounding box
+    public static final int DEFAULT_MAX_CELLS = 16;
+
+    private static final long MAX_CELL = (1L << (2 * BITS)) - 1;
+    private static final long MAX_STEP = (1L << BITS) - 1;
+
+    private GeoCellUtil() {
+        // static only
+    }
+
+    /**
+     * Computes the cell of the passed position
+     * @param latitude
+     * @param longitude
+     * @return the Z-order code of the finest cell containing the position
+     */
+    public static long cell(double latitude, double longitude) {
+        return interleave(longitudeStep(longitude), latitudeStep(latitude));
+    }
+
+    /**
+     * Computes the ranges of cells which cover the passed bounding box. The box is covered with cells of the finest
+     * grid which needs no more than maxCells cells; cells which are adjacent in Z-order are merged into one range.
+     * Boxes which cross the antimeridian are split in two, and boxes which span the whole globe (e.g. around a pole)
+     * are covered by a single range of all cells.
+     * @param boundingBox
+     * @param maxCells
+     * @return a sorted list of disjoint, inclusive [first, last] cell ranges
+     */
+    public static List<long[]> coveringRanges(BoundingBox boundingBox, int maxCells) {
+        double minLatitude = Math.max(-90.0, boundingBox.getMinLatitude());
+        double maxLatitude = Math.min(90.0, boundingBox.getMaxLatitude());
+        double minLongitude = boundingBox.getMinLongitude();
+        double maxLongitude = boundingBox.getMaxLongitude();
+
+        List<long[]> ranges = new ArrayList<>();
+        if (Double.isNaN(minLongitude) || Double.isNaN(maxLongitude) || maxLongitude - minLongitude >= 360.0) {
+            ranges.add(new long[] { 0, MAX_CELL });
+            return ranges;
+        }
+
+        if (minLongitude < -180.0) {
+            addCells(ranges, minLatitude, maxLatitude, minLongitude + 360.0, 180.0, maxCells / 2);
+            addCells(ranges, minLatitude, maxLatitude, -180.0, maxLongitude, maxCells / 2);
+        }
+        else if (maxLongitude > 180.0) {
+            addCells(ranges, minLatitude, maxLatitude, minLongitude, 180.0, maxCells / 2);
+            addCells(ranges, minLatitude, maxLatitude, -180.0, maxLongitude - 360.0, maxCells / 2);
+        }
+        else {
+            addCells(ranges, minLatitude, maxLatitude, minLongitude, maxLongitude, maxCells);
+        }
+
+        return merge(ranges);
+    }
+
+    /**
+     * Adds the cell ranges covering the box, which must not cross the antimeridian
+     */
+    private static void addCells(List<long[]> ranges, double minLatitude, double maxLatitude, double minLongitude, double maxLongitude,
+            int maxCells) {
+        long minX = longitudeStep(minLongitude);
+        long maxX = longitudeStep(maxLongitude);
+        long minY = latitudeStep(minLatitude);
+        long maxY = latitudeStep(maxLatitude);
+
+        // Find the finest grid on which the box spans no more than maxCells cells
+        int shift = 0;
+        while (shift < BITS && ((maxX >> shift) - (minX >> shift) + 1) * ((maxY >> shift) - (minY >> shift) + 1) > Math.max(1, maxCells)) {
+            shift++;
+        }
+
+        // Each cell of the coarser grid is a range of 2^(2*shift) cells of the finest grid
+        for (long x = minX >> shift; x <= maxX >> shift; x++) {
+            for (long y = minY >> shift; y <= maxY >> shift; y++) {
+                long first = interleave(x, y) << (2 * shift);
+                ranges.add(new long[] { first, first + (1L << (2 * shift)) - 1 });
+            }
+        }
+    }
+
+    /**
+     * Sorts the ranges and merges those which overlap or are adjacent
+     */
+    private static List<long[]> merge(List<long[]> ranges) {
+        Collections.sort(ranges, (a, b) -> Long.compare(a[0], b[0]));
+        List<long[]> result = new ArrayList<>();
+        for (long[] range : ranges) {
+            long[] last = result.isEmpty() ? null : result.get(result.size() - 1);
+            if (last != null && range[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], range[1]);
+            }
+            else {
+                result.add(range);
+            }
+        }
+        return result;
+    }
+
+    private static long longitudeStep(double longitude) {
+        return step((longitude + 180.0) / 360.0);
+    }
+
+    private static long latitudeStep(double latitude) {
+        return step((latitude + 90.0) / 180.0);
+    }
+
+    private static long step(double fraction) {
+        long step = (long) Math.floor(fraction * (MAX_STEP + 1));
+        return Math.max(0, Math.min(MAX_STEP, step));
+    }
+
+    /**
+     * Interleaves the bits of x (even positions) and y (odd positions)
+     */
+    private static long interleave(long x, long y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    /**
+     * Spreads the low 32 bits of v to the even bit positions of the result
+     */
+    private static long spread(long v) {
+        v &= 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8)) & 0x00FF00FF00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        v = (v | (v << 2)) & 0x3333333333333333L;
+        v = (v | (v << 1)) & 0x5555555555555555L;
+        return v;
+    }
+}
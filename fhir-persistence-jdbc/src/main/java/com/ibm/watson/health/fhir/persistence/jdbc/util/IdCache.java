@@ -0,0 +1,304 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.util;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * This class provides a bounded cache of name-to-id mappings (e.g. resource type names, search parameter names or
+ * code systems) which are read from tables defined as part of the "normalized" relational database schema.
+ *
+ * <p>Each FHIR tenant/datastore combination has its own partition of the cache. The partitions are held in a map of
+ * maps keyed by tenant id and datastore id, so that a lookup doesn't need to build a combined cache key.
+ *
+ * <p>The rows of the backing tables are never updated or deleted, so a cached entry can only become outdated if the
+ * tables of a datastore are re-created. Entries added by other server instances simply result in a cache miss.
+ * Each partition records when it was created, and an optional {@link IdCacheInvalidationStrategy} is consulted on
+ * every lookup to determine whether the partition should be discarded. A partition can also be discarded explicitly
+ * via {@link #invalidate(String, String)}, e.g. when a change to the datastore is signalled by another server.
+ *
+ * <p>Once a partition contains more than the maximum number of entries, an arbitrary tenth of its entries is evicted.
+ */
+public class IdCache {
+    private static final String CLASSNAME = IdCache.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final String cacheName;
+    private volatile boolean enabled = true;
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    private volatile IdCacheInvalidationStrategy invalidationStrategy;
+
+    /**
+     * A map of tenant id to a map of datastore id to the cache partition of that tenant/datastore combination.
+     */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Partition>> partitions = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * @param cacheName The name of the cache, used for logging and diagnostics.
+     */
+    public IdCache(String cacheName) {
+        this.cacheName = cacheName;
+    }
+
+    /**
+     * Retrieves the id for the passed name from the partition of the passed tenant-datastore.
+     * If not found, null is returned.
+     * @param tenantId The tenant id.
+     * @param dataStoreId The datastore id.
+     * @param name The name to look up.
+     * @return Integer The id corresponding to the passed name, or null.
+     */
+    public Integer getId(String tenantId, String dataStoreId, String name) {
+        if (!enabled) {
+            return null;
+        }
+
+        Integer id = null;
+        Partition partition = getPartition(tenantId, dataStoreId, false);
+        if (partition != null) {
+            id = partition.ids.get(name);
+        }
+        (id != null ? hitCount : missCount).incrementAndGet();
+        return id;
+    }
+
+    /**
+     * Adds the passed name and id to the partition of the passed tenant-datastore.
+     * @param tenantId The tenant id.
+     * @param dataStoreId The datastore id.
+     * @param name A valid name.
+     * @param id The id associated with the passed name.
+     */
+    public void putId(String tenantId, String dataStoreId, String name, Integer id) {
+        if (!enabled) {
+            return;
+        }
+
+        Partition partition = getPartition(tenantId, dataStoreId, true);
+        if (partition.ids.putIfAbsent(name, id) == null) {
+            log.fine(cacheName + " - Added new cache entry, key=" + name + "  value=" + id + "  tenantId=" + tenantId + "  dataStoreId=" + dataStoreId);
+            evict(partition);
+        }
+    }
+
+    /**
+     * Adds the passed name/id pairs to the partition of the passed tenant-datastore.
+     * @param tenantId The tenant id.
+     * @param dataStoreId The datastore id.
+     * @param newIds A Map containing name/id pairs.
+     */
+    public void putIds(String tenantId, String dataStoreId, Map<String, Integer> newIds) {
+        if (!enabled) {
+            return;
+        }
+
+        Partition partition = getPartition(tenantId, dataStoreId, true);
+        for (Map.Entry<String, Integer> entry : newIds.entrySet()) {
+            partition.ids.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        evict(partition);
+    }
+
+    /**
+     * Loads the complete contents of a backing table into the partition of the passed tenant-datastore, and marks
+     * the partition as preloaded.
+     * @param tenantId The tenant id.
+     * @param dataStoreId The datastore id.
+     * @param allIds A Map containing all name/id pairs of the backing table.
+     */
+    public void preload(String tenantId, String dataStoreId, Map<String, Integer> allIds) {
+        if (!enabled) {
+            return;
+        }
+
+        Partition partition = getPartition(tenantId, dataStoreId, true);
+        partition.ids.putAll(allIds);
+        partition.preloaded = true;
+        evict(partition);
+        log.fine(cacheName + " - Preloaded " + allIds.size() + " entries for tenantId=" + tenantId + "  dataStoreId=" + dataStoreId);
+    }
+
+    /**
+     * @return true if the partition of the passed tenant-datastore has been preloaded and not invalidated since.
+     */
+    public boolean isPreloaded(String tenantId, String dataStoreId) {
+        Partition partition = getPartition(tenantId, dataStoreId, false);
+        return partition != null && partition.preloaded;
+    }
+
+    /**
+     * Discards the partition of the passed tenant-datastore.
+     */
+    public void invalidate(String tenantId, String dataStoreId) {
+        ConcurrentHashMap<String, Partition> tenantPartitions = partitions.get(tenantId);
+        if (tenantPartitions != null && tenantPartitions.remove(dataStoreId) != null) {
+            invalidationCount.incrementAndGet();
+            log.fine(cacheName + " - Invalidated cache for tenantId=" + tenantId + "  dataStoreId=" + dataStoreId);
+        }
+    }
+
+    /**
+     * Discards the partitions of all tenant-datastores.
+     */
+    public void invalidateAll() {
+        for (ConcurrentHashMap<String, Partition> tenantPartitions : partitions.values()) {
+            invalidationCount.addAndGet(tenantPartitions.size());
+        }
+        partitions.clear();
+    }
+
+    /**
+     * Returns the partition of the passed tenant-datastore, discarding it first if the invalidation strategy
+     * considers it to be stale.
+     */
+    private Partition getPartition(String tenantId, String dataStoreId, boolean create) {
+        ConcurrentHashMap<String, Partition> tenantPartitions = partitions.get(tenantId);
+        if (tenantPartitions == null) {
+            if (!create) {
+                return null;
+            }
+            tenantPartitions = partitions.computeIfAbsent(tenantId, k -> new ConcurrentHashMap<>());
+        }
+
+        Partition partition = tenantPartitions.get(dataStoreId);
+        IdCacheInvalidationStrategy strategy = invalidationStrategy;
+        if (partition != null && strategy != null && strategy.isStale(tenantId, dataStoreId, partition.createdMillis)) {
+            if (tenantPartitions.remove(dataStoreId, partition)) {
+                invalidationCount.incrementAndGet();
+                log.fine(cacheName + " - Discarded stale cache for tenantId=" + tenantId + "  dataStoreId=" + dataStoreId);
+            }
+            partition = null;
+        }
+        if (partition == null && create) {
+            partition = tenantPartitions.computeIfAbsent(dataStoreId, k -> new Partition());
+        }
+        return partition;
+    }
+
+    /**
+     * Evicts a tenth of the entries of the passed partition once it holds more than the maximum number of entries.
+     */
+    private void evict(Partition partition) {
+        int max = maxEntries;
+        if (partition.ids.size() <= max) {
+            return;
+        }
+
+        int target = max - max / 10;
+        Iterator<String> iterator = partition.ids.keySet().iterator();
+        while (partition.ids.size() > target && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return Map - A read-only view of the partition of the passed tenant-datastore.
+     */
+    public Map<String, Integer> getIds(String tenantId, String dataStoreId) {
+        Partition partition = getPartition(tenantId, dataStoreId, false);
+        return partition != null ? Collections.unmodifiableMap(partition.ids) : Collections.<String, Integer>emptyMap();
+    }
+
+    /**
+     *
+     * @return String - A formatted representation of the entire cache.
+     */
+    public String dumpCacheContents() {
+        StringBuilder dumpedCache = new StringBuilder();
+        dumpedCache.append(CacheUtil.NEWLINE).append("Contents of ").append(cacheName).append(CacheUtil.NEWLINE);
+        for (Map.Entry<String, ConcurrentHashMap<String, Partition>> tenantEntry : partitions.entrySet()) {
+            for (Map.Entry<String, Partition> dsEntry : tenantEntry.getValue().entrySet()) {
+                dumpedCache.append(cacheName).append(" for datastoreid: ").append(tenantEntry.getKey()).append("~").append(dsEntry.getKey())
+                        .append(CacheUtil.NEWLINE);
+                dumpedCache.append(dsEntry.getValue().ids.toString().replaceAll(",", CacheUtil.NEWLINE)).append(CacheUtil.NEWLINE);
+            }
+        }
+        return dumpedCache.toString();
+    }
+
+    /**
+     *
+     * @return String - A formatted summary of the cache hit/miss/eviction/invalidation counts.
+     */
+    public String getStatistics() {
+        return String.format("%s[hits=%d, misses=%d, evictions=%d, invalidations=%d]",
+            cacheName, getHitCount(), getMissCount(), getEvictionCount(), getInvalidationCount());
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            invalidateAll();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    public IdCacheInvalidationStrategy getInvalidationStrategy() {
+        return invalidationStrategy;
+    }
+
+    /**
+     * Sets the strategy used to detect stale partitions; if null, partitions are only discarded explicitly.
+     */
+    public void setInvalidationStrategy(IdCacheInvalidationStrategy invalidationStrategy) {
+        this.invalidationStrategy = invalidationStrategy;
+    }
+
+    /**
+     * The cached ids of a single tenant/datastore combination.
+     */
+    private static class Partition {
+        private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+        private final long createdMillis = System.currentTimeMillis();
+        private volatile boolean preloaded = false;
+    }
+}
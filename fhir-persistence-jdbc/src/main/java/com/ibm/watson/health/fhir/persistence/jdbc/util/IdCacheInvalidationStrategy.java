@@ -0,0 +1,35 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Determines whether the cached ids of a tenant/datastore combination held by an {@link IdCache} are stale and
+ * should be discarded.
+ */
+@FunctionalInterface
+public interface IdCacheInvalidationStrategy {
+
+    /**
+     * @param tenantId The tenant id.
+     * @param dataStoreId The datastore id.
+     * @param createdMillis The time (in milliseconds since the epoch) at which the cache partition was created.
+     * @return true if the cache partition of the passed tenant-datastore should be discarded.
+     */
+    boolean isStale(String tenantId, String dataStoreId, long createdMillis);
+
+    /**
+     * Returns a strategy which discards cache partitions once they are older than the passed age.
+     * @param maxAge The maximum age of a cache partition.
+     * @param unit The unit of maxAge.
+     */
+    static IdCacheInvalidationStrategy maxAge(long maxAge, TimeUnit unit) {
+        long maxAgeMillis = unit.toMillis(maxAge);
+        return (tenantId, dataStoreId, createdMillis) -> System.currentTimeMillis() - createdMillis > maxAgeMillis;
+    }
+}
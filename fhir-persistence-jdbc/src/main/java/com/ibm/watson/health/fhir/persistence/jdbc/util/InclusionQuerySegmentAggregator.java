@@ -32,7 +32,7 @@ public class InclusionQuerySegmentAggregator extends QuerySegmentAggregator {
     private static final String SELECT_COUNT_ROOT = "SELECT COUNT(RESOURCE_ID) FROM ";
     private static final String SELECT_ROOT = "SELECT RESOURCE_ID, LOGICAL_RESOURCE_ID, VERSION_ID, LAST_UPDATED, IS_DELETED, DATA, LOGICAL_ID FROM ";
     private static final String UNION_ALL = " UNION ALL ";
-    private static final String REVINCLUDE_JOIN = "JOIN  {0}_STR_VALUES P1 ON P1.LOGICAL_RESOURCE_ID = R.LOGICAL_RESOURCE_ID ";
+    private static final String REVINCLUDE_JOIN = "JOIN  {0}_REF_VALUES P1 ON P1.LOGICAL_RESOURCE_ID = R.LOGICAL_RESOURCE_ID ";
         
     private List<InclusionParameter> includeParameters;
     private List<InclusionParameter> revIncludeParameters;
@@ -73,9 +73,9 @@ public class InclusionQuerySegmentAggregator extends QuerySegmentAggregator {
          Organization_LOGICAL_RESOURCES LR ON R.LOGICAL_RESOURCE_ID=LR.LOGICAL_RESOURCE_ID WHERE 
          R.IS_DELETED <> 'Y' AND 
          R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID AND 
-         ('Organization/' || LR.LOGICAL_ID IN 
-           (SELECT P1.STR_VALUE FROM 
-            Patient_STR_VALUES P1 WHERE 
+         (LR.LOGICAL_RESOURCE_ID IN 
+           (SELECT P1.REF_LOGICAL_RESOURCE_ID FROM 
+            Patient_REF_VALUES P1 WHERE 
             P1.PARAMETER_NAME_ID=19 AND 
             P1.RESOURCE_ID IN 
             (SELECT R.RESOURCE_ID FROM 
@@ -97,11 +97,11 @@ public class InclusionQuerySegmentAggregator extends QuerySegmentAggregator {
          SELECT R.RESOURCE_ID, R.LOGICAL_RESOURCE_ID, R.VERSION_ID, R.LAST_UPDATED, R.IS_DELETED, R.DATA, LR.LOGICAL_ID FROM 
           Observation_RESOURCES R JOIN 
           Observation_LOGICAL_RESOURCES LR ON R.LOGICAL_RESOURCE_ID=LR.LOGICAL_RESOURCE_ID JOIN  
-          Observation_STR_VALUES P1 ON P1.RESOURCE_ID = R.RESOURCE_ID WHERE 
+          Observation_REF_VALUES P1 ON P1.LOGICAL_RESOURCE_ID = R.LOGICAL_RESOURCE_ID WHERE 
           R.IS_DELETED <> 'Y' AND 
           P1.PARAMETER_NAME_ID=29 AND 
-          P1.STR_VALUE='Patient/' || 
-           (SELECT LR.LOGICAL_ID FROM 
+          P1.REF_LOGICAL_RESOURCE_ID IN 
+           (SELECT R.LOGICAL_RESOURCE_ID FROM 
             Patient_RESOURCES R JOIN 
             Patient_LOGICAL_RESOURCES LR ON R.LOGICAL_RESOURCE_ID=LR.LOGICAL_RESOURCE_ID JOIN 
             Patient_TOKEN_VALUES P1 ON P1.RESOURCE_ID=R.RESOURCE_ID WHERE 
@@ -196,10 +196,10 @@ public class InclusionQuerySegmentAggregator extends QuerySegmentAggregator {
             queryString.append(QuerySegmentAggregator.WHERE_CLAUSE_ROOT).append(" AND ");
             // R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID AND
             queryString.append("R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID AND ");
-            // ('Organization/' || LR.LOGICAL_ID IN 
-            queryString.append("('").append(includeParm.getSearchParameterTargetType()).append("/' || LR.LOGICAL_ID IN ");
-            // (SELECT P1.STR_VALUE FROM OBSERVATION_STR_VALUES P1 WHERE
-            queryString.append("(SELECT P1.STR_VALUE FROM ").append(this.resourceType.getSimpleName()).append("_STR_VALUES P1 WHERE ");
+            // (LR.LOGICAL_RESOURCE_ID IN 
+            queryString.append("(LR.LOGICAL_RESOURCE_ID IN ");
+            // (SELECT P1.REF_LOGICAL_RESOURCE_ID FROM OBSERVATION_REF_VALUES P1 WHERE
+            queryString.append("(SELECT P1.REF_LOGICAL_RESOURCE_ID FROM ").append(this.resourceType.getSimpleName()).append("_REF_VALUES P1 WHERE ");
             // P1.PARAMETER_NAME_ID=xx AND 
             queryString.append("P1.PARAMETER_NAME_ID=").append(this.getParameterNameId(includeParm.getSearchParameter())).append(" AND ");
             // P1.RESOURCE_ID IN 
@@ -229,16 +229,16 @@ public class InclusionQuerySegmentAggregator extends QuerySegmentAggregator {
             queryString.append(QuerySegmentAggregator.SELECT_ROOT);
             // FROM Observation_RESOURCES R JOIN Observation_LOGICAL_RESOURCES LR ON R.LOGICAL_RESOURCE_ID=LR.LOGICAL_RESOURCE_ID
             queryString.append(MessageFormat.format(QuerySegmentAggregator.FROM_CLAUSE_ROOT, includeParm.getJoinResourceType()));
-            // JOIN Observation_STR_VALUES P1 ON P1.RESOURCE_ID = R.RESOURCE_ID
+            // JOIN Observation_REF_VALUES P1 ON P1.LOGICAL_RESOURCE_ID = R.LOGICAL_RESOURCE_ID
             queryString.append(MessageFormat.format(REVINCLUDE_JOIN, includeParm.getJoinResourceType()));
             // WHERE R.IS_DELETED <> 'Y' AND
             queryString.append(QuerySegmentAggregator.WHERE_CLAUSE_ROOT).append(" AND ");
             // P1.PARAMETER_NAME_ID=xx AND 
             queryString.append("P1.PARAMETER_NAME_ID=").append(this.getParameterNameId(includeParm.getSearchParameter())).append(" AND ");
-            // P1.STR_VALUE='Patient/'  ||
-            queryString.append("P1.STR_VALUE='").append(includeParm.getSearchParameterTargetType()).append("/' || ");
-            // (SELECT LR.LOGICAL_ID
-            queryString.append("(SELECT LR.LOGICAL_ID ");
+            // P1.REF_LOGICAL_RESOURCE_ID IN
+            queryString.append("P1.REF_LOGICAL_RESOURCE_ID IN ");
+            // (SELECT R.LOGICAL_RESOURCE_ID
+            queryString.append("(SELECT R.LOGICAL_RESOURCE_ID ");
             // Add FROM clause for "root" resource type
             queryString.append(super.buildFromClause());
             // Add WHERE clause for "root" resource type
@@ -11,10 +11,12 @@ import static com.ibm.watson.health.fhir.persistence.jdbc.util.QuerySegmentAggre
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -24,12 +26,15 @@ import com.ibm.watson.health.fhir.model.resource.SearchParameter;
 import com.ibm.watson.health.fhir.model.type.Code;
 import com.ibm.watson.health.fhir.model.util.FHIRUtil;
 import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceNotSupportedException;
 import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.ParameterNormalizedDAO;
 import com.ibm.watson.health.fhir.persistence.jdbc.dao.api.ResourceNormalizedDAO;
 import com.ibm.watson.health.fhir.persistence.jdbc.exception.FHIRPersistenceDBConnectException;
 import com.ibm.watson.health.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
 import com.ibm.watson.health.fhir.persistence.jdbc.util.AbstractJDBCQueryBuilder.JDBCOperator;
 import com.ibm.watson.health.fhir.persistence.util.BoundingBox;
+import com.ibm.watson.health.fhir.persistence.util.FHIRPersistenceUtil;
+import com.ibm.watson.health.fhir.search.SearchConstants;
 import com.ibm.watson.health.fhir.search.SearchConstants.Modifier;
 import com.ibm.watson.health.fhir.search.SearchConstants.Prefix;
 import com.ibm.watson.health.fhir.search.SearchConstants.Type;
@@ -69,6 +74,9 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
 
     protected static final String STR_VALUE = "STR_VALUE";
     protected static final String STR_VALUE_LCASE = "STR_VALUE_LCASE";
+    protected static final String REF_LOGICAL_RESOURCE_ID = "REF_LOGICAL_RESOURCE_ID";
+    protected static final String COMPARTMENT_TYPE_ID = "COMPARTMENT_TYPE_ID";
+    protected static final String COMPARTMENT_LOGICAL_ID = "COMPARTMENT_LOGICAL_ID";
     protected static final String TOKEN_VALUE = "TOKEN_VALUE";
     protected static final String CODE_SYSTEM_ID = "CODE_SYSTEM_ID";
     protected static final String CODE = "CODE";
@@ -81,6 +89,8 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
     protected static final String DATE_END = "DATE_END";
     protected static final String LATITUDE_VALUE = "LATITUDE_VALUE";
     protected static final String LONGITUDE_VALUE = "LONGITUDE_VALUE";
+    protected static final String GEO_CELL = "GEO_CELL";
+    protected static final String BETWEEN = " BETWEEN ";
 
     /**
      * Maps Parameter modifiers to SQL operators.
@@ -114,6 +124,9 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
     private ParameterNormalizedDAO parameterDao;
     private ResourceNormalizedDAO resourceDao;
 
+    // The ORDER BY expression of a Location near search, set when its query segment is built
+    private String nearOrdering;
+
     public static final boolean isIntegerSearch(Class<?> resourceType, Parameter queryParm) throws Exception {
         return ValueTypesFactory.getValueTypesProcessor().isIntegerSearch(resourceType, queryParm);
     }
@@ -216,6 +229,9 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
             if (querySegment != null) {
                 nearParameterIndex = this.findNearParameterIndex(searchParameters);
                 helper.addQueryData(querySegment, searchParameters.get(nearParameterIndex));
+                if (this.nearOrdering != null) {
+                    helper.setNearOrdering(searchParameters.get(nearParameterIndex), this.nearOrdering);
+                }
             }
             // If there are Location-position parameters but a querySegment was not built,
             // the query would be invalid. Note that valid parameters could be found in the following
@@ -346,10 +362,17 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
         whereClauseSegment.append(AND).append(LEFT_PAREN);
         for (ParameterValue value : queryParm.getValues()) {
             appendEscape = false;
+            // For anything other than an exact match, we search against the STR_VALUE_LCASE column, which holds the
+            // value "normalized" when it was stored; it has accents removed, is lower-cased and has its whitespace
+            // collapsed. This enables a case-insensitive, accent-insensitive search, provided the search value is
+            // normalized the same way.
+            boolean isNormalized = !(operator.equals(JDBCOperator.EQ) || Type.URI.equals(queryParm.getType()));
+            // The normalized value is compared with STR_VALUE_LCASE and the n-grams, which keep any quote characters,
+            // so it isn't run through SQLParameterEncoder; it is only ever passed as a bind variable.
+            String rawValue = isNormalized ? SearchUtil.normalizeForSearch(value.getValueString()) : SQLParameterEncoder.encode(value.getValueString());
             if (operator.equals(JDBCOperator.LIKE)) {
                 // Must escape special wildcard characters _ and % in the parameter value string.
-                tempSearchValue =
-                        SQLParameterEncoder.encode(value.getValueString().replace(PERCENT_WILDCARD, ESCAPE_PERCENT).replace(UNDERSCORE_WILDCARD, ESCAPE_UNDERSCORE));
+                tempSearchValue = rawValue.replace(PERCENT_WILDCARD, ESCAPE_PERCENT).replace(UNDERSCORE_WILDCARD, ESCAPE_UNDERSCORE);
                 if (Modifier.CONTAINS.equals(queryParm.getModifier())) {
                     searchValue = PERCENT_WILDCARD + tempSearchValue + PERCENT_WILDCARD;
                 } else {
@@ -359,32 +382,55 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
                 }
                 appendEscape = true;
             } else {
-                searchValue = SQLParameterEncoder.encode(value.getValueString());
+                searchValue = rawValue;
+            }
+
+            // A leading wildcard can't use the index on STR_VALUE_LCASE, so :contains first narrows
+            // the candidates using the n-grams of the search value
+            Set<String> ngrams = Collections.emptySet();
+            if (isNormalized && Modifier.CONTAINS.equals(queryParm.getModifier())) {
+                ngrams = NGramUtil.ngrams(rawValue);
             }
 
             // If multiple values are present, we need to OR them together.
             if (parmValueProcessed) {
                 whereClauseSegment.append(JDBCOperator.OR.value());
             }
+            if (!ngrams.isEmpty()) {
+                whereClauseSegment.append(LEFT_PAREN);
+            }
 
-            if (operator.equals(JDBCOperator.EQ) || Type.URI.equals(queryParm.getType())) {
+            if (isNormalized) {
+                // Build this piece: pX.str_value_lcase {operator} search-attribute-value
+                whereClauseSegment.append(tableAlias + DOT).append(STR_VALUE_LCASE).append(operator.value()).append(BIND_VAR);
+            } else {
                 // For an exact match, we search against the STR_VALUE column in the Resource's string values table.
                 // Build this piece: pX.str_value = search-attribute-value
                 whereClauseSegment.append(tableAlias + DOT).append(STR_VALUE).append(operator.value()).append(BIND_VAR);
-            } else {
-                // For anything other than an exact match, we search against the STR_VALUE_LCASE column in the
-                // Resource's string values table.
-                // Also, the search value is "normalized"; it has accents removed and is lower-cased. This enables a
-                // case-insensitive, accent-insensitive search.
-                // Build this piece: pX.str_value_lcase {operator} search-attribute-value
-                whereClauseSegment.append(tableAlias + DOT).append(STR_VALUE_LCASE).append(operator.value()).append(BIND_VAR);
-                searchValue = SearchUtil.normalizeForSearch(searchValue);
             }
             bindVariables.add(searchValue);
             // Build this piece: ESCAPE '+'
             if (appendEscape) {
                 whereClauseSegment.append(ESCAPE_EXPR);
             }
+
+            if (!ngrams.isEmpty()) {
+                // Build this piece: AND pX.LOGICAL_RESOURCE_ID IN (SELECT G.LOGICAL_RESOURCE_ID FROM STR_NGRAMS G
+                // WHERE G.PARAMETER_NAME_ID=x AND G.NGRAM IN (?,?,...) GROUP BY G.LOGICAL_RESOURCE_ID HAVING COUNT(*) = n))
+                whereClauseSegment.append(AND).append(tableAlias + DOT).append("LOGICAL_RESOURCE_ID").append(JDBCOperator.IN.value())
+                    .append("(SELECT G.LOGICAL_RESOURCE_ID FROM STR_NGRAMS G WHERE G.PARAMETER_NAME_ID=")
+                    .append(nullCheck(getParameterNameId(queryParm.getName())))
+                    .append(AND).append("G.NGRAM").append(JDBCOperator.IN.value()).append(LEFT_PAREN);
+                String delim = "";
+                for (String ngram: ngrams) {
+                    whereClauseSegment.append(delim).append(BIND_VAR);
+                    bindVariables.add(ngram);
+                    delim = ",";
+                }
+                whereClauseSegment.append(RIGHT_PAREN)
+                    .append(" GROUP BY G.LOGICAL_RESOURCE_ID HAVING COUNT(*) = ").append(ngrams.size())
+                    .append(RIGHT_PAREN).append(RIGHT_PAREN);
+            }
             parmValueProcessed = true;
         }
         whereClauseSegment.append(RIGHT_PAREN).append(RIGHT_PAREN);
@@ -460,16 +506,19 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
      *      device:Device.patient.family=Monella
      *
      *      SELECT R.RESOURCE_ID, R.LOGICAL_RESOURCE_ID, R.VERSION_ID, R.LAST_UPDATED, R.IS_DELETED, R.DATA,
-     *      LR.LOGICAL_ID FROM Observation_RESOURCES R, Observation_LOGICAL_RESOURCES LR , Observation_STR_VALUES P1
+     *      LR.LOGICAL_ID FROM Observation_RESOURCES R, Observation_LOGICAL_RESOURCES LR , Observation_REF_VALUES P1
      *      WHERE R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID AND R.IS_DELETED <> 'Y' AND P1.LOGICAL_RESOURCE_ID = R.LOGICAL_RESOURCE_ID AND
-     *      P1.PARAMETER_NAME_ID = 107 AND (p1.STR_VALUE IN (SELECT 'Device' || '/' || CLR1.LOGICAL_ID FROM
-     *      Device_RESOURCES CR1, Device_LOGICAL_RESOURCES CLR1, Device_STR_VALUES CP1 WHERE CR1.RESOURCE_ID =
+     *      P1.PARAMETER_NAME_ID = 107 AND (p1.REF_LOGICAL_RESOURCE_ID IN (SELECT CLR1.LOGICAL_RESOURCE_ID FROM
+     *      Device_RESOURCES CR1, Device_LOGICAL_RESOURCES CLR1, Device_REF_VALUES CP1 WHERE CR1.RESOURCE_ID =
      *      CLR1.CURRENT_RESOURCE_ID AND CR1.IS_DELETED <> 'Y' AND CP1.LOGICAL_RESOURCE_ID = CR1.LOGICAL_RESOURCE_ID AND
-     *      CP1.PARAMETER_NAME_ID = 17 AND CP1.STR_VALUE IN (SELECT 'Patient' || '/' || CLR2.LOGICAL_ID FROM
+     *      CP1.PARAMETER_NAME_ID = 17 AND CP1.REF_LOGICAL_RESOURCE_ID IN (SELECT CLR2.LOGICAL_RESOURCE_ID FROM
      *      Patient_RESOURCES CR2, Patient_LOGICAL_RESOURCES CLR2, Patient_STR_VALUES CP2 WHERE CR2.RESOURCE_ID =
      *      CLR2.CURRENT_RESOURCE_ID AND CR2.IS_DELETED <> 'Y' AND CP2.LOGICAL_RESOURCE_ID = CR2.LOGICAL_RESOURCE_ID AND
      *      CP2.PARAMETER_NAME_ID = 5 AND CP2.STR_VALUE = 'Monella')));
      *
+     *      The references in the chain are matched on the integer REF_LOGICAL_RESOURCE_ID of the REF_VALUES
+     *      tables rather than the 'Type/id' string held in STR_VALUES.
+     *
      * @param queryParm
      *            - A Parameter representing a chained query.
      * @return SqlQueryData - The query segment for a chained parameter reference search.
@@ -501,13 +550,13 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
                 if (refParmIndex == 0) {
                     // Must build this first piece using px placeholder table alias, which will be replaced with a
                     // generated value in the buildQuery() method.
-                    // Build this piece:P1.PARAMETER_NAME_ID = x AND (p1.STR_VALUE IN
+                    // Build this piece:P1.PARAMETER_NAME_ID = x AND (p1.REF_LOGICAL_RESOURCE_ID IN
                     this.populateNameIdSubSegment(whereClauseSegment, currentParm.getName(), PARAMETER_TABLE_ALIAS);
                     whereClauseSegment.append(JDBCOperator.AND.value());
                     whereClauseSegment.append(LEFT_PAREN);
-                    whereClauseSegment.append(PARAMETER_TABLE_ALIAS + DOT).append(STR_VALUE).append(JDBCOperator.IN.value());
+                    whereClauseSegment.append(PARAMETER_TABLE_ALIAS + DOT).append(REF_LOGICAL_RESOURCE_ID).append(JDBCOperator.IN.value());
                 } else {
-                    // Build this piece: CP1.PARAMETER_NAME_ID = x AND CP1.STR_VALUE IN
+                    // Build this piece: CP1.PARAMETER_NAME_ID = x AND CP1.REF_LOGICAL_RESOURCE_ID IN
                     appendMidChainParm(whereClauseSegment, currentParm, chainedParmVar);
                 }
 
@@ -527,7 +576,7 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
                     break;
                 }
                 resourceTypeName = currentParm.getModifierResourceTypeName();
-                // Build this piece: (SELECT 'resource-type-name' || '/' || CLRx.LOGICAL_ID ...
+                // Build this piece: (SELECT CLRx.LOGICAL_RESOURCE_ID ...
                 whereClauseSegment.append(LEFT_PAREN);
                 appendInnerSelect(whereClauseSegment, currentParm, nextParmaterType, resourceTypeName, chainedResourceVar, chainedLogicalResourceVar, chainedParmVar);
             } else {
@@ -561,7 +610,7 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
                 this.parameterDao.addParameterNamesCacheCandidate(currentParm.getName(), parameterNameId);
             }
         }
-        whereClauseSegment.append(chainedParmVar).append(".").append("PARAMETER_NAME_ID").append(JDBCOperator.EQ.value()).append(parameterNameId).append(JDBCOperator.AND.value()).append(chainedParmVar).append(".").append(STR_VALUE).append(JDBCOperator.IN.value());
+        whereClauseSegment.append(chainedParmVar).append(".").append("PARAMETER_NAME_ID").append(JDBCOperator.EQ.value()).append(parameterNameId).append(JDBCOperator.AND.value()).append(chainedParmVar).append(".").append(REF_LOGICAL_RESOURCE_ID).append(JDBCOperator.IN.value());
     }
 
     private void appendInnerSelect(StringBuilder whereClauseSegment, Parameter currentParm, Type nextParmaterType, String resourceTypeName,
@@ -570,9 +619,8 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
         String chainedLogicalResourceTableAlias = chainedLogicalResourceVar + ".";
         String chainedParmTableAlias = chainedParmVar + ".";
 
-        // Build this piece: SELECT 'resource-type-name' || '/' || CLRx.LOGICAL_ID
-        whereClauseSegment.append("SELECT ").append("'" + resourceTypeName
-                + "'").append(" || ").append("'/'").append(" || ").append(chainedLogicalResourceTableAlias).append("LOGICAL_ID");
+        // Build this piece: SELECT CLRx.LOGICAL_RESOURCE_ID
+        whereClauseSegment.append("SELECT ").append(chainedLogicalResourceTableAlias).append("LOGICAL_RESOURCE_ID");
 
         // Build this piece: FROM Device_RESOURCES CR1, Device_LOGICAL_RESOURCES CLR1, Device_STR_VALUES CP1 WHERE
         whereClauseSegment.append(" FROM ").append(resourceTypeName).append("_RESOURCES ").append(chainedResourceVar).append(", ").append(resourceTypeName).append("_LOGICAL_RESOURCES ").append(chainedLogicalResourceVar).append(", ");
@@ -591,6 +639,13 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
             whereClauseSegment.append(resourceTypeName + "_TOKEN_VALUES ");
             break;
         case REFERENCE:
+            // A reference in the middle of the chain is matched on its integer target
+            if (currentParm.getNextParameter() != null && currentParm.getNextParameter().getNextParameter() != null) {
+                whereClauseSegment.append(resourceTypeName + "_REF_VALUES ");
+            } else {
+                whereClauseSegment.append(resourceTypeName + "_STR_VALUES ");
+            }
+            break;
         case URI:
         case STRING:
         default:
@@ -635,7 +690,7 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
             if (selectGenerated) {
                 whereClauseSegment.append(" UNION ");
             }
-            // Build this piece: (SELECT 'resource-type-name' || '/' || CLRx.LOGICAL_ID ...
+            // Build this piece: (SELECT CLRx.LOGICAL_RESOURCE_ID ...
             resourceTypeName = resourceIdNameMap.get(resourceTypeId);
 
             if (!selectGenerated) {
@@ -662,34 +717,20 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
      * This method is the entry point for processing inclusion criteria, which define resources that are part of a
      * comparment-based search.
      * 
-     * @throws Exception
-     * @see compartments.json for the specificaiton of compartments, resources contained in each compartment, and the
-     *      criteria that must be for a resource to be included in a compartment. Example inclusion criteria for
-     *      AuditEvent in the Patient compartment: { "name": "AuditEvent", "inclusionCriteria": ["patient", This is a
-     *      simple attribute inclusion criterion "participant.patient:Device", This is a chained inclusion criterion
-     *      "participant.patient:RelatedPerson", This is a chained inclusion criterion "reference.patient:*"] This is a
-     *      chained inclusion criterion with wildcard. The wildcard means "any resource type". }
+     * The inclusion criteria (see compartments.json) are evaluated when a resource is stored, and the result is kept
+     * in the COMPARTMENT_MEMBERS table. Every criterion in the chain refers to the same compartment, so the whole
+     * chain becomes a single indexed lookup on that table, which is joined as the parameter table by the
+     * {@link QuerySegmentAggregator}.
+     *
+     *      Here is a sample generated query for AuditEvent in compartment Patient/123:
      *
-     *      Here is a sample generated query for this inclusion criteria: --PARAMETER_NAME_ID 13 = 'participant'
-     *      --PARAMETER_NAME_ID 14 = 'patient' --PARAMETER_NAME_ID 16 = 'reference'
+     *      SELECT COUNT(R.RESOURCE_ID) FROM AuditEvent_RESOURCES R JOIN AuditEvent_LOGICAL_RESOURCES LR ON
+     *      R.LOGICAL_RESOURCE_ID=LR.LOGICAL_RESOURCE_ID AND R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID
+     *      JOIN COMPARTMENT_MEMBERS P1 ON P1.LOGICAL_RESOURCE_ID=R.LOGICAL_RESOURCE_ID WHERE
+     *      (P1.COMPARTMENT_TYPE_ID = (SELECT RESOURCE_TYPE_ID FROM RESOURCE_TYPES WHERE RESOURCE_TYPE = ?) AND
+     *      P1.COMPARTMENT_LOGICAL_ID = ?);
      *
-     *      SELECT COUNT(R.RESOURCE_ID) FROM AuditEvent_RESOURCES R, AuditEvent_LOGICAL_RESOURCES LR ,
-     *      AuditEvent_STR_VALUES P1 WHERE R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID AND R.IS_DELETED <> 'Y' AND
-     *      P1.LOGICAL_RESOURCE_ID = LR.LOGICAL_RESOURCE_ID AND ((P1.PARAMETER_NAME_ID=14 AND P1.STR_VALUE = ?) OR
-     *      ((P1.PARAMETER_NAME_ID=13 AND (P1.STR_VALUE IN (SELECT 'Device' || '/' || CLR1.LOGICAL_ID FROM
-     *      Device_RESOURCES CR1, Device_LOGICAL_RESOURCES CLR1, Device_STR_VALUES CP1 WHERE CR1.RESOURCE_ID =
-     *      CLR1.CURRENT_RESOURCE_ID AND CR1.IS_DELETED <> 'Y' AND CP1.LOGICAL_RESOURCE_ID = CLR1.LOGICAL_RESOURCE_ID AND
-     *      CP1.PARAMETER_NAME_ID=14 AND CP1.STR_VALUE = ?)))) OR ((P1.PARAMETER_NAME_ID=13 AND (P1.STR_VALUE IN (SELECT
-     *      'RelatedPerson' || '/' || CLR1.LOGICAL_ID FROM RelatedPerson_RESOURCES CR1, RelatedPerson_LOGICAL_RESOURCES
-     *      CLR1, RelatedPerson_STR_VALUES CP1 WHERE CR1.RESOURCE_ID = CLR1.CURRENT_RESOURCE_ID AND CR1.IS_DELETED <>
-     *      'Y' AND CP1.LOGICAL_RESOURCE_ID = CLR1.LOGICAL_RESOURCE_ID AND CP1.PARAMETER_NAME_ID=14 AND CP1.STR_VALUE = ?)))) OR
-     *      ((P1.PARAMETER_NAME_ID=16 AND (P1.STR_VALUE IN (SELECT 'AuditEvent' || '/' || CLR1.LOGICAL_ID FROM
-     *      auditevent_RESOURCES CR1, auditevent_LOGICAL_RESOURCES CLR1, auditevent_STR_VALUES CP1 WHERE CR1.RESOURCE_ID
-     *      = CLR1.CURRENT_RESOURCE_ID AND CR1.IS_DELETED <> 'Y' AND CP1.LOGICAL_RESOURCE_ID = CLR1.LOGICAL_RESOURCE_ID AND
-     *      CP1.PARAMETER_NAME_ID=14 AND CP1.STR_VALUE = ? UNION SELECT 'Device' || '/' || CLR1.LOGICAL_ID FROM
-     *      device_RESOURCES CR1, device_LOGICAL_RESOURCES CLR1, device_STR_VALUES CP1 WHERE CR1.RESOURCE_ID =
-     *      CLR1.CURRENT_RESOURCE_ID AND CR1.IS_DELETED <> 'Y' AND CP1.LOGICAL_RESOURCE_ID = CLR1.LOGICAL_RESOURCE_ID AND
-     *      CP1.PARAMETER_NAME_ID=14 AND CP1.STR_VALUE = ?)))));
+     * @throws Exception
      */
     @Override
     protected SqlQueryData processInclusionCriteria(Parameter queryParm) throws Exception {
@@ -697,45 +738,30 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
         log.entering(CLASSNAME, METHODNAME, queryParm.toString());
 
         StringBuilder whereClauseSegment = new StringBuilder();
-        JDBCOperator operator = JDBCOperator.EQ;
-        Parameter currentParm;
-        String currentParmValue;
         List<Object> bindVariables = new ArrayList<>();
         SqlQueryData queryData;
-        SqlQueryData chainedIncQueryData;
 
-        currentParm = queryParm;
-        whereClauseSegment.append(LEFT_PAREN);
-        while (currentParm != null) {
-            if (currentParm.getValues() == null || currentParm.getValues().isEmpty()) {
-                throw new FHIRPersistenceException("No Paramter values found when processing inclusion criteria.");
-            }
-            // Handle the special case of chained inclusion criteria.
-            if (currentParm.getName().contains(".")) {
-                whereClauseSegment.append(LEFT_PAREN);
-                chainedIncQueryData = this.processChainedInclusionCriteria(currentParm);
-                whereClauseSegment.append(chainedIncQueryData.getQueryString());
-                bindVariables.addAll(chainedIncQueryData.getBindVariables());
-                whereClauseSegment.append(RIGHT_PAREN);
-            } else {
-                currentParmValue = currentParm.getValues().get(0).getValueString();
-                // Build this piece:
-                // (pX.PARAMETER_NAME_ID = x AND
-                this.populateNameIdSubSegment(whereClauseSegment, currentParm.getName(), PARAMETER_TABLE_ALIAS);
-                whereClauseSegment.append(JDBCOperator.AND.value());
-                // Build this piece: pX.str_value = search-attribute-value
-                whereClauseSegment.append(PARAMETER_TABLE_ALIAS + DOT).append(STR_VALUE).append(operator.value()).append(BIND_VAR);
-                whereClauseSegment.append(RIGHT_PAREN);
-                bindVariables.add(currentParmValue);
-            }
+        if (queryParm.getValues() == null || queryParm.getValues().isEmpty()) {
+            throw new FHIRPersistenceException("No Paramter values found when processing inclusion criteria.");
+        }
 
-            currentParm = currentParm.getNextParameter();
-            // If more than one parameter is in the chain, OR them together.
-            if (currentParm != null) {
-                whereClauseSegment.append(JDBCOperator.OR.value());
-            }
+        // The compartment is identified by a relative reference: compartment-type/compartment-id
+        String currentParmValue = queryParm.getValues().get(0).getValueString();
+        String[] compartmentRef = currentParmValue.split("/");
+        if (compartmentRef.length != 2) {
+            throw new FHIRPersistenceException("Invalid compartment reference in inclusion criteria: " + currentParmValue);
         }
+
+        // Build this piece: (pX.COMPARTMENT_TYPE_ID = (SELECT RESOURCE_TYPE_ID FROM RESOURCE_TYPES WHERE RESOURCE_TYPE = ?)
+        // AND pX.COMPARTMENT_LOGICAL_ID = ?)
+        whereClauseSegment.append(LEFT_PAREN);
+        whereClauseSegment.append(PARAMETER_TABLE_ALIAS + DOT).append(COMPARTMENT_TYPE_ID).append(JDBCOperator.EQ.value())
+            .append("(SELECT RESOURCE_TYPE_ID FROM RESOURCE_TYPES WHERE RESOURCE_TYPE = ").append(BIND_VAR).append(RIGHT_PAREN);
+        whereClauseSegment.append(AND).append(PARAMETER_TABLE_ALIAS + DOT).append(COMPARTMENT_LOGICAL_ID).append(JDBCOperator.EQ.value()).append(BIND_VAR);
         whereClauseSegment.append(RIGHT_PAREN);
+        bindVariables.add(compartmentRef[0]);
+        bindVariables.add(compartmentRef[1]);
+
         queryData = new SqlQueryData(whereClauseSegment.toString(), bindVariables);
         log.exiting(CLASSNAME, METHODNAME, whereClauseSegment.toString());
         return queryData;
@@ -996,6 +1022,126 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
         return queryData;
     }
 
+    /*
+     * (non-Javadoc)
+     * @see com.ibm.watson.health.fhir.persistence.jdbc.util.AbstractJDBCQueryBuilder#processTextParm(com.ibm.watson.health.
+     * fhir.search.Parameter)
+     */
+    @Override
+    protected SqlQueryData processTextParm(Parameter queryParm) throws FHIRPersistenceException {
+        final String METHODNAME = "processTextParm";
+        log.entering(CLASSNAME, METHODNAME, queryParm.toString());
+
+        // Without the indexer, TEXT_TERMS is never written, so the search would silently match nothing
+        if (TextIndexer.getInstance() == null) {
+            throw new FHIRPersistenceNotSupportedException("Full-text search is not enabled: " + queryParm.getName());
+        }
+
+        StringBuilder whereClauseSegment = new StringBuilder();
+        boolean parmValueProcessed = false;
+        List<Object> bindVariables = new ArrayList<>();
+        Integer parameterNameId = getParameterNameId(queryParm.getName());
+
+        whereClauseSegment.append(LEFT_PAREN);
+        for (ParameterValue value : queryParm.getValues()) {
+            // If multiple values are present, we need to OR them together.
+            if (parmValueProcessed) {
+                whereClauseSegment.append(JDBCOperator.OR.value());
+            }
+
+            // The resource must have every word of the value, so the value is split
+            // the same way as the text which was indexed
+            Set<String> terms = TextIndexUtil.terms(SQLParameterEncoder.encode(value.getValueString()));
+            if (terms.isEmpty()) {
+                // nothing to look for, so nothing matches
+                whereClauseSegment.append("1 = 0");
+            } else {
+                // Build this piece: R.LOGICAL_RESOURCE_ID IN (SELECT T.LOGICAL_RESOURCE_ID FROM TEXT_TERMS T
+                // WHERE T.PARAMETER_NAME_ID=x AND T.TERM IN (?,?,...) GROUP BY T.LOGICAL_RESOURCE_ID HAVING COUNT(*) = n)
+                whereClauseSegment.append("R.LOGICAL_RESOURCE_ID").append(JDBCOperator.IN.value())
+                    .append("(SELECT T.LOGICAL_RESOURCE_ID FROM TEXT_TERMS T WHERE T.PARAMETER_NAME_ID=")
+                    .append(nullCheck(parameterNameId))
+                    .append(AND).append("T.TERM").append(JDBCOperator.IN.value()).append(LEFT_PAREN);
+                String delim = "";
+                for (String term: terms) {
+                    whereClauseSegment.append(delim).append(BIND_VAR);
+                    bindVariables.add(term);
+                    delim = ",";
+                }
+                whereClauseSegment.append(RIGHT_PAREN)
+                    .append(" GROUP BY T.LOGICAL_RESOURCE_ID HAVING COUNT(*) = ").append(terms.size())
+                    .append(RIGHT_PAREN);
+            }
+            parmValueProcessed = true;
+        }
+        whereClauseSegment.append(RIGHT_PAREN);
+
+        SqlQueryData queryData = new SqlQueryData(whereClauseSegment.toString(), bindVariables);
+        log.exiting(CLASSNAME, METHODNAME);
+        return queryData;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.ibm.watson.health.fhir.persistence.jdbc.util.AbstractJDBCQueryBuilder#processCompositeParm(java.lang.Class,
+     * com.ibm.watson.health.fhir.search.Parameter)
+     */
+    @Override
+    protected SqlQueryData processCompositeParm(Class<?> resourceType, Parameter queryParm) throws Exception {
+        final String METHODNAME = "processCompositeParm";
+        log.entering(CLASSNAME, METHODNAME, queryParm.toString());
+
+        StringBuilder whereClauseSegment = new StringBuilder();
+        boolean parmValueProcessed = false;
+        List<Object> bindVariables = new ArrayList<>();
+
+        whereClauseSegment.append(LEFT_PAREN);
+        for (ParameterValue value : queryParm.getValues()) {
+            // If multiple values are present, we need to OR them together.
+            if (parmValueProcessed) {
+                whereClauseSegment.append(JDBCOperator.OR.value());
+            }
+
+            // The components are stored under the name of the composite and the index of the
+            // component, and the rows of the same composite value share the COMPOSITE_ID.
+            // Build this piece: R.LOGICAL_RESOURCE_ID IN (SELECT C0.LOGICAL_RESOURCE_ID FROM <type>_TOKEN_VALUES C0
+            // JOIN <type>_QUANTITY_VALUES C1 ON C1.LOGICAL_RESOURCE_ID = C0.LOGICAL_RESOURCE_ID AND C1.COMPOSITE_ID = C0.COMPOSITE_ID
+            // WHERE (C0.PARAMETER_NAME_ID=x AND ...) AND (C1.PARAMETER_NAME_ID=y AND ...))
+            StringBuilder fromClause = new StringBuilder();
+            StringBuilder whereClause = new StringBuilder();
+            List<Parameter> components = value.getComponent();
+            for (int i = 0; i < components.size(); i++) {
+                Parameter component = components.get(i);
+                String alias = "C" + i;
+                Parameter componentParm = new Parameter(component.getType(), queryParm.getName() + SearchConstants.COMPOSITE_DELIMITER + i, null, null,
+                    component.getValues());
+                SqlQueryData componentData = buildQueryParm(resourceType, componentParm, alias);
+
+                if (i == 0) {
+                    fromClause.append(getValuesTableName(resourceType, component.getType())).append(" ").append(alias);
+                } else {
+                    fromClause.append(" JOIN ").append(getValuesTableName(resourceType, component.getType())).append(" ").append(alias)
+                        .append(" ON ").append(alias).append(".LOGICAL_RESOURCE_ID = C0.LOGICAL_RESOURCE_ID")
+                        .append(AND).append(alias).append(".COMPOSITE_ID = C0.COMPOSITE_ID");
+                    whereClause.append(AND);
+                }
+                whereClause.append(componentData.getQueryString());
+                bindVariables.addAll(componentData.getBindVariables());
+            }
+
+            whereClauseSegment.append("R.LOGICAL_RESOURCE_ID").append(JDBCOperator.IN.value())
+                .append("(SELECT C0.LOGICAL_RESOURCE_ID FROM ").append(fromClause)
+                .append(WHERE).append(whereClause)
+                .append(RIGHT_PAREN);
+            parmValueProcessed = true;
+        }
+        whereClauseSegment.append(RIGHT_PAREN);
+
+        SqlQueryData queryData = new SqlQueryData(whereClauseSegment.toString(), bindVariables);
+        log.exiting(CLASSNAME, METHODNAME);
+        return queryData;
+    }
+
     @Override
     protected SqlQueryData processNumberParm(Class<?> resourceType, Parameter queryParm, String tableAlias) throws FHIRPersistenceException {
         final String METHODNAME = "processNumberParm";
@@ -1216,6 +1362,17 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
         }
     }
 
+    /**
+     * Builds the query segment of a Location near search. The positions are first narrowed down to the ranges of
+     * geo cells which cover the bounding box, which is a range scan of the parameter name + GEO_CELL index, and
+     * then filtered by their exact great-circle distance from the center of the box:
+     * 
+     * (pX.PARAMETER_NAME_ID = x AND (pX.GEO_CELL BETWEEN ? AND ? OR ...) AND
+     *  ? * SIN(RADIANS(pX.LATITUDE_VALUE)) + ? * COS(RADIANS(pX.LATITUDE_VALUE)) * COS(RADIANS(pX.LONGITUDE_VALUE) - ?) >= ?)
+     * 
+     * The left side of the distance predicate is the cosine of the angle between the position and the center,
+     * which is also used to order the results by distance.
+     */
     @Override
     protected SqlQueryData buildLocationQuerySegment(String parmName, BoundingBox boundingBox) throws FHIRPersistenceException {
         final String METHODNAME = "buildLocationQuerySegment";
@@ -1229,23 +1386,66 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
         // (P1.PARAMETER_NAME_ID = x AND
         this.populateNameIdSubSegment(whereClauseSegment, parmName, PARAMETER_TABLE_ALIAS);
 
-        // Now build the piece that compares the BoundingBox longitude and latitude values
-        // to the persisted longitude and latitude parameters.
-        whereClauseSegment.append(JDBCOperator.AND.value()).append(LEFT_PAREN).append(PARAMETER_TABLE_ALIAS
-                + DOT).append(LONGITUDE_VALUE).append(JDBCOperator.LTE.value()).append(BIND_VAR).append(JDBCOperator.AND.value()).append(PARAMETER_TABLE_ALIAS
-                        + DOT).append(LONGITUDE_VALUE).append(JDBCOperator.GTE.value()).append(BIND_VAR).append(JDBCOperator.AND.value()).append(PARAMETER_TABLE_ALIAS
-                                + DOT).append(LATITUDE_VALUE).append(JDBCOperator.LTE.value()).append(BIND_VAR).append(JDBCOperator.AND.value()).append(PARAMETER_TABLE_ALIAS
-                                        + DOT).append(LATITUDE_VALUE).append(JDBCOperator.GTE.value()).append(BIND_VAR).append(RIGHT_PAREN).append(RIGHT_PAREN);
-        bindVariables.add(boundingBox.getMaxLongitude());
-        bindVariables.add(boundingBox.getMinLongitude());
-        bindVariables.add(boundingBox.getMaxLatitude());
-        bindVariables.add(boundingBox.getMinLatitude());
+        // Now build the piece that selects the cells covering the bounding box
+        whereClauseSegment.append(JDBCOperator.AND.value()).append(LEFT_PAREN);
+        List<long[]> ranges = GeoCellUtil.coveringRanges(boundingBox, GeoCellUtil.DEFAULT_MAX_CELLS);
+        for (int i = 0; i < ranges.size(); i++) {
+            if (i > 0) {
+                whereClauseSegment.append(JDBCOperator.OR.value());
+            }
+            whereClauseSegment.append(PARAMETER_TABLE_ALIAS + DOT).append(GEO_CELL).append(BETWEEN).append(BIND_VAR)
+                    .append(JDBCOperator.AND.value()).append(BIND_VAR);
+            bindVariables.add(ranges.get(i)[0]);
+            bindVariables.add(ranges.get(i)[1]);
+        }
+        whereClauseSegment.append(RIGHT_PAREN);
+
+        if (boundingBox.getDistance() != null) {
+            // and the exact distance from the center
+            double latitude = Math.toRadians(boundingBox.getLatitude());
+            double angle = Math.min(boundingBox.getDistance() / FHIRPersistenceUtil.EARTH_RADIUS_KILOMETERS, Math.PI);
+            whereClauseSegment.append(JDBCOperator.AND.value())
+                    .append(buildDistanceExpression(BIND_VAR, BIND_VAR, BIND_VAR))
+                    .append(JDBCOperator.GTE.value()).append(BIND_VAR);
+            bindVariables.add(Math.sin(latitude));
+            bindVariables.add(Math.cos(latitude));
+            bindVariables.add(Math.toRadians(boundingBox.getLongitude()));
+            bindVariables.add(Math.cos(angle));
+
+            // The results are ordered by the same expression, nearest first
+            this.nearOrdering = buildDistanceExpression(Double.toString(Math.sin(latitude)), Double.toString(Math.cos(latitude)),
+                Double.toString(Math.toRadians(boundingBox.getLongitude()))) + " DESC";
+        }
+        else {
+            // Without a center, compare the BoundingBox longitude and latitude values to the persisted
+            // longitude and latitude parameters.
+            whereClauseSegment.append(JDBCOperator.AND.value()).append(PARAMETER_TABLE_ALIAS + DOT).append(LONGITUDE_VALUE)
+                    .append(BETWEEN).append(BIND_VAR).append(JDBCOperator.AND.value()).append(BIND_VAR)
+                    .append(JDBCOperator.AND.value()).append(PARAMETER_TABLE_ALIAS + DOT).append(LATITUDE_VALUE)
+                    .append(BETWEEN).append(BIND_VAR).append(JDBCOperator.AND.value()).append(BIND_VAR);
+            bindVariables.add(boundingBox.getMinLongitude());
+            bindVariables.add(boundingBox.getMaxLongitude());
+            bindVariables.add(boundingBox.getMinLatitude());
+            bindVariables.add(boundingBox.getMaxLatitude());
+        }
+        whereClauseSegment.append(RIGHT_PAREN);
 
         queryData = new SqlQueryData(whereClauseSegment.toString(), bindVariables);
         log.exiting(CLASSNAME, METHODNAME, whereClauseSegment.toString());
         return queryData;
     }
 
+    /**
+     * Builds the expression of the cosine of the angle between the persisted position and a center, given as
+     * the sine and cosine of its latitude and its longitude in radians.
+     */
+    private String buildDistanceExpression(String sinLatitude, String cosLatitude, String longitude) {
+        String latitudeColumn = "RADIANS(" + PARAMETER_TABLE_ALIAS + DOT + LATITUDE_VALUE + ")";
+        String longitudeColumn = "RADIANS(" + PARAMETER_TABLE_ALIAS + DOT + LONGITUDE_VALUE + ")";
+        return sinLatitude + " * SIN(" + latitudeColumn + ") + " + cosLatitude + " * COS(" + latitudeColumn + ") * COS("
+                + longitudeColumn + " - " + longitude + ")";
+    }
+
     /**
      * Populates the parameter name sub-segment of the passed where clause segment.
      * 
@@ -1257,11 +1457,56 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
         final String METHODNAME = "populateNameIdSubSegment";
         log.entering(CLASSNAME, METHODNAME, queryParmName);
 
-        Integer parameterNameId;
-
         // Build this piece of the segment:
         // (P1.PARAMETER_NAME_ID = x
-        parameterNameId = ParameterNamesCache.getParameterNameId(queryParmName);
+        Integer parameterNameId = getParameterNameId(queryParmName);
+        whereClauseSegment.append(LEFT_PAREN);
+        whereClauseSegment.append(parameterTableAlias + DOT).append("PARAMETER_NAME_ID=").append(nullCheck(parameterNameId));
+
+        log.exiting(CLASSNAME, METHODNAME);
+    }
+
+    /**
+     * Get the name of the table holding the values of parameters of the given type
+     * @param resourceType
+     * @param type
+     * @return
+     */
+    private String getValuesTableName(Class<?> resourceType, Type type) {
+        StringBuilder valuesTable = new StringBuilder(resourceType.getSimpleName());
+        switch (type) {
+        case URI:
+        case REFERENCE:
+        case STRING:
+            valuesTable.append("_STR_VALUES");
+            break;
+        case NUMBER:
+            valuesTable.append("_NUMBER_VALUES");
+            break;
+        case QUANTITY:
+            valuesTable.append("_QUANTITY_VALUES");
+            break;
+        case DATE:
+            valuesTable.append("_DATE_VALUES");
+            break;
+        case TOKEN:
+            valuesTable.append("_TOKEN_VALUES");
+            break;
+        default:
+            break;
+
+        }
+        return valuesTable.toString();
+    }
+
+    /**
+     * Look up the id of the named parameter, without creating it
+     * @param queryParmName
+     * @return the id, or null if the parameter has never been stored
+     * @throws FHIRPersistenceException
+     */
+    private Integer getParameterNameId(String queryParmName) throws FHIRPersistenceException {
+        Integer parameterNameId = ParameterNamesCache.getParameterNameId(queryParmName);
         if (parameterNameId == null) {
             // only try to read, not create
             parameterNameId = this.parameterDao.readParameterNameId(queryParmName);
@@ -1270,10 +1515,7 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
                 this.parameterDao.addParameterNamesCacheCandidate(queryParmName, parameterNameId);
             }
         }
-        whereClauseSegment.append(LEFT_PAREN);
-        whereClauseSegment.append(parameterTableAlias + DOT).append("PARAMETER_NAME_ID=").append(nullCheck(parameterNameId));
-
-        log.exiting(CLASSNAME, METHODNAME);
+        return parameterNameId;
     }
 
     /**
@@ -1315,34 +1557,6 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
         return nearParameterIndex;
     }
 
-    /**
-     * This method handles the special case of chained inclusion criteria. Using data extracted from the passed query
-     * parameter, a new Parameter chain is built to represent the chained inclusion criteria. That new Parameter is then
-     * passed to the inherited processChainedReferenceParamter() method to generate the required where clause segment.
-     * 
-     * @see https://www.hl7.org/fhir/compartments.html
-     * @param queryParm
-     *            - A Parameter representing chained inclusion criterion.
-     * @return SqlQueryData - the where clause segment and bind variables for a chained inclusion criterion.
-     * @throws Exception
-     */
-    private SqlQueryData processChainedInclusionCriteria(Parameter queryParm) throws Exception {
-        final String METHODNAME = "processChainedInclusionCriteria";
-        log.entering(CLASSNAME, METHODNAME, queryParm.toString());
-
-        SqlQueryData queryData;
-        Parameter rootParameter = null;
-
-        // Transform the passed query parm into a chained parameter representation.
-        rootParameter = SearchUtil.parseChainedInclusionCriteria(queryParm);
-        // Call method to process the Parameter built by this method as a chained parameter.
-        queryData = this.processChainedReferenceParm(rootParameter);
-
-        log.exiting(CLASSNAME, METHODNAME);
-        return queryData;
-
-    }
-
     /*
      * (non-Javadoc)
      * @see
@@ -1383,29 +1597,7 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
         // whereClauseSegment.append(AND).append(tableAlias + DOT + "LOGICAL_RESOURCE_ID = LR.LOGICL_RESOURCE_ID");
         // whereClauseSegment.append(RIGHT_PAREN);
         // } else {
-        StringBuilder valuesTable = new StringBuilder(resourceType.getSimpleName());
-        switch (queryParm.getType()) {
-        case URI:
-        case REFERENCE:
-        case STRING:
-            valuesTable.append("_STR_VALUES");
-            break;
-        case NUMBER:
-            valuesTable.append("_NUMBER_VALUES");
-            break;
-        case QUANTITY:
-            valuesTable.append("_QUANTITY_VALUES");
-            break;
-        case DATE:
-            valuesTable.append("_DATE_VALUES");
-            break;
-        case TOKEN:
-            valuesTable.append("_TOKEN_VALUES");
-            break;
-        default:
-            break;
-
-        }
+        String valuesTable = getValuesTableName(resourceType, queryParm.getType());
 
         if (missing == null || missing) {
             whereClauseSegment.append("NOT ");
@@ -1414,7 +1606,7 @@ public class JDBCNormalizedQueryBuilder extends AbstractJDBCQueryBuilder<SqlQuer
 
         // Build this piece of the segment:
         // (P1.PARAMETER_NAME_ID = x AND P1.logical_resource_id = R.logical_resource_id))
-        this.populateNameIdSubSegment(whereClauseSegment, queryParm.getName(), valuesTable.toString());
+        this.populateNameIdSubSegment(whereClauseSegment, queryParm.getName(), valuesTable);
         whereClauseSegment.append(AND).append(valuesTable + DOT + "LOGICAL_RESOURCE_ID = R.LOGICAL_RESOURCE_ID");
         whereClauseSegment.append(RIGHT_PAREN).append(RIGHT_PAREN);
         // }
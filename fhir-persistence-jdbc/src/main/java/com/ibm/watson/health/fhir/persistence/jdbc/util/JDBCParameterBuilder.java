@@ -11,6 +11,7 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.logging.Level;
@@ -44,6 +45,7 @@ import com.ibm.watson.health.fhir.model.type.DataRequirement;
 import com.ibm.watson.health.fhir.model.type.Date;
 import com.ibm.watson.health.fhir.model.type.DateTime;
 import com.ibm.watson.health.fhir.model.type.Decimal;
+import com.ibm.watson.health.fhir.model.type.Element;
 import com.ibm.watson.health.fhir.model.type.Expression;
 import com.ibm.watson.health.fhir.model.type.HumanName;
 import com.ibm.watson.health.fhir.model.type.Id;
@@ -75,6 +77,9 @@ import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceProcessor
 import com.ibm.watson.health.fhir.persistence.jdbc.dto.Parameter;
 import com.ibm.watson.health.fhir.persistence.jdbc.dto.Parameter.TimeType;
 import com.ibm.watson.health.fhir.persistence.util.AbstractProcessor;
+import com.ibm.watson.health.fhir.search.SearchConstants;
+import com.ibm.watson.health.fhir.search.SearchConstants.Type;
+import com.ibm.watson.health.fhir.search.util.CompositeValue;
 
 /**
  * This class is the JDBC persistence layer implementation for transforming SearchParameters into Parameter DTOs for
@@ -96,6 +101,9 @@ public class JDBCParameterBuilder extends AbstractProcessor<List<Parameter>> {
     private static final Timestamp SMALLEST_TIMESTAMP = Timestamp.valueOf("0001-01-01 00:00:00.000000");
     private static final Timestamp LARGEST_TIMESTAMP = Timestamp.valueOf("9999-12-31 23:59:59.999999");
 
+    // The component types of the composite parameters which can be searched
+    private static final EnumSet<Type> COMPOSITE_COMPONENT_TYPES = EnumSet.of(Type.TOKEN, Type.QUANTITY, Type.DATE, Type.STRING, Type.NUMBER);
+
     private FHIRPersistenceProcessorException buildCodeOnlyNewException(SearchParameter parameter, Exception e) {
         // Issue 202: changed to Code
         return new FHIRPersistenceProcessorException(String.format(EXCEPTION_MSG_NAME_ONLY, parameter.getCode().getValue()), e);
@@ -122,6 +130,66 @@ public class JDBCParameterBuilder extends AbstractProcessor<List<Parameter>> {
         return parameters;
     }
 
+    /**
+     * Build the parameters for one composite parameter value. Each component is stored like
+     * a parameter of the component's type, named after the composite parameter followed by
+     * '$' and the index of the component, and the rows of all the components share the
+     * given composite id.
+     * Composites with a component which isn't a token, quantity, date, string or number, and
+     * values missing one of their components, can't be searched so no parameters are built.
+     * 
+     * @param parameter the composite search parameter
+     * @param value
+     * @param compositeId unique within the logical resource
+     * @return
+     * @throws FHIRPersistenceProcessorException
+     */
+    public List<Parameter> processComposite(SearchParameter parameter, CompositeValue value, int compositeId) throws FHIRPersistenceProcessorException {
+        List<Parameter> parameters = new ArrayList<>();
+
+        List<SearchParameter> components = value.getComponents();
+        for (int i = 0; i < components.size(); i++) {
+            SearchParameter component = components.get(i);
+            Type type = Type.fromValue(component.getType().getValue());
+            if (!COMPOSITE_COMPONENT_TYPES.contains(type)) {
+                return buildUnsupportedTypeResponse(SearchParameter.class);
+            }
+
+            List<Parameter> componentParameters = new ArrayList<>();
+            for (FHIRPathNode node : value.getValues().get(i)) {
+                if (isCoded(node)) {
+                    // process the element as a whole, so that the system and code of a coding are stored together
+                    componentParameters.addAll(process(component, (Object) node.asElementNode().element()));
+                } else {
+                    componentParameters.addAll(process(component, node));
+                }
+            }
+            if (componentParameters.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            for (Parameter p : componentParameters) {
+                p.setName(parameter.getCode().getValue() + SearchConstants.COMPOSITE_DELIMITER + i);
+                p.setType(type);
+                p.setCompositeId(compositeId);
+            }
+            parameters.addAll(componentParameters);
+        }
+
+        return parameters;
+    }
+
+    /**
+     * @return true if the node is a CodeableConcept, Coding or Identifier, whose system and value are only meaningful together
+     */
+    private boolean isCoded(FHIRPathNode node) {
+        if (!(node instanceof FHIRPathElementNode)) {
+            return false;
+        }
+        Element element = node.asElementNode().element();
+        return element.is(CodeableConcept.class) || element.is(Coding.class) || element.is(Identifier.class);
+    }
+
     @Override
     public List<Parameter> process(SearchParameter parameter, FHIRPathAbstractNode value) throws FHIRPersistenceProcessorException {
         String methodName = "process(SearchParameter, FHIRPathAbstractNode)";
@@ -162,6 +230,10 @@ public class JDBCParameterBuilder extends AbstractProcessor<List<Parameter>> {
                 FHIRPathQuantityNode quantity = ((FHIRPathQuantityNode) value).asQuantityNode();
                 parameters.addAll(process(parameter, quantity.quantity()));
 
+            } else if (value.asElementNode().element().is(Location.Position.class)) {
+                // Location near: the latitude and longitude are stored together
+                parameters.addAll(process(parameter, value.asElementNode().element().as(Location.Position.class)));
+
             } else {
                 parameters.addAll(processChildren(parameter, value.children(), value.path()));
             }
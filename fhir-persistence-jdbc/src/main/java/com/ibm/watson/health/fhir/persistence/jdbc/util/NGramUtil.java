@@ -0,0 +1,44 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.util;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.ibm.watson.health.fhir.schema.control.FhirSchemaConstants;
+
+/**
+ * Splits normalized string values into the fixed-length fragments (n-grams) held in the
+ * STR_NGRAMS table. The same split is used when storing a value and when searching
+ * for it, so a value containing the search string must contain all of its n-grams.
+ */
+public class NGramUtil {
+
+    /**
+     * Private constructor. Static methods only
+     */
+    private NGramUtil() {
+        // NOP
+    }
+
+    /**
+     * Get the distinct n-grams of the given value, in the order they first appear. Values
+     * shorter than {@link FhirSchemaConstants#NGRAM_LENGTH} have no n-grams.
+     * @param normalizedValue a value already normalized for search
+     * @return
+     */
+    public static Set<String> ngrams(String normalizedValue) {
+        Set<String> result = new LinkedHashSet<>();
+        if (normalizedValue != null) {
+            final int n = FhirSchemaConstants.NGRAM_LENGTH;
+            for (int i=0; i + n <= normalizedValue.length(); i++) {
+                result.add(normalizedValue.substring(i, i + n));
+            }
+        }
+        return result;
+    }
+}
@@ -7,7 +7,6 @@
 package com.ibm.watson.health.fhir.persistence.jdbc.util;
 
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,6 +18,8 @@ import com.ibm.watson.health.fhir.persistence.jdbc.exception.FHIRPersistenceData
 /**
  * This class provides a static cache for FHIR Search Parameter names. This data is gathered from tables
  * defined as part of the "normalized" relational database schema.
+ * Each FHIR tenant/datastore combination has its own mapping of parameter-name to parameter-name-id, which is held
+ * in a bounded {@link IdCache}.
  * @author markd
  *
  */
@@ -27,80 +28,70 @@ public class ParameterNamesCache {
     private static final String CLASSNAME = ParameterNamesCache.class.getName(); 
     private static final Logger log = Logger.getLogger(CLASSNAME);
     
-    private static boolean enabled = true;
-
-    /**
-     * The following is a map of parameter name maps. Each FHIR tenant/datastore combination will have its own
-     * mapping of parameter-name to parameter-name-id.
-     */
-    private static ConcurrentHashMap<String,ConcurrentHashMap<String,Integer>> parameterNameIdMaps = new ConcurrentHashMap<>();
+    private static final IdCache parameterNameIds = new IdCache("ParameterNamesCache");
     
     /**
-     * Retrieves the id for the name contained in the passed Parameter, for the current tenant-datastore. 
+     * Retrieves the id for the passed search parameter name, for the current tenant-datastore. 
      * If not found, null is returned.
      * @param parameterName A valid FHIR search parameter name.
-     * @return Integer The id corresponding to the parameter name.
-     * @throws FHIRPersistenceDataAccessException 
-     * @throws FHIRPersistenceDBConnectException 
+     * @return Integer The id corresponding to the passed search parameter name.
      */
     public static Integer getParameterNameId(String parameterName) {
         
-        String tenantDatstoreCacheName = getCacheNameForTenantDatastore();
-        ConcurrentHashMap<String,Integer> currentDsMap;
-        Integer parameterNameId = null;
+        FHIRRequestContext requestContext = FHIRRequestContext.get();
+        return parameterNameIds.getId(requestContext.getTenantId(), requestContext.getDataStoreId(), parameterName);
+    }
+    
+    /**
+     * Adds the passed search parameter name and id to the cache of the passed tenant-datastore.
+     * @param tenantId The tenant id of the datastore-specific cache the entry should be added to.
+     * @param dataStoreId The datastore id of the datastore-specific cache the entry should be added to.
+     * @param parameterName A valid FHIR search parameter name.
+     * @param parameterNameId The id associated with the passed search parameter name.
+     */
+    public static void putParameterNameId(String tenantId, String dataStoreId, String parameterName, Integer parameterNameId) {
         
-        if (enabled) {
-            currentDsMap = parameterNameIdMaps.putIfAbsent(tenantDatstoreCacheName, new ConcurrentHashMap<String,Integer>());
-            if (currentDsMap == null) {
-                log.fine("getParameterNameId() - Added new cache map for tennantDatastore=" + tenantDatstoreCacheName);
-            }
-            currentDsMap = parameterNameIdMaps.get(tenantDatstoreCacheName);
-            parameterNameId = currentDsMap.get(parameterName);
-        }
-                        
-        return parameterNameId;
-         
+        parameterNameIds.putId(tenantId, dataStoreId, parameterName, parameterNameId);
     }
     
     /**
-     * Adds the passed parameter name and id to the current tenant-datastore cache.
-     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to. 
-     * @param parameterName A valid search parameter name.
-     * @param parameterId The id associated with the passed parameter name.
+     * Adds the passed search parameter name/id pairs to the cache of the passed tenant-datastore.
+     * @param tenantId The tenant id of the datastore-specific cache the entries should be added to.
+     * @param dataStoreId The datastore id of the datastore-specific cache the entries should be added to.
+     * @param newParameters A Map containing search parameter name/id pairs.
      */
-    public static void putParameterNameId(String tenantDatastoreCacheName, String parameterName, Integer parameterId) {
-
-        ConcurrentHashMap<String,Integer> currentDsMap;
-        Integer tempValue;
+    public static void putParameterNameIds(String tenantId, String dataStoreId, Map<String, Integer> newParameters) {
         
-        if (enabled) {
-            currentDsMap = parameterNameIdMaps.putIfAbsent(tenantDatastoreCacheName, new ConcurrentHashMap<String,Integer>());
-            if (currentDsMap == null) {
-                log.fine("putParameterNameId() - Added new cache map for tennantDatastore=" + tenantDatastoreCacheName);
-            }
-            currentDsMap = parameterNameIdMaps.get(tenantDatastoreCacheName);
-            tempValue = currentDsMap.putIfAbsent(parameterName, parameterId);
-            if (tempValue == null) {
-                log.fine("putParameterNameId() - Added new cache entry, key=" + parameterName + "  value=" + parameterId + "  tenantDatstoreCacheName=" + tenantDatastoreCacheName);
-            }
-        }
+        parameterNameIds.putIds(tenantId, dataStoreId, newParameters);
     }
     
     /**
-     * Adds the passed search parameter name/id pairs to the the current tenant-datastore cache.
-     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to. 
-     * @param newParameters A Map containing parameter name/id pairs.
+     * Loads the entire PARAMETER_NAMES table into the cache of the current tenant-datastore with a single query,
+     * unless this has already been done.
+     * @param dao A Parameter DAO instance
+     * @throws FHIRPersistenceDBConnectException
+     * @throws FHIRPersistenceDataAccessException
      */
-    public static void putParameterNameIds(String tenantDatastoreCacheName, Map<String, Integer> newParameters) {
+    public static void preload(ParameterNormalizedDAO dao) throws FHIRPersistenceDBConnectException, FHIRPersistenceDataAccessException {
         
-        if (enabled) {
-            for (Map.Entry<String, Integer> entry : newParameters.entrySet()) {
-                 putParameterNameId(tenantDatastoreCacheName, entry.getKey(), entry.getValue());
-            }
+        FHIRRequestContext requestContext = FHIRRequestContext.get();
+        String tenantId = requestContext.getTenantId();
+        String dataStoreId = requestContext.getDataStoreId();
+        
+        if (parameterNameIds.isEnabled() && !parameterNameIds.isPreloaded(tenantId, dataStoreId)) {
+            parameterNameIds.preload(tenantId, dataStoreId, dao.readAllSearchParameterNames());
         }
     }
     
-    
+    /**
+     * Discards the cached search parameter name ids of the passed tenant-datastore.
+     * @param tenantId The tenant id.
+     * @param dataStoreId The datastore id.
+     */
+    public static void invalidate(String tenantId, String dataStoreId) {
+        
+        parameterNameIds.invalidate(tenantId, dataStoreId);
+    }
     
     /**
      * Returns a String containing a combination of the current tenantId and datastoreId.
@@ -121,10 +112,9 @@ public class ParameterNamesCache {
      */
     public static String dumpCacheContents() {
         
-        return CacheUtil.dumpCacheContents("ParameterNamesCache", parameterNameIdMaps);
+        return parameterNameIds.dumpCacheContents();
     }
     
-    
     /**
      * Determines and reports any discrepancies between the current thread's Parameter Names cache and the contents of the database PARAMETER_NAMES table.
      * @param dao A Parameter DAO instance
@@ -132,12 +122,12 @@ public class ParameterNamesCache {
      */
     public static String reportCacheDiscrepancies(ParameterNormalizedDAO dao) {
         
-        String tenantDatstoreCacheName = getCacheNameForTenantDatastore();
-        ConcurrentHashMap<String,Integer> cachedMap = parameterNameIdMaps.get(tenantDatstoreCacheName);
+        FHIRRequestContext requestContext = FHIRRequestContext.get();
         Map<String, Integer> dbMap;
+        Map<String,Integer> cachedMap = parameterNameIds.getIds(requestContext.getTenantId(), requestContext.getDataStoreId());
         String discrepancies = "";
         
-        if (enabled) {
+        if (parameterNameIds.isEnabled()) {
             try {
                 dbMap = dao.readAllSearchParameterNames();
                 discrepancies = CacheUtil.reportCacheDiscrepancies("ParameterNamesCache", cachedMap, dbMap);
@@ -151,21 +141,20 @@ public class ParameterNamesCache {
         return discrepancies;
     }
     
+    /**
+     * 
+     * @return IdCache - The cache instance backing this class, e.g. for configuring its size and invalidation strategy.
+     */
+    public static IdCache getCache() {
+        return parameterNameIds;
+    }
+
     public static boolean isEnabled() {
-        return enabled;
+        return parameterNameIds.isEnabled();
     }
 
-    public static void setEnabled(boolean newEnabled) {
-        
-        if (newEnabled != enabled) {
-            synchronized(CodeSystemsCache.class) {
-                enabled = newEnabled;
-                // When enabling the cache, clear out any old stuff.
-                if (newEnabled) {
-                    parameterNameIdMaps.clear();
-                }
-            }
-        }
+    public static void setEnabled(boolean enabled) {
+        parameterNameIds.setEnabled(enabled);
     }
 
 }
@@ -0,0 +1,197 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.util;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import com.ibm.watson.health.fhir.config.FHIRRequestContext;
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.BackgroundDAOFactory;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.FHIRDbDAOBasicImpl;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ResourceReferenceDAO;
+
+/**
+ * This resolver collects the resources written within a transaction which parked some of their references in
+ * PENDING_REFERENCES and, upon a transaction commit, resolves those references in a separate transaction. A reference
+ * is parked when its target isn't visible to the referring transaction, and the transaction creating the target only
+ * resolves the parked rows it can see. If the referring and target resources are written concurrently, neither
+ * transaction sees the other's rows, so the target may only become visible after the referring transaction has
+ * committed. A reference which is still parked is therefore tried again a few times, with an increasing delay, before
+ * it is left for a later write of its target. If the transaction is rolled back, there is nothing to resolve.
+ */
+public class PendingReferenceResolver implements Synchronization {
+    private static final String CLASSNAME = PendingReferenceResolver.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    // The number of times the references are resolved, and the wait between the attempts
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_DELAY_MILLIS = 500;
+
+    private final String tenantId;
+    private final String dataStoreId;
+    private final String tenantKey;
+
+    // Runs the resolution once the transaction has completed; null to run it (once) on the completing thread
+    private final Executor executor;
+
+    // The resources written by this transaction with parked references, as "resourceType/logicalId".
+    private final Set<String> writtenResources = new LinkedHashSet<>();
+
+    /**
+     * @param context the request context of the transaction, which determines the tenant and datastore
+     * @param executor runs the resolution once the transaction has completed; null to run it on the completing thread,
+     *     without retrying the references which are still parked
+     */
+    public PendingReferenceResolver(FHIRRequestContext context, Executor executor) {
+        this.tenantId = context.getTenantId();
+        this.dataStoreId = context.getDataStoreId();
+        this.tenantKey = context.getTenantKey();
+        this.executor = executor;
+    }
+
+    /**
+     * Records that the transaction created or updated the passed resource, and parked some of its references.
+     * @param resourceType A valid FHIR resource type name.
+     * @param logicalId
+     */
+    public void addWrittenResource(String resourceType, String logicalId) {
+        writtenResources.add(resourceType + "/" + logicalId);
+    }
+
+    /**
+     * Resolves the parked references of the written resources after being notified by the Trx
+     * Synchronization service that the transaction on the current thread has successfully committed.
+     */
+    @Override
+    public void afterCompletion(int completionStatus) {
+        final String METHODNAME = "afterCompletion";
+        log.entering(CLASSNAME, METHODNAME);
+
+        if (completionStatus == Status.STATUS_COMMITTED && !writtenResources.isEmpty()) {
+            List<String> resources = new ArrayList<>(writtenResources);
+            if (executor != null) {
+                executor.execute(() -> resolve(resources));
+            } else {
+                // the completing thread still carries the request context of the transaction
+                FHIRRequestContext requestContext = FHIRRequestContext.get();
+                resolve(resources);
+                FHIRRequestContext.set(requestContext);
+            }
+        }
+
+        writtenResources.clear();
+
+        log.exiting(CLASSNAME, METHODNAME);
+    }
+
+    @Override
+    public void beforeCompletion() {
+    }
+
+    /**
+     * Resolve the pending references of the passed resources, trying again while some of them are still parked
+     * @param resources the written resources, as "resourceType/logicalId"
+     */
+    private void resolve(List<String> resources) {
+        try {
+            FHIRRequestContext context = new FHIRRequestContext(tenantId, dataStoreId);
+            if (tenantKey != null) {
+                context.setTenantKey(tenantKey);
+            }
+            FHIRRequestContext.set(context);
+
+            List<String> remaining = resources;
+            for (int attempt = 1; ; attempt++) {
+                remaining = resolveOnce(remaining);
+                if (remaining.isEmpty() || executor == null || attempt >= MAX_ATTEMPTS) {
+                    break;
+                }
+                awaitRetry(attempt);
+            }
+            if (!remaining.isEmpty() && log.isLoggable(Level.FINE)) {
+                log.fine(remaining.size() + " resources still have pending references, starting with: " + remaining.get(0));
+            }
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        } catch (Exception x) {
+            // the references are resolved again when their target is written
+            log.log(Level.WARNING, "Unable to resolve the pending references of " + resources.size() + " resources, starting with: "
+                    + resources.get(0), x);
+        } finally {
+            FHIRRequestContext.remove();
+        }
+    }
+
+    /**
+     * Resolve the pending references to and from the passed resources in a single transaction
+     * @param resources the written resources, as "resourceType/logicalId"
+     * @return the resources which still have pending references
+     * @throws Exception
+     */
+    private List<String> resolveOnce(List<String> resources) throws Exception {
+        List<String> remaining = new ArrayList<>();
+        Connection connection = getConnection();
+        try {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                ResourceReferenceDAO dao = BackgroundDAOFactory.createResourceReferenceDAO(connection);
+                int count = 0;
+                for (String resource: resources) {
+                    int slash = resource.indexOf('/');
+                    String resourceType = resource.substring(0, slash);
+                    String logicalId = resource.substring(slash + 1);
+                    count += dao.resolveCommittedReferences(resourceType, logicalId);
+                    if (dao.hasPendingReferences(resourceType, logicalId)) {
+                        remaining.add(resource);
+                    }
+                }
+                connection.commit();
+                if (count > 0 && log.isLoggable(Level.FINE)) {
+                    log.fine("Resolved " + count + " pending references after commit");
+                }
+            } catch (Exception x) {
+                connection.rollback();
+                throw x;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        } finally {
+            connection.close();
+        }
+        return remaining;
+    }
+
+    /**
+     * Wait before the references which are still parked are resolved again, giving a concurrent transaction which
+     * creates their target the time to commit
+     * @param attempt the number of attempts so far
+     * @throws InterruptedException
+     */
+    protected void awaitRetry(int attempt) throws InterruptedException {
+        Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+    }
+
+    /**
+     * Get a connection to the datastore of the current request context
+     * @return
+     * @throws FHIRPersistenceException
+     */
+    protected Connection getConnection() throws FHIRPersistenceException {
+        return new FHIRDbDAOBasicImpl().getConnection();
+    }
+}
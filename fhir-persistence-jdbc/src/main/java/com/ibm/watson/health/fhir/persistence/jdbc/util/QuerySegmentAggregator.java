@@ -62,6 +62,10 @@ class QuerySegmentAggregator {
     
     private int offset;
     private int pageSize;
+
+    // The ordering of a Location near search: the near parameter and the expression to order by
+    private Parameter nearParameter;
+    private String nearOrdering;
     protected ParameterNormalizedDAO parameterDao;
     protected ResourceNormalizedDAO resourceDao;
     
@@ -102,6 +106,17 @@ class QuerySegmentAggregator {
          
     }
     
+    /**
+     * Orders the results of the query by an expression on the values table joined for the passed near parameter,
+     * instead of the default ordering. The expression refers to that table by the {@value #PARAMETER_TABLE_ALIAS} alias.
+     * @param nearParameter - The near query parameter, previously added with its query segment
+     * @param nearOrdering - The ORDER BY expression, e.g. the closeness of the position to the center of the search
+     */
+    protected void setNearOrdering(Parameter nearParameter, String nearOrdering) {
+        this.nearParameter = nearParameter;
+        this.nearOrdering = nearOrdering;
+    }
+
     /**
      * Builds a complete SQL Query based upon the encapsulated query segments and bind variables.
      * A simple example query produced by this method:
@@ -138,8 +153,8 @@ class QuerySegmentAggregator {
             for (SqlQueryData querySegment : this.querySegments) {
                 allBindVariables.addAll(querySegment.getBindVariables());
             }
-            // Add default ordering
-            queryString.append(DEFAULT_ORDERING);
+            // Add near or default ordering
+            queryString.append(this.buildOrdering());
             this.addPaginationClauses(queryString);        
             queryData = new SqlQueryData(queryString.toString(), allBindVariables);
         }
@@ -286,30 +301,47 @@ class QuerySegmentAggregator {
         fromClause.append(MessageFormat.format(FROM_CLAUSE_ROOT, this.resourceType.getSimpleName()));
         
         for (Parameter searchQueryParm : this.searchQueryParameters) {
-            if (Modifier.MISSING.equals(searchQueryParm.getModifier())) {
-                // No need to join on the VALUES table for search params with the :missing modifier
+            if (!isJoined(searchQueryParm)) {
+                // No need to join on the VALUES table for search params with the :missing modifier,
+                // or for full-text and composite searches
                 continue;
             }
-            fromClause.append(JOIN).append(resourceTypeName);
-            isLocationQuery = Location.class.equals(this.resourceType) && searchQueryParm.getName().equals(AbstractQueryBuilder.NEAR);
-            switch(searchQueryParm.getType()) {
-                case URI :
-                case REFERENCE : 
-                case STRING :   fromClause.append("_STR_VALUES ");
-                     break;
-                case NUMBER :   fromClause.append("_NUMBER_VALUES "); 
-                     break;
-                case QUANTITY : fromClause.append("_QUANTITY_VALUES ");
-                     break;
-                case DATE :     fromClause.append("_DATE_VALUES ");
-                     break;
-                case TOKEN :    if (isLocationQuery) {
-                                    fromClause.append("_LATLNG_VALUES ");
-                                }
-                                else {
-                                    fromClause.append("_TOKEN_VALUES ");
-                                }
-                     break;
+            if (searchQueryParm.isInclusionCriteria()) {
+                // compartment searches are a lookup on the membership computed at write time
+                fromClause.append(JOIN).append("COMPARTMENT_MEMBERS ");
+            }
+            else {
+                fromClause.append(JOIN).append(resourceTypeName);
+                isLocationQuery = Location.class.equals(this.resourceType) && searchQueryParm.getName().equals(AbstractQueryBuilder.NEAR);
+                switch(searchQueryParm.getType()) {
+                    case REFERENCE : 
+                                    // chained searches join on the integer reference target
+                                    if (searchQueryParm.isChained()) {
+                                        fromClause.append("_REF_VALUES ");
+                                    }
+                                    else {
+                                        fromClause.append("_STR_VALUES ");
+                                    }
+                         break;
+                    case URI :
+                    case STRING :   fromClause.append("_STR_VALUES ");
+                         break;
+                    case NUMBER :   fromClause.append("_NUMBER_VALUES "); 
+                         break;
+                    case QUANTITY : fromClause.append("_QUANTITY_VALUES ");
+                         break;
+                    case DATE :     fromClause.append("_DATE_VALUES ");
+                         break;
+                    case SPECIAL :  fromClause.append("_LATLNG_VALUES ");
+                         break;
+                    case TOKEN :    if (isLocationQuery) {
+                                        fromClause.append("_LATLNG_VALUES ");
+                                    }
+                                    else {
+                                        fromClause.append("_TOKEN_VALUES ");
+                                    }
+                         break;
+                }
             }
             fromClause.append(PARAMETER_TABLE_VAR).append(parameterTableAliasIndex);
             fromClause.append(ON).append(PARAMETER_TABLE_VAR).append(parameterTableAliasIndex).append(".LOGICAL_RESOURCE_ID=R.LOGICAL_RESOURCE_ID");
@@ -349,14 +381,15 @@ class QuerySegmentAggregator {
                     whereClause.append(" AND ");
                 }
                 whereClauseSegment = querySegment.getQueryString();
-                if (!Modifier.MISSING.equals(param.getModifier())) {
+                if (isJoined(param)) {
                     whereClause.append(PARAMETER_TABLE_VAR).append(parameterTableAliasIndex).append(".").append("LOGICAL_RESOURCE_ID = R.LOGICAL_RESOURCE_ID AND ");
+                    resolvedTableAlias = PARAMETER_TABLE_VAR + parameterTableAliasIndex + ".";
+                    whereClauseSegment = whereClauseSegment.replaceAll(PARAMETER_TABLE_ALIAS + ".", resolvedTableAlias);
+                    // the table aliases are only numbered for the joined parameters, as in buildFromClause
+                    parameterTableAliasIndex++;
                 }
-                resolvedTableAlias = PARAMETER_TABLE_VAR + parameterTableAliasIndex + ".";
-                whereClauseSegment = whereClauseSegment.replaceAll(PARAMETER_TABLE_ALIAS + ".", resolvedTableAlias);
                 whereClause.append(whereClauseSegment);
                 querySegmentProcessed = true;
-                parameterTableAliasIndex++;
             }
         }
         else {
@@ -370,6 +403,38 @@ class QuerySegmentAggregator {
         return whereClause.toString();
     }
     
+    /**
+     * Builds the ORDER BY clause of the query: near searches are ordered by the near ordering expression with the
+     * alias of the table joined for the near parameter, and the resource id as a tie-breaker.
+     */
+    private String buildOrdering() {
+        if (this.nearOrdering != null) {
+            int parameterTableAliasIndex = 1;
+            for (Parameter param : this.searchQueryParameters) {
+                if (param == this.nearParameter) {
+                    return " ORDER BY " + this.nearOrdering.replaceAll(PARAMETER_TABLE_ALIAS + ".", PARAMETER_TABLE_VAR + parameterTableAliasIndex + ".")
+                            + ", R.RESOURCE_ID ASC ";
+                }
+                if (isJoined(param)) {
+                    parameterTableAliasIndex++;
+                }
+            }
+        }
+        return DEFAULT_ORDERING;
+    }
+
+    /**
+     * Does the search parameter need a join on a parameter values table? Searches with the
+     * :missing modifier use an EXISTS subquery, full-text searches use the TEXT_TERMS table
+     * and composite searches join the tables of their components in a subquery instead.
+     * @param searchQueryParm
+     * @return
+     */
+    protected boolean isJoined(Parameter searchQueryParm) {
+        return !Modifier.MISSING.equals(searchQueryParm.getModifier()) && !TextIndexUtil.isFullTextSearch(searchQueryParm)
+                && !searchQueryParm.isComposite();
+    }
+
     /**
      * 
      * @return true if this instance represents a FHIR system level search
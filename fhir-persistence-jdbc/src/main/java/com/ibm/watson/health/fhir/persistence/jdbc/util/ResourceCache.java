@@ -0,0 +1,385 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.ibm.watson.health.fhir.model.resource.Resource;
+
+/**
+ * This class provides a static, size-bounded cache of recently read or written FHIR resources. Each resource version
+ * is cached under its (tenant-datastore, resource type, logical id, version id) key; in addition, the cache holds a
+ * "current version" pointer for each logical resource, which is used by read operations.
+ *
+ * <p>The cache is only populated with committed data (see {@link ResourceCacheUpdater}). Once a resource is updated
+ * or deleted, its current version pointer is moved to the new version, so a read never returns an outdated version
+ * written by this server. Resource versions themselves never change, so a cached version can always be returned by a
+ * version read. Note that changes made by other server instances sharing the same database are not seen by this
+ * cache, which is why the cache is disabled by default.
+ *
+ * <p>The entries are held in a ConcurrentHashMap, so reads don't take a lock. The cache is bounded by the estimated
+ * heap footprint of the cached resources, which is derived from the size of their (compressed) serialized form. Each
+ * entry records when it was last accessed; when the estimate exceeds the maximum size, one thread at a time evicts
+ * the least recently used entries until the cache is a tenth below its maximum size. The eviction order is
+ * approximate, as entries may be accessed while the eviction is running.
+ *
+ * <p>A current version pointer can be evicted too, and with it the knowledge of the latest version written. So that a
+ * transaction which read an older version can't re-create the pointer at that version once it commits, a read may only
+ * create a pointer if no pointer was removed since the read started (see {@link #getPointerStamp()}).
+ */
+public class ResourceCache {
+    private static final String CLASSNAME = ResourceCache.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    public static final int DEFAULT_MAX_SIZE_MB = 64;
+
+    // The heap footprint of a parsed resource is estimated as a multiple of the size of its compressed JSON.
+    private static final int COMPRESSED_SIZE_FACTOR = 20;
+
+    // The estimated heap footprint of a current version pointer.
+    private static final int POINTER_SIZE = 128;
+
+    private static volatile boolean enabled = false;
+    private static volatile long maxSize = DEFAULT_MAX_SIZE_MB * 1024L * 1024L;
+
+    // All cache entries. Current version pointers are only changed with compute(), so that the version comparison and
+    // the update are atomic.
+    private static final ConcurrentHashMap<String, CacheEntry> entries = new ConcurrentHashMap<>(1024);
+    private static final AtomicLong currentSize = new AtomicLong();
+
+    // Set while a thread is evicting entries.
+    private static final AtomicBoolean evicting = new AtomicBoolean();
+
+    // The number of current version pointers removed from the cache so far. It is incremented before a pointer is
+    // removed, so that a read which finds no pointer always sees the new stamp.
+    private static final AtomicLong pointerRemovals = new AtomicLong();
+
+    private static final AtomicLong hitCount = new AtomicLong();
+    private static final AtomicLong missCount = new AtomicLong();
+    private static final AtomicLong evictionCount = new AtomicLong();
+    private static final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * Retrieves the current version of the specified resource for the passed tenant-datastore.
+     * If the resource is not cached or its current version is a deletion, null is returned.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache.
+     * @param resourceType A valid FHIR resource type name.
+     * @param logicalId The logical id of the resource.
+     * @return Resource The current version of the resource, or null.
+     */
+    public static Resource getCurrentVersion(String tenantDatastoreCacheName, String resourceType, String logicalId) {
+        if (!enabled) {
+            return null;
+        }
+
+        Resource resource = null;
+        CacheEntry pointer = get(currentVersionKey(tenantDatastoreCacheName, resourceType, logicalId));
+        if (pointer != null && !pointer.deleted) {
+            CacheEntry entry = get(versionKey(tenantDatastoreCacheName, resourceType, logicalId, pointer.versionId));
+            if (entry != null) {
+                resource = entry.resource;
+            }
+        }
+        (resource != null ? hitCount : missCount).incrementAndGet();
+        return resource;
+    }
+
+    /**
+     * Retrieves the specified version of a resource for the passed tenant-datastore.
+     * If the resource version is not cached, null is returned.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache.
+     * @param resourceType A valid FHIR resource type name.
+     * @param logicalId The logical id of the resource.
+     * @param versionId The version of the resource.
+     * @return Resource The resource version, or null.
+     */
+    public static Resource getVersion(String tenantDatastoreCacheName, String resourceType, String logicalId, int versionId) {
+        if (!enabled) {
+            return null;
+        }
+
+        CacheEntry entry = get(versionKey(tenantDatastoreCacheName, resourceType, logicalId, versionId));
+        (entry != null ? hitCount : missCount).incrementAndGet();
+        return entry != null ? entry.resource : null;
+    }
+
+    /**
+     * Adds the passed resource version to the cache of the passed tenant-datastore.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to.
+     * @param resource A resource with an id and meta.versionId.
+     * @param compressedSize The size of the compressed serialized resource, used to estimate the size of the entry.
+     * @param current If true, the resource was written and becomes the current version of the logical resource,
+     *            unless a newer version is already known to the cache. A resource which was read as the current version
+     *            is added with {@link #putReadVersion(String, Resource, int, long)} instead.
+     */
+    public static void putVersion(String tenantDatastoreCacheName, Resource resource, int compressedSize, boolean current) {
+        if (!enabled) {
+            return;
+        }
+
+        String resourceType = resource.getClass().getSimpleName();
+        String logicalId = resource.getId().getValue();
+        int versionId = Integer.parseInt(resource.getMeta().getVersionId().getValue());
+        CacheEntry entry = new CacheEntry(resource, versionId, false, (long) compressedSize * COMPRESSED_SIZE_FACTOR);
+
+        put(versionKey(tenantDatastoreCacheName, resourceType, logicalId, versionId), entry);
+        if (current) {
+            putPointer(currentVersionKey(tenantDatastoreCacheName, resourceType, logicalId), versionId, false, -1);
+        }
+        evict();
+    }
+
+    /**
+     * Adds a resource version which was read as the current version of the logical resource. The version becomes the
+     * current version unless a newer version is already known to the cache; the current version pointer is only
+     * created if no pointer was removed from the cache since the read started.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to.
+     * @param resource A resource with an id and meta.versionId.
+     * @param compressedSize The size of the compressed serialized resource, used to estimate the size of the entry.
+     * @param pointerStamp The value of {@link #getPointerStamp()} before the resource was read from the database.
+     */
+    public static void putReadVersion(String tenantDatastoreCacheName, Resource resource, int compressedSize, long pointerStamp) {
+        if (!enabled) {
+            return;
+        }
+
+        String resourceType = resource.getClass().getSimpleName();
+        String logicalId = resource.getId().getValue();
+        int versionId = Integer.parseInt(resource.getMeta().getVersionId().getValue());
+        CacheEntry entry = new CacheEntry(resource, versionId, false, (long) compressedSize * COMPRESSED_SIZE_FACTOR);
+
+        put(versionKey(tenantDatastoreCacheName, resourceType, logicalId, versionId), entry);
+        putPointer(currentVersionKey(tenantDatastoreCacheName, resourceType, logicalId), versionId, false, pointerStamp);
+        evict();
+    }
+
+    /**
+     * Returns a stamp which changes whenever a current version pointer is removed from the cache. A read of the current
+     * version of a resource takes the stamp before it reads from the database and passes it to
+     * {@link #putReadVersion(String, Resource, int, long)}.
+     */
+    public static long getPointerStamp() {
+        return pointerRemovals.get();
+    }
+
+    /**
+     * Records that the specified version of a logical resource is a deletion, so that reads no longer use the
+     * cached versions of the resource.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache.
+     * @param resourceType A valid FHIR resource type name.
+     * @param logicalId The logical id of the resource.
+     * @param versionId The version of the deletion marker.
+     */
+    public static void putDeleted(String tenantDatastoreCacheName, String resourceType, String logicalId, int versionId) {
+        if (!enabled) {
+            return;
+        }
+
+        putPointer(currentVersionKey(tenantDatastoreCacheName, resourceType, logicalId), versionId, true, -1);
+        evict();
+    }
+
+    /**
+     * Looks up an entry and records the access for the eviction order.
+     */
+    private static CacheEntry get(String key) {
+        CacheEntry entry = entries.get(key);
+        if (entry != null) {
+            entry.lastAccess = System.nanoTime();
+        }
+        return entry;
+    }
+
+    /**
+     * Moves the current version pointer to the passed version, unless the pointer already refers to a newer version.
+     * @param pointerStamp If not negative, the pointer is only created if no pointer has been removed since this stamp
+     *            was taken; an existing pointer is always moved.
+     */
+    private static void putPointer(String key, int versionId, boolean deleted, long pointerStamp) {
+        CacheEntry newPointer = new CacheEntry(null, versionId, deleted, POINTER_SIZE);
+        long[] sizeChange = new long[1];
+        entries.compute(key, (k, pointer) -> {
+            if (pointer == null) {
+                // without a pointer, a newer version may have been written (and its pointer evicted) after the read
+                if (pointerStamp >= 0 && pointerStamp != pointerRemovals.get()) {
+                    return null;
+                }
+                sizeChange[0] = newPointer.size;
+                return newPointer;
+            }
+            if (pointer.versionId < versionId) {
+                invalidationCount.incrementAndGet();
+                sizeChange[0] = newPointer.size - pointer.size;
+                return newPointer;
+            }
+            return pointer;
+        });
+        currentSize.addAndGet(sizeChange[0]);
+    }
+
+    private static void put(String key, CacheEntry entry) {
+        CacheEntry previous = entries.put(key, entry);
+        currentSize.addAndGet(previous != null ? entry.size - previous.size : entry.size);
+    }
+
+    /**
+     * Removes the passed entry, unless it has been replaced in the meantime.
+     * @return true if the entry was removed
+     */
+    private static boolean remove(String key, CacheEntry entry) {
+        if (entry.resource == null) {
+            pointerRemovals.incrementAndGet();
+        }
+        if (entries.remove(key, entry)) {
+            currentSize.addAndGet(-entry.size);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evicts the least recently used entries once the cache exceeds its maximum size, until it is a tenth below the
+     * maximum size. If another thread is already evicting, this thread returns straight away.
+     */
+    private static void evict() {
+        long max = maxSize;
+        if (currentSize.get() <= max || !evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // take the access times once, so that the order doesn't change while sorting
+            List<EvictionCandidate> candidates = new ArrayList<>(entries.size());
+            for (Map.Entry<String, CacheEntry> e : entries.entrySet()) {
+                candidates.add(new EvictionCandidate(e.getKey(), e.getValue()));
+            }
+            candidates.sort(Comparator.comparingLong(c -> c.lastAccess));
+
+            long target = max - max / 10;
+            for (EvictionCandidate candidate : candidates) {
+                if (currentSize.get() <= target) {
+                    break;
+                }
+                if (remove(candidate.key, candidate.entry)) {
+                    evictionCount.incrementAndGet();
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static String versionKey(String tenantDatastoreCacheName, String resourceType, String logicalId, int versionId) {
+        return tenantDatastoreCacheName + "|" + resourceType + "/" + logicalId + "/_history/" + versionId;
+    }
+
+    private static String currentVersionKey(String tenantDatastoreCacheName, String resourceType, String logicalId) {
+        return tenantDatastoreCacheName + "|" + resourceType + "/" + logicalId;
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public static void clear() {
+        pointerRemovals.incrementAndGet();
+        for (Map.Entry<String, CacheEntry> e : entries.entrySet()) {
+            remove(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     *
+     * @return String - A formatted summary of the cache size and the cache hit/miss/eviction counts.
+     */
+    public static String getStatistics() {
+        return String.format("ResourceCache[entries=%d, estimatedSizeBytes=%d, maxSizeBytes=%d, hits=%d, misses=%d, evictions=%d, invalidations=%d]",
+            entries.size(), currentSize.get(), maxSize, getHitCount(), getMissCount(), getEvictionCount(), getInvalidationCount());
+    }
+
+    public static long getHitCount() {
+        return hitCount.get();
+    }
+
+    public static long getMissCount() {
+        return missCount.get();
+    }
+
+    public static long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public static long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public static long getEstimatedSize() {
+        return currentSize.get();
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        ResourceCache.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    public static long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum estimated size (in bytes) of the cache; entries are evicted as needed.
+     */
+    public static void setMaxSize(long maxSize) {
+        ResourceCache.maxSize = maxSize;
+        evict();
+        log.fine("ResourceCache maximum size set to " + maxSize + " bytes");
+    }
+
+    /**
+     * A cached resource version, or (if resource is null) the current version pointer of a logical resource.
+     */
+    private static class CacheEntry {
+        private final Resource resource;
+        private final int versionId;
+        private final boolean deleted;
+        private final long size;
+        private volatile long lastAccess = System.nanoTime();
+
+        private CacheEntry(Resource resource, int versionId, boolean deleted, long size) {
+            this.resource = resource;
+            this.versionId = versionId;
+            this.deleted = deleted;
+            this.size = size;
+        }
+    }
+
+    /**
+     * An entry along with its access time when the eviction started.
+     */
+    private static class EvictionCandidate {
+        private final String key;
+        private final CacheEntry entry;
+        private final long lastAccess;
+
+        private EvictionCandidate(String key, CacheEntry entry) {
+            this.key = key;
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import com.ibm.watson.health.fhir.model.resource.Resource;
+
+/**
+ * This cache updater collects the resource versions read or written within a transaction and writes them to the
+ * ResourceCache upon a transaction commit. If the transaction is rolled back, the candidates are discarded.
+ */
+public class ResourceCacheUpdater implements Synchronization {
+    private static final String CLASSNAME = ResourceCacheUpdater.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    private final String tenantDatastoreCacheName;
+    private final List<Candidate> cacheCandidates = new ArrayList<>();
+
+    // The logical resources (type/id) written by this transaction.
+    private final Set<String> writtenResources = new HashSet<>();
+
+    public ResourceCacheUpdater(String tenantDatastoreCacheName) {
+        this.tenantDatastoreCacheName = tenantDatastoreCacheName;
+    }
+
+    /**
+     * Adds a resource version that was read by the transaction as the current version of the logical resource.
+     * @param resource A resource with an id and meta.versionId.
+     * @param compressedSize The size of the compressed serialized resource.
+     * @param pointerStamp The value of {@link ResourceCache#getPointerStamp()} before the resource was read.
+     */
+    public void addReadCandidate(Resource resource, int compressedSize, long pointerStamp) {
+        cacheCandidates.add(new Candidate(Kind.READ, resource, null, null, 0, compressedSize, pointerStamp));
+    }
+
+    /**
+     * Adds a specific resource version that was read by the transaction.
+     * @param resource A resource with an id and meta.versionId.
+     * @param compressedSize The size of the compressed serialized resource.
+     */
+    public void addVersionReadCandidate(Resource resource, int compressedSize) {
+        cacheCandidates.add(new Candidate(Kind.VERSION_READ, resource, null, null, 0, compressedSize, 0));
+    }
+
+    /**
+     * Adds a resource version that was written (created or updated) by the transaction.
+     * @param resource A resource with an id and meta.versionId.
+     * @param compressedSize The size of the compressed serialized resource.
+     */
+    public void addWriteCandidate(Resource resource, int compressedSize) {
+        writtenResources.add(resource.getClass().getSimpleName() + "/" + resource.getId().getValue());
+        cacheCandidates.add(new Candidate(Kind.WRITE, resource, null, null, 0, compressedSize, 0));
+    }
+
+    /**
+     * Records the deletion of a logical resource by the transaction.
+     * @param versionId The version of the deletion marker.
+     */
+    public void addDeleteCandidate(String resourceType, String logicalId, int versionId) {
+        writtenResources.add(resourceType + "/" + logicalId);
+        cacheCandidates.add(new Candidate(Kind.DELETE, null, resourceType, logicalId, versionId, 0, 0));
+    }
+
+    /**
+     * Returns true if the specified logical resource was written by this transaction; the cached current version
+     * of such a resource must not be used until the transaction has completed.
+     */
+    public boolean isWritten(String resourceType, String logicalId) {
+        return writtenResources.contains(resourceType + "/" + logicalId);
+    }
+
+    public String getTenantDatastoreCacheName() {
+        return tenantDatastoreCacheName;
+    }
+
+    /**
+     * Writes the candidate cache entries to the ResourceCache after being notified by
+     * the Trx Synchronization service that the transaction on the current thread
+     * has successfully committed.
+     */
+    @Override
+    public void afterCompletion(int completionStatus) {
+        final String METHODNAME = "afterCompletion";
+        log.entering(CLASSNAME, METHODNAME);
+
+        if (completionStatus == Status.STATUS_COMMITTED) {
+            for (Candidate candidate : cacheCandidates) {
+                switch (candidate.kind) {
+                case WRITE:
+                    ResourceCache.putVersion(tenantDatastoreCacheName, candidate.resource, candidate.compressedSize, true);
+                    break;
+                case READ:
+                    ResourceCache.putReadVersion(tenantDatastoreCacheName, candidate.resource, candidate.compressedSize, candidate.pointerStamp);
+                    break;
+                case VERSION_READ:
+                    ResourceCache.putVersion(tenantDatastoreCacheName, candidate.resource, candidate.compressedSize, false);
+                    break;
+                case DELETE:
+                    ResourceCache.putDeleted(tenantDatastoreCacheName, candidate.resourceType, candidate.logicalId, candidate.versionId);
+                    break;
+                }
+            }
+        }
+
+        cacheCandidates.clear();
+        writtenResources.clear();
+
+        log.exiting(CLASSNAME, METHODNAME);
+    }
+
+    @Override
+    public void beforeCompletion() {
+    }
+
+    private enum Kind {
+        WRITE, READ, VERSION_READ, DELETE
+    }
+
+    /**
+     * A resource version (or deletion) to be added to the cache.
+     */
+    private static class Candidate {
+        private final Kind kind;
+        private final Resource resource;
+        private final String resourceType;
+        private final String logicalId;
+        private final int versionId;
+        private final int compressedSize;
+        private final long pointerStamp;
+
+        private Candidate(Kind kind, Resource resource, String resourceType, String logicalId, int versionId, int compressedSize, long pointerStamp) {
+            this.kind = kind;
+            this.resource = resource;
+            this.resourceType = resourceType;
+            this.logicalId = logicalId;
+            this.versionId = versionId;
+            this.compressedSize = compressedSize;
+            this.pointerStamp = pointerStamp;
+        }
+    }
+}
@@ -7,7 +7,6 @@
 package com.ibm.watson.health.fhir.persistence.jdbc.util;
 
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,6 +18,8 @@ import com.ibm.watson.health.fhir.persistence.jdbc.exception.FHIRPersistenceData
 /**
  * This class provides a static cache for FHIR Resource type names. This data is gathered from tables
  * defined as part of the "normalized" relational database schema.
+ * Each FHIR tenant/datastore combination has its own mapping of resource-type to resource-type-id, which is held
+ * in a bounded {@link IdCache}.
  * @author markd
  *
  */
@@ -27,87 +28,82 @@ public class ResourceTypesCache {
     private static final String CLASSNAME = ResourceTypesCache.class.getName(); 
     private static final Logger log = Logger.getLogger(CLASSNAME);
     
-    private static boolean enabled = true;
-
-    /**
-     * The following is a map of resource type maps. Each FHIR tenant/datastore combination will have its own
-     * mapping of resource-type to resource-type-id.
-     */
-    private static ConcurrentHashMap<String,ConcurrentHashMap<String,Integer>> resourceTypeIdMaps = new ConcurrentHashMap<>();
+    private static final IdCache resourceTypeIds = new IdCache("ResourceTypesCache");
     
     /**
-     * Retrieves the id for the name contained in the passed resource type, for the current tenant-datastore. 
+     * Retrieves the id for the passed resource type name, for the current tenant-datastore. 
      * If not found, null is returned.
-     * @param parameterName A valid FHIR search parameter name.
-     * @return Integer The id corresponding to the parameter name.
+     * @param resourceType A valid FHIR resource type name.
+     * @return Integer The id corresponding to the passed resource type name.
      */
     public static Integer getResourceTypeId(String resourceType) {
         
-        String tenantDatstoreCacheName = getCacheNameForTenantDatastore();
-        ConcurrentHashMap<String,Integer> currentDsMap;
-        Integer resourceTypeId = null;
-        
-        if (enabled) {
-            currentDsMap = resourceTypeIdMaps.putIfAbsent(tenantDatstoreCacheName, new ConcurrentHashMap<String,Integer>());
-            if (currentDsMap == null) {
-                log.fine("getResourceTypeId() - Added new cache map for tennantDatastore=" + tenantDatstoreCacheName);
-            }
-            currentDsMap = resourceTypeIdMaps.get(tenantDatstoreCacheName);
-            resourceTypeId = currentDsMap.get(resourceType);
-        }
+        FHIRRequestContext requestContext = FHIRRequestContext.get();
+        return resourceTypeIds.getId(requestContext.getTenantId(), requestContext.getDataStoreId(), resourceType);
+    }
+    
+    /**
+     * Adds the passed resource type name and id to the cache of the passed tenant-datastore.
+     * @param tenantId The tenant id of the datastore-specific cache the entry should be added to.
+     * @param dataStoreId The datastore id of the datastore-specific cache the entry should be added to.
+     * @param resourceType A valid FHIR resource type name.
+     * @param resourceTypeId The id associated with the passed resource type name.
+     */
+    public static void putResourceTypeId(String tenantId, String dataStoreId, String resourceType, Integer resourceTypeId) {
         
-        return resourceTypeId;
+        resourceTypeIds.putId(tenantId, dataStoreId, resourceType, resourceTypeId);
     }
     
     /**
-     * Returns a String containing a combination of the current tenantId and datastoreId.
-     * @return
+     * Adds the passed resource type name/id pairs to the cache of the passed tenant-datastore.
+     * @param tenantId The tenant id of the datastore-specific cache the entries should be added to.
+     * @param dataStoreId The datastore id of the datastore-specific cache the entries should be added to.
+     * @param newResourceTypes A Map containing resource type name/id pairs.
      */
-    public static String getCacheNameForTenantDatastore() {
+    public static void putResourceTypeIds(String tenantId, String dataStoreId, Map<String, Integer> newResourceTypes) {
         
-        StringBuilder cacheName = new StringBuilder();
-        cacheName.append(FHIRRequestContext.get().getTenantId())
-                 .append("~")
-                 .append(FHIRRequestContext.get().getDataStoreId());
-        return cacheName.toString();
+        resourceTypeIds.putIds(tenantId, dataStoreId, newResourceTypes);
     }
-
+    
     /**
-     * Adds the passed resource type name and id to the current tenant-datastore cache.
-     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to. 
-     * @param resourceType A valid resource type name.
-     * @param resourceTypeId The id associated with the passed resource type name.
+     * Loads the entire RESOURCE_TYPES table into the cache of the current tenant-datastore with a single query,
+     * unless this has already been done.
+     * @param dao A Resource DAO instance
+     * @throws FHIRPersistenceDBConnectException
+     * @throws FHIRPersistenceDataAccessException
      */
-    public static void putResourceTypeId(String tenantDatastoreCacheName, String resourceType, Integer resourceTypeId) {
-
-        ConcurrentHashMap<String,Integer> currentDsMap;
-        Integer tempValue;
+    public static void preload(ResourceNormalizedDAO dao) throws FHIRPersistenceDBConnectException, FHIRPersistenceDataAccessException {
         
-        if (enabled) {
-            currentDsMap = resourceTypeIdMaps.putIfAbsent(tenantDatastoreCacheName, new ConcurrentHashMap<String,Integer>());
-            if (currentDsMap == null) {
-                log.fine("putResourceTypeId() - Added new cache map for tennantDatastore=" + tenantDatastoreCacheName);
-            }
-            currentDsMap = resourceTypeIdMaps.get(tenantDatastoreCacheName);
-            tempValue = currentDsMap.putIfAbsent(resourceType, resourceTypeId);
-            if (tempValue == null) {
-                log.fine("putResourceTypeId() - Added new cache entry, key=" + resourceType + "  value=" + resourceTypeId + "  tenantDatastoreCacheName=" + tenantDatastoreCacheName);
-            }
+        FHIRRequestContext requestContext = FHIRRequestContext.get();
+        String tenantId = requestContext.getTenantId();
+        String dataStoreId = requestContext.getDataStoreId();
+        
+        if (resourceTypeIds.isEnabled() && !resourceTypeIds.isPreloaded(tenantId, dataStoreId)) {
+            resourceTypeIds.preload(tenantId, dataStoreId, dao.readAllResourceTypeNames());
         }
     }
     
     /**
-     * Adds the passed resource type name/id pairs to the the current tenant-datastore cache.
-     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to. 
-     * @param newParameters A Map containing resource type name/id pairs.
+     * Discards the cached resource type name ids of the passed tenant-datastore.
+     * @param tenantId The tenant id.
+     * @param dataStoreId The datastore id.
      */
-    public static void putResourceTypeIds(String tenantDatastoreCacheName, Map<String, Integer> newResourceTypes) {
+    public static void invalidate(String tenantId, String dataStoreId) {
         
-        if (enabled) {
-            for (Map.Entry<String, Integer> entry : newResourceTypes.entrySet()) {
-                putResourceTypeId(tenantDatastoreCacheName, entry.getKey(), entry.getValue());
-            }
-        }
+        resourceTypeIds.invalidate(tenantId, dataStoreId);
+    }
+    
+    /**
+     * Returns a String containing a combination of the current tenantId and datastoreId.
+     * @return
+     */
+    public static String getCacheNameForTenantDatastore() {
+        
+        StringBuilder cacheName = new StringBuilder();
+        cacheName.append(FHIRRequestContext.get().getTenantId())
+                 .append("~")
+                 .append(FHIRRequestContext.get().getDataStoreId());
+        return cacheName.toString();
     }
     
     /**
@@ -116,7 +112,7 @@ public class ResourceTypesCache {
      */
     public static String dumpCacheContents() {
         
-        return CacheUtil.dumpCacheContents("ResourceTypesCache", resourceTypeIdMaps);
+        return resourceTypeIds.dumpCacheContents();
     }
     
     /**
@@ -126,12 +122,12 @@ public class ResourceTypesCache {
      */
     public static String reportCacheDiscrepancies(ResourceNormalizedDAO dao) {
         
-        String tenantDatstoreCacheName = getCacheNameForTenantDatastore();
+        FHIRRequestContext requestContext = FHIRRequestContext.get();
         Map<String, Integer> dbMap;
-        ConcurrentHashMap<String,Integer> cachedMap = resourceTypeIdMaps.get(tenantDatstoreCacheName);
+        Map<String,Integer> cachedMap = resourceTypeIds.getIds(requestContext.getTenantId(), requestContext.getDataStoreId());
         String discrepancies = "";
         
-        if (enabled) {
+        if (resourceTypeIds.isEnabled()) {
             try {
                 dbMap = dao.readAllResourceTypeNames();
                 discrepancies = CacheUtil.reportCacheDiscrepancies("ResourceTypesCache", cachedMap, dbMap);
@@ -144,13 +140,21 @@ public class ResourceTypesCache {
         
         return discrepancies;
     }
+    
+    /**
+     * 
+     * @return IdCache - The cache instance backing this class, e.g. for configuring its size and invalidation strategy.
+     */
+    public static IdCache getCache() {
+        return resourceTypeIds;
+    }
 
     public static boolean isEnabled() {
-        return enabled;
+        return resourceTypeIds.isEnabled();
     }
 
     public static void setEnabled(boolean enabled) {
-        ResourceTypesCache.enabled = enabled;
+        resourceTypeIds.setEnabled(enabled);
     }
 
 }
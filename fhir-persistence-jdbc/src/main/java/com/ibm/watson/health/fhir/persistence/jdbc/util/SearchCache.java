@@ -0,0 +1,358 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.util;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.search.SearchConstants;
+import com.ibm.watson.health.fhir.search.SearchConstants.Modifier;
+import com.ibm.watson.health.fhir.search.context.FHIRSearchContext;
+import com.ibm.watson.health.fhir.search.parameters.Parameter;
+import com.ibm.watson.health.fhir.search.parameters.ParameterValue;
+import com.ibm.watson.health.fhir.search.parameters.SortParameter;
+
+/**
+ * This class provides a static, size-bounded cache of search results. For each search (tenant-datastore, resource
+ * type, search parameters, sort parameters and page) the cache holds the total number of matches and the ids of the
+ * resources on the requested page, so that a repeated search doesn't have to run the count and page queries again.
+ *
+ * <p>Each entry is tagged with the "write epoch" of its tenant-datastore and resource type at the time its queries
+ * were run. The epoch is incremented whenever a transaction which created, updated or deleted resources of that type
+ * commits (see {@link SearchCacheUpdater}), which invalidates all the cached searches of the type at once. Entries
+ * also expire after a fixed time to live, and the least recently used entries are evicted when the cache is full.
+ * As with the {@link ResourceCache}, writes made by other server instances sharing the same database are not seen by
+ * this cache (other than through the time to live), which is why the cache is disabled by default.
+ *
+ * <p>Searches whose results depend on other resource types (system-level searches, chained parameters, _include and
+ * _revinclude) and full-text searches, whose index is maintained asynchronously, are not cached.
+ */
+public class SearchCache {
+    private static final String CLASSNAME = SearchCache.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final int DEFAULT_TTL_SECONDS = 60;
+
+    private static volatile boolean enabled = false;
+    private static volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    private static volatile long ttlMillis = DEFAULT_TTL_SECONDS * 1000L;
+
+    // An access-ordered map of all cache entries, guarded by "entries".
+    private static final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+
+    // The write epoch of each tenant-datastore and resource type.
+    private static final ConcurrentHashMap<String, AtomicLong> epochs = new ConcurrentHashMap<>();
+
+    private static final AtomicLong hitCount = new AtomicLong();
+    private static final AtomicLong missCount = new AtomicLong();
+    private static final AtomicLong evictionCount = new AtomicLong();
+    private static final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * Builds the cache key of the passed search. The key doesn't depend on the order of the search parameters or of
+     * the values of a parameter, nor on the _elements parameter, which is applied to the resources after they have
+     * been read.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache.
+     * @param resourceType The type of resource being searched.
+     * @param searchContext The parsed search.
+     * @return String The key, or null if the search can't be cached.
+     */
+    public static String buildKey(String tenantDatastoreCacheName, Class<? extends Resource> resourceType, FHIRSearchContext searchContext) {
+        if (Resource.class.equals(resourceType) || searchContext.hasIncludeParameters() || searchContext.hasRevIncludeParameters()) {
+            return null;
+        }
+
+        List<String> parameters = new ArrayList<>();
+        for (Parameter parameter : searchContext.getSearchParameters()) {
+            if (parameter.isChained()
+                    || SearchConstants.TEXT.equals(parameter.getName())
+                    || SearchConstants.CONTENT.equals(parameter.getName())
+                    || Modifier.TEXT.equals(parameter.getModifier())) {
+                return null;
+            }
+            parameters.add(canonicalize(parameter));
+        }
+        Collections.sort(parameters);
+
+        StringBuilder key = new StringBuilder();
+        key.append(tenantDatastoreCacheName).append('|').append(resourceType.getSimpleName()).append('?');
+        for (String parameter : parameters) {
+            key.append(parameter).append('&');
+        }
+        if (searchContext.hasSortParameters()) {
+            List<SortParameter> sortParameters = new ArrayList<>(searchContext.getSortParameters());
+            Collections.sort(sortParameters);
+            for (SortParameter sortParameter : sortParameters) {
+                key.append(sortParameter.toString()).append('&');
+            }
+        }
+        key.append("_page=").append(searchContext.getPageNumber());
+        key.append("&_count=").append(searchContext.getPageSize());
+        return key.toString();
+    }
+
+    /**
+     * Renders the passed parameter as name[:modifier]=value,value... with the values in a fixed order.
+     */
+    private static String canonicalize(Parameter parameter) {
+        StringBuilder result = new StringBuilder();
+        if (parameter.isInclusionCriteria()) {
+            // compartment criteria are OR'ed together in a chain of their own
+            result.append("{compartment}");
+        }
+        for (Parameter p = parameter; p != null; p = p.getNextParameter()) {
+            result.append(p.getName());
+            if (p.getModifier() != null) {
+                result.append(':').append(p.getModifier().value());
+            }
+            if (p.getModifierResourceTypeName() != null) {
+                result.append(':').append(p.getModifierResourceTypeName());
+            }
+            result.append('=').append(canonicalize(p.getValues())).append(';');
+        }
+        return result.toString();
+    }
+
+    private static String canonicalize(List<ParameterValue> values) {
+        if (values == null) {
+            return "";
+        }
+        List<String> result = new ArrayList<>();
+        for (ParameterValue value : values) {
+            StringBuilder v = new StringBuilder();
+            if (value.getComponent() != null) {
+                for (Parameter component : value.getComponent()) {
+                    v.append(canonicalize(component.getValues())).append('$');
+                }
+            }
+            if (value.getPrefix() != null) {
+                v.append(value.getPrefix().value());
+            }
+            BigDecimal valueNumber = value.getValueNumber();
+            v.append(valueNumber != null ? valueNumber.toString() : "").append('|');
+            v.append(value.getValueSystem() != null ? value.getValueSystem() : "").append('|');
+            v.append(value.getValueCode() != null ? value.getValueCode() : "").append('|');
+            v.append(value.getValueString() != null ? value.getValueString() : "").append('|');
+            v.append(value.getValueDate() != null ? value.getValueDate().getValue() : "");
+            result.add(v.toString());
+        }
+        Collections.sort(result);
+        return String.join(",", result);
+    }
+
+    /**
+     * Returns the current write epoch of the passed resource type. The epoch must be read before the queries of a
+     * search are run, and passed to {@link #put} along with their results.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache.
+     * @param resourceType A valid FHIR resource type name.
+     * @return long
+     */
+    public static long getEpoch(String tenantDatastoreCacheName, String resourceType) {
+        return getEpoch(epochKey(tenantDatastoreCacheName, resourceType));
+    }
+
+    /**
+     * Increments the write epoch of the passed resource type, invalidating all the cached searches of that type.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache.
+     * @param resourceType A valid FHIR resource type name.
+     */
+    public static void invalidate(String tenantDatastoreCacheName, String resourceType) {
+        epochs.computeIfAbsent(epochKey(tenantDatastoreCacheName, resourceType), k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Retrieves the cached result of a search. Null is returned if the search is not cached, or its entry has
+     * expired or been invalidated by a write.
+     * @param key The key built by {@link #buildKey}.
+     * @return CachedResult
+     */
+    public static CachedResult get(String key) {
+        if (!enabled || key == null) {
+            return null;
+        }
+
+        CachedResult result = null;
+        synchronized (entries) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.epoch != getEpoch(entry.epochKey) || System.currentTimeMillis() - entry.created > ttlMillis) {
+                    entries.remove(key);
+                    invalidationCount.incrementAndGet();
+                } else {
+                    result = entry.result;
+                }
+            }
+        }
+        (result != null ? hitCount : missCount).incrementAndGet();
+        return result;
+    }
+
+    /**
+     * Adds the result of a search to the cache, unless a write has been committed since its queries were run.
+     * @param key The key built by {@link #buildKey}.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache.
+     * @param resourceType The resource type which was searched.
+     * @param epoch The write epoch read before the queries were run.
+     * @param totalCount The total number of matches.
+     * @param resourceIds The ids of the resources on the page, in order.
+     */
+    public static void put(String key, String tenantDatastoreCacheName, String resourceType, long epoch, int totalCount, List<Long> resourceIds) {
+        if (!enabled || key == null) {
+            return;
+        }
+
+        String epochKey = epochKey(tenantDatastoreCacheName, resourceType);
+        CacheEntry entry = new CacheEntry(epochKey, epoch, new CachedResult(totalCount, new ArrayList<>(resourceIds)));
+        synchronized (entries) {
+            if (epoch != getEpoch(epochKey)) {
+                return;
+            }
+            entries.put(key, entry);
+            evict();
+        }
+    }
+
+    private static long getEpoch(String epochKey) {
+        AtomicLong epoch = epochs.get(epochKey);
+        return epoch != null ? epoch.get() : 0;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits within its maximum number of entries.
+     * Must be called while holding the lock on "entries".
+     */
+    private static void evict() {
+        Iterator<CacheEntry> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private static String epochKey(String tenantDatastoreCacheName, String resourceType) {
+        return tenantDatastoreCacheName + "|" + resourceType;
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public static void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     *
+     * @return String - A formatted summary of the cache size and the cache hit/miss/eviction counts.
+     */
+    public static String getStatistics() {
+        int entryCount;
+        synchronized (entries) {
+            entryCount = entries.size();
+        }
+        return String.format("SearchCache[entries=%d, maxEntries=%d, ttlMillis=%d, hits=%d, misses=%d, evictions=%d, invalidations=%d]",
+            entryCount, maxEntries, ttlMillis, getHitCount(), getMissCount(), getEvictionCount(), getInvalidationCount());
+    }
+
+    public static long getHitCount() {
+        return hitCount.get();
+    }
+
+    public static long getMissCount() {
+        return missCount.get();
+    }
+
+    public static long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public static long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        SearchCache.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    public static int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Sets the maximum number of cached searches; entries are evicted as needed.
+     */
+    public static void setMaxEntries(int maxEntries) {
+        SearchCache.maxEntries = maxEntries;
+        synchronized (entries) {
+            evict();
+        }
+        log.fine("SearchCache maximum number of entries set to " + maxEntries);
+    }
+
+    public static long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Sets the number of milliseconds after which a cached search expires.
+     */
+    public static void setTtlMillis(long ttlMillis) {
+        SearchCache.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * The cached result of a search: the total number of matches and the ids of the resources on the page.
+     */
+    public static class CachedResult {
+        private final int totalCount;
+        private final List<Long> resourceIds;
+
+        private CachedResult(int totalCount, List<Long> resourceIds) {
+            this.totalCount = totalCount;
+            this.resourceIds = Collections.unmodifiableList(resourceIds);
+        }
+
+        public int getTotalCount() {
+            return totalCount;
+        }
+
+        public List<Long> getResourceIds() {
+            return resourceIds;
+        }
+    }
+
+    private static class CacheEntry {
+        private final String epochKey;
+        private final long epoch;
+        private final long created = System.currentTimeMillis();
+        private final CachedResult result;
+
+        private CacheEntry(String epochKey, long epoch, CachedResult result) {
+            this.epochKey = epochKey;
+            this.epoch = epoch;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.util;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+/**
+ * This cache updater collects the resource types written within a transaction and increments their write epochs in
+ * the SearchCache upon a transaction commit, which invalidates the cached searches of those types. If the transaction
+ * is rolled back, nothing has changed and the cached searches remain valid.
+ */
+public class SearchCacheUpdater implements Synchronization {
+    private static final String CLASSNAME = SearchCacheUpdater.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    private final String tenantDatastoreCacheName;
+
+    // The resource types written by this transaction.
+    private final Set<String> writtenResourceTypes = new HashSet<>();
+
+    public SearchCacheUpdater(String tenantDatastoreCacheName) {
+        this.tenantDatastoreCacheName = tenantDatastoreCacheName;
+    }
+
+    /**
+     * Records that the transaction created, updated or deleted a resource of the passed type.
+     * @param resourceType A valid FHIR resource type name.
+     */
+    public void addWrittenResourceType(String resourceType) {
+        writtenResourceTypes.add(resourceType);
+    }
+
+    /**
+     * Returns true if the transaction has written resources of the passed type; the cached searches of such a type
+     * must not be used until the transaction has completed, since they don't reflect its own changes.
+     */
+    public boolean isWritten(String resourceType) {
+        return writtenResourceTypes.contains(resourceType);
+    }
+
+    public String getTenantDatastoreCacheName() {
+        return tenantDatastoreCacheName;
+    }
+
+    /**
+     * Increments the write epochs of the written resource types after being notified by
+     * the Trx Synchronization service that the transaction on the current thread
+     * has successfully committed.
+     */
+    @Override
+    public void afterCompletion(int completionStatus) {
+        final String METHODNAME = "afterCompletion";
+        log.entering(CLASSNAME, METHODNAME);
+
+        if (completionStatus == Status.STATUS_COMMITTED) {
+            for (String resourceType : writtenResourceTypes) {
+                SearchCache.invalidate(tenantDatastoreCacheName, resourceType);
+            }
+        }
+
+        writtenResourceTypes.clear();
+
+        log.exiting(CLASSNAME, METHODNAME);
+    }
+
+    @Override
+    public void beforeCompletion() {
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import com.ibm.watson.health.fhir.config.FHIRRequestContext;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+
+/**
+ * This updater collects the resources written within a transaction and queues them with the {@link TextIndexer} upon
+ * a transaction commit. The indexer reads the resources on its own connection, which can only see them once they are
+ * committed. If the transaction is rolled back, nothing is indexed.
+ */
+public class TextIndexUpdater implements Synchronization {
+    private static final String CLASSNAME = TextIndexUpdater.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    private final TextIndexer indexer;
+    private final FHIRRequestContext context;
+
+    // The latest version of each resource written by this transaction, and whether it was a deletion.
+    private final Map<String, Resource> writtenResources = new LinkedHashMap<>();
+    private final Map<String, Boolean> deletedResources = new LinkedHashMap<>();
+
+    /**
+     * @param indexer the text indexer which queues the resources
+     * @param context the request context of the transaction, which determines the tenant and datastore
+     */
+    public TextIndexUpdater(TextIndexer indexer, FHIRRequestContext context) {
+        this.indexer = indexer;
+        this.context = context;
+    }
+
+    /**
+     * Records that the transaction created, updated or deleted the passed resource.
+     * @param resource A resource with an id.
+     * @param deleted True if the resource was deleted, so should be removed from the index.
+     */
+    public void addWrittenResource(Resource resource, boolean deleted) {
+        String key = resource.getClass().getSimpleName() + "/" + resource.getId().getValue();
+        writtenResources.put(key, resource);
+        deletedResources.put(key, deleted);
+    }
+
+    /**
+     * Queues the written resources with the text indexer after being notified by the Trx Synchronization service that
+     * the transaction on the current thread has successfully committed.
+     */
+    @Override
+    public void afterCompletion(int completionStatus) {
+        final String METHODNAME = "afterCompletion";
+        log.entering(CLASSNAME, METHODNAME);
+
+        if (completionStatus == Status.STATUS_COMMITTED) {
+            for (Map.Entry<String, Resource> entry : writtenResources.entrySet()) {
+                indexer.offer(context, entry.getValue(), deletedResources.get(entry.getKey()));
+            }
+        }
+
+        writtenResources.clear();
+        deletedResources.clear();
+
+        log.exiting(CLASSNAME, METHODNAME);
+    }
+
+    @Override
+    public void beforeCompletion() {
+    }
+}
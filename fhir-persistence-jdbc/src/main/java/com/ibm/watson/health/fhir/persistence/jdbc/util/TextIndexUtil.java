@@ -0,0 +1,201 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.util;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.ibm.watson.health.fhir.model.path.FHIRPathNode;
+import com.ibm.watson.health.fhir.model.resource.DomainResource;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.resource.SearchParameter;
+import com.ibm.watson.health.fhir.model.type.Code;
+import com.ibm.watson.health.fhir.model.type.CodeableConcept;
+import com.ibm.watson.health.fhir.model.type.Coding;
+import com.ibm.watson.health.fhir.model.type.Element;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.model.type.Narrative;
+import com.ibm.watson.health.fhir.model.type.SearchParamType;
+import com.ibm.watson.health.fhir.model.visitor.AbstractVisitor;
+import com.ibm.watson.health.fhir.schema.control.FhirSchemaConstants;
+import com.ibm.watson.health.fhir.search.SearchConstants;
+import com.ibm.watson.health.fhir.search.SearchConstants.Modifier;
+import com.ibm.watson.health.fhir.search.parameters.Parameter;
+import com.ibm.watson.health.fhir.search.util.SearchUtil;
+
+/**
+ * Extracts the words held in the full-text index (the TEXT_TERMS table) from a resource,
+ * and splits full-text search values into the same words. The index has three kinds of
+ * entry:
+ * <ul>
+ * <li>_text: the words of the narrative</li>
+ * <li>_content: the words of the narrative and of every string element of the resource,
+ * other than codes and ids</li>
+ * <li>the name of a token search parameter: the words of the CodeableConcept.text and
+ * Coding.display values of the parameter, for :text searches</li>
+ * </ul>
+ */
+public class TextIndexUtil {
+
+    // Markup and character references in the narrative div
+    private static final Pattern MARKUP = Pattern.compile("<[^>]*>|&#?\\w+;");
+
+    // Anything which isn't part of a word
+    private static final Pattern WORD_SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    /**
+     * Private constructor. Static methods only
+     */
+    private TextIndexUtil() {
+        // NOP
+    }
+
+    /**
+     * Is the given search parameter answered by the full-text index rather than by
+     * one of the parameter values tables
+     * @param queryParm
+     * @return
+     */
+    public static boolean isFullTextSearch(Parameter queryParm) {
+        return SearchConstants.TEXT.equals(queryParm.getName())
+                || SearchConstants.CONTENT.equals(queryParm.getName())
+                || Modifier.TEXT.equals(queryParm.getModifier());
+    }
+
+    /**
+     * Split the text into the distinct words held in the index. The words are
+     * normalized for search (lower case, no accents), and truncated to
+     * {@link FhirSchemaConstants#MAX_TERM_LENGTH}.
+     * @param text
+     * @return the words, in the order they first appear
+     */
+    public static Set<String> terms(String text) {
+        Set<String> result = new LinkedHashSet<>();
+        addTerms(result, text);
+        return result;
+    }
+
+    /**
+     * Get the version of the resource from its meta.versionId, which the persistence
+     * layer sets when it stores the resource
+     * @param resource
+     * @return the version, or null if the resource doesn't have a numeric version id
+     */
+    public static Integer getVersionId(Resource resource) {
+        if (resource.getMeta() == null || resource.getMeta().getVersionId() == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(resource.getMeta().getVersionId().getValue());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the words to be indexed for the given resource, keyed by the parameter name
+     * they are indexed under
+     * @param resource
+     * @return
+     * @throws Exception if the search parameter values can't be extracted from the resource
+     */
+    public static Map<String, Set<String>> extractTerms(Resource resource) throws Exception {
+        Map<String, Set<String>> result = new LinkedHashMap<>();
+
+        if (resource instanceof DomainResource) {
+            Narrative narrative = ((DomainResource) resource).getText();
+            if (narrative != null && narrative.getDiv() != null) {
+                addTerms(result.computeIfAbsent(SearchConstants.TEXT, k -> new LinkedHashSet<>()), stripMarkup(narrative.getDiv().getValue()));
+            }
+        }
+
+        ContentVisitor visitor = new ContentVisitor();
+        resource.accept(visitor);
+        if (!visitor.terms.isEmpty()) {
+            result.put(SearchConstants.CONTENT, visitor.terms);
+        }
+
+        for (Map.Entry<SearchParameter, List<FHIRPathNode>> entry: SearchUtil.extractParameterValues(resource).entrySet()) {
+            if (SearchParamType.TOKEN.equals(entry.getKey().getType())) {
+                Set<String> terms = new LinkedHashSet<>();
+                for (FHIRPathNode node: entry.getValue()) {
+                    if (node.isElementNode()) {
+                        addCodeTerms(terms, node.asElementNode().element());
+                    }
+                }
+                if (!terms.isEmpty()) {
+                    result.computeIfAbsent(entry.getKey().getCode().getValue(), k -> new LinkedHashSet<>()).addAll(terms);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add the words of the display text of a coded element
+     * @param terms
+     * @param element
+     */
+    private static void addCodeTerms(Set<String> terms, Element element) {
+        if (element instanceof CodeableConcept) {
+            CodeableConcept codeableConcept = (CodeableConcept) element;
+            if (codeableConcept.getText() != null) {
+                addTerms(terms, codeableConcept.getText().getValue());
+            }
+            for (Coding coding: codeableConcept.getCoding()) {
+                addCodeTerms(terms, coding);
+            }
+        }
+        else if (element instanceof Coding) {
+            Coding coding = (Coding) element;
+            if (coding.getDisplay() != null) {
+                addTerms(terms, coding.getDisplay().getValue());
+            }
+        }
+    }
+
+    private static void addTerms(Set<String> terms, String text) {
+        String normalized = SearchUtil.normalizeForSearch(text);
+        if (normalized != null) {
+            for (String word: WORD_SEPARATORS.split(normalized)) {
+                if (!word.isEmpty()) {
+                    terms.add(word.length() > FhirSchemaConstants.MAX_TERM_LENGTH ? word.substring(0, FhirSchemaConstants.MAX_TERM_LENGTH) : word);
+                }
+            }
+        }
+    }
+
+    private static String stripMarkup(String xhtml) {
+        return xhtml == null ? null : MARKUP.matcher(xhtml).replaceAll(" ");
+    }
+
+    /**
+     * Collects the words of the narrative and of the string elements (other than
+     * codes and ids) of the resource, including its contained resources
+     */
+    private static class ContentVisitor extends AbstractVisitor {
+        private final Set<String> terms = new LinkedHashSet<>();
+
+        @Override
+        public void visitStart(java.lang.String elementName, int elementIndex, Element element) {
+            if (element instanceof Narrative) {
+                Narrative narrative = (Narrative) element;
+                if (narrative.getDiv() != null) {
+                    addTerms(terms, stripMarkup(narrative.getDiv().getValue()));
+                }
+            }
+            else if (element instanceof com.ibm.watson.health.fhir.model.type.String
+                    && !(element instanceof Code) && !(element instanceof Id)) {
+                addTerms(terms, ((com.ibm.watson.health.fhir.model.type.String) element).getValue());
+            }
+        }
+    }
+}
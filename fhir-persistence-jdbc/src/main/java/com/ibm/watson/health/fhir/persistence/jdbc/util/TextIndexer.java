@@ -0,0 +1,497 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.naming.InitialContext;
+
+import com.ibm.watson.health.fhir.config.FHIRRequestContext;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.BackgroundDAOFactory;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.FHIRDbDAOBasicImpl;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.TextIndexDAO;
+
+/**
+ * Keeps the full-text index (the TEXT_TERMS table) up to date. The persistence layer records the resources written by
+ * a transaction with a {@link TextIndexUpdater}, which adds them to a bounded queue once the transaction commits. The
+ * queue is drained by a task on the container's managed executor, in a separate transaction, so indexing doesn't slow
+ * down the request which wrote the resource. A search therefore doesn't find a resource by its text until the worker
+ * has caught up.
+ *
+ * <p>A resource which is written again while it is waiting in the queue is only indexed once, with the content of
+ * its latest version (by meta.versionId), and a version which has since been replaced isn't indexed at all. A
+ * resource which can't be found (or indexed) is retried a few times before it is counted as failed. When the queue is
+ * full, further resources aren't indexed until the index is rebuilt (see {@link TextIndexDAO#rebuild(String)}).
+ */
+public class TextIndexer {
+    private static final Logger log = java.util.logging.Logger.getLogger(TextIndexer.class.getName());
+
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    private static final String EXECUTOR_JNDI_NAME = "java:comp/DefaultManagedExecutorService";
+
+    // The maximum number of resources indexed in one transaction
+    private static final int BATCH_SIZE = 100;
+
+    // The number of times a resource is indexed before it is counted as failed, and the wait between the attempts
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private static TextIndexer instance;
+
+    // Used when no managed executor is available, e.g. outside of the server
+    private static ExecutorService defaultExecutor;
+
+    private final int capacity;
+    private final Executor executor;
+
+    // guarded by "this"
+    private final Deque<PendingResource> queue = new ArrayDeque<>();
+    private final Map<String, PendingResource> pendingResources = new HashMap<>();
+    private int inProgress = 0;
+    private boolean workerActive = false;
+    private boolean running = true;
+
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong indexedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong retriedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile long lastLagNanos = 0;
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    /**
+     * Enable the text indexer, if it isn't already. The managed executor is looked up here, so this must be called on
+     * a request thread.
+     * @param capacity
+     *     the maximum number of resources waiting to be indexed
+     */
+    public static synchronized void enable(int capacity) {
+        if (instance == null) {
+            instance = new TextIndexer(capacity);
+            log.info("Full-text index enabled, queueSize=" + capacity);
+        }
+    }
+
+    /**
+     * @return the enabled text indexer (with its metrics), or null if the text index isn't enabled
+     */
+    public static synchronized TextIndexer getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param capacity
+     *     the maximum number of resources waiting to be indexed
+     */
+    public TextIndexer(int capacity) {
+        this(capacity, getExecutor());
+    }
+
+    /**
+     * @param capacity
+     *     the maximum number of resources waiting to be indexed
+     * @param executor
+     *     runs the worker which drains the queue
+     */
+    public TextIndexer(int capacity, Executor executor) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid text index queue size: " + capacity);
+        }
+        this.capacity = capacity;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the container's default managed executor if it is available, so that the JNDI context is available to
+     * the worker; it must be looked up on a request thread.
+     */
+    private static Executor getExecutor() {
+        try {
+            Object jndiValue = new InitialContext().lookup(EXECUTOR_JNDI_NAME);
+            if (jndiValue instanceof Executor) {
+                return (Executor) jndiValue;
+            }
+        } catch (Exception e) {
+            log.fine("Managed executor '" + EXECUTOR_JNDI_NAME + "' is not available: " + e.getMessage());
+        }
+        return getDefaultExecutor();
+    }
+
+    private static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "fhir-text-indexer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Add a committed resource to the queue, for the tenant and datastore of the current request;
+     * this method never waits for the index to be written.
+     * @param resource
+     * @param deleted
+     *     true if the resource was deleted, so should be removed from the index
+     * @return true if the resource was queued or replaced a waiting version of itself, false if it was dropped
+     */
+    public boolean offer(Resource resource, boolean deleted) {
+        return offer(FHIRRequestContext.get(), resource, deleted);
+    }
+
+    /**
+     * Add a committed resource to the queue; this method never waits for the index to be written.
+     * @param context
+     *     the request context which wrote the resource, which determines the tenant and datastore
+     * @param resource
+     * @param deleted
+     *     true if the resource was deleted, so should be removed from the index
+     * @return true if the resource was queued or replaced a waiting version of itself, false if it was dropped
+     */
+    public boolean offer(FHIRRequestContext context, Resource resource, boolean deleted) {
+        if (resource == null || resource.getId() == null) {
+            return false;
+        }
+        queuedCount.incrementAndGet();
+        PendingResource pending = new PendingResource(context.getTenantId(), context.getDataStoreId(), context.getTenantKey(),
+            resource, deleted, System.nanoTime());
+        synchronized (this) {
+            if (!running) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+            PendingResource waiting = pendingResources.get(pending.key);
+            if (waiting != null) {
+                coalescedCount.incrementAndGet();
+                if (isOlder(resource, waiting.resource)) {
+                    // the offers of two transactions can arrive out of order; the waiting version is newer
+                    return true;
+                }
+                // keep the position (and the time queued) of the waiting version
+                waiting.resource = resource;
+                waiting.deleted = deleted;
+                waiting.attempts = 0;
+                waiting.notBefore = 0;
+                return true;
+            }
+            if (queue.size() >= capacity) {
+                droppedCount.incrementAndGet();
+                log.warning("Text index queue is full; dropped resource: " + pending.key);
+                return false;
+            }
+            queue.addLast(pending);
+            pendingResources.put(pending.key, pending);
+            startWorker();
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Is the resource an older version than the other version of the same resource; if either version
+     * isn't known, the resource which was offered last is taken to be the newer one
+     */
+    private static boolean isOlder(Resource resource, Resource other) {
+        Integer versionId = TextIndexUtil.getVersionId(resource);
+        Integer otherVersionId = TextIndexUtil.getVersionId(other);
+        return versionId != null && otherVersionId != null && versionId < otherVersionId;
+    }
+
+    /**
+     * Submit the worker to the executor, unless it is already running. Called while holding the lock on "this".
+     */
+    private void startWorker() {
+        if (!workerActive) {
+            workerActive = true;
+            try {
+                executor.execute(this::run);
+            } catch (RuntimeException x) {
+                workerActive = false;
+                log.log(Level.WARNING, "Unable to start the text indexer", x);
+            }
+        }
+    }
+
+    /**
+     * Stop indexing; resources that are still waiting are discarded.
+     */
+    public void stop() {
+        synchronized (this) {
+            running = false;
+            droppedCount.addAndGet(queue.size());
+            queue.clear();
+            pendingResources.clear();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait until every queued resource has been indexed (or failed to be indexed)
+     * @param timeoutMillis
+     * @return true if the queue is empty, false if the timeout expired first
+     * @throws InterruptedException
+     */
+    public synchronized boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (running && (!queue.isEmpty() || inProgress > 0)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Drain the queue; the worker ends when the queue is empty, and is started again by the next offer.
+     */
+    private void run() {
+        while (true) {
+            List<PendingResource> batch = new ArrayList<>();
+            synchronized (this) {
+                while (running && !queue.isEmpty() && queue.peekFirst().notBefore > System.nanoTime()) {
+                    // only resources waiting to be retried are left
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this, queue.peekFirst().notBefore - System.nanoTime());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        workerActive = false;
+                        return;
+                    }
+                }
+                if (!running || queue.isEmpty()) {
+                    workerActive = false;
+                    return;
+                }
+                // the batch is written in one transaction, so it must belong to one tenant and datastore
+                PendingResource first = queue.peekFirst();
+                while (batch.size() < BATCH_SIZE && !queue.isEmpty() && first.isSameDatastore(queue.peekFirst())
+                        && queue.peekFirst().notBefore <= System.nanoTime()) {
+                    PendingResource pending = queue.removeFirst();
+                    pendingResources.remove(pending.key);
+                    batch.add(pending);
+                }
+                inProgress = batch.size();
+            }
+
+            List<PendingResource> retries = index(batch);
+            synchronized (this) {
+                for (PendingResource pending: retries) {
+                    // a newer version which was queued in the meantime replaces the retry
+                    if (running && !pendingResources.containsKey(pending.key)) {
+                        queue.addLast(pending);
+                        pendingResources.put(pending.key, pending);
+                    }
+                }
+                inProgress = 0;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Write the index entries of the resources in a single transaction
+     * @param batch resources from the same tenant and datastore
+     * @return the resources to be retried, because they weren't found or the transaction failed
+     */
+    private List<PendingResource> index(List<PendingResource> batch) {
+        PendingResource first = batch.get(0);
+        List<PendingResource> notFound = new ArrayList<>();
+        List<PendingResource> retries = new ArrayList<>();
+        try {
+            FHIRRequestContext context = new FHIRRequestContext(first.tenantId, first.dataStoreId);
+            if (first.tenantKey != null) {
+                context.setTenantKey(first.tenantKey);
+            }
+            FHIRRequestContext.set(context);
+
+            Connection connection = getConnection();
+            try {
+                boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try {
+                    TextIndexDAO dao = BackgroundDAOFactory.createTextIndexDAO(connection);
+                    for (PendingResource pending: batch) {
+                        boolean found;
+                        if (pending.deleted) {
+                            found = dao.delete(pending.resource.getClass().getSimpleName(), pending.resource.getId().getValue());
+                        } else {
+                            found = dao.index(pending.resource);
+                        }
+                        if (!found) {
+                            notFound.add(pending);
+                        }
+                    }
+                    connection.commit();
+                } catch (Exception x) {
+                    connection.rollback();
+                    throw x;
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+            } finally {
+                releaseConnection(connection);
+            }
+
+            indexedCount.addAndGet(batch.size() - notFound.size());
+            long lag = System.nanoTime() - first.queueTime;
+            lastLagNanos = lag;
+            maxLagNanos.accumulateAndGet(lag, Math::max);
+            for (PendingResource pending: notFound) {
+                if (retry(pending)) {
+                    retries.add(pending);
+                } else {
+                    log.warning("Unable to index resource, which wasn't found: " + pending.key);
+                }
+            }
+        } catch (Exception x) {
+            for (PendingResource pending: batch) {
+                if (retry(pending)) {
+                    retries.add(pending);
+                }
+            }
+            log.log(Level.WARNING, "Unable to index " + batch.size() + " resources, starting with: " + first.key
+                    + "; retrying " + retries.size() + " of them", x);
+        } finally {
+            FHIRRequestContext.remove();
+        }
+        return retries;
+    }
+
+    /**
+     * Count a failed attempt to index the resource
+     * @param pending
+     * @return true if the resource should be retried, false if it has failed
+     */
+    private boolean retry(PendingResource pending) {
+        if (++pending.attempts >= MAX_ATTEMPTS) {
+            failedCount.incrementAndGet();
+            return false;
+        }
+        retriedCount.incrementAndGet();
+        pending.notBefore = System.nanoTime() + RETRY_DELAY_NANOS * pending.attempts;
+        return true;
+    }
+
+    /**
+     * Get a connection to the datastore of the current request context
+     * @return
+     * @throws FHIRPersistenceException
+     */
+    protected Connection getConnection() throws FHIRPersistenceException {
+        return new FHIRDbDAOBasicImpl().getConnection();
+    }
+
+    /**
+     * Give back a connection obtained from {@link #getConnection()}
+     * @param connection
+     * @throws SQLException
+     */
+    protected void releaseConnection(Connection connection) throws SQLException {
+        connection.close();
+    }
+
+    /**
+     * @return the number of resources waiting to be indexed
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    public long getIndexedCount() {
+        return indexedCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getRetriedCount() {
+        return retriedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return the time in milliseconds between queuing and indexing the most recently indexed batch
+     */
+    public double getLastLagMillis() {
+        return lastLagNanos / 1000000.0;
+    }
+
+    /**
+     * @return the maximum time in milliseconds between queuing and indexing a batch
+     */
+    public double getMaxLagMillis() {
+        return maxLagNanos.get() / 1000000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TextIndexer[queueDepth=%d, queued=%d, indexed=%d, coalesced=%d, dropped=%d, retried=%d, failed=%d, lastLagMs=%.2f, maxLagMs=%.2f]",
+            getQueueDepth(), getQueuedCount(), getIndexedCount(), getCoalescedCount(), getDroppedCount(), getRetriedCount(), getFailedCount(),
+            getLastLagMillis(), getMaxLagMillis());
+    }
+
+    private static class PendingResource {
+        private final String tenantId;
+        private final String dataStoreId;
+        private final String tenantKey;
+        private final String key;
+        private final long queueTime;
+        private Resource resource;
+        private boolean deleted;
+        private int attempts = 0;
+        // the earliest time (System.nanoTime) of the next attempt
+        private long notBefore = 0;
+
+        private PendingResource(String tenantId, String dataStoreId, String tenantKey, Resource resource, boolean deleted, long queueTime) {
+            this.tenantId = tenantId;
+            this.dataStoreId = dataStoreId;
+            this.tenantKey = tenantKey;
+            this.resource = resource;
+            this.deleted = deleted;
+            this.queueTime = queueTime;
+            this.key = tenantId + "/" + dataStoreId + "/" + resource.getClass().getSimpleName() + "/" + resource.getId().getValue();
+        }
+
+        private boolean isSameDatastore(PendingResource other) {
+            return Objects.equals(tenantId, other.tenantId) && Objects.equals(dataStoreId, other.dataStoreId);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.test;
+
+import java.util.Properties;
+
+import com.ibm.watson.health.fhir.persistence.FHIRPersistence;
+import com.ibm.watson.health.fhir.persistence.jdbc.impl.FHIRPersistenceJDBCNormalizedImpl;
+import com.ibm.watson.health.fhir.persistence.jdbc.test.util.DerbyInitializer;
+import com.ibm.watson.health.fhir.persistence.test.common.AbstractCreateAllTest;
+
+/**
+ * Concrete subclass for createAll tests run against the JDBC normalized schema.
+ *
+ */
+public class JDBCNormCreateAllTest extends AbstractCreateAllTest {
+    
+    private Properties testProps;
+    
+    public JDBCNormCreateAllTest() throws Exception {
+        this.testProps = readTestProperties("test.normalized.properties");
+    }
+
+    @Override
+    public void bootstrapDatabase() throws Exception {
+        DerbyInitializer derbyInit;
+        String dbDriverName = this.testProps.getProperty("dbDriverName");
+        if (dbDriverName != null && dbDriverName.contains("derby")) {
+            derbyInit = new DerbyInitializer(this.testProps);
+            derbyInit.bootstrapDb(false);
+        }
+    }
+    
+    @Override
+    public FHIRPersistence getPersistenceImpl() throws Exception {
+        return new FHIRPersistenceJDBCNormalizedImpl(this.testProps);
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.generator.FHIRGenerator;
+import com.ibm.watson.health.fhir.model.resource.Encounter;
+import com.ibm.watson.health.fhir.model.resource.Observation;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.type.Code;
+import com.ibm.watson.health.fhir.model.type.CodeableConcept;
+import com.ibm.watson.health.fhir.model.type.Coding;
+import com.ibm.watson.health.fhir.model.type.EncounterStatus;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.model.type.ObservationStatus;
+import com.ibm.watson.health.fhir.model.type.Reference;
+import com.ibm.watson.health.fhir.model.type.Uri;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ResourceReferenceDAO;
+import com.ibm.watson.health.fhir.persistence.jdbc.derby.DerbyResourceDAO;
+import com.ibm.watson.health.fhir.persistence.jdbc.dto.Parameter;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.CompartmentMembershipUtil;
+import com.ibm.watson.health.fhir.search.SearchConstants.Type;
+
+/**
+ * Tests for the COMPARTMENT_MEMBERS table, which is populated from the compartment
+ * definitions when a resource is stored. Uses its own in-memory Derby database.
+ */
+public class CompartmentMembersTest {
+    private static final String URL = "jdbc:derby:memory:compartmentMembersDB";
+
+    // The query generated for a compartment search, less the resource tables
+    private static final String MEMBERS = "SELECT COUNT(*) FROM compartment_members "
+            + " WHERE compartment_type_id = (SELECT resource_type_id FROM resource_types WHERE resource_type = ?) "
+            + "   AND compartment_logical_id = ?";
+
+    private Connection connection;
+
+    @BeforeClass
+    public void bootstrap() throws SQLException {
+        connection = DerbyTestUtil.createDatabase(URL);
+    }
+
+    @AfterClass
+    public void shutdown() throws SQLException {
+        DerbyTestUtil.dropDatabase(connection, URL);
+    }
+
+    @Test
+    public void testCompartmentDefinitions() {
+        assertTrue(CompartmentMembershipUtil.getCompartments("Observation", "subject").contains("Patient"));
+        assertTrue(CompartmentMembershipUtil.getCompartments("Observation", "performer").contains("Practitioner"));
+        assertTrue(CompartmentMembershipUtil.getCompartments("Observation", "code").isEmpty());
+        assertTrue(CompartmentMembershipUtil.getCompartments("Encounter", CompartmentMembershipUtil.SELF_CRITERION).contains("Encounter"));
+    }
+
+    @Test
+    public void testMembership() throws Exception {
+        DerbyResourceDAO dao = new DerbyResourceDAO(connection);
+        dao.getOrCreateResourceType("Observation");
+        dao.getOrCreateResourceType("Encounter");
+
+        // subject and performer both place the observation in the same patient compartment
+        store(dao, "Observation", "o1", 1, "subject", "Patient/p1", "performer", "Patient/p1", "performer", "Practitioner/d1");
+        assertEquals(members("Patient", "p1"), 1);
+        assertEquals(members("Practitioner", "d1"), 1);
+
+        // performer is not an inclusion criterion for Encounter
+        store(dao, "Observation", "o2", 1, "performer", "Encounter/e1", "encounter", "Encounter/e1");
+        assertEquals(members("Encounter", "e1"), 1);
+
+        // an Encounter is in its own compartment
+        store(dao, "Encounter", "e1", 1, "patient", "Patient/p1");
+        assertEquals(members("Encounter", "e1"), 2);
+        assertEquals(members("Patient", "p1"), 2);
+
+        // A new version replaces the membership of the previous version
+        store(dao, "Observation", "o1", 2, "subject", "Patient/p2");
+        assertEquals(members("Patient", "p1"), 1);
+        assertEquals(members("Patient", "p2"), 1);
+        assertEquals(members("Practitioner", "d1"), 0);
+    }
+
+    @Test(dependsOnMethods = "testMembership")
+    public void testRebuild() throws Exception {
+        DerbyResourceDAO dao = new DerbyResourceDAO(connection);
+        dao.getOrCreateResourceType("Patient");
+
+        // Resources stored before the table was populated aren't in any compartment
+        Observation observation = Observation.builder()
+                .id(Id.of("o9"))
+                .status(ObservationStatus.FINAL)
+                .code(CodeableConcept.builder().coding(Coding.builder().system(Uri.of("http://loinc.org")).code(Code.of("8867-4")).build()).build())
+                .subject(Reference.builder().reference(com.ibm.watson.health.fhir.model.type.String.of("Patient/p9")).build())
+                .build();
+        Encounter encounter = Encounter.builder()
+                .id(Id.of("e9"))
+                .status(EncounterStatus.FINISHED)
+                .clazz(Coding.builder().code(Code.of("AMB")).build())
+                .subject(Reference.builder().reference(com.ibm.watson.health.fhir.model.type.String.of("Patient/p9")).build())
+                .build();
+        storeData(dao, observation);
+        storeData(dao, encounter);
+        try (PreparedStatement ps = connection.prepareStatement("DELETE FROM compartment_members")) {
+            ps.executeUpdate();
+        }
+        assertEquals(members("Patient", "p9"), 0);
+        assertEquals(members("Encounter", "e9"), 0);
+
+        ResourceReferenceDAO referenceDAO = new ResourceReferenceDAO(connection, null, false);
+        assertEquals(referenceDAO.rebuildCompartmentMembers("Observation"), 1);
+        assertEquals(referenceDAO.rebuildCompartmentMembers("Encounter"), 1);
+        assertEquals(members("Patient", "p9"), 2);
+        assertEquals(members("Encounter", "e9"), 1);
+
+        // Rebuilding again doesn't duplicate the membership
+        assertEquals(referenceDAO.rebuildCompartmentMembers("Observation"), 1);
+        assertEquals(members("Patient", "p9"), 2);
+    }
+
+    /**
+     * Store a resource with the given (name, reference) pairs as its reference parameters
+     */
+    private void store(DerbyResourceDAO dao, String resourceType, String logicalId, int version, String... references) throws Exception {
+        List<Parameter> parameters = new ArrayList<>();
+        for (int i=0; i<references.length; i += 2) {
+            Parameter p = new Parameter();
+            p.setType(Type.REFERENCE);
+            p.setName(references[i]);
+            p.setValueString(references[i+1]);
+            parameters.add(p);
+        }
+        final String x = "test";
+        dao.storeResource(resourceType, parameters, logicalId, new byte[0], new Timestamp(System.currentTimeMillis()), false,
+            x, x, x, x, x, x, x, x, x, x, x, null, version, false);
+    }
+
+    /**
+     * Store the resource data without any parameters, as it was before the table was populated
+     */
+    private void storeData(DerbyResourceDAO dao, Resource resource) throws Exception {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (GZIPOutputStream zipStream = new GZIPOutputStream(data)) {
+            FHIRGenerator.generator(Format.JSON, false).generate(resource, zipStream);
+        }
+        final String x = "test";
+        dao.storeResource(resource.getClass().getSimpleName(), Collections.emptyList(), resource.getId().getValue(), data.toByteArray(),
+            new Timestamp(System.currentTimeMillis()), false, x, x, x, x, x, x, x, x, x, x, x, null, 1, false);
+    }
+
+    private long members(String compartmentType, String compartmentLogicalId) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(MEMBERS)) {
+            ps.setString(1, compartmentType);
+            ps.setString(2, compartmentLogicalId);
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.test.util;
+
+import static com.ibm.watson.health.fhir.model.type.String.string;
+import static org.testng.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.model.resource.Observation;
+import com.ibm.watson.health.fhir.model.resource.SearchParameter;
+import com.ibm.watson.health.fhir.model.type.Code;
+import com.ibm.watson.health.fhir.model.type.CodeableConcept;
+import com.ibm.watson.health.fhir.model.type.Coding;
+import com.ibm.watson.health.fhir.model.type.Decimal;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.model.type.ObservationStatus;
+import com.ibm.watson.health.fhir.model.type.Quantity;
+import com.ibm.watson.health.fhir.model.type.Uri;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ParameterDAONormalizedImpl;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ResourceDAONormalizedImpl;
+import com.ibm.watson.health.fhir.persistence.jdbc.derby.DerbyResourceDAO;
+import com.ibm.watson.health.fhir.persistence.jdbc.dto.Parameter;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.JDBCNormalizedQueryBuilder;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.JDBCParameterBuilder;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.SqlQueryData;
+import com.ibm.watson.health.fhir.search.context.FHIRSearchContext;
+import com.ibm.watson.health.fhir.search.util.CompositeValue;
+import com.ibm.watson.health.fhir.search.util.SearchUtil;
+
+/**
+ * Tests that the components of a composite search parameter are stored as correlated rows,
+ * so that a search only matches component values which come from the same occurrence.
+ * Uses its own in-memory Derby database.
+ */
+public class CompositeValuesTest {
+    private static final String URL = "jdbc:derby:memory:compositeValuesDB";
+    private static final String CODE_VALUE_QUANTITY = "component-code-value-quantity";
+
+    private Connection connection;
+
+    @BeforeClass
+    public void bootstrap() throws SQLException {
+        connection = DerbyTestUtil.createDatabase(URL);
+    }
+
+    @AfterClass
+    public void shutdown() throws SQLException {
+        DerbyTestUtil.dropDatabase(connection, URL);
+    }
+
+    @Test
+    public void testCorrelatedComponents() throws Exception {
+        DerbyResourceDAO dao = new DerbyResourceDAO(connection);
+        dao.getOrCreateResourceType("Observation");
+
+        // systolic 120, diastolic 80
+        store(dao, observation("bp1", 120, 80));
+        // systolic 80, diastolic 120
+        store(dao, observation("bp2", 80, 120));
+
+        // Each component is stored with the parameter name and the id of its occurrence
+        try (PreparedStatement ps = connection.prepareStatement(
+                "SELECT COUNT(*) FROM (SELECT DISTINCT tv.logical_resource_id, tv.composite_id FROM observation_token_values tv "
+                + "JOIN parameter_names pn ON pn.parameter_name_id = tv.parameter_name_id WHERE pn.parameter_name = ?) X")) {
+            ps.setString(1, CODE_VALUE_QUANTITY + "$0");
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            // one composite value per component of the two observations
+            assertEquals(rs.getInt(1), 4);
+        }
+
+        assertEquals(search("http://loinc.org|8480-6$120"), asList("bp1"));
+        assertEquals(search("http://loinc.org|8462-4$80"), asList("bp1"));
+        assertEquals(search("8480-6$80"), asList("bp2"));
+        assertEquals(search("http://loinc.org|8462-4$100"), asList());
+        // Both resources have a 120 and an 8462-4, but only bp2 has them in the same component
+        assertEquals(search("http://loinc.org|8462-4$120"), asList("bp2"));
+        // Multiple values are ORed
+        assertEquals(search("8480-6$120,8480-6$80"), asList("bp1", "bp2"));
+    }
+
+    private Observation observation(String logicalId, int systolic, int diastolic) {
+        return Observation.builder()
+                .id(Id.of(logicalId))
+                .status(ObservationStatus.FINAL)
+                .code(concept("85354-9"))
+                .component(component("8480-6", systolic))
+                .component(component("8462-4", diastolic))
+                .build();
+    }
+
+    private CodeableConcept concept(String code) {
+        return CodeableConcept.builder()
+                .coding(Coding.builder().system(Uri.of("http://loinc.org")).code(Code.of(code)).build())
+                .text(string(code))
+                .build();
+    }
+
+    private Observation.Component component(String code, int value) {
+        return Observation.Component.builder()
+                .code(concept(code))
+                .value(Quantity.builder()
+                    .value(Decimal.of(value))
+                    .system(Uri.of("http://unitsofmeasure.org"))
+                    .code(Code.of("mm[Hg]"))
+                    .build())
+                .build();
+    }
+
+    /**
+     * Store the resource with just the parameters of its composite values, as extracted by
+     * the persistence layer
+     */
+    private void store(DerbyResourceDAO dao, Observation observation) throws Exception {
+        JDBCParameterBuilder builder = new JDBCParameterBuilder();
+        List<Parameter> parameters = new ArrayList<>();
+        int compositeId = 0;
+        for (Map.Entry<SearchParameter, List<CompositeValue>> entry : SearchUtil.extractCompositeParameterValues(observation).entrySet()) {
+            for (CompositeValue value : entry.getValue()) {
+                parameters.addAll(builder.processComposite(entry.getKey(), value, ++compositeId));
+            }
+        }
+        for (Parameter p : parameters) {
+            p.setResourceType("Observation");
+        }
+
+        final String x = "test";
+        dao.storeResource("Observation", parameters, observation.getId().getValue(), new byte[] { 0 },
+            new Timestamp(System.currentTimeMillis()), false, x, x, x, x, x, x, x, x, x, x, x, null, 1, false);
+    }
+
+    /**
+     * Run the query built for Observation?component-code-value-quantity=[value] and return the logical ids of the
+     * results, in logical id order
+     */
+    private List<String> search(String value) throws Exception {
+        Map<String, List<String>> queryParameters = new HashMap<>();
+        queryParameters.put(CODE_VALUE_QUANTITY, Collections.singletonList(value));
+        FHIRSearchContext context = SearchUtil.parseQueryParameters(Observation.class, queryParameters, "&" + CODE_VALUE_QUANTITY + "=" + value);
+
+        JDBCNormalizedQueryBuilder queryBuilder = new JDBCNormalizedQueryBuilder(new ParameterDAONormalizedImpl(connection),
+            new ResourceDAONormalizedImpl(connection));
+        SqlQueryData query = queryBuilder.buildQuery(Observation.class, context);
+
+        List<String> result = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(query.getQueryString())) {
+            List<Object> bindVariables = query.getBindVariables();
+            for (int i = 0; i < bindVariables.size(); i++) {
+                ps.setObject(i + 1, bindVariables.get(i));
+            }
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                result.add(rs.getString("LOGICAL_ID"));
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private List<String> asList(String... logicalIds) {
+        List<String> result = new ArrayList<>();
+        Collections.addAll(result, logicalIds);
+        return result;
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.test.util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import com.ibm.watson.health.fhir.persistence.jdbc.util.DerbyBootstrapper;
+
+/**
+ * Helpers for the tests which bootstrap their own in-memory Derby database.
+ */
+public class DerbyTestUtil {
+
+    private DerbyTestUtil() {
+        // static only
+    }
+
+    /**
+     * Creates the in-memory database and bootstraps the FHIR schema in it
+     * @param url the jdbc:derby:memory: url of the database, without attributes
+     * @return a connection to the database, without auto-commit, whose current schema is FHIRDATA
+     * @throws SQLException
+     */
+    public static Connection createDatabase(String url) throws SQLException {
+        Connection connection = DriverManager.getConnection(url + ";create=true");
+        connection.setAutoCommit(false);
+        DerbyBootstrapper.bootstrap(connection, "FHIR_ADMIN", "FHIRDATA");
+        connection.commit();
+        connection.setSchema("FHIRDATA");
+        return connection;
+    }
+
+    /**
+     * Closes the connection obtained from {@link #createDatabase(String)}, discarding any uncommitted work, and
+     * drops the database
+     * @param connection the connection, or null if the database wasn't created
+     * @param url the jdbc:derby:memory: url of the database, without attributes
+     * @throws SQLException
+     */
+    public static void dropDatabase(Connection connection, String url) throws SQLException {
+        if (connection != null) {
+            connection.rollback();
+            connection.close();
+        }
+        dropDatabase(url);
+    }
+
+    /**
+     * Drops the in-memory database, releasing its memory for the other tests of the suite. Each database
+     * holds the full schema, so they can't all be kept until the end of the suite.
+     * @param url the jdbc:derby:memory: url of the database, without attributes
+     */
+    public static void dropDatabase(String url) {
+        try {
+            DriverManager.getConnection(url + ";drop=true").close();
+        } catch (SQLException x) {
+            // Derby reports a successful drop as SQLState 08006
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ResourceDAONormalizedImpl;
+import com.ibm.watson.health.fhir.persistence.jdbc.derby.DerbyResourceDAO;
+import com.ibm.watson.health.fhir.persistence.jdbc.dto.Parameter;
+import com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource;
+
+/**
+ * Tests the reads which back the export of stored resources: the logical resource id range used to partition a
+ * resource type, and the stream of the current, non-deleted versions in a partition. Uses its own in-memory Derby
+ * database.
+ */
+public class ExportStreamTest {
+    private static final String URL = "jdbc:derby:memory:exportStreamDB";
+    private static final long NOW = System.currentTimeMillis();
+
+    private Connection connection;
+
+    @BeforeClass
+    public void bootstrap() throws Exception {
+        connection = DerbyTestUtil.createDatabase(URL);
+
+        DerbyResourceDAO dao = new DerbyResourceDAO(connection);
+        dao.getOrCreateResourceType("Patient");
+        for (int i = 0; i < 10; i++) {
+            // the odd patients were last updated an hour ago
+            store(dao, "patient" + i, 1, "v1", NOW - (i % 2) * 3600000L, false);
+        }
+        store(dao, "patient3", 2, "v2", NOW - 3600000L, false);
+        store(dao, "patient4", 2, "deleted", NOW, true);
+    }
+
+    @AfterClass
+    public void shutdown() throws SQLException {
+        DerbyTestUtil.dropDatabase(connection, URL);
+    }
+
+    @Test
+    public void testExportStream() throws Exception {
+        ResourceDAONormalizedImpl resourceDao = new ResourceDAONormalizedImpl(connection);
+        long[] range = resourceDao.readLogicalResourceIdRange("Patient");
+        assertEquals(range[2], 10);
+        assertTrue(range[1] - range[0] >= 9);
+
+        // the current version of each resource, without the deleted one, in logical resource id order
+        List<String> exported = export(resourceDao, range[0], range[1], null);
+        assertEquals(exported.size(), 9);
+        assertEquals(exported.get(0), "patient0:v1");
+        assertEquals(exported.get(3), "patient3:v2");
+        assertEquals(exported.get(4), "patient5:v1");
+
+        // partitions split the range without overlapping
+        List<String> partitioned = new ArrayList<>();
+        long middle = (range[0] + range[1]) / 2;
+        partitioned.addAll(export(resourceDao, range[0], middle, null));
+        partitioned.addAll(export(resourceDao, middle + 1, range[1], null));
+        assertEquals(partitioned, exported);
+
+        // _since
+        List<String> since = export(resourceDao, range[0], range[1], new Timestamp(NOW - 60000L));
+        assertEquals(since, Arrays.asList("patient0:v1", "patient2:v1", "patient6:v1", "patient8:v1"));
+
+        assertNull(resourceDao.readLogicalResourceIdRange("Observation"));
+    }
+
+    private List<String> export(ResourceDAONormalizedImpl resourceDao, long firstId, long lastId, Timestamp since) throws Exception {
+        try (Stream<Resource> resources = resourceDao.exportStream("Patient", firstId, lastId, since, 3)) {
+            return resources.map(resource -> resource.getLogicalId() + ":" + payload(resource)).collect(Collectors.toList());
+        }
+    }
+
+    private void store(DerbyResourceDAO dao, String logicalId, int version, String payload, long lastUpdated, boolean deleted) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(payload.getBytes(StandardCharsets.UTF_8));
+        }
+        final String x = "test";
+        dao.storeResource("Patient", Collections.<Parameter>emptyList(), logicalId, bytes.toByteArray(),
+            new Timestamp(lastUpdated), deleted, x, x, x, x, x, x, x, x, x, x, x, null, version, false);
+    }
+
+    private String payload(Resource resource) {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(resource.getData()))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.persistence.jdbc.util.GeoCellUtil;
+import com.ibm.watson.health.fhir.persistence.util.BoundingBox;
+import com.ibm.watson.health.fhir.persistence.util.FHIRPersistenceUtil;
+
+/**
+ * Tests that the cell ranges which cover the bounding box of a near search contain the cells of all the
+ * positions within the distance of its center.
+ */
+public class GeoCellUtilTest {
+
+    @Test
+    public void testCovering() {
+        Random random = new Random(47);
+        for (int i = 0; i < 200; i++) {
+            double latitude = random.nextDouble() * 160.0 - 80.0;
+            double longitude = random.nextDouble() * 360.0 - 180.0;
+            double distance = Math.pow(10.0, random.nextDouble() * 4.0 - 1.0);
+            assertCovered(latitude, longitude, distance, random);
+        }
+    }
+
+    @Test
+    public void testAntimeridian() {
+        BoundingBox boundingBox = FHIRPersistenceUtil.createBoundingBox(-17.0, 179.99, 20.0, "km");
+        List<long[]> ranges = GeoCellUtil.coveringRanges(boundingBox, GeoCellUtil.DEFAULT_MAX_CELLS);
+        assertTrue(contains(ranges, GeoCellUtil.cell(-17.0, 179.995)));
+        assertTrue(contains(ranges, GeoCellUtil.cell(-17.0, -179.995)));
+        assertTrue(!contains(ranges, GeoCellUtil.cell(-17.0, 0.0)));
+        assertCovered(-17.0, -179.99, 20.0, new Random(180));
+    }
+
+    @Test
+    public void testPole() {
+        // a box around a pole spans all longitudes
+        BoundingBox boundingBox = FHIRPersistenceUtil.createBoundingBox(90.0, 0.0, 5.0, "km");
+        List<long[]> ranges = GeoCellUtil.coveringRanges(boundingBox, GeoCellUtil.DEFAULT_MAX_CELLS);
+        assertEquals(ranges.size(), 1);
+        assertTrue(contains(ranges, GeoCellUtil.cell(89.99, -120.0)));
+    }
+
+    /**
+     * Check that random positions within the distance of the center are in the cells covering its bounding box
+     */
+    private void assertCovered(double latitude, double longitude, double distance, Random random) {
+        BoundingBox boundingBox = FHIRPersistenceUtil.createBoundingBox(latitude, longitude, distance, "km");
+        List<long[]> ranges = GeoCellUtil.coveringRanges(boundingBox, GeoCellUtil.DEFAULT_MAX_CELLS);
+        assertTrue(ranges.size() <= GeoCellUtil.DEFAULT_MAX_CELLS);
+
+        for (int j = 0; j < 50; j++) {
+            // the destination at a random bearing and distance
+            double angle = random.nextDouble() * distance / FHIRPersistenceUtil.EARTH_RADIUS_KILOMETERS;
+            double bearing = random.nextDouble() * 2 * Math.PI;
+            double lat1 = Math.toRadians(latitude);
+            double lat2 = Math.asin(Math.sin(lat1) * Math.cos(angle) + Math.cos(lat1) * Math.sin(angle) * Math.cos(bearing));
+            double lng2 = Math.toRadians(longitude)
+                    + Math.atan2(Math.sin(bearing) * Math.sin(angle) * Math.cos(lat1), Math.cos(angle) - Math.sin(lat1) * Math.sin(lat2));
+            double pointLatitude = Math.toDegrees(lat2);
+            double pointLongitude = Math.toDegrees(lng2);
+            if (pointLongitude > 180.0) {
+                pointLongitude -= 360.0;
+            }
+            else if (pointLongitude < -180.0) {
+                pointLongitude += 360.0;
+            }
+            assertTrue(contains(ranges, GeoCellUtil.cell(pointLatitude, pointLongitude)),
+                "(" + pointLatitude + ", " + pointLongitude + ") not within " + distance + "km of " + boundingBox);
+        }
+    }
+
+    private boolean contains(List<long[]> ranges, long cell) {
+        for (long[] range : ranges) {
+            if (cell >= range[0] && cell <= range[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.transaction.Status;
+
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.persistence.jdbc.util.IdCache;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.IdCacheInvalidationStrategy;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.ParameterNamesCache;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.ParameterNamesCacheUpdater;
+
+public class IdCacheTest {
+
+    @Test
+    public void testPartitions() {
+        IdCache cache = new IdCache("TestCache");
+        cache.putId("default", "default", "Patient", 1);
+        cache.putId("tenant1", "default", "Patient", 2);
+        cache.putId("tenant1", "ds2", "Patient", 3);
+
+        assertEquals(cache.getId("default", "default", "Patient"), Integer.valueOf(1));
+        assertEquals(cache.getId("tenant1", "default", "Patient"), Integer.valueOf(2));
+        assertEquals(cache.getId("tenant1", "ds2", "Patient"), Integer.valueOf(3));
+        assertNull(cache.getId("tenant2", "default", "Patient"));
+        assertNull(cache.getId("default", "default", "Observation"));
+        assertEquals(cache.getHitCount(), 3);
+        assertEquals(cache.getMissCount(), 2);
+
+        // an existing mapping is never replaced
+        cache.putId("default", "default", "Patient", 99);
+        assertEquals(cache.getId("default", "default", "Patient"), Integer.valueOf(1));
+    }
+
+    @Test
+    public void testPreloadAndInvalidate() {
+        IdCache cache = new IdCache("TestCache");
+        Map<String, Integer> table = new HashMap<>();
+        table.put("Patient", 1);
+        table.put("Observation", 2);
+
+        assertFalse(cache.isPreloaded("default", "default"));
+        cache.preload("default", "default", table);
+        assertTrue(cache.isPreloaded("default", "default"));
+        assertFalse(cache.isPreloaded("default", "ds2"));
+        assertEquals(cache.getIds("default", "default"), table);
+
+        cache.invalidate("default", "default");
+        assertFalse(cache.isPreloaded("default", "default"));
+        assertNull(cache.getId("default", "default", "Patient"));
+        assertEquals(cache.getInvalidationCount(), 1);
+    }
+
+    @Test
+    public void testInvalidationStrategy() {
+        AtomicBoolean stale = new AtomicBoolean();
+        IdCache cache = new IdCache("TestCache");
+        cache.setInvalidationStrategy((tenantId, dataStoreId, createdMillis) -> stale.get() && "tenant1".equals(tenantId));
+        cache.putId("default", "default", "Patient", 1);
+        cache.putId("tenant1", "default", "Patient", 1);
+
+        stale.set(true);
+        assertEquals(cache.getId("default", "default", "Patient"), Integer.valueOf(1));
+        assertNull(cache.getId("tenant1", "default", "Patient"));
+
+        // entries added after the partition was discarded go into a new partition
+        stale.set(false);
+        cache.putId("tenant1", "default", "Patient", 2);
+        assertEquals(cache.getId("tenant1", "default", "Patient"), Integer.valueOf(2));
+
+        assertFalse(IdCacheInvalidationStrategy.maxAge(60, TimeUnit.SECONDS)
+            .isStale("default", "default", System.currentTimeMillis()));
+        assertTrue(IdCacheInvalidationStrategy.maxAge(60, TimeUnit.SECONDS)
+            .isStale("default", "default", System.currentTimeMillis() - 61000));
+    }
+
+    @Test
+    public void testEviction() {
+        IdCache cache = new IdCache("TestCache");
+        cache.setMaxEntries(100);
+        for (int i = 0; i < 150; i++) {
+            cache.putId("default", "default", "name" + i, i);
+        }
+        int size = cache.getIds("default", "default").size();
+        assertTrue(size <= 100);
+        assertEquals(cache.getEvictionCount(), 150 - size);
+    }
+
+    @Test
+    public void testDisabled() {
+        IdCache cache = new IdCache("TestCache");
+        cache.putId("default", "default", "Patient", 1);
+        cache.setEnabled(false);
+        assertNull(cache.getId("default", "default", "Patient"));
+        cache.putId("default", "default", "Patient", 1);
+        cache.setEnabled(true);
+        assertNull(cache.getId("default", "default", "Patient"));
+    }
+
+    @Test
+    public void testCacheUpdater() {
+        Map<String, Integer> candidates = new HashMap<>();
+        ParameterNamesCacheUpdater updater = new ParameterNamesCacheUpdater("default", "default", candidates);
+        candidates.put("IdCacheTest-rolledBack", 1);
+        updater.afterCompletion(Status.STATUS_ROLLEDBACK);
+        assertNull(ParameterNamesCache.getParameterNameId("IdCacheTest-rolledBack"));
+
+        candidates.put("IdCacheTest-committed", 2);
+        updater.afterCompletion(Status.STATUS_COMMITTED);
+        assertEquals(ParameterNamesCache.getParameterNameId("IdCacheTest-committed"), Integer.valueOf(2));
+        assertTrue(candidates.isEmpty());
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.model.path.FHIRPathNode;
+import com.ibm.watson.health.fhir.model.resource.Location;
+import com.ibm.watson.health.fhir.model.resource.SearchParameter;
+import com.ibm.watson.health.fhir.model.type.Decimal;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ParameterDAONormalizedImpl;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ResourceDAONormalizedImpl;
+import com.ibm.watson.health.fhir.persistence.jdbc.derby.DerbyResourceDAO;
+import com.ibm.watson.health.fhir.persistence.jdbc.dto.Parameter;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.JDBCNormalizedQueryBuilder;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.JDBCParameterBuilder;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.SqlQueryData;
+import com.ibm.watson.health.fhir.search.SearchConstants.Type;
+import com.ibm.watson.health.fhir.search.context.FHIRSearchContext;
+import com.ibm.watson.health.fhir.search.util.SearchUtil;
+
+/**
+ * Tests that Location positions are stored with their geo cell, and that near searches select the positions
+ * within the distance, nearest first. Uses its own in-memory Derby database.
+ */
+public class LocationNearTest {
+    private static final String URL = "jdbc:derby:memory:locationNearDB";
+
+    private Connection connection;
+
+    @BeforeClass
+    public void bootstrap() throws SQLException {
+        connection = DerbyTestUtil.createDatabase(URL);
+    }
+
+    @AfterClass
+    public void shutdown() throws SQLException {
+        DerbyTestUtil.dropDatabase(connection, URL);
+    }
+
+    @Test
+    public void testNear() throws Exception {
+        DerbyResourceDAO dao = new DerbyResourceDAO(connection);
+        dao.getOrCreateResourceType("Location");
+
+        // around 44.97749, -93.27522
+        store(dao, location("north", 44.98649, -93.27522));  // 1.0km
+        store(dao, location("center", 44.97760, -93.27530)); // 0.01km
+        store(dao, location("corner", 44.99349, -93.25272)); // 2.7km, but within the bounding box of 2km
+        store(dao, location("far", 45.06749, -93.27522));    // 10km
+
+        try (PreparedStatement ps = connection.prepareStatement("SELECT COUNT(*) FROM location_latlng_values WHERE geo_cell IS NOT NULL")) {
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            assertEquals(rs.getInt(1), 4);
+        }
+
+        assertEquals(search("44.977490|-93.275220|2|km"), asList("center", "north"));
+        assertEquals(search("44.977490|-93.275220|3|km"), asList("center", "north", "corner"));
+        assertEquals(search("44.977490|-93.275220|0.5|km"), asList("center"));
+        assertEquals(search("45.06749|-93.27522|1|mi"), asList("far"));
+        assertTrue(search("0|0|100|km").isEmpty());
+    }
+
+    private Location location(String logicalId, double latitude, double longitude) {
+        return Location.builder()
+                .id(Id.of(logicalId))
+                .position(Location.Position.builder()
+                    .latitude(Decimal.of(latitude))
+                    .longitude(Decimal.of(longitude))
+                    .build())
+                .build();
+    }
+
+    /**
+     * Store the resource with just its near parameter, as extracted by the persistence layer
+     */
+    private void store(DerbyResourceDAO dao, Location location) throws Exception {
+        JDBCParameterBuilder builder = new JDBCParameterBuilder();
+        List<Parameter> parameters = new ArrayList<>();
+        for (Map.Entry<SearchParameter, List<FHIRPathNode>> entry : SearchUtil.extractParameterValues(location).entrySet()) {
+            if (!"near".equals(entry.getKey().getCode().getValue())) {
+                continue;
+            }
+            for (Object node : entry.getValue()) {
+                for (Parameter p : builder.process(entry.getKey(), node)) {
+                    p.setType(Type.fromValue(entry.getKey().getType().getValue()));
+                    p.setResourceType("Location");
+                    parameters.add(p);
+                }
+            }
+        }
+
+        final String x = "test";
+        dao.storeResource("Location", parameters, location.getId().getValue(), new byte[] { 0 },
+            new Timestamp(System.currentTimeMillis()), false, x, x, x, x, x, x, x, x, x, x, x, null, 1, false);
+    }
+
+    /**
+     * Run the query built for Location?near=[value] and return the logical ids of the results in order
+     */
+    private List<String> search(String near) throws Exception {
+        Map<String, List<String>> queryParameters = new HashMap<>();
+        queryParameters.put("near", Collections.singletonList(near));
+        FHIRSearchContext context = SearchUtil.parseQueryParameters(Location.class, queryParameters, "&near=" + near);
+
+        JDBCNormalizedQueryBuilder queryBuilder = new JDBCNormalizedQueryBuilder(new ParameterDAONormalizedImpl(connection),
+            new ResourceDAONormalizedImpl(connection));
+        SqlQueryData query = queryBuilder.buildQuery(Location.class, context);
+
+        List<String> result = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(query.getQueryString())) {
+            List<Object> bindVariables = query.getBindVariables();
+            for (int i = 0; i < bindVariables.size(); i++) {
+                ps.setObject(i + 1, bindVariables.get(i));
+            }
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                result.add(rs.getString("LOGICAL_ID"));
+            }
+        }
+        return result;
+    }
+
+    private List<String> asList(String... logicalIds) {
+        List<String> result = new ArrayList<>();
+        Collections.addAll(result, logicalIds);
+        return result;
+    }
+}
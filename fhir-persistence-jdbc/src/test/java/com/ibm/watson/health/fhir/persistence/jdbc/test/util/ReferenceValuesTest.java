@@ -0,0 +1,317 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.transaction.Status;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.config.FHIRRequestContext;
+import com.ibm.watson.health.fhir.persistence.jdbc.derby.DerbyResourceDAO;
+import com.ibm.watson.health.fhir.persistence.jdbc.dto.IParameterVisitor;
+import com.ibm.watson.health.fhir.persistence.jdbc.dto.Parameter;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.PendingReferenceResolver;
+import com.ibm.watson.health.fhir.search.SearchConstants.Type;
+
+/**
+ * Tests for the normalized reference tables (<RESOURCE_TYPE>_REF_VALUES), including
+ * references stored before their target exists. Uses its own in-memory Derby database.
+ */
+public class ReferenceValuesTest {
+    private static final String URL = "jdbc:derby:memory:refValuesDB";
+
+    private Connection connection;
+
+    @BeforeClass
+    public void bootstrap() throws SQLException {
+        connection = DerbyTestUtil.createDatabase(URL);
+    }
+
+    @AfterClass
+    public void shutdown() throws SQLException {
+        DerbyTestUtil.dropDatabase(connection, URL);
+    }
+
+    @Test
+    public void testVisitReference() throws Exception {
+        List<String> refs = new ArrayList<>();
+        IParameterVisitor visitor = new RecordingVisitor(refs);
+
+        reference("subject", "Patient/p1").visit(visitor);
+        reference("subject", "Patient/p1/_history/2").visit(visitor);
+        reference("subject", "http://example.com/fhir/Patient/p1").visit(visitor);
+        reference("subject", "NotAType/p1").visit(visitor);
+
+        // only relative references to a known resource type get a normalized target
+        assertEquals(refs.size(), 2);
+        assertEquals(refs.get(0), "subject=Patient/p1");
+        assertEquals(refs.get(1), "subject=Patient/p1");
+    }
+
+    @Test
+    public void testPendingReferences() throws Exception {
+        DerbyResourceDAO dao = new DerbyResourceDAO(connection);
+        dao.getOrCreateResourceType("Observation");
+        dao.getOrCreateResourceType("Patient");
+
+        // The target doesn't exist yet, so the reference waits in PENDING_REFERENCES
+        store(dao, "Observation", "o1", 1, "Patient/p1");
+        assertEquals(count("SELECT COUNT(*) FROM pending_references"), 1);
+        assertEquals(count("SELECT COUNT(*) FROM observation_ref_values"), 0);
+
+        // Creating the target resolves the reference
+        store(dao, "Patient", "p1", 1);
+        assertEquals(count("SELECT COUNT(*) FROM pending_references"), 0);
+        long p1 = count("SELECT logical_resource_id FROM patient_logical_resources WHERE logical_id = 'p1'");
+        assertEquals(count("SELECT ref_logical_resource_id FROM observation_ref_values"), p1);
+
+        // A reference to an existing target is resolved straight away
+        store(dao, "Observation", "o2", 1, "Patient/p1");
+        assertEquals(count("SELECT COUNT(*) FROM observation_ref_values WHERE ref_logical_resource_id = " + p1), 2);
+
+        // A new version replaces the references of the previous version
+        store(dao, "Observation", "o1", 2, "Patient/p2");
+        assertEquals(count("SELECT COUNT(*) FROM observation_ref_values"), 1);
+        assertEquals(count("SELECT COUNT(*) FROM pending_references"), 1);
+    }
+
+    @Test
+    public void testReferencesResolvedAfterCommit() throws Exception {
+        DerbyResourceDAO dao = new DerbyResourceDAO(connection);
+        dao.getOrCreateResourceType("Observation");
+        dao.getOrCreateResourceType("Patient");
+
+        // The observation and its target patient are written by concurrent transactions,
+        // neither of which sees the other's rows, so the reference is left pending
+        store(dao, "Observation", "o3", 1, "Patient/p3", "Patient/p4");
+        connection.commit();
+        long o3 = count("SELECT logical_resource_id FROM observation_logical_resources WHERE logical_id = 'o3'");
+        String o3Refs = "SELECT COUNT(*) FROM observation_ref_values WHERE logical_resource_id = " + o3;
+        storeTargetsConcurrently(dao, o3, "p3", "p4");
+        assertEquals(count("SELECT COUNT(*) FROM pending_references WHERE ref_logical_id IN ('p3', 'p4')"), 2);
+
+        // The resolver resolves the references to and from the resources it is given
+        PendingReferenceResolver resolver = new TestResolver();
+        resolver.addWrittenResource("Patient", "p3");
+        resolver.afterCompletion(Status.STATUS_COMMITTED);
+        assertEquals(count(o3Refs), 1);
+
+        resolver = new TestResolver();
+        resolver.addWrittenResource("Observation", "o3");
+        resolver.afterCompletion(Status.STATUS_COMMITTED);
+        assertEquals(count("SELECT COUNT(*) FROM pending_references WHERE ref_logical_id IN ('p3', 'p4')"), 0);
+        assertEquals(count(o3Refs), 2);
+
+        // Resolving again doesn't store the references twice, and a rollback resolves nothing
+        resolver = new TestResolver();
+        resolver.addWrittenResource("Observation", "o3");
+        resolver.addWrittenResource("Patient", "p4");
+        resolver.afterCompletion(Status.STATUS_COMMITTED);
+        resolver.afterCompletion(Status.STATUS_ROLLEDBACK);
+        assertEquals(count(o3Refs), 2);
+
+        // Leave the reference tables as the other tests expect them
+        executeUpdate("DELETE FROM observation_ref_values WHERE logical_resource_id = " + o3);
+        connection.commit();
+    }
+
+    @Test
+    public void testParkedReferencesRetried() throws Exception {
+        DerbyResourceDAO dao = new DerbyResourceDAO(connection);
+        dao.getOrCreateResourceType("Observation");
+        dao.getOrCreateResourceType("Patient");
+
+        // Only a write which parks a reference needs to be resolved again after it commits
+        store(dao, "Patient", "p8", 1);
+        store(dao, "Observation", "o8", 1, "Patient/p8");
+        assertFalse(dao.isPendingReferencesStored());
+        store(dao, "Observation", "o7", 1, "Patient/p7");
+        assertTrue(dao.isPendingReferencesStored());
+        connection.commit();
+        long o7 = count("SELECT logical_resource_id FROM observation_logical_resources WHERE logical_id = 'o7'");
+
+        // The target is created by a concurrent transaction which commits after the referring one,
+        // so the first attempt doesn't find it and the reference is resolved by the next one
+        List<Integer> retries = new ArrayList<>();
+        PendingReferenceResolver resolver = new TestResolver(Runnable::run) {
+            @Override
+            protected void awaitRetry(int attempt) {
+                retries.add(attempt);
+                if (attempt == 1) {
+                    try {
+                        storeTargetsConcurrently(dao, o7, "p7");
+                    } catch (Exception x) {
+                        throw new IllegalStateException(x);
+                    }
+                }
+            }
+        };
+        resolver.addWrittenResource("Observation", "o7");
+        resolver.afterCompletion(Status.STATUS_COMMITTED);
+        assertEquals(retries, Arrays.asList(1));
+        assertEquals(count("SELECT COUNT(*) FROM pending_references WHERE logical_resource_id = " + o7), 0);
+        assertEquals(count("SELECT COUNT(*) FROM observation_ref_values WHERE logical_resource_id = " + o7), 1);
+
+        // Leave the reference tables as the other tests expect them
+        executeUpdate("DELETE FROM observation_ref_values WHERE logical_resource_id IN (SELECT logical_resource_id "
+                + "FROM observation_logical_resources WHERE logical_id IN ('o7', 'o8'))");
+        connection.commit();
+    }
+
+    /**
+     * Create the given patients the way a transaction running concurrently with the one which wrote the referring
+     * resource would: the new patients don't resolve the references which the referring resource parked for them
+     * @param dao
+     * @param referrer the logical_resource_id of the referring resource
+     * @param patientIds
+     * @throws Exception
+     */
+    private void storeTargetsConcurrently(DerbyResourceDAO dao, long referrer, String... patientIds) throws Exception {
+        String pendingRows = "SELECT parameter_name_id, ref_resource_type_id, ref_logical_id, resource_type_id, logical_resource_id "
+                + "FROM pending_references WHERE logical_resource_id = " + referrer;
+        List<Object[]> pending = new ArrayList<>();
+        try (PreparedStatement ps = connection.prepareStatement(pendingRows)) {
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                pending.add(new Object[] { rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getInt(4), rs.getLong(5) });
+            }
+        }
+        for (String patientId: patientIds) {
+            store(dao, "Patient", patientId, 1);
+        }
+        executeUpdate("DELETE FROM observation_ref_values WHERE logical_resource_id = " + referrer);
+        for (Object[] row: pending) {
+            try (PreparedStatement ps = connection.prepareStatement("INSERT INTO pending_references "
+                    + "(parameter_name_id, ref_resource_type_id, ref_logical_id, resource_type_id, logical_resource_id) VALUES (?,?,?,?,?)")) {
+                for (int i = 0; i < row.length; i++) {
+                    ps.setObject(i + 1, row[i]);
+                }
+                ps.executeUpdate();
+            }
+        }
+        connection.commit();
+    }
+
+    private void executeUpdate(String sql) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ps.executeUpdate();
+        }
+    }
+
+    private void store(DerbyResourceDAO dao, String resourceType, String logicalId, int version, String... references) throws Exception {
+        List<Parameter> parameters = new ArrayList<>();
+        for (String ref: references) {
+            parameters.add(reference("subject", ref));
+        }
+        final String x = "test";
+        dao.storeResource(resourceType, parameters, logicalId, new byte[0], new Timestamp(System.currentTimeMillis()), false,
+            x, x, x, x, x, x, x, x, x, x, x, null, version, false);
+    }
+
+    private Parameter reference(String name, String value) {
+        Parameter p = new Parameter();
+        p.setType(Type.REFERENCE);
+        p.setName(name);
+        p.setValueString(value);
+        return p;
+    }
+
+    private long count(String sql) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * Resolves the references on its own connection to the test database, as it would
+     * on a connection to the datastore of the transaction
+     */
+    private static class TestResolver extends PendingReferenceResolver {
+        TestResolver() {
+            this(null);
+        }
+
+        TestResolver(Executor executor) {
+            super(FHIRRequestContext.get(), executor);
+        }
+
+        @Override
+        protected Connection getConnection() {
+            try {
+                Connection c = DriverManager.getConnection(URL);
+                c.setSchema("FHIRDATA");
+                return c;
+            } catch (SQLException x) {
+                throw new IllegalStateException(x);
+            }
+        }
+    }
+
+    /**
+     * Records the reference targets it is given, ignoring everything else
+     */
+    private static class RecordingVisitor implements IParameterVisitor {
+        private final List<String> refs;
+
+        RecordingVisitor(List<String> refs) {
+            this.refs = refs;
+        }
+
+        @Override
+        public void stringValue(String parameterName, String value, boolean isBase, Integer compositeId) {
+        }
+
+        @Override
+        public void substringValue(String parameterName, String value) {
+        }
+
+        @Override
+        public void referenceValue(String parameterName, String refResourceType, String refLogicalId) {
+            refs.add(parameterName + "=" + refResourceType + "/" + refLogicalId);
+        }
+
+        @Override
+        public void numberValue(String parameterName, BigDecimal value, BigDecimal valueLow, BigDecimal valueHigh, Integer compositeId) {
+        }
+
+        @Override
+        public void dateValue(String parameterName, Timestamp date, Timestamp dateStart, Timestamp dateEnd, boolean isBase, Integer compositeId) {
+        }
+
+        @Override
+        public void tokenValue(String parameterName, String codeSystem, String tokenValue, boolean isBase, Integer compositeId) {
+        }
+
+        @Override
+        public void quantityValue(String parameterName, String code, String codeSystem, BigDecimal quantityValue, BigDecimal quantityLow, BigDecimal quantityHigh, Integer compositeId) {
+        }
+
+        @Override
+        public void locationValue(String parameterName, double lat, double lng) {
+        }
+    }
+}
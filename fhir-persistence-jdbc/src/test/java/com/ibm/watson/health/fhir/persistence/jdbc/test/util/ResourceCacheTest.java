@@ -0,0 +1,205 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.transaction.Status;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.model.resource.Patient;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.model.type.Meta;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.ResourceCache;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.ResourceCacheUpdater;
+
+public class ResourceCacheTest {
+    private static final String CACHE_NAME = "default~default";
+
+    @BeforeMethod
+    public void enable() {
+        ResourceCache.setEnabled(true);
+        ResourceCache.setMaxSize(ResourceCache.DEFAULT_MAX_SIZE_MB * 1024L * 1024L);
+    }
+
+    @AfterMethod
+    public void disable() {
+        ResourceCache.setEnabled(false);
+    }
+
+    @Test
+    public void testCommittedWrite() {
+        Patient v1 = patient("1", 1);
+        Patient v2 = patient("1", 2);
+
+        ResourceCacheUpdater updater = new ResourceCacheUpdater(CACHE_NAME);
+        updater.addWriteCandidate(v1, 100);
+        assertTrue(updater.isWritten("Patient", "1"));
+        // nothing is cached before the transaction commits
+        assertNull(ResourceCache.getCurrentVersion(CACHE_NAME, "Patient", "1"));
+        updater.afterCompletion(Status.STATUS_COMMITTED);
+        assertSame(ResourceCache.getCurrentVersion(CACHE_NAME, "Patient", "1"), v1);
+
+        updater = new ResourceCacheUpdater(CACHE_NAME);
+        updater.addWriteCandidate(v2, 100);
+        updater.afterCompletion(Status.STATUS_COMMITTED);
+        assertSame(ResourceCache.getCurrentVersion(CACHE_NAME, "Patient", "1"), v2);
+        assertSame(ResourceCache.getVersion(CACHE_NAME, "Patient", "1", 1), v1);
+
+        // other tenants/datastores don't see the entries
+        assertNull(ResourceCache.getCurrentVersion("tenant1~default", "Patient", "1"));
+    }
+
+    @Test
+    public void testRollback() {
+        ResourceCacheUpdater updater = new ResourceCacheUpdater(CACHE_NAME);
+        updater.addWriteCandidate(patient("2", 1), 100);
+        updater.afterCompletion(Status.STATUS_ROLLEDBACK);
+        assertNull(ResourceCache.getCurrentVersion(CACHE_NAME, "Patient", "2"));
+        assertNull(ResourceCache.getVersion(CACHE_NAME, "Patient", "2", 1));
+    }
+
+    @Test
+    public void testStaleReadIgnored() {
+        Patient v1 = patient("3", 1);
+        Patient v2 = patient("3", 2);
+
+        // a reader which read version 1 commits after a writer committed version 2
+        ResourceCacheUpdater writer = new ResourceCacheUpdater(CACHE_NAME);
+        writer.addWriteCandidate(v2, 100);
+        writer.afterCompletion(Status.STATUS_COMMITTED);
+        ResourceCacheUpdater reader = new ResourceCacheUpdater(CACHE_NAME);
+        reader.addReadCandidate(v1, 100, ResourceCache.getPointerStamp());
+        reader.afterCompletion(Status.STATUS_COMMITTED);
+
+        assertSame(ResourceCache.getCurrentVersion(CACHE_NAME, "Patient", "3"), v2);
+        assertSame(ResourceCache.getVersion(CACHE_NAME, "Patient", "3", 1), v1);
+    }
+
+    @Test
+    public void testStaleReadAfterPointerEvicted() {
+        Patient v1 = patient("6", 1);
+        Patient v2 = patient("6", 2);
+
+        // a reader reads version 1 from the database...
+        long pointerStamp = ResourceCache.getPointerStamp();
+
+        // ...while a writer commits version 2, whose entries are then evicted
+        ResourceCacheUpdater writer = new ResourceCacheUpdater(CACHE_NAME);
+        writer.addWriteCandidate(v2, 100);
+        writer.afterCompletion(Status.STATUS_COMMITTED);
+        ResourceCache.setMaxSize(0);
+        ResourceCache.setMaxSize(ResourceCache.DEFAULT_MAX_SIZE_MB * 1024L * 1024L);
+
+        ResourceCacheUpdater reader = new ResourceCacheUpdater(CACHE_NAME);
+        reader.addReadCandidate(v1, 100, pointerStamp);
+        reader.afterCompletion(Status.STATUS_COMMITTED);
+        assertNull(ResourceCache.getCurrentVersion(CACHE_NAME, "Patient", "6"));
+        assertSame(ResourceCache.getVersion(CACHE_NAME, "Patient", "6", 1), v1);
+
+        // a read which starts afterwards can make its version current again
+        reader = new ResourceCacheUpdater(CACHE_NAME);
+        reader.addReadCandidate(v2, 100, ResourceCache.getPointerStamp());
+        reader.afterCompletion(Status.STATUS_COMMITTED);
+        assertSame(ResourceCache.getCurrentVersion(CACHE_NAME, "Patient", "6"), v2);
+    }
+
+    @Test
+    public void testDelete() {
+        Patient v1 = patient("4", 1);
+        ResourceCacheUpdater updater = new ResourceCacheUpdater(CACHE_NAME);
+        updater.addWriteCandidate(v1, 100);
+        updater.afterCompletion(Status.STATUS_COMMITTED);
+
+        updater = new ResourceCacheUpdater(CACHE_NAME);
+        updater.addDeleteCandidate("Patient", "4", 2);
+        updater.afterCompletion(Status.STATUS_COMMITTED);
+        assertNull(ResourceCache.getCurrentVersion(CACHE_NAME, "Patient", "4"));
+
+        // a read of version 1 that completes after the delete doesn't bring it back
+        updater = new ResourceCacheUpdater(CACHE_NAME);
+        updater.addReadCandidate(v1, 100, ResourceCache.getPointerStamp());
+        updater.afterCompletion(Status.STATUS_COMMITTED);
+        assertNull(ResourceCache.getCurrentVersion(CACHE_NAME, "Patient", "4"));
+    }
+
+    @Test
+    public void testEviction() {
+        // each entry is estimated at 20KB, so only a few of them fit
+        ResourceCache.setMaxSize(100 * 1024);
+        long evictions = ResourceCache.getEvictionCount();
+        for (int i = 0; i < 10; i++) {
+            ResourceCache.putVersion(CACHE_NAME, patient("e" + i, 1), 1024, true);
+        }
+        assertTrue(ResourceCache.getEstimatedSize() <= 100 * 1024);
+        assertTrue(ResourceCache.getEvictionCount() > evictions);
+        assertEquals(ResourceCache.getCurrentVersion(CACHE_NAME, "Patient", "e9").getId().getValue(), "e9");
+        assertNull(ResourceCache.getVersion(CACHE_NAME, "Patient", "e0", 1));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        // each entry is estimated at 20KB, so the threads keep evicting each other's entries
+        ResourceCache.setMaxSize(200 * 1024);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final String id = "c" + t;
+                futures.add(executor.submit(() -> {
+                    for (int version = 1; version <= 500; version++) {
+                        ResourceCache.putVersion(CACHE_NAME, patient(id, version), 1024, true);
+                        // only this thread writes the resource, so an older version must never be current
+                        Patient current = (Patient) ResourceCache.getCurrentVersion(CACHE_NAME, "Patient", id);
+                        if (current != null) {
+                            assertEquals(current.getMeta().getVersionId().getValue(), Integer.toString(version));
+                        }
+                        ResourceCache.getVersion(CACHE_NAME, "Patient", id, version - 1);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // the size estimate stays consistent with the entries which are left
+        ResourceCache.setMaxSize(0);
+        assertEquals(ResourceCache.getEstimatedSize(), 0);
+    }
+
+    @Test
+    public void testDisabled() {
+        ResourceCache.setEnabled(false);
+        ResourceCache.putVersion(CACHE_NAME, patient("5", 1), 100, true);
+        ResourceCache.setEnabled(true);
+        assertNull(ResourceCache.getCurrentVersion(CACHE_NAME, "Patient", "5"));
+        assertEquals(ResourceCache.getEstimatedSize(), 0);
+    }
+
+    private static Patient patient(String id, int version) {
+        return Patient.builder()
+                .id(Id.of(id))
+                .meta(Meta.builder().versionId(Id.of(Integer.toString(version))).build())
+                .build();
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.transaction.Status;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.model.resource.Encounter;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.SearchCache;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.SearchCacheUpdater;
+import com.ibm.watson.health.fhir.search.context.FHIRSearchContext;
+import com.ibm.watson.health.fhir.search.util.SearchUtil;
+
+public class SearchCacheTest {
+    private static final String CACHE_NAME = "default~default";
+
+    @BeforeMethod
+    public void enable() {
+        SearchCache.setEnabled(true);
+        SearchCache.setMaxEntries(SearchCache.DEFAULT_MAX_ENTRIES);
+        SearchCache.setTtlMillis(SearchCache.DEFAULT_TTL_SECONDS * 1000L);
+    }
+
+    @AfterMethod
+    public void disable() {
+        SearchCache.setEnabled(false);
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        String key = key(Encounter.class, "status", "in-progress,finished", "location", "Location/1");
+        // neither the order of the parameters nor of their values matter
+        assertEquals(key(Encounter.class, "location", "Location/1", "status", "finished,in-progress"), key);
+        assertNotEquals(key(Encounter.class, "status", "in-progress", "location", "Location/1"), key);
+        assertNotEquals(key(Encounter.class, "status", "in-progress,finished", "location", "Location/1", "_page", "2"), key);
+        assertNotEquals(SearchCache.buildKey("tenant1~default", Encounter.class, context(Encounter.class, "location", "Location/1")),
+            SearchCache.buildKey(CACHE_NAME, Encounter.class, context(Encounter.class, "location", "Location/1")));
+
+        // searches which depend on other resource types aren't cached
+        assertNull(key(Encounter.class, "location.name", "ward"));
+        assertNull(key(Encounter.class, "_include", "Encounter:patient"));
+        assertNull(key(Resource.class, "_id", "1"));
+        assertNull(key(Encounter.class, "_text", "ward"));
+    }
+
+    @Test
+    public void testCommittedWrite() throws Exception {
+        String key = key(Encounter.class, "status", "in-progress");
+        long epoch = SearchCache.getEpoch(CACHE_NAME, "Encounter");
+        SearchCache.put(key, CACHE_NAME, "Encounter", epoch, 2, Arrays.asList(11L, 12L));
+        SearchCache.CachedResult result = SearchCache.get(key);
+        assertNotNull(result);
+        assertEquals(result.getTotalCount(), 2);
+        assertEquals(result.getResourceIds(), Arrays.asList(11L, 12L));
+
+        // a rolled back write doesn't invalidate the entry
+        SearchCacheUpdater updater = new SearchCacheUpdater(CACHE_NAME);
+        updater.addWrittenResourceType("Encounter");
+        assertTrue(updater.isWritten("Encounter"));
+        updater.afterCompletion(Status.STATUS_ROLLEDBACK);
+        assertNotNull(SearchCache.get(key));
+
+        // writes of other types or tenants don't either
+        updater = new SearchCacheUpdater("tenant1~default");
+        updater.addWrittenResourceType("Encounter");
+        updater.afterCompletion(Status.STATUS_COMMITTED);
+        updater = new SearchCacheUpdater(CACHE_NAME);
+        updater.addWrittenResourceType("Patient");
+        updater.afterCompletion(Status.STATUS_COMMITTED);
+        assertNotNull(SearchCache.get(key));
+
+        updater = new SearchCacheUpdater(CACHE_NAME);
+        updater.addWrittenResourceType("Encounter");
+        updater.afterCompletion(Status.STATUS_COMMITTED);
+        assertNull(SearchCache.get(key));
+
+        // results read before a write committed aren't cached
+        SearchCache.put(key, CACHE_NAME, "Encounter", epoch, 2, Arrays.asList(11L, 12L));
+        assertNull(SearchCache.get(key));
+    }
+
+    @Test
+    public void testBounds() throws Exception {
+        String key1 = key(Encounter.class, "status", "planned");
+        String key2 = key(Encounter.class, "status", "arrived");
+        long epoch = SearchCache.getEpoch(CACHE_NAME, "Encounter");
+
+        SearchCache.setMaxEntries(1);
+        SearchCache.put(key1, CACHE_NAME, "Encounter", epoch, 0, Collections.emptyList());
+        SearchCache.put(key2, CACHE_NAME, "Encounter", epoch, 0, Collections.emptyList());
+        assertNull(SearchCache.get(key1));
+        assertNotNull(SearchCache.get(key2));
+
+        SearchCache.setTtlMillis(0);
+        Thread.sleep(5);
+        assertNull(SearchCache.get(key2));
+    }
+
+    private String key(Class<? extends Resource> resourceType, String... nameValues) throws Exception {
+        return SearchCache.buildKey(CACHE_NAME, resourceType, context(resourceType, nameValues));
+    }
+
+    private FHIRSearchContext context(Class<? extends Resource> resourceType, String... nameValues) throws Exception {
+        Map<String, List<String>> queryParameters = new HashMap<>();
+        StringBuilder queryString = new StringBuilder();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            queryParameters.put(nameValues[i], Collections.singletonList(nameValues[i + 1]));
+            queryString.append('&').append(nameValues[i]).append('=').append(nameValues[i + 1]);
+        }
+        return SearchUtil.parseQueryParameters(resourceType, queryParameters, queryString.toString());
+    }
+}
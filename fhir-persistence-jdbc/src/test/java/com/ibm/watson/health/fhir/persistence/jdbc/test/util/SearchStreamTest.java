@@ -0,0 +1,117 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.model.resource.Patient;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ParameterDAONormalizedImpl;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ResourceDAONormalizedImpl;
+import com.ibm.watson.health.fhir.persistence.jdbc.derby.DerbyResourceDAO;
+import com.ibm.watson.health.fhir.persistence.jdbc.dto.Parameter;
+import com.ibm.watson.health.fhir.persistence.jdbc.dto.Resource;
+import com.ibm.watson.health.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.JDBCNormalizedQueryBuilder;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.SqlQueryData;
+import com.ibm.watson.health.fhir.search.context.FHIRSearchContext;
+import com.ibm.watson.health.fhir.search.util.SearchUtil;
+
+/**
+ * Tests that a search can be read as a stream which fetches its rows as it is consumed, and which releases its
+ * statement when closed. Uses its own in-memory Derby database.
+ */
+public class SearchStreamTest {
+    private static final String URL = "jdbc:derby:memory:searchStreamDB";
+    private static final int RESOURCE_COUNT = 25;
+
+    private Connection connection;
+
+    @BeforeClass
+    public void bootstrap() throws Exception {
+        connection = DerbyTestUtil.createDatabase(URL);
+
+        DerbyResourceDAO dao = new DerbyResourceDAO(connection);
+        dao.getOrCreateResourceType("Patient");
+        final String x = "test";
+        for (int i = 0; i < RESOURCE_COUNT; i++) {
+            dao.storeResource("Patient", Collections.<Parameter>emptyList(), "patient" + i, new byte[] { (byte) i },
+                new Timestamp(System.currentTimeMillis()), false, x, x, x, x, x, x, x, x, x, x, x, null, 1, false);
+        }
+    }
+
+    @AfterClass
+    public void shutdown() throws SQLException {
+        DerbyTestUtil.dropDatabase(connection, URL);
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        ResourceDAONormalizedImpl resourceDao = new ResourceDAONormalizedImpl(connection);
+        SqlQueryData query = query(RESOURCE_COUNT);
+
+        // a fetch size smaller than the result takes several round trips
+        Set<String> logicalIds = new HashSet<>();
+        try (Stream<Resource> resources = resourceDao.searchStream(query, 4)) {
+            for (Resource resource : resources.collect(Collectors.toList())) {
+                logicalIds.add(resource.getLogicalId());
+                assertEquals(resource.getData().length, 1);
+            }
+        }
+        assertEquals(logicalIds.size(), RESOURCE_COUNT);
+
+        // the stream yields the same resources as the list
+        List<String> listed = resourceDao.search(query).stream().map(Resource::getLogicalId).collect(Collectors.toList());
+        try (Stream<Resource> resources = resourceDao.searchStream(query, 4)) {
+            assertEquals(resources.map(Resource::getLogicalId).collect(Collectors.toList()), listed);
+        }
+    }
+
+    @Test
+    public void testCloseEarly() throws Exception {
+        ResourceDAONormalizedImpl resourceDao = new ResourceDAONormalizedImpl(connection);
+
+        // leave most of the result unread; closing the stream must release the statement but not the connection
+        for (int i = 0; i < 3; i++) {
+            try (Stream<Resource> resources = resourceDao.searchStream(query(RESOURCE_COUNT), 2)) {
+                assertEquals(resources.limit(3).count(), 3);
+            }
+        }
+        assertEquals(resourceDao.search(query(10)).size(), 10);
+    }
+
+    @Test(expectedExceptions = FHIRPersistenceDataAccessException.class)
+    public void testFailure() throws Exception {
+        ResourceDAONormalizedImpl resourceDao = new ResourceDAONormalizedImpl(connection);
+        SqlQueryData query = new SqlQueryData("SELECT NOT_A_COLUMN FROM Patient_RESOURCES", Collections.emptyList());
+        resourceDao.searchStream(query, 10);
+    }
+
+    /**
+     * Build the query for a page of all the patients
+     */
+    private SqlQueryData query(int pageSize) throws Exception {
+        FHIRSearchContext context = SearchUtil.parseQueryParameters(Patient.class, Collections.emptyMap(), "");
+        context.setPageSize(pageSize);
+        JDBCNormalizedQueryBuilder queryBuilder = new JDBCNormalizedQueryBuilder(new ParameterDAONormalizedImpl(connection),
+            new ResourceDAONormalizedImpl(connection));
+        return queryBuilder.buildQuery(Patient.class, context);
+    }
+}
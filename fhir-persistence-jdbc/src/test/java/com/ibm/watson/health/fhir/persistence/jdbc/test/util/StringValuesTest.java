@@ -0,0 +1,143 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.model.resource.Patient;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ParameterDAONormalizedImpl;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ResourceDAONormalizedImpl;
+import com.ibm.watson.health.fhir.persistence.jdbc.derby.DerbyResourceDAO;
+import com.ibm.watson.health.fhir.persistence.jdbc.dto.Parameter;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.JDBCNormalizedQueryBuilder;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.NGramUtil;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.SqlQueryData;
+import com.ibm.watson.health.fhir.search.SearchConstants.Type;
+import com.ibm.watson.health.fhir.search.context.FHIRSearchContext;
+import com.ibm.watson.health.fhir.search.util.SearchUtil;
+
+/**
+ * Tests for the normalized string values and the STR_NGRAMS table used for :contains
+ * searches. Uses its own in-memory Derby database.
+ */
+public class StringValuesTest {
+    private static final String URL = "jdbc:derby:memory:strValuesDB";
+
+    private Connection connection;
+
+    @BeforeClass
+    public void bootstrap() throws SQLException {
+        connection = DerbyTestUtil.createDatabase(URL);
+    }
+
+    @AfterClass
+    public void shutdown() throws SQLException {
+        DerbyTestUtil.dropDatabase(connection, URL);
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals(SearchUtil.normalizeForSearch("  José\t  GARCÍA "), "jose garcia");
+        assertEquals(new ArrayList<>(NGramUtil.ngrams("abcabc")), Arrays.asList("abc", "bca", "cab"));
+        assertTrue(NGramUtil.ngrams("ab").isEmpty());
+    }
+
+    @Test
+    public void testContains() throws Exception {
+        DerbyResourceDAO dao = new DerbyResourceDAO(connection);
+        dao.getOrCreateResourceType("Patient");
+
+        store(dao, "p1", 1, "José  García");
+        store(dao, "p2", 1, "Marco Polo");
+        assertEquals(count("SELECT COUNT(*) FROM patient_str_values WHERE str_value_lcase = 'jose garcia'"), 1);
+
+        // "garcia" and "marco" both contain "arc", only "garcia" contains "arci"
+        assertEquals(contains("arc"), 2);
+        assertEquals(contains("ARCÍ"), 1);
+        assertEquals(contains("garcia polo"), 0);
+
+        // A new version replaces the n-grams of the previous version
+        long before = count("SELECT COUNT(*) FROM str_ngrams");
+        store(dao, "p1", 2, "Ann");
+        assertEquals(count("SELECT COUNT(*) FROM str_ngrams"), before - NGramUtil.ngrams("jose garcia").size() + 1);
+        assertEquals(contains("arci"), 0);
+    }
+
+    @Test
+    public void testContainsQuote() throws Exception {
+        DerbyResourceDAO dao = new DerbyResourceDAO(connection);
+        dao.getOrCreateResourceType("Patient");
+
+        // The quote is part of the stored value, so it has to stay in the search value and its n-grams
+        store(dao, "q1", 1, "Miles O'Brien");
+        assertEquals(contains("o'bri"), 1);
+        assertEquals(contains("obri"), 0);
+    }
+
+    private void store(DerbyResourceDAO dao, String logicalId, int version, String name) throws Exception {
+        List<Parameter> parameters = new ArrayList<>();
+        Parameter p = new Parameter();
+        p.setType(Type.STRING);
+        p.setName("name");
+        p.setValueString(name);
+        parameters.add(p);
+        final String x = "test";
+        dao.storeResource("Patient", parameters, logicalId, new byte[0], new Timestamp(System.currentTimeMillis()), false,
+            x, x, x, x, x, x, x, x, x, x, x, null, version, false);
+    }
+
+    /**
+     * Count the matches of the query built for Patient?name:contains=[value]
+     */
+    private long contains(String value) throws Exception {
+        Map<String, List<String>> queryParameters = new HashMap<>();
+        queryParameters.put("name:contains", Collections.singletonList(value));
+        FHIRSearchContext context = SearchUtil.parseQueryParameters(Patient.class, queryParameters, "&name:contains=" + value);
+
+        JDBCNormalizedQueryBuilder queryBuilder = new JDBCNormalizedQueryBuilder(new ParameterDAONormalizedImpl(connection),
+            new ResourceDAONormalizedImpl(connection));
+        SqlQueryData query = queryBuilder.buildQuery(Patient.class, context);
+
+        long result = 0;
+        try (PreparedStatement ps = connection.prepareStatement(query.getQueryString())) {
+            List<Object> bindVariables = query.getBindVariables();
+            for (int i = 0; i < bindVariables.size(); i++) {
+                ps.setObject(i + 1, bindVariables.get(i));
+            }
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private long count(String sql) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
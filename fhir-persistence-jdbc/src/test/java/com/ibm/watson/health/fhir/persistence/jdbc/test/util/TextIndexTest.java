@@ -0,0 +1,300 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.jdbc.test.util;
+
+import static com.ibm.watson.health.fhir.model.type.String.string;
+import static com.ibm.watson.health.fhir.model.type.Xhtml.xhtml;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import javax.transaction.Status;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.config.FHIRRequestContext;
+import com.ibm.watson.health.fhir.model.format.Format;
+import com.ibm.watson.health.fhir.model.generator.FHIRGenerator;
+import com.ibm.watson.health.fhir.model.resource.Observation;
+import com.ibm.watson.health.fhir.model.type.Code;
+import com.ibm.watson.health.fhir.model.type.CodeableConcept;
+import com.ibm.watson.health.fhir.model.type.Coding;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.model.type.Meta;
+import com.ibm.watson.health.fhir.model.type.Narrative;
+import com.ibm.watson.health.fhir.model.type.NarrativeStatus;
+import com.ibm.watson.health.fhir.model.type.ObservationStatus;
+import com.ibm.watson.health.fhir.model.type.Uri;
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceNotSupportedException;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ParameterDAONormalizedImpl;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.ResourceDAONormalizedImpl;
+import com.ibm.watson.health.fhir.persistence.jdbc.dao.impl.TextIndexDAO;
+import com.ibm.watson.health.fhir.persistence.jdbc.derby.DerbyParameterNamesDAO;
+import com.ibm.watson.health.fhir.persistence.jdbc.derby.DerbyResourceDAO;
+import com.ibm.watson.health.fhir.persistence.jdbc.derby.FhirRefSequenceDAOImpl;
+import com.ibm.watson.health.fhir.persistence.jdbc.derby.ParameterNameCacheAdapter;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.JDBCNormalizedQueryBuilder;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.TextIndexUpdater;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.TextIndexUtil;
+import com.ibm.watson.health.fhir.persistence.jdbc.util.TextIndexer;
+import com.ibm.watson.health.fhir.search.context.FHIRSearchContext;
+import com.ibm.watson.health.fhir.search.util.SearchUtil;
+
+/**
+ * Tests for the full-text index (the TEXT_TERMS table) and the indexer which maintains it.
+ * Uses its own in-memory Derby database.
+ */
+public class TextIndexTest {
+    private static final String URL = "jdbc:derby:memory:textIndexDB";
+
+    private Connection connection;
+
+    @BeforeClass
+    public void bootstrap() throws SQLException {
+        connection = DerbyTestUtil.createDatabase(URL);
+    }
+
+    @AfterClass
+    public void shutdown() throws SQLException {
+        DerbyTestUtil.dropDatabase(connection, URL);
+    }
+
+    @Test
+    public void testTerms() throws Exception {
+        assertEquals(new ArrayList<>(TextIndexUtil.terms("Héllo, WORLD! hello-world")), Arrays.asList("hello", "world"));
+        assertTrue(TextIndexUtil.terms(" ,; ").isEmpty());
+
+        Map<String, Set<String>> terms = TextIndexUtil.extractTerms(observation("o1", "Blood <b>pressure</b> &amp; pulse", "Systolic reading"));
+        assertEquals(new ArrayList<>(terms.get("_text")), Arrays.asList("blood", "pressure", "pulse"));
+        assertTrue(terms.get("_content").containsAll(Arrays.asList("pressure", "systolic", "panel")));
+        // codes aren't words
+        assertTrue(!terms.get("_content").contains("85354"));
+        assertTrue(terms.get("code").containsAll(Arrays.asList("systolic", "reading", "blood", "pressure", "panel")));
+        assertTrue(!terms.get("code").contains("pulse"));
+    }
+
+    @Test
+    public void testIndexer() throws Exception {
+        DerbyResourceDAO dao = new DerbyResourceDAO(connection);
+        dao.getOrCreateResourceType("Observation");
+
+        Observation o1 = observation("o1", "Blood pressure", "Systolic reading");
+        Observation o2 = observation("o2", "Heart rate", "Pulse");
+        store(dao, o1, 1);
+        store(dao, o2, 1);
+
+        TextIndexer indexer = new TextIndexer(10) {
+            @Override
+            protected Connection getConnection() {
+                return connection;
+            }
+
+            @Override
+            protected void releaseConnection(Connection c) {
+                // the test owns the connection
+            }
+        };
+        try {
+            indexer.offer(o1, false);
+            indexer.offer(o2, false);
+            assertTrue(indexer.awaitIdle(10000));
+            assertEquals(indexer.getIndexedCount(), 2);
+            assertEquals(indexer.getFailedCount(), 0);
+
+            assertEquals(search("_text", "BLOOD pressure"), 1);
+            assertEquals(search("_text", "blood rate"), 0);
+            assertEquals(search("_content", "systolic"), 1);
+            assertEquals(search("code", "panel"), 2);
+            assertEquals(search("code", "pulse"), 1);
+
+            // A new version replaces the terms of the previous version
+            Observation o1v2 = observation("o1", "Temperature", "Oral reading");
+            store(dao, o1v2, 2);
+            indexer.offer(o1v2, false);
+            assertTrue(indexer.awaitIdle(10000));
+            assertEquals(search("_text", "blood"), 0);
+            assertEquals(search("_text", "temperature"), 1);
+
+            indexer.offer(o2, true);
+            assertTrue(indexer.awaitIdle(10000));
+            assertEquals(search("code", "pulse"), 0);
+        } finally {
+            indexer.stop();
+        }
+
+        // The index can be rebuilt from the resource table
+        TextIndexDAO textIndexDAO = new TextIndexDAO(connection, null, false,
+            new ParameterNameCacheAdapter(new DerbyParameterNamesDAO(connection, new FhirRefSequenceDAOImpl(connection))));
+        assertEquals(textIndexDAO.rebuild("Observation"), 2);
+        assertEquals(search("code", "pulse"), 1);
+        assertEquals(search("_text", "temperature"), 1);
+    }
+
+    @Test(dependsOnMethods = "testIndexer")
+    public void testIndexerQueuesOnCommitAndRetries() throws Exception {
+        DerbyResourceDAO dao = new DerbyResourceDAO(connection);
+        TextIndexer indexer = new TextIndexer(10) {
+            @Override
+            protected Connection getConnection() {
+                return connection;
+            }
+
+            @Override
+            protected void releaseConnection(Connection c) {
+                // the test owns the connection
+            }
+        };
+        try {
+            // Nothing is queued before the writing transaction commits, or if it rolls back
+            Observation o3 = observation("o3", "Glucose", "Fasting glucose");
+            TextIndexUpdater updater = new TextIndexUpdater(indexer, FHIRRequestContext.get());
+            updater.addWrittenResource(o3, false);
+            updater.afterCompletion(Status.STATUS_ROLLEDBACK);
+            assertEquals(indexer.getQueuedCount(), 0);
+
+            // A resource which isn't visible yet is retried until it is
+            updater = new TextIndexUpdater(indexer, FHIRRequestContext.get());
+            updater.addWrittenResource(o3, false);
+            updater.afterCompletion(Status.STATUS_COMMITTED);
+            assertEquals(indexer.getQueuedCount(), 1);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (indexer.getRetriedCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(indexer.getIndexedCount(), 0);
+            store(dao, o3, 1);
+            assertTrue(indexer.awaitIdle(10000));
+            assertEquals(indexer.getIndexedCount(), 1);
+            assertEquals(indexer.getFailedCount(), 0);
+            assertEquals(search("_text", "glucose"), 1);
+        } finally {
+            indexer.stop();
+        }
+    }
+
+    @Test(dependsOnMethods = "testIndexerQueuesOnCommitAndRetries")
+    public void testIndexerKeepsLatestVersion() throws Exception {
+        DerbyResourceDAO dao = new DerbyResourceDAO(connection);
+        Observation o4v1 = version(observation("o4", "Weight", "Body weight"), 1);
+        Observation o4v2 = version(observation("o4", "Height", "Body height"), 2);
+        store(dao, o4v1, 1);
+        store(dao, o4v2, 2);
+
+        // The worker only runs when the test runs it, so both versions are offered before it does
+        List<Runnable> workers = new ArrayList<>();
+        TextIndexer indexer = new TextIndexer(10, workers::add) {
+            @Override
+            protected Connection getConnection() {
+                return connection;
+            }
+
+            @Override
+            protected void releaseConnection(Connection c) {
+                // the test owns the connection
+            }
+        };
+        try {
+            // An older version which arrives last doesn't replace the waiting newer version
+            indexer.offer(o4v2, false);
+            indexer.offer(o4v1, false);
+            assertEquals(indexer.getCoalescedCount(), 1);
+            assertEquals(workers.size(), 1);
+            workers.get(0).run();
+            assertEquals(search("_text", "height"), 1);
+            assertEquals(search("_text", "weight"), 0);
+        } finally {
+            indexer.stop();
+        }
+
+        // A version which has been replaced isn't indexed
+        TextIndexDAO textIndexDAO = new TextIndexDAO(connection, null, false,
+            new ParameterNameCacheAdapter(new DerbyParameterNamesDAO(connection, new FhirRefSequenceDAOImpl(connection))));
+        assertTrue(textIndexDAO.index(o4v1));
+        assertEquals(search("_text", "height"), 1);
+        assertEquals(search("_text", "weight"), 0);
+    }
+
+    @Test(expectedExceptions = FHIRPersistenceNotSupportedException.class)
+    public void testSearchWithoutIndexer() throws Exception {
+        // No test enables the indexer, so a full-text search is rejected rather than matching nothing
+        assertNull(TextIndexer.getInstance());
+        Map<String, List<String>> queryParameters = new HashMap<>();
+        queryParameters.put("_text", Collections.singletonList("blood"));
+        FHIRSearchContext context = SearchUtil.parseQueryParameters(Observation.class, queryParameters, "&_text=blood");
+        new JDBCNormalizedQueryBuilder(new ParameterDAONormalizedImpl(connection), new ResourceDAONormalizedImpl(connection))
+            .buildQuery(Observation.class, context);
+    }
+
+    private Observation version(Observation observation, int version) {
+        return observation.toBuilder().meta(Meta.builder().versionId(Id.of(Integer.toString(version))).build()).build();
+    }
+
+    private Observation observation(String logicalId, String narrative, String text) {
+        return Observation.builder()
+                .id(Id.of(logicalId))
+                .text(Narrative.builder()
+                    .status(NarrativeStatus.GENERATED)
+                    .div(xhtml("<div xmlns=\"http://www.w3.org/1999/xhtml\">" + narrative + "</div>"))
+                    .build())
+                .status(ObservationStatus.FINAL)
+                .code(CodeableConcept.builder()
+                    .coding(Coding.builder().system(Uri.of("http://loinc.org")).code(Code.of("85354-9")).display(string("Blood pressure panel")).build())
+                    .text(string(text))
+                    .build())
+                .build();
+    }
+
+    private void store(DerbyResourceDAO dao, Observation observation, int version) throws Exception {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (GZIPOutputStream zipStream = new GZIPOutputStream(data)) {
+            FHIRGenerator.generator(Format.JSON, false).generate(observation, zipStream);
+        }
+        final String x = "test";
+        dao.storeResource("Observation", Collections.emptyList(), observation.getId().getValue(), data.toByteArray(),
+            new Timestamp(System.currentTimeMillis()), false, x, x, x, x, x, x, x, x, x, x, x, null, version, false);
+    }
+
+    /**
+     * Count the matches for the full-text search parameterName=value, using the same predicate
+     * as the query builder
+     */
+    private long search(String parameterName, String value) throws SQLException {
+        Set<String> terms = TextIndexUtil.terms(value);
+        final String sql = "SELECT COUNT(*) FROM observation_logical_resources R "
+                + " WHERE R.logical_resource_id IN (SELECT T.logical_resource_id FROM text_terms T "
+                + "         WHERE T.parameter_name_id = (SELECT parameter_name_id FROM parameter_names WHERE parameter_name = ?) "
+                + "           AND T.term IN (" + String.join(",", Collections.nCopies(terms.size(), "?")) + ") "
+                + "      GROUP BY T.logical_resource_id HAVING COUNT(*) = " + terms.size() + ")";
+        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+            int a = 1;
+            ps.setString(a++, parameterName);
+            for (String term: terms) {
+                ps.setString(a++, term);
+            }
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -121,6 +121,13 @@ public class Main {
     private PoolConnectionProvider connectionPool;
     private ITransactionProvider transactionProvider;
 
+    // The thread pool used to run the task graphs. Defaults to the connection pool size
+    private int threadPoolSize;
+    private ExecutorService threadPool;
+
+    // Report the tasks which would be run, without changing anything
+    private boolean dryRun = false;
+
     // Random generator for new tenant keys and salts
     private static final SecureRandom random = new SecureRandom();
 
@@ -220,6 +227,17 @@ public class Main {
                     throw new IllegalArgumentException("Missing value for argument at posn: " + i);
                 }
                 break;
+            case "--thread-pool-size":
+                if (++i < args.length) {
+                    this.threadPoolSize = Integer.parseInt(args[i]);
+                }
+                else {
+                    throw new IllegalArgumentException("Missing value for argument at posn: " + i);
+                }
+                break;
+            case "--dry-run":
+                this.dryRun = true;
+                break;
             case "--prop":
                 if (++i < args.length) {
                     // properties are given as name=value
@@ -402,11 +420,16 @@ public class Main {
         // The objects are applied in parallel, which relies on each object
         // expressing its dependencies correctly. Changes are only applied
         // if their version is greater than the current version.
-        TaskService taskService = new TaskService();
-        ExecutorService pool = Executors.newFixedThreadPool(this.maxConnectionPoolSize);
-        ITaskCollector collector = taskService.makeTaskCollector(pool);
+        ITaskCollector collector = makeTaskCollector();
         Db2Adapter adapter = new Db2Adapter(this.connectionPool);
-        applyDataModel(pdm, adapter, collector);
+        if (this.dryRun) {
+            // The version history isn't needed until the tasks are run
+            pdm.collect(collector, adapter, this.transactionProvider, null);
+            runTasks(collector, "schema update");
+        }
+        else {
+            applyDataModel(pdm, adapter, collector);
+        }
     }
 
     /**
@@ -419,25 +442,12 @@ public class Main {
         gen.buildSchema(pdm);
 
         // Now only apply the procedures in the model. Much faster than
-        // going through the whole schema
-        try {
-            try (Connection c = createConnection()) {
-                try {
-                    JdbcTarget target = new JdbcTarget(c);
-                    Db2Adapter adapter = new Db2Adapter(target);
-                    pdm.applyProcedures(adapter);
-                }
-                catch (Exception x) {
-                    c.rollback();
-                    throw x;
-                }
-                c.commit();
-            }
-        }
-        catch (SQLException x) {
-            throw translator.translate(x);
-        }
-
+        // going through the whole schema, and procedures which don't depend
+        // on each other are applied in parallel
+        ITaskCollector collector = makeTaskCollector();
+        Db2Adapter adapter = new Db2Adapter(this.connectionPool);
+        pdm.collectProcedures(collector, adapter, this.transactionProvider);
+        runTasks(collector, "procedure update");
     }
 
     /**
@@ -452,7 +462,32 @@ public class Main {
         pdm.collect(collector, adapter, this.transactionProvider, vhs);
 
         // FHIR in the hole!
-        logger.info("Starting model updates");
+        runTasks(collector, "model update");
+    }
+
+    /**
+     * Get a new task collector which runs its tasks using our thread pool
+     * @return
+     */
+    protected ITaskCollector makeTaskCollector() {
+        TaskService taskService = new TaskService();
+        return taskService.makeTaskCollector(this.threadPool);
+    }
+
+    /**
+     * Run the collected tasks and wait for them to complete, or just report what
+     * would be run if this is a dry run
+     * @param collector
+     * @param description describes the tasks for log messages
+     * @return true if all the tasks were successful
+     */
+    protected boolean runTasks(ITaskCollector collector, String description) {
+        if (this.dryRun) {
+            reportPlan(collector, description);
+            return true;
+        }
+
+        logger.info("Starting " + description + " [tasks=" + collector.getTaskGroupCount() + "]");
         collector.startAndWait();
 
         Collection<ITaskGroup> failedTaskGroups = collector.getFailedTaskGroups();
@@ -461,7 +496,27 @@ public class Main {
 
             final String failedStr = failedTaskGroups.stream().map((tg) -> tg.getTaskId()).collect(Collectors.joining(","));
             logger.severe("List of failed task groups: " + failedStr);
+            return false;
         }
+        return true;
+    }
+
+    /**
+     * Log the size of the collected task graph and its critical path. Tasks on the
+     * critical path must be run one after the other, so it sets a lower bound on
+     * how long the run will take however many threads are available.
+     * @param collector
+     * @param description
+     */
+    protected void reportPlan(ITaskCollector collector, String description) {
+        final int total = collector.getTaskGroupCount();
+        final List<ITaskGroup> criticalPath = collector.getCriticalPath();
+
+        // Each step runs up to threadPoolSize tasks in parallel
+        final int steps = Math.max(criticalPath.size(), (total + this.threadPoolSize - 1) / this.threadPoolSize);
+        logger.info(String.format("[DRY RUN] %s: %d tasks, critical path of %d tasks, at least %d steps using %d threads",
+            description, total, criticalPath.size(), steps, this.threadPoolSize));
+        logger.info("[DRY RUN] Critical path: " + criticalPath.stream().map(tg -> tg.getTaskId()).collect(Collectors.joining(" -> ")));
     }
 
     /**
@@ -552,6 +607,13 @@ public class Main {
         JdbcConnectionProvider cp = new JdbcConnectionProvider(this.translator, adapter);
         this.connectionPool = new PoolConnectionProvider(cp, this.maxConnectionPoolSize);
         this.transactionProvider = new SimpleTransactionProvider(this.connectionPool);
+
+        // No point having more threads than connections, because they'd only be
+        // waiting for a connection to become free
+        if (this.threadPoolSize <= 0 || this.threadPoolSize > this.maxConnectionPoolSize) {
+            this.threadPoolSize = this.maxConnectionPoolSize;
+        }
+        this.threadPool = Executors.newFixedThreadPool(this.threadPoolSize);
     }
 
     /**
@@ -565,6 +627,11 @@ public class Main {
             checkCompatibility();
         }
 
+        if (this.dryRun && (addKeyForTenant != null || this.dropSchema || this.dropAdmin || this.testTenant || this.dropTenant)) {
+            // Only the schema, procedure, grant and tenant allocation task graphs can be planned
+            throw new IllegalArgumentException("[ERROR] --dry-run only supports --update-schema, --update-proc, --grant-to and --allocate-tenant");
+        }
+
         if (addKeyForTenant != null) {
             addTenantKey();
         }
@@ -606,8 +673,10 @@ public class Main {
             grantPrivileges(FhirSchemaConstants.FHIR_USER_GRANT_GROUP);
         }
 
+        this.threadPool.shutdown();
         long elapsed = System.nanoTime() - start;
         logger.info(String.format("Processing took: %7.3f s", elapsed / NANOS));
+        logger.info("Connection pool usage: " + this.connectionPool.getStatistics());
     }
 
     /**
@@ -621,18 +690,11 @@ public class Main {
         PhysicalDataModel pdm = new PhysicalDataModel();
         gen.buildSchema(pdm);
 
+        // Each object is granted in its own transaction, in parallel
         final Db2Adapter adapter = new Db2Adapter(this.connectionPool);
-        try (ITransaction tx = TransactionFactory.openTransaction(connectionPool)) {
-            try {
-                pdm.applyGrants(adapter, groupName, grantTo);
-            }
-            catch (DataAccessException x) {
-                // Something went wrong, so mark the transaction as failed
-                tx.setRollbackOnly();
-                throw x;
-            }
-        }
-
+        ITaskCollector collector = makeTaskCollector();
+        pdm.collectGrants(collector, adapter, this.transactionProvider, groupName, grantTo);
+        runTasks(collector, "grant privileges");
     }
     
     /**
@@ -690,6 +752,17 @@ public class Main {
         // key, giving 256 bits of entropy.
         final String tenantSalt = getRandomKey();
 
+        if (this.dryRun) {
+            // The partitions can't be planned until the tenant id is allocated, but
+            // there's one task per tenant-partitioned table, all depending on the tablespace
+            FhirSchemaGenerator gen = new FhirSchemaGenerator(adminSchemaName, schemaName);
+            PhysicalDataModel pdm = new PhysicalDataModel();
+            gen.buildSchema(pdm);
+            logger.info("[DRY RUN] Allocate tenant " + tenantName + ": " + pdm.getTenantPartitionedTables("MT_ID").size()
+                + " table partitions after the tenant tablespace is created");
+            return;
+        }
+
         // Open a new transaction and associate it with our connection pool. Remember
         // that we don't support distributed transactions, so all connections within
         // this transaction must come from the same pool
@@ -716,12 +789,16 @@ public class Main {
         PhysicalDataModel pdm = new PhysicalDataModel();
         gen.buildSchema(pdm);
 
-        // Get the data model to create the table partitions. This is threaded, so transactions are
-        // handled within each thread by the adapter. This means we should probably pull some of
-        // that logic out of the adapter and handle it at a higher level. Note...the extent size used
+        // Get the data model to create the table partitions. Each partition is added in its
+        // own transaction, in parallel, once the tenant tablespace exists. Note...the extent size used
         // for the partitions needs to match the extent size of the original table tablespace (FHIR_TS)
         // so this must be constant.
-        pdm.addTenantPartitions(adapter, schemaName, tenantId, FhirSchemaConstants.FHIR_TS_EXTENT_KB);
+        ITaskCollector collector = makeTaskCollector();
+        pdm.collectTenantPartitions(collector, adapter, schemaName, tenantId, FhirSchemaConstants.FHIR_TS_EXTENT_KB);
+        if (!runTasks(collector, "tenant partition allocation")) {
+            // Leave the tenant in its pending state so it isn't used with missing partitions
+            throw new IllegalStateException("Tenant partitions not allocated for tenant: " + tenantName);
+        }
 
         // Fill any static data tables (which are also partitioned by tenant)
         populateStaticTables(gen, tenantKey);
@@ -69,6 +69,7 @@ public class FhirResourceGroup {
      * - patient_logical_resources
      * - patient_resources
      * - patient_str_values
+     * - patient_ref_values
      * - patient_date_values
      * - patient_token_values
      * - patient_number_values
@@ -86,6 +87,7 @@ public class FhirResourceGroup {
         addLogicalResources(group, tablePrefix);
         addResources(group, tablePrefix);
         addStrValues(group, tablePrefix);
+        addRefValues(group, tablePrefix);
         addTokenValues(group, tablePrefix);
         addDateValues(group, tablePrefix);
         addNumberValues(group, tablePrefix);
@@ -250,6 +252,7 @@ ALTER TABLE device_str_values ADD CONSTRAINT fk_device_str_values_rid  FOREIGN K
                 .addVarcharColumn(         STR_VALUE, msb,  true)
                 .addVarcharColumn(   STR_VALUE_LCASE, msb,  true)
                 .addBigIntColumn(LOGICAL_RESOURCE_ID,      false)
+                .addIntColumn(          COMPOSITE_ID,      true)
                 .addIndex(IDX + tableName + "_PSR", PARAMETER_NAME_ID, STR_VALUE, LOGICAL_RESOURCE_ID)
                 .addIndex(IDX + tableName + "_PLR", PARAMETER_NAME_ID, STR_VALUE_LCASE, LOGICAL_RESOURCE_ID)
                 .addIndex(IDX + tableName + "_RPS", LOGICAL_RESOURCE_ID, PARAMETER_NAME_ID, STR_VALUE)
@@ -266,6 +269,58 @@ ALTER TABLE device_str_values ADD CONSTRAINT fk_device_str_values_rid  FOREIGN K
         model.addTable(tbl);
     }
 
+    /**
+     * Reference search parameters with the target normalized to its resource type
+     * and logical resource id, so that _include, _revinclude, chained and compartment
+     * searches can join on integers instead of the "Type/id" string held in STR_VALUES.
+     * LOGICAL_RESOURCE_ID is unique across all resource types, so it is enough to
+     * join the target's LOGICAL_RESOURCES table on REF_LOGICAL_RESOURCE_ID.
+     * References to resources which don't yet exist are held in PENDING_REFERENCES
+     * until the target is created.
+
+CREATE TABLE device_ref_values  (
+  parameter_name_id          INT NOT NULL,
+  ref_resource_type_id       INT NOT NULL,
+  ref_logical_resource_id BIGINT NOT NULL,
+  logical_resource_id     BIGINT NOT NULL
+)
+;
+
+CREATE INDEX idx_device_ref_values_ptr ON device_ref_values(parameter_name_id, ref_resource_type_id, ref_logical_resource_id, logical_resource_id);
+CREATE INDEX idx_device_ref_values_rpt ON device_ref_values(logical_resource_id, parameter_name_id, ref_resource_type_id, ref_logical_resource_id);
+ALTER TABLE device_ref_values ADD CONSTRAINT fk_device_ref_values_pn   FOREIGN KEY (parameter_name_id)    REFERENCES parameter_names;
+ALTER TABLE device_ref_values ADD CONSTRAINT fk_device_ref_values_rtid FOREIGN KEY (ref_resource_type_id) REFERENCES resource_types;
+ALTER TABLE device_ref_values ADD CONSTRAINT fk_device_ref_values_r    FOREIGN KEY (logical_resource_id)  REFERENCES device_logical_resources;
+
+     * @param group
+     * @param prefix
+     */
+    public void addRefValues(List<IDatabaseObject> group, String prefix) {
+        final String tableName = prefix + "_" + REF_VALUES;
+        final String logicalResourcesTable = prefix + _LOGICAL_RESOURCES;
+
+        Table tbl = Table.builder(schemaName, tableName)
+                .addTag(FhirSchemaTags.RESOURCE_TYPE, prefix)
+                .setTenantColumnName(MT_ID)
+                .addIntColumn(        PARAMETER_NAME_ID,      false)
+                .addIntColumn(     REF_RESOURCE_TYPE_ID,      false)
+                .addBigIntColumn(REF_LOGICAL_RESOURCE_ID,     false)
+                .addBigIntColumn(   LOGICAL_RESOURCE_ID,      false)
+                .addIndex(IDX + tableName + "_PTR", PARAMETER_NAME_ID, REF_RESOURCE_TYPE_ID, REF_LOGICAL_RESOURCE_ID, LOGICAL_RESOURCE_ID)
+                .addIndex(IDX + tableName + "_RPT", LOGICAL_RESOURCE_ID, PARAMETER_NAME_ID, REF_RESOURCE_TYPE_ID, REF_LOGICAL_RESOURCE_ID)
+                .addForeignKeyConstraint(FK + tableName + "_PN", schemaName, PARAMETER_NAMES, PARAMETER_NAME_ID)
+                .addForeignKeyConstraint(FK + tableName + "_RTID", schemaName, RESOURCE_TYPES, REF_RESOURCE_TYPE_ID)
+                .addForeignKeyConstraint(FK + tableName + "_R", schemaName, logicalResourcesTable, LOGICAL_RESOURCE_ID)
+                .setTablespace(fhirTablespace)
+                .addPrivileges(resourceTablePrivileges)
+                .enableAccessControl(this.sessionVariable)
+                .build(model)
+                ;
+
+        group.add(tbl);
+        model.addTable(tbl);
+    }
+
     /**
      * 
   parameter_name_id        INT NOT NULL,
@@ -293,6 +348,7 @@ ALTER TABLE device_token_values ADD CONSTRAINT fk_device_token_values_r  FOREIGN
                 .addIntColumn(        CODE_SYSTEM_ID,      false)
                 .addVarcharColumn(       TOKEN_VALUE, 511,  true)
                 .addBigIntColumn(LOGICAL_RESOURCE_ID,      false)
+                .addIntColumn(          COMPOSITE_ID,      true)
                 .addIndex(IDX + tableName + "_PNCSCV", PARAMETER_NAME_ID, CODE_SYSTEM_ID, TOKEN_VALUE, LOGICAL_RESOURCE_ID)
                 .addIndex(IDX + tableName + "_RPS", LOGICAL_RESOURCE_ID, PARAMETER_NAME_ID, CODE_SYSTEM_ID, TOKEN_VALUE)
                 .addForeignKeyConstraint(FK + tableName + "_PN", schemaName, PARAMETER_NAMES, PARAMETER_NAME_ID)
@@ -340,6 +396,7 @@ ALTER TABLE device_date_values ADD CONSTRAINT fk_device_date_values_r  FOREIGN K
                 .addTimestampColumn(      DATE_START,      true)
                 .addTimestampColumn(        DATE_END,      true)
                 .addBigIntColumn(LOGICAL_RESOURCE_ID,      false)
+                .addIntColumn(          COMPOSITE_ID,      true)
                 .addIndex(IDX + tableName + "_PVR", PARAMETER_NAME_ID, DATE_VALUE, LOGICAL_RESOURCE_ID)
                 .addIndex(IDX + tableName + "_RPV", LOGICAL_RESOURCE_ID, PARAMETER_NAME_ID, DATE_VALUE)
                 .addIndex(IDX + tableName + "_PSER", PARAMETER_NAME_ID, DATE_START, DATE_END, LOGICAL_RESOURCE_ID)
@@ -383,6 +440,7 @@ ALTER TABLE device_number_values ADD CONSTRAINT fk_device_number_values_r  FOREI
                 .addIntColumn(     PARAMETER_NAME_ID,      false)
                 .addDoubleColumn(       NUMBER_VALUE,       true)
                 .addBigIntColumn(LOGICAL_RESOURCE_ID,      false)
+                .addIntColumn(          COMPOSITE_ID,      true)
                 .addIndex(IDX + tableName + "_PNNV", PARAMETER_NAME_ID, NUMBER_VALUE, LOGICAL_RESOURCE_ID)
                 .addIndex(IDX + tableName + "_RPS", LOGICAL_RESOURCE_ID, PARAMETER_NAME_ID, NUMBER_VALUE)
                 .addForeignKeyConstraint(FK + tableName + "_PN", schemaName, PARAMETER_NAMES, PARAMETER_NAME_ID)
@@ -403,10 +461,10 @@ ALTER TABLE device_number_values ADD CONSTRAINT fk_device_number_values_r  FOREI
   parameter_name_id   INT NOT NULL,
   latitude_value      DOUBLE,
   longitude_value     DOUBLE,
+  geo_cell            BIGINT,
   resource_id         BIGINT NOT NULL
 )
-CREATE INDEX idx_device_latlng_values_pnnlv ON device_latlng_values(parameter_name_id, latitude_value, resource_id);
-CREATE INDEX idx_device_latlng_values_pnnhv ON device_latlng_values(parameter_name_id, longitude_value, resource_id);
+CREATE INDEX idx_device_latlng_values_pngc ON device_latlng_values(parameter_name_id, geo_cell, resource_id);
 CREATE INDEX idx_device_latlng_values_rplat ON device_latlng_values(resource_id, parameter_name_id, latitude_value);
 CREATE INDEX idx_device_latlng_values_rplng ON device_latlng_values(resource_id, parameter_name_id, longitude_value);
 ALTER TABLE device_latlng_values ADD CONSTRAINT fk_device_latlng_values_pn FOREIGN KEY (parameter_name_id) REFERENCES parameter_names;
@@ -425,9 +483,9 @@ ALTER TABLE device_latlng_values ADD CONSTRAINT fk_device_latlng_values_r  FOREI
                 .addIntColumn(     PARAMETER_NAME_ID,      false)
                 .addDoubleColumn(     LATITUDE_VALUE,       true)
                 .addDoubleColumn(    LONGITUDE_VALUE,       true)
+                .addBigIntColumn(           GEO_CELL,       true)
                 .addBigIntColumn(LOGICAL_RESOURCE_ID,      false)
-                .addIndex(IDX + tableName + "_PNNLV", PARAMETER_NAME_ID, LATITUDE_VALUE, LOGICAL_RESOURCE_ID)
-                .addIndex(IDX + tableName + "_PNNHV", PARAMETER_NAME_ID, LONGITUDE_VALUE, LOGICAL_RESOURCE_ID)
+                .addIndex(IDX + tableName + "_PNGC", PARAMETER_NAME_ID, GEO_CELL, LOGICAL_RESOURCE_ID)
                 .addIndex(IDX + tableName + "_RPLAT", LOGICAL_RESOURCE_ID, PARAMETER_NAME_ID, LATITUDE_VALUE)
                 .addIndex(IDX + tableName + "_RPLNG", LOGICAL_RESOURCE_ID, PARAMETER_NAME_ID, LONGITUDE_VALUE)
                 .addForeignKeyConstraint(FK + tableName + "_PN", schemaName, PARAMETER_NAMES, PARAMETER_NAME_ID)
@@ -482,6 +540,7 @@ ALTER TABLE device_quantity_values ADD CONSTRAINT fk_device_quantity_values_r  F
                 .addDoubleColumn(QUANTITY_VALUE_HIGH,      true)
                 .addIntColumn(        CODE_SYSTEM_ID,      true)
                 .addBigIntColumn(LOGICAL_RESOURCE_ID,      false)
+                .addIntColumn(          COMPOSITE_ID,      true)
                 .addIndex(IDX + tableName + "_PNNV", PARAMETER_NAME_ID, CODE, QUANTITY_VALUE, LOGICAL_RESOURCE_ID, CODE_SYSTEM_ID)
                 .addIndex(IDX + tableName + "_RPS", LOGICAL_RESOURCE_ID, PARAMETER_NAME_ID, CODE, QUANTITY_VALUE, CODE_SYSTEM_ID)
                 .addIndex(IDX + tableName + "_PCLHSR", PARAMETER_NAME_ID, CODE, QUANTITY_VALUE_LOW, QUANTITY_VALUE_HIGH, CODE_SYSTEM_ID, LOGICAL_RESOURCE_ID)
@@ -20,6 +20,14 @@ public class FhirSchemaConstants {
     public static final int MAX_TOKEN_VALUE_BYTES = 1024;
     public static final int LOGICAL_ID_BYTES = 255;
 
+    // Length of the string fragments indexed for :contains searches
+    public static final int NGRAM_LENGTH = 3;
+    public static final int NGRAM_BYTES = NGRAM_LENGTH * 4;
+
+    // Longest word held in the full-text index; longer words are truncated
+    public static final int MAX_TERM_LENGTH = 32;
+    public static final int TERM_BYTES = MAX_TERM_LENGTH * 4;
+
     // The first version of every object
     public static final int INITIAL_VERSION = 1;
 
@@ -50,6 +58,21 @@ public class FhirSchemaConstants {
     // R4 Logical Resource Profile property is a REFERENCE (str_values)
     public static final String STR_VALUES = "STR_VALUES";
 
+    // Normalized reference search values, with integer targets
+    public static final String REF_VALUES = "REF_VALUES";
+
+    // References written before their target resource exists
+    public static final String PENDING_REFERENCES = "PENDING_REFERENCES";
+
+    // Compartment membership of every logical resource
+    public static final String COMPARTMENT_MEMBERS = "COMPARTMENT_MEMBERS";
+
+    // Fragments of the normalized string values, for :contains searches
+    public static final String STR_NGRAMS = "STR_NGRAMS";
+
+    // Words of the narrative and coded text, for _text, _content and :text searches
+    public static final String TEXT_TERMS = "TEXT_TERMS";
+
     // R4 Logical Resource Date values for things like lastUpdated
     public static final String DATE_VALUES = "DATE_VALUES";
 
@@ -80,6 +103,16 @@ public class FhirSchemaConstants {
     public static final String CODE_SYSTEM_ID = "CODE_SYSTEM_ID";
     public static final String CODE_SYSTEM_NAME = "CODE_SYSTEM_NAME";
     public static final String TOKEN_VALUE = "TOKEN_VALUE";
+    public static final String REF_RESOURCE_TYPE_ID = "REF_RESOURCE_TYPE_ID";
+    public static final String REF_LOGICAL_ID = "REF_LOGICAL_ID";
+    public static final String REF_LOGICAL_RESOURCE_ID = "REF_LOGICAL_RESOURCE_ID";
+    public static final String COMPARTMENT_TYPE_ID = "COMPARTMENT_TYPE_ID";
+    public static final String COMPARTMENT_LOGICAL_ID = "COMPARTMENT_LOGICAL_ID";
+    public static final String NGRAM = "NGRAM";
+    public static final String TERM = "TERM";
+
+    // Groups the rows of the components of one composite search parameter value
+    public static final String COMPOSITE_ID = "COMPOSITE_ID";
 
     public static final String TX_CORRELATION_ID = "TX_CORRELATION_ID";  
     public static final String CHANGED_BY = "CHANGED_BY"; 
@@ -102,6 +135,7 @@ public class FhirSchemaConstants {
     public static final String NUMBER_VALUE = "NUMBER_VALUE";
     public static final String LATITUDE_VALUE = "LATITUDE_VALUE";
     public static final String LONGITUDE_VALUE = "LONGITUDE_VALUE";
+    public static final String GEO_CELL = "GEO_CELL";
 
     public static final String QUANTITY_VALUE = "QUANTITY_VALUE";
     public static final String QUANTITY_VALUE_LOW = "QUANTITY_VALUE_LOW";
@@ -297,6 +297,10 @@ CREATE SEQUENCE fhir_sequence
         addCodeSystems(model);
         addResourceTypes(model);
         addLogicalResources(model); // for system-level parameter search
+        addPendingReferences(model); // for references to resources which don't yet exist
+        addCompartmentMembers(model); // for compartment searches
+        addStrNgrams(model); // for :contains string searches
+        addTextTerms(model); // for _text, _content and :text searches
         addResourceTokenValues(model); // for system-level _tag and _security parameters
         addResourceStrValues(model); // for system-level _profile parameters
         addResourceDateValues(model); // for system-level date parameters
@@ -362,6 +366,139 @@ CREATE SEQUENCE fhir_sequence
         pdm.addObject(tbl);
     }
 
+    /**
+     * Add the system-wide PENDING_REFERENCES table. The <RESOURCE_TYPE>_REF_VALUES tables
+     * hold the logical_resource_id of the reference target, which isn't known until the
+     * target is created. Until then, the reference is parked here, keyed by the type and
+     * logical id of the target, and moved into the REF_VALUES table of the referring
+     * resource type when the target is created.
+     * @param pdm
+     */
+    public void addPendingReferences(PhysicalDataModel pdm) {
+        final String tableName = PENDING_REFERENCES;
+
+        Table tbl = Table.builder(schemaName, tableName)
+                .setTenantColumnName(MT_ID)
+                .addIntColumn(     REF_RESOURCE_TYPE_ID,                   false)
+                .addVarcharColumn(       REF_LOGICAL_ID, LOGICAL_ID_BYTES, false)
+                .addIntColumn(        PARAMETER_NAME_ID,                   false)
+                .addIntColumn(         RESOURCE_TYPE_ID,                   false)
+                .addBigIntColumn(   LOGICAL_RESOURCE_ID,                   false)
+                .addIndex(IDX + tableName + "_TL", REF_RESOURCE_TYPE_ID, REF_LOGICAL_ID)
+                .addIndex(IDX + tableName + "_LR", LOGICAL_RESOURCE_ID)
+                .addForeignKeyConstraint(FK + tableName + "_RTID", schemaName, RESOURCE_TYPES, REF_RESOURCE_TYPE_ID)
+                .addForeignKeyConstraint(FK + tableName + "_PN", schemaName, PARAMETER_NAMES, PARAMETER_NAME_ID)
+                .addForeignKeyConstraint(FK + tableName + "_LR", schemaName, LOGICAL_RESOURCES, LOGICAL_RESOURCE_ID)
+                .setTablespace(fhirTablespace)
+                .addPrivileges(resourceTablePrivileges)
+                .enableAccessControl(this.sessionVariable)
+                .build(pdm)
+                ;
+
+        tbl.addTag(SCHEMA_GROUP_TAG, FHIRDATA_GROUP);
+        this.procedureDependencies.add(tbl);
+        pdm.addTable(tbl);
+        pdm.addObject(tbl);
+    }
+
+    /**
+     * Add the system-wide COMPARTMENT_MEMBERS table. Membership is computed when a resource
+     * is stored, from the compartment definitions, so a compartment search is a single
+     * index lookup on (compartment type, compartment id, member type) instead of an OR
+     * across every inclusion criterion. COMPARTMENT_LOGICAL_ID is the logical id of the
+     * compartment resource (e.g. the Patient), which doesn't need to exist.
+     * @param pdm
+     */
+    public void addCompartmentMembers(PhysicalDataModel pdm) {
+        final String tableName = COMPARTMENT_MEMBERS;
+
+        Table tbl = Table.builder(schemaName, tableName)
+                .setTenantColumnName(MT_ID)
+                .addIntColumn(       COMPARTMENT_TYPE_ID,                   false)
+                .addVarcharColumn(COMPARTMENT_LOGICAL_ID, LOGICAL_ID_BYTES, false)
+                .addIntColumn(          RESOURCE_TYPE_ID,                   false)
+                .addBigIntColumn(    LOGICAL_RESOURCE_ID,                   false)
+                .addIndex(IDX + tableName + "_CTR", COMPARTMENT_TYPE_ID, COMPARTMENT_LOGICAL_ID, RESOURCE_TYPE_ID, LOGICAL_RESOURCE_ID)
+                .addIndex(IDX + tableName + "_LR", LOGICAL_RESOURCE_ID)
+                .addForeignKeyConstraint(FK + tableName + "_CTID", schemaName, RESOURCE_TYPES, COMPARTMENT_TYPE_ID)
+                .addForeignKeyConstraint(FK + tableName + "_LR", schemaName, LOGICAL_RESOURCES, LOGICAL_RESOURCE_ID)
+                .setTablespace(fhirTablespace)
+                .addPrivileges(resourceTablePrivileges)
+                .enableAccessControl(this.sessionVariable)
+                .build(pdm)
+                ;
+
+        tbl.addTag(SCHEMA_GROUP_TAG, FHIRDATA_GROUP);
+        this.procedureDependencies.add(tbl);
+        pdm.addTable(tbl);
+        pdm.addObject(tbl);
+    }
+
+    /**
+     * Add the system-wide STR_NGRAMS table. Each distinct n-gram of the normalized
+     * (STR_VALUE_LCASE) value of a string parameter is stored once per logical resource.
+     * A :contains search can then find its candidates with an index lookup on the n-grams
+     * of the search value, and only has to check those candidates with LIKE '%value%'.
+     * The logical_resource_id is unique across all resource types, so one table serves
+     * both the resource-specific and the resource-level string values.
+     * @param pdm
+     */
+    public void addStrNgrams(PhysicalDataModel pdm) {
+        final String tableName = STR_NGRAMS;
+
+        Table tbl = Table.builder(schemaName, tableName)
+                .setTenantColumnName(MT_ID)
+                .addIntColumn(     PARAMETER_NAME_ID,              false)
+                .addVarcharColumn(             NGRAM, NGRAM_BYTES, false)
+                .addBigIntColumn(LOGICAL_RESOURCE_ID,              false)
+                .addIndex(IDX + tableName + "_PNL", PARAMETER_NAME_ID, NGRAM, LOGICAL_RESOURCE_ID)
+                .addIndex(IDX + tableName + "_LR", LOGICAL_RESOURCE_ID)
+                .addForeignKeyConstraint(FK + tableName + "_PN", schemaName, PARAMETER_NAMES, PARAMETER_NAME_ID)
+                .addForeignKeyConstraint(FK + tableName + "_LR", schemaName, LOGICAL_RESOURCES, LOGICAL_RESOURCE_ID)
+                .setTablespace(fhirTablespace)
+                .addPrivileges(resourceTablePrivileges)
+                .enableAccessControl(this.sessionVariable)
+                .build(pdm)
+                ;
+
+        tbl.addTag(SCHEMA_GROUP_TAG, FHIRDATA_GROUP);
+        this.procedureDependencies.add(tbl);
+        pdm.addTable(tbl);
+        pdm.addObject(tbl);
+    }
+
+    /**
+     * Add the system-wide TEXT_TERMS table, the full-text index. Each distinct word of
+     * the narrative and coded text of a resource is stored once per parameter (_text,
+     * _content or the token parameter searched with :text) and logical resource. Unlike
+     * the other search tables, it isn't written with the resource but shortly afterwards,
+     * by the text indexer.
+     * @param pdm
+     */
+    public void addTextTerms(PhysicalDataModel pdm) {
+        final String tableName = TEXT_TERMS;
+
+        Table tbl = Table.builder(schemaName, tableName)
+                .setTenantColumnName(MT_ID)
+                .addIntColumn(     PARAMETER_NAME_ID,             false)
+                .addVarcharColumn(              TERM, TERM_BYTES, false)
+                .addBigIntColumn(LOGICAL_RESOURCE_ID,             false)
+                .addIndex(IDX + tableName + "_PNT", PARAMETER_NAME_ID, TERM, LOGICAL_RESOURCE_ID)
+                .addIndex(IDX + tableName + "_LR", LOGICAL_RESOURCE_ID)
+                .addForeignKeyConstraint(FK + tableName + "_PN", schemaName, PARAMETER_NAMES, PARAMETER_NAME_ID)
+                .addForeignKeyConstraint(FK + tableName + "_LR", schemaName, LOGICAL_RESOURCES, LOGICAL_RESOURCE_ID)
+                .setTablespace(fhirTablespace)
+                .addPrivileges(resourceTablePrivileges)
+                .enableAccessControl(this.sessionVariable)
+                .build(pdm)
+                ;
+
+        tbl.addTag(SCHEMA_GROUP_TAG, FHIRDATA_GROUP);
+        this.procedureDependencies.add(tbl);
+        pdm.addTable(tbl);
+        pdm.addObject(tbl);
+    }
+
     /**
      * Add the system-wide TOKEN_VALUES table which is used for
      * _tag and _security search properties in R4
@@ -0,0 +1,50 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence;
+
+import java.util.Objects;
+
+import com.ibm.watson.health.fhir.model.resource.Resource;
+
+/**
+ * A range of the stored resources of one type, identified by the internal ids which the persistence layer assigns
+ * to its resources, as returned by {@link FHIRPersistence#getExportPartitions}. The partitions of a resource type
+ * don't overlap, so they can be exported in parallel.
+ */
+public class ExportPartition {
+    private final Class<? extends Resource> resourceType;
+    private final long firstId;
+    private final long lastId;
+
+    /**
+     * @param resourceType the type of the resources in the partition
+     * @param firstId the first internal id of the partition
+     * @param lastId the last internal id of the partition (inclusive)
+     */
+    public ExportPartition(Class<? extends Resource> resourceType, long firstId, long lastId) {
+        this.resourceType = Objects.requireNonNull(resourceType, "resourceType");
+        this.firstId = firstId;
+        this.lastId = lastId;
+    }
+
+    public Class<? extends Resource> getResourceType() {
+        return resourceType;
+    }
+
+    public long getFirstId() {
+        return firstId;
+    }
+
+    public long getLastId() {
+        return lastId;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportPartition[resourceType=" + resourceType.getSimpleName() + ", firstId=" + firstId + ", lastId=" + lastId + "]";
+    }
+}
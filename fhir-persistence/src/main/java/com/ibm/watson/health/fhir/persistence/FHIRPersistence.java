@@ -6,7 +6,11 @@
 
 package com.ibm.watson.health.fhir.persistence;
 
+import java.io.InputStream;
+import java.time.Instant;
 import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
 
 import com.ibm.watson.health.fhir.model.resource.OperationOutcome;
 import com.ibm.watson.health.fhir.model.resource.Resource;
@@ -14,6 +18,7 @@ import com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContext;
 import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
 import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceNotSupportedException;
 import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceResourceDeletedException;
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceStreamException;
 
 /**
  * This interface defines the contract between the FHIR Server's REST API layer and the underlying
@@ -30,6 +35,26 @@ public interface FHIRPersistence {
      * @throws FHIRPersistenceException
      */
     Resource create(FHIRPersistenceContext context, Resource resource) throws FHIRPersistenceException;
+
+    /**
+     * Stores a group of new FHIR Resources in the datastore. Unlike {@link #create}, the logical id of each resource
+     * is taken from the resource itself; callers assign the ids up front (using {@link #generateResourceId()}) so that
+     * the resources can refer to each other.
+     * @param contexts the FHIRPersistenceContext instances associated with each of the resources
+     * @param resources the FHIR Resource instances to be created in the datastore, each with an id
+     * @return copies of the resources with fields updated by the persistence layer, in the same order
+     * @throws FHIRPersistenceException
+     */
+    default List<Resource> createAll(List<FHIRPersistenceContext> contexts, List<Resource> resources) throws FHIRPersistenceException {
+        throw new FHIRPersistenceNotSupportedException("The 'createAll' operation is not supported by this persistence implementation");
+    }
+
+    /**
+     * Generates the logical id for a new FHIR Resource.
+     */
+    default String generateResourceId() {
+        return UUID.randomUUID().toString();
+    }
     
     /**
      * Retrieves the most recent version of a FHIR Resource from the datastore.
@@ -55,6 +80,24 @@ public interface FHIRPersistence {
      */
     Resource vread(FHIRPersistenceContext context, Class<? extends Resource> resourceType, String logicalId, String versionId) 
                     throws FHIRPersistenceException, FHIRPersistenceResourceDeletedException;;
+
+    /**
+     * Retrieves the version information of the most recent version of a FHIR Resource without reading and
+     * parsing its contents (e.g. to compute the next version id or to perform an If-Match check before an update).
+     * Unlike {@link #read}, a deleted resource is returned with {@link ResourceVersionInfo#isDeleted()} set.
+     * <p>The default implementation reads the resource; persistence implementations should override it with a
+     * cheaper lookup.
+     * @param context the FHIRPersistenceContext instance associated with the current request
+     * @param resourceType the resource type of the Resource instance
+     * @param logicalId the logical id of the Resource instance
+     * @return the version information or null if the resource doesn't exist
+     * @throws FHIRPersistenceException
+     */
+    default ResourceVersionInfo readVersionInfo(FHIRPersistenceContext context, Class<? extends Resource> resourceType, String logicalId)
+                    throws FHIRPersistenceException {
+        Resource resource = read(context, resourceType, logicalId);
+        return (resource != null) ? ResourceVersionInfo.of(resource) : null;
+    }
     
     /**
      * Updates an existing FHIR Resource by storing a new version in the datastore.
@@ -97,6 +140,25 @@ public interface FHIRPersistence {
      */
     List<Resource> search(FHIRPersistenceContext context, Class<? extends Resource> resourceType) throws FHIRPersistenceException;
 
+    /**
+     * Performs the same search as {@link #search(FHIRPersistenceContext, Class)}, but returns the resources as a stream
+     * which reads and parses each of them only as it is consumed, so that large result sets (e.g. with a large page size)
+     * can be written out without holding them all in memory.
+     * 
+     * <p>The stream may hold database resources, so it must be closed, e.g. with a try-with-resources statement, and
+     * consumed within the current transaction. A resource which can't be read while the stream is consumed ends it with
+     * a {@link FHIRPersistenceStreamException}.
+     * 
+     * <p>The default implementation streams the list returned by search.
+     * @param context the FHIRPersistenceContext instance associated with the current request
+     * @param resourceType the resource type which is the target of the search
+     * @return a stream of the FHIR Resources of the specified resource type which forms the search result set
+     * @throws FHIRPersistenceException
+     */
+    default Stream<Resource> searchStream(FHIRPersistenceContext context, Class<? extends Resource> resourceType) throws FHIRPersistenceException {
+        return search(context, resourceType).stream();
+    }
+
     /**
      * Returns true iff the persistence layer implementation supports transactions.
      */
@@ -121,4 +183,47 @@ public interface FHIRPersistence {
     default boolean isDeleteSupported() {
         return false;
     }
+
+    /**
+     * Returns true iff the persistence layer implementation supports the "createAll" operation.
+     */
+    default boolean isCreateAllSupported() {
+        return false;
+    }
+
+    /**
+     * Splits the current versions of the stored resources of the specified type into partitions of about
+     * partitionSize resources each, which can be passed to {@link #exportStream}.
+     * @param resourceType the resource type to partition
+     * @param partitionSize the approximate number of resources per partition
+     * @return the partitions in order; empty if no resources of the type are stored
+     * @throws FHIRPersistenceException
+     */
+    default List<ExportPartition> getExportPartitions(Class<? extends Resource> resourceType, int partitionSize) throws FHIRPersistenceException {
+        throw new FHIRPersistenceNotSupportedException("The 'export' operation is not supported by this persistence implementation");
+    }
+
+    /**
+     * Streams the stored JSON representation of the current version of each resource in the partition which is not
+     * deleted, without parsing it. The stored JSON is not pretty-printed, so each resource can be written out as one
+     * line of an NDJSON file.
+     * 
+     * <p>Like {@link #searchStream}, the stream must be closed, and a resource which can't be read ends it with a
+     * {@link FHIRPersistenceStreamException}.
+     * @param partition a partition returned by {@link #getExportPartitions}
+     * @param since if not null, only the resources last updated at or after this time are returned
+     * @param fetchSize the number of resources read from the datastore at a time
+     * @return a stream of the JSON representations of the resources, ordered by their internal id
+     * @throws FHIRPersistenceException
+     */
+    default Stream<InputStream> exportStream(ExportPartition partition, Instant since, int fetchSize) throws FHIRPersistenceException {
+        throw new FHIRPersistenceNotSupportedException("The 'export' operation is not supported by this persistence implementation");
+    }
+
+    /**
+     * Returns true iff the persistence layer implementation supports the "getExportPartitions" and "exportStream" operations.
+     */
+    default boolean isExportSupported() {
+        return false;
+    }
 }
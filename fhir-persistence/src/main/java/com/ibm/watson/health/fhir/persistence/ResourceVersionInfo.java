@@ -0,0 +1,69 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence;
+
+import java.time.Instant;
+import java.util.Objects;
+
+import com.ibm.watson.health.fhir.model.resource.Resource;
+
+/**
+ * The version information (but not the content) of the most recent version of a resource,
+ * as returned by {@link FHIRPersistence#readVersionInfo}.
+ */
+public class ResourceVersionInfo {
+    private final String logicalId;
+    private final int versionId;
+    private final Instant lastUpdated;
+    private final boolean deleted;
+
+    public ResourceVersionInfo(String logicalId, int versionId, Instant lastUpdated, boolean deleted) {
+        this.logicalId = Objects.requireNonNull(logicalId, "logicalId");
+        this.versionId = versionId;
+        this.lastUpdated = lastUpdated;
+        this.deleted = deleted;
+    }
+
+    /**
+     * Builds the version information of a resource that has already been read.
+     * @param resource a resource with an id and meta.versionId
+     * @return the version information (not deleted)
+     */
+    public static ResourceVersionInfo of(Resource resource) {
+        Instant lastUpdated = null;
+        if (resource.getMeta().getLastUpdated() != null && resource.getMeta().getLastUpdated().getValue() != null) {
+            lastUpdated = resource.getMeta().getLastUpdated().getValue().toInstant();
+        }
+        return new ResourceVersionInfo(resource.getId().getValue(),
+            Integer.parseInt(resource.getMeta().getVersionId().getValue()), lastUpdated, false);
+    }
+
+    public String getLogicalId() {
+        return logicalId;
+    }
+
+    public int getVersionId() {
+        return versionId;
+    }
+
+    public Instant getLastUpdated() {
+        return lastUpdated;
+    }
+
+    /**
+     * @return true if the most recent version of the resource is a deletion marker
+     */
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceVersionInfo[logicalId=" + logicalId + ", versionId=" + versionId + ", lastUpdated=" + lastUpdated
+                + ", deleted=" + deleted + "]";
+    }
+}
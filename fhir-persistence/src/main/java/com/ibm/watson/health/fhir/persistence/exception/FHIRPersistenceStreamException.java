@@ -0,0 +1,25 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.exception;
+
+/**
+ * Thrown by the streams of search results when a resource can't be read. Stream operations can't throw
+ * checked exceptions, so the FHIRPersistenceException is carried as the cause.
+ */
+public class FHIRPersistenceStreamException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public FHIRPersistenceStreamException(FHIRPersistenceException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized FHIRPersistenceException getCause() {
+        return (FHIRPersistenceException) super.getCause();
+    }
+}
@@ -8,6 +8,7 @@ package com.ibm.watson.health.fhir.persistence.interceptor;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.SecurityContext;
@@ -16,6 +17,7 @@ import javax.ws.rs.core.UriInfo;
 import com.ibm.watson.health.fhir.model.resource.Resource;
 import com.ibm.watson.health.fhir.model.util.FHIRUtil;
 import com.ibm.watson.health.fhir.persistence.FHIRPersistence;
+import com.ibm.watson.health.fhir.persistence.ResourceVersionInfo;
 import com.ibm.watson.health.fhir.persistence.context.FHIRReplicationContext;
 
 /**
@@ -123,6 +125,8 @@ public class FHIRPersistenceEvent {
     private Resource fhirResource;
     private Resource prevFhirResource = null;
     private boolean  prevFhirResourceSet = false;
+    private ResourceVersionInfo prevFhirResourceVersionInfo = null;
+    private Supplier<Resource> prevFhirResourceLoader = null;
     private Map<String, Object> properties;
     
     /**
@@ -162,8 +166,14 @@ public class FHIRPersistenceEvent {
      * Returns the "previous" resource associated with the REST API request that triggered
      * the interceptor invocation.  This field is set only for an "update" operation and represents
      * the existing version of the resource prior to the new resource being stored.
+     * If only the version information of the previous resource was set, the resource is loaded
+     * on the first call to this method.
      */
     public Resource getPrevFhirResource() {
+        if (prevFhirResourceLoader != null) {
+            prevFhirResource = prevFhirResourceLoader.get();
+            prevFhirResourceLoader = null;
+        }
         return prevFhirResource;
     }
 
@@ -177,6 +187,41 @@ public class FHIRPersistenceEvent {
     public void setPrevFhirResource(Resource prevFhirResource) {
         this.prevFhirResource = prevFhirResource;
         this.prevFhirResourceSet = true;
+        this.prevFhirResourceVersionInfo = null;
+        this.prevFhirResourceLoader = null;
+    }
+
+    /**
+     * Sets the version information of the "previous" resource associated with an "update" request,
+     * along with a loader that is only invoked if the previous resource itself is requested.
+     *
+     * @param prevFhirResourceVersionInfo the version information of the existing most recent version of the resource
+     * @param prevFhirResourceLoader loads the existing most recent version of the resource
+     */
+    public void setPrevFhirResource(ResourceVersionInfo prevFhirResourceVersionInfo, Supplier<Resource> prevFhirResourceLoader) {
+        this.prevFhirResource = null;
+        this.prevFhirResourceSet = true;
+        this.prevFhirResourceVersionInfo = prevFhirResourceVersionInfo;
+        this.prevFhirResourceLoader = (prevFhirResourceVersionInfo != null) ? prevFhirResourceLoader : null;
+    }
+
+    /**
+     * Returns the version information of the "previous" resource, without loading the resource.
+     * @return the version information or null if the "previous" resource is not set or doesn't exist
+     */
+    public ResourceVersionInfo getPrevFhirResourceVersionInfo() {
+        if (prevFhirResourceVersionInfo == null && prevFhirResource != null && prevFhirResource.getMeta() != null
+                && prevFhirResource.getMeta().getVersionId() != null) {
+            prevFhirResourceVersionInfo = ResourceVersionInfo.of(prevFhirResource);
+        }
+        return prevFhirResourceVersionInfo;
+    }
+
+    /**
+     * @return true if the "previous" resource is set and has already been loaded
+     */
+    public boolean isPrevFhirResourceLoaded() {
+        return prevFhirResourceSet && prevFhirResourceLoader == null;
     }
 
     /**
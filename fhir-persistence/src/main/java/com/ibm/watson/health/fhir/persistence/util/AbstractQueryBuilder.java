@@ -284,6 +284,16 @@ public abstract class AbstractQueryBuilder<T1, T2>  implements QueryBuilder<T1>
                     if (value.getValueCode() != null) {
                         longitude = Double.parseDouble(value.getValueCode());
                     }
+                    // R4 carries the distance and its units in the near value itself: [distance]|[units]
+                    if (value.getValueString() != null) {
+                        String[] parts = value.getValueString().split("\\|");
+                        if (parts.length > 0 && !parts[0].isEmpty()) {
+                            distance = Double.parseDouble(parts[0]);
+                        }
+                        if (parts.length > 1 && !parts[1].isEmpty()) {
+                            unit = parts[1];
+                        }
+                    }
                     nearFound = true;
                 }
                 else if (queryParm.getName().equals(NEAR_DISTANCE)) {
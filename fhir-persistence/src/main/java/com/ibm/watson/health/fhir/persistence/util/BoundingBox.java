@@ -12,6 +12,11 @@ public class BoundingBox {
     public double minLongitude;
     public double maxLongitude;
 
+    // The point and distance (in kilometers) the box was built around, if any
+    public Double latitude;
+    public Double longitude;
+    public Double distance;
+
     public BoundingBox(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude) {
         this.minLatitude = minLatitude;
         this.maxLatitude = maxLatitude;
@@ -19,6 +24,14 @@ public class BoundingBox {
         this.maxLongitude = maxLongitude;
     }
 
+    public BoundingBox(double minLatitude, double maxLatitude, double minLongitude, double maxLongitude,
+            double latitude, double longitude, double distance) {
+        this(minLatitude, maxLatitude, minLongitude, maxLongitude);
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.distance = distance;
+    }
+
     public double getMinLatitude() {
         return minLatitude;
     }
@@ -35,6 +48,27 @@ public class BoundingBox {
         return maxLongitude;
     }
 
+    /**
+     * @return the latitude of the point the box was built around, or null
+     */
+    public Double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * @return the longitude of the point the box was built around, or null
+     */
+    public Double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * @return the distance (in kilometers) from the point the box was built around, or null
+     */
+    public Double getDistance() {
+        return distance;
+    }
+
     public String toString() {
         StringBuffer buffer = new StringBuffer();
         buffer.append("minLatitude: ");
@@ -45,6 +79,14 @@ public class BoundingBox {
         buffer.append(minLongitude);
         buffer.append(", maxLongitude: ");
         buffer.append(maxLongitude);
+        if (distance != null) {
+            buffer.append(", latitude: ");
+            buffer.append(latitude);
+            buffer.append(", longitude: ");
+            buffer.append(longitude);
+            buffer.append(", distance: ");
+            buffer.append(distance);
+        }
         return buffer.toString();
     }
 }
@@ -22,7 +22,7 @@ import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException
 
 public class FHIRPersistenceUtil {
     private static final Logger log = Logger.getLogger(FHIRPersistenceUtil.class.getName());
-    private final static double EARTH_RADIUS_KILOMETERS = 6371.0; // earth radius in kilometers
+    public final static double EARTH_RADIUS_KILOMETERS = 6371.0; // earth radius in kilometers
 
     // Parse history parameters into a FHIRHistoryContext
     public static FHIRHistoryContext parseHistoryParameters(Map<String, List<String>> queryParameters) throws FHIRPersistenceException {
@@ -95,10 +95,17 @@ public class FHIRPersistenceUtil {
             // build bounding box points
             double minLatitude = latitude - (distance / EARTH_RADIUS_KILOMETERS) * (180.0 / Math.PI);
             double maxLatitude = latitude + (distance / EARTH_RADIUS_KILOMETERS) * (180.0 / Math.PI);
-            double minLongitude = longitude - ((distance / EARTH_RADIUS_KILOMETERS) * (180.0 / Math.PI)) / Math.cos(latitude * (180.0 / Math.PI));
-            double maxLongitude = longitude + ((distance / EARTH_RADIUS_KILOMETERS) * (180.0 / Math.PI)) / Math.cos(latitude * (180.0 / Math.PI));
+            // The longitude extent of a circle is widest north (south) of its center; if the circle
+            // contains a pole, the box spans all longitudes
+            double angle = distance / EARTH_RADIUS_KILOMETERS;
+            double longitudeDelta = 180.0;
+            if (Math.sin(angle) < Math.cos(Math.toRadians(latitude)) && angle < Math.PI / 2) {
+                longitudeDelta = Math.toDegrees(Math.asin(Math.sin(angle) / Math.cos(Math.toRadians(latitude))));
+            }
+            double minLongitude = longitude - longitudeDelta;
+            double maxLongitude = longitude + longitudeDelta;
             
-            BoundingBox boundingBox = new BoundingBox(minLatitude, maxLatitude, minLongitude, maxLongitude);
+            BoundingBox boundingBox = new BoundingBox(minLatitude, maxLatitude, minLongitude, maxLongitude, latitude, longitude, distance);
             
             if (log.isLoggable(Level.FINE)) {
                 log.fine("bounding box: " + boundingBox);
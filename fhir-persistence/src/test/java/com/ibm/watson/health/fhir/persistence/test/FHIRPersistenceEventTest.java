@@ -10,14 +10,20 @@ import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertNotNull;
 import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
 
 import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.testng.annotations.Test;
 
 import com.ibm.watson.health.fhir.model.resource.Patient;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.model.type.Meta;
+import com.ibm.watson.health.fhir.persistence.ResourceVersionInfo;
 import com.ibm.watson.health.fhir.persistence.context.FHIRReplicationContext;
 import com.ibm.watson.health.fhir.persistence.interceptor.FHIRPersistenceEvent;
 import com.ibm.watson.health.fhir.persistence.test.common.FHIRModelTestBase;
@@ -104,4 +110,31 @@ public class FHIRPersistenceEventTest extends FHIRModelTestBase {
         assertEquals("role1", pe.getHeaderString("X-WHC-LSF-rolename"));
         assertNull(pe.getHeaderString("X-WHC-LSF-studyid"));
     }
+    
+    @Test
+    public void testPrevResourceLoadedLazily() throws Exception {
+        Patient patient = readResource(Patient.class, PATIENT_A);
+        Patient prevPatient = patient.toBuilder().id(Id.of("id1")).meta(Meta.builder().versionId(Id.of("3")).build()).build();
+        AtomicInteger loadCount = new AtomicInteger();
+        
+        FHIRPersistenceEvent pe = new FHIRPersistenceEvent(patient, new HashMap<>());
+        ResourceVersionInfo versionInfo = new ResourceVersionInfo("id1", 3, Instant.now(), false);
+        pe.setPrevFhirResource(versionInfo, () -> {
+            loadCount.incrementAndGet();
+            return prevPatient;
+        });
+        assertSame(versionInfo, pe.getPrevFhirResourceVersionInfo());
+        assertFalse(pe.isPrevFhirResourceLoaded());
+        assertEquals(0, loadCount.get());
+        
+        assertSame(prevPatient, pe.getPrevFhirResource());
+        assertSame(prevPatient, pe.getPrevFhirResource());
+        assertTrue(pe.isPrevFhirResourceLoaded());
+        assertEquals(1, loadCount.get());
+        
+        // the version information of an eagerly set resource comes from its meta
+        pe.setPrevFhirResource(prevPatient);
+        assertEquals(3, pe.getPrevFhirResourceVersionInfo().getVersionId());
+        assertEquals("id1", pe.getPrevFhirResourceVersionInfo().getLogicalId());
+    }
 }
@@ -0,0 +1,75 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.persistence.test.common;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static com.ibm.watson.health.fhir.model.type.String.string;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.model.resource.Observation;
+import com.ibm.watson.health.fhir.model.resource.Patient;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.type.Code;
+import com.ibm.watson.health.fhir.model.type.CodeableConcept;
+import com.ibm.watson.health.fhir.model.type.Coding;
+import com.ibm.watson.health.fhir.model.type.HumanName;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.model.type.ObservationStatus;
+import com.ibm.watson.health.fhir.model.type.Reference;
+import com.ibm.watson.health.fhir.model.type.Uri;
+import com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContext;
+
+/**
+ * This class contains tests for creating a group of resources with ids assigned by the caller.
+ */
+public abstract class AbstractCreateAllTest extends AbstractPersistenceTest {
+
+    @Test(groups = { "jdbc-normalized" })
+    public void testCreateAll() throws Exception {
+        assertTrue(persistence.isCreateAllSupported());
+
+        // The observation refers to the patient that is created along with it.
+        String patientId = persistence.generateResourceId();
+        String observationId = persistence.generateResourceId();
+        Patient patient = Patient.builder()
+                .id(Id.of(patientId))
+                .name(HumanName.builder().family(string("Doe")).given(string("John")).build())
+                .build();
+        Observation observation = Observation.builder()
+                .id(Id.of(observationId))
+                .status(ObservationStatus.FINAL)
+                .code(CodeableConcept.builder().coding(Coding.builder()
+                        .system(Uri.of("http://loinc.org")).code(Code.of("29463-7")).build()).build())
+                .subject(Reference.builder().reference(string("Patient/" + patientId)).build())
+                .build();
+
+        FHIRPersistenceContext context = getDefaultPersistenceContext();
+        List<Resource> created = persistence.createAll(Arrays.asList(context, context), Arrays.asList(patient, observation));
+        assertEquals(2, created.size());
+        assertEquals(patientId, created.get(0).getId().getValue());
+        assertEquals(observationId, created.get(1).getId().getValue());
+        for (Resource resource : created) {
+            assertEquals("1", resource.getMeta().getVersionId().getValue());
+            assertNotNull(resource.getMeta().getLastUpdated());
+        }
+
+        Resource readPatient = persistence.read(context, Patient.class, patientId);
+        assertNotNull(readPatient);
+        assertEquals(patientId, readPatient.getId().getValue());
+
+        // The search parameters of the grouped resources are stored as well.
+        List<Resource> observations = runQueryTest(Observation.class, persistence, "subject", "Patient/" + patientId);
+        assertEquals(1, observations.size());
+        assertEquals(observationId, observations.get(0).getId().getValue());
+    }
+}
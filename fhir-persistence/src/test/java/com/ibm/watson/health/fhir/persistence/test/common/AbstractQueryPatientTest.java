@@ -576,7 +576,7 @@ public abstract class AbstractQueryPatientTest extends AbstractPersistenceTest {
     }
     
     /**
-     * Tests a query for Patients with address field missing using :text modifier which is not supported and should result in an exception
+     * Tests a query for Patients with address field missing using the :text modifier, which is only supported on token parameters, and should result in an exception
      * @throws Exception
      */
     @Test(groups = {"jdbc-normalized"}, dependsOnMethods = { "testCreatePatient1", "testCreatePatient2", "testCreatePatient3" },
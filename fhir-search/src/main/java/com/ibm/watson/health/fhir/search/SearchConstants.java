@@ -87,6 +87,12 @@ public class SearchConstants {
     // _count
     public static final String COUNT = "_count";
 
+    // _text (full-text search of the narrative)
+    public static final String TEXT = "_text";
+
+    // _content (full-text search of the whole resource)
+    public static final String CONTENT = "_content";
+
     // set as unmodifiable
     public static final List<String> SEARCH_RESULT_PARAMETER_NAMES =
             Collections.unmodifiableList(Arrays.asList(SORT, "_sort:asc", "_sort:desc", COUNT, PAGE, INCLUDE, REVINCLUDE, ELEMENTS));
@@ -103,6 +109,9 @@ public class SearchConstants {
     public static final String CHAINED_PARAMETER_CHARACTER = ".";
 
     public static final String PARAMETER_DELIMITER = "|";
+
+    // Separates the component values of a composite parameter value
+    public static final String COMPOSITE_DELIMITER = "$";
     
     public static final char COLON_DELIMITER = ':';
 
@@ -137,10 +146,12 @@ public class SearchConstants {
                     put(SearchConstants.Type.STRING, Arrays.asList(SearchConstants.Modifier.EXACT, SearchConstants.Modifier.CONTAINS, SearchConstants.Modifier.MISSING));
                     put(SearchConstants.Type.REFERENCE, Arrays.asList(SearchConstants.Modifier.TYPE, SearchConstants.Modifier.MISSING));
                     put(SearchConstants.Type.URI, Arrays.asList(SearchConstants.Modifier.BELOW, SearchConstants.Modifier.MISSING));
-                    put(SearchConstants.Type.TOKEN, Arrays.asList(SearchConstants.Modifier.BELOW, SearchConstants.Modifier.NOT, SearchConstants.Modifier.MISSING));
+                    put(SearchConstants.Type.TOKEN, Arrays.asList(SearchConstants.Modifier.BELOW, SearchConstants.Modifier.NOT, SearchConstants.Modifier.MISSING, SearchConstants.Modifier.TEXT));
                     put(SearchConstants.Type.NUMBER, Arrays.asList(SearchConstants.Modifier.MISSING));
                     put(SearchConstants.Type.DATE, Arrays.asList(SearchConstants.Modifier.MISSING));
                     put(SearchConstants.Type.QUANTITY, Arrays.asList(SearchConstants.Modifier.MISSING));
+                    put(SearchConstants.Type.COMPOSITE, Collections.emptyList());
+                    put(SearchConstants.Type.SPECIAL, Collections.emptyList());
                 }
             });
 
@@ -213,7 +224,7 @@ public class SearchConstants {
      *
      */
     public enum Type {
-        NUMBER("number"), DATE("date"), STRING("string"), TOKEN("token"), REFERENCE("reference"), QUANTITY("quantity"), URI("uri");
+        NUMBER("number"), DATE("date"), STRING("string"), TOKEN("token"), REFERENCE("reference"), QUANTITY("quantity"), URI("uri"), COMPOSITE("composite"), SPECIAL("special");
 
         private String value = null;
 
@@ -274,7 +285,7 @@ public class SearchConstants {
 
         public static boolean isSupported(Modifier modifier) {
             return modifier.equals(Modifier.ABOVE) || modifier.equals(Modifier.BELOW) || modifier.equals(Modifier.CONTAINS) || modifier.equals(EXACT)
-                    || modifier.equals(Modifier.NOT) || modifier.equals(Modifier.MISSING);
+                    || modifier.equals(Modifier.NOT) || modifier.equals(Modifier.MISSING) || modifier.equals(Modifier.TEXT);
         }
     }
 }
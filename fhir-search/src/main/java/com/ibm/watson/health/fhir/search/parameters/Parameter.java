@@ -74,7 +74,7 @@ public class Parameter {
     }
 
     public boolean isComposite() {
-        return false;
+        return Type.COMPOSITE.equals(type);
     }
 
     public boolean isChained() {
@@ -7,6 +7,8 @@
 package com.ibm.watson.health.fhir.search.parameters;
 
 import java.math.BigDecimal;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import com.ibm.watson.health.fhir.model.type.DateTime;
 import com.ibm.watson.health.fhir.search.SearchConstants;
@@ -29,6 +31,10 @@ public class ParameterValue {
     private String valueSystem = null;
     private String valueCode = null;
 
+    // The component values of a composite parameter value, in the order of the components
+    // of the search parameter. Each component holds a single value of the component's type
+    private List<Parameter> component = null;
+
     // The delimiter starts off as EMPTY and goes to SearchConstants.PARAMETER_DELIMETER
     private String delim = "";
 
@@ -89,11 +95,26 @@ public class ParameterValue {
         this.valueCode = valueCode;
     }
 
+    public List<Parameter> getComponent() {
+        return component;
+    }
+
+    public void setComponent(List<Parameter> component) {
+        this.component = component;
+    }
+
     /**
      * Serialize the ParameterValue to a query parameter string
      */
     @Override
     public String toString() {
+        if (component != null) {
+            // composite: [component]$[component]...
+            return component.stream()
+                    .map(c -> c.getValues().isEmpty() ? "" : c.getValues().get(0).toString())
+                    .collect(Collectors.joining(SearchConstants.COMPOSITE_DELIMITER));
+        }
+
         StringBuilder returnString = new StringBuilder();
 
         if (prefix != null) {
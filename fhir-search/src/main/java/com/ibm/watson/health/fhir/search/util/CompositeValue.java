@@ -0,0 +1,40 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.search.util;
+
+import java.util.List;
+
+import com.ibm.watson.health.fhir.model.path.FHIRPathNode;
+import com.ibm.watson.health.fhir.model.resource.SearchParameter;
+
+/**
+ * The values of the components of a composite search parameter for one occurrence of
+ * the parameter's base expression in a resource, e.g. the code and value of one
+ * Observation.component. The values of the components of the same occurrence belong
+ * together, which is what composite searches match on.
+ */
+public class CompositeValue {
+
+    // The search parameters which define the components, in order
+    private final List<SearchParameter> components;
+
+    // The values of each component, in the same order
+    private final List<List<FHIRPathNode>> values;
+
+    public CompositeValue(List<SearchParameter> components, List<List<FHIRPathNode>> values) {
+        this.components = components;
+        this.values = values;
+    }
+
+    public List<SearchParameter> getComponents() {
+        return components;
+    }
+
+    public List<List<FHIRPathNode>> getValues() {
+        return values;
+    }
+}
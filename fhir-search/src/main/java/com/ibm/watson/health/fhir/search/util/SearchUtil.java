@@ -23,6 +23,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import com.ibm.watson.health.fhir.config.FHIRConfigHelper;
 import com.ibm.watson.health.fhir.config.FHIRConfiguration;
@@ -72,6 +73,10 @@ public class SearchUtil {
     private static final String CLASSNAME = SearchUtil.class.getName();
     private static final Logger log = Logger.getLogger(CLASSNAME);
 
+    // Used by normalizeForSearch, which is called for every string value we store
+    private static final Pattern DIACRITICAL_MARKS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
     // Logging Strings
     private static final String EXTRACT_PARAMETERS_LOGGING = "extractParameterValues: [%s] [%s]";
     private static final String NO_TENANT_SP_MAP_LOGGING = "No tenant-specific search parameters found for tenant '%s'; trying %s ";
@@ -483,12 +488,11 @@ public class SearchUtil {
             }
 
             // Process the Expression
-            // Disable the processing of composite and "special" types
+            // Disable the processing of composite types, which are extracted by extractCompositeParameterValues.
             // <code>"type" : "composite",</code>
-            // <code>"type" : "special",</code>
-            // Alternatives, which are possible, on loading the map, filter out at that time.
+            // The only "special" parameter, Location near, is extracted as the Location.position values.
             SearchParamType type = parameter.getType();
-            if (expression != null && !SearchParamType.COMPOSITE.equals(type) && !SearchParamType.SPECIAL.equals(type)) {
+            if (expression != null && !SearchParamType.COMPOSITE.equals(type)) {
 
                 try {
                    
@@ -518,6 +522,95 @@ public class SearchUtil {
         return result;
     }
 
+    /**
+     * Extract the values of the composite search parameters which apply to the given resource.
+     * The base expression of each composite parameter is evaluated first, and the expressions
+     * of its components are then evaluated relative to each node found, so that the values
+     * of the components of the same occurrence stay together.
+     * Composite parameters with a component which can't be resolved to a search parameter
+     * applicable to the resource type are skipped.
+     *
+     * @param resource
+     * @return a map of the composite parameters to one {@link CompositeValue} per occurrence
+     * @throws Exception
+     */
+    public static Map<SearchParameter, List<CompositeValue>> extractCompositeParameterValues(Resource resource) throws Exception {
+
+        Map<SearchParameter, List<CompositeValue>> result = new LinkedHashMap<>();
+
+        FHIRPathTree tree = FHIRPathTree.tree(resource);
+        FHIRPathEvaluator evaluator = FHIRPathEvaluator.evaluator(tree);
+
+        List<SearchParameter> parameters = getApplicableSearchParameters(resource.getClass().getSimpleName());
+
+        for (SearchParameter parameter : parameters) {
+            com.ibm.watson.health.fhir.model.type.String expression = parameter.getExpression();
+            if (expression == null || !SearchParamType.COMPOSITE.equals(parameter.getType())) {
+                continue;
+            }
+
+            List<SearchParameter> components = getComponentSearchParameters(parameter, parameters);
+            if (components == null) {
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine(String.format(UNSUPPOTED_EXPR_NULL, parameter.getType(), parameter.getCode().getValue()));
+                }
+                continue;
+            }
+
+            try {
+                List<CompositeValue> values = new ArrayList<>();
+                for (FHIRPathNode node : evaluator.evaluate(expression.getValue(), tree.getRoot())) {
+                    List<List<FHIRPathNode>> componentValues = new ArrayList<>();
+                    for (SearchParameter.Component component : parameter.getComponent()) {
+                        componentValues.add(new ArrayList<>(evaluator.evaluate(component.getExpression().getValue(), node)));
+                    }
+                    values.add(new CompositeValue(components, componentValues));
+                }
+
+                if (!values.isEmpty()) {
+                    result.put(parameter, values);
+                }
+            } catch (java.lang.UnsupportedOperationException | FHIRPathException uoe) {
+                log.warning(String.format(UNSUPPORTED_EXCEPTION, parameter.getCode().getValue(), expression.getValue(), uoe.getMessage()));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Look up the search parameters which define the components of the composite parameter
+     *
+     * @param resourceType
+     * @param composite
+     * @return the component search parameters, in order, or null if any of them isn't
+     *         applicable to the resource type
+     * @throws Exception
+     */
+    public static List<SearchParameter> getComponentSearchParameters(String resourceType, SearchParameter composite) throws Exception {
+        return getComponentSearchParameters(composite, getApplicableSearchParameters(resourceType));
+    }
+
+    private static List<SearchParameter> getComponentSearchParameters(SearchParameter composite, List<SearchParameter> applicableSPs) {
+        List<SearchParameter> result = new ArrayList<>();
+        for (SearchParameter.Component component : composite.getComponent()) {
+            SearchParameter definition = null;
+            if (component.getDefinition() != null) {
+                for (SearchParameter sp : applicableSPs) {
+                    if (sp.getUrl() != null && component.getDefinition().getValue().equals(sp.getUrl().getValue())) {
+                        definition = sp;
+                        break;
+                    }
+                }
+            }
+            if (definition == null || component.getExpression() == null) {
+                return null;
+            }
+            result.add(definition);
+        }
+        return result.isEmpty() ? null : result;
+    }
+
     public static FHIRSearchContext parseQueryParameters(Class<?> resourceType, Map<String, List<String>> queryParameters, String queryString)
         throws Exception {
         return parseQueryParameters(resourceType, queryParameters, queryString, true);
@@ -605,6 +698,11 @@ public class SearchUtil {
                         if (SearchConstants.Modifier.MISSING.equals(modifier)) {
                             // FHIR search considers booleans a special case of token for some reason...
                             queryParameterValues = parseQueryParameterValuesString(SearchConstants.Type.TOKEN, queryParameterValueString);
+                        } else if (SearchConstants.Modifier.TEXT.equals(modifier)) {
+                            // token:text searches the display text of the codes, so the value is just a string
+                            queryParameterValues = parseQueryParameterValuesString(SearchConstants.Type.STRING, queryParameterValueString);
+                        } else if (SearchConstants.Type.COMPOSITE.equals(type)) {
+                            queryParameterValues = parseCompositeValuesString(resourceType, searchParameter, queryParameterValueString);
                         } else {
                             queryParameterValues = parseQueryParameterValuesString(type, queryParameterValueString);
                         }
@@ -712,6 +810,23 @@ public class SearchUtil {
                 parameterValue.setValueString(unescapeSearchParm(v));
                 break;
             }
+            case SPECIAL: {
+                // Location near
+                // [parameter]=[latitude]|[longitude]|[distance]|[units]
+                // The latitude and longitude are kept as the system and code, as for the near token of STU3,
+                // and the optional [distance]|[units] as the string.
+                String[] parts = v.split(SearchConstants.BACKSLASH_NEGATIVE_LOOKBEHIND + "\\|", 3);
+                if (parts.length < 2) {
+                    String msg = "Special search parameter values must be of the form [latitude]|[longitude]|[distance]|[units]: " + v;
+                    throw SearchExceptionUtil.buildNewInvalidSearchException(msg);
+                }
+                parameterValue.setValueSystem(unescapeSearchParm(parts[0]));
+                parameterValue.setValueCode(unescapeSearchParm(parts[1]));
+                if (parts.length > 2 && !parts[2].isEmpty()) {
+                    parameterValue.setValueString(parts[2]);
+                }
+                break;
+            }
             default:
                 break;
             }
@@ -720,6 +835,49 @@ public class SearchUtil {
         return parameterValues;
     }
 
+    /**
+     * Parse the values of a composite parameter. Each value holds the values of the components
+     * separated by '$', e.g. code-value-quantity=http://loinc.org|8480-6$gt120
+     *
+     * @param resourceType
+     * @param searchParameter the composite search parameter
+     * @param queryParameterValuesString
+     * @return
+     * @throws Exception
+     */
+    private static List<ParameterValue> parseCompositeValuesString(Class<?> resourceType, SearchParameter searchParameter, String queryParameterValuesString)
+        throws Exception {
+        List<SearchParameter> components = getComponentSearchParameters(resourceType.getSimpleName(), searchParameter);
+        if (components == null) {
+            String msg = "Components of the composite search parameter '" + searchParameter.getCode().getValue() + "' were not found.";
+            throw SearchExceptionUtil.buildNewInvalidSearchException(msg);
+        }
+
+        List<ParameterValue> parameterValues = new ArrayList<>();
+        for (String v : queryParameterValuesString.split(SearchConstants.BACKSLASH_NEGATIVE_LOOKBEHIND + ",")) {
+            String[] parts = v.split(SearchConstants.BACKSLASH_NEGATIVE_LOOKBEHIND + "\\$");
+            if (parts.length != components.size()) {
+                String msg = "Composite search parameter '" + searchParameter.getCode().getValue() + "' requires " + components.size()
+                        + " components separated by '$': " + v;
+                throw SearchExceptionUtil.buildNewInvalidSearchException(msg);
+            }
+
+            List<Parameter> componentValues = new ArrayList<>();
+            for (int i = 0; i < parts.length; i++) {
+                SearchParameter component = components.get(i);
+                SearchConstants.Type componentType = SearchConstants.Type.fromValue(component.getType().getValue());
+                Parameter componentValue = new Parameter(componentType, component.getCode().getValue(), null, null);
+                componentValue.getValues().addAll(parseQueryParameterValuesString(componentType, parts[i]));
+                componentValues.add(componentValue);
+            }
+
+            ParameterValue parameterValue = new ParameterValue();
+            parameterValue.setComponent(componentValues);
+            parameterValues.add(parameterValue);
+        }
+        return parameterValues;
+    }
+
     /**
      * Un-escape search parameter values that were encoding based on FHIR escaping rules
      * 
@@ -911,6 +1069,10 @@ public class SearchUtil {
                 }
             }
             sortParmType = SearchConstants.Type.fromValue(sortParmProxy.getType().getValue());
+            if (SearchConstants.Type.COMPOSITE.equals(sortParmType)) {
+                String msg = "Composite search parameters can't be used to sort: " + sortParmName;
+                throw SearchExceptionUtil.buildNewInvalidSearchException(msg);
+            }
             sortParm = new SortParameter(sortParmName, sortParmType, sortDirection, queryStringIndex);
             if (resourceType.equals(Resource.class) && !SearchConstants.SYSTEM_LEVEL_SORT_PARAMETER_NAMES.contains(sortParm.getName())) {
                 throw SearchExceptionUtil.buildNewInvalidSearchException(String.format(UNSUPPORTED_SEARCH_PARAMETERS_EXCEPTION, sortParm.getName()));
@@ -962,7 +1124,8 @@ public class SearchUtil {
                 SearchParameter searchParameter = getSearchParameter(resourceType, parameterName);
                 type = SearchConstants.Type.fromValue(searchParameter.getType().getValue());
 
-                if (!SearchConstants.Type.REFERENCE.equals(type) && currentIndex < lastIndex) {
+                if (!SearchConstants.Type.REFERENCE.equals(type) && currentIndex < lastIndex
+                        || SearchConstants.Type.COMPOSITE.equals(type)) {
                     throw SearchExceptionUtil.buildNewInvalidSearchException(String.format(TYPE_NOT_ALLOWED_WITH_CHAINED_PARAMETER_EXCEPTION, type));
                 }
 
@@ -1047,7 +1210,9 @@ public class SearchUtil {
 
     /**
      * Normalizes a string to be used as a search parameter value. All accents and diacritics are removed. And then the
-     * string is transformed to lower case.
+     * string is transformed to lower case. Runs of whitespace are collapsed to a single space and leading and trailing
+     * whitespace is removed. The same normalization is applied to the values when they are stored, so the result can
+     * be compared directly with the stored value.
      *
      * @param value
      * @return
@@ -1056,8 +1221,9 @@ public class SearchUtil {
 
         String normalizedValue = null;
         if (value != null) {
-            normalizedValue = Normalizer.normalize(value, Form.NFD).replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
+            normalizedValue = DIACRITICAL_MARKS.matcher(Normalizer.normalize(value, Form.NFD)).replaceAll("");
             normalizedValue = normalizedValue.toLowerCase();
+            normalizedValue = WHITESPACE.matcher(normalizedValue.trim()).replaceAll(" ");
         }
 
         return normalizedValue;
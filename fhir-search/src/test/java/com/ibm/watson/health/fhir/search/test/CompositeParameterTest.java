@@ -0,0 +1,136 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.search.test;
+
+import static com.ibm.watson.health.fhir.model.type.String.string;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.model.resource.Observation;
+import com.ibm.watson.health.fhir.model.resource.SearchParameter;
+import com.ibm.watson.health.fhir.model.type.Code;
+import com.ibm.watson.health.fhir.model.type.CodeableConcept;
+import com.ibm.watson.health.fhir.model.type.Coding;
+import com.ibm.watson.health.fhir.model.type.Decimal;
+import com.ibm.watson.health.fhir.model.type.ObservationStatus;
+import com.ibm.watson.health.fhir.model.type.Quantity;
+import com.ibm.watson.health.fhir.model.type.Uri;
+import com.ibm.watson.health.fhir.search.SearchConstants.Prefix;
+import com.ibm.watson.health.fhir.search.SearchConstants.Type;
+import com.ibm.watson.health.fhir.search.context.FHIRSearchContext;
+import com.ibm.watson.health.fhir.search.exception.FHIRSearchException;
+import com.ibm.watson.health.fhir.search.parameters.Parameter;
+import com.ibm.watson.health.fhir.search.parameters.ParameterValue;
+import com.ibm.watson.health.fhir.search.util.CompositeValue;
+import com.ibm.watson.health.fhir.search.util.SearchUtil;
+
+/**
+ * Tests the parsing of composite search parameters and the extraction of their values.
+ */
+public class CompositeParameterTest extends BaseSearchTest {
+
+    @Test
+    public void testParseComposite() throws Exception {
+        Map<String, List<String>> queryParameters = new HashMap<>();
+        String queryString = "&component-code-value-quantity=http://loinc.org|8480-6$gt120|http://unitsofmeasure.org|mm[Hg]";
+        queryParameters.put("component-code-value-quantity",
+            Collections.singletonList("http://loinc.org|8480-6$gt120|http://unitsofmeasure.org|mm[Hg]"));
+
+        FHIRSearchContext context = SearchUtil.parseQueryParameters(Observation.class, queryParameters, queryString);
+        assertEquals(context.getSearchParameters().size(), 1);
+        Parameter parameter = context.getSearchParameters().get(0);
+        assertEquals(parameter.getType(), Type.COMPOSITE);
+        assertTrue(parameter.isComposite());
+        assertEquals(parameter.getValues().size(), 1);
+
+        List<Parameter> components = parameter.getValues().get(0).getComponent();
+        assertEquals(components.size(), 2);
+        assertEquals(components.get(0).getType(), Type.TOKEN);
+        assertEquals(components.get(0).getValues().get(0).getValueSystem(), "http://loinc.org");
+        assertEquals(components.get(0).getValues().get(0).getValueCode(), "8480-6");
+
+        ParameterValue quantity = components.get(1).getValues().get(0);
+        assertEquals(components.get(1).getType(), Type.QUANTITY);
+        assertEquals(quantity.getPrefix(), Prefix.GT);
+        assertEquals(quantity.getValueNumber(), new BigDecimal("120"));
+        assertEquals(quantity.getValueCode(), "mm[Hg]");
+
+        String selfUri = SearchUtil.buildSearchSelfUri("http://example.com/Observation", context);
+        assertTrue(selfUri.contains("component-code-value-quantity=http://loinc.org%7C8480-6$gt120%7Chttp://unitsofmeasure.org%7Cmm[Hg]"), selfUri);
+    }
+
+    @Test(expectedExceptions = FHIRSearchException.class)
+    public void testParseCompositeMissingComponent() throws Exception {
+        Map<String, List<String>> queryParameters = new HashMap<>();
+        queryParameters.put("code-value-quantity", Collections.singletonList("http://loinc.org|8480-6"));
+        SearchUtil.parseQueryParameters(Observation.class, queryParameters, "&code-value-quantity=http://loinc.org|8480-6");
+    }
+
+    @Test(expectedExceptions = FHIRSearchException.class)
+    public void testCompositeModifier() throws Exception {
+        Map<String, List<String>> queryParameters = new HashMap<>();
+        queryParameters.put("code-value-quantity:missing", Collections.singletonList("true"));
+        SearchUtil.parseQueryParameters(Observation.class, queryParameters, "&code-value-quantity:missing=true");
+    }
+
+    @Test
+    public void testExtractComposite() throws Exception {
+        Observation observation = Observation.builder()
+                .status(ObservationStatus.FINAL)
+                .code(concept("85354-9"))
+                .component(component("8480-6", 120))
+                .component(component("8462-4", 80))
+                .build();
+
+        Map<SearchParameter, List<CompositeValue>> result = SearchUtil.extractCompositeParameterValues(observation);
+        List<CompositeValue> values = null;
+        for (Map.Entry<SearchParameter, List<CompositeValue>> entry : result.entrySet()) {
+            if ("component-code-value-quantity".equals(entry.getKey().getCode().getValue())) {
+                values = entry.getValue();
+            }
+        }
+        assertNotNull(values);
+
+        // One value per component, each with its own code and quantity
+        assertEquals(values.size(), 2);
+        CompositeValue second = values.get(1);
+        assertEquals(second.getComponents().size(), 2);
+        assertEquals(second.getComponents().get(0).getType().getValue(), "token");
+        assertEquals(second.getComponents().get(1).getType().getValue(), "quantity");
+        assertEquals(second.getValues().get(0).size(), 1);
+        assertEquals(second.getValues().get(1).size(), 1);
+        CodeableConcept code = second.getValues().get(0).get(0).asElementNode().element().as(CodeableConcept.class);
+        assertEquals(code.getCoding().get(0).getCode().getValue(), "8462-4");
+    }
+
+    private CodeableConcept concept(String code) {
+        return CodeableConcept.builder()
+                .coding(Coding.builder().system(Uri.of("http://loinc.org")).code(Code.of(code)).build())
+                .text(string(code))
+                .build();
+    }
+
+    private Observation.Component component(String code, int value) {
+        return Observation.Component.builder()
+                .code(concept(code))
+                .value(Quantity.builder()
+                    .value(Decimal.of(value))
+                    .system(Uri.of("http://unitsofmeasure.org"))
+                    .code(Code.of("mm[Hg]"))
+                    .build())
+                .build();
+    }
+}
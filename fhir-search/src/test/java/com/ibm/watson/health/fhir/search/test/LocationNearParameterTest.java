@@ -0,0 +1,84 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.search.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.model.path.FHIRPathNode;
+import com.ibm.watson.health.fhir.model.resource.Location;
+import com.ibm.watson.health.fhir.model.resource.SearchParameter;
+import com.ibm.watson.health.fhir.model.type.Decimal;
+import com.ibm.watson.health.fhir.search.SearchConstants.Type;
+import com.ibm.watson.health.fhir.search.context.FHIRSearchContext;
+import com.ibm.watson.health.fhir.search.exception.FHIRSearchException;
+import com.ibm.watson.health.fhir.search.parameters.Parameter;
+import com.ibm.watson.health.fhir.search.parameters.ParameterValue;
+import com.ibm.watson.health.fhir.search.util.SearchUtil;
+
+/**
+ * Tests the parsing of the special Location near search parameter and the extraction of the positions it searches.
+ */
+public class LocationNearParameterTest extends BaseSearchTest {
+
+    @Test
+    public void testParseNear() throws Exception {
+        Parameter parameter = parse("42.256500|-83.694810|11.20|km");
+        assertEquals(parameter.getType(), Type.SPECIAL);
+        ParameterValue value = parameter.getValues().get(0);
+        assertEquals(value.getValueSystem(), "42.256500");
+        assertEquals(value.getValueCode(), "-83.694810");
+        assertEquals(value.getValueString(), "11.20|km");
+        // the value is written back to the self link as it was passed
+        assertEquals(value.toString(), "42.256500|-83.694810|11.20|km");
+
+        value = parse("42.256500|-83.694810").getValues().get(0);
+        assertEquals(value.getValueCode(), "-83.694810");
+        assertNull(value.getValueString());
+    }
+
+    @Test(expectedExceptions = FHIRSearchException.class)
+    public void testParseNearWithoutLongitude() throws Exception {
+        parse("42.256500");
+    }
+
+    @Test
+    public void testExtractPosition() throws Exception {
+        Location location = Location.builder()
+                .position(Location.Position.builder()
+                    .latitude(Decimal.of(42.2565))
+                    .longitude(Decimal.of(-83.69481))
+                    .build())
+                .build();
+
+        boolean found = false;
+        for (Map.Entry<SearchParameter, List<FHIRPathNode>> entry : SearchUtil.extractParameterValues(location).entrySet()) {
+            if ("near".equals(entry.getKey().getCode().getValue())) {
+                assertEquals(entry.getValue().size(), 1);
+                assertTrue(entry.getValue().get(0).asElementNode().element().is(Location.Position.class));
+                found = true;
+            }
+        }
+        assertTrue(found);
+    }
+
+    private Parameter parse(String near) throws Exception {
+        Map<String, List<String>> queryParameters = new HashMap<>();
+        queryParameters.put("near", Collections.singletonList(near));
+        FHIRSearchContext context = SearchUtil.parseQueryParameters(Location.class, queryParameters, "&near=" + near);
+        assertEquals(context.getSearchParameters().size(), 1);
+        return context.getSearchParameters().get(0);
+    }
+}
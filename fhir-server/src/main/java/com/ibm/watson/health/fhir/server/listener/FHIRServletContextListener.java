@@ -8,9 +8,15 @@ package com.ibm.watson.health.fhir.server.listener;
 
 import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_JDBC_BOOTSTRAP_DB;
 import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_JDBC_SCHEMA_TYPE;
+import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_KAFKA_BATCH_SIZE;
+import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_KAFKA_COMPRESSION_TYPE;
 import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_KAFKA_CONNECTIONPROPS;
 import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_KAFKA_ENABLED;
+import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_KAFKA_LINGER_MS;
 import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_KAFKA_TOPICNAME;
+import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_MODEL_INTERNING_ENABLED;
+import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_MODEL_INTERNING_MAX_SIZE;
+import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_MODEL_JSON_CACHING_ENABLED;
 import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_WEBSOCKET_ENABLED;
 
 import java.io.File;
@@ -31,12 +37,15 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.owasp.encoder.Encode;
 
+import com.ibm.watson.health.fhir.audit.logging.api.AuditLogServiceFactory;
 import com.ibm.watson.health.fhir.config.FHIRConfigHelper;
 import com.ibm.watson.health.fhir.config.FHIRConfiguration;
 import com.ibm.watson.health.fhir.config.FHIRRequestContext;
 import com.ibm.watson.health.fhir.config.PropertyGroup;
 import com.ibm.watson.health.fhir.config.PropertyGroup.PropertyEntry;
+import com.ibm.watson.health.fhir.model.FHIRModel;
 import com.ibm.watson.health.fhir.model.util.FHIRUtil;
+import com.ibm.watson.health.fhir.model.util.InterningSupport;
 import com.ibm.watson.health.fhir.notification.websocket.impl.FHIRNotificationServiceEndpointConfig;
 import com.ibm.watson.health.fhir.notifications.kafka.impl.FHIRNotificationKafkaPublisher;
 import com.ibm.watson.health.fhir.operation.registry.FHIROperationRegistry;
@@ -77,6 +86,23 @@ public class FHIRServletContextListener implements ServletContextListener {
             log.fine("Initializing SearchUtil...");
             SearchUtil.init();
             
+            // If model interning is enabled, then share repeated Coding, CodeableConcept, String and Uri instances
+            // across parsed resources.
+            Boolean interningEnabled = fhirConfig.getBooleanProperty(PROPERTY_MODEL_INTERNING_ENABLED, Boolean.FALSE);
+            if (interningEnabled) {
+                Integer maxSize = fhirConfig.getIntProperty(PROPERTY_MODEL_INTERNING_MAX_SIZE, InterningSupport.DEFAULT_MAX_SIZE);
+                log.info("Enabling model interning with a maximum table size of " + maxSize);
+                InterningSupport.enable(maxSize);
+            }
+            
+            // If JSON caching is enabled, then the compact JSON generated for a resource (e.g. when it is persisted)
+            // is memoized on the resource instance and reused for the HTTP response and notifications.
+            Boolean jsonCachingEnabled = fhirConfig.getBooleanProperty(PROPERTY_MODEL_JSON_CACHING_ENABLED, Boolean.FALSE);
+            if (jsonCachingEnabled) {
+                log.info("Enabling model JSON caching");
+                FHIRModel.setJsonCaching(true);
+            }
+            
             log.fine("Initializing FHIROperationRegistry...");
             FHIROperationRegistry.getInstance();
             
@@ -114,6 +140,20 @@ public class FHIRServletContextListener implements ServletContextListener {
                         }
                     }
                 }
+
+                // The batching and compression settings override the connection properties.
+                Integer lingerMs = fhirConfig.getIntProperty(PROPERTY_KAFKA_LINGER_MS, null);
+                if (lingerMs != null) {
+                    kafkaProps.setProperty("linger.ms", lingerMs.toString());
+                }
+                Integer batchSize = fhirConfig.getIntProperty(PROPERTY_KAFKA_BATCH_SIZE, null);
+                if (batchSize != null) {
+                    kafkaProps.setProperty("batch.size", batchSize.toString());
+                }
+                String compressionType = fhirConfig.getStringProperty(PROPERTY_KAFKA_COMPRESSION_TYPE, null);
+                if (compressionType != null) {
+                    kafkaProps.setProperty("compression.type", compressionType);
+                }
                 
                 log.info("Initializing Kafka notification publisher.");
                 kafkaPublisher = new FHIRNotificationKafkaPublisher(topicName, kafkaProps);
@@ -200,6 +240,9 @@ public class FHIRServletContextListener implements ServletContextListener {
                 kafkaPublisher.shutdown();
                 kafkaPublisher = null;
             }
+
+            // Send any buffered audit log entries and release the audit log service.
+            AuditLogServiceFactory.shutdownService();
         } catch (Exception e) {
         } finally {
             if (log.isLoggable(Level.FINER)) {
@@ -16,8 +16,6 @@ import static com.ibm.watson.health.fhir.config.FHIRConfiguration.PROPERTY_VIRTU
 import static com.ibm.watson.health.fhir.model.type.String.string;
 import static com.ibm.watson.health.fhir.model.util.ModelSupport.getResourceType;
 import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
-import static javax.servlet.http.HttpServletResponse.SC_GONE;
-import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 
 import java.io.StringWriter;
@@ -31,9 +29,13 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -70,6 +72,7 @@ import com.ibm.watson.health.fhir.config.FHIRRequestContext;
 import com.ibm.watson.health.fhir.config.PropertyGroup;
 import com.ibm.watson.health.fhir.core.FHIRMediaType;
 import com.ibm.watson.health.fhir.core.context.FHIRPagingContext;
+import com.ibm.watson.health.fhir.exception.FHIRException;
 import com.ibm.watson.health.fhir.exception.FHIROperationException;
 import com.ibm.watson.health.fhir.model.format.Format;
 import com.ibm.watson.health.fhir.model.generator.FHIRGenerator;
@@ -115,6 +118,7 @@ import com.ibm.watson.health.fhir.operation.registry.FHIROperationRegistry;
 import com.ibm.watson.health.fhir.operation.util.FHIROperationUtil;
 import com.ibm.watson.health.fhir.persistence.FHIRPersistence;
 import com.ibm.watson.health.fhir.persistence.FHIRPersistenceTransaction;
+import com.ibm.watson.health.fhir.persistence.ResourceVersionInfo;
 import com.ibm.watson.health.fhir.persistence.context.FHIRHistoryContext;
 import com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContext;
 import com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContextFactory;
@@ -141,10 +145,13 @@ import com.ibm.watson.health.fhir.server.annotation.PATCH;
 import com.ibm.watson.health.fhir.server.exception.FHIRHttpException;
 import com.ibm.watson.health.fhir.server.exception.FHIRRestBundledRequestException;
 import com.ibm.watson.health.fhir.server.exception.FHIRVirtualResourceTypeException;
+import com.ibm.watson.health.fhir.server.helper.FHIRServerUtils;
 import com.ibm.watson.health.fhir.server.helper.FHIRUrlParser;
 import com.ibm.watson.health.fhir.server.listener.FHIRServletContextListener;
+import com.ibm.watson.health.fhir.server.util.BatchEntryExecutor;
 import com.ibm.watson.health.fhir.server.util.IssueTypeToHttpStatusMapper;
 import com.ibm.watson.health.fhir.server.util.ReferenceMappingVisitor;
+import com.ibm.watson.health.fhir.server.util.RequestSnapshot;
 import com.ibm.watson.health.fhir.server.util.RestAuditLogger;
 
 @Path("/")
@@ -160,11 +167,22 @@ public class FHIRResource implements FHIRResourceHelpers {
     private static final String REQUEST_HEADER_URL = "http://www.ibm.com/watsonhealth/fhir/extensions/http-request-header";
 
     private static final String LOCAL_REF_PREFIX = "urn:";
+    private static final String BATCH_EXECUTOR_JNDI_NAME = "java:comp/DefaultManagedExecutorService";
+    private static final int DEFAULT_BATCH_PARALLELISM = 8;
     private static final String HEADERNAME_IF_NONE_EXIST = "If-None-Exist";
 
     private PersistenceHelper persistenceHelper = null;
     private FHIRPersistence persistence = null;
 
+    // The persistence implementation used by batch entries processed on other threads than the request thread.
+    private final ThreadLocal<FHIRPersistence> batchEntryPersistence = new ThreadLocal<>();
+
+    // The copy of the request used by the bundle entry being processed on the current thread.
+    private final ThreadLocal<RequestSnapshot> batchEntryRequest = new ThreadLocal<>();
+
+    // The transaction entry resources which were already validated before the entries are processed.
+    private final Set<Resource> validatedResources = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Resource, Boolean>()));
+
     @Context
     private ServletContext context;
 
@@ -953,7 +971,7 @@ public class FHIRResource implements FHIRResourceHelpers {
         FHIRRequestContext requestContext = FHIRRequestContext.get();
 
         // Pass end time the same as start time to tell cadf log service that this is a pending request.
-        RestAuditLogger.logCreate(httpServletRequest, resource, startTime, startTime, Response.Status.OK);
+        RestAuditLogger.logCreate(getHttpServletRequest(), resource, startTime, startTime, Response.Status.OK);
 
         try {
 
@@ -1067,7 +1085,7 @@ public class FHIRResource implements FHIRResourceHelpers {
             // Now Audit log the final status of the request,
             // if fails to log, then log the error in local log file and ignore.
             try {
-                RestAuditLogger.logCreate(httpServletRequest, resource, startTime, new Date(), status);
+                RestAuditLogger.logCreate(getHttpServletRequest(), resource, startTime, new Date(), status);
             } catch (Exception e) {
                 log.log(Level.INFO, errMsg, e);
             }
@@ -1083,7 +1101,24 @@ public class FHIRResource implements FHIRResourceHelpers {
      * @throws FHIRHttpException
      */
     private List<OperationOutcome.Issue> validateInput(Resource resource) throws FHIRValidationException, FHIRHttpException {
-        List<OperationOutcome.Issue> issues = FHIRValidator.validator(resource).validate();
+        return validateInput(resource, null);
+    }
+
+    /**
+     * Validate the input resource and throw if there are validation errors
+     *
+     * @param resource
+     * @param prevResource
+     *            the previous version of a patched resource; only the elements changed by the patch are re-validated
+     * @throws FHIRValidationException
+     * @throws FHIRHttpException
+     */
+    private List<OperationOutcome.Issue> validateInput(Resource resource, Resource prevResource) throws FHIRValidationException, FHIRHttpException {
+        if (prevResource == null && validatedResources.remove(resource)) {
+            return Collections.emptyList();
+        }
+        FHIRValidator validator = FHIRValidator.validator(resource);
+        List<OperationOutcome.Issue> issues = (prevResource != null) ? validator.validate(prevResource) : validator.validate();
         if (!issues.isEmpty()) {
             boolean includesFailure = false;
             for (OperationOutcome.Issue issue : issues) {
@@ -1128,14 +1163,15 @@ public class FHIRResource implements FHIRResourceHelpers {
         FHIRRequestContext requestContext = FHIRRequestContext.get();
 
         FHIRRestOperationResponse ior = new FHIRRestOperationResponse();
+        ResourceVersionInfo prevVersionInfo = null;
 
         // Pass end time the same as start time to tell cadf log service that this is a pending request.
         if (patch != null) {
-            RestAuditLogger.logPatch(httpServletRequest, null, null, startTime, startTime, Response.Status.OK);
+            RestAuditLogger.logPatch(getHttpServletRequest(), null, null, startTime, startTime, Response.Status.OK);
         } else {
             // At this time point, we don't have the updated resource, so use the input resource as the updated resource in
             // the pending request.
-            RestAuditLogger.logUpdate(httpServletRequest, newResource, newResource, startTime, startTime, Response.Status.OK);
+            RestAuditLogger.logUpdate(getHttpServletRequest(), newResource, newResource, startTime, startTime, Response.Status.OK);
         }
 
         try {
@@ -1211,8 +1247,18 @@ public class FHIRResource implements FHIRResourceHelpers {
                     }
                 }
 
-                // Retrieve the resource to be updated using the type and id values.
-                ior.setPrevResource(doRead(type, id, (patch != null), true, requestProperties, newResource));
+                if (patch != null) {
+                    // Retrieve the resource to be patched using the type and id values.
+                    ior.setPrevResource(doRead(type, id, true, true, requestProperties, newResource));
+                } else {
+                    // An update only needs the version of the resource to be updated; the resource
+                    // itself is loaded later only if an interceptor asks for it.
+                    prevVersionInfo = doReadVersionInfo(type, newResource.getClass(), id, requestProperties);
+                }
+            }
+
+            if (ior.getPrevResource() != null) {
+                prevVersionInfo = ResourceVersionInfo.of(ior.getPrevResource());
             }
             
             if (patch != null) {
@@ -1220,11 +1266,11 @@ public class FHIRResource implements FHIRResourceHelpers {
             }
 
             // Validate the input resource and return any validation errors.
-            validateInput(newResource);
+            validateInput(newResource, (patch != null) ? ior.getPrevResource() : null);
 
             // Perform the "version-aware" update check.
-            if (ior.getPrevResource() != null) {
-                performVersionAwareUpdateCheck(ior.getPrevResource(), ifMatchValue);
+            if (prevVersionInfo != null) {
+                performVersionAwareUpdateCheck(Integer.toString(prevVersionInfo.getVersionId()), ifMatchValue);
             }
 
             // Start a new txn in the persistence layer if one is not already active.
@@ -1233,11 +1279,19 @@ public class FHIRResource implements FHIRResourceHelpers {
             // First, create the persistence event.
             FHIRPersistenceEvent event = new FHIRPersistenceEvent(newResource, buildPersistenceEventProperties(type, newResource.getId().getValue(), null, requestProperties));
 
-            // Next, set the "previous resource" in the persistence event.
-            event.setPrevFhirResource(ior.getPrevResource());
+            // Next, set the "previous resource" in the persistence event. A deleted resource has no previous
+            // resource to pass to the interceptors.
+            if (ior.getPrevResource() == null && prevVersionInfo != null && !prevVersionInfo.isDeleted()) {
+                final String prevId = id;
+                final Class<? extends Resource> prevType = newResource.getClass();
+                final ResourceVersionInfo prevVersion = prevVersionInfo;
+                event.setPrevFhirResource(prevVersionInfo, () -> loadPrevResource(prevType, prevId, prevVersion, event));
+            } else {
+                event.setPrevFhirResource(ior.getPrevResource());
+            }
 
             // Next, invoke the 'beforeUpdate' or 'beforeCreate' interceptor methods as appropriate.
-            boolean updateCreate = (ior.getPrevResource() == null);
+            boolean updateCreate = (prevVersionInfo == null);
             if (updateCreate) {
                 getInterceptorMgr().fireBeforeCreateEvent(event);
             } else {
@@ -1253,6 +1307,9 @@ public class FHIRResource implements FHIRResourceHelpers {
             newResource = getPersistenceImpl().update(persistenceContext, id, newResource);
             event.setFhirResource(newResource); // update event with latest
             ior.setResource(newResource);
+            if (event.isPrevFhirResourceLoaded()) {
+                ior.setPrevResource(event.getPrevFhirResource());
+            }
 
             // Build our location URI and add it to the interceptor event structure since it is now known.
             ior.setLocationURI(FHIRUtil.buildLocationURI(FHIRUtil.getResourceTypeName(newResource), newResource));
@@ -1306,7 +1363,7 @@ public class FHIRResource implements FHIRResourceHelpers {
                 // Now Audit log the final status of the request,
                 // if fails to log, then log the error in local log file and ignore.
                 try {
-                    RestAuditLogger.logCreate(httpServletRequest, (ior != null ? ior.getResource() : null), startTime, new Date(), status);
+                    RestAuditLogger.logCreate(getHttpServletRequest(), (ior != null ? ior.getResource() : null), startTime, new Date(), status);
                 } catch (Exception e) {
                     log.log(Level.INFO, errMsg, e);
                 }
@@ -1315,9 +1372,9 @@ public class FHIRResource implements FHIRResourceHelpers {
                 // if fails to log, then log the error in local log file and ignore.
                 try {
                     if (patch != null) {
-                        RestAuditLogger.logPatch(httpServletRequest, (ior != null ? ior.getPrevResource() : null), (ior != null ? ior.getResource() : null), startTime, new Date(), status);
+                        RestAuditLogger.logPatch(getHttpServletRequest(), (ior != null ? ior.getPrevResource() : null), (ior != null ? ior.getResource() : null), startTime, new Date(), status);
                     } else {
-                        RestAuditLogger.logUpdate(httpServletRequest, (ior != null ? ior.getPrevResource() : null), (ior != null ? ior.getResource() : null), startTime, new Date(), status);
+                        RestAuditLogger.logUpdate(getHttpServletRequest(), (ior != null ? ior.getPrevResource() : null), (ior != null ? ior.getResource() : null), startTime, new Date(), status);
                     }
                 } catch (Exception e) {
                     log.log(Level.INFO, errMsg, e);
@@ -1353,7 +1410,7 @@ public class FHIRResource implements FHIRResourceHelpers {
         FHIRRestOperationResponse ior = new FHIRRestOperationResponse();
 
         // Pass end time the same as start time to tell cadf log service that this is a pending request.
-        RestAuditLogger.logDelete(httpServletRequest, null, startTime, startTime, Response.Status.OK);
+        RestAuditLogger.logDelete(getHttpServletRequest(), null, startTime, startTime, Response.Status.OK);
 
         try {
             String resourceTypeName = type;
@@ -1435,6 +1492,11 @@ public class FHIRResource implements FHIRResourceHelpers {
             event.setFhirResource(resourceToDelete);
             getInterceptorMgr().fireBeforeDeleteEvent(event);
 
+            // Let the persistence layer reuse the resource we already read rather than reading it again.
+            if (resourceToDelete != null && event.getFhirResource() == resourceToDelete) {
+                event.setPrevFhirResource(resourceToDelete);
+            }
+
             FHIRPersistenceContext persistenceContext = FHIRPersistenceContextFactory.createPersistenceContext(event);
 
             Resource resource = getPersistenceImpl().delete(persistenceContext, resourceType, id);
@@ -1483,7 +1545,7 @@ public class FHIRResource implements FHIRResourceHelpers {
             // Now Audit log the final status of the request,
             // if fails to log, then log the error in local log file and ignore.
             try {
-                RestAuditLogger.logDelete(httpServletRequest, ior != null ? ior.getResource() : null, startTime, new Date(), status);
+                RestAuditLogger.logDelete(getHttpServletRequest(), ior != null ? ior.getResource() : null, startTime, new Date(), status);
             } catch (Exception e) {
                 log.log(Level.INFO, errMsg, e);
             }
@@ -1492,6 +1554,44 @@ public class FHIRResource implements FHIRResourceHelpers {
         }
     }
 
+    /**
+     * Retrieves the version information of the current version of a resource (including a deleted one)
+     * without reading the resource itself.
+     * 
+     * @return the version information, or null if the resource does not exist
+     */
+    private ResourceVersionInfo doReadVersionInfo(String type, Class<? extends Resource> resourceType, String id,
+        Map<String, String> requestProperties) throws Exception {
+        FHIRTransactionHelper txn = new FHIRTransactionHelper(getTransaction());
+        try {
+            txn.begin();
+            FHIRPersistenceEvent event = new FHIRPersistenceEvent(null, buildPersistenceEventProperties(type, id, null, requestProperties));
+            FHIRPersistenceContext persistenceContext = FHIRPersistenceContextFactory.createPersistenceContext(event, true);
+            ResourceVersionInfo versionInfo = getPersistenceImpl().readVersionInfo(persistenceContext, resourceType, id);
+            txn.commit();
+            txn = null;
+            return versionInfo;
+        } finally {
+            if (txn != null) {
+                txn.rollback();
+            }
+        }
+    }
+
+    /**
+     * Reads the "previous resource" of an update on behalf of an interceptor that asked for it. The version is read
+     * explicitly because an 'after' interceptor runs once the update has made a new version current.
+     */
+    private Resource loadPrevResource(Class<? extends Resource> resourceType, String id, ResourceVersionInfo prevVersionInfo,
+        FHIRPersistenceEvent event) {
+        try {
+            FHIRPersistenceContext persistenceContext = FHIRPersistenceContextFactory.createPersistenceContext(event, true);
+            return getPersistenceImpl().vread(persistenceContext, resourceType, id, Integer.toString(prevVersionInfo.getVersionId()));
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to read resource '" + resourceType.getSimpleName() + "/" + id + "'", e);
+        }
+    }
+
     /**
      * Performs a 'read' operation to retrieve a Resource.
      * 
@@ -1592,7 +1692,7 @@ public class FHIRResource implements FHIRResourceHelpers {
             // Now Audit log the final status of the request,
             // if fails to log, then log the error in local log file and ignore.
             try {
-                RestAuditLogger.logRead(httpServletRequest, resource, startTime, new Date(), status);
+                RestAuditLogger.logRead(getHttpServletRequest(), resource, startTime, new Date(), status);
             } catch (Exception e) {
                 log.log(Level.INFO, errMsg, e);
             }
@@ -1703,7 +1803,7 @@ public class FHIRResource implements FHIRResourceHelpers {
             // Now Audit log the final status of the request,
             // if fails to log, then log the error in local log file and ignore.
             try {
-                RestAuditLogger.logVersionRead(httpServletRequest, resource, startTime, new Date(), status);
+                RestAuditLogger.logVersionRead(getHttpServletRequest(), resource, startTime, new Date(), status);
             } catch (Exception e) {
                 log.log(Level.INFO, errMsg, e);
             }
@@ -1805,7 +1905,7 @@ public class FHIRResource implements FHIRResourceHelpers {
             // Now Audit log the final status of the request,
             // if fails to log, then log the error in local log file and ignore.
             try {
-                RestAuditLogger.logHistory(httpServletRequest, bundle, startTime, new Date(), status);
+                RestAuditLogger.logHistory(getHttpServletRequest(), bundle, startTime, new Date(), status);
             } catch (Exception e) {
                 log.log(Level.INFO, errMsg, e);
             }
@@ -1867,7 +1967,7 @@ public class FHIRResource implements FHIRResourceHelpers {
             getInterceptorMgr().fireBeforeSearchEvent(event);
 
             FHIRSearchContext searchContext =
-                    SearchUtil.parseQueryParameters(compartment, compartmentId, resourceType, queryParameters, httpServletRequest.getQueryString(), isSearchLenient(requestProperties));
+                    SearchUtil.parseQueryParameters(compartment, compartmentId, resourceType, queryParameters, getHttpServletRequest().getQueryString(), isSearchLenient(requestProperties));
             List<Parameter> searchParameters = searchContext.getSearchParameters();
             if (implicitSearchParameter != null) {
                 searchParameters.add(implicitSearchParameter);
@@ -1916,7 +2016,7 @@ public class FHIRResource implements FHIRResourceHelpers {
             // Now Audit log the final status of the request,
             // if fails to log, then log the error in local log file and ignore.
             try {
-                RestAuditLogger.logSearch(httpServletRequest, queryParameters, bundle, startTime, new Date(), status);
+                RestAuditLogger.logSearch(getHttpServletRequest(), queryParameters, bundle, startTime, new Date(), status);
             } catch (Exception e) {
                 log.log(Level.INFO, errMsg, e);
             }
@@ -1948,7 +2048,7 @@ public class FHIRResource implements FHIRResourceHelpers {
         if (requestProperties != null && requestProperties.containsKey(headerName)) {
             headerStringValue = requestProperties.get(headerName);
         } else {
-            headerStringValue = httpHeaders.getHeaderString(headerName);
+            headerStringValue = getHttpHeaders().getHeaderString(headerName);
         }
 
         if (headerStringValue == null) {
@@ -2031,7 +2131,7 @@ public class FHIRResource implements FHIRResourceHelpers {
         FHIRRequestContext requestContext = FHIRRequestContext.get();
 
         // Pass end time the same as start time to tell cadf log service that this is a pending request.
-        RestAuditLogger.logOperation(httpServletRequest, operationName, resourceTypeName, logicalId, versionId, startTime, startTime, Response.Status.OK);
+        RestAuditLogger.logOperation(getHttpServletRequest(), operationName, resourceTypeName, logicalId, versionId, startTime, startTime, Response.Status.OK);
 
         try {
             Class<? extends Resource> resourceType = null;
@@ -2090,7 +2190,7 @@ public class FHIRResource implements FHIRResourceHelpers {
             // Now Audit log the final status of the request,
             // if fails to log, then log the error in local log file and ignore.
             try {
-                RestAuditLogger.logOperation(httpServletRequest, operationName, resourceTypeName, logicalId, versionId, startTime, new Date(), status);
+                RestAuditLogger.logOperation(getHttpServletRequest(), operationName, resourceTypeName, logicalId, versionId, startTime, new Date(), status);
             } catch (Exception e) {
                 log.log(Level.INFO, errMsg, e);
             }
@@ -2120,7 +2220,7 @@ public class FHIRResource implements FHIRResourceHelpers {
         FHIRRequestContext requestContext = FHIRRequestContext.get();
 
         // Pass end time the same as start time to tell cadf log service that this is a pending request.
-        RestAuditLogger.logBundle(httpServletRequest, bundleResource instanceof Bundle ? (Bundle) bundleResource
+        RestAuditLogger.logBundle(getHttpServletRequest(), bundleResource instanceof Bundle ? (Bundle) bundleResource
                 : null, startTime, startTime, Response.Status.OK);
 
         try {
@@ -2157,7 +2257,7 @@ public class FHIRResource implements FHIRResourceHelpers {
             // Now Audit log the final status of the request,
             // if fails to log, then log the error in local log file and ignore.
             try {
-                RestAuditLogger.logBundle(httpServletRequest, inputBundle, startTime, new Date(), status);
+                RestAuditLogger.logBundle(getHttpServletRequest(), inputBundle, startTime, new Date(), status);
             } catch (Exception e) {
                 log.log(Level.INFO, errMsg, e);
             }
@@ -2186,9 +2286,10 @@ public class FHIRResource implements FHIRResourceHelpers {
         operationContext.setProperty(FHIROperationContext.PROPNAME_REQUEST_BASE_URI, getRequestBaseUri());
         operationContext.setProperty(FHIROperationContext.PROPNAME_RESOURCE_HELPER, this);
         operationContext.setProperty(FHIROperationContext.PROPNAME_PERSISTENCE_IMPL, getPersistenceImpl());
-        operationContext.setProperty(FHIROperationContext.PROPNAME_URI_INFO, uriInfo);
-        operationContext.setProperty(FHIROperationContext.PROPNAME_HTTP_HEADERS, httpHeaders);
-        operationContext.setProperty(FHIROperationContext.PROPNAME_SECURITY_CONTEXT, securityContext);
+        operationContext.setProperty(FHIROperationContext.PROPNAME_PERSISTENCE_HELPER, getPersistenceHelper());
+        operationContext.setProperty(FHIROperationContext.PROPNAME_URI_INFO, getUriInfo());
+        operationContext.setProperty(FHIROperationContext.PROPNAME_HTTP_HEADERS, getHttpHeaders());
+        operationContext.setProperty(FHIROperationContext.PROPNAME_SECURITY_CONTEXT, getSecurityContext());
         operationContext.setProperty(FHIROperationContext.PROPNAME_REQUEST_PROPERTIES, requestProperties);
     }
     
@@ -2374,7 +2475,7 @@ public class FHIRResource implements FHIRResourceHelpers {
      * @param currentResource
      *            the current latest version of the resource
      */
-    private void performVersionAwareUpdateCheck(Resource currentResource, String ifMatchValue) throws FHIRHttpException {
+    private void performVersionAwareUpdateCheck(String currentVersion, String ifMatchValue) throws FHIRHttpException {
         if (ifMatchValue != null) {
             log.fine("Performing a version aware update. ETag value =  " + ifMatchValue);
 
@@ -2388,12 +2489,6 @@ public class FHIRResource implements FHIRResourceHelpers {
 
             log.fine("Version id from ETag value specified in request: " + ifMatchVersion);
 
-            // Retrieve the version #'s from the current and updated resources.
-            String currentVersion = null;
-            if (currentResource.getMeta() != null && currentResource.getMeta().getVersionId() != null) {
-                currentVersion = currentResource.getMeta().getVersionId().getValue();
-            }
-
             // Next, make sure that the If-Match version matches the version # found
             // in the current latest version of the resource.
             // If they don't match we'll return a 409 Conflict status code.
@@ -2473,15 +2568,18 @@ public class FHIRResource implements FHIRResourceHelpers {
 
             Map<String, String> localRefMap = new HashMap<>();
 
+            // The request proxies can only be used on this thread, so the entries use a copy of the request.
+            RequestSnapshot requestSnapshot = captureRequest();
+
             // Next, process entries in the correct order.
             responseBundle =
-                    processEntriesForMethod(requestBundle, responseBundle, HTTPVerb.DELETE, txn != null, localRefMap, requestProperties, bundleRequestCorrelationId);
+                    processEntriesForMethod(requestBundle, responseBundle, HTTPVerb.DELETE, txn != null, localRefMap, requestProperties, bundleRequestCorrelationId, requestSnapshot);
             responseBundle =
-                    processEntriesForMethod(requestBundle, responseBundle, HTTPVerb.POST, txn != null, localRefMap, requestProperties, bundleRequestCorrelationId);
+                    processEntriesForMethod(requestBundle, responseBundle, HTTPVerb.POST, txn != null, localRefMap, requestProperties, bundleRequestCorrelationId, requestSnapshot);
             responseBundle =
-                    processEntriesForMethod(requestBundle, responseBundle, HTTPVerb.PUT, txn != null, localRefMap, requestProperties, bundleRequestCorrelationId);
+                    processEntriesForMethod(requestBundle, responseBundle, HTTPVerb.PUT, txn != null, localRefMap, requestProperties, bundleRequestCorrelationId, requestSnapshot);
             responseBundle =
-                    processEntriesForMethod(requestBundle, responseBundle, HTTPVerb.GET, txn != null, localRefMap, requestProperties, bundleRequestCorrelationId);
+                    processEntriesForMethod(requestBundle, responseBundle, HTTPVerb.GET, txn != null, localRefMap, requestProperties, bundleRequestCorrelationId, requestSnapshot);
 
             if (txn != null) {
                 log.fine("Committing transaction for transaction bundle, txn-correlation-id=" + bundleTransactionCorrelationId);
@@ -2514,9 +2612,11 @@ public class FHIRResource implements FHIRResourceHelpers {
      *            the bundle containing the corresponding response entries
      * @param httpMethod
      *            the HTTP method (GET, POST, PUT, etc.) to be processed
+     * @param requestSnapshot
+     *            the copy of the bundle request, taken on the request thread
      */
     private Bundle processEntriesForMethod(Bundle requestBundle, Bundle responseBundle, HTTPVerb httpMethod, boolean failFast, Map<String, String> localRefMap,
-        Map<String, String> bundleRequestProperties, String bundleRequestCorrelationId) throws Exception {
+        Map<String, String> bundleRequestProperties, String bundleRequestCorrelationId, RequestSnapshot requestSnapshot) throws Exception {
         log.entering(this.getClass().getName(), "processEntriesForMethod", new Object[] { "httpMethod", httpMethod });
         try {
             // First, obtain a list of request entry indices for the entries that we'll process.
@@ -2552,388 +2652,745 @@ public class FHIRResource implements FHIRResourceHelpers {
             }
 
             // Now visit each of the request entries using the list of indices obtained above.
-            // Use hashmap to store both the index and the according updated response bundle entry.
-            HashMap<Integer, Bundle.Entry> responseIndexAndEntries = new HashMap<Integer, Bundle.Entry>();
-            for (Integer entryIndex : entryIndices) {
-                Bundle.Entry requestEntry = requestBundle.getEntry().get(entryIndex);
-                Bundle.Entry responseEntry = responseBundle.getEntry().get(entryIndex);
-                Bundle.Entry.Builder responseEntryBuilder = responseEntry.toBuilder();
-
-                Bundle.Entry.Request request = requestEntry.getRequest();
-                Bundle.Entry.Response response = responseEntry.getResponse();
-
-                StringBuffer requestDescription = new StringBuffer();
-                long initialTime = System.currentTimeMillis();
-                try {
-                    FHIRUrlParser requestURL = new FHIRUrlParser(request.getUrl().getValue());
-
-                    String path = requestURL.getPath();
-                    String query = requestURL.getQuery();
-                    if (log.isLoggable(Level.FINER)) {
-                        log.finer("Processing bundle request entry " + entryIndex + "; method=" + request.getMethod().getValue() + ", url="
-                                + request.getUrl().getValue());
-                        log.finer("--> path: " + path);
-                        log.finer("--> query: " + query);
+            // Use a map to store both the index and the according updated response bundle entry.
+            Map<Integer, Bundle.Entry> responseIndexAndEntries = new ConcurrentHashMap<Integer, Bundle.Entry>();
+            if (failFast) {
+                // The entries of a transaction bundle are processed in order. Plain creates are validated up front
+                // and stored with a single call to the persistence layer after the other POST entries; the
+                // resources of PUT entries are validated up front as well.
+                Map<Integer, Resource> preparedResources = new ConcurrentHashMap<Integer, Resource>();
+                List<Integer> groupedCreateIndices = Collections.emptyList();
+                if (httpMethod.equals(HTTPVerb.POST) && getPersistenceImpl().isCreateAllSupported()) {
+                    groupedCreateIndices = getGroupedCreateIndices(requestBundle, entryIndices);
+                    assignGroupedCreateIds(requestBundle, responseBundle, groupedCreateIndices, localRefMap, bundleRequestCorrelationId,
+                        preparedResources, responseIndexAndEntries);
+                } else if (httpMethod.equals(HTTPVerb.PUT)) {
+                    for (Integer entryIndex : entryIndices) {
+                        Resource resource = requestBundle.getEntry().get(entryIndex).getResource();
+                        if (resource != null) {
+                            preparedResources.put(entryIndex, resource);
+                        }
                     }
+                    prepareBundleEntryResources(requestBundle, responseBundle, localRefMap, bundleRequestCorrelationId, preparedResources,
+                        responseIndexAndEntries);
+                }
 
-                    // Log our initial info message for this request.
-                    requestDescription.append("entryIndex:[");
-                    requestDescription.append(entryIndex);
-                    requestDescription.append("] correlationId:[");
-                    requestDescription.append(bundleRequestCorrelationId);
-                    requestDescription.append("] method:[");
-                    requestDescription.append(request.getMethod().getValue());
-                    requestDescription.append("] uri:[");
-                    requestDescription.append(request.getUrl().getValue());
-                    requestDescription.append("]");
-                    log.info("Received bundle request: " + requestDescription.toString());
-
-                    String[] pathTokens = requestURL.getPathTokens();
-                    MultivaluedMap<String, String> queryParams = requestURL.getQueryParameters();
-
-                    // Construct the absolute requestUri to be used for any response bundles associated
-                    // with history and search requests.
-                    String absoluteUri = getAbsoluteUri(getRequestUri(), request.getUrl().getValue());
-
-                    Map<String, String> requestProperties = extractRequestPropertiesFromExtensions(request.getExtension(), bundleRequestProperties);
-
-                    if (request.getMethod().equals(HTTPVerb.GET)) {
-                        Resource resource = null;
-                        int httpStatus = SC_OK;
-
-                        // Process a GET (read, vread, history, search, etc.).
-                        // Determine the type of request from the path tokens.
-                        if (pathTokens.length > 0 && pathTokens[pathTokens.length - 1].startsWith("$")) {
-                            // This is a custom operation request
-                            checkInitComplete();
-
-                            // Chop off the '$' and save the name
-                            String operationName = pathTokens[pathTokens.length - 1].substring(1);
-
-                            // FHIROperationContext operationContext;
-                            switch (pathTokens.length) {
-                            case 1: {
-                                FHIROperationContext operationContext = FHIROperationContext.createSystemOperationContext();
-                                resource = doInvoke(operationContext, null, null, null, operationName, null, queryParams, null);
-                            }
-                                break;
-                            case 2: {
-                                FHIROperationContext operationContext = FHIROperationContext.createResourceTypeOperationContext();
-                                resource = doInvoke(operationContext, pathTokens[0], null, null, operationName, null, queryParams, null);
-                            }
-                                break;
-                            case 3: {
-                                FHIROperationContext operationContext = FHIROperationContext.createInstanceOperationContext();
-                                resource = doInvoke(operationContext, pathTokens[0], pathTokens[1], null, operationName, null, queryParams, null);
-                            }
-                                break;
-                            default:
-                                String msg = "Invalid URL for custom operation '" + pathTokens[pathTokens.length - 1] + "'";
-                                throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.NOT_FOUND);
-                            }
-                        } else if (pathTokens.length == 1) {
-                            // This is a 'search' request.
-                            if ("_search".equals(pathTokens[0])) {
-                                resource = doSearch("Resource", null, null, queryParams, absoluteUri, requestProperties, null);
-                            } else {
-                                resource = doSearch(pathTokens[0], null, null, queryParams, absoluteUri, requestProperties, null);
-                            }
-                        } else if (pathTokens.length == 2) {
-                            // This is a 'read' request.
-                            resource = doRead(pathTokens[0], pathTokens[1], true, false, requestProperties, null);
-                        } else if (pathTokens.length == 3) {
-                            if ("_history".equals(pathTokens[2])) {
-                                // This is a 'history' request.
-                                resource = doHistory(pathTokens[0], pathTokens[1], queryParams, absoluteUri, requestProperties);
-                            } else {
-                                // This is a compartment based search
-                                resource = doSearch(pathTokens[2], pathTokens[0], pathTokens[1], queryParams, absoluteUri, requestProperties, null);
-                            }
-                        } else if (pathTokens.length == 4 && pathTokens[2].equals("_history")) {
-                            // This is a 'vread' request.
-                            resource = doVRead(pathTokens[0], pathTokens[1], pathTokens[3], requestProperties);
-                        } else {
-                            String msg = "Unrecognized path in request URL: " + path;
-                            throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.NOT_FOUND);
-                        }
+                for (Integer entryIndex : entryIndices) {
+                    if (!groupedCreateIndices.contains(entryIndex)) {
+                        processBundleEntry(requestBundle, responseBundle, entryIndex, failFast, localRefMap, bundleRequestProperties,
+                            bundleRequestCorrelationId, requestSnapshot, preparedResources, responseIndexAndEntries);
+                    }
+                }
 
-                        // Save the results of the operation in the bundle response field.
-                        Bundle.Entry.Response.Builder responseBuilder = response.toBuilder();
-                        responseBuilder.status(string(Integer.toString(httpStatus)));
-                        setBundleResponseStatus(response, httpStatus, requestDescription.toString(), initialTime);
-
-                        responseIndexAndEntries.put(entryIndex, responseEntryBuilder.resource(resource).response(responseBuilder.build()).build());
-                    } else if (request.getMethod().equals(HTTPVerb.POST)) {
-                        // Process a POST (create or search, or custom operation).
-                        if (pathTokens.length > 0 && pathTokens[pathTokens.length - 1].startsWith("$")) {
-                            // This is a custom operation request
-                            checkInitComplete();
-
-                            // Chop off the '$' and save the name
-                            String operationName = pathTokens[pathTokens.length - 1].substring(1);
-
-                            // Retrieve the resource from the request entry.
-                            Resource resource = requestEntry.getResource();
-
-                            FHIROperationContext operationContext;
-                            Resource result;
-                            switch (pathTokens.length) {
-                            case 1:
-                                operationContext = FHIROperationContext.createSystemOperationContext();
-                                result = doInvoke(operationContext, null, null, null, operationName, resource, queryParams, null);
-                                break;
-                            case 2:
-                                operationContext = FHIROperationContext.createResourceTypeOperationContext();
-                                result = doInvoke(operationContext, pathTokens[0], null, null, operationName, resource, queryParams, null);
-                                break;
-                            case 3:
-                                operationContext = FHIROperationContext.createInstanceOperationContext();
-                                result = doInvoke(operationContext, pathTokens[0], pathTokens[1], null, operationName, resource, queryParams, null);
-                                break;
-                            default:
-                                String msg = "Invalid URL for custom operation '" + pathTokens[pathTokens.length - 1] + "'";
-                                throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.NOT_FOUND);
-                            }
+                if (!groupedCreateIndices.isEmpty()) {
+                    prepareBundleEntryResources(requestBundle, responseBundle, localRefMap, bundleRequestCorrelationId, preparedResources,
+                        responseIndexAndEntries);
+                    processGroupedCreates(requestBundle, responseBundle, groupedCreateIndices, bundleRequestProperties, bundleRequestCorrelationId,
+                        preparedResources, responseIndexAndEntries);
+                }
+            } else {
+                // The entries of a batch bundle are independent, so they may be processed in parallel.
+                final Bundle finalResponseBundle = responseBundle;
+                getBatchEntryExecutor().execute(groupBatchEntries(requestBundle, httpMethod, entryIndices),
+                    new BatchEntryProcessor(entryIndex -> processBundleEntry(requestBundle, finalResponseBundle, entryIndex, failFast,
+                        localRefMap, bundleRequestProperties, bundleRequestCorrelationId, requestSnapshot, Collections.emptyMap(),
+                        responseIndexAndEntries), true));
+            }
+            // Now, let's re-construct the responseBundle
+            responseBundle = reconstructResponseBundle(responseBundle, responseIndexAndEntries);
+            return responseBundle;
 
-                            Bundle.Entry.Response.Builder responseBuilder = response.toBuilder();
-                            // Add warning and hint issues to response outcome if any.
-                            if (result instanceof OperationOutcome) {
-                                if (((OperationOutcome)result).getIssue() != null) {
-                                    responseBuilder.outcome(result);
-                                }
-                            }
+        } finally {
+            log.exiting(this.getClass().getName(), "processEntriesForMethod");
+        }
+    }
 
-                            responseBuilder.status(string(Integer.toString(SC_OK)));
-                            responseIndexAndEntries.put(entryIndex, responseEntryBuilder.resource(result).response(responseBuilder.build()).build());
-                            setBundleResponseStatus(response, SC_OK, requestDescription.toString(), initialTime);
+    /**
+     * Processes a single request entry of the specified request bundle and stores the corresponding response entry
+     * in 'responseIndexAndEntries'.
+     *
+     * @param entryIndex
+     *            the index of the request entry to be processed
+     * @param failFast
+     *            if true, an error response is thrown as a FHIRRestBundledRequestException
+     * @param requestSnapshot
+     *            the copy of the bundle request, which the entry uses instead of the request proxies
+     * @param preparedResources
+     *            the resources of the request entries whose local references were already resolved, by entry index
+     */
+    private void processBundleEntry(Bundle requestBundle, Bundle responseBundle, Integer entryIndex, boolean failFast, Map<String, String> localRefMap,
+        Map<String, String> bundleRequestProperties, String bundleRequestCorrelationId, RequestSnapshot requestSnapshot, Map<Integer, Resource> preparedResources,
+        Map<Integer, Bundle.Entry> responseIndexAndEntries) throws Exception {
+        RequestSnapshot previousSnapshot = batchEntryRequest.get();
+        batchEntryRequest.set(requestSnapshot);
+        try {
+            processBundleEntry(requestBundle, responseBundle, entryIndex, failFast, localRefMap, bundleRequestProperties, bundleRequestCorrelationId,
+                requestSnapshot.getRequestUri(), preparedResources, responseIndexAndEntries);
+        } finally {
+            if (previousSnapshot != null) {
+                batchEntryRequest.set(previousSnapshot);
+            } else {
+                batchEntryRequest.remove();
+            }
+        }
+    }
 
-                        } else if (pathTokens.length == 2 && "_search".equals(pathTokens[1])) {
-                            // This is a 'search' request.
-                            Bundle searchResults = doSearch(pathTokens[0], null, null, queryParams, absoluteUri, requestProperties, null);
+    private void processBundleEntry(Bundle requestBundle, Bundle responseBundle, Integer entryIndex, boolean failFast, Map<String, String> localRefMap,
+        Map<String, String> bundleRequestProperties, String bundleRequestCorrelationId, String requestUri, Map<Integer, Resource> preparedResources,
+        Map<Integer, Bundle.Entry> responseIndexAndEntries) throws Exception {
+        Bundle.Entry requestEntry = requestBundle.getEntry().get(entryIndex);
+        Bundle.Entry responseEntry = responseBundle.getEntry().get(entryIndex);
+        Bundle.Entry.Builder responseEntryBuilder = responseEntry.toBuilder();
 
-                            // Save the results of the operation in the bundle response field.
-                            Bundle.Entry.Response.Builder responseBuilder = response.toBuilder();
-                            responseBuilder.status(string(Integer.toString(SC_OK)));
+        Bundle.Entry.Request request = requestEntry.getRequest();
+        Bundle.Entry.Response response = responseEntry.getResponse();
 
-                            responseIndexAndEntries.put(entryIndex, responseEntryBuilder.resource(searchResults).response(responseBuilder.build()).build());
+        StringBuffer requestDescription = new StringBuffer();
+        long initialTime = System.currentTimeMillis();
+        try {
+            FHIRUrlParser requestURL = new FHIRUrlParser(request.getUrl().getValue());
+
+            String path = requestURL.getPath();
+            String query = requestURL.getQuery();
+            if (log.isLoggable(Level.FINER)) {
+                log.finer("Processing bundle request entry " + entryIndex + "; method=" + request.getMethod().getValue() + ", url="
+                        + request.getUrl().getValue());
+                log.finer("--> path: " + path);
+                log.finer("--> query: " + query);
+            }
 
-                            setBundleResponseStatus(response, SC_OK, requestDescription.toString(), initialTime);
-                        } else if (pathTokens.length == 1) {
-                            // This is a 'create' request.
+            // Log our initial info message for this request.
+            requestDescription.append(buildRequestDescription(entryIndex, bundleRequestCorrelationId, request));
+            log.info("Received bundle request: " + requestDescription.toString());
 
-                            // Retrieve the local identifier from the request entry (if present).
-                            String localIdentifier = retrieveLocalIdentifier(requestEntry, localRefMap);
+            String[] pathTokens = requestURL.getPathTokens();
+            MultivaluedMap<String, String> queryParams = requestURL.getQueryParameters();
 
-                            // Retrieve the resource from the request entry.
-                            Resource resource = requestEntry.getResource();
-                            if (resource == null) {
-                                String msg = "BundleEntry.resource is required for bundled create requests.";
-                                throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.NOT_FOUND);
-                            }
+            // Construct the absolute requestUri to be used for any response bundles associated
+            // with history and search requests.
+            String absoluteUri = getAbsoluteUri(requestUri, request.getUrl().getValue());
 
-                            // Convert any local references found within the resource to their
-                            // corresponding external reference.
+            Map<String, String> requestProperties = extractRequestPropertiesFromExtensions(request.getExtension(), bundleRequestProperties);
 
-                            ReferenceMappingVisitor<Resource> visitor = new ReferenceMappingVisitor<Resource>(localRefMap);
-                            resource.accept(visitor);
-                            final String errorMsg = visitor.getErrorMsg();
-                            if (errorMsg != null) {
-                                final String location = "<empty>";
-                                OperationOutcome.Issue ooi =
-                                        FHIRUtil.buildOperationOutcomeIssue(IssueSeverity.ValueSet.FATAL, IssueType.ValueSet.INVALID, errorMsg, location);
+            if (request.getMethod().equals(HTTPVerb.GET)) {
+                Resource resource = null;
+                int httpStatus = SC_OK;
 
-                                throw new FHIRHttpException(errorMsg, Status.BAD_REQUEST).withIssue(ooi);
-                            }
-                            resource = visitor.getResult();
+                // Process a GET (read, vread, history, search, etc.).
+                // Determine the type of request from the path tokens.
+                if (pathTokens.length > 0 && pathTokens[pathTokens.length - 1].startsWith("$")) {
+                    // This is a custom operation request
+                    checkInitComplete();
 
-                            // Perform the 'create' operation.
-                            String ifNoneExist = request.getIfNoneExist() != null ? request.getIfNoneExist().getValue() : null;
-                            FHIRRestOperationResponse ior = doCreate(pathTokens[0], resource, ifNoneExist, requestProperties);
-                            
-                            // Get the updated resource from FHIRRestOperationResponse which has the correct ID, meta etc.
-                            resource = ior.getResource();
+                    // Chop off the '$' and save the name
+                    String operationName = pathTokens[pathTokens.length - 1].substring(1);
 
-                            // Process and replace bundler Entry
-                            Bundle.Entry resultEntry =
-                                    setBundleResponseFields(responseEntry, ior.getResource(), ior.getLocationURI(), ior.getStatus().getStatusCode(), requestDescription.toString(), initialTime);
+                    // FHIROperationContext operationContext;
+                    switch (pathTokens.length) {
+                    case 1: {
+                        FHIROperationContext operationContext = FHIROperationContext.createSystemOperationContext();
+                        resource = doInvoke(operationContext, null, null, null, operationName, null, queryParams, null);
+                    }
+                        break;
+                    case 2: {
+                        FHIROperationContext operationContext = FHIROperationContext.createResourceTypeOperationContext();
+                        resource = doInvoke(operationContext, pathTokens[0], null, null, operationName, null, queryParams, null);
+                    }
+                        break;
+                    case 3: {
+                        FHIROperationContext operationContext = FHIROperationContext.createInstanceOperationContext();
+                        resource = doInvoke(operationContext, pathTokens[0], pathTokens[1], null, operationName, null, queryParams, null);
+                    }
+                        break;
+                    default:
+                        String msg = "Invalid URL for custom operation '" + pathTokens[pathTokens.length - 1] + "'";
+                        throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.NOT_FOUND);
+                    }
+                } else if (pathTokens.length == 1) {
+                    // This is a 'search' request.
+                    if ("_search".equals(pathTokens[0])) {
+                        resource = doSearch("Resource", null, null, queryParams, absoluteUri, requestProperties, null);
+                    } else {
+                        resource = doSearch(pathTokens[0], null, null, queryParams, absoluteUri, requestProperties, null);
+                    }
+                } else if (pathTokens.length == 2) {
+                    // This is a 'read' request.
+                    resource = doRead(pathTokens[0], pathTokens[1], true, false, requestProperties, null);
+                } else if (pathTokens.length == 3) {
+                    if ("_history".equals(pathTokens[2])) {
+                        // This is a 'history' request.
+                        resource = doHistory(pathTokens[0], pathTokens[1], queryParams, absoluteUri, requestProperties);
+                    } else {
+                        // This is a compartment based search
+                        resource = doSearch(pathTokens[2], pathTokens[0], pathTokens[1], queryParams, absoluteUri, requestProperties, null);
+                    }
+                } else if (pathTokens.length == 4 && pathTokens[2].equals("_history")) {
+                    // This is a 'vread' request.
+                    resource = doVRead(pathTokens[0], pathTokens[1], pathTokens[3], requestProperties);
+                } else {
+                    String msg = "Unrecognized path in request URL: " + path;
+                    throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.NOT_FOUND);
+                }
 
-                            responseIndexAndEntries.put(entryIndex, resultEntry);
+                // Save the results of the operation in the bundle response field.
+                Bundle.Entry.Response.Builder responseBuilder = response.toBuilder();
+                responseBuilder.status(string(Integer.toString(httpStatus)));
+                setBundleResponseStatus(response, httpStatus, requestDescription.toString(), initialTime);
+
+                responseIndexAndEntries.put(entryIndex, responseEntryBuilder.resource(resource).response(responseBuilder.build()).build());
+            } else if (request.getMethod().equals(HTTPVerb.POST)) {
+                // Process a POST (create or search, or custom operation).
+                if (pathTokens.length > 0 && pathTokens[pathTokens.length - 1].startsWith("$")) {
+                    // This is a custom operation request
+                    checkInitComplete();
+
+                    // Chop off the '$' and save the name
+                    String operationName = pathTokens[pathTokens.length - 1].substring(1);
+
+                    // Retrieve the resource from the request entry.
+                    Resource resource = requestEntry.getResource();
+
+                    FHIROperationContext operationContext;
+                    Resource result;
+                    switch (pathTokens.length) {
+                    case 1:
+                        operationContext = FHIROperationContext.createSystemOperationContext();
+                        result = doInvoke(operationContext, null, null, null, operationName, resource, queryParams, null);
+                        break;
+                    case 2:
+                        operationContext = FHIROperationContext.createResourceTypeOperationContext();
+                        result = doInvoke(operationContext, pathTokens[0], null, null, operationName, resource, queryParams, null);
+                        break;
+                    case 3:
+                        operationContext = FHIROperationContext.createInstanceOperationContext();
+                        result = doInvoke(operationContext, pathTokens[0], pathTokens[1], null, operationName, resource, queryParams, null);
+                        break;
+                    default:
+                        String msg = "Invalid URL for custom operation '" + pathTokens[pathTokens.length - 1] + "'";
+                        throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.NOT_FOUND);
+                    }
 
-                            // Next, if a local identifier was present, we'll need to map this to the
-                            // correct external identifier (e.g. Patient/12345).
-                            addLocalRefMapping(localRefMap, localIdentifier, resource);
-                        } else {
-                            String msg = "Request URL for bundled create requests should have a path with exactly one token (<resourceType>).";
-                            throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.NOT_FOUND);
-                        }
-                    } else if (request.getMethod().equals(HTTPVerb.PUT)) {
-                        String type = null;
-                        String id = null;
-
-                        // Process a PUT (update).
-                        if (pathTokens.length == 1) {
-                            // A single-part url would be a conditional update: <type>?<query>
-                            type = pathTokens[0];
-                            if (query == null || query.isEmpty()) {
-                                String msg = "A search query string is required for a conditional update operation.";
-                                throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.INVALID);
-                            }
-                        } else if (pathTokens.length == 2) {
-                            // A two-part url would be a normal update: <type>/<id>.
-                            type = pathTokens[0];
-                            id = pathTokens[1];
-                        } else {
-                            // A url with any other pattern is an error.
-                            String msg =
-                                    "Request URL for bundled PUT request should have path part with either one or two tokens (<resourceType> or <resourceType>/<id>).";
-                            throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.INVALID);
+                    Bundle.Entry.Response.Builder responseBuilder = response.toBuilder();
+                    // Add warning and hint issues to response outcome if any.
+                    if (result instanceof OperationOutcome) {
+                        if (((OperationOutcome)result).getIssue() != null) {
+                            responseBuilder.outcome(result);
                         }
+                    }
 
-                        // Retrieve the resource from the request entry.
-                        Resource resource = requestEntry.getResource();
+                    responseBuilder.status(string(Integer.toString(SC_OK)));
+                    responseIndexAndEntries.put(entryIndex, responseEntryBuilder.resource(result).response(responseBuilder.build()).build());
+                    setBundleResponseStatus(response, SC_OK, requestDescription.toString(), initialTime);
 
-                        // Convert any local references found within the resource to their
-                        // corresponding external reference.
-                        ReferenceMappingVisitor<Resource> visitor = new ReferenceMappingVisitor<Resource>(localRefMap);
-                        resource.accept(visitor);
-                        final String errorMsg = visitor.getErrorMsg();
-                        if (errorMsg != null) {
-                            final String location = "<empty>";
-                            OperationOutcome.Issue ooi =
-                                    FHIRUtil.buildOperationOutcomeIssue(IssueSeverity.ValueSet.FATAL, IssueType.ValueSet.INVALID, errorMsg, location);
-
-                            throw new FHIRHttpException(errorMsg, Status.BAD_REQUEST).withIssue(ooi);
-                        }
-                        resource = visitor.getResult();
+                } else if (pathTokens.length == 2 && "_search".equals(pathTokens[1])) {
+                    // This is a 'search' request.
+                    Bundle searchResults = doSearch(pathTokens[0], null, null, queryParams, absoluteUri, requestProperties, null);
 
-                        // Perform the 'update' operation.
-                        String ifMatchBundleValue = null;
-                        if (request.getIfMatch() != null) {
-                            ifMatchBundleValue = request.getIfMatch().getValue();
-                        }
-                        FHIRRestOperationResponse ior = doUpdate(type, id, resource, ifMatchBundleValue, query, requestProperties);
+                    // Save the results of the operation in the bundle response field.
+                    Bundle.Entry.Response.Builder responseBuilder = response.toBuilder();
+                    responseBuilder.status(string(Integer.toString(SC_OK)));
 
-                        // Process and replace bundler Entry
-                        Bundle.Entry resultEntry =
-                                setBundleResponseFields(responseEntry, ior.getResource(), ior.getLocationURI(), ior.getStatus().getStatusCode(), requestDescription.toString(), initialTime);
+                    responseIndexAndEntries.put(entryIndex, responseEntryBuilder.resource(searchResults).response(responseBuilder.build()).build());
 
-                        responseIndexAndEntries.put(entryIndex, resultEntry);
+                    setBundleResponseStatus(response, SC_OK, requestDescription.toString(), initialTime);
+                } else if (pathTokens.length == 1) {
+                    // This is a 'create' request.
 
-                    } else if (request.getMethod().equals(HTTPVerb.DELETE)) {
-                        String type = null;
-                        String id = null;
+                    // Retrieve the local identifier from the request entry (if present).
+                    String localIdentifier = retrieveLocalIdentifier(requestEntry, localRefMap);
 
-                        // Process a DELETE.
-                        if (pathTokens.length == 1) {
-                            // A single-part url would be a conditional delete: <type>?<query>
-                            type = pathTokens[0];
-                            if (query == null || query.isEmpty()) {
-                                String msg = "A search query string is required for a conditional delete operation.";
-                                throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.INVALID);
-                            }
-                        } else if (pathTokens.length == 2) {
-                            type = pathTokens[0];
-                            id = pathTokens[1];
-                        } else {
-                            String msg =
-                                    "Request URL for bundled DELETE request should have path part with one or two tokens (<resourceType> or <resourceType>/<id>).";
-                            throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.INVALID);
-                        }
+                    // Retrieve the resource from the request entry.
+                    Resource resource = requestEntry.getResource();
+                    if (resource == null) {
+                        String msg = "BundleEntry.resource is required for bundled create requests.";
+                        throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.NOT_FOUND);
+                    }
 
-                        // Perform the 'delete' operation.
-                        FHIRRestOperationResponse ior = doDelete(type, id, query, requestProperties);
+                    // Convert any local references found within the resource to their
+                    // corresponding external reference.
+                    resource = resolveLocalReferences(resource, localRefMap);
 
-                        // Process and replace bundler Entry
-                        Bundle.Entry resultEntry =
-                                setBundleResponseFields(responseEntry, ior.getResource(), null, ior.getStatus().getStatusCode(), requestDescription.toString(), initialTime);
+                    // Perform the 'create' operation.
+                    String ifNoneExist = request.getIfNoneExist() != null ? request.getIfNoneExist().getValue() : null;
+                    FHIRRestOperationResponse ior = doCreate(pathTokens[0], resource, ifNoneExist, requestProperties);
+                    
+                    // Get the updated resource from FHIRRestOperationResponse which has the correct ID, meta etc.
+                    resource = ior.getResource();
 
-                        responseIndexAndEntries.put(entryIndex, resultEntry);
-                    } else {
-                        // Internal error, should not get here!
-                        throw new IllegalStateException("Internal Server Error: reached an unexpected code location.");
+                    // Process and replace bundler Entry
+                    Bundle.Entry resultEntry =
+                            setBundleResponseFields(responseEntry, ior.getResource(), ior.getLocationURI(), ior.getStatus().getStatusCode(), requestDescription.toString(), initialTime);
+
+                    responseIndexAndEntries.put(entryIndex, resultEntry);
+
+                    // Next, if a local identifier was present, we'll need to map this to the
+                    // correct external identifier (e.g. Patient/12345).
+                    addLocalRefMapping(localRefMap, localIdentifier, resource);
+                } else {
+                    String msg = "Request URL for bundled create requests should have a path with exactly one token (<resourceType>).";
+                    throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.NOT_FOUND);
+                }
+            } else if (request.getMethod().equals(HTTPVerb.PUT)) {
+                String type = null;
+                String id = null;
+
+                // Process a PUT (update).
+                if (pathTokens.length == 1) {
+                    // A single-part url would be a conditional update: <type>?<query>
+                    type = pathTokens[0];
+                    if (query == null || query.isEmpty()) {
+                        String msg = "A search query string is required for a conditional update operation.";
+                        throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.INVALID);
                     }
-                } catch (FHIRHttpException e) {
-                    Bundle.Entry.Response.Builder responseBuilder = response.toBuilder();
-                    responseBuilder.status(string(Integer.toString(e.getHttpStatus().getStatusCode())));
+                } else if (pathTokens.length == 2) {
+                    // A two-part url would be a normal update: <type>/<id>.
+                    type = pathTokens[0];
+                    id = pathTokens[1];
+                } else {
+                    // A url with any other pattern is an error.
+                    String msg =
+                            "Request URL for bundled PUT request should have path part with either one or two tokens (<resourceType> or <resourceType>/<id>).";
+                    throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.INVALID);
+                }
 
-                    responseIndexAndEntries.put(entryIndex, responseEntryBuilder.resource(FHIRUtil.buildOperationOutcome(e, false)).response(responseBuilder.build()).build());
+                // Retrieve the resource from the request entry, unless its local references were already resolved.
+                Resource resource = preparedResources.get(entryIndex);
+                if (resource == null) {
+                    // Convert any local references found within the resource to their
+                    // corresponding external reference.
+                    resource = resolveLocalReferences(requestEntry.getResource(), localRefMap);
+                }
 
-                    setBundleResponseStatus(response, e.getHttpStatus().getStatusCode(), requestDescription.toString(), initialTime);
+                // Perform the 'update' operation.
+                String ifMatchBundleValue = null;
+                if (request.getIfMatch() != null) {
+                    ifMatchBundleValue = request.getIfMatch().getValue();
+                }
+                FHIRRestOperationResponse ior = doUpdate(type, id, resource, ifMatchBundleValue, query, requestProperties);
 
-                    if (failFast) {
-                        String msg = "Error while processing request bundle.";
-                        // Now, let's re-construct the responseBundle
-                        responseBundle = reconstructResponseBundle(responseBundle, responseIndexAndEntries);
-                        throw new FHIRRestBundledRequestException(msg, Response.Status.BAD_REQUEST, responseBundle, e).withIssue(e.getIssues());
-                    }
-                } catch (FHIRPersistenceResourceNotFoundException e) {
-                    Bundle.Entry.Response.Builder responseBuilder = response.toBuilder();
-                    responseBuilder.status(string(Integer.toString(SC_NOT_FOUND)));
+                // Process and replace bundler Entry
+                Bundle.Entry resultEntry =
+                        setBundleResponseFields(responseEntry, ior.getResource(), ior.getLocationURI(), ior.getStatus().getStatusCode(), requestDescription.toString(), initialTime);
 
-                    responseIndexAndEntries.put(entryIndex, responseEntryBuilder.resource(FHIRUtil.buildOperationOutcome(e, false)).response(responseBuilder.build()).build());
+                responseIndexAndEntries.put(entryIndex, resultEntry);
 
-                    setBundleResponseStatus(response, SC_NOT_FOUND, requestDescription.toString(), initialTime);
+            } else if (request.getMethod().equals(HTTPVerb.DELETE)) {
+                String type = null;
+                String id = null;
 
-                    if (failFast) {
-                        String msg = "Error while processing request bundle.";
-                        // Now, let's re-construct the responseBundle
-                        responseBundle = reconstructResponseBundle(responseBundle, responseIndexAndEntries);
-                        throw new FHIRRestBundledRequestException(msg, Response.Status.NOT_FOUND, responseBundle, e).withIssue(e.getIssues());
+                // Process a DELETE.
+                if (pathTokens.length == 1) {
+                    // A single-part url would be a conditional delete: <type>?<query>
+                    type = pathTokens[0];
+                    if (query == null || query.isEmpty()) {
+                        String msg = "A search query string is required for a conditional delete operation.";
+                        throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.INVALID);
                     }
-                } catch (FHIRPersistenceResourceDeletedException e) {
-                    Bundle.Entry.Response.Builder responseBuilder = response.toBuilder();
-                    responseBuilder.status(string(Integer.toString(SC_GONE)));
+                } else if (pathTokens.length == 2) {
+                    type = pathTokens[0];
+                    id = pathTokens[1];
+                } else {
+                    String msg =
+                            "Request URL for bundled DELETE request should have path part with one or two tokens (<resourceType> or <resourceType>/<id>).";
+                    throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.INVALID);
+                }
 
-                    responseIndexAndEntries.put(entryIndex, responseEntryBuilder.resource(FHIRUtil.buildOperationOutcome(e, false)).response(responseBuilder.build()).build());
+                // Perform the 'delete' operation.
+                FHIRRestOperationResponse ior = doDelete(type, id, query, requestProperties);
 
-                    setBundleResponseStatus(response, SC_GONE, requestDescription.toString(), initialTime);
+                // Process and replace bundler Entry
+                Bundle.Entry resultEntry =
+                        setBundleResponseFields(responseEntry, ior.getResource(), null, ior.getStatus().getStatusCode(), requestDescription.toString(), initialTime);
 
-                    if (failFast) {
-                        String msg = "Error while processing request bundle.";
-                        // Now, let's re-construct the responseBundle
-                        responseBundle = reconstructResponseBundle(responseBundle, responseIndexAndEntries);
-                        throw new FHIRRestBundledRequestException(msg, Response.Status.GONE, responseBundle, e).withIssue(e.getIssues());
-                    }
-                } catch (FHIROperationException e) {
-                    Status status;
-                    if (e instanceof FHIRSearchException) {
-                        status = Status.BAD_REQUEST;              
-                    } else {            
-                        status = IssueTypeToHttpStatusMapper.issueListToStatus(e.getIssues());
-                    }
+                responseIndexAndEntries.put(entryIndex, resultEntry);
+            } else {
+                // Internal error, should not get here!
+                throw new IllegalStateException("Internal Server Error: reached an unexpected code location.");
+            }
+        } catch (FHIROperationException e) {
+            handleBundleEntryException(e, responseBundle, entryIndex, failFast, requestDescription.toString(), initialTime, responseIndexAndEntries);
+        }
+    }
 
-                    Bundle.Entry.Response.Builder responseBuilder = response.toBuilder();
-                    responseBuilder.status(string(Integer.toString(status.getStatusCode())));
+    /**
+     * Stores the error response for a request entry that failed with the specified exception in
+     * 'responseIndexAndEntries'.
+     *
+     * @param failFast
+     *            if true, the error response is thrown as a FHIRRestBundledRequestException
+     */
+    private void handleBundleEntryException(FHIROperationException e, Bundle responseBundle, int entryIndex, boolean failFast, String requestDescription,
+        long initialTime, Map<Integer, Bundle.Entry> responseIndexAndEntries) throws FHIRRestBundledRequestException {
+        Status status = getBundleEntryErrorStatus(e);
+        Bundle.Entry responseEntry = responseBundle.getEntry().get(entryIndex);
 
-                    responseIndexAndEntries.put(entryIndex, responseEntryBuilder.resource(FHIRUtil.buildOperationOutcome(e, false)).response(responseBuilder.build()).build());
+        Bundle.Entry.Response.Builder responseBuilder = responseEntry.getResponse().toBuilder();
+        responseBuilder.status(string(Integer.toString(status.getStatusCode())));
 
-                    setBundleResponseStatus(response, status.getStatusCode(), requestDescription.toString(), initialTime);
+        responseIndexAndEntries.put(entryIndex, responseEntry.toBuilder().resource(FHIRUtil.buildOperationOutcome(e, false)).response(responseBuilder.build()).build());
 
-                    if (failFast) {
-                        String msg = "Error while processing request bundle.";
-                        // Now, let's re-construct the responseBundle
-                        responseBundle = reconstructResponseBundle(responseBundle, responseIndexAndEntries);
-                        throw new FHIRRestBundledRequestException(msg, status, responseBundle, e).withIssue(e.getIssues());
-                    }
-                }
-            }
+        setBundleResponseStatus(responseEntry.getResponse(), status.getStatusCode(), requestDescription, initialTime);
+
+        if (failFast) {
+            String msg = "Error while processing request bundle.";
             // Now, let's re-construct the responseBundle
             responseBundle = reconstructResponseBundle(responseBundle, responseIndexAndEntries);
-            return responseBundle;
+            Status bundleStatus = (e instanceof FHIRHttpException) ? Status.BAD_REQUEST : status;
+            throw new FHIRRestBundledRequestException(msg, bundleStatus, responseBundle, e).withIssue(e.getIssues());
+        }
+    }
+
+    /**
+     * Returns the HTTP status of the response entry for a request entry that failed with the specified exception.
+     */
+    private Status getBundleEntryErrorStatus(FHIROperationException e) {
+        if (e instanceof FHIRHttpException) {
+            return ((FHIRHttpException) e).getHttpStatus();
+        } else if (e instanceof FHIRPersistenceResourceNotFoundException) {
+            return Status.NOT_FOUND;
+        } else if (e instanceof FHIRPersistenceResourceDeletedException) {
+            return Status.GONE;
+        } else if (e instanceof FHIRSearchException) {
+            return Status.BAD_REQUEST;
+        } else {
+            return IssueTypeToHttpStatusMapper.issueListToStatus(e.getIssues());
+        }
+    }
+
+    /**
+     * Builds the description of a request entry that is used in the log messages for the entry.
+     */
+    private String buildRequestDescription(int entryIndex, String bundleRequestCorrelationId, Bundle.Entry.Request request) {
+        StringBuffer requestDescription = new StringBuffer();
+        requestDescription.append("entryIndex:[");
+        requestDescription.append(entryIndex);
+        requestDescription.append("] correlationId:[");
+        requestDescription.append(bundleRequestCorrelationId);
+        requestDescription.append("] method:[");
+        requestDescription.append(request.getMethod().getValue());
+        requestDescription.append("] uri:[");
+        requestDescription.append(request.getUrl().getValue());
+        requestDescription.append("]");
+        return requestDescription.toString();
+    }
+
+    /**
+     * Returns the indices of the POST entries of a transaction bundle which are plain creates (i.e. not conditional
+     * creates, searches or custom operations). These entries are stored together with a single call to
+     * {@link FHIRPersistence#createAll(List, List)}.
+     */
+    private List<Integer> getGroupedCreateIndices(Bundle requestBundle, List<Integer> entryIndices) {
+        List<Integer> groupedCreateIndices = new ArrayList<>();
+        for (Integer entryIndex : entryIndices) {
+            Bundle.Entry requestEntry = requestBundle.getEntry().get(entryIndex);
+            Bundle.Entry.Request request = requestEntry.getRequest();
+            String[] pathTokens = new FHIRUrlParser(request.getUrl().getValue()).getPathTokens();
+            if (pathTokens.length == 1 && !pathTokens[0].startsWith("$") && requestEntry.getResource() != null
+                    && (request.getIfNoneExist() == null || request.getIfNoneExist().getValue() == null || request.getIfNoneExist().getValue().isEmpty())) {
+                groupedCreateIndices.add(entryIndex);
+            }
+        }
+        return groupedCreateIndices;
+    }
+
+    /**
+     * Assigns the logical ids of the resources created by the specified transaction entries ahead of time, so that
+     * the local identifiers of these entries can be resolved before any of the resources are stored.
+     */
+    private void assignGroupedCreateIds(Bundle requestBundle, Bundle responseBundle, List<Integer> groupedCreateIndices, Map<String, String> localRefMap,
+        String bundleRequestCorrelationId, Map<Integer, Resource> preparedResources, Map<Integer, Bundle.Entry> responseIndexAndEntries) throws Exception {
+        long initialTime = System.currentTimeMillis();
+        FHIRPersistence persistenceImpl = getPersistenceImpl();
+        for (Integer entryIndex : groupedCreateIndices) {
+            Bundle.Entry requestEntry = requestBundle.getEntry().get(entryIndex);
+            String requestDescription = buildRequestDescription(entryIndex, bundleRequestCorrelationId, requestEntry.getRequest());
+            log.info("Received bundle request: " + requestDescription);
+            try {
+                // Make sure the expected type (specified in the URL string) is congruent with the actual type
+                // of the resource.
+                String type = new FHIRUrlParser(requestEntry.getRequest().getUrl().getValue()).getPathTokens()[0];
+                String resourceType = FHIRUtil.getResourceTypeName(requestEntry.getResource());
+                if (!resourceType.equals(type)) {
+                    String msg = "Resource type '" + resourceType + "' does not match type specified in request URI: " + type;
+                    throw buildRestException(msg, Status.BAD_REQUEST, IssueType.ValueSet.INVALID);
+                }
+
+                String localIdentifier = retrieveLocalIdentifier(requestEntry, localRefMap);
+                Resource resource = requestEntry.getResource().toBuilder().id(Id.of(persistenceImpl.generateResourceId())).build();
+                preparedResources.put(entryIndex, resource);
+                addLocalRefMapping(localRefMap, localIdentifier, resource);
+            } catch (FHIROperationException e) {
+                handleBundleEntryException(e, responseBundle, entryIndex, true, requestDescription, initialTime, responseIndexAndEntries);
+            }
+        }
+    }
 
+    /**
+     * Resolves the local references of the specified transaction entry resources and validates them. Both steps only
+     * depend on the resource itself, so the resources are processed in parallel. The resolved resources replace the
+     * original resources in 'preparedResources'. If any of the resources is invalid, the error is reported for the
+     * first such entry.
+     */
+    private void prepareBundleEntryResources(Bundle requestBundle, Bundle responseBundle, Map<String, String> localRefMap, String bundleRequestCorrelationId,
+        Map<Integer, Resource> preparedResources, Map<Integer, Bundle.Entry> responseIndexAndEntries) throws Exception {
+        long initialTime = System.currentTimeMillis();
+        List<List<Integer>> entryGroups = new ArrayList<>();
+        for (Integer entryIndex : preparedResources.keySet()) {
+            entryGroups.add(Collections.singletonList(entryIndex));
+        }
+
+        Map<Integer, Exception> failures = new ConcurrentHashMap<>();
+        getBatchEntryExecutor().execute(entryGroups, new BatchEntryProcessor(entryIndex -> {
+            try {
+                Resource resource = resolveLocalReferences(preparedResources.get(entryIndex), localRefMap);
+                validateInput(resource);
+                validatedResources.add(resource);
+                preparedResources.put(entryIndex, resource);
+            } catch (Exception e) {
+                failures.put(entryIndex, e);
+            }
+        }, false));
+
+        if (!failures.isEmpty()) {
+            int entryIndex = Collections.min(failures.keySet());
+            Exception e = failures.get(entryIndex);
+            if (e instanceof FHIROperationException) {
+                String requestDescription = buildRequestDescription(entryIndex, bundleRequestCorrelationId, requestBundle.getEntry().get(entryIndex).getRequest());
+                handleBundleEntryException((FHIROperationException) e, responseBundle, entryIndex, true, requestDescription, initialTime,
+                    responseIndexAndEntries);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stores the resources of the specified (already prepared) transaction create entries with a single call to the
+     * persistence layer. The interceptors and the audit log are invoked for each of the entries, just as for a
+     * regular 'create' interaction.
+     */
+    private void processGroupedCreates(Bundle requestBundle, Bundle responseBundle, List<Integer> groupedCreateIndices,
+        Map<String, String> bundleRequestProperties, String bundleRequestCorrelationId, Map<Integer, Resource> preparedResources,
+        Map<Integer, Bundle.Entry> responseIndexAndEntries) throws Exception {
+        log.entering(this.getClass().getName(), "processGroupedCreates");
+
+        long initialTime = System.currentTimeMillis();
+        Date startTime = new Date();
+        Response.Status status = null;
+        String errMsg = "Caught exception while processing grouped 'create' requests.";
+
+        // Save the current request context.
+        FHIRRequestContext requestContext = FHIRRequestContext.get();
+
+        List<Resource> resources = new ArrayList<>();
+        List<FHIRPersistenceEvent> events = new ArrayList<>();
+        List<FHIRPersistenceContext> contexts = new ArrayList<>();
+        int failedEntryIndex = groupedCreateIndices.get(0);
+        try {
+            for (Integer entryIndex : groupedCreateIndices) {
+                failedEntryIndex = entryIndex;
+                Bundle.Entry.Request request = requestBundle.getEntry().get(entryIndex).getRequest();
+                String type = new FHIRUrlParser(request.getUrl().getValue()).getPathTokens()[0];
+                Map<String, String> requestProperties = extractRequestPropertiesFromExtensions(request.getExtension(), bundleRequestProperties);
+                Resource resource = preparedResources.get(entryIndex);
+                validatedResources.remove(resource);
+
+                // Pass end time the same as start time to tell cadf log service that this is a pending request.
+                RestAuditLogger.logCreate(getHttpServletRequest(), resource, startTime, startTime, Response.Status.OK);
+                resources.add(resource);
+
+                // Invoke the 'beforeCreate' interceptor methods.
+                FHIRPersistenceEvent event = new FHIRPersistenceEvent(resource, buildPersistenceEventProperties(type, null, null, requestProperties));
+                getInterceptorMgr().fireBeforeCreateEvent(event);
+                events.add(event);
+                contexts.add(FHIRPersistenceContextFactory.createPersistenceContext(event));
+            }
+
+            // A failure to store the group is reported for the first entry of the group.
+            failedEntryIndex = groupedCreateIndices.get(0);
+            List<Resource> createdResources = getPersistenceImpl().createAll(contexts, resources);
+
+            for (int i = 0; i < groupedCreateIndices.size(); i++) {
+                int entryIndex = groupedCreateIndices.get(i);
+                failedEntryIndex = entryIndex;
+                Resource resource = createdResources.get(i);
+                resources.set(i, resource);
+
+                FHIRPersistenceEvent event = events.get(i);
+                event.setFhirResource(resource);
+
+                // Build our location URI and add it to the interceptor event structure since it is now known.
+                URI locationURI = FHIRUtil.buildLocationURI(FHIRUtil.getResourceTypeName(resource), resource);
+                event.getProperties().put(FHIRPersistenceEvent.PROPNAME_RESOURCE_LOCATION_URI, locationURI.toString());
+
+                // Invoke the 'afterCreate' interceptor methods.
+                getInterceptorMgr().fireAfterCreateEvent(event);
+
+                String requestDescription = buildRequestDescription(entryIndex, bundleRequestCorrelationId, requestBundle.getEntry().get(entryIndex).getRequest());
+                responseIndexAndEntries.put(entryIndex, setBundleResponseFields(responseBundle.getEntry().get(entryIndex), resource, locationURI,
+                    Response.Status.CREATED.getStatusCode(), requestDescription, initialTime));
+            }
+            status = Response.Status.CREATED;
+        } catch (FHIROperationException e) {
+            log.log(Level.SEVERE, errMsg, e);
+            status = getBundleEntryErrorStatus(e);
+            String requestDescription = buildRequestDescription(failedEntryIndex, bundleRequestCorrelationId, requestBundle.getEntry().get(failedEntryIndex).getRequest());
+            handleBundleEntryException(e, responseBundle, failedEntryIndex, true, requestDescription, initialTime, responseIndexAndEntries);
+        } catch (Throwable t) {
+            log.log(Level.SEVERE, errMsg, t);
+            status = Response.Status.INTERNAL_SERVER_ERROR;
+            throw t;
         } finally {
-            log.exiting(this.getClass().getName(), "processEntriesForMethod");
+            // Restore the original request context.
+            FHIRRequestContext.set(requestContext);
+
+            // Now Audit log the final status of the requests,
+            // if fails to log, then log the error in local log file and ignore.
+            for (Resource resource : resources) {
+                try {
+                    RestAuditLogger.logCreate(getHttpServletRequest(), resource, startTime, new Date(), status);
+                } catch (Exception e) {
+                    log.log(Level.INFO, errMsg, e);
+                }
+            }
+            log.exiting(this.getClass().getName(), "processGroupedCreates");
         }
     }
-    
-    
-    
+
+    /**
+     * Converts any local references found within the specified resource to their corresponding external reference.
+     */
+    private Resource resolveLocalReferences(Resource resource, Map<String, String> localRefMap) throws FHIRHttpException {
+        ReferenceMappingVisitor<Resource> visitor = new ReferenceMappingVisitor<Resource>(localRefMap);
+        resource.accept(visitor);
+        final String errorMsg = visitor.getErrorMsg();
+        if (errorMsg != null) {
+            final String location = "<empty>";
+            OperationOutcome.Issue ooi =
+                    FHIRUtil.buildOperationOutcomeIssue(IssueSeverity.ValueSet.FATAL, IssueType.ValueSet.INVALID, errorMsg, location);
+
+            throw new FHIRHttpException(errorMsg, Status.BAD_REQUEST).withIssue(ooi);
+        }
+        return visitor.getResult();
+    }
+
+    /**
+     * Returns the executor used to process the entries of a batch bundle. The entries are processed on the
+     * container's default managed executor (so that the JNDI and transaction context is available to them), with at
+     * most 'fhirServer/core/batchParallelism' entries at a time.
+     */
+    protected BatchEntryExecutor getBatchEntryExecutor() {
+        int parallelism = FHIRConfigHelper.getIntProperty(FHIRConfiguration.PROPERTY_BATCH_PARALLELISM, DEFAULT_BATCH_PARALLELISM);
+        ExecutorService executor = null;
+        if (parallelism > 1) {
+            Object jndiValue = FHIRServerUtils.getJNDIValue(BATCH_EXECUTOR_JNDI_NAME, null);
+            if (jndiValue instanceof ExecutorService) {
+                executor = (ExecutorService) jndiValue;
+            } else {
+                log.fine("Managed executor '" + BATCH_EXECUTOR_JNDI_NAME + "' is not available; batch entries will be processed sequentially.");
+            }
+        }
+        return new BatchEntryExecutor(executor, parallelism);
+    }
+
+    /**
+     * Groups the specified batch request entries into groups which are processed in order by a single worker.
+     * PUT and DELETE entries (which are sorted by their url path) with the same url path are kept together so that
+     * updates of the same resource are not run concurrently. If any POST entry defines a local identifier, then all
+     * POST entries are kept together since they may refer to each other.
+     */
+    private List<List<Integer>> groupBatchEntries(Bundle requestBundle, HTTPVerb httpMethod, List<Integer> entryIndices) {
+        List<List<Integer>> groups = new ArrayList<>();
+        if (httpMethod.equals(HTTPVerb.POST)) {
+            for (Integer entryIndex : entryIndices) {
+                Bundle.Entry requestEntry = requestBundle.getEntry().get(entryIndex);
+                if (requestEntry.getFullUrl() != null && requestEntry.getFullUrl().getValue() != null
+                        && requestEntry.getFullUrl().getValue().startsWith(LOCAL_REF_PREFIX)) {
+                    groups.add(entryIndices);
+                    return groups;
+                }
+            }
+        }
+
+        boolean groupByPath = httpMethod.equals(HTTPVerb.PUT) || httpMethod.equals(HTTPVerb.DELETE);
+        List<Integer> group = null;
+        String previousPath = null;
+        for (Integer entryIndex : entryIndices) {
+            String path = groupByPath ? getUrlPath(requestBundle.getEntry().get(entryIndex)) : null;
+            if (group == null || path == null || !path.equals(previousPath)) {
+                group = new ArrayList<>();
+                groups.add(group);
+            }
+            group.add(entryIndex);
+            previousPath = path;
+        }
+        return groups;
+    }
+
+    /**
+     * Processes each batch request entry with its own copy of the request context (and therefore in its own
+     * persistence transaction). Entries processed on a thread other than the request thread also get their own
+     * FHIRPersistence instance, since a FHIRPersistence instance is not meant to be used by multiple threads.
+     */
+    private class BatchEntryProcessor implements BatchEntryExecutor.EntryProcessor {
+        private final BatchEntryExecutor.EntryProcessor delegate;
+        private final boolean usesPersistence;
+        private final Thread requestThread = Thread.currentThread();
+        private final FHIRRequestContext requestContext = FHIRRequestContext.get();
+        private final PersistenceHelper persistenceHelper = getPersistenceHelper();
+
+        /**
+         * @param usesPersistence
+         *            whether the entries access the persistence layer; if false, the worker threads do not get a
+         *            FHIRPersistence instance
+         */
+        private BatchEntryProcessor(BatchEntryExecutor.EntryProcessor delegate, boolean usesPersistence) {
+            this.delegate = delegate;
+            this.usesPersistence = usesPersistence;
+        }
+
+        @Override
+        public void workerStarted() throws Exception {
+            if (Thread.currentThread() != requestThread) {
+                FHIRRequestContext.set(copyRequestContext());
+                if (usesPersistence) {
+                    batchEntryPersistence.set(persistenceHelper.getFHIRPersistenceImplementation());
+                }
+            }
+        }
+
+        @Override
+        public void process(int entryIndex) throws Exception {
+            FHIRRequestContext.set(copyRequestContext());
+            try {
+                delegate.process(entryIndex);
+            } finally {
+                FHIRRequestContext.set(requestContext);
+            }
+        }
+
+        @Override
+        public void workerFinished() {
+            if (Thread.currentThread() != requestThread) {
+                batchEntryPersistence.remove();
+                FHIRRequestContext.remove();
+            }
+        }
+
+        private FHIRRequestContext copyRequestContext() throws FHIRException {
+            FHIRRequestContext entryContext = new FHIRRequestContext(requestContext.getTenantId(), requestContext.getDataStoreId());
+            if (requestContext.getTenantKey() != null) {
+                entryContext.setTenantKey(requestContext.getTenantKey());
+            }
+            return entryContext;
+        }
+    }
+
     /**
      * @param responseBundle
      * @param responseIndexAndEntries
      * @return
      */
-    private Bundle reconstructResponseBundle(Bundle responseBundle, HashMap<Integer, Bundle.Entry> responseIndexAndEntries) {
+    private Bundle reconstructResponseBundle(Bundle responseBundle, Map<Integer, Bundle.Entry> responseIndexAndEntries) {
         // Re-construct the responseBundle
         List<Bundle.Entry> responseEntries = new ArrayList<Bundle.Entry>();
         for (int i = 0; i < responseBundle.getEntry().size(); i++) {
@@ -3654,7 +4111,15 @@ public class FHIRResource implements FHIRResourceHelpers {
         return persistenceHelper;
     }
 
-    private synchronized FHIRPersistence getPersistenceImpl() throws FHIRPersistenceException {
+    private FHIRPersistence getPersistenceImpl() throws FHIRPersistenceException {
+        FHIRPersistence entryPersistence = batchEntryPersistence.get();
+        if (entryPersistence != null) {
+            return entryPersistence;
+        }
+        return getRequestPersistenceImpl();
+    }
+
+    private synchronized FHIRPersistence getRequestPersistenceImpl() throws FHIRPersistenceException {
         if (persistence == null) {
             persistence = getPersistenceHelper().getFHIRPersistenceImplementation();
             if (log.isLoggable(Level.FINE)) {
@@ -3810,10 +4275,10 @@ public class FHIRResource implements FHIRResourceHelpers {
         throws FHIRPersistenceException {
         Map<String, Object> props = new HashMap<>();
         props.put(FHIRPersistenceEvent.PROPNAME_PERSISTENCE_IMPL, getPersistenceImpl());
-        props.put(FHIRPersistenceEvent.PROPNAME_URI_INFO, uriInfo);
-        props.put(FHIRPersistenceEvent.PROPNAME_HTTP_HEADERS, httpHeaders);
+        props.put(FHIRPersistenceEvent.PROPNAME_URI_INFO, getUriInfo());
+        props.put(FHIRPersistenceEvent.PROPNAME_HTTP_HEADERS, getHttpHeaders());
         props.put(FHIRPersistenceEvent.PROPNAME_REQUEST_PROPERTIES, requestProperties);
-        props.put(FHIRPersistenceEvent.PROPNAME_SECURITY_CONTEXT, securityContext);
+        props.put(FHIRPersistenceEvent.PROPNAME_SECURITY_CONTEXT, getSecurityContext());
         props.put(FHIRPersistenceEvent.PROPNAME_TXN_CORRELATION_ID, bundleTransactionCorrelationId);
         props.put(FHIRPersistenceEvent.PROPNAME_REQUEST_CORRELATION_ID, bundleRequestCorrelationId);
         if (type != null) {
@@ -3837,6 +4302,10 @@ public class FHIRResource implements FHIRResourceHelpers {
      * @return String The complete request URI
      */
     private String getRequestUri() {
+        RequestSnapshot snapshot = batchEntryRequest.get();
+        if (snapshot != null) {
+            return snapshot.getRequestUri();
+        }
 
         String queryString = null;
         StringBuilder requestUri = new StringBuilder();
@@ -3857,6 +4326,11 @@ public class FHIRResource implements FHIRResourceHelpers {
      * @return The base endpoint URI associated with the current request.
      */
     private String getRequestBaseUri() {
+        RequestSnapshot snapshot = batchEntryRequest.get();
+        if (snapshot != null) {
+            return snapshot.getRequestBaseUri();
+        }
+
         StringBuilder sb = new StringBuilder();
         sb.append(httpServletRequest.getScheme()).append("://").append(httpServletRequest.getServerName()).append(":").append(httpServletRequest.getServerPort()).append(httpServletRequest.getContextPath());
         String servletPath = httpServletRequest.getServletPath();
@@ -3867,6 +4341,38 @@ public class FHIRResource implements FHIRResourceHelpers {
         return sb.toString();
     }
 
+    /**
+     * Captures the parts of the current request which are used by the bundle entries, so that they can be used on the
+     * threads which process batch entries. Must be called on the request thread.
+     */
+    private RequestSnapshot captureRequest() {
+        return new RequestSnapshot(httpServletRequest, getRequestUri(), getRequestBaseUri(), httpHeaders, uriInfo, securityContext);
+    }
+
+    /**
+     * Returns the HttpServletRequest of the current request: the copy made for the bundle entry being processed on
+     * this thread, if any, or else the injected request.
+     */
+    private HttpServletRequest getHttpServletRequest() {
+        RequestSnapshot snapshot = batchEntryRequest.get();
+        return snapshot != null ? snapshot.getHttpServletRequest() : httpServletRequest;
+    }
+
+    private HttpHeaders getHttpHeaders() {
+        RequestSnapshot snapshot = batchEntryRequest.get();
+        return snapshot != null ? snapshot.getHttpHeaders() : httpHeaders;
+    }
+
+    private UriInfo getUriInfo() {
+        RequestSnapshot snapshot = batchEntryRequest.get();
+        return snapshot != null ? snapshot.getUriInfo() : uriInfo;
+    }
+
+    private SecurityContext getSecurityContext() {
+        RequestSnapshot snapshot = batchEntryRequest.get();
+        return snapshot != null ? snapshot.getSecurityContext() : securityContext;
+    }
+
     /**
      * This method simply returns a URI object containing the specified URI string.
      * 
@@ -3879,10 +4385,17 @@ public class FHIRResource implements FHIRResourceHelpers {
     }
 
     private Response buildResponse(FHIROperationContext operationContext, Resource resource) throws URISyntaxException {
+        Response.Status status = (Response.Status) operationContext.getProperty(FHIROperationContext.PROPNAME_HTTP_STATUS);
+        ResponseBuilder responseBuilder = status != null ? Response.status(status) : Response.ok();
         URI locationURI = (URI) operationContext.getProperty(FHIROperationContext.PROPNAME_LOCATION_URI);
         if (locationURI != null) {
-            return Response.ok().location(toUri(getAbsoluteUri(getRequestBaseUri(), locationURI.toString()))).entity(resource).build();
+            URI absoluteLocationURI = toUri(getAbsoluteUri(getRequestBaseUri(), locationURI.toString()));
+            responseBuilder.location(absoluteLocationURI);
+            if (status == Response.Status.ACCEPTED) {
+                // asynchronous requests report where to poll for their status in the Content-Location header
+                responseBuilder.header(HttpHeaders.CONTENT_LOCATION, absoluteLocationURI.toString());
+            }
         }
-        return Response.ok().entity(resource).build();
+        return responseBuilder.entity(resource).build();
     }
 }
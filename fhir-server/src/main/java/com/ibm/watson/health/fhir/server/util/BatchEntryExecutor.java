@@ -0,0 +1,137 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.server.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Processes the entries of a batch bundle with a bounded number of workers.
+ *
+ * <p>The entries are passed in as groups of entry indices. The groups are handed out to the workers one at a time,
+ * and the entries within a group are processed in order by the same worker; this allows entries which must not run
+ * concurrently (e.g. two updates of the same resource) to be kept together. The calling thread acts as one of the
+ * workers, so at most {@code parallelism - 1} tasks are submitted to the executor.
+ *
+ * <p>If an entry processor throws an exception, the workers stop picking up new groups and the first exception is
+ * rethrown by {@link #execute(List, EntryProcessor)} once all of the workers are done.
+ */
+public class BatchEntryExecutor {
+    private static final Logger log = java.util.logging.Logger.getLogger(BatchEntryExecutor.class.getName());
+
+    /**
+     * Processes a single bundle entry. The workerStarted and workerFinished methods are called on each worker
+     * thread before the first and after the last entry processed by that thread.
+     */
+    public interface EntryProcessor {
+        default void workerStarted() throws Exception {
+        }
+
+        void process(int entryIndex) throws Exception;
+
+        default void workerFinished() {
+        }
+    }
+
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    /**
+     * @param executor
+     *     the executor used to run the additional workers, or null to process all entries on the calling thread
+     * @param parallelism
+     *     the maximum number of entries processed at the same time (including the calling thread)
+     */
+    public BatchEntryExecutor(ExecutorService executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Process all of the entries and wait for the workers to finish.
+     *
+     * @param entryGroups
+     *     the indices of the entries to process, in groups of entries which are processed in order by a single worker
+     * @param processor
+     *     the processor that is invoked for each entry index
+     */
+    public void execute(List<List<Integer>> entryGroups, EntryProcessor processor) throws Exception {
+        AtomicInteger nextGroup = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+
+        int workerCount = executor == null ? 1 : Math.min(parallelism, entryGroups.size());
+        List<Future<Void>> futures = new ArrayList<>(workerCount);
+        for (int i = 1; i < workerCount; i++) {
+            try {
+                futures.add(executor.submit(() -> {
+                    runWorker(entryGroups, processor, nextGroup, failed);
+                    return null;
+                }));
+            } catch (RejectedExecutionException e) {
+                // carry on with the workers we have; the calling thread always takes part
+                log.fine("Unable to start batch entry worker: " + e);
+                break;
+            }
+        }
+
+        Throwable failure = null;
+        try {
+            runWorker(entryGroups, processor, nextGroup, failed);
+        } catch (Throwable t) {
+            failure = t;
+        }
+
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                failed.set(true);
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+
+        if (failure instanceof Exception) {
+            throw (Exception) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+    }
+
+    private void runWorker(List<List<Integer>> entryGroups, EntryProcessor processor, AtomicInteger nextGroup, AtomicBoolean failed)
+        throws Exception {
+        try {
+            processor.workerStarted();
+            int groupIndex;
+            while (!failed.get() && (groupIndex = nextGroup.getAndIncrement()) < entryGroups.size()) {
+                for (Integer entryIndex : entryGroups.get(groupIndex)) {
+                    processor.process(entryIndex);
+                }
+            }
+        } catch (Exception | Error e) {
+            failed.set(true);
+            throw e;
+        } finally {
+            processor.workerFinished();
+        }
+    }
+}
@@ -0,0 +1,519 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.server.util;
+
+import java.net.URI;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.PathSegment;
+import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+
+/**
+ * A copy of the parts of the current REST request which are used while processing the entries of a bundle. The
+ * HttpServletRequest, UriInfo, HttpHeaders and SecurityContext objects injected into a resource class are proxies for
+ * the request of the current thread, so they can't be used by the threads which process batch entries in parallel.
+ * The snapshot is taken on the request thread, and its views of those objects answer from the copied values on any
+ * thread.
+ *
+ * <p>The roles of the user can't be listed, so {@link SecurityContext#isUserInRole(String)} and
+ * {@link HttpServletRequest#isUserInRole(String)} are only answered on the request thread; on any other thread they
+ * return false.
+ */
+public class RequestSnapshot {
+    private final Thread requestThread = Thread.currentThread();
+    private final String requestUri;
+    private final String requestBaseUri;
+    private final String queryString;
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Principal userPrincipal;
+
+    private final HttpServletRequest httpServletRequest;
+    private final HttpHeaders httpHeaders;
+    private final UriInfo uriInfo;
+    private final SecurityContext securityContext;
+
+    /**
+     * Copies the current request. Must be called on the request thread.
+     * @param request the injected request; must not be null
+     * @param requestUri the complete request URI
+     * @param requestBaseUri the base endpoint URI of the request
+     * @param headers the injected HttpHeaders, or null
+     * @param uriInfo the injected UriInfo, or null
+     * @param securityContext the injected SecurityContext, or null
+     */
+    public RequestSnapshot(HttpServletRequest request, String requestUri, String requestBaseUri, HttpHeaders headers, UriInfo uriInfo,
+        SecurityContext securityContext) {
+        this.requestUri = requestUri;
+        this.requestBaseUri = requestBaseUri;
+        this.queryString = request.getQueryString();
+        if (headers != null && headers.getRequestHeaders() != null) {
+            for (Map.Entry<String, List<String>> header : headers.getRequestHeaders().entrySet()) {
+                this.headers.computeIfAbsent(header.getKey(), k -> new ArrayList<>()).addAll(header.getValue());
+            }
+        } else {
+            for (Enumeration<String> names = request.getHeaderNames(); names != null && names.hasMoreElements();) {
+                String name = names.nextElement();
+                this.headers.computeIfAbsent(name, k -> new ArrayList<>()).addAll(Collections.list(request.getHeaders(name)));
+            }
+        }
+        this.userPrincipal = securityContext != null ? securityContext.getUserPrincipal() : request.getUserPrincipal();
+
+        this.httpServletRequest = new CapturedHttpServletRequest(request);
+        this.httpHeaders = headers != null ? new CapturedHttpHeaders(headers) : null;
+        this.uriInfo = uriInfo != null ? new CapturedUriInfo(uriInfo) : null;
+        this.securityContext = securityContext != null ? new CapturedSecurityContext(securityContext) : null;
+    }
+
+    /**
+     * @return the complete request URI, including the query string
+     */
+    public String getRequestUri() {
+        return requestUri;
+    }
+
+    /**
+     * @return the base endpoint URI of the request, e.g. "https://myhost:9443/fhir-server/api/v4"
+     */
+    public String getRequestBaseUri() {
+        return requestBaseUri;
+    }
+
+    public String getQueryString() {
+        return queryString;
+    }
+
+    /**
+     * @return the first value of the named request header, or null
+     */
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    public Principal getUserPrincipal() {
+        return userPrincipal;
+    }
+
+    public HttpServletRequest getHttpServletRequest() {
+        return httpServletRequest;
+    }
+
+    public HttpHeaders getHttpHeaders() {
+        return httpHeaders;
+    }
+
+    public UriInfo getUriInfo() {
+        return uriInfo;
+    }
+
+    public SecurityContext getSecurityContext() {
+        return securityContext;
+    }
+
+    private boolean onRequestThread() {
+        return Thread.currentThread() == requestThread;
+    }
+
+    /**
+     * The request, as used by the audit logger. Only the values read by the FHIR server are copied; any other
+     * method is delegated to the request proxy.
+     */
+    private class CapturedHttpServletRequest extends HttpServletRequestWrapper {
+        private final String requestUrl;
+        private final String remoteAddr;
+        private final String remoteHost;
+        private final String method;
+        private final String scheme;
+        private final String serverName;
+        private final int serverPort;
+        private final String contextPath;
+        private final String servletPath;
+        private final String requestURI;
+
+        private CapturedHttpServletRequest(HttpServletRequest request) {
+            super(request);
+            StringBuffer url = request.getRequestURL();
+            this.requestUrl = url != null ? url.toString() : null;
+            this.remoteAddr = request.getRemoteAddr();
+            this.remoteHost = request.getRemoteHost();
+            this.method = request.getMethod();
+            this.scheme = request.getScheme();
+            this.serverName = request.getServerName();
+            this.serverPort = request.getServerPort();
+            this.contextPath = request.getContextPath();
+            this.servletPath = request.getServletPath();
+            this.requestURI = request.getRequestURI();
+        }
+
+        @Override
+        public StringBuffer getRequestURL() {
+            // callers append the query string to the returned buffer
+            return requestUrl != null ? new StringBuffer(requestUrl) : null;
+        }
+
+        @Override
+        public String getQueryString() {
+            return queryString;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return RequestSnapshot.this.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            List<String> values = headers.get(name);
+            return Collections.enumeration(values != null ? values : Collections.<String>emptyList());
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            return Collections.enumeration(headers.keySet());
+        }
+
+        @Override
+        public Principal getUserPrincipal() {
+            return userPrincipal;
+        }
+
+        @Override
+        public boolean isUserInRole(String role) {
+            return onRequestThread() && super.isUserInRole(role);
+        }
+
+        @Override
+        public String getRemoteAddr() {
+            return remoteAddr;
+        }
+
+        @Override
+        public String getRemoteHost() {
+            return remoteHost;
+        }
+
+        @Override
+        public String getMethod() {
+            return method;
+        }
+
+        @Override
+        public String getScheme() {
+            return scheme;
+        }
+
+        @Override
+        public String getServerName() {
+            return serverName;
+        }
+
+        @Override
+        public int getServerPort() {
+            return serverPort;
+        }
+
+        @Override
+        public String getContextPath() {
+            return contextPath;
+        }
+
+        @Override
+        public String getServletPath() {
+            return servletPath;
+        }
+
+        @Override
+        public String getRequestURI() {
+            return requestURI;
+        }
+    }
+
+    /**
+     * The request headers.
+     */
+    private class CapturedHttpHeaders implements HttpHeaders {
+        private final List<MediaType> acceptableMediaTypes;
+        private final List<Locale> acceptableLanguages;
+        private final MediaType mediaType;
+        private final Locale language;
+        private final Map<String, Cookie> cookies;
+        private final Date date;
+        private final int length;
+
+        private CapturedHttpHeaders(HttpHeaders headers) {
+            this.acceptableMediaTypes = copy(headers.getAcceptableMediaTypes());
+            this.acceptableLanguages = copy(headers.getAcceptableLanguages());
+            this.mediaType = headers.getMediaType();
+            this.language = headers.getLanguage();
+            this.cookies = headers.getCookies() != null ? Collections.unmodifiableMap(new TreeMap<>(headers.getCookies()))
+                    : Collections.<String, Cookie>emptyMap();
+            this.date = headers.getDate();
+            this.length = headers.getLength();
+        }
+
+        @Override
+        public List<String> getRequestHeader(String name) {
+            List<String> values = headers.get(name);
+            return values != null ? Collections.unmodifiableList(values) : null;
+        }
+
+        @Override
+        public String getHeaderString(String name) {
+            List<String> values = headers.get(name);
+            return values == null ? null : String.join(",", values);
+        }
+
+        @Override
+        public MultivaluedMap<String, String> getRequestHeaders() {
+            MultivaluedMap<String, String> result = new MultivaluedHashMap<>();
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                result.addAll(header.getKey(), header.getValue());
+            }
+            return result;
+        }
+
+        @Override
+        public List<MediaType> getAcceptableMediaTypes() {
+            return acceptableMediaTypes;
+        }
+
+        @Override
+        public List<Locale> getAcceptableLanguages() {
+            return acceptableLanguages;
+        }
+
+        @Override
+        public MediaType getMediaType() {
+            return mediaType;
+        }
+
+        @Override
+        public Locale getLanguage() {
+            return language;
+        }
+
+        @Override
+        public Map<String, Cookie> getCookies() {
+            return cookies;
+        }
+
+        @Override
+        public Date getDate() {
+            return date;
+        }
+
+        @Override
+        public int getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * The request URI information.
+     */
+    private class CapturedUriInfo implements UriInfo {
+        private final URI requestUri;
+        private final URI absolutePath;
+        private final URI baseUri;
+        private final String path;
+        private final String encodedPath;
+        private final List<PathSegment> pathSegments;
+        private final List<PathSegment> encodedPathSegments;
+        private final MultivaluedMap<String, String> pathParameters;
+        private final MultivaluedMap<String, String> encodedPathParameters;
+        private final MultivaluedMap<String, String> queryParameters;
+        private final MultivaluedMap<String, String> encodedQueryParameters;
+        private final List<String> matchedURIs;
+        private final List<String> encodedMatchedURIs;
+        private final List<Object> matchedResources;
+
+        private CapturedUriInfo(UriInfo uriInfo) {
+            URI uri;
+            try {
+                uri = uriInfo.getRequestUri();
+            } catch (IllegalArgumentException e) {
+                // thrown for some special characters (e.g. '|') in the query string, see FHIRResource.getRequestUri()
+                uri = null;
+            }
+            this.requestUri = uri;
+            this.absolutePath = uriInfo.getAbsolutePath();
+            this.baseUri = uriInfo.getBaseUri();
+            this.path = uriInfo.getPath(true);
+            this.encodedPath = uriInfo.getPath(false);
+            this.pathSegments = copy(uriInfo.getPathSegments(true));
+            this.encodedPathSegments = copy(uriInfo.getPathSegments(false));
+            this.pathParameters = copy(uriInfo.getPathParameters(true));
+            this.encodedPathParameters = copy(uriInfo.getPathParameters(false));
+            this.queryParameters = copy(uriInfo.getQueryParameters(true));
+            this.encodedQueryParameters = copy(uriInfo.getQueryParameters(false));
+            this.matchedURIs = copy(uriInfo.getMatchedURIs(true));
+            this.encodedMatchedURIs = copy(uriInfo.getMatchedURIs(false));
+            this.matchedResources = copy(uriInfo.getMatchedResources());
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public String getPath(boolean decode) {
+            return decode ? path : encodedPath;
+        }
+
+        @Override
+        public List<PathSegment> getPathSegments() {
+            return pathSegments;
+        }
+
+        @Override
+        public List<PathSegment> getPathSegments(boolean decode) {
+            return decode ? pathSegments : encodedPathSegments;
+        }
+
+        @Override
+        public URI getRequestUri() {
+            return requestUri;
+        }
+
+        @Override
+        public UriBuilder getRequestUriBuilder() {
+            return UriBuilder.fromUri(requestUri);
+        }
+
+        @Override
+        public URI getAbsolutePath() {
+            return absolutePath;
+        }
+
+        @Override
+        public UriBuilder getAbsolutePathBuilder() {
+            return UriBuilder.fromUri(absolutePath);
+        }
+
+        @Override
+        public URI getBaseUri() {
+            return baseUri;
+        }
+
+        @Override
+        public UriBuilder getBaseUriBuilder() {
+            return UriBuilder.fromUri(baseUri);
+        }
+
+        @Override
+        public MultivaluedMap<String, String> getPathParameters() {
+            return pathParameters;
+        }
+
+        @Override
+        public MultivaluedMap<String, String> getPathParameters(boolean decode) {
+            return decode ? pathParameters : encodedPathParameters;
+        }
+
+        @Override
+        public MultivaluedMap<String, String> getQueryParameters() {
+            return queryParameters;
+        }
+
+        @Override
+        public MultivaluedMap<String, String> getQueryParameters(boolean decode) {
+            return decode ? queryParameters : encodedQueryParameters;
+        }
+
+        @Override
+        public List<String> getMatchedURIs() {
+            return matchedURIs;
+        }
+
+        @Override
+        public List<String> getMatchedURIs(boolean decode) {
+            return decode ? matchedURIs : encodedMatchedURIs;
+        }
+
+        @Override
+        public List<Object> getMatchedResources() {
+            return matchedResources;
+        }
+
+        @Override
+        public URI resolve(URI uri) {
+            return baseUri.resolve(uri);
+        }
+
+        @Override
+        public URI relativize(URI uri) {
+            return (requestUri != null ? requestUri : absolutePath).relativize(uri.isAbsolute() ? uri : baseUri.resolve(uri));
+        }
+    }
+
+    /**
+     * The security information of the request.
+     */
+    private class CapturedSecurityContext implements SecurityContext {
+        private final SecurityContext securityContext;
+        private final boolean secure;
+        private final String authenticationScheme;
+
+        private CapturedSecurityContext(SecurityContext securityContext) {
+            this.securityContext = securityContext;
+            this.secure = securityContext.isSecure();
+            this.authenticationScheme = securityContext.getAuthenticationScheme();
+        }
+
+        @Override
+        public Principal getUserPrincipal() {
+            return userPrincipal;
+        }
+
+        @Override
+        public boolean isUserInRole(String role) {
+            return onRequestThread() && securityContext.isUserInRole(role);
+        }
+
+        @Override
+        public boolean isSecure() {
+            return secure;
+        }
+
+        @Override
+        public String getAuthenticationScheme() {
+            return authenticationScheme;
+        }
+    }
+
+    private static <T> List<T> copy(List<T> list) {
+        return list != null ? Collections.unmodifiableList(new ArrayList<>(list)) : Collections.<T>emptyList();
+    }
+
+    private static MultivaluedMap<String, String> copy(MultivaluedMap<String, String> map) {
+        MultivaluedMap<String, String> result = new MultivaluedHashMap<>();
+        if (map != null) {
+            for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+                result.addAll(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+}
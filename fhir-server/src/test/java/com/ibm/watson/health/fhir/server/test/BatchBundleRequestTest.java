@@ -0,0 +1,301 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.server.test;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.security.Principal;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.UriInfo;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.config.FHIRConfiguration;
+import com.ibm.watson.health.fhir.model.resource.Bundle;
+import com.ibm.watson.health.fhir.model.resource.OperationOutcome;
+import com.ibm.watson.health.fhir.model.resource.Patient;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.type.BundleType;
+import com.ibm.watson.health.fhir.model.type.HTTPVerb;
+import com.ibm.watson.health.fhir.model.type.HumanName;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.model.type.Instant;
+import com.ibm.watson.health.fhir.model.type.Meta;
+import com.ibm.watson.health.fhir.model.type.String;
+import com.ibm.watson.health.fhir.model.type.Uri;
+import com.ibm.watson.health.fhir.persistence.FHIRPersistence;
+import com.ibm.watson.health.fhir.persistence.FHIRPersistenceTransaction;
+import com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContext;
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
+import com.ibm.watson.health.fhir.persistence.helper.FHIRPersistenceHelper;
+import com.ibm.watson.health.fhir.persistence.helper.PersistenceHelper;
+import com.ibm.watson.health.fhir.persistence.interceptor.FHIRPersistenceEvent;
+import com.ibm.watson.health.fhir.persistence.interceptor.FHIRPersistenceInterceptor;
+import com.ibm.watson.health.fhir.persistence.interceptor.impl.FHIRPersistenceInterceptorMgr;
+import com.ibm.watson.health.fhir.server.resources.FHIRResource;
+import com.ibm.watson.health.fhir.server.util.BatchEntryExecutor;
+
+/**
+ * Processes batch bundles with entries running on worker threads, using request objects which (like the proxies
+ * injected by the JAX-RS runtime) can only be used on the request thread.
+ */
+public class BatchBundleRequestTest {
+    private static final java.lang.String TEST_HEADER = "X-Batch-Test";
+    private static final int ENTRY_COUNT = 4;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(ENTRY_COUNT);
+    private final Map<java.lang.String, java.lang.String> seenHeaders = new ConcurrentHashMap<>();
+    private final Map<java.lang.String, java.lang.String> seenUsers = new ConcurrentHashMap<>();
+    private final Map<java.lang.String, URI> seenBaseUris = new ConcurrentHashMap<>();
+    private final Set<Thread> seenThreads = ConcurrentHashMap.newKeySet();
+    private volatile CountDownLatch concurrentEntries;
+
+    @BeforeClass
+    public void setup() {
+        FHIRConfiguration.setConfigHome("src/test/resources");
+        FHIRPersistenceInterceptorMgr.getInstance().addInterceptor(new FHIRPersistenceInterceptor() {
+            @Override
+            public void beforeCreate(FHIRPersistenceEvent event) {
+                java.lang.String testId = event.getHttpHeaders() != null ? event.getHttpHeaders().getHeaderString(TEST_HEADER) : null;
+                if (testId == null) {
+                    return;
+                }
+                java.lang.String family = ((Patient) event.getFhirResource()).getName().get(0).getFamily().getValue();
+                seenHeaders.put(family, testId);
+                seenUsers.put(family, event.getSecurityContext().getUserPrincipal().getName());
+                seenBaseUris.put(family, event.getUriInfo().getBaseUri());
+                seenThreads.add(Thread.currentThread());
+
+                // hold the entries until two of them run at the same time, so that at least one is on a worker
+                concurrentEntries.countDown();
+                try {
+                    concurrentEntries.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    @AfterClass
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test(groups = { "server-basic" })
+    public void testBatchEntriesUseRequestCopy() throws Exception {
+        concurrentEntries = new CountDownLatch(2);
+        Bundle.Builder builder = Bundle.builder().type(BundleType.BATCH);
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            builder.entry(Bundle.Entry.builder()
+                .resource(Patient.builder().name(HumanName.builder().family(String.of("family" + i)).build()).build())
+                .request(Bundle.Entry.Request.builder().method(HTTPVerb.POST).url(Uri.of("Patient")).build())
+                .build());
+        }
+
+        Thread requestThread = Thread.currentThread();
+        Bundle response = fhirResource(requestThread).doBundle(builder.build(), new HashMap<>());
+
+        assertEquals(ENTRY_COUNT, response.getEntry().size());
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            assertEquals("201", response.getEntry().get(i).getResponse().getStatus().getValue());
+            assertEquals("bundle-1", seenHeaders.get("family" + i));
+            assertEquals("fhiruser", seenUsers.get("family" + i));
+            assertEquals(URI.create("https://localhost:9443/fhir-server/api/v4/"), seenBaseUris.get("family" + i));
+        }
+        seenThreads.remove(requestThread);
+        assertTrue(!seenThreads.isEmpty());
+    }
+
+    /**
+     * Builds a FHIRResource which processes batch entries with up to ENTRY_COUNT threads. Its request objects throw
+     * an exception if they are used on any other thread than the request thread.
+     */
+    private FHIRResource fhirResource(Thread requestThread) throws Exception {
+        FHIRPersistence persistence = new InMemoryPersistence();
+        PersistenceHelper persistenceHelper = new PersistenceHelper() {
+            @Override
+            public FHIRPersistence getFHIRPersistenceImplementation() {
+                return persistence;
+            }
+
+            @Override
+            public FHIRPersistence getFHIRPersistenceImplementation(java.lang.String factoryPropertyName) {
+                return persistence;
+            }
+        };
+        ServletContext servletContext = proxy(ServletContext.class, null, (method, args) ->
+            "getAttribute".equals(method) && FHIRPersistenceHelper.class.getName().equals(args[0]) ? persistenceHelper : null);
+
+        Map<java.lang.String, Object> requestValues = new HashMap<>();
+        requestValues.put("getRequestURL", "https://localhost:9443/fhir-server/api/v4");
+        requestValues.put("getScheme", "https");
+        requestValues.put("getServerName", "localhost");
+        requestValues.put("getServerPort", 9443);
+        requestValues.put("getContextPath", "/fhir-server");
+        requestValues.put("getServletPath", "/api/v4");
+        requestValues.put("getMethod", "POST");
+        HttpServletRequest request = proxy(HttpServletRequest.class, requestThread, (method, args) ->
+            "getRequestURL".equals(method) ? new StringBuffer((java.lang.String) requestValues.get(method)) : requestValues.get(method));
+
+        MultivaluedMap<java.lang.String, java.lang.String> headerValues = new MultivaluedHashMap<>();
+        headerValues.putSingle(TEST_HEADER, "bundle-1");
+        HttpHeaders headers = proxy(HttpHeaders.class, requestThread, (method, args) -> {
+            switch (method) {
+            case "getRequestHeaders":
+                return headerValues;
+            case "getHeaderString":
+                return headerValues.getFirst((java.lang.String) args[0]);
+            default:
+                return null;
+            }
+        });
+        Principal principal = () -> "fhiruser";
+        SecurityContext securityContext = proxy(SecurityContext.class, requestThread, (method, args) ->
+            "getUserPrincipal".equals(method) ? principal : null);
+        UriInfo uriInfo = proxy(UriInfo.class, requestThread, (method, args) ->
+            "getBaseUri".equals(method) ? URI.create("https://localhost:9443/fhir-server/api/v4/") : null);
+
+        FHIRResource fhirResource = new FHIRResource() {
+            @Override
+            protected BatchEntryExecutor getBatchEntryExecutor() {
+                return new BatchEntryExecutor(executor, ENTRY_COUNT);
+            }
+        };
+        setField(fhirResource, "context", servletContext);
+        setField(fhirResource, "httpServletRequest", request);
+        setField(fhirResource, "httpHeaders", headers);
+        setField(fhirResource, "securityContext", securityContext);
+        setField(fhirResource, "uriInfo", uriInfo);
+        return fhirResource;
+    }
+
+    private interface Answer {
+        Object answer(java.lang.String method, Object[] args);
+    }
+
+    /**
+     * @param requestThread
+     *            if not null, the only thread on which the proxy may be used
+     */
+    private static <T> T proxy(Class<T> type, Thread requestThread, Answer answer) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            if (requestThread != null && Thread.currentThread() != requestThread) {
+                throw new IllegalStateException(type.getSimpleName() + "." + method.getName() + " called outside of the request thread");
+            }
+            Object result = answer.answer(method.getName(), args);
+            return result != null ? result : defaultValue(method);
+        }));
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> returnType = method.getReturnType();
+        if (returnType == int.class) {
+            return 0;
+        } else if (returnType == long.class) {
+            return 0L;
+        } else if (returnType == boolean.class) {
+            return false;
+        }
+        return null;
+    }
+
+    private static void setField(Object object, java.lang.String name, Object value) throws Exception {
+        Field field = FHIRResource.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(object, value);
+    }
+
+    /**
+     * A thread-safe in-memory persistence implementation which only supports create and read.
+     */
+    private static class InMemoryPersistence implements FHIRPersistence {
+        private final Map<java.lang.String, Resource> resources = new ConcurrentHashMap<>();
+
+        @Override
+        public Resource create(FHIRPersistenceContext context, Resource resource) {
+            java.lang.String id = UUID.randomUUID().toString();
+            Resource stored = resource.toBuilder()
+                    .id(Id.of(id))
+                    .meta(Meta.builder()
+                        .versionId(Id.of("1"))
+                        .lastUpdated(Instant.of(ZonedDateTime.now(ZoneOffset.UTC)))
+                        .build())
+                    .build();
+            resources.put(id, stored);
+            return stored;
+        }
+
+        @Override
+        public Resource read(FHIRPersistenceContext context, Class<? extends Resource> resourceType, java.lang.String logicalId) {
+            return resources.get(logicalId);
+        }
+
+        @Override
+        public Resource vread(FHIRPersistenceContext context, Class<? extends Resource> resourceType, java.lang.String logicalId,
+            java.lang.String versionId) {
+            return resources.get(logicalId);
+        }
+
+        @Override
+        public Resource update(FHIRPersistenceContext context, java.lang.String logicalId, Resource resource) throws FHIRPersistenceException {
+            throw new FHIRPersistenceException("update is not supported");
+        }
+
+        @Override
+        public List<Resource> history(FHIRPersistenceContext context, Class<? extends Resource> resourceType, java.lang.String logicalId) {
+            Resource resource = resources.get(logicalId);
+            return resource != null ? Collections.singletonList(resource) : Collections.emptyList();
+        }
+
+        @Override
+        public List<Resource> search(FHIRPersistenceContext context, Class<? extends Resource> resourceType) throws FHIRPersistenceException {
+            throw new FHIRPersistenceException("search is not supported");
+        }
+
+        @Override
+        public boolean isTransactional() {
+            return false;
+        }
+
+        @Override
+        public OperationOutcome getHealth() {
+            return null;
+        }
+
+        @Override
+        public FHIRPersistenceTransaction getTransaction() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.server.test;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.server.util.BatchEntryExecutor;
+
+public class BatchEntryExecutorTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterClass
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test(groups = { "server-basic" })
+    public void testAllEntriesProcessed() throws Exception {
+        Map<Integer, String> results = new ConcurrentHashMap<>();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+
+        new BatchEntryExecutor(executor, 3).execute(singletons(50), entryIndex -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            threads.add(Thread.currentThread().getName());
+            Thread.sleep(2);
+            results.put(entryIndex, "entry-" + entryIndex);
+            active.decrementAndGet();
+        });
+
+        assertEquals(50, results.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("entry-" + i, results.get(i));
+        }
+        assertTrue(maxActive.get() <= 3);
+        assertTrue(threads.contains(Thread.currentThread().getName()));
+    }
+
+    @Test(groups = { "server-basic" })
+    public void testGroupProcessedInOrder() throws Exception {
+        List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        List<List<Integer>> groups = Arrays.asList(Arrays.asList(0, 1, 2, 3), Arrays.asList(4), Arrays.asList(5));
+        new BatchEntryExecutor(executor, 4).execute(groups, entryIndex -> {
+            processed.add(entryIndex);
+        });
+
+        assertEquals(6, processed.size());
+        List<Integer> group = new ArrayList<>(processed);
+        group.retainAll(groups.get(0));
+        assertEquals(groups.get(0), group);
+    }
+
+    @Test(groups = { "server-basic" })
+    public void testWorkerHooks() throws Exception {
+        AtomicInteger started = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        new BatchEntryExecutor(executor, 4).execute(singletons(10), new BatchEntryExecutor.EntryProcessor() {
+            @Override
+            public void workerStarted() {
+                started.incrementAndGet();
+            }
+
+            @Override
+            public void process(int entryIndex) {
+            }
+
+            @Override
+            public void workerFinished() {
+                finished.incrementAndGet();
+            }
+        });
+        assertEquals(4, started.get());
+        assertEquals(4, finished.get());
+    }
+
+    @Test(groups = { "server-basic" })
+    public void testSequentialWithoutExecutor() throws Exception {
+        List<Integer> processed = new ArrayList<>();
+        Thread caller = Thread.currentThread();
+        new BatchEntryExecutor(null, 8).execute(singletons(5), entryIndex -> {
+            assertTrue(Thread.currentThread() == caller);
+            processed.add(entryIndex);
+        });
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), processed);
+    }
+
+    @Test(groups = { "server-basic" })
+    public void testFailure() throws Exception {
+        AtomicInteger processed = new AtomicInteger();
+        try {
+            new BatchEntryExecutor(executor, 2).execute(singletons(100), entryIndex -> {
+                if (entryIndex == 10) {
+                    throw new IllegalStateException("entry 10 failed");
+                }
+                processed.incrementAndGet();
+            });
+            fail("expected the failure to be rethrown");
+        } catch (IllegalStateException e) {
+            assertEquals("entry 10 failed", e.getMessage());
+        }
+        // the remaining entries are not picked up after the failure
+        assertTrue(processed.get() < 99);
+    }
+
+    private static List<List<Integer>> singletons(int count) {
+        List<List<Integer>> groups = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            groups.add(Collections.singletonList(i));
+        }
+        return groups;
+    }
+}
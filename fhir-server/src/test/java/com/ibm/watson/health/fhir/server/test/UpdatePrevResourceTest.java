@@ -0,0 +1,236 @@
+/**
+ * (C) Copyright IBM Corp. 2019
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.watson.health.fhir.server.test;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.watson.health.fhir.config.FHIRConfiguration;
+import com.ibm.watson.health.fhir.model.resource.OperationOutcome;
+import com.ibm.watson.health.fhir.model.resource.Patient;
+import com.ibm.watson.health.fhir.model.resource.Resource;
+import com.ibm.watson.health.fhir.model.type.HumanName;
+import com.ibm.watson.health.fhir.model.type.Id;
+import com.ibm.watson.health.fhir.model.type.Instant;
+import com.ibm.watson.health.fhir.model.type.Meta;
+import com.ibm.watson.health.fhir.model.type.String;
+import com.ibm.watson.health.fhir.persistence.FHIRPersistence;
+import com.ibm.watson.health.fhir.persistence.FHIRPersistenceTransaction;
+import com.ibm.watson.health.fhir.persistence.ResourceVersionInfo;
+import com.ibm.watson.health.fhir.persistence.context.FHIRPersistenceContext;
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceException;
+import com.ibm.watson.health.fhir.persistence.exception.FHIRPersistenceResourceDeletedException;
+import com.ibm.watson.health.fhir.persistence.helper.FHIRPersistenceHelper;
+import com.ibm.watson.health.fhir.persistence.helper.PersistenceHelper;
+import com.ibm.watson.health.fhir.persistence.interceptor.FHIRPersistenceEvent;
+import com.ibm.watson.health.fhir.persistence.interceptor.FHIRPersistenceInterceptor;
+import com.ibm.watson.health.fhir.persistence.interceptor.impl.FHIRPersistenceInterceptorMgr;
+import com.ibm.watson.health.fhir.server.resources.FHIRResource;
+
+/**
+ * Checks the "previous resource" which an update passes to the interceptors.
+ */
+public class UpdatePrevResourceTest {
+    private final AtomicReference<Resource> afterUpdatePrevResource = new AtomicReference<>();
+
+    @BeforeClass
+    public void setup() {
+        FHIRConfiguration.setConfigHome("src/test/resources");
+        FHIRPersistenceInterceptorMgr.getInstance().addInterceptor(new FHIRPersistenceInterceptor() {
+            @Override
+            public void afterUpdate(FHIRPersistenceEvent event) {
+                afterUpdatePrevResource.set(event.getPrevFhirResource());
+            }
+        });
+    }
+
+    @Test(groups = { "server-basic" })
+    public void testAfterUpdateSeesPreviousVersion() throws Exception {
+        VersionedPersistence persistence = new VersionedPersistence();
+        persistence.store(patient("1", "Original"));
+
+        FHIRResource fhirResource = fhirResource(persistence);
+        fhirResource.doUpdate("Patient", "1", patient("1", "Updated"), null, null, new HashMap<>());
+
+        Patient prevResource = (Patient) afterUpdatePrevResource.get();
+        assertNotNull(prevResource);
+        assertEquals("1", prevResource.getMeta().getVersionId().getValue());
+        assertEquals("Original", prevResource.getName().get(0).getFamily().getValue());
+        assertEquals("2", persistence.read(null, Patient.class, "1").getMeta().getVersionId().getValue());
+    }
+
+    @Test(groups = { "server-basic" })
+    public void testAfterUpdateOfDeletedResource() throws Exception {
+        VersionedPersistence persistence = new VersionedPersistence();
+        persistence.store(patient("2", "Original"));
+        persistence.storeDeleted(patient("2", "Original"));
+        afterUpdatePrevResource.set(patient("2", "Unset"));
+
+        FHIRResource fhirResource = fhirResource(persistence);
+        fhirResource.doUpdate("Patient", "2", patient("2", "Updated"), null, null, new HashMap<>());
+
+        assertNull(afterUpdatePrevResource.get());
+        assertEquals("3", persistence.read(null, Patient.class, "2").getMeta().getVersionId().getValue());
+    }
+
+    private static Patient patient(java.lang.String id, java.lang.String family) {
+        return Patient.builder()
+                .id(Id.of(id))
+                .name(HumanName.builder().family(String.of(family)).build())
+                .build();
+    }
+
+    /**
+     * Builds a FHIRResource whose servlet context serves the persistence implementation, as it would be injected by
+     * the JAX-RS runtime.
+     */
+    private static FHIRResource fhirResource(FHIRPersistence persistence) throws Exception {
+        PersistenceHelper persistenceHelper = new PersistenceHelper() {
+            @Override
+            public FHIRPersistence getFHIRPersistenceImplementation() {
+                return persistence;
+            }
+
+            @Override
+            public FHIRPersistence getFHIRPersistenceImplementation(java.lang.String factoryPropertyName) {
+                return persistence;
+            }
+        };
+        ServletContext servletContext = proxy(ServletContext.class, (method, args) ->
+            "getAttribute".equals(method) && FHIRPersistenceHelper.class.getName().equals(args[0]) ? persistenceHelper : null);
+        HttpServletRequest request = proxy(HttpServletRequest.class, (method, args) ->
+            "getRequestURL".equals(method) ? new StringBuffer("https://localhost:9443/fhir-server/api/v4/Patient/1") : null);
+
+        FHIRResource fhirResource = new FHIRResource();
+        setField(fhirResource, "context", servletContext);
+        setField(fhirResource, "httpServletRequest", request);
+        return fhirResource;
+    }
+
+    private interface Answer {
+        Object answer(java.lang.String method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Answer answer) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+            (proxy, method, args) -> answer.answer(method.getName(), args)));
+    }
+
+    private static void setField(Object object, java.lang.String name, Object value) throws Exception {
+        Field field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(object, value);
+    }
+
+    /**
+     * An in-memory persistence implementation which keeps every version of a resource. Like the JDBC persistence, a
+     * version which marks a resource as deleted can't be read with vread.
+     */
+    private static class VersionedPersistence implements FHIRPersistence {
+        private final Map<java.lang.String, List<Resource>> versions = new ConcurrentHashMap<>();
+        private final Set<java.lang.String> deletedVersions = new HashSet<>();
+
+        private void storeDeleted(Resource resource) {
+            Resource stored = store(resource);
+            deletedVersions.add(stored.getId().getValue() + "/" + stored.getMeta().getVersionId().getValue());
+        }
+
+        private Resource store(Resource resource) {
+            List<Resource> resourceVersions = versions.computeIfAbsent(resource.getId().getValue(), id -> new ArrayList<>());
+            Resource stored = resource.toBuilder()
+                    .meta(Meta.builder()
+                        .versionId(Id.of(Integer.toString(resourceVersions.size() + 1)))
+                        .lastUpdated(Instant.of(ZonedDateTime.now(ZoneOffset.UTC)))
+                        .build())
+                    .build();
+            resourceVersions.add(stored);
+            return stored;
+        }
+
+        @Override
+        public Resource create(FHIRPersistenceContext context, Resource resource) {
+            return store(resource);
+        }
+
+        @Override
+        public Resource read(FHIRPersistenceContext context, Class<? extends Resource> resourceType, java.lang.String logicalId) {
+            List<Resource> resourceVersions = versions.get(logicalId);
+            return resourceVersions == null ? null : resourceVersions.get(resourceVersions.size() - 1);
+        }
+
+        @Override
+        public Resource vread(FHIRPersistenceContext context, Class<? extends Resource> resourceType, java.lang.String logicalId,
+            java.lang.String versionId) throws FHIRPersistenceException {
+            if (deletedVersions.contains(logicalId + "/" + versionId)) {
+                throw new FHIRPersistenceResourceDeletedException("Resource '" + logicalId + "' version " + versionId + " is deleted.");
+            }
+            List<Resource> resourceVersions = versions.get(logicalId);
+            return resourceVersions == null ? null : resourceVersions.get(Integer.parseInt(versionId) - 1);
+        }
+
+        @Override
+        public ResourceVersionInfo readVersionInfo(FHIRPersistenceContext context, Class<? extends Resource> resourceType, java.lang.String logicalId) {
+            Resource resource = read(context, resourceType, logicalId);
+            if (resource == null) {
+                return null;
+            }
+            java.lang.String versionId = resource.getMeta().getVersionId().getValue();
+            return new ResourceVersionInfo(logicalId, Integer.parseInt(versionId), ResourceVersionInfo.of(resource).getLastUpdated(),
+                deletedVersions.contains(logicalId + "/" + versionId));
+        }
+
+        @Override
+        public Resource update(FHIRPersistenceContext context, java.lang.String logicalId, Resource resource) {
+            return store(resource);
+        }
+
+        @Override
+        public List<Resource> history(FHIRPersistenceContext context, Class<? extends Resource> resourceType, java.lang.String logicalId) {
+            return versions.get(logicalId);
+        }
+
+        @Override
+        public List<Resource> search(FHIRPersistenceContext context, Class<? extends Resource> resourceType) throws FHIRPersistenceException {
+            throw new FHIRPersistenceException("search is not supported");
+        }
+
+        @Override
+        public boolean isTransactional() {
+            return false;
+        }
+
+        @Override
+        public OperationOutcome getHealth() {
+            return null;
+        }
+
+        @Override
+        public FHIRPersistenceTransaction getTransaction() {
+            return null;
+        }
+    }
+}
@@ -37,4 +37,21 @@ public interface ITaskCollector {
      */
     public Collection<ITaskGroup> getFailedTaskGroups();
 
+    /**
+     * Get the number of task groups collected so far
+     * @return
+     */
+    public int getTaskGroupCount();
+
+    /**
+     * Get the longest chain of dependent task groups, in the order they must be
+     * executed. However much concurrency is available, processing the collected
+     * task groups can't take fewer steps than the length of this chain, which
+     * makes it useful for estimating how long a run will take without actually
+     * starting it.
+     * @return
+     * @throws IllegalStateException if the dependencies contain a cycle
+     */
+    public List<ITaskGroup> getCriticalPath();
+
 }
@@ -6,6 +6,7 @@
 
 package com.ibm.watson.health.task.core.impl;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -33,6 +34,9 @@ public class TaskGroup implements ITaskGroup {
     // the set of child tasks we're waiting to be completed before we can start
     private final Set<ITaskGroup> remainingTasks = new HashSet<>();
 
+    // All the child tasks, kept so that the shape of the graph can be inspected
+    private final Set<ITaskGroup> dependencies = new HashSet<>();
+
     // The set of task groups depending on this object
     private final Set<ITaskGroup> parents = new HashSet<>();
 
@@ -119,6 +123,7 @@ public class TaskGroup implements ITaskGroup {
      */
     public void addChildTaskGroups(List<ITaskGroup> children) {
         remainingTasks.addAll(children);
+        dependencies.addAll(children);
 
         // Make sure that each child knows that this is one of their parents
         for (ITaskGroup child: children) {
@@ -126,6 +131,15 @@ public class TaskGroup implements ITaskGroup {
         }
     }
 
+    /**
+     * Get the (immutable) set of task groups which must complete before this
+     * task group can start
+     * @return
+     */
+    public Set<ITaskGroup> getDependencies() {
+        return Collections.unmodifiableSet(this.dependencies);
+    }
+
     /**
      * Submit this task to the thread-pool
      * @param pool
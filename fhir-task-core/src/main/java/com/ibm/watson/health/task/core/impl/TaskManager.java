@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
@@ -48,6 +49,10 @@ public class TaskManager implements ITaskCollector {
     // Keep track of which tasks have failed
     private List<TaskGroup> failedTaskGroups = new ArrayList<>();
 
+    // Progress is reported while waiting for the tasks to complete
+    private int completedCount;
+    private long progressIntervalMillis = 10000;
+
     /**
      * Public constructor 
      * @param pool
@@ -69,6 +74,95 @@ public class TaskManager implements ITaskCollector {
         tg.runTask(pool);
     }
 
+    /**
+     * Set how often progress is logged while waiting for the task groups
+     * to complete. A value of 0 disables progress reporting.
+     * @param progressIntervalMillis
+     */
+    public void setProgressIntervalMillis(long progressIntervalMillis) {
+        this.progressIntervalMillis = progressIntervalMillis;
+    }
+
+    /**
+     * Get the number of task groups which have completed successfully
+     * @return
+     */
+    public int getCompletedCount() {
+        lock.lock();
+        try {
+            return this.completedCount;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getTaskGroupCount() {
+        return this.taskGroupMap.size();
+    }
+
+    @Override
+    public List<ITaskGroup> getCriticalPath() {
+        // The length of the longest chain starting at each task group, computed
+        // depth-first. A null value marks a task group we're still visiting,
+        // which means we've found a cycle if we ever come across it again
+        Map<TaskGroup, Integer> depthMap = new HashMap<>();
+        TaskGroup deepest = null;
+        int maxDepth = 0;
+        for (TaskGroup tg: this.taskGroupMap.values()) {
+            int depth = computeDepth(tg, depthMap);
+            if (depth > maxDepth) {
+                maxDepth = depth;
+                deepest = tg;
+            }
+        }
+
+        // Follow the deepest dependency from the deepest task group down to a leaf. The
+        // leaf is the first to run, so it goes at the front of the list
+        LinkedList<ITaskGroup> result = new LinkedList<>();
+        while (deepest != null) {
+            result.addFirst(deepest);
+            TaskGroup next = null;
+            int nextDepth = 0;
+            for (ITaskGroup child: deepest.getDependencies()) {
+                TaskGroup tg = (TaskGroup)child;
+                int depth = depthMap.get(tg);
+                if (depth > nextDepth) {
+                    nextDepth = depth;
+                    next = tg;
+                }
+            }
+            deepest = next;
+        }
+        return result;
+    }
+
+    /**
+     * Get the length of the longest chain of dependencies starting with the
+     * given task group
+     * @param tg
+     * @param depthMap
+     * @return
+     */
+    private int computeDepth(TaskGroup tg, Map<TaskGroup, Integer> depthMap) {
+        if (depthMap.containsKey(tg)) {
+            Integer depth = depthMap.get(tg);
+            if (depth == null) {
+                throw new IllegalStateException("Dependency cycle detected at taskId: " + tg.getTaskId());
+            }
+            return depth;
+        }
+
+        depthMap.put(tg, null);
+        int maxChildDepth = 0;
+        for (ITaskGroup child: tg.getDependencies()) {
+            maxChildDepth = Math.max(maxChildDepth, computeDepth((TaskGroup)child, depthMap));
+        }
+        depthMap.put(tg, maxChildDepth + 1);
+        return maxChildDepth + 1;
+    }
+
     @Override
     public Collection<ITaskGroup> getFailedTaskGroups() {
         lock.lock();
@@ -123,6 +217,8 @@ public class TaskManager implements ITaskCollector {
      */
     private void waitForCompletion() {
         // block here until all the tasks are processed
+        final int total = this.taskGroupMap.size();
+        long lastProgress = System.currentTimeMillis();
         lock.lock();
         try {
             while (this.currentlyRunningCount > 0) {
@@ -132,6 +228,18 @@ public class TaskManager implements ITaskCollector {
                 catch (InterruptedException x) {
                     throw new IllegalStateException(x);
                 }
+
+                long now = System.currentTimeMillis();
+                if (this.progressIntervalMillis > 0 && now - lastProgress >= this.progressIntervalMillis) {
+                    logger.info("Progress: " + this.completedCount + "/" + total + " task groups complete"
+                            + " [running=" + this.currentlyRunningCount + ", failed=" + this.failedTaskGroups.size() + "]");
+                    lastProgress = now;
+                }
+            }
+
+            if (this.progressIntervalMillis > 0) {
+                logger.info("Finished: " + this.completedCount + "/" + total + " task groups complete"
+                        + " [failed=" + this.failedTaskGroups.size() + "]");
             }
         }
         finally {
@@ -143,10 +251,12 @@ public class TaskManager implements ITaskCollector {
      * Callback from each task group made when it completes
      */
     public void taskComplete(TaskGroup tg) {
-        logger.info("Task complete callback for taskId: " + tg.getTaskId());
+        logger.fine("Task complete callback for taskId: " + tg.getTaskId());
 
         lock.lock();
         try {
+            this.completedCount++;
+
             // when there's nothing left running, alert anyone waiting
             if (--this.currentlyRunningCount == 0) {
                 this.runningCondition.signalAll();
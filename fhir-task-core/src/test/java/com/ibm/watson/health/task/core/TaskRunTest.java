@@ -6,14 +6,21 @@
 
 package com.ibm.watson.health.task.core;
 
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 import org.testng.annotations.Test;
 
 import com.ibm.watson.health.task.api.ITaskCollector;
+import com.ibm.watson.health.task.api.ITaskGroup;
+import com.ibm.watson.health.task.core.impl.TaskManager;
 import com.ibm.watson.health.task.core.service.TaskService;
 
 /**
@@ -78,5 +85,60 @@ public class TaskRunTest {
 		
 		tc.startAndWait();
 	}
-	
+
+	/**
+	 * Check the critical path is the longest chain of dependencies, and
+	 * that progress is tracked as the tasks complete
+	 */
+	@Test
+	public void testCriticalPath() {
+		ExecutorService pool = Executors.newFixedThreadPool(POOL_SIZE);
+		try {
+			Node n0 = new Node("n0");
+			Node n1 = new Node("n1");
+			Node n2 = new Node("n2");
+			Node n3 = new Node("n3");
+			Node n4 = new Node("n4");
+			Node n5 = new Node("n5");
+			n0.addDependencies(n1, n2);
+			n1.addDependencies(n3);
+			n2.addDependencies(n1, n5);
+			n3.addDependencies(n4);
+
+			TaskService svc = new TaskService();
+			TaskManager tc = (TaskManager)svc.makeTaskCollector(pool);
+			n0.collect(tc);
+
+			assertEquals(tc.getTaskGroupCount(), 6);
+			String path = tc.getCriticalPath().stream().map(tg -> tg.getTaskId()).collect(Collectors.joining(","));
+			assertEquals(path, "n4,n3,n1,n2,n0");
+
+			tc.startAndWait();
+			assertEquals(tc.getCompletedCount(), 6);
+			assertTrue(tc.getFailedTaskGroups().isEmpty());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * A cycle in the dependencies can never complete, so must be reported
+	 */
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testCycle() {
+		ExecutorService pool = Executors.newFixedThreadPool(POOL_SIZE);
+		try {
+			TaskService svc = new TaskService();
+			ITaskCollector tc = svc.makeTaskCollector(pool);
+			List<ITaskGroup> none = new ArrayList<>();
+			ITaskGroup a = tc.makeTaskGroup("a", () -> {}, none);
+			ITaskGroup b = tc.makeTaskGroup("b", () -> {}, Collections.singletonList(a));
+			tc.makeTaskGroup("a", null, Collections.singletonList(b));
+			tc.getCriticalPath();
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
 }
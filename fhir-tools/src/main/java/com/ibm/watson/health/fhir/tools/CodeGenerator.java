@@ -111,6 +111,10 @@ public class CodeGenerator {
         "Dosage");
     private static final List<String> PROFILED_TYPES = Arrays.asList("SimpleQuantity", "MoneyQuantity");
     private static final List<String> MODEL_CHECKED_CONSTRAINTS = Arrays.asList("ele-1", "sqty-1");
+    // the parse methods which build Code and Uri values (parseString also builds Code)
+    private static final List<String> INTERNED_TYPES = Arrays.asList("String", "Uri");
+    // the primitive types whose values may be interned; free text and ids are never interned
+    private static final List<String> INTERNED_PRIMITIVE_TYPES = Arrays.asList("Code", "Uri");
     private static final List<String> HEADER = readHeader();
     
     public CodeGenerator(Map<String, JsonObject> structureDefinitionMap, Map<String, JsonObject> codeSystemMap, Map<String, JsonObject> valueSetMap) {
@@ -122,6 +126,19 @@ public class CodeGenerator {
     private boolean isProfiledType(String className) {
         return PROFILED_TYPES.contains(className);
     }
+    
+    private boolean isInternedType(String className) {
+        return INTERNED_TYPES.contains(className);
+    }
+    
+    private boolean isInternedPrimitiveType(String className) {
+        return INTERNED_PRIMITIVE_TYPES.contains(className);
+    }
+    
+    private String buildValue(String className) {
+        String build = className + ".builder().value(value).build()";
+        return isInternedPrimitiveType(className) ? "InterningSupport.intern(" + build + ")" : build;
+    }
 
     private static List<String> readHeader() {
         try {
@@ -902,6 +919,10 @@ public class CodeGenerator {
             if (!isAbstract(structureDefinition)) {
                 cb.field(mods("private", "volatile"), "int", "hashCode").newLine();
             }
+            
+            if ("Resource".equals(className) && !nested) {
+                cb.field(mods("private", "volatile"), "JsonCache", "jsonCache").newLine();
+            }
                         
             cb.constructor(mods(visibility), className, args("Builder builder"));
             if ((!"Resource".equals(className) && !"Element".equals(className)) || nested) {
@@ -1326,19 +1347,19 @@ public class CodeGenerator {
         if (isString(structureDefinition) || isStringSubtype(structureDefinition) || 
                 isUri(structureDefinition) || isUriSubtype(structureDefinition)) {
             cb.method(mods("public", "static"), className, "of", params("java.lang.String value"))
-                ._return(className + ".builder().value(value).build()")
+                ._return(buildValue(className))
             .end().newLine();
         }
         
         if (isString(structureDefinition) || isStringSubtype(structureDefinition)) {
             cb.method(mods("public", "static"), "String", "string", params("java.lang.String value"))
-                ._return(className + ".builder().value(value).build()")
+                ._return(buildValue(className))
             .end().newLine();
         }
         
         if (isUri(structureDefinition) || isUriSubtype(structureDefinition)) {
             cb.method(mods("public", "static"), "Uri", "uri", params("java.lang.String value"))
-                ._return(className + ".builder().value(value).build()")
+                ._return(buildValue(className))
             .end().newLine();
         }
         
@@ -1350,7 +1371,7 @@ public class CodeGenerator {
         
         if (isCode(structureDefinition)) {
             cb.method(mods("public", "static"), "Code", "code", params("java.lang.String value"))
-                ._return("Code.builder().value(value).build()")
+                ._return(buildValue("Code"))
             .end().newLine();
         }
         
@@ -1379,6 +1400,9 @@ public class CodeGenerator {
         if ("Resource".equals(name) || "Element".equals(name)) {
             imports.add("com.ibm.watson.health.fhir.model.visitor.AbstractVisitable");
         }
+        if ("Resource".equals(name)) {
+            imports.add("com.ibm.watson.health.fhir.model.generator.JsonCache");
+        }
         if (!isAbstract(structureDefinition) && !isPrimitiveSubtype(structureDefinition)) {
             imports.add("com.ibm.watson.health.fhir.model.visitor.Visitor");
         }
@@ -1498,6 +1522,9 @@ public class CodeGenerator {
             if (isString(structureDefinition) || isUri(structureDefinition) || isStringSubtype(structureDefinition) || isUriSubtype(structureDefinition)) {
                 imports.add("java.util.regex.Pattern");
             }
+            if (isInternedPrimitiveType(titleCase(name))) {
+                imports.add("com.ibm.watson.health.fhir.model.util.InterningSupport");
+            }
         }
         
         if ((!isResource(structureDefinition) && 
@@ -1568,6 +1595,23 @@ public class CodeGenerator {
             cb.method(mods("public"), "<T extends Resource> T", "as", params("Class<T> resourceType"))
                 ._return("resourceType.cast(this)")
             .end().newLine();
+            
+            cb.javadocStart()
+                .javadoc("The memo which holds the compact JSON form of this resource once a generator has cached it. Only the ")
+                .javadoc("generator can fill it in; because resources are immutable, the cached form remains valid for the lifetime of ")
+                .javadoc("this instance. The memo is allocated on first use, so resources which are never generated with JSON caching ")
+                .javadoc("enabled don't carry one.")
+                .javadoc("")
+                .javadocReturn("The JSON cache of this resource")
+            .javadocEnd();
+            cb.method(mods("public"), "JsonCache", "getJsonCache")
+                .assign("JsonCache result", "jsonCache")
+                ._if("result == null")
+                    .assign("result", "new JsonCache()")
+                    .assign("jsonCache", "result")
+                .end()
+                ._return("result")
+            .end().newLine();
         }
         if ("Element".equals(name)) {
             cb.method(mods("public"), "<T extends Element> boolean", "is", params("Class<T> elementType"))
@@ -1672,6 +1716,7 @@ public class CodeGenerator {
         cb.lines(HEADER).newLine();
         cb._package(packageName).newLine();
         
+        cb._importstatic("com.ibm.watson.health.fhir.model.util.InterningSupport", "intern");
         cb._importstatic("com.ibm.watson.health.fhir.model.util.XMLSupport", "FHIR_NS_URI");
         cb._importstatic("com.ibm.watson.health.fhir.model.util.XMLSupport", "XHTML_NS_URI");
         cb._importstatic("com.ibm.watson.health.fhir.model.util.XMLSupport", "checkElementOrder");
@@ -1684,8 +1729,6 @@ public class CodeGenerator {
         
         cb._import("java.io.InputStream");
         cb._import("java.io.Reader");
-        cb._import("java.util.Stack");
-        cb._import("java.util.StringJoiner");
         
         cb.newLine();
         
@@ -1710,10 +1753,6 @@ public class CodeGenerator {
         
         cb.newLine();
         
-        cb.field(mods("private", "final"), "Stack<java.lang.String>", "stack", _new("Stack<>"));
-        
-        cb.newLine();
-        
         cb.constructor(mods(), "FHIRXMLParser");
         cb.comment("only visible to subclasses or classes/interfaces in the same package (e.g. FHIRParser)");
         cb.end();
@@ -1724,6 +1763,8 @@ public class CodeGenerator {
         cb.annotation("SuppressWarnings", quote("unchecked"));
         cb.override();
         cb.method(mods("public"), "<T extends Resource> T", "parse", params("InputStream in"), throwsExceptions("FHIRParserException"))
+            .assign("ParsingContext context", "ParsingContext.current()")
+            .assign("int mark", "context.mark()")
             ._try("StreamReaderDelegate delegate = createStreamReaderDelegate(in)")
                 ._while("delegate.hasNext()")
                     .assign("int eventType", "delegate.next()")
@@ -1736,6 +1777,8 @@ public class CodeGenerator {
                 ._throw(_new("XMLStreamException", args(quote("Unexpected end of stream"))))
             ._catch("Exception e")
                 ._throw(_new("FHIRParserException", args("e.getMessage()", "getPath()", "e")))
+            ._finally()
+                .invoke("context", "reset", args("mark"))
             ._end()
         .end();
         
@@ -1745,6 +1788,8 @@ public class CodeGenerator {
         cb.annotation("SuppressWarnings", quote("unchecked"));
         cb.override();
         cb.method(mods("public"), "<T extends Resource> T", "parse", params("Reader reader"), throwsExceptions("FHIRParserException"))
+            .assign("ParsingContext context", "ParsingContext.current()")
+            .assign("int mark", "context.mark()")
             ._try("StreamReaderDelegate delegate = createStreamReaderDelegate(reader)")
                 ._while("delegate.hasNext()")
                     .assign("int eventType", "delegate.next()")
@@ -1757,6 +1802,8 @@ public class CodeGenerator {
                 ._throw(_new("XMLStreamException", args(quote("Unexpected end of stream"))))
             ._catch("Exception e")
                 ._throw(_new("FHIRParserException", args("e.getMessage()", "getPath()", "e")))
+            ._finally()
+                .invoke("context", "reset", args("mark"))
             ._end()
         .end();
         
@@ -1764,7 +1811,7 @@ public class CodeGenerator {
         
         cb.override();
         cb.method(mods("public"), "void", "reset")
-            .invoke("stack", "clear", args())
+            .comment("do nothing (parsing state is kept in a per-thread ParsingContext)")
         .end();
         
         cb.newLine();
@@ -1796,26 +1843,19 @@ public class CodeGenerator {
         }
         
         cb.method(mods("private"), "void", "stackPush", params("java.lang.String elementName", "int elementIndex"))
-            ._if("elementIndex != -1")
-                .invoke("stack", "push", args("elementName + \"[\" + elementIndex + \"]\""))
-            ._else()
-                .invoke("stack", "push", args("elementName"))
-            ._end()
+            .assign("ParsingContext context", "ParsingContext.current()")
+            .invoke("context", "push", args("elementName", "elementIndex"))
             ._if("DEBUG")
-                .invoke("System.out", "println", args("getPath()"))
+                .invoke("System.out", "println", args("context.getPath()"))
             ._end()
         .end().newLine();
         
         cb.method(mods("private"), "void", "stackPop")
-            .invoke("stack", "pop", args())
+            .invoke("ParsingContext.current()", "pop", args())
         .end().newLine();
                 
         cb.method(mods("private"), "java.lang.String", "getPath")
-            .assign("StringJoiner joiner", "new StringJoiner(\".\")")
-            ._foreach("java.lang.String s", "stack")
-                .invoke("joiner", "add", args("s"))
-            ._end()
-            ._return("joiner.toString()")
+            ._return("ParsingContext.current().getPath()")
         .end().newLine();
         
         cb.method(mods("private"), "java.lang.String", "getResourceType", params("XMLStreamReader reader"), throwsExceptions("XMLStreamException"))
@@ -1988,7 +2028,7 @@ public class CodeGenerator {
         cb._case("XMLStreamReader.END_ELEMENT")
             ._if("reader.getLocalName().equals(elementName)")
                 .invoke("stackPop", args())
-                ._return("builder.build()")
+                ._return(isInternedType(generatedClassName) ? "intern(builder.build())" : "builder.build()")
             ._end()
             ._break();
         
@@ -2034,6 +2074,77 @@ public class CodeGenerator {
         }
     }
 
+    private void generateParseElementMethods(CodeBuilder cb) {
+        cb.javadocStart()
+            .javadoc("Parse a single element (or resource) of the specified model type from a JSON value, e.g. the value of a JSON Patch ")
+            .javadoc("operation, without parsing the resource that contains it.")
+            .javadoc("")
+            .javadocParam("type", "the model type of the element")
+            .javadocParam("elementName", "the name of the element")
+            .javadocParam("jsonValue", "the JSON value of the element")
+            .javadocParam("_jsonValue", "the JSON value of the \"_\" (id and extension) member that goes with a primitive element, or null")
+            .javadocReturn("the parsed element or null if both JSON values are null")
+            .javadocThrows("FHIRParserException", "if the JSON value(s) could not be parsed into an element of the specified type")
+        .javadocEnd();
+        cb.method(mods("public"), "<T extends Visitable> T", "parse", params("Class<T> type", "java.lang.String elementName", "JsonValue jsonValue", "JsonValue _jsonValue"), throwsExceptions("FHIRParserException"))
+            .assign("ParsingContext context", "ParsingContext.current()")
+            .assign("int mark", "context.mark()")
+            ._try()
+                ._if("Resource.class.isAssignableFrom(type)")
+                    ._return("type.cast(parseResource(elementName, (JsonObject) jsonValue, -1))")
+                ._end()
+                ._return("type.cast(getParseMethodHandle(type).invoke(this, elementName, jsonValue, _jsonValue))")
+            ._catch("Throwable t")
+                ._throw("new FHIRParserException(t.getMessage(), getPath(), t)")
+            ._finally()
+                .invoke("context", "reset", args("mark"))
+            ._end()
+        .end().newLine();
+        
+        cb.method(mods("private", "static"), "MethodHandle", "getParseMethodHandle", params("Class<?> type"))
+            ._return("PARSE_METHOD_HANDLE_MAP.computeIfAbsent(type, FHIRJsonParser::findParseMethodHandle)")
+        .end().newLine();
+        
+        cb.javadoc("Adapt the generated parse method for the specified type to (FHIRJsonParser, java.lang.String, JsonValue, JsonValue)Object");
+        cb.method(mods("private", "static"), "MethodHandle", "findParseMethodHandle", params("Class<?> type"))
+            ._try()
+                .assign("MethodHandles.Lookup lookup", "MethodHandles.lookup()")
+                .assign("boolean primitive", "ModelSupport.isPrimitiveType(type)")
+                .newLine()
+                .comment("profiled types and primitive type specializations (e.g. SimpleQuantity and Code) are parsed by the method for their base type")
+                .assign("Class<?> baseType", "ModelSupport.getConcreteType(type)")
+                ._while("primitive && ModelSupport.isPrimitiveType(baseType.getSuperclass())")
+                    .assign("baseType", "baseType.getSuperclass()")
+                ._end()
+                .newLine()
+                .assign("java.lang.String methodName", "\"parse\" + type.getName().substring(type.getPackage().getName().length() + 1).replace(\"$\", \"\")")
+                .assign("MethodType methodType", "primitive ? \n" + 
+                        "                    MethodType.methodType(baseType, java.lang.String.class, JsonValue.class, JsonValue.class, int.class) : \n" + 
+                        "                    MethodType.methodType(baseType, java.lang.String.class, JsonObject.class, int.class)")
+                .newLine()
+                .decl("MethodHandle", "methodHandle")
+                ._if("baseType.equals(type)")
+                    .assign("methodHandle", "lookup.findVirtual(FHIRJsonParser.class, methodName, methodType)")
+                ._else()
+                    .assign("Class<?> builderType", "Class.forName(baseType.getName() + \"$Builder\")")
+                    .assign("methodName", "\"parse\" + baseType.getSimpleName()")
+                    .assign("methodHandle", "lookup.findVirtual(FHIRJsonParser.class, methodName, methodType.insertParameterTypes(0, builderType))")
+                    .comment("a new builder is created (via the static builder() method of the type) for each invocation")
+                    .assign("MethodHandle builderMethodHandle", "lookup.findStatic(type, \"builder\", MethodType.methodType(Class.forName(type.getName() + \"$Builder\")))")
+                    .assign("methodHandle", "MethodHandles.collectArguments(methodHandle, 1, builderMethodHandle.asType(MethodType.methodType(builderType)))")
+                ._end()
+                .newLine()
+                .assign("methodHandle", "MethodHandles.insertArguments(methodHandle, primitive ? 4 : 3, -1)")
+                ._if("!primitive")
+                    .assign("methodHandle", "MethodHandles.dropArguments(methodHandle, 3, JsonValue.class)")
+                ._end()
+                ._return("methodHandle.asType(MethodType.methodType(Object.class, FHIRJsonParser.class, java.lang.String.class, JsonValue.class, JsonValue.class))")
+            ._catch("ReflectiveOperationException e")
+                ._throw("new IllegalArgumentException(\"Unsupported element type: \" + type.getName(), e)")
+            ._end()
+        .end().newLine();
+    }
+    
     private void generateJsonParser(String basePath) {
         CodeBuilder cb = new CodeBuilder();
         
@@ -2041,6 +2152,7 @@ public class CodeGenerator {
         cb.lines(HEADER).newLine();
         cb._package(packageName).newLine();
         
+        cb._importstatic("com.ibm.watson.health.fhir.model.util.InterningSupport", "intern");
         cb._importstatic("com.ibm.watson.health.fhir.model.util.JsonSupport", "checkForUnrecognizedElements");
         cb._importstatic("com.ibm.watson.health.fhir.model.util.JsonSupport", "getJsonArray");
         cb._importstatic("com.ibm.watson.health.fhir.model.util.JsonSupport", "getJsonValue");
@@ -2053,10 +2165,13 @@ public class CodeGenerator {
         
         cb._import("java.io.InputStream");
         cb._import("java.io.Reader");
+        cb._import("java.lang.invoke.MethodHandle");
+        cb._import("java.lang.invoke.MethodHandles");
+        cb._import("java.lang.invoke.MethodType");
         cb._import("java.nio.charset.StandardCharsets");
         cb._import("java.util.Collection");
-        cb._import("java.util.Stack");
-        cb._import("java.util.StringJoiner");
+        cb._import("java.util.Map");
+        cb._import("java.util.concurrent.ConcurrentHashMap");
         
         cb.newLine();
         
@@ -2079,16 +2194,15 @@ public class CodeGenerator {
         cb._import("com.ibm.watson.health.fhir.model.type.Integer");
         cb._import("com.ibm.watson.health.fhir.model.type.String");
         cb._import("com.ibm.watson.health.fhir.model.util.ElementFilter");
+        cb._import("com.ibm.watson.health.fhir.model.util.ModelSupport");
+        cb._import("com.ibm.watson.health.fhir.model.visitor.Visitable");
         
         cb.newLine();
         
         cb._class(mods("public"), "FHIRJsonParser", null, implementsInterfaces("FHIRParser"));
         cb.field(mods("public", "static"), "boolean", "DEBUG", "false");
         cb.field(mods("private", "static", "final"), "JsonReaderFactory", "JSON_READER_FACTORY", "Json.createReaderFactory(null)");
-        
-        cb.newLine();
-        
-        cb.field(mods("private", "final"), "Stack<java.lang.String>", "stack", _new("Stack<>"));
+        cb.field(mods("private", "static", "final"), "Map<Class<?>, MethodHandle>", "PARSE_METHOD_HANDLE_MAP", "new ConcurrentHashMap<>()");
         
         cb.newLine();
         
@@ -2111,6 +2225,8 @@ public class CodeGenerator {
             ._try("JsonReader jsonReader = JSON_READER_FACTORY.createReader(nonClosingInputStream(in), StandardCharsets.UTF_8)")
                 .assign("JsonObject jsonObject", "jsonReader.readObject()")
                 ._return("parseAndFilter(jsonObject, elementsToInclude)")
+            ._catch("FHIRParserException e")
+                ._throw("e")
             ._catch("Exception e")
                 ._throw("new FHIRParserException(e.getMessage(), getPath(), e)")
             ._end()
@@ -2131,6 +2247,8 @@ public class CodeGenerator {
             ._try("JsonReader jsonReader = JSON_READER_FACTORY.createReader(nonClosingReader(reader))")
                 .assign("JsonObject jsonObject", "jsonReader.readObject()")
                 ._return("parseAndFilter(jsonObject, elementsToInclude)")
+            ._catch("FHIRParserException e")
+                ._throw("e")
             ._catch("Exception e")
                 ._throw("new FHIRParserException(e.getMessage(), getPath(), e)")
             ._end()
@@ -2147,8 +2265,9 @@ public class CodeGenerator {
         // public <T extends Resource> T parseAndFilter(JsonObject jsonObject, java.util.List<java.lang.String> elementsToInclude)
         cb.annotation("SuppressWarnings", quote("unchecked"));
         cb.method(mods("public"), "<T extends Resource> T", "parseAndFilter", params("JsonObject jsonObject", "Collection<java.lang.String> elementsToInclude"), throwsExceptions("FHIRParserException"))
+            .assign("ParsingContext context", "ParsingContext.current()")
+            .assign("int mark", "context.mark()")
             ._try()
-                .invoke("reset", args())
                 .assign("Class<?> resourceType", "getResourceType(jsonObject)")
                 ._if("elementsToInclude != null")
                     .assign("ElementFilter elementFilter", "new ElementFilter(resourceType, elementsToInclude)")
@@ -2157,6 +2276,8 @@ public class CodeGenerator {
                 ._return("(T) parseResource(resourceType.getSimpleName(), jsonObject, -1)")
             ._catch("Exception e")
                 ._throw("new FHIRParserException(e.getMessage(), getPath(), e)")
+            ._finally()
+                .invoke("context", "reset", args("mark"))
             ._end()
         .end();
         
@@ -2164,11 +2285,13 @@ public class CodeGenerator {
         
         cb.override();
         cb.method(mods("public"), "void", "reset")
-            .invoke("stack", "clear", args())
+            .comment("do nothing (parsing state is kept in a per-thread ParsingContext)")
         .end();
         
         cb.newLine();
         
+        generateParseElementMethods(cb);
+        
         cb.method(mods("private"), "Resource", "parseResource", params("java.lang.String elementName", "JsonObject jsonObject", "int elementIndex"));
         cb._if("jsonObject == null");
         cb._return("null");
@@ -2200,28 +2323,21 @@ public class CodeGenerator {
         }
         
         cb.method(mods("private"), "void", "stackPush", params("java.lang.String elementName", "int elementIndex"))
-            ._if("elementIndex != -1")
-                .invoke("stack", "push", args("elementName + \"[\" + elementIndex + \"]\""))
-            ._else()
-                .invoke("stack", "push", args("elementName"))
-            ._end()
+            .assign("ParsingContext context", "ParsingContext.current()")
+            .invoke("context", "push", args("elementName", "elementIndex"))
             ._if("DEBUG")
-                .invoke("System.out", "println", args("getPath()"))
+                .invoke("System.out", "println", args("context.getPath()"))
             ._end()
         .end().newLine();
         
         cb.method(mods("private"), "void", "stackPop")
-            .invoke("stack", "pop", args())
+            .invoke("ParsingContext.current()", "pop", args())
         .end().newLine();
         
         generateParseChoiceElementMethod(cb);
         
         cb.method(mods("private"), "java.lang.String", "getPath")
-            .assign("StringJoiner joiner", "new StringJoiner(\".\")")
-            ._foreach("java.lang.String s", "stack")
-                .invoke("joiner", "add", args("s"))
-            ._end()
-            ._return("joiner.toString()")
+            ._return("ParsingContext.current().getPath()")
         .end().newLine();
         
         cb.method(mods("private"), "java.lang.String", "parseJavaString", params("java.lang.String elementName", "JsonString jsonString", "int elementIndex"))
@@ -2412,7 +2528,7 @@ public class CodeGenerator {
         
         if (!isAbstract(structureDefinition)) {
             cb.invoke("stackPop", args());
-            cb._return("builder.build()");
+            cb._return(isInternedType(generatedClassName) ? "intern(builder.build())" : "builder.build()");
         }
         
         cb.end().newLine();
@@ -2486,7 +2602,7 @@ public class CodeGenerator {
         }
         
         cb.invoke("stackPop", args());
-        cb._return("builder.build()");
+        cb._return(isInternedType(generatedClassName) ? "intern(builder.build())" : "builder.build()");
         cb.end().newLine();
         
         if ("String".equals(generatedClassName) || "Uri".equals(generatedClassName) || "Integer".equals(generatedClassName)) {